@@ -87,6 +87,7 @@ public final class CommonI18n {
     public static I18n pathIsNotRelative;
     public static I18n requiredToSuppliedParameterMismatch;
     public static I18n unableToAccessResourceFileFromClassLoader;
+    public static I18n unableToTransferAllContent;
 
     // TokenStream
     public static I18n noMoreContent;
@@ -0,0 +1,532 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.common.collection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+
+/**
+ * A thread-safe cache that is bounded by the number of entries and/or by the total estimated weight of its entries, and that
+ * evicts the least-recently-used entries when either bound is exceeded.
+ * <p>
+ * The cache is split into a number of segments, each of which holds a proportional share of the total capacity. Each segment
+ * keeps its entries in a {@link ConcurrentHashMap}, so {@link #get(Object) lookups} never take a lock. When the cache is bounded,
+ * each lookup that finds an entry records the access in a small buffer, and these accesses are replayed into the segment's
+ * access-ordered {@link LinkedHashMap} (which determines the eviction order) only while the segment's lock is held to add or
+ * remove entries, or when enough accesses have been buffered and the lock is free. The eviction order within each segment is
+ * thus LRU as of the last replay, and the eviction order across the whole cache is an approximation of LRU, which is sufficient
+ * for caches whose entries can always be recomputed.
+ * </p>
+ * <p>
+ * A limit that is zero or negative is treated as no limit; a cache with neither limit never evicts entries and does not record
+ * the accesses at all, though it still records hit and miss counts.
+ * </p>
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+@ThreadSafe
+public class ConcurrentLruCache<K, V> {
+
+    /**
+     * A component that estimates the weight (e.g., the size in bytes) of a cache entry.
+     *
+     * @param <K> the type of key
+     * @param <V> the type of value
+     */
+    public static interface Weigher<K, V> {
+        /**
+         * Estimate the weight of the supplied entry. This is called once when the entry is added to the cache.
+         *
+         * @param key the key; never null
+         * @param value the value; never null
+         * @return the weight of the entry; should not be negative
+         */
+        long weigh( K key,
+                    V value );
+    }
+
+    /**
+     * A component that determines whether a cache entry should be {@link ConcurrentLruCache#removeAll(EntryFilter) removed}.
+     *
+     * @param <K> the type of key
+     * @param <V> the type of value
+     */
+    public static interface EntryFilter<K, V> {
+        /**
+         * Determine whether the supplied entry matches this filter.
+         *
+         * @param key the key; never null
+         * @param value the value; never null
+         * @return true if the entry matches, or false otherwise
+         */
+        boolean matches( K key,
+                         V value );
+    }
+
+    /**
+     * The default number of segments used when the cache is large enough.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long maxEntries;
+    private final long maxWeight;
+    private final Weigher<K, V> weigher;
+
+    /**
+     * Create a cache bounded only by the number of entries.
+     *
+     * @param maxEntries the maximum number of entries, or zero or a negative value if the number of entries is not bounded
+     */
+    public ConcurrentLruCache( long maxEntries ) {
+        this(maxEntries, 0L, null, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Create a cache bounded by the number of entries and/or the total weight of the entries.
+     *
+     * @param maxEntries the maximum number of entries, or zero or a negative value if the number of entries is not bounded
+     * @param maxWeight the maximum total weight of all entries, or zero or a negative value if the total weight is not bounded
+     * @param weigher the component used to compute the weight of each entry; may be null only if the weight is not bounded
+     */
+    public ConcurrentLruCache( long maxEntries,
+                               long maxWeight,
+                               Weigher<K, V> weigher ) {
+        this(maxEntries, maxWeight, weigher, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Create a cache bounded by the number of entries and/or the total weight of the entries.
+     *
+     * @param maxEntries the maximum number of entries, or zero or a negative value if the number of entries is not bounded
+     * @param maxWeight the maximum total weight of all entries, or zero or a negative value if the total weight is not bounded
+     * @param weigher the component used to compute the weight of each entry; may be null only if the weight is not bounded
+     * @param concurrencyLevel the estimated number of concurrently updating threads; must be positive
+     */
+    @SuppressWarnings( "unchecked" )
+    public ConcurrentLruCache( long maxEntries,
+                               long maxWeight,
+                               Weigher<K, V> weigher,
+                               int concurrencyLevel ) {
+        CheckArg.isPositive(concurrencyLevel, "concurrencyLevel");
+        if (maxWeight > 0L) CheckArg.isNotNull(weigher, "weigher");
+        this.maxEntries = maxEntries > 0L ? maxEntries : 0L;
+        this.maxWeight = maxWeight > 0L ? maxWeight : 0L;
+        this.weigher = this.maxWeight > 0L ? weigher : null;
+
+        // Use a power of two number of segments, but never more segments than allowed entries ...
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && (this.maxEntries == 0L || segmentCount * 2 <= this.maxEntries)) {
+            segmentCount <<= 1;
+        }
+        this.segmentMask = segmentCount - 1;
+        this.segments = new Segment[segmentCount];
+        long entriesPerSegment = this.maxEntries == 0L ? 0L : divideRoundingUp(this.maxEntries, segmentCount);
+        long weightPerSegment = this.maxWeight == 0L ? 0L : divideRoundingUp(this.maxWeight, segmentCount);
+        for (int i = 0; i != segmentCount; ++i) {
+            this.segments[i] = new Segment<K, V>(entriesPerSegment, weightPerSegment);
+        }
+    }
+
+    private static long divideRoundingUp( long value,
+                                          int divisor ) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    protected final Segment<K, V> segmentFor( Object key ) {
+        // Spread the bits of the hash code, since the segment is selected using only the low-order bits ...
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Get the value for the supplied key, marking the entry as most recently used.
+     *
+     * @param key the key; may not be null
+     * @return the value, or null if there is no entry for the key
+     */
+    public V get( K key ) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Place the supplied entry into the cache, replacing any existing value and possibly evicting other entries.
+     *
+     * @param key the key; may not be null
+     * @param value the value; may not be null
+     * @return the value that was replaced, or null if there was no entry for the key
+     */
+    public V put( K key,
+                  V value ) {
+        long weight = weigher != null ? weigher.weigh(key, value) : 0L;
+        return segmentFor(key).put(key, value, weight, false);
+    }
+
+    /**
+     * Place the supplied entry into the cache only if there is not already an entry for the key, possibly evicting other entries.
+     *
+     * @param key the key; may not be null
+     * @param value the value; may not be null
+     * @return the existing value, or null if the supplied value was added to the cache
+     */
+    public V putIfAbsent( K key,
+                          V value ) {
+        long weight = weigher != null ? weigher.weigh(key, value) : 0L;
+        return segmentFor(key).put(key, value, weight, true);
+    }
+
+    /**
+     * Remove the entry for the supplied key.
+     *
+     * @param key the key; may not be null
+     * @return the value that was removed, or null if there was no entry for the key
+     */
+    public V remove( Object key ) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Remove all of the entries that match the supplied filter. Each segment is locked only while its own entries are examined, so
+     * entries added to other segments during this call may or may not be examined.
+     *
+     * @param filter the filter that determines which entries are to be removed; may not be null
+     * @return the number of entries that were removed
+     */
+    public long removeAll( EntryFilter<K, V> filter ) {
+        CheckArg.isNotNull(filter, "filter");
+        long result = 0L;
+        for (Segment<K, V> segment : segments) {
+            result += segment.removeAll(filter);
+        }
+        return result;
+    }
+
+    /**
+     * Remove all entries from this cache. The hit, miss and eviction counts are not reset.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Get the number of entries in this cache.
+     *
+     * @return the number of entries
+     */
+    public long size() {
+        long result = 0L;
+        for (Segment<K, V> segment : segments) {
+            result += segment.size();
+        }
+        return result;
+    }
+
+    /**
+     * Get the total weight of the entries in this cache. This is always 0 if the cache is not bounded by weight.
+     *
+     * @return the total weight
+     */
+    public long weight() {
+        long result = 0L;
+        for (Segment<K, V> segment : segments) {
+            result += segment.weight();
+        }
+        return result;
+    }
+
+    /**
+     * Get the maximum number of entries in this cache.
+     *
+     * @return the maximum number of entries, or 0 if the number of entries is not bounded
+     */
+    public long getMaximumEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Get the maximum total weight of the entries in this cache.
+     *
+     * @return the maximum weight, or 0 if the weight is not bounded
+     */
+    public long getMaximumWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Get the number of {@link #get(Object) lookups} that found an entry.
+     *
+     * @return the cumulative number of hits
+     */
+    public long getHitCount() {
+        long result = 0L;
+        for (Segment<K, V> segment : segments) {
+            result += segment.hits.get();
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of {@link #get(Object) lookups} that did not find an entry.
+     *
+     * @return the cumulative number of misses
+     */
+    public long getMissCount() {
+        long result = 0L;
+        for (Segment<K, V> segment : segments) {
+            result += segment.misses.get();
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of entries that were evicted to keep this cache within its bounds. Entries that were explicitly
+     * {@link #remove(Object) removed} or {@link #clear() cleared} are not included.
+     *
+     * @return the cumulative number of evictions
+     */
+    public long getEvictionCount() {
+        long result = 0L;
+        for (Segment<K, V> segment : segments) {
+            result += segment.evictions;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentLruCache (size=" + size() + ", maxEntries=" + maxEntries + ", maxWeight=" + maxWeight + ")";
+    }
+
+    protected static final class Entry<V> {
+        protected final V value;
+        protected final long weight;
+
+        protected Entry( V value,
+                         long weight ) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A portion of the cache. The entries are in a concurrent map that is read without locking, while all changes to the entries
+     * (and to the eviction order, if the segment is bounded) are made while holding the lock.
+     *
+     * @param <K> the type of key
+     * @param <V> the type of value
+     */
+    @SuppressWarnings( "serial" )
+    protected static final class Segment<K, V> extends ReentrantLock {
+        /**
+         * The number of buffered accesses at which a lookup tries to replay them, if the lock is free.
+         */
+        private static final int DRAIN_THRESHOLD = 64;
+        /**
+         * The maximum number of buffered accesses; further accesses are not recorded until the buffer is replayed.
+         */
+        private static final int MAX_BUFFERED_ACCESSES = 1024;
+
+        private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+        /**
+         * The keys in the order in which they are evicted, or null if the segment is not bounded. Guarded by the lock.
+         */
+        private final LinkedHashMap<K, Entry<V>> evictionOrder;
+        private final Queue<K> accesses;
+        private final AtomicInteger bufferedAccesses = new AtomicInteger();
+        private final long maxEntries;
+        private final long maxWeight;
+        private volatile long weight;
+        protected final AtomicLong hits = new AtomicLong();
+        protected final AtomicLong misses = new AtomicLong();
+        protected volatile long evictions;
+
+        protected Segment( long maxEntries,
+                           long maxWeight ) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+            boolean bounded = maxEntries != 0L || maxWeight != 0L;
+            this.evictionOrder = bounded ? new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) : null;
+            this.accesses = bounded ? new ConcurrentLinkedQueue<K>() : null;
+        }
+
+        protected V get( K key ) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            if (evictionOrder != null) recordAccess(key);
+            return entry.value;
+        }
+
+        private void recordAccess( K key ) {
+            int buffered = bufferedAccesses.incrementAndGet();
+            if (buffered > MAX_BUFFERED_ACCESSES) {
+                // Too many accesses are waiting to be replayed, so skip this one ...
+                bufferedAccesses.decrementAndGet();
+            } else {
+                accesses.add(key);
+            }
+            if (buffered >= DRAIN_THRESHOLD && tryLock()) {
+                try {
+                    replayAccesses();
+                } finally {
+                    unlock();
+                }
+            }
+        }
+
+        /**
+         * Move the entries that were accessed since the last replay to the most-recently-used end of the eviction order. Must be
+         * called while holding the lock.
+         */
+        private void replayAccesses() {
+            K key = null;
+            while ((key = accesses.poll()) != null) {
+                bufferedAccesses.decrementAndGet();
+                // Access-ordered, so this moves the entry (if it still exists) to the most-recently-used position ...
+                evictionOrder.get(key);
+            }
+        }
+
+        protected V put( K key,
+                         V value,
+                         long weight,
+                         boolean onlyIfAbsent ) {
+            Entry<V> newEntry = new Entry<V>(value, weight);
+            if (evictionOrder == null) {
+                // Nothing is ever evicted, so there is no need to lock ...
+                Entry<V> existing = onlyIfAbsent ? entries.putIfAbsent(key, newEntry) : entries.put(key, newEntry);
+                return existing != null ? existing.value : null;
+            }
+            lock();
+            try {
+                Entry<V> existing = entries.get(key);
+                if (existing != null && onlyIfAbsent) return existing.value;
+                replayAccesses();
+                entries.put(key, newEntry);
+                evictionOrder.put(key, newEntry);
+                long newWeight = this.weight + weight;
+                if (existing != null) newWeight -= existing.weight;
+                this.weight = newWeight;
+                evictIfRequired();
+                return existing != null ? existing.value : null;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void evictIfRequired() {
+            Iterator<Map.Entry<K, Entry<V>>> iter = evictionOrder.entrySet().iterator();
+            // Always keep the most-recently added entry, even if it alone exceeds the maximum weight ...
+            while (evictionOrder.size() > 1 && isOverCapacity()) {
+                Map.Entry<K, Entry<V>> eldest = iter.next();
+                iter.remove();
+                entries.remove(eldest.getKey());
+                this.weight -= eldest.getValue().weight;
+                ++evictions;
+            }
+        }
+
+        private boolean isOverCapacity() {
+            return (maxEntries != 0L && evictionOrder.size() > maxEntries) || (maxWeight != 0L && weight > maxWeight);
+        }
+
+        protected V remove( Object key ) {
+            if (evictionOrder == null) {
+                Entry<V> removed = entries.remove(key);
+                return removed != null ? removed.value : null;
+            }
+            lock();
+            try {
+                Entry<V> removed = entries.remove(key);
+                if (removed == null) return null;
+                evictionOrder.remove(key);
+                this.weight -= removed.weight;
+                return removed.value;
+            } finally {
+                unlock();
+            }
+        }
+
+        protected int removeAll( EntryFilter<K, V> filter ) {
+            lock();
+            try {
+                int removed = 0;
+                Iterator<Map.Entry<K, Entry<V>>> iter = entries.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry<K, Entry<V>> entry = iter.next();
+                    if (filter.matches(entry.getKey(), entry.getValue().value)) {
+                        iter.remove();
+                        if (evictionOrder != null) {
+                            evictionOrder.remove(entry.getKey());
+                            this.weight -= entry.getValue().weight;
+                        }
+                        ++removed;
+                    }
+                }
+                return removed;
+            } finally {
+                unlock();
+            }
+        }
+
+        protected void clear() {
+            lock();
+            try {
+                entries.clear();
+                if (evictionOrder != null) {
+                    evictionOrder.clear();
+                    weight = 0L;
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        protected int size() {
+            return entries.size();
+        }
+
+        protected long weight() {
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.common.collection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+
+/**
+ * A bounded, lock-free queue backed by a fixed-size circular array, which supports any number of concurrent producers but only a
+ * single consumer. Each slot in the array has a sequence number that producers and the consumer use to determine whether the
+ * slot is free or holds a published element, so neither {@link #offer(Object)} nor {@link #poll()} ever block or take a lock.
+ * <p>
+ * The capacity is always rounded up to a power of two. When the buffer is full, {@link #offer(Object)} returns false and it is up
+ * to the caller to decide whether to wait, retry, or discard the element.
+ * </p>
+ *
+ * @param <T> the type of element
+ */
+@ThreadSafe
+public final class RingBuffer<T> {
+
+    /**
+     * The maximum capacity of a ring buffer.
+     */
+    public static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * Create a new ring buffer that can hold at least the supplied number of elements.
+     *
+     * @param capacity the minimum capacity; must be positive
+     */
+    public RingBuffer( int capacity ) {
+        CheckArg.isPositive(capacity, "capacity");
+        int size = 1;
+        while (size < capacity && size < MAXIMUM_CAPACITY) {
+            size <<= 1;
+        }
+        this.elements = new AtomicReferenceArray<T>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i != size; ++i) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add the supplied element to the end of this buffer if there is room. This method may be called concurrently by any number
+     * of threads.
+     *
+     * @param element the element; may not be null
+     * @return true if the element was added, or false if the buffer is full
+     */
+    public boolean offer( T element ) {
+        CheckArg.isNotNull(element, "element");
+        while (true) {
+            long position = tail.get();
+            int index = (int)(position & mask);
+            long available = sequences.get(index) - position;
+            if (available == 0L) {
+                // The slot is free, so try to claim it ...
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    // Publish the element to the consumer ...
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (available < 0L) {
+                // The consumer has not yet freed the slot, so we're full ...
+                return false;
+            }
+            // Otherwise another producer claimed the slot, so try again ...
+        }
+    }
+
+    /**
+     * Remove and return the element at the front of this buffer. This method must only be called by the single consuming thread.
+     *
+     * @return the element, or null if the buffer is empty (or the next element has been claimed but not yet published)
+     */
+    public T poll() {
+        long position = head;
+        int index = (int)(position & mask);
+        if (sequences.get(index) != position + 1) return null;
+        T element = elements.get(index);
+        elements.set(index, null);
+        // Free the slot for the producers ...
+        sequences.set(index, position + elements.length());
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * Return the element at the front of this buffer without removing it. This method must only be called by the single
+     * consuming thread.
+     *
+     * @return the element, or null if the buffer is empty (or the next element has been claimed but not yet published)
+     */
+    public T peek() {
+        long position = head;
+        int index = (int)(position & mask);
+        if (sequences.get(index) != position + 1) return null;
+        return elements.get(index);
+    }
+
+    /**
+     * Get the number of elements in this buffer. The result is only an estimate when producers or the consumer are concurrently
+     * changing the buffer.
+     *
+     * @return the number of elements; never negative
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int)Math.max(0L, Math.min(size, elements.length()));
+    }
+
+    /**
+     * Determine whether this buffer is empty.
+     *
+     * @return true if there are no elements in this buffer
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get the maximum number of elements that this buffer can hold.
+     *
+     * @return the capacity; always a power of two
+     */
+    public int capacity() {
+        return elements.length();
+    }
+
+    @Override
+    public String toString() {
+        return "RingBuffer of " + size() + " elements (capacity " + capacity() + ")";
+    }
+}
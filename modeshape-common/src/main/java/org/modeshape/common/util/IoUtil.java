@@ -39,7 +39,10 @@ import java.io.Reader;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import org.modeshape.common.CommonI18n;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.logging.Logger;
 
@@ -521,6 +524,39 @@ public class IoUtil {
         return result;
     }
 
+    /**
+     * Transfer the content of the supplied file channel, from the given position to the end of the file, to the target channel.
+     * The transfer is repeated until all of the content has been transferred, letting the operating system avoid copying the
+     * content into user space where possible. Neither channel is closed.
+     * 
+     * @param source the channel from which the content is read; may not be null
+     * @param position the position within the file at which the transfer starts; may not be negative
+     * @param target the channel to which the content is written; may not be null
+     * @return the number of bytes that were transferred
+     * @throws IOException if there is a problem transferring the content, or if the target stops accepting the content before all
+     *         of it has been transferred
+     * @throws IllegalArgumentException if either channel is null or the position is negative
+     */
+    public static long transfer( FileChannel source,
+                                 long position,
+                                 WritableByteChannel target ) throws IOException {
+        CheckArg.isNotNull(source, "source");
+        CheckArg.isNonNegative(position, "position");
+        CheckArg.isNotNull(target, "target");
+        long size = source.size();
+        long current = position;
+        while (current < size) {
+            long transferred = source.transferTo(current, size - current, target);
+            if (transferred <= 0L) break;
+            current += transferred;
+        }
+        if (current < size) {
+            long expected = size - position;
+            throw new IOException(CommonI18n.unableToTransferAllContent.text(current - position, expected, position));
+        }
+        return current - position;
+    }
+
     /**
      * Closes the closable silently. Any exceptions are ignored.
      * 
@@ -0,0 +1,207 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.common.collection;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.modeshape.common.collection.ConcurrentLruCache.Segment;
+
+public class ConcurrentLruCacheTest {
+
+    private ConcurrentLruCache<String, String> cache;
+
+    @Test
+    public void shouldNotEvictEntriesWhenUnbounded() {
+        cache = new ConcurrentLruCache<String, String>(0L);
+        for (int i = 0; i != 1000; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertThat(cache.size(), is(1000L));
+        assertThat(cache.getEvictionCount(), is(0L));
+        assertThat(cache.get("key0"), is("value0"));
+    }
+
+    @Test
+    public void shouldReadEntriesWithoutLockingSegment() throws Exception {
+        cache = new ConcurrentLruCache<String, String>(10L);
+        cache.put("a", "1");
+        final Segment<String, String> segment = cache.segmentFor("a");
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                segment.lock();
+                try {
+                    locked.countDown();
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.interrupted();
+                } finally {
+                    segment.unlock();
+                }
+            }
+        };
+        holder.start();
+        locked.await();
+        try {
+            // The lookups do not wait for the lock, even after buffering enough accesses to try replaying them ...
+            for (int i = 0; i != 100; ++i) {
+                assertThat(cache.get("a"), is("1"));
+            }
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntryAfterManyBufferedAccesses() {
+        cache = new ConcurrentLruCache<String, String>(3L, 0L, null, 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        for (int i = 0; i != 2000; ++i) {
+            assertThat(cache.get(i % 2 == 0 ? "a" : "c"), is(i % 2 == 0 ? "1" : "3"));
+        }
+        cache.put("d", "4");
+        assertThat(cache.get("b"), is(nullValue()));
+        assertThat(cache.size(), is(3L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntryWhenMaximumEntriesExceeded() {
+        cache = new ConcurrentLruCache<String, String>(3L, 0L, null, 1);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        // Touch 'a' so that 'b' is the least-recently used ...
+        assertThat(cache.get("a"), is("1"));
+        cache.put("d", "4");
+        assertThat(cache.size(), is(3L));
+        assertThat(cache.get("b"), is(nullValue()));
+        assertThat(cache.get("a"), is("1"));
+        assertThat(cache.get("c"), is("3"));
+        assertThat(cache.get("d"), is("4"));
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNeverExceedMaximumEntriesWithManySegments() {
+        cache = new ConcurrentLruCache<String, String>(100L);
+        for (int i = 0; i != 10000; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+        // Each segment holds its share of the capacity, rounded up ...
+        assertTrue(cache.size() <= 100L + ConcurrentLruCache.DEFAULT_CONCURRENCY_LEVEL);
+        assertThat(cache.getEvictionCount(), is(10000L - cache.size()));
+    }
+
+    @Test
+    public void shouldEvictEntriesWhenMaximumWeightExceeded() {
+        ConcurrentLruCache.Weigher<String, String> weigher = new ConcurrentLruCache.Weigher<String, String>() {
+            @Override
+            public long weigh( String key,
+                               String value ) {
+                return value.length();
+            }
+        };
+        cache = new ConcurrentLruCache<String, String>(0L, 10L, weigher, 1);
+        cache.put("a", "12345");
+        cache.put("b", "1234");
+        assertThat(cache.weight(), is(9L));
+        cache.put("c", "123");
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.weight(), is(7L));
+        // Replacing an entry should adjust the weight ...
+        cache.put("b", "1");
+        assertThat(cache.weight(), is(4L));
+        cache.remove("c");
+        assertThat(cache.weight(), is(1L));
+    }
+
+    @Test
+    public void shouldKeepEntryThatAloneExceedsMaximumWeight() {
+        ConcurrentLruCache.Weigher<String, String> weigher = new ConcurrentLruCache.Weigher<String, String>() {
+            @Override
+            public long weigh( String key,
+                               String value ) {
+                return value.length();
+            }
+        };
+        cache = new ConcurrentLruCache<String, String>(0L, 2L, weigher, 1);
+        cache.put("a", "12345");
+        assertThat(cache.get("a"), is("12345"));
+    }
+
+    @Test
+    public void shouldNotReplaceExistingEntryWithPutIfAbsent() {
+        cache = new ConcurrentLruCache<String, String>(10L);
+        assertThat(cache.putIfAbsent("a", "1"), is(nullValue()));
+        assertThat(cache.putIfAbsent("a", "2"), is("1"));
+        assertThat(cache.get("a"), is("1"));
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        cache = new ConcurrentLruCache<String, String>(10L);
+        cache.put("a", "1");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+        cache.clear();
+        assertThat(cache.size(), is(0L));
+        assertThat(cache.getHitCount(), is(2L));
+    }
+
+    @Test
+    public void shouldRemoveOnlyMatchingEntries() {
+        cache = new ConcurrentLruCache<String, String>(100L);
+        for (int i = 0; i != 50; ++i) {
+            cache.put("k" + i, i % 2 == 0 ? "even" : "odd");
+        }
+        long removed = cache.removeAll(new ConcurrentLruCache.EntryFilter<String, String>() {
+            @Override
+            public boolean matches( String key,
+                                    String value ) {
+                return value.equals("odd");
+            }
+        });
+        assertThat(removed, is(25L));
+        assertThat(cache.size(), is(25L));
+        assertThat(cache.get("k1"), is(nullValue()));
+        assertThat(cache.get("k2"), is("even"));
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRequireWeigherWhenBoundedByWeight() {
+        new ConcurrentLruCache<String, String>(0L, 10L, null);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.common.collection;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    private RingBuffer<String> buffer;
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertThat(new RingBuffer<String>(1).capacity(), is(1));
+        assertThat(new RingBuffer<String>(3).capacity(), is(4));
+        assertThat(new RingBuffer<String>(1000).capacity(), is(1024));
+    }
+
+    @Test
+    public void shouldReturnNullWhenPollingEmptyBuffer() {
+        buffer = new RingBuffer<String>(4);
+        assertThat(buffer.poll(), is(nullValue()));
+        assertThat(buffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldPeekWithoutRemovingElement() {
+        buffer = new RingBuffer<String>(4);
+        assertThat(buffer.peek(), is(nullValue()));
+        buffer.offer("a");
+        buffer.offer("b");
+        assertThat(buffer.peek(), is("a"));
+        assertThat(buffer.peek(), is("a"));
+        assertThat(buffer.poll(), is("a"));
+        assertThat(buffer.peek(), is("b"));
+        assertThat(buffer.size(), is(1));
+    }
+
+    @Test
+    public void shouldRejectElementsWhenFull() {
+        buffer = new RingBuffer<String>(4);
+        for (int i = 0; i != 4; ++i) {
+            assertThat(buffer.offer("e" + i), is(true));
+        }
+        assertThat(buffer.offer("e4"), is(false));
+        assertThat(buffer.size(), is(4));
+        assertThat(buffer.poll(), is("e0"));
+        assertThat(buffer.offer("e4"), is(true));
+        assertThat(buffer.offer("e5"), is(false));
+    }
+
+    @Test
+    public void shouldReturnElementsInOrderAfterWrappingAround() {
+        buffer = new RingBuffer<String>(4);
+        for (int i = 0; i != 100; ++i) {
+            assertThat(buffer.offer("e" + i), is(true));
+            if (i >= 2) assertThat(buffer.poll(), is("e" + (i - 2)));
+        }
+        assertThat(buffer.poll(), is("e98"));
+        assertThat(buffer.poll(), is("e99"));
+        assertThat(buffer.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDeliverAllElementsFromConcurrentProducersInPerProducerOrder() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(16);
+        final int producers = 4;
+        final int perProducer = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p != producers; ++p) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i != perProducer; ++i) {
+                        Integer value = producer * perProducer + i;
+                        while (!buffer.offer(value)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        int[] last = new int[producers];
+        for (int p = 0; p != producers; ++p) {
+            last[p] = -1;
+        }
+        int received = 0;
+        while (received != producers * perProducer) {
+            Integer value = buffer.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = value / perProducer;
+            int index = value % perProducer;
+            assertThat(index, is(last[producer] + 1));
+            last[producer] = index;
+            ++received;
+        }
+        assertThat(buffer.poll(), is(nullValue()));
+    }
+}
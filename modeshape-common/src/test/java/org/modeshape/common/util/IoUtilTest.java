@@ -27,12 +27,18 @@ package org.modeshape.common.util;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import org.junit.Test;
 
 public class IoUtilTest {
@@ -119,6 +125,66 @@ public class IoUtilTest {
         assertThat(wrapper.isClosed(), is(true));
     }
 
+    @Test
+    public void transferShouldTransferAllContentFromPosition() throws Exception {
+        File file = File.createTempFile("IoUtilTest", ".txt");
+        try {
+            IoUtil.write("This is the way to grandma's house.", file);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            FileInputStream input = new FileInputStream(file);
+            try {
+                assertThat(IoUtil.transfer(input.getChannel(), 5L, Channels.newChannel(output)), is(30L));
+            } finally {
+                input.close();
+            }
+            assertThat(output.toString("UTF-8"), is("is the way to grandma's house."));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test( expected = IOException.class )
+    public void transferShouldFailWhenTargetStopsAcceptingContent() throws Exception {
+        File file = File.createTempFile("IoUtilTest", ".txt");
+        try {
+            IoUtil.write("This is the way to grandma's house.", file);
+            FileInputStream input = new FileInputStream(file);
+            try {
+                IoUtil.transfer(input.getChannel(), 0L, new LimitedChannel(10));
+            } finally {
+                input.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    protected class LimitedChannel implements WritableByteChannel {
+
+        private int remaining;
+
+        protected LimitedChannel( int limit ) {
+            this.remaining = limit;
+        }
+
+        @Override
+        public int write( ByteBuffer src ) {
+            int written = Math.min(remaining, src.remaining());
+            src.position(src.position() + written);
+            remaining -= written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     protected class InputStreamWrapper extends InputStream {
 
         private boolean closed = false;
@@ -24,11 +24,13 @@
 package org.modeshape.jcr.api;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import javax.jcr.RepositoryException;
 
 /**
- * An extension of the standard {@link javax.jcr.Binary} interface, with methods to obtain the SHA-1 hash of the binary value.
+ * An extension of the standard {@link javax.jcr.Binary} interface, with methods to obtain the SHA-1 hash of the binary value and to
+ * transfer the content directly to a channel.
  */
 public interface Binary extends javax.jcr.Binary {
 
@@ -79,4 +81,15 @@ public interface Binary extends javax.jcr.Binary {
      */
     public String getMimeType( String name ) throws IOException, RepositoryException;
 
+    /**
+     * Write the content of this binary value to the supplied channel. Implementations that store the content in files transfer it
+     * directly from the file, so writing to a file or socket channel can avoid copying the content through the application.
+     * 
+     * @param target the channel to which the content is written; may not be null and is not closed by this method
+     * @return the number of bytes written to the channel
+     * @throws IOException if there is a problem reading the binary content or writing to the channel
+     * @throws RepositoryException if an error occurs.
+     */
+    public long transferTo( WritableByteChannel target ) throws IOException, RepositoryException;
+
 }
@@ -86,6 +86,26 @@ public interface RepositoryManager {
      */
     Problems backupRepository( File backupDirectory ) throws RepositoryException;
 
+    /**
+     * Begin an incremental backup operation of the repository, writing to the specified directory on the local file system only
+     * the content that has been added or changed since the previous backup in the other directory. The previous backup may
+     * itself be an incremental backup.
+     * <p>
+     * Restoring an incremental backup also restores all of the backups upon which it is based, so none of these previous backups
+     * may be moved or removed while the incremental backup is still to be used.
+     * </p>
+     * 
+     * @param backupDirectory the directory on the local file system into which all backup files will be written; this directory
+     *        need not exist, but the process must have write privilege for this directory
+     * @param previousBackupDirectory the directory on the local file system in which the previous backup was written by a
+     *        previous {@link #backupRepository(File) backup operation}; may not be null
+     * @return the problems that occurred during the backup operation
+     * @throws AccessDeniedException if the current session does not have sufficient privileges to perform the backup
+     * @throws RepositoryException if the backup cannot be run
+     */
+    Problems backupRepository( File backupDirectory,
+                               File previousBackupDirectory ) throws RepositoryException;
+
     /**
      * Begin a restore operation of the entire repository, reading the backup files in the specified directory on the local file
      * system. Upon completion of the restore operation, the repository will be restarted automatically.
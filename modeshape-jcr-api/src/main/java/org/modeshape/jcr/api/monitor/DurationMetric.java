@@ -15,7 +15,9 @@ public enum DurationMetric {
 
     /**
      * The metric that captures the duration of {@link Query#execute() query executions}. Note that the payload of the
-     * {@link DurationActivity} instances are the query strings.
+     * {@link DurationActivity} instances are the query strings, the query languages and (when available) the query plans, which
+     * for queries executed with {@link org.modeshape.jcr.api.query.Query#analyze()} include the statistics recorded for each
+     * step of the plan.
      */
     QUERY_EXECUTION_TIME("query-execution-time", "Query duration",
                          "The metric measuring the amount of time required to execute queries."),
@@ -29,7 +31,20 @@ public enum DurationMetric {
      * instances are strings containing the sequencer name and the input and output paths.
      */
     SEQUENCER_EXECUTION_TIME("sequencer-execution-time", "Sequencing duration",
-                             "The metric measuring how long sequencers take to run and save the changes.");
+                             "The metric measuring how long sequencers take to run and save the changes."),
+    /**
+     * The metric that captures the duration of optimizing the blocks of child references of a node. Note that the payload of the
+     * {@link DurationActivity} instances are strings containing the workspace name and node key.
+     */
+    DOCUMENT_OPTIMIZATION_TIME("document-optimization-time", "Optimization duration",
+                               "The metric measuring how long it takes to optimize the blocks of child references of a node."),
+    /**
+     * The metric that captures the longest time during each window between changes being queued for a listener and the listener
+     * finishing with them. Note that the payload of the {@link DurationActivity} instances are strings containing the listener,
+     * the workspace name, and the size and activity of the listener's queue.
+     */
+    LISTENER_DISPATCH_TIME("listener-dispatch-time", "Listener dispatch latency",
+                           "The metric measuring how long changes wait in the queue of each listener before the listener has processed them.");
 
     private static final Map<String, DurationMetric> BY_LITERAL;
     private static final Map<String, DurationMetric> BY_NAME;
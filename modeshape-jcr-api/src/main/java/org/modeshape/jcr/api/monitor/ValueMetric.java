@@ -84,7 +84,114 @@ public enum ValueMetric {
     /**
      * The metric that records the number of nodes that were sequenced.
      */
-    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window.");
+    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window."),
+    /**
+     * The metric that records the number of nodes held in the workspace caches.
+     */
+    NODE_CACHE_SIZE("node-cache-size", true, "Cached nodes",
+                    "The number of nodes held in the workspace caches at the end of the window."),
+    /**
+     * The metric that records the number of node lookups that were satisfied by the workspace caches.
+     */
+    NODE_CACHE_HITS("node-cache-hits", false, "Node cache hits",
+                    "The number of node lookups during the window that found the node in a workspace cache."),
+    /**
+     * The metric that records the number of node lookups that had to read the node from persistent storage.
+     */
+    NODE_CACHE_MISSES("node-cache-misses", false, "Node cache misses",
+                      "The number of node lookups during the window that did not find the node in a workspace cache."),
+    /**
+     * The metric that records the number of nodes that were evicted from the workspace caches to keep them within their limits.
+     */
+    NODE_CACHE_EVICTIONS("node-cache-evictions", false, "Node cache evictions",
+                         "The number of nodes evicted from the workspace caches during the window to keep the caches within their configured limits."),
+    /**
+     * The metric that records the number of nodes whose blocks of child references are waiting to be optimized.
+     */
+    DOCUMENT_OPTIMIZATION_QUEUE_SIZE("document-optimization-queue-size", true, "Optimization queue size",
+                                     "The number of nodes at the end of the window whose child references have yet to be optimized."),
+    /**
+     * The metric that records the number of nodes whose blocks of child references were optimized.
+     */
+    OPTIMIZED_DOCUMENT_COUNT("optimized-document-count", false, "Optimized nodes",
+                             "The number of nodes whose child references were split or merged into better-sized blocks during the window."),
+    /**
+     * The metric that records the number of change sets waiting in the queues of all listeners.
+     */
+    LISTENER_QUEUE_SIZE("listener-queue-size", true, "Listener queue size",
+                        "The number of change sets at the end of the window that have yet to be sent to the internal and observation listeners."),
+    /**
+     * The metric that records the number of change sets that were dropped because a listener's queue was full.
+     */
+    DROPPED_CHANGE_SET_COUNT("dropped-change-set-count", false, "Dropped change sets",
+                             "The number of change sets that were not sent to a listener during the window because the listener's queue was full."),
+    /**
+     * The metric that records the number of change sets that were merged into summaries because a listener's queue was full.
+     */
+    COALESCED_CHANGE_SET_COUNT("coalesced-change-set-count", false, "Coalesced change sets",
+                               "The number of change sets that were merged into summaries of the changed nodes during the window because a listener's queue was full."),
+    /**
+     * The metric that records the number of optimized query plans held in the query plan cache.
+     */
+    QUERY_PLAN_CACHE_SIZE("query-plan-cache-size", true, "Cached query plans",
+                          "The number of optimized query plans held in the query plan cache at the end of the window."),
+    /**
+     * The metric that records the number of queries that reused an optimized plan from the query plan cache.
+     */
+    QUERY_PLAN_CACHE_HITS("query-plan-cache-hits", false, "Query plan cache hits",
+                          "The number of queries during the window that reused an optimized plan from the query plan cache."),
+    /**
+     * The metric that records the number of queries that had to be planned and optimized.
+     */
+    QUERY_PLAN_CACHE_MISSES("query-plan-cache-misses", false, "Query plan cache misses",
+                            "The number of queries during the window that did not find an optimized plan in the query plan cache."),
+    /**
+     * The metric that records the number of optimized query plans that were evicted from the query plan cache to keep it within
+     * its limit.
+     */
+    QUERY_PLAN_CACHE_EVICTIONS("query-plan-cache-evictions", false, "Query plan cache evictions",
+                               "The number of optimized query plans evicted from the query plan cache during the window to keep the cache within its limit."),
+    /**
+     * The metric that records the number of query results held in the query result cache.
+     */
+    QUERY_RESULT_CACHE_SIZE("query-result-cache-size", true, "Cached query results",
+                            "The number of query results held in the query result cache at the end of the window."),
+    /**
+     * The metric that records the number of queries whose results were found in the query result cache.
+     */
+    QUERY_RESULT_CACHE_HITS("query-result-cache-hits", false, "Query result cache hits",
+                            "The number of queries during the window whose results were found in the query result cache."),
+    /**
+     * The metric that records the number of cacheable queries whose results were not found in the query result cache.
+     */
+    QUERY_RESULT_CACHE_MISSES("query-result-cache-misses", false, "Query result cache misses",
+                              "The number of queries during the window whose results were not found in the query result cache."),
+    /**
+     * The metric that records the number of query results that were removed from the query result cache because changes in the
+     * content may have affected them.
+     */
+    QUERY_RESULT_CACHE_INVALIDATIONS("query-result-cache-invalidations", false, "Query result cache invalidations",
+                                     "The number of query results removed from the query result cache during the window because changes in the content may have affected them."),
+    /**
+     * The metric that records the number of nodes that were indexed while rebuilding the indexes.
+     */
+    REINDEXED_NODE_COUNT("reindexed-node-count", false, "Reindexed nodes",
+                         "The number of nodes that were indexed during the window while rebuilding the indexes."),
+    /**
+     * The metric that records the estimated time (in seconds) until the indexes are rebuilt.
+     */
+    REINDEXING_TIME_REMAINING("reindexing-time-remaining", true, "Reindexing time remaining",
+                              "The estimated number of seconds at the end of the window until the indexes are rebuilt, or zero if the indexes are not being rebuilt or no estimate is available yet."),
+    /**
+     * The metric that records the number of documents that were written to or read from backups.
+     */
+    BACKUP_DOCUMENT_COUNT("backup-document-count", false, "Backed up or restored documents",
+                          "The number of documents that were written to backups or restored from backups during the window."),
+    /**
+     * The metric that records the number of bytes of binary values that were written to or read from backups.
+     */
+    BACKUP_BINARY_BYTES("backup-binary-bytes", false, "Backed up or restored binary bytes",
+                        "The number of bytes of binary values that were written to backups or restored from backups during the window.");
 
     private static final Map<String, ValueMetric> BY_LITERAL;
     private static final Map<String, ValueMetric> BY_NAME;
@@ -23,6 +23,9 @@
  */
 package org.modeshape.jcr.api.query;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.query.InvalidQueryException;
+
 /**
  * A specialization of the standard JCR {@link javax.jcr.query.Query} interface that adds the ModeShape-specific constant for the
  * {@link #FULL_TEXT_SEARCH full-text search} query language.
@@ -42,4 +45,22 @@ public interface Query extends javax.jcr.query.Query {
      *         finished successfully or had already been cancelled) and could not be cancelled.
      */
     public boolean cancel();
+
+    /**
+     * Execute the query and obtain the results along with a description of the query plan in which each step is annotated with
+     * the statistics recorded while executing that step, such as the number of rows it produced, the time spent in the step (and
+     * the steps below it), and, for steps that access the indexes, the number of index documents that were scanned and that
+     * matched. The nodes for the result rows are loaded before this method returns, and the time spent loading them is also
+     * included in the description. The annotated plan is available from the result's {@link QueryResult#getPlan()} method.
+     * <p>
+     * Recording these statistics adds some overhead, so this method should be used only to understand where the time is spent
+     * when executing a query; use {@link #execute()} otherwise.
+     * </p>
+     * 
+     * @return the results of the query; never null
+     * @throws InvalidQueryException if the query contains an unbound variable
+     * @throws RepositoryException if another error occurs
+     * @see #execute()
+     */
+    public QueryResult analyze() throws InvalidQueryException, RepositoryException;
 }
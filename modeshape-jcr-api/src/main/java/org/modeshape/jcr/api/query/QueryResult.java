@@ -38,4 +38,12 @@ public interface QueryResult extends javax.jcr.query.QueryResult {
      *         {@link QueryResult#getColumnNames()}.
      */
     public String[] getColumnTypes();
+
+    /**
+     * Get a description of the plan that was used to execute the query. When the results were obtained with
+     * {@link Query#analyze()}, each step of the plan is annotated with the statistics recorded while executing the query.
+     * 
+     * @return the description of the query plan, or null if the plan is not available
+     */
+    public String getPlan();
 }
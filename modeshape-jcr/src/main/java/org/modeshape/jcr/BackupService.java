@@ -30,17 +30,34 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.jcr.RepositoryException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
 import org.infinispan.Cache;
 import org.infinispan.loaders.CacheLoaderException;
 import org.infinispan.schematic.Schematic;
@@ -50,14 +67,18 @@ import org.infinispan.schematic.document.Document;
 import org.infinispan.schematic.document.EditableArray;
 import org.infinispan.schematic.document.EditableDocument;
 import org.infinispan.schematic.document.Json;
+import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.collection.Problems;
-import org.modeshape.common.collection.SimpleProblems;
+import org.modeshape.common.collection.ThreadSafeProblems;
 import org.modeshape.common.i18n.I18n;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.IoUtil;
 import org.modeshape.common.util.NamedThreadFactory;
+import org.modeshape.common.util.SecureHash;
+import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.InfinispanUtil.Sequence;
 import org.modeshape.jcr.JcrRepository.RunningState;
 import org.modeshape.jcr.cache.NodeKey;
@@ -78,8 +99,13 @@ public class BackupService {
     protected static final String BINARY_AREA_DIR_NAME = "binaries";
     protected static final String DOCUMENTS_FILENAME_PREFIX = "documents";
     protected static final String SUMMARY_FILE_NAME = "summary_of_changes.json";
+    protected static final String MANIFEST_AREA_DIR_NAME = "manifest";
+    protected static final String MANIFEST_FILENAME_PREFIX = "manifest";
+    protected static final String BACKUP_INFO_FILE_NAME = "backup_info.json";
     protected static final String BINARY_EXTENSION = ".bin";
     protected static final int NUM_CHARS_IN_FILENAME_SUFFIX = 6;
+    protected static final int KEYS_PER_BATCH = 100;
+    protected static final long BATCH_POLL_INTERVAL_IN_MILLIS = 100L;
 
     /**
      * By default, 100K nodes will be exported to a single backup file. So, if each node requied about 200 bytes (compressed), the
@@ -90,18 +116,66 @@ public class BackupService {
 
     protected static class FieldName {
         public static final String UNUSED_BINARY_KEYS = "unusedBinaryKeys";
+        public static final String PREVIOUS_BACKUP = "previousBackup";
+        public static final String PREVIOUS_BACKUP_ABSOLUTE_PATH = "previousBackupAbsolutePath";
+        public static final String REMOVED_DOCUMENT_KEYS = "removedDocumentKeys";
+        public static final String KEY = "key";
+        public static final String DIGEST = "digest";
+        public static final String BINARY_KEY = "binaryKey";
+        public static final String DOCUMENT_STREAMS = "documentStreams";
     }
 
     private final RunningState runningState;
     private final SchematicDb documentStore;
     private final BinaryStore binaryStore;
     private final RepositoryCache repositoryCache;
+    private final Workers workers;
 
-    protected BackupService( RunningState runningState ) {
+    protected BackupService( RunningState runningState,
+                             RepositoryConfiguration.Backup config ) {
         this.runningState = runningState;
         documentStore = this.runningState.database();
         binaryStore = this.runningState.binaryStore();
         repositoryCache = this.runningState.repositoryCache();
+        int documentStreams = config.getDocumentStreams();
+        int binaryThreads = config.getBinaryThreads();
+        // Each activity bounds its own concurrency, so the pool itself need not be bounded ...
+        ExecutorService executor = null;
+        if (documentStreams > 1 || binaryThreads > 1) {
+            executor = this.runningState.context().getCachedTreadPool(config.getThreadPoolName());
+        }
+        workers = new Workers(executor, documentStreams, binaryThreads, config.getRestoreBatchSize());
+    }
+
+    /**
+     * Get the total number of documents that have been written to or read from backups by this service.
+     * 
+     * @return the number of documents; never negative
+     */
+    long transferredDocumentCount() {
+        return workers.documentCount.get();
+    }
+
+    /**
+     * Get the total number of bytes of binary values that have been written to or read from backups by this service.
+     * 
+     * @return the number of bytes; never negative
+     */
+    long transferredBinaryBytes() {
+        return workers.binaryBytes.get();
+    }
+
+    /**
+     * Get the prefix of the names of the files containing the documents in the supplied stream. The first stream uses the
+     * prefix of backups that have only one stream.
+     * 
+     * @param filenamePrefix the prefix of the names of the files; may not be null
+     * @param stream the zero-based index of the stream
+     * @return the prefix for the stream; never null
+     */
+    protected static String streamFilenamePrefix( String filenamePrefix,
+                                                  int stream ) {
+        return stream == 0 ? filenamePrefix : filenamePrefix + "-" + stream;
     }
 
     /**
@@ -122,6 +196,24 @@ public class BackupService {
         return backupRepository(backupDirectory, DEFAULT_NUMBER_OF_DOCUMENTS_IN_BACKUP_FILES, DEFAULT_COMPRESS);
     }
 
+    /**
+     * Start asynchronously backing up only the content that has changed since a previous backup of the repository.
+     * 
+     * @param backupDirectory the directory on the file system into which the backup should be placed; this directory should
+     *        typically not exist
+     * @param previousBackupDirectory the directory containing the full or incremental backup upon which the new backup is based;
+     *        may not be null
+     * @return the problems that occurred during the backup process
+     * @throws RepositoryException if the backup operation cannot be run
+     */
+    public org.modeshape.jcr.api.Problems backupRepository( File backupDirectory,
+                                                            File previousBackupDirectory ) throws RepositoryException {
+        CheckArg.isNotNull(previousBackupDirectory, "previousBackupDirectory");
+        BackupActivity backupActivity = createBackupActivity(backupDirectory, previousBackupDirectory,
+                                                             DEFAULT_NUMBER_OF_DOCUMENTS_IN_BACKUP_FILES, DEFAULT_COMPRESS);
+        return new JcrProblems(backupActivity.execute());
+    }
+
     /**
      * Start asynchronously backing up the repository.
      * 
@@ -188,7 +280,27 @@ public class BackupService {
     public BackupActivity createBackupActivity( File backupDirectory,
                                                 long documentsPerFile,
                                                 boolean compress ) {
-        return new BackupActivity(backupDirectory, documentStore, binaryStore, repositoryCache, documentsPerFile, compress);
+        return createBackupActivity(backupDirectory, null, documentsPerFile, compress);
+    }
+
+    /**
+     * Create a new {@link BackupActivity activity} instance that can back up the content of the repository that has changed
+     * since a previous backup.
+     * 
+     * @param backupDirectory the directory on the file system into which the backup should be placed; this directory should
+     *        typically not exist
+     * @param previousBackupDirectory the directory containing the backup upon which the new backup is based, or null if all of
+     *        the content should be backed up
+     * @param documentsPerFile the maximum number of documents to place within a single backup file; must be positive
+     * @param compress true if the backup files should be compressed, or false otherwise
+     * @return the backup activity; never null
+     */
+    public BackupActivity createBackupActivity( File backupDirectory,
+                                                File previousBackupDirectory,
+                                                long documentsPerFile,
+                                                boolean compress ) {
+        return new BackupActivity(backupDirectory, previousBackupDirectory, documentStore, binaryStore, repositoryCache,
+                                  workers, documentsPerFile, compress);
     }
 
     /**
@@ -199,7 +311,131 @@ public class BackupService {
      * @return the restore activity; never null
      */
     public RestoreActivity createRestoreActivity( File backupDirectory ) {
-        return new RestoreActivity(backupDirectory, documentStore, binaryStore, repositoryCache);
+        return new RestoreActivity(backupDirectory, documentStore, binaryStore, repositoryCache, workers);
+    }
+
+    /**
+     * The threads that the backup and restore activities use to write and read the documents and binary values concurrently, and
+     * the running totals of what these activities have transferred.
+     */
+    @ThreadSafe
+    protected static final class Workers {
+        protected final ExecutorService executor;
+        protected final int documentStreams;
+        protected final int binaryThreads;
+        protected final int restoreBatchSize;
+        protected final AtomicLong documentCount = new AtomicLong();
+        protected final AtomicLong binaryBytes = new AtomicLong();
+
+        protected Workers( ExecutorService executor,
+                           int documentStreams,
+                           int binaryThreads,
+                           int restoreBatchSize ) {
+            this.executor = executor;
+            this.documentStreams = documentStreams;
+            this.binaryThreads = binaryThreads;
+            this.restoreBatchSize = restoreBatchSize;
+        }
+
+        /**
+         * Run all of the supplied tasks concurrently, using the calling thread for the first task, and wait for them to complete.
+         * 
+         * @param tasks the tasks; may not be null
+         * @throws InterruptedException if the calling thread is interrupted while waiting for the other tasks
+         */
+        protected void runConcurrently( List<Runnable> tasks ) throws InterruptedException {
+            if (executor == null || tasks.size() < 2) {
+                for (Runnable task : tasks) {
+                    task.run();
+                }
+                return;
+            }
+            final CountDownLatch latch = new CountDownLatch(tasks.size() - 1);
+            for (final Runnable task : tasks.subList(1, tasks.size())) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            tasks.get(0).run();
+            latch.await();
+        }
+
+        /**
+         * Create an executor that copies at most the configured number of binary values at once.
+         * 
+         * @return the bounded execution; never null
+         */
+        protected BoundedExecution binaryCopying() {
+            return new BoundedExecution(this, binaryThreads);
+        }
+
+        protected void execute( Runnable task ) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The pool is being shut down, so just do the work in this thread ...
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * An executor that runs at most a fixed number of tasks at once, making the submitting thread wait when that many tasks are
+     * already running.
+     */
+    @ThreadSafe
+    protected static final class BoundedExecution {
+        private final Workers workers;
+        private final int maxConcurrent;
+        private final Semaphore permits;
+
+        protected BoundedExecution( Workers workers,
+                                    int maxConcurrent ) {
+            this.workers = workers;
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        /**
+         * Run the supplied task as soon as fewer than the maximum number of tasks are running.
+         * 
+         * @param task the task; may not be null and should not throw exceptions
+         * @throws InterruptedException if the calling thread is interrupted while waiting
+         */
+        public void execute( final Runnable task ) throws InterruptedException {
+            if (workers.executor == null || maxConcurrent < 2) {
+                task.run();
+                return;
+            }
+            permits.acquire();
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Wait for all of the submitted tasks to complete.
+         * 
+         * @throws InterruptedException if the calling thread is interrupted while waiting
+         */
+        public void await() throws InterruptedException {
+            permits.acquire(maxConcurrent);
+            permits.release(maxConcurrent);
+        }
     }
 
     /**
@@ -213,13 +449,15 @@ public class BackupService {
         protected final File binaryDirectory;
         protected final SchematicDb documentStore;
         protected final BinaryStore binaryStore;
-        protected final SimpleProblems problems;
+        protected final Workers workers;
+        protected final ThreadSafeProblems problems;
         private final String backupLocation;
 
         protected Activity( File backupDirectory,
                             SchematicDb documentStore,
                             BinaryStore binaryStore,
-                            RepositoryCache repositoryCache ) {
+                            RepositoryCache repositoryCache,
+                            Workers workers ) {
             this.backupDirectory = backupDirectory;
             this.changeDirectory = new File(this.backupDirectory, CHANGED_AREA_DIR_NAME);
             this.binaryDirectory = new File(this.backupDirectory, BINARY_AREA_DIR_NAME);
@@ -227,7 +465,8 @@ public class BackupService {
             this.documentStore = documentStore;
             this.binaryStore = binaryStore;
             this.repositoryCache = repositoryCache;
-            this.problems = new SimpleProblems();
+            this.workers = workers;
+            this.problems = new ThreadSafeProblems();
         }
 
         /**
@@ -244,6 +483,63 @@ public class BackupService {
         protected final String backupLocation() {
             return backupLocation;
         }
+
+        /**
+         * Read the description of the backup in the supplied directory.
+         * 
+         * @param directory the backup directory; may not be null
+         * @return the description of the backup, or null if the backup has no description because it was made before incremental
+         *         backups were supported
+         * @throws IOException if the description cannot be read
+         */
+        protected Document readBackupInfo( File directory ) throws IOException {
+            File file = new File(directory, BACKUP_INFO_FILE_NAME);
+            if (!file.exists()) return null;
+            InputStream stream = new FileInputStream(file);
+            try {
+                return Json.read(stream);
+            } finally {
+                stream.close();
+            }
+        }
+
+        /**
+         * Determine the number of streams into which the documents of the backup in the supplied directory were written.
+         * 
+         * @param directory the backup directory; may not be null
+         * @return the number of document streams; always positive
+         * @throws IOException if the description of the backup cannot be read
+         */
+        protected int documentStreamsOf( File directory ) throws IOException {
+            Document info = readBackupInfo(directory);
+            Integer streams = info != null ? info.getInteger(FieldName.DOCUMENT_STREAMS) : null;
+            return streams != null ? Math.max(1, streams.intValue()) : 1;
+        }
+
+        /**
+         * Log the throughput of this activity.
+         * 
+         * @param operation the description of the operation; may not be null
+         * @param startDocumentCount the total number of documents transferred before this activity started
+         * @param startBinaryBytes the total number of bytes of binary values transferred before this activity started
+         * @param startTime the time in nanoseconds at which this activity started
+         */
+        protected void logThroughput( String operation,
+                                      long startDocumentCount,
+                                      long startBinaryBytes,
+                                      long startTime ) {
+            if (!LOGGER.isDebugEnabled()) return;
+            long millis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            long documents = workers.documentCount.get() - startDocumentCount;
+            long bytes = workers.binaryBytes.get() - startBinaryBytes;
+            LOGGER.debug("Completed {0} of '{1}' repository at {2} in {3} ms ({4} documents/sec, {5} binary bytes/sec)",
+                         operation,
+                         repositoryName(),
+                         backupLocation(),
+                         millis,
+                         documents * 1000L / millis,
+                         bytes * 1000L / millis);
+        }
     }
 
     /**
@@ -253,21 +549,27 @@ public class BackupService {
     public static class BackupActivity extends Activity {
 
         private final BackupObserver observer;
+        private final File previousBackupDirectory;
         protected final ExecutorService changedDocumentWorker;
         protected final BlockingQueue<NodeKey> changedDocumentQueue;
         private final long documentsPerFile;
         private final boolean compress;
-        private BackupDocumentWriter contentWriter;
+        private final List<DocumentStream> streams = new ArrayList<DocumentStream>();
         private BackupDocumentWriter changesWriter;
+        private Map<String, String> previousDigests;
+        private Set<String> previousBinaryKeys;
 
         protected BackupActivity( File backupDirectory,
+                                  File previousBackupDirectory,
                                   SchematicDb documentStore,
                                   BinaryStore binaryStore,
                                   RepositoryCache repositoryCache,
+                                  Workers workers,
                                   long documentsPerFile,
                                   boolean compress ) {
-            super(backupDirectory, documentStore, binaryStore, repositoryCache);
+            super(backupDirectory, documentStore, binaryStore, repositoryCache, workers);
             CheckArg.isPositive(documentsPerFile, "documentsPerFile");
+            this.previousBackupDirectory = previousBackupDirectory;
             this.documentsPerFile = documentsPerFile;
             this.compress = compress;
             this.changedDocumentQueue = new LinkedBlockingQueue<NodeKey>();
@@ -293,9 +595,10 @@ public class BackupService {
                     // Create the backup directory ...
                     backupDirectory.mkdirs();
                 }
-                // Always make sure the changes and binary areas exist ...
+                // Always make sure the changes, binary and manifest areas exist ...
                 changeDirectory.mkdirs();
                 binaryDirectory.mkdirs();
+                new File(backupDirectory, MANIFEST_AREA_DIR_NAME).mkdirs();
             } catch (RuntimeException e) {
                 problems.addError(e, JcrI18n.problemInitializingBackupArea, backupLocation(), e.getMessage());
             }
@@ -303,7 +606,15 @@ public class BackupService {
         }
 
         protected void writeToContentArea( SchematicEntry document ) {
-            contentWriter.write(document.asDocument());
+            streams.get(0).write(document.asDocument());
+        }
+
+        protected void writeToContentArea( BinaryKey key ) {
+            try {
+                writeToContentArea(key, binaryStore.getInputStream(key));
+            } catch (BinaryStoreException e) {
+                problems.addError(JcrI18n.problemsWritingBinaryToBackup, key, backupLocation(), e.getMessage());
+            }
         }
 
         protected void writeToContentArea( BinaryKey key,
@@ -324,6 +635,7 @@ public class BackupService {
                 } finally {
                     outputStream.close();
                 }
+                workers.binaryBytes.addAndGet(file.length());
             } catch (Throwable t) {
                 problems.addError(JcrI18n.problemsWritingDocumentToBackup, file.getAbsolutePath(), t.getMessage());
             }
@@ -359,15 +671,150 @@ public class BackupService {
             }
         }
 
+        /**
+         * Read the manifest of the previous backup, which records a digest of every document and the key of every binary value
+         * that the repository contained when that backup was made.
+         * 
+         * @return true if the manifest was read, or false if there was a problem
+         */
+        protected boolean readPreviousManifest() {
+            File manifestDirectory = new File(previousBackupDirectory, MANIFEST_AREA_DIR_NAME);
+            if (!manifestDirectory.isDirectory()) {
+                problems.addError(JcrI18n.backupHasNoManifest, previousBackupDirectory.getAbsolutePath(), repositoryName());
+                return false;
+            }
+            int previousStreams = 1;
+            try {
+                previousStreams = documentStreamsOf(previousBackupDirectory);
+            } catch (IOException e) {
+                problems.addError(JcrI18n.problemsReadingBackupInfo, previousBackupDirectory.getAbsolutePath(), repositoryName(),
+                                  e.getMessage());
+                return false;
+            }
+            // The document streams remove the digests concurrently ...
+            previousDigests = new ConcurrentHashMap<String, String>();
+            previousBinaryKeys = new HashSet<String>();
+            for (int i = 0; i != previousStreams; ++i) {
+                String prefix = streamFilenamePrefix(MANIFEST_FILENAME_PREFIX, i);
+                BackupDocumentReader reader = new BackupDocumentReader(manifestDirectory, prefix, problems);
+                try {
+                    while (true) {
+                        Document doc = reader.read();
+                        if (doc == null) break;
+                        String binaryKey = doc.getString(FieldName.BINARY_KEY);
+                        if (binaryKey != null) {
+                            previousBinaryKeys.add(binaryKey);
+                        } else {
+                            previousDigests.put(doc.getString(FieldName.KEY), doc.getString(FieldName.DIGEST));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            return !problems.hasErrors();
+        }
+
+        /**
+         * Determine whether the supplied binary value has been added since the previous backup, and record the binary value in
+         * the manifest of this backup. Binary values never change, since they are identified by the SHA-1 of their content.
+         * 
+         * @param key the key of the binary value; may not be null
+         * @return true if the binary value should be written to this backup, or false if it is in the previous backup
+         */
+        protected boolean isAddedSincePreviousBackup( BinaryKey key ) {
+            String sha1 = key.toString();
+            streams.get(0).manifestWriter.write(Schematic.newDocument(FieldName.BINARY_KEY, sha1));
+            return previousBinaryKeys == null || !previousBinaryKeys.contains(sha1);
+        }
+
+        /**
+         * Write the description of this backup, which identifies the backup it is based upon (if any) and the keys of the
+         * documents that were removed since that backup. The previous backup is identified by its path relative to the parent of
+         * this backup, so that backups that are moved together still refer to each other, and also by its absolute path.
+         */
+        protected void writeBackupInfo() {
+            File file = new File(backupDirectory, BACKUP_INFO_FILE_NAME);
+            try {
+                EditableDocument doc = Schematic.newDocument();
+                doc.setNumber(FieldName.DOCUMENT_STREAMS, streams.size());
+                if (previousBackupDirectory != null) {
+                    File parent = backupDirectory.getAbsoluteFile().getParentFile();
+                    String relativePath = relativePath(parent, previousBackupDirectory);
+                    if (relativePath != null) doc.setString(FieldName.PREVIOUS_BACKUP, relativePath);
+                    doc.setString(FieldName.PREVIOUS_BACKUP_ABSOLUTE_PATH, previousBackupDirectory.getAbsolutePath());
+                    EditableArray keys = doc.setArray(FieldName.REMOVED_DOCUMENT_KEYS);
+                    for (String key : previousDigests.keySet()) {
+                        keys.add(key);
+                    }
+                }
+                OutputStream outputStream = new FileOutputStream(file);
+                try {
+                    Json.write(doc, outputStream);
+                    outputStream.flush();
+                } finally {
+                    outputStream.close();
+                }
+            } catch (Throwable t) {
+                problems.addError(JcrI18n.problemsWritingDocumentToBackup, file.getAbsolutePath(), t.getMessage());
+            }
+        }
+
+        /**
+         * Compute the relative path from the supplied directory to the supplied file.
+         * 
+         * @param base the directory from which the path is relative; may not be null
+         * @param target the file to which the path leads; may not be null
+         * @return the relative path, or null if there is no relative path (e.g., the files are on different file system roots)
+         * @throws IOException if the canonical form of either file cannot be determined
+         */
+        protected static String relativePath( File base,
+                                              File target ) throws IOException {
+            List<File> baseFiles = pathOf(base.getCanonicalFile());
+            List<File> targetFiles = pathOf(target.getCanonicalFile());
+            if (!baseFiles.get(0).equals(targetFiles.get(0))) return null; // different file system roots
+            // Skip the common ancestors ...
+            int common = 0;
+            while (common < baseFiles.size() && common < targetFiles.size()
+                   && baseFiles.get(common).equals(targetFiles.get(common))) {
+                ++common;
+            }
+            StringBuilder path = new StringBuilder();
+            for (int i = common; i < baseFiles.size(); ++i) {
+                path.append("..").append(File.separatorChar);
+            }
+            for (int i = common; i < targetFiles.size(); ++i) {
+                path.append(targetFiles.get(i).getName()).append(File.separatorChar);
+            }
+            if (path.length() == 0) return ".";
+            path.setLength(path.length() - 1); // the trailing separator
+            return path.toString();
+        }
+
+        private static List<File> pathOf( File file ) {
+            LinkedList<File> files = new LinkedList<File>();
+            for (File ancestor = file; ancestor != null; ancestor = ancestor.getParentFile()) {
+                files.addFirst(ancestor);
+            }
+            return new ArrayList<File>(files);
+        }
+
         @Override
         public Problems execute() {
             // initialize the area on disk where we'll be writing ...
             if (!initializeAreaOnDisk()) return problems;
 
+            // and find out what the previous backup contains (if there is one) ...
+            if (previousBackupDirectory != null && !readPreviousManifest()) return problems;
+
             LOGGER.debug("Starting backup of '{0}' repository into {1}", repositoryName(), backupLocation());
+            long startTime = System.nanoTime();
+            long startDocumentCount = workers.documentCount.get();
+            long startBinaryBytes = workers.binaryBytes.get();
 
-            this.contentWriter = new BackupDocumentWriter(backupDirectory, DOCUMENTS_FILENAME_PREFIX, documentsPerFile, compress,
-                                                          problems);
+            for (int i = 0; i != workers.documentStreams; ++i) {
+                streams.add(new DocumentStream(i));
+            }
             this.changesWriter = new BackupDocumentWriter(changeDirectory, DOCUMENTS_FILENAME_PREFIX, documentsPerFile, compress,
                                                           problems);
             long numBinaryValues = 0L;
@@ -417,14 +864,8 @@ public class BackupService {
 
                 try {
                     // PHASE 1:
-                    // Perform the backup of the repository cache content ...
-                    Sequence<String> sequence = InfinispanUtil.getAllKeys(documentStore.getCache());
-                    while (true) {
-                        String key = sequence.next();
-                        if (key == null) break;
-                        SchematicEntry entry = documentStore.get(key);
-                        if (entry != null) writeToContentArea(entry);
-                    }
+                    // Perform the backup of the repository cache content (or only what changed since the previous backup) ...
+                    writeDocumentsToContentArea(InfinispanUtil.getAllKeys(documentStore.getCache()));
 
                     // PHASE 2:
                     // Write out the repository metadata document (which may have not changed) ...
@@ -447,14 +888,18 @@ public class BackupService {
                 }
 
                 // PHASE 3:
-                // Perform the backup of the binary store ...
+                // Perform the backup of the binary store, copying several binary values at once ...
+                BoundedExecution binaryCopying = workers.binaryCopying();
                 try {
-                    for (BinaryKey binaryKey : binaryStore.getAllBinaryKeys()) {
-                        try {
-                            writeToContentArea(binaryKey, binaryStore.getInputStream(binaryKey));
-                        } catch (BinaryStoreException e) {
-                            problems.addError(JcrI18n.problemsWritingBinaryToBackup, binaryKey, backupLocation(), e.getMessage());
-                        }
+                    for (final BinaryKey binaryKey : binaryStore.getAllBinaryKeys()) {
+                        if (!isAddedSincePreviousBackup(binaryKey)) continue;
+                        ++numBinaryValues;
+                        binaryCopying.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                writeToContentArea(binaryKey);
+                            }
+                        });
                     }
                 } catch (BinaryStoreException e) {
                     I18n msg = JcrI18n.problemsGettingBinaryKeysFromBinaryStore;
@@ -463,13 +908,16 @@ public class BackupService {
 
                 // PHASE 4:
                 // Write all of the binary files that were added during the changes made while we worked ...
-                for (BinaryKey binaryKey : observer.getUsedBinaryKeys()) {
-                    try {
-                        writeToContentArea(binaryKey, binaryStore.getInputStream(binaryKey));
-                    } catch (BinaryStoreException e) {
-                        problems.addError(JcrI18n.problemsWritingBinaryToBackup, binaryKey, backupLocation(), e.getMessage());
-                    }
+                for (final BinaryKey binaryKey : observer.getUsedBinaryKeys()) {
+                    ++numBinaryValues;
+                    binaryCopying.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            writeToContentArea(binaryKey);
+                        }
+                    });
                 }
+                binaryCopying.await();
 
                 // PHASE 5:
                 // And now write all binary keys for the binaries that were recorded as unused by the observer ...
@@ -478,11 +926,20 @@ public class BackupService {
                 // Wait for the changes to be written
                 changesLatch.await(30, TimeUnit.SECONDS);
 
+                // PHASE 6:
+                // Describe this backup, so that it can be restored and used as the basis for later incremental backups ...
+                writeBackupInfo();
+
+                long numDocuments = changesWriter.getDocumentCount();
+                for (DocumentStream stream : streams) {
+                    numDocuments += stream.contentWriter.getDocumentCount();
+                }
                 LOGGER.debug("Completed backup of '{0}' repository into {1} (contains {2} nodes and {3} binary values)",
                              repositoryName(),
                              backupLocation(),
-                             contentWriter.getDocumentCount() + changesWriter.getDocumentCount(),
+                             numDocuments,
                              numBinaryValues);
+                logThroughput("backup", startDocumentCount, startBinaryBytes, startTime);
 
             } catch (InterruptedException e) {
                 Thread.interrupted();
@@ -494,9 +951,11 @@ public class BackupService {
                 // PHASE 5:
                 // Close all open writers ...
                 try {
-                    contentWriter.close();
+                    for (DocumentStream stream : streams) {
+                        stream.close();
+                    }
                 } finally {
-                    contentWriter = null;
+                    streams.clear();
                     try {
                         changesWriter.close();
                     } finally {
@@ -507,6 +966,189 @@ public class BackupService {
 
             return problems;
         }
+
+        /**
+         * Write the documents with the supplied keys to the content area, spreading them over all of the document streams. Each
+         * stream writes its own files using a separate thread.
+         * 
+         * @param keys the keys of the documents; may not be null
+         * @throws Exception if there is a problem obtaining the keys
+         */
+        protected void writeDocumentsToContentArea( Sequence<String> keys ) throws Exception {
+            if (streams.size() == 1 || workers.executor == null) {
+                DocumentStream stream = streams.get(0);
+                while (true) {
+                    String key = keys.next();
+                    if (key == null) break;
+                    stream.backup(key);
+                }
+                return;
+            }
+            // Hand out the keys in batches. The streams stop once all batches are taken, or once any stream fails ...
+            final BlockingQueue<List<String>> batches = new ArrayBlockingQueue<List<String>>(streams.size() * 4);
+            final AtomicBoolean done = new AtomicBoolean(false);
+            final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+            final CountDownLatch latch = new CountDownLatch(streams.size());
+            for (final DocumentStream stream : streams) {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (failure.get() == null) {
+                                List<String> batch = batches.poll(BATCH_POLL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+                                if (batch == null) {
+                                    if (done.get() && batches.isEmpty()) break;
+                                    continue;
+                                }
+                                for (String key : batch) {
+                                    stream.backup(key);
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.interrupted();
+                            problems.addError(JcrI18n.interruptedWhilePerformingBackup, repositoryName(), backupLocation(),
+                                              e.getMessage());
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            try {
+                List<String> batch = new ArrayList<String>(KEYS_PER_BATCH);
+                boolean accepted = true;
+                while (accepted) {
+                    String key = keys.next();
+                    if (key == null) {
+                        if (!batch.isEmpty()) handOut(batch, batches, failure, latch);
+                        break;
+                    }
+                    batch.add(key);
+                    if (batch.size() == KEYS_PER_BATCH) {
+                        accepted = handOut(batch, batches, failure, latch);
+                        batch = new ArrayList<String>(KEYS_PER_BATCH);
+                    }
+                }
+            } finally {
+                done.set(true);
+                latch.await();
+            }
+            RuntimeException e = failure.get();
+            if (e != null) throw e;
+        }
+
+        /**
+         * Add the supplied batch of keys to the queue, waiting while the queue is full unless none of the streams is still taking
+         * batches from the queue.
+         * 
+         * @param batch the batch of keys; may not be null
+         * @param batches the queue of batches; may not be null
+         * @param failure the reference to the first failure of any of the streams; may not be null
+         * @param latch the latch that counts the streams that are still running; may not be null
+         * @return true if the batch was added to the queue, or false if the streams have stopped
+         * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+         */
+        private boolean handOut( List<String> batch,
+                                 BlockingQueue<List<String>> batches,
+                                 AtomicReference<RuntimeException> failure,
+                                 CountDownLatch latch ) throws InterruptedException {
+            while (!batches.offer(batch, BATCH_POLL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null || latch.getCount() == 0L) return false;
+            }
+            return true;
+        }
+
+        /**
+         * One of the streams into which the documents are written. Each stream writes to its own files and its own part of the
+         * manifest, and is used by only one thread at a time.
+         */
+        @NotThreadSafe
+        protected final class DocumentStream {
+            protected final BackupDocumentWriter contentWriter;
+            protected final BackupDocumentWriter manifestWriter;
+            private final MessageDigest digester;
+
+            protected DocumentStream( int stream ) {
+                this.contentWriter = new BackupDocumentWriter(backupDirectory,
+                                                              streamFilenamePrefix(DOCUMENTS_FILENAME_PREFIX, stream),
+                                                              documentsPerFile, compress, problems);
+                this.manifestWriter = new BackupDocumentWriter(new File(backupDirectory, MANIFEST_AREA_DIR_NAME),
+                                                               streamFilenamePrefix(MANIFEST_FILENAME_PREFIX, stream),
+                                                               documentsPerFile, compress, problems);
+                try {
+                    this.digester = MessageDigest.getInstance(SecureHash.Algorithm.SHA_1.digestName());
+                } catch (NoSuchAlgorithmException e) {
+                    throw new SystemFailureException(e);
+                }
+            }
+
+            /**
+             * Write the document with the supplied key, if it has been added or changed since the previous backup.
+             * 
+             * @param key the key of the document; may not be null
+             */
+            protected void backup( String key ) {
+                try {
+                    SchematicEntry entry = documentStore.get(key);
+                    if (entry == null) return;
+                    Document document = entry.asDocument();
+                    if (isChangedSincePreviousBackup(key, document)) write(document);
+                } catch (RuntimeException e) {
+                    problems.addError(e, JcrI18n.problemObtainingDocumentsToBackup, repositoryName(), backupLocation(),
+                                      e.getMessage());
+                }
+            }
+
+            protected void write( Document document ) {
+                contentWriter.write(document);
+                workers.documentCount.incrementAndGet();
+            }
+
+            /**
+             * Compute a digest of the supplied document, used to determine whether the document has changed since the previous
+             * backup.
+             * 
+             * @param document the document; may not be null
+             * @return the digest; never null
+             */
+            protected String digest( Document document ) {
+                try {
+                    byte[] hash = digester.digest(Json.write(document).getBytes("UTF-8"));
+                    return StringUtil.getHexString(hash);
+                } catch (UnsupportedEncodingException e) {
+                    throw new SystemFailureException(e);
+                }
+            }
+
+            /**
+             * Determine whether the supplied document has been added or changed since the previous backup, and record the
+             * document in the manifest of this backup.
+             * 
+             * @param key the key of the document; may not be null
+             * @param document the document; may not be null
+             * @return true if the document should be written to this backup, or false if it is unchanged since the previous
+             *         backup
+             */
+            protected boolean isChangedSincePreviousBackup( String key,
+                                                            Document document ) {
+                String digest = digest(document);
+                manifestWriter.write(Schematic.newDocument(FieldName.KEY, key, FieldName.DIGEST, digest));
+                if (previousDigests == null) return true;
+                // Whatever remains in the previous digests at the end was removed since the previous backup ...
+                String previousDigest = previousDigests.remove(key);
+                return !digest.equals(previousDigest);
+            }
+
+            protected void close() {
+                try {
+                    contentWriter.close();
+                } finally {
+                    manifestWriter.close();
+                }
+            }
+        }
     }
 
     /**
@@ -518,21 +1160,88 @@ public class BackupService {
         protected RestoreActivity( File backupDirectory,
                                    SchematicDb documentStore,
                                    BinaryStore binaryStore,
-                                   RepositoryCache repositoryCache ) {
-            super(backupDirectory, documentStore, binaryStore, repositoryCache);
+                                   RepositoryCache repositoryCache,
+                                   Workers workers ) {
+            super(backupDirectory, documentStore, binaryStore, repositoryCache, workers);
         }
 
         @Override
         public Problems execute() {
-            removeExistingBinaryFiles();
-            restoreBinaryFiles();
+            // An incremental backup contains only what changed since the backup it is based upon ...
+            List<File> backups = backupChain();
+            if (problems.hasErrors()) return problems;
+            long startTime = System.nanoTime();
+            long startDocumentCount = workers.documentCount.get();
+            long startBinaryBytes = workers.binaryBytes.get();
 
-            removeExistingDocuments();
-            restoreDocuments(backupDirectory); // first pass of documents
-            restoreDocuments(changeDirectory); // documents changed while backup was being made
+            try {
+                removeExistingBinaryFiles();
+                for (File backup : backups) {
+                    restoreBinaryFiles(new File(backup, BINARY_AREA_DIR_NAME));
+                }
+
+                removeExistingDocuments();
+                for (File backup : backups) {
+                    removeDocuments(backup); // documents removed since the previous backup
+                    restoreDocumentStreams(backup); // first pass of documents
+                    restoreDocuments(new File(backup, CHANGED_AREA_DIR_NAME)); // documents changed while backup was being made
+                }
+            } catch (InterruptedException e) {
+                Thread.interrupted();
+                problems.addError(JcrI18n.interruptedWhilePerformingBackup, repositoryName(), backupLocation(), e.getMessage());
+            }
+            logThroughput("restore", startDocumentCount, startBinaryBytes, startTime);
             return problems;
         }
 
+        /**
+         * Determine the backups that have to be restored, starting with the full backup and ending with this activity's backup.
+         * 
+         * @return the backup directories in the order they are to be restored; never null
+         */
+        protected List<File> backupChain() {
+            LinkedList<File> backups = new LinkedList<File>();
+            Set<File> seen = new HashSet<File>();
+            File backup = backupDirectory;
+            while (backup != null) {
+                if (!backup.isDirectory()) {
+                    problems.addError(JcrI18n.missingPreviousBackup, backup.getAbsolutePath(), repositoryName());
+                    break;
+                }
+                if (!seen.add(backup.getAbsoluteFile())) break;
+                backups.addFirst(backup);
+                try {
+                    Document info = readBackupInfo(backup);
+                    backup = info != null ? previousBackup(backup, info) : null;
+                } catch (Throwable t) {
+                    problems.addError(JcrI18n.problemsReadingBackupInfo, backup.getAbsolutePath(), repositoryName(),
+                                      t.getMessage());
+                    break;
+                }
+            }
+            return backups;
+        }
+
+        /**
+         * Find the backup upon which the supplied backup is based. The relative path of the previous backup is resolved against
+         * the parent of the supplied backup, and the absolute path is used only if that does not identify an existing directory.
+         * 
+         * @param backup the directory of the backup; may not be null
+         * @param info the description of that backup; may not be null
+         * @return the directory of the previous backup, or null if the supplied backup is a full backup
+         */
+        protected File previousBackup( File backup,
+                                       Document info ) {
+            String relativePath = info.getString(FieldName.PREVIOUS_BACKUP);
+            String absolutePath = info.getString(FieldName.PREVIOUS_BACKUP_ABSOLUTE_PATH);
+            if (relativePath != null) {
+                File previous = new File(relativePath);
+                if (!previous.isAbsolute()) previous = new File(backup.getAbsoluteFile().getParentFile(), relativePath);
+                if (previous.isDirectory() || absolutePath == null) return previous;
+            }
+            return absolutePath != null ? new File(absolutePath) : null;
+        }
+
         public void removeExistingBinaryFiles() {
             // simply mark all of the existing binary values as unused; if an unused binary value is restored,
             // it will simply be kept without having store it ...
@@ -578,16 +1287,28 @@ public class BackupService {
             }
         }
 
-        public void restoreBinaryFiles() {
+        public void restoreBinaryFiles() throws InterruptedException {
+            restoreBinaryFiles(binaryDirectory);
+        }
+
+        protected void restoreBinaryFiles( File binaryDirectory ) throws InterruptedException {
+            if (!binaryDirectory.isDirectory()) return;
+            BoundedExecution binaryCopying = workers.binaryCopying();
             for (File segment1Dir : binaryDirectory.listFiles()) {
                 for (File segment2Dir : segment1Dir.listFiles()) {
                     for (File segment3Dir : segment2Dir.listFiles()) {
-                        for (File binaryFile : segment3Dir.listFiles()) {
-                            restoreBinaryFile(binaryFile);
+                        for (final File binaryFile : segment3Dir.listFiles()) {
+                            binaryCopying.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    restoreBinaryFile(binaryFile);
+                                }
+                            });
                         }
                     }
                 }
             }
+            binaryCopying.await();
         }
 
         public void restoreBinaryFile( File binaryFile ) {
@@ -605,6 +1326,7 @@ public class BackupService {
                 } finally {
                     stream.close();
                 }
+                workers.binaryBytes.addAndGet(binaryFile.length());
             } catch (FileNotFoundException e) {
                 // We already checked that it exists and is readable, so this shouldn't happen. But ...
                 I18n msg = JcrI18n.problemsReadingBinaryFromBackup;
@@ -627,12 +1349,114 @@ public class BackupService {
             return new BinaryKey(sha1);
         }
 
+        protected void removeDocuments( File backup ) {
+            try {
+                Document info = readBackupInfo(backup);
+                if (info == null || !info.containsField(FieldName.REMOVED_DOCUMENT_KEYS)) return;
+                for (Object key : info.getArray(FieldName.REMOVED_DOCUMENT_KEYS)) {
+                    if (documentStore.containsKey(key.toString())) documentStore.remove(key.toString());
+                }
+            } catch (IOException e) {
+                problems.addError(JcrI18n.problemsReadingBackupInfo, backup.getAbsolutePath(), repositoryName(), e.getMessage());
+            }
+        }
+
+        /**
+         * Restore the documents in the supplied backup, reading each of the streams into which they were written using a separate
+         * thread.
+         * 
+         * @param backup the backup directory; may not be null
+         * @throws InterruptedException if the thread is interrupted while waiting for the streams to be read
+         */
+        protected void restoreDocumentStreams( final File backup ) throws InterruptedException {
+            int streams = 1;
+            try {
+                streams = documentStreamsOf(backup);
+            } catch (IOException e) {
+                problems.addError(JcrI18n.problemsReadingBackupInfo, backup.getAbsolutePath(), repositoryName(), e.getMessage());
+                return;
+            }
+            List<Runnable> readers = new ArrayList<Runnable>(streams);
+            for (int i = 0; i != streams; ++i) {
+                final String prefix = streamFilenamePrefix(DOCUMENTS_FILENAME_PREFIX, i);
+                readers.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        restoreDocuments(backup, prefix);
+                    }
+                });
+            }
+            workers.runConcurrently(readers);
+        }
+
         protected void restoreDocuments( File directory ) {
-            BackupDocumentReader reader = new BackupDocumentReader(directory, DOCUMENTS_FILENAME_PREFIX, problems);
-            while (true) {
-                Document doc = reader.read();
-                if (doc == null) break;
-                documentStore.put(doc);
+            restoreDocuments(directory, DOCUMENTS_FILENAME_PREFIX);
+        }
+
+        protected void restoreDocuments( File directory,
+                                         String filenamePrefix ) {
+            BackupDocumentReader reader = new BackupDocumentReader(directory, filenamePrefix, problems);
+            try {
+                List<Document> batch = new ArrayList<Document>();
+                while (true) {
+                    Document doc = reader.read();
+                    if (doc == null) break;
+                    batch.add(doc);
+                    if (batch.size() >= workers.restoreBatchSize) {
+                        restoreDocuments(batch);
+                        batch.clear();
+                    }
+                }
+                restoreDocuments(batch);
+            } finally {
+                reader.close();
+            }
+        }
+
+        /**
+         * Store the supplied documents within a single transaction, if the document store is transactional.
+         * 
+         * @param documents the documents; may not be null
+         */
+        protected void restoreDocuments( List<Document> documents ) {
+            if (documents.isEmpty()) return;
+            TransactionManager txnMgr = documentStore.getCache().getAdvancedCache().getTransactionManager();
+            Transaction suspended = null;
+            boolean began = false;
+            boolean committed = false;
+            try {
+                if (txnMgr != null) {
+                    // The pooled thread should not be in a transaction, but make sure the documents are stored in our own ...
+                    suspended = txnMgr.suspend();
+                    txnMgr.begin();
+                    began = true;
+                }
+                for (Document doc : documents) {
+                    documentStore.put(doc);
+                }
+                if (began) txnMgr.commit();
+                committed = true;
+                workers.documentCount.addAndGet(documents.size());
+            } catch (Throwable t) {
+                problems.addError(t, JcrI18n.problemsRestoringDocumentsFromBackup, documents.size(), repositoryName(),
+                                  backupLocation(), t.getMessage());
+            } finally {
+                if (began && !committed) {
+                    try {
+                        if (txnMgr.getTransaction() != null) txnMgr.rollback();
+                    } catch (Throwable rollbackError) {
+                        LOGGER.debug(rollbackError, "Error while rolling back the restore of documents from {0}",
+                                     backupLocation());
+                    }
+                }
+                if (suspended != null) {
+                    try {
+                        txnMgr.resume(suspended);
+                    } catch (Throwable resumeError) {
+                        LOGGER.debug(resumeError, "Error while resuming the transaction after restoring documents from {0}",
+                                     backupLocation());
+                    }
+                }
             }
         }
     }
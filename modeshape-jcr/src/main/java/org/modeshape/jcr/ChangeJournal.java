@@ -0,0 +1,682 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.common.util.StringUtil;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangeSetSerializer;
+
+/**
+ * An append-only journal of the {@link ChangeSet}s made in a repository, stored in a series of segment files within a directory.
+ * The journal is a {@link ChangeSetListener}, so it records every change set published on the change bus.
+ * <p>
+ * Each record in a segment file contains the length of the record, the time at which the changes were made, and the changes
+ * {@link ChangeSetSerializer serialized} in the compact binary form. The times are never allowed to decrease, so that the records
+ * are always in time order. Alongside each segment is a small index file with the time and offset of a record roughly every
+ * {@link #DEFAULT_INDEX_INTERVAL_IN_BYTES 64K}, which is used to {@link #read(long) start reading} at a particular time without
+ * having to read the whole journal.
+ * </p>
+ * <p>
+ * A new segment is started whenever the current segment would exceed the maximum segment size, and each time the journal is
+ * started. The oldest segments are removed when the journal exceeds its maximum total size, or when all of the records in those
+ * segments are older than the maximum age.
+ * </p>
+ */
+@ThreadSafe
+public final class ChangeJournal implements ChangeSetListener {
+
+    public static final String SEGMENT_PREFIX = "segment_";
+    public static final String SEGMENT_EXTENSION = ".log";
+    public static final String INDEX_EXTENSION = ".idx";
+    public static final int NUM_CHARS_IN_SEGMENT_ID = 12;
+
+    /**
+     * The approximate number of bytes of records between successive entries in the index of a segment.
+     */
+    public static final long DEFAULT_INDEX_INTERVAL_IN_BYTES = 64 * 1024L;
+
+    protected static final byte[] MAGIC = {(byte)'M', (byte)'J'};
+    protected static final byte VERSION = 1;
+    protected static final int SEGMENT_HEADER_SIZE = MAGIC.length + 1;
+    protected static final int RECORD_HEADER_SIZE = 4 + 8;
+    protected static final int INDEX_ENTRY_SIZE = 8 + 8;
+
+    private final File directory;
+    private final long segmentSizeInBytes;
+    private final long maxSizeInBytes;
+    private final long maxAgeInMillis;
+    private final long indexIntervalInBytes;
+    private final ChangeSetSerializer serializer = new ChangeSetSerializer();
+    private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+    private final Logger logger = Logger.getLogger(getClass());
+
+    @GuardedBy( "this" )
+    private Segment active;
+    @GuardedBy( "this" )
+    private DataOutputStream output;
+    @GuardedBy( "this" )
+    private DataOutputStream indexOutput;
+    @GuardedBy( "this" )
+    private long lastTime = Long.MIN_VALUE;
+    @GuardedBy( "this" )
+    private long lastIndexedOffset = -1L;
+    private volatile boolean running;
+
+    /**
+     * Create a journal that stores its segments in the supplied directory.
+     *
+     * @param directory the directory in which the segment files are stored; may not be null
+     * @param segmentSizeInBytes the maximum size of each segment file; must be positive
+     * @param maxSizeInBytes the maximum total size of the journal, or 0 if the size is not limited
+     * @param maxAgeInMillis the maximum age of the records in the journal, or 0 if the records never expire
+     */
+    public ChangeJournal( File directory,
+                          long segmentSizeInBytes,
+                          long maxSizeInBytes,
+                          long maxAgeInMillis ) {
+        this(directory, segmentSizeInBytes, maxSizeInBytes, maxAgeInMillis, DEFAULT_INDEX_INTERVAL_IN_BYTES);
+    }
+
+    ChangeJournal( File directory,
+                   long segmentSizeInBytes,
+                   long maxSizeInBytes,
+                   long maxAgeInMillis,
+                   long indexIntervalInBytes ) {
+        CheckArg.isNotNull(directory, "directory");
+        CheckArg.isPositive(segmentSizeInBytes, "segmentSizeInBytes");
+        CheckArg.isNonNegative(maxSizeInBytes, "maxSizeInBytes");
+        CheckArg.isNonNegative(maxAgeInMillis, "maxAgeInMillis");
+        CheckArg.isPositive(indexIntervalInBytes, "indexIntervalInBytes");
+        this.directory = directory;
+        this.segmentSizeInBytes = segmentSizeInBytes;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.maxAgeInMillis = maxAgeInMillis;
+        this.indexIntervalInBytes = indexIntervalInBytes;
+    }
+
+    /**
+     * Open the journal, recovering the existing segments and starting a new segment for the records that will be appended.
+     *
+     * @throws IOException if the directory or the existing segments cannot be read, or the new segment cannot be created
+     */
+    public synchronized void start() throws IOException {
+        if (running) return;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(JcrI18n.unableToCreateChangeJournalDirectory.text(directory.getAbsolutePath()));
+        }
+        segments.clear();
+        long lastId = 0L;
+        for (File file : segmentFiles()) {
+            String name = file.getName();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+            lastId = Math.max(lastId, id);
+            Segment segment = new Segment(id, file, indexFileFor(file));
+            if (!segment.load()) {
+                logger.warn(JcrI18n.ignoringInvalidChangeJournalSegment, file.getAbsolutePath());
+                continue;
+            }
+            if (segment.isEmpty()) {
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+        }
+        if (!segments.isEmpty()) {
+            // Only the last segment could have been incompletely written ...
+            lastTime = segments.get(segments.size() - 1).recover();
+        }
+        startSegment(lastId + 1);
+        running = true;
+        removeExpiredSegments(System.currentTimeMillis());
+    }
+
+    /**
+     * Close the journal. Records can still be read from a closed journal, but no more records are appended.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        closeOutput();
+    }
+
+    /**
+     * Determine whether this journal is started and recording changes.
+     *
+     * @return true if the journal is running, or false otherwise
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        if (!running || changeSet == null || changeSet.isEmpty()) return;
+        try {
+            append(changeSet);
+        } catch (IOException e) {
+            logger.error(e, JcrI18n.errorWritingToChangeJournal, directory.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * Append the supplied change set to the end of the journal.
+     *
+     * @param changeSet the change set; may not be null
+     * @throws IOException if there is a problem writing the record
+     */
+    public void append( ChangeSet changeSet ) throws IOException {
+        CheckArg.isNotNull(changeSet, "changeSet");
+        // Serialize outside of the lock ...
+        byte[] data = serializer.serialize(changeSet);
+        long timestamp = changeSet.getTimestamp() != null ? changeSet.getTimestamp().getMilliseconds() : System.currentTimeMillis();
+        synchronized (this) {
+            if (!running) return;
+            long time = Math.max(lastTime, timestamp);
+            long recordSize = RECORD_HEADER_SIZE + data.length;
+            if (!active.isEmpty() && active.length() + recordSize > segmentSizeInBytes) {
+                closeOutput();
+                startSegment(active.id + 1);
+            }
+            long offset = active.length();
+            if (lastIndexedOffset < 0L || offset - lastIndexedOffset >= indexIntervalInBytes) {
+                indexOutput.writeLong(time);
+                indexOutput.writeLong(offset);
+                indexOutput.flush();
+                active.addIndexEntry(time, offset);
+                lastIndexedOffset = offset;
+            }
+            output.writeInt(data.length);
+            output.writeLong(time);
+            output.write(data);
+            output.flush();
+            // Make the record visible to the readers only after it's been completely written ...
+            active.setLength(offset + recordSize);
+            lastTime = time;
+            removeExpiredSegments(time);
+        }
+    }
+
+    /**
+     * Start reading the records in this journal with times at or after the supplied time. The reader streams the records from the
+     * segment files, and will see records appended after it was created.
+     *
+     * @param fromTime the time (in milliseconds) of the earliest record that should be read; use {@link Long#MIN_VALUE} to read
+     *        all records
+     * @return the reader; never null
+     */
+    public Reader read( long fromTime ) {
+        return new Reader(fromTime);
+    }
+
+    /**
+     * Get the directory in which the segment files are stored.
+     *
+     * @return the directory; never null
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the number of segment files.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get the total size of all segment files.
+     *
+     * @return the size of the journal in bytes
+     */
+    public long getSizeInBytes() {
+        long size = 0L;
+        for (Segment segment : segments) {
+            size += segment.length();
+        }
+        return size;
+    }
+
+    @GuardedBy( "this" )
+    private void startSegment( long id ) throws IOException {
+        String filename = SEGMENT_PREFIX + StringUtil.justifyRight(Long.toString(id), NUM_CHARS_IN_SEGMENT_ID, '0')
+                          + SEGMENT_EXTENSION;
+        File file = new File(directory, filename);
+        Segment segment = new Segment(id, file, indexFileFor(file));
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        output.write(MAGIC);
+        output.write(VERSION);
+        output.flush();
+        indexOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.indexFile)));
+        segment.setLength(SEGMENT_HEADER_SIZE);
+        segments.add(segment);
+        active = segment;
+        lastIndexedOffset = -1L;
+    }
+
+    @GuardedBy( "this" )
+    private void closeOutput() {
+        try {
+            if (output != null) output.close();
+            if (indexOutput != null) indexOutput.close();
+        } catch (IOException e) {
+            logger.debug(e, "Error closing the change journal segment '{0}'", active.file);
+        } finally {
+            output = null;
+            indexOutput = null;
+        }
+    }
+
+    @GuardedBy( "this" )
+    private void removeExpiredSegments( long now ) {
+        long size = getSizeInBytes();
+        while (segments.size() > 1 && segments.get(0) != active) {
+            Segment oldest = segments.get(0);
+            // All of the records in a segment are no newer than the first record in the next segment ...
+            boolean tooOld = maxAgeInMillis > 0L && segments.get(1).firstTime() < now - maxAgeInMillis;
+            boolean tooBig = maxSizeInBytes > 0L && size > maxSizeInBytes;
+            if (!tooOld && !tooBig) break;
+            segments.remove(0);
+            size -= oldest.length();
+            oldest.delete();
+        }
+    }
+
+    private File[] segmentFiles() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept( File dir,
+                                   String name ) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION)
+                       && name.length() == SEGMENT_PREFIX.length() + NUM_CHARS_IN_SEGMENT_ID + SEGMENT_EXTENSION.length();
+            }
+        });
+        if (files == null) return new File[0];
+        // The identifiers are zero-padded, so the names sort in the order of the segments ...
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static File indexFileFor( File segmentFile ) {
+        String name = segmentFile.getName();
+        return new File(segmentFile.getParentFile(), name.substring(0, name.length() - SEGMENT_EXTENSION.length())
+                                                     + INDEX_EXTENSION);
+    }
+
+    protected Segment segmentAfter( long id ) {
+        for (Segment segment : segments) {
+            if (segment.id > id) return segment;
+        }
+        return null;
+    }
+
+    protected Segment firstSegmentFor( long time ) {
+        Segment result = null;
+        for (Segment segment : segments) {
+            if (result != null && segment.firstTime() >= time) break;
+            result = segment;
+        }
+        return result;
+    }
+
+    /**
+     * A single segment file and its in-memory index.
+     */
+    @ThreadSafe
+    protected static final class Segment {
+        protected final long id;
+        protected final File file;
+        protected final File indexFile;
+        private volatile long length;
+        @GuardedBy( "this" )
+        private long[] times = new long[16];
+        @GuardedBy( "this" )
+        private long[] offsets = new long[16];
+        @GuardedBy( "this" )
+        private int count;
+
+        protected Segment( long id,
+                           File file,
+                           File indexFile ) {
+            this.id = id;
+            this.file = file;
+            this.indexFile = indexFile;
+        }
+
+        protected long length() {
+            return length;
+        }
+
+        protected void setLength( long length ) {
+            this.length = length;
+        }
+
+        protected boolean isEmpty() {
+            return length <= SEGMENT_HEADER_SIZE;
+        }
+
+        protected synchronized void addIndexEntry( long time,
+                                                   long offset ) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            times[count] = time;
+            offsets[count] = offset;
+            ++count;
+        }
+
+        /**
+         * Get the time of the first record in this segment.
+         *
+         * @return the time of the first record, or {@link Long#MAX_VALUE} if the segment has no records
+         */
+        protected synchronized long firstTime() {
+            return count == 0 ? Long.MAX_VALUE : times[0];
+        }
+
+        /**
+         * Find the offset at which to start reading the records at or after the supplied time. All records before the returned
+         * offset are older than the time, although some of the records immediately after the offset may be older, too.
+         *
+         * @param time the time
+         * @return the offset within the segment file
+         */
+        protected synchronized long offsetFor( long time ) {
+            // Find the last entry that is older than the time ...
+            int low = 0;
+            int high = count - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < time) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found < 0 ? SEGMENT_HEADER_SIZE : offsets[found];
+        }
+
+        /**
+         * Load the length and the index of an existing segment.
+         *
+         * @return true if the segment is valid, or false otherwise
+         * @throws IOException if the files cannot be read
+         */
+        protected boolean load() throws IOException {
+            length = file.length();
+            if (length < SEGMENT_HEADER_SIZE) {
+                // Never completely written, so treat it as empty ...
+                length = 0L;
+                return true;
+            }
+            InputStream stream = new FileInputStream(file);
+            try {
+                byte[] header = new byte[SEGMENT_HEADER_SIZE];
+                new DataInputStream(stream).readFully(header);
+                if (header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != VERSION) return false;
+            } finally {
+                stream.close();
+            }
+            if (!indexFile.exists()) return true;
+            DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                long entries = indexFile.length() / INDEX_ENTRY_SIZE;
+                for (long i = 0; i != entries; ++i) {
+                    long time = index.readLong();
+                    long offset = index.readLong();
+                    if (offset >= length) break;
+                    addIndexEntry(time, offset);
+                }
+            } finally {
+                index.close();
+            }
+            return true;
+        }
+
+        /**
+         * Scan the records after the last index entry, truncating any incomplete record at the end of the file.
+         *
+         * @return the time of the last complete record, or {@link Long#MIN_VALUE} if there are none
+         * @throws IOException if the file cannot be read or truncated
+         */
+        protected long recover() throws IOException {
+            long lastTime = Long.MIN_VALUE;
+            long position = offsetFor(Long.MAX_VALUE);
+            DataInputStream input = open(position);
+            try {
+                while (position + RECORD_HEADER_SIZE <= length) {
+                    int size = input.readInt();
+                    long time = input.readLong();
+                    if (size < 0 || position + RECORD_HEADER_SIZE + size > length) break;
+                    skipFully(input, size);
+                    position += RECORD_HEADER_SIZE + size;
+                    lastTime = time;
+                }
+            } finally {
+                input.close();
+            }
+            if (position < length) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(position);
+                } finally {
+                    raf.close();
+                }
+                length = position;
+            }
+            return lastTime;
+        }
+
+        protected DataInputStream open( long offset ) throws IOException {
+            InputStream stream = new FileInputStream(file);
+            try {
+                skipFully(stream, offset);
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+            return new DataInputStream(new BufferedInputStream(stream));
+        }
+
+        protected void delete() {
+            file.delete();
+            indexFile.delete();
+        }
+
+        private static void skipFully( InputStream stream,
+                                       long count ) throws IOException {
+            while (count > 0L) {
+                long skipped = stream.skip(count);
+                if (skipped <= 0L) throw new EOFException();
+                count -= skipped;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + " (" + length + " bytes)";
+        }
+    }
+
+    /**
+     * An iterator over the records in the journal, which reads the records from the segment files one at a time. The iterator
+     * reaches the end when there are no more records, but will find any records that are appended later. A reader holds open the
+     * segment file it is currently reading, so it should be {@link #close() closed} when it is no longer needed.
+     */
+    @NotThreadSafe
+    public final class Reader implements Iterator<ChangeSet> {
+        private final long fromTime;
+        private Segment segment;
+        private DataInputStream input;
+        private long position;
+        private ChangeSet next;
+        private long nextTime;
+        private long currentTime;
+
+        protected Reader( long fromTime ) {
+            this.fromTime = fromTime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    readNext();
+                } catch (IOException e) {
+                    close();
+                    throw new SystemFailureException(JcrI18n.errorReadingFromChangeJournal.text(directory.getAbsolutePath(),
+                                                                                               e.getMessage()), e);
+                } catch (ClassNotFoundException e) {
+                    close();
+                    throw new SystemFailureException(JcrI18n.errorReadingFromChangeJournal.text(directory.getAbsolutePath(),
+                                                                                               e.getMessage()), e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public ChangeSet next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ChangeSet result = next;
+            currentTime = nextTime;
+            next = null;
+            return result;
+        }
+
+        /**
+         * Get the journal time of the record most recently returned by {@link #next()}. This may be later than the time of the
+         * change set itself, since the times in the journal never decrease.
+         *
+         * @return the time of the last record returned
+         */
+        public long currentTime() {
+            return currentTime;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Close the file that is currently being read. The reader can still be used after it is closed, although it will then have
+         * to reopen the file.
+         */
+        public void close() {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // ignore
+                } finally {
+                    input = null;
+                }
+            }
+        }
+
+        private void readNext() throws IOException, ClassNotFoundException {
+            while (true) {
+                if (segment == null) {
+                    segment = firstSegmentFor(fromTime);
+                    if (segment == null) return;
+                    position = segment.offsetFor(fromTime);
+                }
+                if (position < segment.length()) {
+                    if (input == null) {
+                        try {
+                            input = segment.open(position);
+                        } catch (FileNotFoundException e) {
+                            // The segment was removed, so move on to the next one ...
+                            if (!moveToSegmentAfter(segment.id)) return;
+                            continue;
+                        }
+                    }
+                    int size = input.readInt();
+                    long time = input.readLong();
+                    byte[] data = new byte[size];
+                    input.readFully(data);
+                    position += RECORD_HEADER_SIZE + size;
+                    if (time < fromTime) continue;
+                    next = serializer.deserialize(data);
+                    nextTime = time;
+                    return;
+                }
+                // We've read everything that's been written to this segment ...
+                if (!moveToSegmentAfter(segment.id)) {
+                    // This is the last segment, so keep our place in case more records are appended ...
+                    return;
+                }
+            }
+        }
+
+        private boolean moveToSegmentAfter( long id ) {
+            Segment after = segmentAfter(id);
+            if (after == null) return false;
+            close();
+            segment = after;
+            position = SEGMENT_HEADER_SIZE;
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        List<String> names = new ArrayList<String>();
+        for (Segment segment : segments) {
+            names.add(segment.toString());
+        }
+        return "Change journal in " + directory + ": " + names;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.api.monitor.DurationMetric;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.document.DocumentOptimizer;
+import org.modeshape.jcr.cache.document.WorkspaceCache;
+import org.modeshape.jcr.txn.Transactions;
+
+/**
+ * A {@link ChangeSetListener} that watches for nodes whose children are being added or removed, and that in the background
+ * re-balances the blocks of child references of those nodes so that each block contains roughly the
+ * {@link RepositoryConfiguration.DocumentOptimization#getChildCountTarget() target number} of children.
+ * <p>
+ * Only the changes made within this process are considered, since each process in a cluster sees its own changes. Every parent
+ * is optimized at most once for every {@link RepositoryConfiguration.DocumentOptimization#getChildCountTolerance() tolerance}
+ * number of children that were added to or removed from it, and a parent is never queued more than once at a time.
+ * </p>
+ */
+@ThreadSafe
+final class DocumentOptimizationService implements ChangeSetListener {
+
+    private final RepositoryCache cache;
+    private final Transactions transactions;
+    private final RepositoryStatistics statistics;
+    private final ExecutorService executor;
+    private final String processKey;
+    private final int targetCountPerBlock;
+    private final int tolerance;
+    private final ConcurrentMap<NodeKey, AtomicInteger> changeCountsByParent = new ConcurrentHashMap<NodeKey, AtomicInteger>();
+    private final Set<NodeKey> queued = Collections.newSetFromMap(new ConcurrentHashMap<NodeKey, Boolean>());
+    private final Logger logger = Logger.getLogger(getClass());
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create a new service.
+     * 
+     * @param cache the repository cache; may not be null
+     * @param transactions the transactions used for the optimizations; may not be null
+     * @param statistics the statistics to which the optimization activity is recorded; may not be null
+     * @param executor the executor in which the optimizations are performed; may not be null
+     * @param processKey the key of this process, used to ignore changes made in other processes; may not be null
+     * @param targetCountPerBlock the goal for the number of children in each block; must be greater than 1
+     * @param tolerance the acceptable deviation from the target; must be positive but smaller than the target
+     */
+    DocumentOptimizationService( RepositoryCache cache,
+                                 Transactions transactions,
+                                 RepositoryStatistics statistics,
+                                 ExecutorService executor,
+                                 String processKey,
+                                 int targetCountPerBlock,
+                                 int tolerance ) {
+        assert cache != null;
+        assert transactions != null;
+        assert statistics != null;
+        assert executor != null;
+        assert processKey != null;
+        assert tolerance > 0;
+        assert targetCountPerBlock > tolerance;
+        this.cache = cache;
+        this.transactions = transactions;
+        this.statistics = statistics;
+        this.executor = executor;
+        this.processKey = processKey;
+        this.targetCountPerBlock = targetCountPerBlock;
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        if (shutdown) return;
+        if (!processKey.equals(changeSet.getProcessKey())) {
+            // We didn't generate these changes, so skip them ...
+            return;
+        }
+        String workspaceName = changeSet.getWorkspaceName();
+        if (workspaceName == null) {
+            // These are repository-level changes ...
+            return;
+        }
+        for (Change change : changeSet) {
+            if (change instanceof NodeAdded) {
+                childrenChanged(workspaceName, ((NodeAdded)change).getParentKey());
+            } else if (change instanceof NodeRemoved) {
+                childrenChanged(workspaceName, ((NodeRemoved)change).getParentKey());
+            } else if (change instanceof NodeMoved) {
+                NodeMoved moved = (NodeMoved)change;
+                childrenChanged(workspaceName, moved.getOldParent());
+                if (!moved.getNewParent().equals(moved.getOldParent())) {
+                    childrenChanged(workspaceName, moved.getNewParent());
+                }
+            }
+        }
+    }
+
+    private void childrenChanged( String workspaceName,
+                                  NodeKey parentKey ) {
+        if (parentKey == null) return;
+        AtomicInteger count = changeCountsByParent.get(parentKey);
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = changeCountsByParent.putIfAbsent(parentKey, newCount);
+            if (count == null) count = newCount;
+        }
+        if (count.incrementAndGet() < tolerance) return;
+
+        // Enough children have changed that the parent's blocks may need to be re-balanced ...
+        changeCountsByParent.remove(parentKey, count);
+        if (!queued.add(parentKey)) return;
+        statistics.increment(ValueMetric.DOCUMENT_OPTIMIZATION_QUEUE_SIZE);
+        try {
+            executor.execute(new OptimizationTask(workspaceName, parentKey));
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down ...
+            queued.remove(parentKey);
+            statistics.decrement(ValueMetric.DOCUMENT_OPTIMIZATION_QUEUE_SIZE);
+        }
+    }
+
+    protected WorkspaceCache workspaceCache( String workspaceName ) {
+        for (WorkspaceCache workspaceCache : cache.workspaces()) {
+            if (workspaceCache.getWorkspaceName().equals(workspaceName)) return workspaceCache;
+        }
+        return null;
+    }
+
+    /**
+     * Stop optimizing. Any optimizations that are already queued are skipped.
+     */
+    void shutdown() {
+        shutdown = true;
+        changeCountsByParent.clear();
+    }
+
+    protected final class OptimizationTask implements Runnable {
+        private final String workspaceName;
+        private final NodeKey key;
+
+        protected OptimizationTask( String workspaceName,
+                                    NodeKey key ) {
+            this.workspaceName = workspaceName;
+            this.key = key;
+        }
+
+        @SuppressWarnings( "synthetic-access" )
+        @Override
+        public void run() {
+            queued.remove(key);
+            statistics.decrement(ValueMetric.DOCUMENT_OPTIMIZATION_QUEUE_SIZE);
+            if (shutdown) return;
+            WorkspaceCache workspaceCache = workspaceCache(workspaceName);
+            if (workspaceCache == null) {
+                // The workspace was removed ...
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                DocumentOptimizer optimizer = new DocumentOptimizer(workspaceCache, transactions);
+                if (optimizer.optimizeChildrenBlocks(key, targetCountPerBlock, tolerance)) {
+                    long durationInNanos = Math.abs(System.nanoTime() - start);
+                    statistics.increment(ValueMetric.OPTIMIZED_DOCUMENT_COUNT);
+                    statistics.recordDuration(DurationMetric.DOCUMENT_OPTIMIZATION_TIME,
+                                              durationInNanos,
+                                              TimeUnit.NANOSECONDS,
+                                              Collections.singletonMap("node", workspaceName + ":" + key));
+                }
+            } catch (RuntimeException e) {
+                // The node will be optimized again after more of its children change ...
+                logger.debug(e, "Unable to optimize the children of node '{0}' in workspace '{1}'", key, workspaceName);
+            }
+        }
+    }
+}
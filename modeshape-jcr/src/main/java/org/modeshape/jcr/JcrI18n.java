@@ -90,6 +90,15 @@ public final class JcrI18n {
     public static I18n problemObtainingDocumentsToBackup;
     public static I18n backupOperationWasCancelled;
     public static I18n problemsClosingBackupFiles;
+    public static I18n backupHasNoManifest;
+    public static I18n missingPreviousBackup;
+    public static I18n problemsReadingBackupInfo;
+    public static I18n problemsRestoringDocumentsFromBackup;
+
+    public static I18n unableToCreateChangeJournalDirectory;
+    public static I18n ignoringInvalidChangeJournalSegment;
+    public static I18n errorWritingToChangeJournal;
+    public static I18n errorReadingFromChangeJournal;
     public static I18n invalidJcrUrl;
     public static I18n unableToInitializeAuthenticationProvider;
     public static I18n errorInAuthenticationProvider;
@@ -424,6 +433,7 @@ public final class JcrI18n {
     public static I18n errorWhileCommittingIndexChanges;
     public static I18n errorWhileRollingBackIndexChanges;
     public static I18n missingVariableValue;
+    public static I18n queryResultCacheRequiresSynchronousIndexing;
 
     static {
         try {
@@ -15,6 +15,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -41,6 +42,7 @@ import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.bus.OverflowPolicy;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.change.AbstractNodeChange;
 import org.modeshape.jcr.cache.change.AbstractSequencingChange;
@@ -88,6 +90,13 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
     static final String ORDER_DEST_KEY = "destChildRelPath";
     static final String ORDER_SRC_KEY = "srcChildRelPath";
 
+    /**
+     * The combination of all of the standard and ModeShape-specific event types.
+     */
+    static final int ALL_EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED | Event.PROPERTY_ADDED
+                                       | Event.PROPERTY_REMOVED | Event.PROPERTY_CHANGED | Event.PERSIST | NODE_SEQUENCED
+                                       | NODE_SEQUENCING_FAILURE;
+
     /**
      * The repository observable the JCR listeners will be registered with.
      */
@@ -114,6 +123,11 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
      */
     private final RepositoryStatistics repositoryStatistics;
 
+    /**
+     * The policy used by the change bus when the queue of one of the listeners is full
+     */
+    private final OverflowPolicy overflowPolicy;
+
     /**
      * A map of [changeSetHashCode, integer] which keep track of the events which have been received by the observation manager
      * and dispatched to the individual listeners. This is used for statistic purposes only.
@@ -156,6 +170,7 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
         this.listeners = new HashMap<EventListener, JcrListenerAdapter>();
 
         this.repositoryStatistics = statistics;
+        this.overflowPolicy = this.session.repository().getConfiguration().getEventBus().getObservationOverflowPolicy();
         this.changesLock = new ReentrantLock();
         this.changesReceivedAndDispatched = new HashMap<Integer, AtomicInteger>();
     }
@@ -324,20 +339,22 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
     /**
      * {@inheritDoc}
      * <p>
-     * Since ModeShape does not support journaled observation, this method returns null.
+     * Journaled observation is supported only when journaling is enabled in the repository configuration; otherwise this method
+     * returns null.
      * </p>
      * 
      * @see javax.jcr.observation.ObservationManager#getEventJournal()
      */
     @Override
     public EventJournal getEventJournal() {
-        return null;
+        return getEventJournal(ALL_EVENT_TYPES, null, true, null, null);
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * Since ModeShape does not support journaled observation, this method returns null.
+     * Journaled observation is supported only when journaling is enabled in the repository configuration; otherwise this method
+     * returns null.
      * </p>
      * 
      * @see javax.jcr.observation.ObservationManager#getEventJournal(int, java.lang.String, boolean, java.lang.String[],
@@ -349,7 +366,10 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
                                          boolean isDeep,
                                          String[] uuid,
                                          String[] nodeTypeName ) {
-        return null;
+        ChangeJournal journal = this.session.repository().changeJournal();
+        if (journal == null) return null;
+        JcrListenerAdapter filter = new JcrListenerAdapter(null, eventTypes, absPath, isDeep, uuid, nodeTypeName, false);
+        return new JcrEventJournal(journal, filter);
     }
 
     /**
@@ -464,6 +484,88 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
         }
     }
 
+    /**
+     * An implementation of the JCR {@link EventJournal} that reads the change sets from the repository's {@link ChangeJournal} as
+     * the events are needed, and converts them into events using the filtering criteria of a {@link JcrListenerAdapter}.
+     */
+    @NotThreadSafe
+    class JcrEventJournal implements EventJournal {
+
+        private final ChangeJournal journal;
+        private final JcrListenerAdapter filter;
+        private final LinkedList<Event> pending = new LinkedList<Event>();
+        private ChangeJournal.Reader reader;
+        private long fromDate = Long.MIN_VALUE;
+        private long position;
+
+        JcrEventJournal( ChangeJournal journal,
+                         JcrListenerAdapter filter ) {
+            this.journal = journal;
+            this.filter = filter;
+            this.reader = journal.read(fromDate);
+        }
+
+        @Override
+        public void skipTo( long date ) {
+            reader.close();
+            reader = journal.read(date);
+            pending.clear();
+            fromDate = date;
+        }
+
+        @Override
+        public Event nextEvent() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ++position;
+            return pending.removeFirst();
+        }
+
+        @Override
+        public Object next() {
+            return nextEvent();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.isEmpty() && reader.hasNext()) {
+                ChangeSet changeSet = reader.next();
+                // The journal's times never decrease, so it may return changes that were made before the date ...
+                DateTime timestamp = changeSet.getTimestamp();
+                if (timestamp != null && timestamp.getMilliseconds() < fromDate) continue;
+                pending.addAll(filter.eventsFor(changeSet));
+            }
+            if (pending.isEmpty()) {
+                // Don't hold open the segment file until more changes are written ...
+                reader.close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void skip( long skipNum ) {
+            for (long i = 0; i != skipNum; ++i) {
+                nextEvent();
+            }
+        }
+
+        @Override
+        public long getSize() {
+            // The journal is read lazily, so the size is not known ...
+            return -1L;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * The information related to and shared by a set of events that represent a single logical operation.
      */
@@ -666,7 +768,7 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
      * {@link org.modeshape.jcr.cache.change.Change events} into JCR {@link Event events}.
      */
     @NotThreadSafe
-    class JcrListenerAdapter implements ChangeSetListener {
+    class JcrListenerAdapter implements OverflowPolicy.Listener {
 
         private final Logger logger = Logger.getLogger(getClass());
 
@@ -710,7 +812,8 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
         private final String[] uuids;
 
         /**
-         * @param delegate the JCR listener
+         * @param delegate the JCR listener, or null if this adapter is used only to {@link #eventsFor(ChangeSet) filter} the
+         *        changes
          * @param eventTypes a combination of one or more JCR event types
          * @param absPath the absolute path of a node or <code>null</code> if all node paths
          * @param isDeep indicates if paths below <code>absPath</code> should be considered
@@ -725,8 +828,6 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
                             String[] uuids,
                             String[] nodeTypeNames,
                             boolean noLocal ) {
-            assert (delegate != null);
-
             this.delegate = delegate;
             this.eventTypes = eventTypes;
             this.absPath = absPath;
@@ -744,8 +845,23 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
         public void notify( ChangeSet changeSet ) {
             decrementEventQueueStatistic(changeSet);
 
+            Collection<Event> events = eventsFor(changeSet);
+
+            // notify delegate
+            if (!events.isEmpty()) {
+                this.delegate.onEvent(new JcrEventIterator(events));
+            }
+        }
+
+        /**
+         * Obtain the events for the supplied change set that satisfy this adapter's criteria.
+         * 
+         * @param changeSet the change set; may not be null
+         * @return the events; never null but possibly empty
+         */
+        Collection<Event> eventsFor( ChangeSet changeSet ) {
             if (shouldReject(changeSet)) {
-                return;
+                return Collections.emptyList();
             }
 
             Collection<Event> events = new ArrayList<Event>();
@@ -756,11 +872,7 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
             for (Change change : changeSet) {
                 processChange(events, bundle, change);
             }
-
-            // notify delegate
-            if (!events.isEmpty()) {
-                this.delegate.onEvent(new JcrEventIterator(events));
-            }
+            return events;
         }
 
         private boolean shouldReject( ChangeSet changeSet ) {
@@ -1052,7 +1164,17 @@ class JcrObservationManager implements ObservationManager, ChangeSetListener {
          */
         @Override
         public int hashCode() {
-            return this.delegate.hashCode();
+            return this.delegate != null ? this.delegate.hashCode() : super.hashCode();
+        }
+
+        @Override
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        @Override
+        public String toString() {
+            return "JCR event listener " + this.delegate;
         }
 
         /**
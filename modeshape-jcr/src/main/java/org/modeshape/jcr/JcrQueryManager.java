@@ -53,6 +53,7 @@ import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.JcrQuery;
 import org.modeshape.jcr.query.JcrQueryContext;
 import org.modeshape.jcr.query.JcrTypeSystem;
+import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.QueryResults.Location;
 import org.modeshape.jcr.query.model.QueryCommand;
 import org.modeshape.jcr.query.model.QueryObjectModel;
@@ -65,11 +66,13 @@ import org.modeshape.jcr.query.model.Visitors;
 import org.modeshape.jcr.query.parse.QueryParser;
 import org.modeshape.jcr.query.parse.QueryParsers;
 import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.QueryPlanCache;
 import org.modeshape.jcr.query.validate.Schemata;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.NamespaceRegistry;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.ValueFactories;
+import org.modeshape.jcr.value.basic.LocalNamespaceRegistry;
 
 /**
  * Place-holder implementation of {@link QueryManager} interface.
@@ -128,11 +131,16 @@ class JcrQueryManager implements QueryManager {
             throw new InvalidQueryException(JcrI18n.invalidQueryLanguage.text(language, languages));
         }
         try {
-            // Parsing must be done now ...
-            QueryCommand command = parser.parseQuery(expression, typeSystem);
+            // Parsing must be done now, unless the same expression was already parsed ...
+            QueryPlanCache queryCache = queryCache();
+            QueryCommand command = queryCache != null ? queryCache.getQuery(parser.getLanguage(), expression) : null;
             if (command == null) {
-                // The query is not well-formed and cannot be parsed ...
-                throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                command = parser.parseQuery(expression, typeSystem);
+                if (command == null) {
+                    // The query is not well-formed and cannot be parsed ...
+                    throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                }
+                if (queryCache != null) queryCache.putQuery(parser.getLanguage(), expression, command);
             }
             // Set up the hints ...
             PlanHints hints = new PlanHints();
@@ -154,6 +162,22 @@ class JcrQueryManager implements QueryManager {
         }
     }
 
+    /**
+     * Get the cache of parsed queries that can be used by this session. Names in a query expression are resolved using the
+     * session's namespace mappings, so the cache can only be used if the session does not override any of the repository's
+     * namespace mappings.
+     * 
+     * @return the cache, or null if the session may not use the cache
+     */
+    private QueryPlanCache queryCache() {
+        NamespaceRegistry registry = session.context().getNamespaceRegistry();
+        if (registry instanceof LocalNamespaceRegistry && !((LocalNamespaceRegistry)registry).getLocalNamespaces().isEmpty()) {
+            return null;
+        }
+        RepositoryQueryManager queryManager = session.repository().runningState().queryManager();
+        return queryManager != null ? queryManager.planCache() : null;
+    }
+
     /**
      * Creates a new JCR {@link Query} by specifying the query expression itself, the language in which the query is stated, the
      * {@link QueryCommand} representation. This method is more efficient than {@link #createQuery(String, String, Path)} if the
@@ -260,6 +284,11 @@ class JcrQueryManager implements QueryManager {
             return JcrEmptyNodeIterator.INSTANCE;
         }
 
+        @Override
+        public void closeOnLogout( QueryResults results ) {
+            session.addOpenQueryResults(results);
+        }
+
         @Override
         public CancellableQuery createExecutableQuery( QueryCommand query,
                                                        PlanHints hints,
@@ -343,10 +372,13 @@ class JcrQueryManager implements QueryManager {
         public void recordDuration( long nanos,
                                     TimeUnit unit,
                                     String query,
-                                    String language ) {
+                                    String language,
+                                    String plan ) {
             Map<String, String> payload = new HashMap<String, String>();
             payload.put("query", query);
             payload.put("language", language);
+            // The plan is kept only if this is one of the longest-running queries ...
+            if (plan != null) payload.put("plan", plan);
             session.repository().statistics().recordDuration(DurationMetric.QUERY_EXECUTION_TIME, nanos, unit, payload);
         }
 
@@ -23,6 +23,7 @@
  */
 package org.modeshape.jcr;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.security.AccessControlContext;
@@ -39,11 +40,7 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.naming.NoInitialContextException;
 import javax.security.auth.login.LoginContext;
-import javax.transaction.Status;
-import javax.transaction.Synchronization;
-import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
-import org.hibernate.search.backend.TransactionContext;
 import org.infinispan.Cache;
 import org.infinispan.manager.CacheContainer;
 import org.infinispan.schematic.Schematic;
@@ -55,17 +52,19 @@ import org.infinispan.schematic.document.Editor;
 import org.infinispan.schematic.document.Path;
 import org.infinispan.schematic.internal.document.Paths;
 import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.collection.ConcurrentLruCache;
 import org.modeshape.common.collection.Problems;
 import org.modeshape.common.collection.SimpleProblems;
 import org.modeshape.common.logging.Logger;
-import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.jcr.ModeShapeEngine.State;
 import org.modeshape.jcr.RepositoryConfiguration.AnonymousSecurity;
 import org.modeshape.jcr.RepositoryConfiguration.BinaryStorage;
 import org.modeshape.jcr.RepositoryConfiguration.Component;
+import org.modeshape.jcr.RepositoryConfiguration.DocumentOptimization;
 import org.modeshape.jcr.RepositoryConfiguration.FieldName;
 import org.modeshape.jcr.RepositoryConfiguration.JaasSecurity;
+import org.modeshape.jcr.RepositoryConfiguration.Journaling;
 import org.modeshape.jcr.RepositoryConfiguration.QuerySystem;
 import org.modeshape.jcr.RepositoryConfiguration.Security;
 import org.modeshape.jcr.RepositoryConfiguration.TransactionMode;
@@ -75,18 +74,23 @@ import org.modeshape.jcr.api.Repository;
 import org.modeshape.jcr.api.RepositoryManager;
 import org.modeshape.jcr.api.Workspace;
 import org.modeshape.jcr.api.mimetype.MimeTypeDetector;
+import org.modeshape.jcr.api.monitor.DurationMetric;
 import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.query.Query;
 import org.modeshape.jcr.bus.ChangeBus;
 import org.modeshape.jcr.bus.ClusteredRepositoryChangeBus;
+import org.modeshape.jcr.bus.OverflowPolicy;
 import org.modeshape.jcr.bus.RepositoryChangeBus;
 import org.modeshape.jcr.cache.SessionEnvironment.Monitor;
 import org.modeshape.jcr.cache.SessionEnvironment.MonitorFactory;
 import org.modeshape.jcr.cache.*;
 import org.modeshape.jcr.cache.change.*;
+import org.modeshape.jcr.cache.document.WorkspaceCache;
 import org.modeshape.jcr.mimetype.MimeTypeDetectors;
-import org.modeshape.jcr.query.QueryIndexing;
+import org.modeshape.jcr.query.BatchingQueryIndexing;
 import org.modeshape.jcr.query.parse.*;
+import org.modeshape.jcr.query.plan.QueryPlanCache;
+import org.modeshape.jcr.query.process.QueryResultCache;
 import org.modeshape.jcr.query.xpath.XPathQueryParser;
 import org.modeshape.jcr.security.*;
 import org.modeshape.jcr.txn.NoClientTransactions;
@@ -407,6 +411,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         return runningState().changeBus();
     }
 
+    protected final ChangeJournal changeJournal() {
+        return runningState().changeJournal();
+    }
+
     protected final String repositoryKey() {
         return runningState().repositoryKey();
     }
@@ -753,7 +761,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         descriptors.put(Repository.OPTION_ACTIVITIES_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_BASELINES_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_ACCESS_CONTROL_SUPPORTED, valueFor(factories, false));
-        descriptors.put(Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED, valueFor(factories, false));
+        descriptors.put(Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED,
+                        valueFor(factories, repositoryConfiguration().getJournaling().isEnabled()));
         descriptors.put(Repository.OPTION_RETENTION_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_LIFECYCLE_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_NODE_AND_PROPERTY_WITH_SAME_NAME_SUPPORTED, valueFor(factories, true));
@@ -908,10 +917,13 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         private final ExecutorService indexingExecutor;
         private final TextExtractors extractors;
         private final ChangeBus changeBus;
+        private final RepositoryChangeBus localChangeBus;
         private final ExecutorService changeDispatchingQueue;
         private final boolean useXaSessions;
         private final MimeTypeDetectors mimeTypeDetector;
         private final BackupService backupService;
+        private final DocumentOptimizationService documentOptimizer;
+        private final ChangeJournal changeJournal;
 
         protected RunningState() throws Exception {
             this(null, null);
@@ -991,6 +1003,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 this.persistentRegistry = other.persistentRegistry;
                 this.changeDispatchingQueue = other.changeDispatchingQueue;
                 this.changeBus = other.changeBus;
+                this.localChangeBus = other.localChangeBus;
+                this.documentOptimizer = other.documentOptimizer;
+                // The journal cannot be moved while we're running, so any changes take effect upon next startup ...
+                this.changeJournal = other.changeJournal;
             } else {
                 // find the Schematic database and Infinispan Cache ...
                 CacheContainer container = config.getContentCacheContainer();
@@ -1016,7 +1032,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
 
                 // Create the event bus
                 this.changeDispatchingQueue = this.context().getCachedTreadPool("modeshape-event-dispatcher");
-                this.changeBus = createBus(config.getClustering(), this.changeDispatchingQueue, systemWorkspaceName(), false);
+                this.localChangeBus = createLocalBus(config.getEventBus(), this.changeDispatchingQueue, systemWorkspaceName());
+                this.changeBus = createBus(config.getClustering(), this.localChangeBus);
                 this.changeBus.start();
 
                 // Set up the repository cache ...
@@ -1034,6 +1051,19 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 // Set up the unused binary value listener ...
                 this.cache.register(new BinaryUsageChangeSetListener(binaryStore));
 
+                // Set up the journal of changes ...
+                Journaling journaling = config.getJournaling();
+                if (journaling.isEnabled()) {
+                    this.changeJournal = new ChangeJournal(new File(journaling.getLocation()),
+                                                           journaling.getSegmentSizeInBytes(),
+                                                           journaling.getMaxSizeInBytes(),
+                                                           TimeUnit.SECONDS.toMillis(journaling.getMaxAgeInSeconds()));
+                    this.changeJournal.start();
+                    this.cache.register(this.changeJournal);
+                } else {
+                    this.changeJournal = null;
+                }
+
                 // Refresh several of the components information from the repository cache ...
                 this.persistentRegistry.refreshFromSystem();
                 this.lockManager.refreshFromSystem();
@@ -1054,6 +1084,25 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
 
                 // Record the number of workspaces that are available/predefined ...
                 this.statistics.set(ValueMetric.WORKSPACE_COUNT, cache.getWorkspaceNames().size());
+                this.statistics.addSampler(new NodeCacheSampler(this.cache));
+                this.statistics.addSampler(new ChangeBusSampler(this.localChangeBus));
+                this.statistics.addSampler(new QueryPlanCacheSampler());
+                this.statistics.addSampler(new QueryResultCacheSampler());
+                this.statistics.addSampler(new ReindexingSampler());
+                this.statistics.addSampler(new BackupSampler());
+
+                // Set up the background optimization of the child reference blocks ...
+                DocumentOptimization optimization = config.getDocumentOptimization();
+                if (optimization.isEnabled()) {
+                    ExecutorService optimizationPool = this.context.getThreadPool(optimization.getThreadPoolName());
+                    this.documentOptimizer = new DocumentOptimizationService(this.cache, this.transactions, this.statistics,
+                                                                             optimizationPool, this.context.getProcessId(),
+                                                                             optimization.getChildCountTarget(),
+                                                                             optimization.getChildCountTolerance());
+                    this.cache.register(this.documentOptimizer);
+                } else {
+                    this.documentOptimizer = null;
+                }
             }
 
             this.useXaSessions = this.transactions instanceof SynchronizedTransactions;
@@ -1122,6 +1171,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 Properties indexStorageProps = query.getIndexStorageProperties();
                 this.repositoryQueryManager = new RepositoryQueryManager(this, config.getQuery(), indexingExecutor, backendProps,
                                                                          indexingProps, indexStorageProps);
+                this.cache.register(this.repositoryQueryManager);
                 boolean shouldIndexSystemContent = !indexingProps.getProperty(FieldName.INDEXING_MODE_SYSTEM_CONTENT)
                                                                  .equalsIgnoreCase(RepositoryConfiguration.IndexingMode.DISABLED.toString());
                 if (this.cache.isSystemContentInitialized() && shouldIndexSystemContent) {
@@ -1132,6 +1182,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             } else {
                 this.repositoryQueryManager = null;
             }
+            if (other != null && other.repositoryQueryManager != null) this.cache.unregister(other.repositoryQueryManager);
 
             // Check that we have parsers for all the required languages ...
             assert this.queryParsers.getParserFor(Query.XPATH) != null;
@@ -1155,7 +1206,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             }
 
             // Set up the backup service and executor ...
-            this.backupService = new BackupService(this);
+            this.backupService = new BackupService(this, config.getBackup());
         }
 
         protected Transactions createTransactions( TransactionMode mode,
@@ -1291,6 +1342,15 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             return backupService;
         }
 
+        /**
+         * Get the journal of the changes made in this repository.
+         * 
+         * @return the change journal, or null if journaling is not enabled
+         */
+        protected final ChangeJournal changeJournal() {
+            return changeJournal;
+        }
+
         private AuthenticationProviders createAuthenticationProviders( AtomicBoolean useAnonymouOnFailedLogins ) {
             // Prepare to create the authenticators and authorizers ...
             AuthenticationProviders authenticators = new AuthenticationProviders();
@@ -1373,6 +1433,11 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 sequencers().shutdown();
             }
 
+            if (this.documentOptimizer != null) {
+                // Stop optimizing documents ...
+                this.documentOptimizer.shutdown();
+            }
+
             // Now wait until all the internal sessions are gone ...
             if (!internalSessions.isEmpty()) {
                 try {
@@ -1394,6 +1459,11 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 this.changeBus.shutdown();
             }
 
+            // Stop recording changes in the journal ...
+            if (this.changeJournal != null) {
+                this.changeJournal.shutdown();
+            }
+
             // Shutdown the query engine ...
             if (repositoryQueryManager != null) {
                 repositoryQueryManager.shutdown();
@@ -1568,16 +1638,188 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             }
         }
 
+        protected RepositoryChangeBus createLocalBus( RepositoryConfiguration.EventBus eventBusConfiguration,
+                                                      ExecutorService executor,
+                                                      String systemWorkspaceName ) {
+            // Internal listeners must see every change, so only the observation listeners use the configured policy ...
+            return new RepositoryChangeBus(executor, systemWorkspaceName, false, eventBusConfiguration.getQueueSize(),
+                                           OverflowPolicy.BLOCK);
+        }
+
         protected ChangeBus createBus( RepositoryConfiguration.Clustering clusteringConfiguration,
-                                       ExecutorService executor,
-                                       String systemWorkspaceName,
-                                       boolean separateThreadForSystemWorkspace ) {
-            RepositoryChangeBus standaloneBus = new RepositoryChangeBus(executor, systemWorkspaceName,
-                                                                        separateThreadForSystemWorkspace);
+                                       RepositoryChangeBus standaloneBus ) {
             return clusteringConfiguration.isEnabled() ? new ClusteredRepositoryChangeBus(clusteringConfiguration, standaloneBus) : standaloneBus;
         }
     }
 
+    /**
+     * A {@link RepositoryStatistics.Sampler} that records the size of and the activity in the node caches of all loaded
+     * workspaces. The caches only keep cumulative counts, so this sampler records the increase since the previous sample.
+     */
+    protected static class NodeCacheSampler implements RepositoryStatistics.Sampler {
+        private final RepositoryCache cache;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        protected NodeCacheSampler( RepositoryCache cache ) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void sample( RepositoryStatistics statistics ) {
+            long size = 0L;
+            long hits = 0L;
+            long misses = 0L;
+            long evictions = 0L;
+            for (WorkspaceCache workspaceCache : cache.workspaces()) {
+                ConcurrentLruCache<NodeKey, CachedNode> nodeCache = workspaceCache.nodeCache();
+                size += nodeCache.size();
+                hits += nodeCache.getHitCount();
+                misses += nodeCache.getMissCount();
+                evictions += nodeCache.getEvictionCount();
+            }
+            statistics.set(ValueMetric.NODE_CACHE_SIZE, size);
+            // The totals decrease when workspace caches are dropped, so never record negative increments ...
+            statistics.increment(ValueMetric.NODE_CACHE_HITS, Math.max(0L, hits - this.hits));
+            statistics.increment(ValueMetric.NODE_CACHE_MISSES, Math.max(0L, misses - this.misses));
+            statistics.increment(ValueMetric.NODE_CACHE_EVICTIONS, Math.max(0L, evictions - this.evictions));
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+    }
+
+    /**
+     * A {@link RepositoryStatistics.Sampler} that records the size of and the activity in the queues of the listeners of the
+     * local change bus. The dispatch latency of each listener queue is recorded with a payload describing the queue, so that the
+     * slowest listeners can be identified.
+     */
+    protected static class ChangeBusSampler implements RepositoryStatistics.Sampler {
+        private final RepositoryChangeBus bus;
+
+        protected ChangeBusSampler( RepositoryChangeBus bus ) {
+            this.bus = bus;
+        }
+
+        @Override
+        public void sample( RepositoryStatistics statistics ) {
+            long queueSize = 0L;
+            long dropped = 0L;
+            long coalesced = 0L;
+            for (RepositoryChangeBus.ListenerStatistics listener : bus.sampleListenerStatistics()) {
+                queueSize += listener.getQueueSize();
+                dropped += listener.getDroppedCount();
+                coalesced += listener.getCoalescedCount();
+                if (listener.getDispatchedCount() == 0L) continue;
+                Map<String, String> payload = new HashMap<String, String>();
+                payload.put("listener", listener.getListener());
+                payload.put("workspace", listener.getWorkspaceName());
+                payload.put("policy", listener.getPolicy().name());
+                payload.put("queueSize", Integer.toString(listener.getQueueSize()));
+                payload.put("dispatched", Long.toString(listener.getDispatchedCount()));
+                payload.put("dropped", Long.toString(listener.getDroppedCount()));
+                payload.put("coalesced", Long.toString(listener.getCoalescedCount()));
+                payload.put("averageLatencyInMillis", Long.toString(listener.getAverageLatency(TimeUnit.MILLISECONDS)));
+                statistics.recordDuration(DurationMetric.LISTENER_DISPATCH_TIME, listener.getMaximumLatency(TimeUnit.NANOSECONDS),
+                                          TimeUnit.NANOSECONDS, payload);
+            }
+            statistics.set(ValueMetric.LISTENER_QUEUE_SIZE, queueSize);
+            statistics.increment(ValueMetric.DROPPED_CHANGE_SET_COUNT, dropped);
+            statistics.increment(ValueMetric.COALESCED_CHANGE_SET_COUNT, coalesced);
+        }
+    }
+
+    /**
+     * A {@link RepositoryStatistics.Sampler} that records the size of and the activity in the query plan cache of the running
+     * repository. The cache only keeps cumulative counts, so this sampler records the increase since the previous sample.
+     */
+    protected class QueryPlanCacheSampler implements RepositoryStatistics.Sampler {
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        @Override
+        public void sample( RepositoryStatistics statistics ) {
+            RunningState running = runningState.get();
+            RepositoryQueryManager queryManager = running != null ? running.queryManager() : null;
+            if (queryManager == null) return;
+            QueryPlanCache planCache = queryManager.planCache();
+            long hits = planCache.getHitCount();
+            long misses = planCache.getMissCount();
+            long evictions = planCache.getEvictionCount();
+            statistics.set(ValueMetric.QUERY_PLAN_CACHE_SIZE, planCache.size());
+            // The totals start over when the repository is restarted, so never record negative increments ...
+            statistics.increment(ValueMetric.QUERY_PLAN_CACHE_HITS, Math.max(0L, hits - this.hits));
+            statistics.increment(ValueMetric.QUERY_PLAN_CACHE_MISSES, Math.max(0L, misses - this.misses));
+            statistics.increment(ValueMetric.QUERY_PLAN_CACHE_EVICTIONS, Math.max(0L, evictions - this.evictions));
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+    }
+
+    protected class QueryResultCacheSampler implements RepositoryStatistics.Sampler {
+        private long hits;
+        private long misses;
+        private long invalidations;
+
+        @Override
+        public void sample( RepositoryStatistics statistics ) {
+            RunningState running = runningState.get();
+            RepositoryQueryManager queryManager = running != null ? running.queryManager() : null;
+            QueryResultCache resultCache = queryManager != null ? queryManager.resultCache() : null;
+            if (resultCache == null) return;
+            long hits = resultCache.getHitCount();
+            long misses = resultCache.getMissCount();
+            long invalidations = resultCache.getInvalidationCount();
+            statistics.set(ValueMetric.QUERY_RESULT_CACHE_SIZE, resultCache.size());
+            // The totals start over when the repository is restarted, so never record negative increments ...
+            statistics.increment(ValueMetric.QUERY_RESULT_CACHE_HITS, Math.max(0L, hits - this.hits));
+            statistics.increment(ValueMetric.QUERY_RESULT_CACHE_MISSES, Math.max(0L, misses - this.misses));
+            statistics.increment(ValueMetric.QUERY_RESULT_CACHE_INVALIDATIONS, Math.max(0L, invalidations - this.invalidations));
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+        }
+    }
+
+    protected class ReindexingSampler implements RepositoryStatistics.Sampler {
+        private long reindexedNodes;
+
+        @Override
+        public void sample( RepositoryStatistics statistics ) {
+            RunningState running = runningState.get();
+            RepositoryQueryManager queryManager = running != null ? running.queryManager() : null;
+            if (queryManager == null) return;
+            long reindexedNodes = queryManager.reindexedNodeCount();
+            // The total starts over when the repository is restarted, so never record negative increments ...
+            statistics.increment(ValueMetric.REINDEXED_NODE_COUNT, Math.max(0L, reindexedNodes - this.reindexedNodes));
+            long secondsRemaining = TimeUnit.MILLISECONDS.toSeconds(queryManager.reindexingTimeRemaining());
+            statistics.set(ValueMetric.REINDEXING_TIME_REMAINING, secondsRemaining);
+            this.reindexedNodes = reindexedNodes;
+        }
+    }
+
+    protected class BackupSampler implements RepositoryStatistics.Sampler {
+        private long documents;
+        private long binaryBytes;
+
+        @Override
+        public void sample( RepositoryStatistics statistics ) {
+            RunningState running = runningState.get();
+            BackupService backupService = running != null ? running.backupService() : null;
+            if (backupService == null) return;
+            long documents = backupService.transferredDocumentCount();
+            long binaryBytes = backupService.transferredBinaryBytes();
+            // The totals start over when the repository is restarted, so never record negative increments ...
+            statistics.increment(ValueMetric.BACKUP_DOCUMENT_COUNT, Math.max(0L, documents - this.documents));
+            statistics.increment(ValueMetric.BACKUP_BINARY_BYTES, Math.max(0L, binaryBytes - this.binaryBytes));
+            this.documents = documents;
+            this.binaryBytes = binaryBytes;
+        }
+    }
+
     protected static class RepositorySessionEnvironment implements SessionEnvironment {
         private final Transactions transactions;
 
@@ -1598,18 +1840,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             this.runningState = runningState;
         }
 
-        protected Transaction currentTransaction() {
-            try {
-                Transaction txn = runningState.txnManager().getTransaction();
-                return (txn != null && txn.getStatus() == Status.STATUS_ACTIVE) ? txn : null;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
-
         @Override
         public Monitor createMonitor() {
-            final Transaction txn = currentTransaction();
             final RepositoryStatistics statistics = this.runningState.statistics();
             final RepositoryNodeTypeManager nodeTypeManager = this.runningState.nodeTypeManager();
             final RepositoryQueryManager queryManager = this.runningState.queryManager();
@@ -1648,37 +1880,16 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                 };
             }
             final NodeTypeSchemata schemata = nodeTypeManager.getRepositorySchemata();
-            final QueryIndexing indexes = queryManager.getIndexes();
-            final TransactionContext txnCtx = new TransactionContext() {
-                @Override
-                public Object getTransactionIdentifier() {
-                    return txn;
-                }
-
-                @Override
-                public boolean isTransactionInProgress() {
-                    return txn != null;
-                }
-
-                @Override
-                public void registerSynchronization( Synchronization synchronization ) {
-                    // Never log a synchronization ...
-                    CheckArg.isNotNull(synchronization, "synchronization");
-                    try {
-                        if (txn != null && txn.getStatus() == Status.STATUS_ACTIVE) {
-                            txn.registerSynchronization(synchronization);
-                        }
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            };
+            // Collect the index work for all of the changes, and apply it as a single unit once the changes are persisted ...
+            final BatchingQueryIndexing.Collector indexWork = queryManager.getBatchingIndexes().collect(schemata);
             // Create a monitor that forwards everyting to the correct component ...
             return new Monitor() {
                 @Override
                 public void recordChanged( long changedNodesCount ) {
                     // ValueMetric.SESSION_SAVES are tracked in JcrSession.save() ...
                     statistics.increment(ValueMetric.NODE_CHANGES, changedNodesCount);
+                    // This is called only after the changes were successfully persisted ...
+                    indexWork.apply();
                 }
 
                 @Override
@@ -1688,7 +1899,7 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                        Name primaryType,
                                        Set<Name> mixinTypes,
                                        Collection<Property> properties ) {
-                    indexes.addToIndex(workspace, key, path, primaryType, mixinTypes, properties, schemata, txnCtx);
+                    indexWork.add(workspace, key, path, primaryType, mixinTypes, properties);
                 }
 
                 @Override
@@ -1698,13 +1909,13 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                           Name primaryType,
                                           Set<Name> mixinTypes,
                                           Iterator<Property> properties ) {
-                    indexes.updateIndex(workspace, key, path, primaryType, mixinTypes, properties, schemata, txnCtx);
+                    indexWork.update(workspace, key, path, primaryType, mixinTypes, properties);
                 }
 
                 @Override
                 public void recordRemove( String workspace,
                                           Iterable<NodeKey> keys ) {
-                    indexes.removeFromIndex(workspace, keys, txnCtx);
+                    indexWork.remove(workspace, keys);
                 }
             };
         }
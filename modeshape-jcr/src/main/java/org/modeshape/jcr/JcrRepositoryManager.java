@@ -77,6 +77,13 @@ public class JcrRepositoryManager implements RepositoryManager {
         return repository().runningState().backupService().backupRepository(backupDirectory);
     }
 
+    @Override
+    public Problems backupRepository( File backupDirectory,
+                                      File previousBackupDirectory ) throws RepositoryException {
+        session().checkPermission(Path.ROOT_PATH, ModeShapePermissions.BACKUP);
+        return repository().runningState().backupService().backupRepository(backupDirectory, previousBackupDirectory);
+    }
+
     @Override
     public Problems restoreRepository( File backupDirectory ) throws RepositoryException {
         session().checkPermission(Path.ROOT_PATH, ModeShapePermissions.RESTORE);
@@ -30,6 +30,9 @@ import java.security.AccessControlException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -83,6 +86,7 @@ import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.cache.SessionCache.SaveContext;
 import org.modeshape.jcr.cache.WorkspaceNotFoundException;
 import org.modeshape.jcr.cache.WrappedException;
+import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.security.AuthorizationProvider;
 import org.modeshape.jcr.security.SecurityContext;
 import org.modeshape.jcr.value.DateTimeFactory;
@@ -121,6 +125,7 @@ public class JcrSession implements Session {
     private final AtomicReference<Map<NodeKey, NodeKey>> baseVersionKeys = new AtomicReference<Map<NodeKey, NodeKey>>();
     private final AtomicReference<Map<NodeKey, NodeKey>> originalVersionKeys = new AtomicReference<Map<NodeKey, NodeKey>>();
     private final AtomicReference<JcrSharedNodeCache> shareableNodeCache = new AtomicReference<JcrSharedNodeCache>();
+    private final List<QueryResults> openQueryResults = new LinkedList<QueryResults>();
     private volatile JcrValueFactory valueFactory;
     private volatile boolean isLive = true;
     private final long nanosCreated;
@@ -200,10 +205,36 @@ public class JcrSession implements Session {
         observationManager().removeAllEventListeners();
 
         cleanLocks();
+        closeOpenQueryResults();
         if (removeFromActiveSession) this.repository.runningState().removeSession(this);
         this.context.getSecurityContext().logout();
     }
 
+    /**
+     * Record query results that may still hold resources until all of their tuples have been produced, so that they can be
+     * closed when this session is closed.
+     * 
+     * @param results the query results; may not be null
+     */
+    final void addOpenQueryResults( QueryResults results ) {
+        synchronized (openQueryResults) {
+            // Forget any results that have since been fully iterated or closed ...
+            for (Iterator<QueryResults> iter = openQueryResults.iterator(); iter.hasNext();) {
+                if (iter.next().isClosed()) iter.remove();
+            }
+            openQueryResults.add(results);
+        }
+    }
+
+    private void closeOpenQueryResults() {
+        synchronized (openQueryResults) {
+            for (QueryResults results : openQueryResults) {
+                results.close();
+            }
+            openQueryResults.clear();
+        }
+    }
+
     private void cleanLocks() {
         try {
             lockManager().cleanLocks();
@@ -1336,6 +1367,7 @@ public class JcrSession implements Session {
     public void logout() {
         this.isLive = false;
         cleanLocks();
+        closeOpenQueryResults();
         try {
             RunningState running = repository.runningState();
             long lifetime = Math.abs(System.nanoTime() - this.nanosCreated);
@@ -0,0 +1,466 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.infinispan.schematic.Schematic;
+import org.infinispan.schematic.SchematicDb;
+import org.infinispan.schematic.SchematicEntry;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.EditableDocument;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.ChildReferences;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.PathCache;
+import org.modeshape.jcr.query.IndexBatch;
+import org.modeshape.jcr.query.QueryIndexing;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * A component that crawls a branch of a workspace and rebuilds the indexes for all of the nodes in that branch, using several
+ * threads.
+ * <p>
+ * The top of the branch is expanded one level at a time on the calling thread until there are enough children to keep all of
+ * the threads busy. Those children are then divided into partitions, each consisting of consecutive siblings and all of their
+ * descendants, and the partitions are indexed concurrently by the calling thread and by the threads of the executor. Each thread
+ * collects its index updates into an {@link IndexBatch} that is applied every time it contains the configured number of updates.
+ * The paths of the nodes are computed from the path of the parent while crawling, rather than by walking up the ancestors of
+ * every node.
+ * </p>
+ * <p>
+ * When a {@link Checkpoint} is supplied, the identifiers of the partitions that were completely indexed are periodically
+ * recorded, so that the partitions that were already indexed are skipped if the same branch is reindexed again after an
+ * interrupted attempt. The checkpoint is removed once the whole branch has been indexed.
+ * </p>
+ */
+@ThreadSafe
+class Reindexer {
+
+    /**
+     * The number of partitions per thread that the content is divided into, so that threads which finish early can pick up more
+     * work.
+     */
+    protected static final int PARTITIONS_PER_THREAD = 8;
+
+    /**
+     * The maximum number of siblings whose subtrees make up one partition.
+     */
+    protected static final int MAX_SIBLINGS_PER_PARTITION = 1000;
+
+    private final String workspaceName;
+    private final NodeTypeSchemata schemata;
+    private final NodeCache cache;
+    private final QueryIndexing indexes;
+    private final PathFactory pathFactory;
+    private final ExecutorService executor;
+    private final int threads;
+    private final int batchSize;
+    private final AtomicLong indexedNodeCount;
+    private final AtomicInteger partitionCount = new AtomicInteger();
+    private final AtomicInteger completedPartitionCount = new AtomicInteger();
+    private final AtomicInteger skippedPartitionCount = new AtomicInteger();
+    private volatile long partitioningCompletedTime;
+    private final Logger logger = Logger.getLogger(getClass());
+
+    /**
+     * Create a reindexer for a workspace.
+     * 
+     * @param workspaceName the name of the workspace; may not be null
+     * @param schemata the node type schemata used throughout the reindexing; may not be null
+     * @param cache the cache for the workspace, which must be safe to use from multiple threads; may not be null
+     * @param indexes the indexes to be updated; may not be null
+     * @param pathFactory the factory for paths; may not be null
+     * @param executor the executor for the threads that index the partitions, or null if only the calling thread should be used
+     * @param threads the maximum number of threads (including the calling thread) that concurrently index the partitions
+     * @param batchSize the number of index updates that are applied together
+     * @param indexedNodeCount the counter that is incremented for each node that is indexed; may not be null
+     */
+    Reindexer( String workspaceName,
+               NodeTypeSchemata schemata,
+               NodeCache cache,
+               QueryIndexing indexes,
+               PathFactory pathFactory,
+               ExecutorService executor,
+               int threads,
+               int batchSize,
+               AtomicLong indexedNodeCount ) {
+        this.workspaceName = workspaceName;
+        this.schemata = schemata;
+        this.cache = cache;
+        this.indexes = indexes;
+        this.pathFactory = pathFactory;
+        this.executor = executor;
+        this.threads = executor != null ? Math.max(1, threads) : 1;
+        this.batchSize = Math.max(1, batchSize);
+        this.indexedNodeCount = indexedNodeCount;
+    }
+
+    /**
+     * Index the supplied node and its descendants, and block until all of them have been indexed.
+     * 
+     * @param node the node at the top of the branch; may not be null
+     * @param depth the depth of the content to be indexed, where a depth of 1 means only the supplied node is indexed
+     * @param excludedChildKey the key of a child of the supplied node that should not be indexed, or null if all children are
+     *        to be indexed
+     * @param checkpoint the checkpoint used to skip the partitions that were indexed by a prior attempt and to record the
+     *        partitions indexed by this attempt, or null if the progress should not be recorded
+     * @throws RuntimeException if there is a problem indexing the content
+     */
+    void reindex( CachedNode node,
+                  int depth,
+                  NodeKey excludedChildKey,
+                  Checkpoint checkpoint ) {
+        final long startTime = System.currentTimeMillis();
+        Path nodePath = new PathCache(cache).getPath(node);
+        IndexBatch batch = indexes.createBatch();
+        index(node, nodePath, batch);
+        if (depth == 1) {
+            batch.apply();
+            return;
+        }
+
+        // Expand the top of the branch on this thread until there are enough children to divide among the threads ...
+        final int targetPartitions = threads * PARTITIONS_PER_THREAD;
+        List<NodeAndPath> level = Collections.singletonList(new NodeAndPath(node, nodePath));
+        List<Partition> partitions = null;
+        while (!level.isEmpty()) {
+            long childCount = 0L;
+            for (NodeAndPath parent : level) {
+                childCount += parent.node.getChildReferences(cache).size();
+            }
+            if (childCount >= targetPartitions) {
+                int siblingsPerPartition = (int)Math.max(1L, Math.min(MAX_SIBLINGS_PER_PARTITION, childCount / targetPartitions));
+                partitions = partition(level, siblingsPerPartition, excludedChildKey);
+                break;
+            }
+            List<NodeAndPath> nextLevel = new ArrayList<NodeAndPath>();
+            for (NodeAndPath parent : level) {
+                for (ChildReference ref : parent.node.getChildReferences(cache)) {
+                    if (ref.getKey().equals(excludedChildKey)) continue;
+                    CachedNode child = cache.getNode(ref);
+                    if (child == null) continue; // removed since we started
+                    Path childPath = pathFactory.create(parent.path, ref.getSegment());
+                    index(child, childPath, batch);
+                    if (batch.size() >= batchSize) batch.apply();
+                    if (childPath.size() <= depth) nextLevel.add(new NodeAndPath(child, childPath));
+                }
+            }
+            level = nextLevel;
+            excludedChildKey = null; // only applies to the children of the top node
+        }
+        batch.apply();
+        if (partitions == null) {
+            // The whole branch has already been indexed ...
+            if (checkpoint != null) checkpoint.remove();
+            return;
+        }
+
+        // Skip the partitions that were completed by a prior attempt ...
+        Set<String> completed = checkpoint != null ? checkpoint.load() : Collections.<String>emptySet();
+        final Queue<Partition> queue = new ConcurrentLinkedQueue<Partition>();
+        for (Partition partition : partitions) {
+            if (completed.contains(partition.id)) {
+                skippedPartitionCount.incrementAndGet();
+            } else {
+                queue.add(partition);
+            }
+        }
+        partitionCount.set(queue.size());
+        partitioningCompletedTime = System.currentTimeMillis();
+
+        // Index the partitions concurrently, using this thread as one of the workers in case the executor is busy ...
+        final CountDownLatch latch = new CountDownLatch(queue.size());
+        final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        Runnable worker = new Worker(queue, depth, checkpoint, latch, failure);
+        for (int i = 1; i < threads && i < queue.size(); ++i) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down, so the remaining threads will do the work ...
+                break;
+            }
+        }
+        worker.run();
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // Leave the checkpoint, so that a later attempt can resume ...
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        RuntimeException error = failure.get();
+        if (error != null) throw error;
+        if (checkpoint != null) checkpoint.remove();
+        logger.debug("Reindexed {0} partitions of workspace '{1}' in {2} ms, skipping {3} partitions completed earlier",
+                       partitionCount.get(), workspaceName, System.currentTimeMillis() - startTime,
+                       skippedPartitionCount.get());
+    }
+
+    /**
+     * Get the estimated number of milliseconds until this reindexer has indexed all of its partitions, based upon the rate at
+     * which the partitions have been indexed so far.
+     * 
+     * @return the estimated time remaining in milliseconds, or -1 if no estimate is yet possible
+     */
+    long estimateRemainingMillis() {
+        int completed = completedPartitionCount.get();
+        if (completed == 0) return -1L;
+        int remaining = partitionCount.get() - completed;
+        long elapsed = System.currentTimeMillis() - partitioningCompletedTime;
+        return elapsed * remaining / completed;
+    }
+
+    protected List<Partition> partition( List<NodeAndPath> parents,
+                                         int siblingsPerPartition,
+                                         NodeKey excludedChildKey ) {
+        List<Partition> partitions = new ArrayList<Partition>();
+        for (NodeAndPath parent : parents) {
+            ChildReferences childRefs = parent.node.getChildReferences(cache);
+            Iterator<ChildReference> iter = childRefs.iterator();
+            while (iter.hasNext()) {
+                List<ChildReference> siblings = new ArrayList<ChildReference>(siblingsPerPartition);
+                while (iter.hasNext() && siblings.size() < siblingsPerPartition) {
+                    ChildReference ref = iter.next();
+                    if (!ref.getKey().equals(excludedChildKey)) siblings.add(ref);
+                }
+                if (!siblings.isEmpty()) partitions.add(new Partition(parent.path, siblings));
+            }
+        }
+        return partitions;
+    }
+
+    protected void index( CachedNode node,
+                          Path path,
+                          IndexBatch batch ) {
+        indexes.updateIndex(workspaceName,
+                            node.getKey(),
+                            path,
+                            node.getPrimaryType(cache),
+                            node.getMixinTypes(cache),
+                            node.getProperties(cache),
+                            schemata,
+                            batch);
+        indexedNodeCount.incrementAndGet();
+    }
+
+    protected void index( Partition partition,
+                          int depth,
+                          IndexBatch batch ) {
+        // Crawl depth-first, so that the number of pending nodes stays small even for very wide branches ...
+        Deque<ChildReference> refs = new ArrayDeque<ChildReference>();
+        Deque<Path> parentPaths = new ArrayDeque<Path>();
+        for (ChildReference ref : partition.siblings) {
+            refs.push(ref);
+            parentPaths.push(partition.parentPath);
+        }
+        while (!refs.isEmpty()) {
+            ChildReference ref = refs.pop();
+            Path parentPath = parentPaths.pop();
+            CachedNode node = cache.getNode(ref);
+            if (node == null) continue; // removed since we started
+            Path path = pathFactory.create(parentPath, ref.getSegment());
+            index(node, path, batch);
+            if (batch.size() >= batchSize) batch.apply();
+            if (path.size() <= depth) {
+                for (ChildReference childRef : node.getChildReferences(cache)) {
+                    refs.push(childRef);
+                    parentPaths.push(path);
+                }
+            }
+        }
+    }
+
+    protected final class Worker implements Runnable {
+        private final Queue<Partition> queue;
+        private final int depth;
+        private final Checkpoint checkpoint;
+        private final CountDownLatch latch;
+        private final AtomicReference<RuntimeException> failure;
+
+        protected Worker( Queue<Partition> queue,
+                          int depth,
+                          Checkpoint checkpoint,
+                          CountDownLatch latch,
+                          AtomicReference<RuntimeException> failure ) {
+            this.queue = queue;
+            this.depth = depth;
+            this.checkpoint = checkpoint;
+            this.latch = latch;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            IndexBatch batch = indexes.createBatch();
+            Partition partition;
+            while ((partition = queue.poll()) != null) {
+                try {
+                    // Once any partition fails, the remaining partitions are only counted down ...
+                    if (failure.get() != null) continue;
+                    index(partition, depth, batch);
+                    batch.apply();
+                    if (checkpoint != null) checkpoint.completed(partition.id);
+                    completedPartitionCount.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        }
+    }
+
+    protected static final class NodeAndPath {
+        protected final CachedNode node;
+        protected final Path path;
+
+        protected NodeAndPath( CachedNode node,
+                               Path path ) {
+            this.node = node;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A set of consecutive siblings, which together with all of their descendants are indexed by a single thread. The identifier
+     * of a partition consists of the key of its first node and the number of siblings, and is the same for every attempt as long
+     * as the content and the number of threads do not change.
+     */
+    protected static final class Partition {
+        protected final String id;
+        protected final Path parentPath;
+        protected final List<ChildReference> siblings;
+
+        protected Partition( Path parentPath,
+                             List<ChildReference> siblings ) {
+            this.parentPath = parentPath;
+            this.siblings = siblings;
+            this.id = siblings.get(0).getKey().toString() + "+" + siblings.size();
+        }
+    }
+
+    /**
+     * The record, stored as a document in the {@link SchematicDb database}, of the partitions of a branch that have been
+     * completely indexed. Writes are throttled, so after a failure at most the partitions completed within the last
+     * {@link #WRITE_INTERVAL_IN_MILLIS interval} are indexed again.
+     */
+    @ThreadSafe
+    static final class Checkpoint {
+        protected static final long WRITE_INTERVAL_IN_MILLIS = 1000L;
+        private static final String PATH = "path";
+        private static final String DEPTH = "depth";
+        private static final String COMPLETED = "completed";
+
+        private final SchematicDb database;
+        private final String key;
+        private final String path;
+        private final int depth;
+        @GuardedBy( "this" )
+        private final Set<String> completed = new HashSet<String>();
+        @GuardedBy( "this" )
+        private long lastWriteTime = System.currentTimeMillis();
+
+        /**
+         * Create a checkpoint for the branch at the supplied path.
+         * 
+         * @param database the database in which the checkpoint is stored; may not be null
+         * @param key the key of the checkpoint document; may not be null
+         * @param path the path of the top of the branch; may not be null
+         * @param depth the depth of the content being indexed
+         */
+        Checkpoint( SchematicDb database,
+                    String key,
+                    Path path,
+                    int depth ) {
+            this.database = database;
+            this.key = key;
+            this.path = path.getString();
+            this.depth = depth;
+        }
+
+        /**
+         * Load the identifiers of the partitions recorded by a prior attempt to index the same branch to the same depth.
+         * 
+         * @return the identifiers of the completed partitions; never null
+         */
+        synchronized Set<String> load() {
+            SchematicEntry entry = database.get(key);
+            Document doc = entry != null ? entry.getContentAsDocument() : null;
+            if (doc == null || !path.equals(doc.getString(PATH)) || doc.getInteger(DEPTH, 0) != depth) {
+                return Collections.emptySet();
+            }
+            List<?> ids = doc.getArray(COMPLETED);
+            if (ids != null) {
+                for (Object id : ids) {
+                    completed.add(id.toString());
+                }
+            }
+            return new HashSet<String>(completed);
+        }
+
+        /**
+         * Record that the identified partition has been completely indexed.
+         * 
+         * @param partitionId the identifier of the partition; may not be null
+         */
+        synchronized void completed( String partitionId ) {
+            completed.add(partitionId);
+            long now = System.currentTimeMillis();
+            if (now - lastWriteTime < WRITE_INTERVAL_IN_MILLIS) return;
+            lastWriteTime = now;
+            EditableDocument doc = Schematic.newDocument(PATH, path, DEPTH, depth);
+            doc.setArray(COMPLETED, completed.toArray());
+            database.put(key, doc, null);
+        }
+
+        /**
+         * Remove the checkpoint, so that the next attempt starts from scratch.
+         */
+        synchronized void remove() {
+            completed.clear();
+            if (database.containsKey(key)) database.remove(key);
+        }
+    }
+}
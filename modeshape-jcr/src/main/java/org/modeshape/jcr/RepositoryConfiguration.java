@@ -73,6 +73,8 @@ import org.modeshape.common.collection.SimpleProblems;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.ObjectUtil;
 import org.modeshape.common.util.StringUtil;
+import org.modeshape.jcr.bus.OverflowPolicy;
+import org.modeshape.jcr.bus.RepositoryChangeBus;
 import org.modeshape.jcr.clustering.DefaultChannelProvider;
 import org.modeshape.jcr.security.AnonymousProvider;
 import org.modeshape.jcr.security.JaasProvider;
@@ -270,6 +272,31 @@ public class RepositoryConfiguration {
          */
         public static final String DEFAULT = "default";
 
+        /**
+         * The name for the field under "workspaces" whose value is a document containing the limits of the cache of nodes that is
+         * kept for each workspace.
+         */
+        public static final String NODE_CACHE = "nodeCache";
+
+        /**
+         * The name for the field under "nodeCache" specifying the maximum number of nodes kept in each workspace cache. A value of
+         * zero or less means the number of nodes is not limited.
+         */
+        public static final String NODE_CACHE_MAX_ENTRIES = "maxEntries";
+
+        /**
+         * The name for the field under "nodeCache" specifying the maximum estimated size (in bytes) of the nodes kept in each
+         * workspace cache. A value of zero or less means the size is not limited.
+         */
+        public static final String NODE_CACHE_MAX_SIZE_IN_BYTES = "maxSizeInBytes";
+
+        /**
+         * The name for the field under "nodeCache" whose value is a document keyed by workspace name, where each value is a
+         * document containing the {@link #NODE_CACHE_MAX_ENTRIES} and/or {@link #NODE_CACHE_MAX_SIZE_IN_BYTES} limits that apply
+         * only to that workspace.
+         */
+        public static final String NODE_CACHE_WORKSPACES = "workspaces";
+
         /**
          * The name for the field whose value is a document containing binary storage information.
          */
@@ -338,6 +365,70 @@ public class RepositoryConfiguration {
         public static final String REBUILD_UPON_STARTUP = "rebuildUponStartup";
         public static final String INDEX_STORAGE = "indexStorage";
         public static final String INDEXING = "indexing";
+
+        /**
+         * The name for the field (under "query") whose value is a document containing the options for searching the segments of
+         * the indexes concurrently.
+         */
+        public static final String PARALLEL_SEARCH = "parallelSearch";
+
+        /**
+         * The name for the field (under "query/parallelSearch") specifying whether each query should search the segments of the
+         * indexes concurrently.
+         */
+        public static final String PARALLEL_SEARCH_ENABLED = "enabled";
+
+        /**
+         * The name for the field (under "query") whose value is a document containing the options for caching the results of
+         * queries.
+         */
+        public static final String RESULT_CACHE = "resultCache";
+
+        /**
+         * The name for the field (under "query/resultCache") specifying whether the results of queries should be cached.
+         */
+        public static final String RESULT_CACHE_ENABLED = "enabled";
+
+        /**
+         * The name for the field (under "query/resultCache") specifying the maximum number of query results kept in the cache. A
+         * value of zero or less means the number of results is not limited.
+         */
+        public static final String RESULT_CACHE_MAX_ENTRIES = "maxEntries";
+
+        /**
+         * The name for the field (under "query/resultCache") specifying the maximum estimated size (in bytes) of the query
+         * results kept in the cache. A value of zero or less means the size is not limited.
+         */
+        public static final String RESULT_CACHE_MAX_SIZE_IN_BYTES = "maxSizeInBytes";
+
+        /**
+         * The name for the field (under "query") whose value is a document containing the options for rebuilding the indexes.
+         */
+        public static final String REINDEXING = "reindexing";
+
+        /**
+         * The name for the field (under "query/reindexing") specifying the number of threads that concurrently index the
+         * partitions of the content when the indexes are rebuilt.
+         */
+        public static final String REINDEXING_THREADS = "threads";
+
+        /**
+         * The name for the field (under "query/reindexing") specifying the number of nodes whose index updates are applied
+         * together when the indexes are rebuilt.
+         */
+        public static final String REINDEXING_BATCH_SIZE = "batchSize";
+
+        /**
+         * The name for the field (under "query") whose value is a document containing the options for applying the index
+         * updates for the changes made by each save.
+         */
+        public static final String INDEXING_WORKERS = "indexingWorkers";
+
+        /**
+         * The name for the field (under "query/indexingWorkers") specifying the number of threads that concurrently apply the
+         * index updates for the changes made by one save.
+         */
+        public static final String INDEXING_WORKERS_THREADS = "threads";
         public static final String INDEXING_BACKEND = "backend";
         public static final String TABLES_INCLUDE_INHERITED_COLUMNS = "tablesIncludeInheritedColumns";
         public static final String TEXT_EXTRACTING = "textExtracting";
@@ -357,6 +448,91 @@ public class RepositoryConfiguration {
         public static final String THREAD_POOL = "threadPool";
         public static final String REMOVE_DERIVED_CONTENT_WITH_ORIGINAL = "removeDerivedContentWithOriginal";
 
+        /**
+         * The name for the field whose value is a document containing the options for optimizing the blocks of child references
+         * of nodes with many children.
+         */
+        public static final String DOCUMENT_OPTIMIZATION = "documentOptimization";
+
+        /**
+         * The name for the field (under "documentOptimization") specifying the goal for the number of child references in each
+         * block. Optimization is enabled only when this is specified.
+         */
+        public static final String OPTIMIZATION_CHILD_COUNT_TARGET = "childCountTarget";
+
+        /**
+         * The name for the field (under "documentOptimization") specifying the tolerance for the number of child references in
+         * each block.
+         */
+        public static final String OPTIMIZATION_CHILD_COUNT_TOLERANCE = "childCountTolerance";
+
+        /**
+         * The name for the field whose value is a document containing the options for the queues of changes that are sent to
+         * listeners.
+         */
+        public static final String EVENT_BUS = "eventBus";
+
+        /**
+         * The name for the field (under "eventBus") specifying the maximum number of change sets that can be queued for each
+         * listener in each workspace. A value of 0 means the queues are unbounded.
+         */
+        public static final String EVENT_BUS_QUEUE_SIZE = "queueSize";
+
+        /**
+         * The name for the field (under "eventBus") specifying the {@link OverflowPolicy policy} used when the queue of a JCR
+         * observation listener is full.
+         */
+        public static final String EVENT_BUS_OBSERVATION_OVERFLOW_POLICY = "observationOverflowPolicy";
+
+        /**
+         * The name for the field whose value is a document containing the options for the persistent journal of changes, which
+         * backs the JCR {@link javax.jcr.observation.EventJournal event journal}.
+         */
+        public static final String JOURNALING = "journaling";
+
+        /**
+         * The name for the field (under "journaling") specifying the path to the directory in which the journal is stored.
+         * Journaling is enabled only when this is specified.
+         */
+        public static final String JOURNAL_LOCATION = "location";
+
+        /**
+         * The name for the field (under "journaling") specifying the maximum age in seconds of the changes kept in the journal.
+         */
+        public static final String JOURNAL_MAX_AGE_IN_SECONDS = "maxAgeInSeconds";
+
+        /**
+         * The name for the field (under "journaling") specifying the maximum total size in bytes of the journal.
+         */
+        public static final String JOURNAL_MAX_SIZE_IN_BYTES = "maxSizeInBytes";
+
+        /**
+         * The name for the field (under "journaling") specifying the maximum size in bytes of each of the journal's segment files.
+         */
+        public static final String JOURNAL_SEGMENT_SIZE_IN_BYTES = "segmentSizeInBytes";
+
+        /**
+         * The name for the field whose value is a document containing the options for the backup and restore operations.
+         */
+        public static final String BACKUP = "backup";
+
+        /**
+         * The name for the field (under "backup") specifying the number of files that are concurrently written when backing up
+         * the documents, and concurrently read when restoring them.
+         */
+        public static final String BACKUP_DOCUMENT_STREAMS = "documentStreams";
+
+        /**
+         * The name for the field (under "backup") specifying the number of binary values that are concurrently copied when backing
+         * up or restoring the repository.
+         */
+        public static final String BACKUP_BINARY_THREADS = "binaryThreads";
+
+        /**
+         * The name for the field (under "backup") specifying the number of documents that are restored within each transaction.
+         */
+        public static final String BACKUP_RESTORE_BATCH_SIZE = "restoreBatchSize";
+
         public static final String INDEXING_ANALYZER = "analyzer";
         public static final String INDEXING_ANALYZER_CLASSPATH = "analyzerClasspath";
         public static final String INDEXING_SIMILARITY = "similarity";
@@ -407,6 +583,24 @@ public class RepositoryConfiguration {
          * The optional string representing a valid JGroups channel configuration object
          */
         public static final String CHANNEL_CONFIGURATION = "channelConfiguration";
+
+        /**
+         * The maximum number of milliseconds that changes are held so that they can be sent to the cluster in a single message. A
+         * value of 0 disables batching.
+         */
+        public static final String BATCH_DELAY_IN_MILLIS = "batchDelayInMillis";
+
+        /**
+         * The maximum size in bytes of the changes that are sent to the cluster in a single message.
+         */
+        public static final String BATCH_SIZE_IN_BYTES = "batchSizeInBytes";
+
+        /**
+         * The flag that specifies whether changes are sent to the cluster in the compact binary format rather than with Java
+         * serialization. Processes that do not understand the compact format cannot read such changes, so this should only be
+         * enabled once all members of the cluster have been upgraded.
+         */
+        public static final String COMPACT_CHANGE_SETS = "compactChangeSets";
     }
 
     public static class Default {
@@ -459,11 +653,106 @@ public class RepositoryConfiguration {
 
         public static final boolean MONITORING_ENABLED = true;
 
+        /**
+         * The default value of the {@link FieldName#NODE_CACHE_MAX_ENTRIES} field is '{@value} ', meaning the number of nodes is not
+         * limited.
+         */
+        public static final long NODE_CACHE_MAX_ENTRIES = 0L;
+
+        /**
+         * The default value of the {@link FieldName#NODE_CACHE_MAX_SIZE_IN_BYTES} field is '{@value} ', meaning the size is not
+         * limited.
+         */
+        public static final long NODE_CACHE_MAX_SIZE_IN_BYTES = 0L;
+
         public static final boolean REMOVE_DERIVED_CONTENT_WITH_ORIGINAL = true;
 
         public static final String SEQUENCING_POOL = "modeshape-sequencer";
+        public static final String OPTIMIZATION_POOL = "modeshape-opt";
+
+        /**
+         * The default value of the {@link FieldName#OPTIMIZATION_CHILD_COUNT_TOLERANCE} field, as a percentage of the
+         * {@link FieldName#OPTIMIZATION_CHILD_COUNT_TARGET target}, is '{@value} '.
+         */
+        public static final int OPTIMIZATION_CHILD_COUNT_TOLERANCE_PERCENT = 10;
+
+        /**
+         * The default value of the {@link FieldName#EVENT_BUS_QUEUE_SIZE} field is '{@value} ', meaning the queues are unbounded.
+         */
+        public static final int EVENT_BUS_QUEUE_SIZE = RepositoryChangeBus.UNBOUNDED_QUEUE_CAPACITY;
+        public static final OverflowPolicy EVENT_BUS_OBSERVATION_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+
+        /**
+         * The default value of the {@link FieldName#JOURNAL_MAX_AGE_IN_SECONDS} field is '{@value} ' (7 days).
+         */
+        public static final long JOURNAL_MAX_AGE_IN_SECONDS = 7 * 24 * 60 * 60L;
+
+        /**
+         * The default value of the {@link FieldName#JOURNAL_MAX_SIZE_IN_BYTES} field is '{@value} ' (1GB).
+         */
+        public static final long JOURNAL_MAX_SIZE_IN_BYTES = 1024 * 1024 * 1024L;
+
+        /**
+         * The default value of the {@link FieldName#JOURNAL_SEGMENT_SIZE_IN_BYTES} field is '{@value} ' (16MB).
+         */
+        public static final long JOURNAL_SEGMENT_SIZE_IN_BYTES = 16 * 1024 * 1024L;
+
+        public static final String BACKUP_POOL = "modeshape-backup";
+
+        /**
+         * The default value of the {@link FieldName#BACKUP_DOCUMENT_STREAMS} field is '{@value} '.
+         */
+        public static final int BACKUP_DOCUMENT_STREAMS = 4;
+
+        /**
+         * The default value of the {@link FieldName#BACKUP_BINARY_THREADS} field is '{@value} '.
+         */
+        public static final int BACKUP_BINARY_THREADS = 4;
+
+        /**
+         * The default value of the {@link FieldName#BACKUP_RESTORE_BATCH_SIZE} field is '{@value} '.
+         */
+        public static final int BACKUP_RESTORE_BATCH_SIZE = 500;
         public static final String QUERY_THREAD_POOL = "modeshape-indexer";
 
+        /**
+         * The default value of the {@link FieldName#PARALLEL_SEARCH_ENABLED} field is '{@value} '.
+         */
+        public static final boolean PARALLEL_SEARCH_ENABLED = false;
+        public static final String PARALLEL_SEARCH_POOL = "modeshape-search";
+
+        /**
+         * The default value of the {@link FieldName#RESULT_CACHE_ENABLED} field is '{@value} '.
+         */
+        public static final boolean RESULT_CACHE_ENABLED = false;
+
+        /**
+         * The default value of the {@link FieldName#RESULT_CACHE_MAX_ENTRIES} field is '{@value} '.
+         */
+        public static final long RESULT_CACHE_MAX_ENTRIES = 1000L;
+
+        /**
+         * The default value of the {@link FieldName#RESULT_CACHE_MAX_SIZE_IN_BYTES} field is '{@value} ' (32MB).
+         */
+        public static final long RESULT_CACHE_MAX_SIZE_IN_BYTES = 32 * 1024 * 1024L;
+        public static final String REINDEXING_POOL = "modeshape-reindexing";
+
+        /**
+         * The default value of the {@link FieldName#REINDEXING_THREADS} field is '{@value} '.
+         */
+        public static final int REINDEXING_THREADS = 4;
+
+        /**
+         * The default value of the {@link FieldName#REINDEXING_BATCH_SIZE} field is '{@value} '.
+         */
+        public static final int REINDEXING_BATCH_SIZE = 500;
+        public static final String INDEXING_WORKERS_POOL = "modeshape-indexing-workers";
+
+        /**
+         * The default value of the {@link FieldName#INDEXING_WORKERS_THREADS} field is '{@value} '.
+         */
+        public static final int INDEXING_WORKERS_THREADS = 4;
+
         public static final String INDEXING_ANALYZER = StandardAnalyzer.class.getName();
         public static final String INDEXING_SIMILARITY = DefaultSimilarity.class.getName();
         public static final String INDEXING_BATCH_SIZE = "-1";
@@ -487,6 +776,9 @@ public class RepositoryConfiguration {
 
         public static final String CLUSTER_NAME = "ModeShape-JCR";
         public static final String CHANNEL_PROVIDER = DefaultChannelProvider.class.getName();
+        public static final long BATCH_DELAY_IN_MILLIS = 0L;
+        public static final int BATCH_SIZE_IN_BYTES = 64 * 1024;
+        public static final boolean COMPACT_CHANGE_SETS = false;
     }
 
     public static final class FieldValue {
@@ -1183,6 +1475,64 @@ public class RepositoryConfiguration {
         return Default.ALLOW_CREATION;
     }
 
+    /**
+     * Get the limits of the node cache for the named workspace. Limits specified for the workspace override the limits specified
+     * for all workspaces, which in turn override the defaults.
+     * 
+     * @param workspaceName the name of the workspace; may not be null
+     * @return the node cache configuration; never null
+     */
+    public NodeCaching getNodeCaching( String workspaceName ) {
+        Document workspaces = doc.getDocument(FieldName.WORKSPACES);
+        Document nodeCache = workspaces != null ? workspaces.getDocument(FieldName.NODE_CACHE) : null;
+        Document overrides = null;
+        if (nodeCache != null) {
+            Document byWorkspace = nodeCache.getDocument(FieldName.NODE_CACHE_WORKSPACES);
+            if (byWorkspace != null) overrides = byWorkspace.getDocument(workspaceName);
+        }
+        return new NodeCaching(nodeCache, overrides);
+    }
+
+    /**
+     * The configuration of the cache of nodes kept for a workspace.
+     */
+    @Immutable
+    public class NodeCaching {
+        private final Document nodeCache;
+        private final Document overrides;
+
+        protected NodeCaching( Document nodeCache,
+                               Document overrides ) {
+            this.nodeCache = nodeCache != null ? nodeCache : EMPTY;
+            this.overrides = overrides != null ? overrides : EMPTY;
+        }
+
+        /**
+         * Get the maximum number of nodes kept in the workspace cache.
+         * 
+         * @return the maximum number of nodes, or zero or a negative value if the number of nodes is not limited
+         */
+        public long getMaxEntries() {
+            return getLong(FieldName.NODE_CACHE_MAX_ENTRIES, Default.NODE_CACHE_MAX_ENTRIES);
+        }
+
+        /**
+         * Get the maximum estimated size of the nodes kept in the workspace cache.
+         * 
+         * @return the maximum size in bytes, or zero or a negative value if the size is not limited
+         */
+        public long getMaxSizeInBytes() {
+            return getLong(FieldName.NODE_CACHE_MAX_SIZE_IN_BYTES, Default.NODE_CACHE_MAX_SIZE_IN_BYTES);
+        }
+
+        private long getLong( String fieldName,
+                              long defaultValue ) {
+            Number value = overrides.getNumber(fieldName);
+            if (value == null) value = nodeCache.getNumber(fieldName);
+            return value != null ? value.longValue() : defaultValue;
+        }
+    }
+
     public TransactionMode getTransactionMode() {
         String mode = doc.getString(FieldName.TRANSACTION_MODE);
         return mode != null ? TransactionMode.valueOf(mode.trim().toUpperCase()) : Default.TRANSACTION_MODE;
@@ -1505,6 +1855,125 @@ public class RepositoryConfiguration {
             return query.getString(FieldName.THREAD_POOL, Default.QUERY_THREAD_POOL);
         }
 
+        /**
+         * Determine whether each query should search the segments of the indexes concurrently on the
+         * {@link #getParallelSearchThreadPoolName() search thread pool}, rather than one at a time on the thread that executes the
+         * query. This is disabled by default.
+         * 
+         * @return true if the segments are to be searched concurrently, or false otherwise
+         */
+        public boolean parallelSearchEnabled() {
+            Document parallelSearch = query.getDocument(FieldName.PARALLEL_SEARCH);
+            if (parallelSearch == null) return Default.PARALLEL_SEARCH_ENABLED;
+            return parallelSearch.getBoolean(FieldName.PARALLEL_SEARCH_ENABLED, Default.PARALLEL_SEARCH_ENABLED);
+        }
+
+        /**
+         * Get the name of the thread pool that should be used for searching the segments of the indexes concurrently.
+         * 
+         * @return the thread pool name; never null
+         * @see #parallelSearchEnabled()
+         */
+        public String getParallelSearchThreadPoolName() {
+            Document parallelSearch = query.getDocument(FieldName.PARALLEL_SEARCH);
+            if (parallelSearch == null) return Default.PARALLEL_SEARCH_POOL;
+            return parallelSearch.getString(FieldName.THREAD_POOL, Default.PARALLEL_SEARCH_POOL);
+        }
+
+        /**
+         * Determine whether the results of queries should be cached and reused until changes in the content may affect them. This
+         * is disabled by default, and requires that content is indexed synchronously.
+         * 
+         * @return true if the results of queries are to be cached, or false otherwise
+         */
+        public boolean resultCacheEnabled() {
+            Document resultCache = query.getDocument(FieldName.RESULT_CACHE);
+            if (resultCache == null) return Default.RESULT_CACHE_ENABLED;
+            return resultCache.getBoolean(FieldName.RESULT_CACHE_ENABLED, Default.RESULT_CACHE_ENABLED);
+        }
+
+        /**
+         * Get the maximum number of query results kept in the cache.
+         * 
+         * @return the maximum number of results; zero or less means the number is not limited
+         * @see #resultCacheEnabled()
+         */
+        public long getResultCacheMaxEntries() {
+            Document resultCache = query.getDocument(FieldName.RESULT_CACHE);
+            if (resultCache == null) return Default.RESULT_CACHE_MAX_ENTRIES;
+            return resultCache.getLong(FieldName.RESULT_CACHE_MAX_ENTRIES, Default.RESULT_CACHE_MAX_ENTRIES);
+        }
+
+        /**
+         * Get the maximum estimated size (in bytes) of the query results kept in the cache.
+         * 
+         * @return the maximum size in bytes; zero or less means the size is not limited
+         * @see #resultCacheEnabled()
+         */
+        public long getResultCacheMaxSizeInBytes() {
+            Document resultCache = query.getDocument(FieldName.RESULT_CACHE);
+            if (resultCache == null) return Default.RESULT_CACHE_MAX_SIZE_IN_BYTES;
+            return resultCache.getLong(FieldName.RESULT_CACHE_MAX_SIZE_IN_BYTES, Default.RESULT_CACHE_MAX_SIZE_IN_BYTES);
+        }
+
+        /**
+         * Get the name of the thread pool that should be used for indexing the partitions of the content concurrently when the
+         * indexes are rebuilt.
+         * 
+         * @return the thread pool name; never null
+         */
+        public String getReindexingThreadPoolName() {
+            Document reindexing = query.getDocument(FieldName.REINDEXING);
+            if (reindexing == null) return Default.REINDEXING_POOL;
+            return reindexing.getString(FieldName.THREAD_POOL, Default.REINDEXING_POOL);
+        }
+
+        /**
+         * Get the number of threads that concurrently index the partitions of the content when the indexes are rebuilt. The
+         * thread that rebuilds the indexes is always one of these threads.
+         * 
+         * @return the number of threads; always positive
+         */
+        public int getReindexingThreads() {
+            Document reindexing = query.getDocument(FieldName.REINDEXING);
+            if (reindexing == null) return Default.REINDEXING_THREADS;
+            return Math.max(1, reindexing.getInteger(FieldName.REINDEXING_THREADS, Default.REINDEXING_THREADS));
+        }
+
+        /**
+         * Get the number of nodes whose index updates are applied together when the indexes are rebuilt.
+         * 
+         * @return the batch size; always positive
+         */
+        public int getReindexingBatchSize() {
+            Document reindexing = query.getDocument(FieldName.REINDEXING);
+            if (reindexing == null) return Default.REINDEXING_BATCH_SIZE;
+            return Math.max(1, reindexing.getInteger(FieldName.REINDEXING_BATCH_SIZE, Default.REINDEXING_BATCH_SIZE));
+        }
+
+        /**
+         * Get the name of the thread pool that should be used for applying the index updates of large saves concurrently.
+         * 
+         * @return the thread pool name; never null
+         */
+        public String getIndexingWorkersThreadPoolName() {
+            Document workers = query.getDocument(FieldName.INDEXING_WORKERS);
+            if (workers == null) return Default.INDEXING_WORKERS_POOL;
+            return workers.getString(FieldName.THREAD_POOL, Default.INDEXING_WORKERS_POOL);
+        }
+
+        /**
+         * Get the number of threads that concurrently apply the index updates for the changes made by one save. The thread that
+         * saves the changes is always one of these threads.
+         * 
+         * @return the number of threads; always positive
+         */
+        public int getIndexingWorkersThreads() {
+            Document workers = query.getDocument(FieldName.INDEXING_WORKERS);
+            if (workers == null) return Default.INDEXING_WORKERS_THREADS;
+            return Math.max(1, workers.getInteger(FieldName.INDEXING_WORKERS_THREADS, Default.INDEXING_WORKERS_THREADS));
+        }
+
         /**
          * Get the configuration properties for the storage of indexes. The values of the properties will consist of string
          * values.
@@ -1669,6 +2138,241 @@ public class RepositoryConfiguration {
         }
     }
 
+    /**
+     * Get the configuration for the background optimization of the blocks of child references.
+     * 
+     * @return the document optimization configuration; never null
+     */
+    public DocumentOptimization getDocumentOptimization() {
+        return new DocumentOptimization(doc.getDocument(FieldName.DOCUMENT_OPTIMIZATION));
+    }
+
+    /**
+     * The configuration of the background optimization of the blocks of child references.
+     */
+    @Immutable
+    public class DocumentOptimization {
+        private final Document optimization;
+
+        protected DocumentOptimization( Document optimization ) {
+            this.optimization = optimization != null ? optimization : EMPTY;
+        }
+
+        /**
+         * Determine whether the blocks of child references should be optimized in the background.
+         * 
+         * @return true if optimization is enabled, or false otherwise
+         */
+        public boolean isEnabled() {
+            return getChildCountTarget() > 1;
+        }
+
+        /**
+         * Get the goal for the number of child references in each block.
+         * 
+         * @return the target number of child references, or 0 if optimization is not enabled
+         */
+        public int getChildCountTarget() {
+            Integer target = optimization.getInteger(FieldName.OPTIMIZATION_CHILD_COUNT_TARGET);
+            return target != null ? Math.max(target.intValue(), 0) : 0;
+        }
+
+        /**
+         * Get the tolerance for the number of child references in each block. The result is always positive and smaller than the
+         * {@link #getChildCountTarget() target}.
+         * 
+         * @return the tolerance, or 0 if optimization is not enabled
+         */
+        public int getChildCountTolerance() {
+            int target = getChildCountTarget();
+            if (target <= 1) return 0;
+            Integer tolerance = optimization.getInteger(FieldName.OPTIMIZATION_CHILD_COUNT_TOLERANCE);
+            int result = tolerance != null ? tolerance.intValue() : target * Default.OPTIMIZATION_CHILD_COUNT_TOLERANCE_PERCENT / 100;
+            return Math.min(Math.max(result, 1), target - 1);
+        }
+
+        /**
+         * Get the name of the thread pool that should be used for optimization work.
+         * 
+         * @return the thread pool name; never null
+         */
+        public String getThreadPoolName() {
+            return optimization.getString(FieldName.THREAD_POOL, Default.OPTIMIZATION_POOL);
+        }
+    }
+
+    /**
+     * Get the configuration for the queues of changes that are sent to listeners.
+     * 
+     * @return the event bus configuration; never null
+     */
+    public EventBus getEventBus() {
+        return new EventBus(doc.getDocument(FieldName.EVENT_BUS));
+    }
+
+    /**
+     * The configuration of the queues of changes that are sent to listeners.
+     */
+    @Immutable
+    public class EventBus {
+        private final Document eventBus;
+
+        protected EventBus( Document eventBus ) {
+            this.eventBus = eventBus != null ? eventBus : EMPTY;
+        }
+
+        /**
+         * Get the maximum number of change sets that can be queued for each listener in each workspace.
+         * 
+         * @return the queue size, or {@link RepositoryChangeBus#UNBOUNDED_QUEUE_CAPACITY} if the queues are unbounded; never
+         *         negative
+         */
+        public int getQueueSize() {
+            int size = eventBus.getInteger(FieldName.EVENT_BUS_QUEUE_SIZE, Default.EVENT_BUS_QUEUE_SIZE);
+            return size >= 0 ? size : Default.EVENT_BUS_QUEUE_SIZE;
+        }
+
+        /**
+         * Get the policy used when the bounded queue of a JCR observation listener is full. JCR observation listeners never see
+         * summaries, so {@link OverflowPolicy#COALESCE} is treated as {@link OverflowPolicy#BLOCK}. The listener that purges
+         * the cached nodes coalesces, and all other listeners always {@link OverflowPolicy#BLOCK block}, since they must see
+         * every change.
+         * 
+         * @return the overflow policy; never null
+         */
+        public OverflowPolicy getObservationOverflowPolicy() {
+            return OverflowPolicy.parse(eventBus.getString(FieldName.EVENT_BUS_OBSERVATION_OVERFLOW_POLICY),
+                                        Default.EVENT_BUS_OBSERVATION_OVERFLOW_POLICY);
+        }
+    }
+
+    /**
+     * Get the configuration for the persistent journal of changes.
+     * 
+     * @return the journaling configuration; never null
+     */
+    public Journaling getJournaling() {
+        return new Journaling(doc.getDocument(FieldName.JOURNALING));
+    }
+
+    /**
+     * The configuration of the persistent journal of changes that backs the JCR event journal.
+     */
+    @Immutable
+    public class Journaling {
+        private final Document journaling;
+
+        protected Journaling( Document journaling ) {
+            this.journaling = journaling != null ? journaling : EMPTY;
+        }
+
+        /**
+         * Determine whether the changes made in the repository are recorded in a journal.
+         * 
+         * @return true if a {@link #getLocation() location} is specified, or false otherwise
+         */
+        public boolean isEnabled() {
+            return getLocation() != null;
+        }
+
+        /**
+         * Get the path to the directory in which the journal is stored.
+         * 
+         * @return the path, or null if journaling is not enabled
+         */
+        public String getLocation() {
+            String location = journaling.getString(FieldName.JOURNAL_LOCATION);
+            return location != null && location.trim().length() != 0 ? location.trim() : null;
+        }
+
+        /**
+         * Get the maximum age of the changes that are kept in the journal.
+         * 
+         * @return the maximum age in seconds, or 0 if changes are never removed because of their age
+         */
+        public long getMaxAgeInSeconds() {
+            return Math.max(0L, journaling.getLong(FieldName.JOURNAL_MAX_AGE_IN_SECONDS, Default.JOURNAL_MAX_AGE_IN_SECONDS));
+        }
+
+        /**
+         * Get the maximum total size of the journal. The oldest changes are removed whenever the journal grows beyond this size.
+         * 
+         * @return the maximum size in bytes, or 0 if the size of the journal is not limited
+         */
+        public long getMaxSizeInBytes() {
+            return Math.max(0L, journaling.getLong(FieldName.JOURNAL_MAX_SIZE_IN_BYTES, Default.JOURNAL_MAX_SIZE_IN_BYTES));
+        }
+
+        /**
+         * Get the maximum size of each of the files in which the journal is stored. Changes are always removed from the journal
+         * one whole file at a time.
+         * 
+         * @return the segment size in bytes; always positive
+         */
+        public long getSegmentSizeInBytes() {
+            long size = journaling.getLong(FieldName.JOURNAL_SEGMENT_SIZE_IN_BYTES, Default.JOURNAL_SEGMENT_SIZE_IN_BYTES);
+            return size > 0L ? size : Default.JOURNAL_SEGMENT_SIZE_IN_BYTES;
+        }
+    }
+
+    /**
+     * Get the configuration for the backup and restore operations.
+     * 
+     * @return the backup configuration; never null
+     */
+    public Backup getBackup() {
+        return new Backup(doc.getDocument(FieldName.BACKUP));
+    }
+
+    /**
+     * The configuration of the backup and restore operations.
+     */
+    @Immutable
+    public class Backup {
+        private final Document backup;
+
+        protected Backup( Document backup ) {
+            this.backup = backup != null ? backup : EMPTY;
+        }
+
+        /**
+         * Get the number of files that are concurrently written when backing up the documents, and concurrently read when
+         * restoring them. Each document is written to only one of these files.
+         * 
+         * @return the number of document streams; always positive
+         */
+        public int getDocumentStreams() {
+            return Math.max(1, backup.getInteger(FieldName.BACKUP_DOCUMENT_STREAMS, Default.BACKUP_DOCUMENT_STREAMS));
+        }
+
+        /**
+         * Get the number of binary values that are concurrently copied when backing up or restoring the repository.
+         * 
+         * @return the number of threads; always positive
+         */
+        public int getBinaryThreads() {
+            return Math.max(1, backup.getInteger(FieldName.BACKUP_BINARY_THREADS, Default.BACKUP_BINARY_THREADS));
+        }
+
+        /**
+         * Get the number of documents that are restored within each transaction.
+         * 
+         * @return the batch size; always positive
+         */
+        public int getRestoreBatchSize() {
+            return Math.max(1, backup.getInteger(FieldName.BACKUP_RESTORE_BATCH_SIZE, Default.BACKUP_RESTORE_BATCH_SIZE));
+        }
+
+        /**
+         * Get the name of the thread pool that should be used for backing up and restoring the repository.
+         * 
+         * @return the thread pool name; never null
+         */
+        public String getThreadPoolName() {
+            return backup.getString(FieldName.THREAD_POOL, Default.BACKUP_POOL);
+        }
+    }
+
     /**
      * Get the configuration for the sequencing-related aspects of this repository.
      * 
@@ -1769,6 +2473,47 @@ public class RepositoryConfiguration {
             return clusteringDoc.getString(FieldName.CHANNEL_CONFIGURATION);
         }
 
+        /**
+         * Get the maximum time that the changes made in this process are held so that several of them can be sent to the
+         * cluster in a single message.
+         * 
+         * @return the maximum delay in milliseconds, or 0 if each set of changes is sent in its own message
+         */
+        public long getBatchDelayInMillis() {
+            return Math.max(0L, clusteringDoc.getLong(FieldName.BATCH_DELAY_IN_MILLIS, Default.BATCH_DELAY_IN_MILLIS));
+        }
+
+        /**
+         * Get the maximum size of the changes that are sent to the cluster in a single message. This is only used when
+         * {@link #isBatchingEnabled() batching} is enabled.
+         * 
+         * @return the maximum size in bytes; always positive
+         */
+        public int getBatchSizeInBytes() {
+            int size = clusteringDoc.getInteger(FieldName.BATCH_SIZE_IN_BYTES, Default.BATCH_SIZE_IN_BYTES);
+            return size > 0 ? size : Default.BATCH_SIZE_IN_BYTES;
+        }
+
+        /**
+         * Determine whether the changes made in this process are batched before they are sent to the cluster.
+         * 
+         * @return true if the {@link #getBatchDelayInMillis() batch delay} is positive, or false otherwise
+         */
+        public boolean isBatchingEnabled() {
+            return getBatchDelayInMillis() > 0L;
+        }
+
+        /**
+         * Determine whether the changes made in this process are sent to the cluster in the compact binary format. Changes in
+         * either format are always accepted from the cluster, but processes of older versions can only read changes that were
+         * written with Java serialization, so this should only be enabled once all members of the cluster have been upgraded.
+         * 
+         * @return true if the compact format is used to send changes, or false if Java serialization is used
+         */
+        public boolean isCompactChangeSetFormatEnabled() {
+            return clusteringDoc.getBoolean(FieldName.COMPACT_CHANGE_SETS, Default.COMPACT_CHANGE_SETS);
+        }
+
         public Document getDocument() {
             return clusteringDoc;
         }
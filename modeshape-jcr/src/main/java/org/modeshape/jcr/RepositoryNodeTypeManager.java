@@ -281,7 +281,7 @@ class RepositoryNodeTypeManager implements ChangeSetListener {
 
             // Now change the cache ...
             this.nodeTypesCache = newNodeTypes;
-            this.schemata = null;
+            schemataChanged();
         } finally {
             nodeTypesLock.writeLock().unlock();
         }
@@ -297,7 +297,14 @@ class RepositoryNodeTypeManager implements ChangeSetListener {
     }
 
     void signalNamespaceChanges() {
+        schemataChanged();
+    }
+
+    private void schemataChanged() {
         this.schemata = null;
+        // The cached queries and plans were created with the old node types and namespaces ...
+        RepositoryQueryManager queryManager = repository.queryManager();
+        if (queryManager != null) queryManager.invalidateQueryPlans();
     }
 
     /**
@@ -326,7 +333,12 @@ class RepositoryNodeTypeManager implements ChangeSetListener {
         CancellableQuery query = queryManager.query(context, repoCache, workspaceNames, overridden, command, schemata, null, null);
         try {
             QueryResults result = query.getResults();
-            return result.getRowCount() > 0;
+            try {
+                // Only the first tuple is needed ...
+                return result.getTupleIterator().hasNext();
+            } finally {
+                result.close();
+            }
         } catch (RepositoryException e) {
             logger.error(e, JcrI18n.errorCheckingNodeTypeUsage, nodeTypeName, e.getLocalizedMessage());
             return true;
@@ -538,7 +550,7 @@ class RepositoryNodeTypeManager implements ChangeSetListener {
 
                 // And finally update the capabilities cache ...
                 this.nodeTypesCache = newNodeTypes;
-                this.schemata = null;
+                schemataChanged();
             }
         } finally {
             nodeTypesLock.writeLock().unlock();
@@ -23,34 +23,38 @@
  */
 package org.modeshape.jcr;
 
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.jcr.query.InvalidQueryException;
-import javax.transaction.Synchronization;
-import org.hibernate.search.backend.TransactionContext;
 import org.hibernate.search.engine.spi.SearchFactoryImplementor;
 import org.hibernate.search.spi.SearchFactoryBuilder;
 import org.modeshape.common.annotation.GuardedBy;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.JcrRepository.RunningState;
+import org.modeshape.jcr.RepositoryConfiguration.FieldName;
+import org.modeshape.jcr.RepositoryConfiguration.IndexingMode;
 import org.modeshape.jcr.RepositoryConfiguration.QuerySystem;
 import org.modeshape.jcr.api.query.qom.QueryCommand;
+import org.modeshape.jcr.bus.ChangeBus;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.ChildReference;
-import org.modeshape.jcr.cache.ChildReferences;
 import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
-import org.modeshape.jcr.cache.PathCache;
 import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.WorkspaceAdded;
+import org.modeshape.jcr.cache.change.WorkspaceRemoved;
+import org.modeshape.jcr.query.BatchingQueryIndexing;
 import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.QueryIndexing;
 import org.modeshape.jcr.query.lucene.LuceneQueryEngine;
@@ -61,21 +65,50 @@ import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
 import org.modeshape.jcr.query.plan.CanonicalPlanner;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.plan.Planner;
+import org.modeshape.jcr.query.plan.QueryPlanCache;
+import org.modeshape.jcr.query.process.QueryResultCache;
 import org.modeshape.jcr.query.validate.Schemata;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.Path.Segment;
 
 /**
  * The query manager a the repository. Each instance lazily starts up the {@link LuceneQueryEngine}, which can be expensive.
+ * <p>
+ * The parsed queries and optimized plans are kept in a {@link QueryPlanCache} shared by all sessions. This manager listens for
+ * workspaces being added or removed, and the node type manager {@link #invalidateQueryPlans() invalidates} the plans when the
+ * node types or namespaces change.
+ * </p>
+ * <p>
+ * When enabled, the results of queries are kept in a {@link QueryResultCache} shared by all sessions, and this manager removes
+ * the results that may be affected by each {@link ChangeSet}. This manager is notified of the changes on the thread that saves
+ * them, so that a session never sees results that do not reflect its own saved changes.
+ * </p>
+ * <p>
+ * The index updates for the changes made by each save are applied as a single unit by a {@link BatchingQueryIndexing}, while
+ * the content is reindexed by a {@link Reindexer}, which divides the content into partitions that are indexed concurrently and
+ * records its progress so that an interrupted reindexing of a workspace can be resumed.
+ * </p>
  */
-class RepositoryQueryManager {
+class RepositoryQueryManager implements ChangeBus.InlineListener {
 
     private final RunningState runningState;
     private final ExecutorService indexingExecutorService;
     private final LuceneSearchConfiguration config;
+    private final ExecutorService searchExecutorService;
     private final Lock engineInitLock = new ReentrantLock();
     @GuardedBy( "engineInitLock" )
     private volatile LuceneQueryEngine queryEngine;
+    @GuardedBy( "engineInitLock" )
+    private volatile BatchingQueryIndexing batchingIndexes;
+    private final QueryPlanCache planCache = new QueryPlanCache(QueryPlanCache.DEFAULT_MAX_PLANS);
+    private final QueryResultCache resultCache;
+    private final ExecutorService indexingWorkersExecutorService;
+    private final int indexingWorkersThreads;
+    private final ExecutorService reindexingExecutorService;
+    private final int reindexingThreads;
+    private final int reindexingBatchSize;
+    private final AtomicLong reindexedNodeCount = new AtomicLong();
+    private final Set<Reindexer> activeReindexers = new CopyOnWriteArraySet<Reindexer>();
     private final Logger logger = Logger.getLogger(getClass());
 
     RepositoryQueryManager( RunningState runningState,
@@ -89,6 +122,42 @@ class RepositoryQueryManager {
         // Set up the query engine ...
         String repoName = runningState.name();
         this.config = new BasicLuceneConfiguration(repoName, backendProps, indexingProps, indexStorageProps);
+        // Searching the index segments in parallel is optional ...
+        if (querySystem.parallelSearchEnabled()) {
+            this.searchExecutorService = runningState.context().getThreadPool(querySystem.getParallelSearchThreadPoolName());
+        } else {
+            this.searchExecutorService = null;
+        }
+        // The index updates for large saves are applied by several threads ...
+        this.indexingWorkersThreads = querySystem.getIndexingWorkersThreads();
+        if (indexingWorkersThreads > 1) {
+            this.indexingWorkersExecutorService = runningState.context()
+                                                              .getThreadPool(querySystem.getIndexingWorkersThreadPoolName());
+        } else {
+            this.indexingWorkersExecutorService = null;
+        }
+        // Rebuilding the indexes uses several threads ...
+        this.reindexingThreads = querySystem.getReindexingThreads();
+        this.reindexingBatchSize = querySystem.getReindexingBatchSize();
+        if (reindexingThreads > 1) {
+            this.reindexingExecutorService = runningState.context().getThreadPool(querySystem.getReindexingThreadPoolName());
+        } else {
+            this.reindexingExecutorService = null;
+        }
+        // Caching query results is optional, and the results can only be invalidated correctly when indexing synchronously ...
+        if (querySystem.resultCacheEnabled()) {
+            String indexingMode = indexingProps.getProperty(FieldName.INDEXING_MODE);
+            if (indexingMode == null || IndexingMode.SYNC.toString().equalsIgnoreCase(indexingMode)) {
+                this.resultCache = new QueryResultCache(RepositoryConfiguration.SYSTEM_WORKSPACE_NAME,
+                                                        querySystem.getResultCacheMaxEntries(),
+                                                        querySystem.getResultCacheMaxSizeInBytes());
+            } else {
+                logger.warn(JcrI18n.queryResultCacheRequiresSynchronousIndexing, repoName);
+                this.resultCache = null;
+            }
+        } else {
+            this.resultCache = null;
+        }
     }
 
     void shutdown() {
@@ -101,6 +170,7 @@ class RepositoryQueryManager {
                         queryEngine.shutdown();
                     } finally {
                         queryEngine = null;
+                        batchingIndexes = null;
                     }
                 }
             } finally {
@@ -110,6 +180,46 @@ class RepositoryQueryManager {
 
     }
 
+    /**
+     * Get the cache of the parsed queries and optimized plans.
+     * 
+     * @return the cache; never null
+     */
+    QueryPlanCache planCache() {
+        return planCache;
+    }
+
+    /**
+     * Get the cache of query results.
+     * 
+     * @return the cache, or null if query results are not cached
+     */
+    QueryResultCache resultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Remove all parsed queries, optimized plans and query results, since they may no longer be valid.
+     */
+    void invalidateQueryPlans() {
+        planCache.clear();
+        if (resultCache != null) resultCache.clear();
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        if (changeSet == null) return;
+        if (resultCache != null) resultCache.invalidate(changeSet);
+        // Changes to the set of workspaces are not associated with a workspace ...
+        if (changeSet.getWorkspaceName() != null) return;
+        for (Change change : changeSet) {
+            if (change instanceof WorkspaceAdded || change instanceof WorkspaceRemoved) {
+                invalidateQueryPlans();
+                return;
+            }
+        }
+    }
+
     public CancellableQuery query( ExecutionContext context,
                                    RepositoryCache repositoryCache,
                                    Set<String> workspaceNames,
@@ -132,6 +242,17 @@ class RepositoryQueryManager {
         return queryEngine().getQueryIndexing();
     }
 
+    /**
+     * Get the front-end to the {@link #getIndexes() indexes} that applies the index work for each set of changes as a single
+     * unit.
+     * 
+     * @return the batching front-end; never null
+     */
+    public BatchingQueryIndexing getBatchingIndexes() {
+        queryEngine();
+        return batchingIndexes;
+    }
+
     protected final LuceneQueryEngine queryEngine() {
         if (queryEngine == null) {
             try {
@@ -145,8 +266,13 @@ class RepositoryQueryManager {
                     Optimizer optimizer = new RuleBasedOptimizer();
                     SearchFactoryImplementor searchFactory = new SearchFactoryBuilder().configuration(config)
                                                                                        .buildSearchFactory();
-                    queryEngine = new LuceneQueryEngine(runningState.context(), runningState.name(), planner, optimizer,
-                                                        searchFactory, config.getVersion(), enableFullTextSearch);
+                    LuceneQueryEngine engine = new LuceneQueryEngine(runningState.context(), runningState.name(), planner,
+                                                                     optimizer, searchFactory, config.getVersion(),
+                                                                     enableFullTextSearch, planCache, searchExecutorService,
+                                                                     resultCache);
+                    batchingIndexes = new BatchingQueryIndexing(engine.getQueryIndexing(), indexingWorkersExecutorService,
+                                                                indexingWorkersThreads);
+                    queryEngine = engine;
                 }
             } finally {
                 engineInitLock.unlock();
@@ -175,6 +301,8 @@ class RepositoryQueryManager {
             nodeCache = repoCache.getWorkspaceCache(workspaceName);
             rootNode = nodeCache.getNode(nodeCache.getRootKey());
             logger.debug("Starting reindex of workspace '{0}' content in '{1}' repository.", runningState.name(), workspaceName);
+            // The content was replaced, so any progress recorded by an earlier reindexing no longer applies ...
+            checkpoint(workspaceName, Path.ROOT_PATH, Integer.MAX_VALUE).remove();
             reindexContent(workspaceName, schemata, nodeCache, rootNode, Integer.MAX_VALUE, true);
             logger.debug("Completed reindex of workspace '{0}' content in '{1}' repository.", runningState.name(), workspaceName);
         }
@@ -191,7 +319,9 @@ class RepositoryQueryManager {
     }
 
     /**
-     * Crawl and index the content starting at the supplied path in the named workspace, to the designated depth.
+     * Crawl and index the content starting at the supplied path in the named workspace, to the designated depth. The progress
+     * is recorded as the content is indexed, so if a prior attempt to index the same content was interrupted, the parts of the
+     * content that were already indexed are skipped.
      * 
      * @param workspace the workspace
      * @param path the path of the content to be indexed
@@ -224,86 +354,87 @@ class RepositoryQueryManager {
             reindexSystemContent(node, depth, schemata);
         } else {
             // It's just a regular node in the workspace ...
-            reindexContent(workspaceName, schemata, cache, node, depth, path.isRoot());
+            reindexContent(workspaceName, schemata, cache, node, depth, path.isRoot(), checkpoint(workspaceName, path, depth));
         }
     }
 
-    protected void reindexContent( final String workspaceName,
-                                   final NodeTypeSchemata schemata,
+    protected void reindexContent( String workspaceName,
+                                   NodeTypeSchemata schemata,
                                    NodeCache cache,
                                    CachedNode node,
                                    int depth,
                                    boolean lookForSystemNode ) {
-        // Get the path for the first node (we already have it, but we need to populate the cache) ...
-        final PathCache paths = new PathCache(cache);
-        Path nodePath = paths.getPath(node);
-
-        // Index the first node ...
-        final QueryIndexing indexes = getIndexes();
-        final TransactionContext txnCtx = NO_TRANSACTION;
-        indexes.updateIndex(workspaceName,
-                            node.getKey(),
-                            nodePath,
-                            node.getPrimaryType(cache),
-                            node.getMixinTypes(cache),
-                            node.getProperties(cache),
-                            schemata,
-                            txnCtx);
-
-        if (depth == 1) return;
-
-        // Create a queue for processing the subgraph
-        final Queue<NodeKey> queue = new LinkedList<NodeKey>();
-
-        if (lookForSystemNode) {
-            // We need to look for the system node, and index it differently ...
-            ChildReferences childRefs = node.getChildReferences(cache);
-            ChildReference systemRef = childRefs.getChild(JcrLexicon.SYSTEM);
-            NodeKey systemKey = systemRef != null ? systemRef.getKey() : null;
-            for (ChildReference childRef : node.getChildReferences(cache)) {
-                NodeKey childKey = childRef.getKey();
-                if (childKey.equals(systemKey)) {
-                    // This is the "/jcr:system" node ...
-                    node = cache.getNode(childKey);
-                    reindexSystemContent(node, depth - 1, schemata);
-                } else {
-                    queue.add(childKey);
-                }
-            }
-        } else {
-            // Add all children to the queue ...
-            for (ChildReference childRef : node.getChildReferences(cache)) {
-                queue.add(childRef.getKey());
-            }
+        reindexContent(workspaceName, schemata, cache, node, depth, lookForSystemNode, null);
+    }
+
+    protected void reindexContent( String workspaceName,
+                                   NodeTypeSchemata schemata,
+                                   NodeCache cache,
+                                   CachedNode node,
+                                   int depth,
+                                   boolean lookForSystemNode,
+                                   Reindexer.Checkpoint checkpoint ) {
+        // The "/jcr:system" node is indexed differently ...
+        NodeKey systemKey = null;
+        if (lookForSystemNode && depth > 1) {
+            ChildReference systemRef = node.getChildReferences(cache).getChild(JcrLexicon.SYSTEM);
+            if (systemRef != null) systemKey = systemRef.getKey();
         }
 
-        // Now, process the queue until empty ...
-        while (true) {
-            NodeKey key = queue.poll();
-            if (key == null) break;
-
-            // Look up the node and find the path ...
-            node = cache.getNode(key);
-            nodePath = paths.getPath(node);
-
-            // Index the node ...
-            indexes.updateIndex(workspaceName,
-                                node.getKey(),
-                                nodePath,
-                                node.getPrimaryType(cache),
-                                node.getMixinTypes(cache),
-                                node.getProperties(cache),
-                                schemata,
-                                txnCtx);
-
-            // Check the depth ...
-            if (nodePath.size() <= depth) {
-                // Add the children to the queue ...
-                for (ChildReference childRef : node.getChildReferences(cache)) {
-                    queue.add(childRef.getKey());
-                }
-            }
+        Reindexer reindexer = new Reindexer(workspaceName, schemata, cache, getIndexes(), runningState.context()
+                                                                                                  .getValueFactories()
+                                                                                                  .getPathFactory(),
+                                            reindexingExecutorService, reindexingThreads, reindexingBatchSize,
+                                            reindexedNodeCount);
+        activeReindexers.add(reindexer);
+        try {
+            reindexer.reindex(node, depth, systemKey, checkpoint);
+        } finally {
+            activeReindexers.remove(reindexer);
+        }
+
+        if (systemKey != null) {
+            CachedNode systemNode = cache.getNode(systemKey);
+            if (systemNode != null) reindexSystemContent(systemNode, depth - 1, schemata);
+        }
+    }
+
+    /**
+     * Create the checkpoint that records the progress of reindexing the supplied branch of the named workspace, so that an
+     * interrupted attempt to reindex the same branch can be resumed.
+     * 
+     * @param workspaceName the name of the workspace; may not be null
+     * @param path the path of the branch; may not be null
+     * @param depth the depth of the content to be indexed
+     * @return the checkpoint; never null
+     */
+    protected Reindexer.Checkpoint checkpoint( String workspaceName,
+                                               Path path,
+                                               int depth ) {
+        String key = "reindexing:" + runningState.repositoryCache().getKey() + ":" + workspaceName + ":" + path.getString();
+        return new Reindexer.Checkpoint(runningState.database(), key, path, depth);
+    }
+
+    /**
+     * Get the total number of nodes that have been indexed while rebuilding the indexes since this manager was started.
+     * 
+     * @return the number of reindexed nodes
+     */
+    long reindexedNodeCount() {
+        return reindexedNodeCount.get();
+    }
+
+    /**
+     * Get the estimated number of milliseconds until the indexes being rebuilt are complete.
+     * 
+     * @return the estimated time remaining, or 0 if the indexes are not being rebuilt or if no estimate is yet possible
+     */
+    long reindexingTimeRemaining() {
+        long remaining = 0L;
+        for (Reindexer reindexer : activeReindexers) {
+            remaining = Math.max(remaining, reindexer.estimateRemainingMillis());
         }
+        return remaining;
     }
 
     protected void reindexSystemContent( CachedNode nodeInSystemBranch,
@@ -385,21 +516,4 @@ class RepositoryQueryManager {
             }
         });
     }
-
-    protected static final TransactionContext NO_TRANSACTION = new TransactionContext() {
-        @Override
-        public boolean isTransactionInProgress() {
-            return false;
-        }
-
-        @Override
-        public Object getTransactionIdentifier() {
-            throw new UnsupportedOperationException("Should not be called since we're just reading content");
-        }
-
-        @Override
-        public void registerSynchronization( Synchronization synchronization ) {
-            throw new UnsupportedOperationException("Should not be called since we're just reading content");
-        }
-    };
 }
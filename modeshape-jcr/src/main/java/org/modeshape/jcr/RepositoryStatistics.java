@@ -32,6 +32,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -44,6 +45,7 @@ import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.collection.Collections;
+import org.modeshape.common.logging.Logger;
 import org.modeshape.common.text.Inflector;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.api.monitor.DurationMetric;
@@ -68,6 +70,34 @@ import org.modeshape.jcr.value.DateTimeFactory;
  * <li><b>{@link ValueMetric#SESSION_SAVES save operations}</b> - the number of Session save operations performed the window;</li>
  * <li><b>{@link ValueMetric#NODE_CHANGES changed nodes}</b> - the number of nodes that were created, updated, or deleted during
  * the window;</li>
+ * <li><b>{@link ValueMetric#NODE_CACHE_SIZE cached nodes}</b> - the number of nodes held in the workspace caches;</li>
+ * <li><b>{@link ValueMetric#NODE_CACHE_HITS node cache hits}</b>, <b>{@link ValueMetric#NODE_CACHE_MISSES node cache misses}</b>
+ * and <b>{@link ValueMetric#NODE_CACHE_EVICTIONS node cache evictions}</b> - the number of node lookups that were and were not
+ * satisfied by the workspace caches, and the number of nodes evicted from those caches, during the window;</li>
+ * <li><b>{@link ValueMetric#DOCUMENT_OPTIMIZATION_QUEUE_SIZE optimization queue size}</b> and
+ * <b>{@link ValueMetric#OPTIMIZED_DOCUMENT_COUNT optimized nodes}</b> - the number of nodes waiting to have their blocks of child
+ * references optimized, and the number of nodes that were optimized during the window;</li>
+ * <li><b>{@link ValueMetric#LISTENER_QUEUE_SIZE listener queue size}</b>, <b>{@link ValueMetric#DROPPED_CHANGE_SET_COUNT dropped
+ * change sets}</b> and <b>{@link ValueMetric#COALESCED_CHANGE_SET_COUNT coalesced change sets}</b> - the number of change sets
+ * waiting to be sent to listeners, and the number that were dropped or merged into summaries of the changed nodes during the
+ * window because a listener's queue was full;</li>
+ * <li><b>{@link ValueMetric#QUERY_PLAN_CACHE_SIZE cached query plans}</b> - the number of optimized query plans held in the query
+ * plan cache;</li>
+ * <li><b>{@link ValueMetric#QUERY_PLAN_CACHE_HITS query plan cache hits}</b>, <b>{@link ValueMetric#QUERY_PLAN_CACHE_MISSES query
+ * plan cache misses}</b> and <b>{@link ValueMetric#QUERY_PLAN_CACHE_EVICTIONS query plan cache evictions}</b> - the number of
+ * queries that did and did not reuse a cached plan, and the number of plans evicted from the cache, during the window;</li>
+ * <li><b>{@link ValueMetric#QUERY_RESULT_CACHE_SIZE cached query results}</b> - the number of query results held in the query
+ * result cache, when it is enabled;</li>
+ * <li><b>{@link ValueMetric#QUERY_RESULT_CACHE_HITS query result cache hits}</b>, <b>{@link ValueMetric#QUERY_RESULT_CACHE_MISSES
+ * query result cache misses}</b> and <b>{@link ValueMetric#QUERY_RESULT_CACHE_INVALIDATIONS query result cache invalidations}</b> -
+ * the number of queries that did and did not reuse cached results, and the number of results removed from the cache because of
+ * changes in the content, during the window;</li>
+ * <li><b>{@link ValueMetric#REINDEXED_NODE_COUNT reindexed nodes}</b> and <b>{@link ValueMetric#REINDEXING_TIME_REMAINING
+ * reindexing time remaining}</b> - the number of nodes indexed during the window while rebuilding the indexes, and the estimated
+ * number of seconds until the indexes are rebuilt;</li>
+ * <li><b>{@link ValueMetric#BACKUP_DOCUMENT_COUNT backed up or restored documents}</b> and
+ * <b>{@link ValueMetric#BACKUP_BINARY_BYTES backed up or restored binary bytes}</b> - the throughput of the backup and restore
+ * operations during the window;</li>
  * </ol>
  * and the metrics that record durations include:
  * <ol>
@@ -76,6 +106,10 @@ import org.modeshape.jcr.value.DateTimeFactory;
  * window;</li>
  * <li><b>{@link DurationMetric#SEQUENCER_EXECUTION_TIME sequencer execution time}</b> - the duration of sequencing operations
  * completed during the window;</li>
+ * <li><b>{@link DurationMetric#DOCUMENT_OPTIMIZATION_TIME document optimization time}</b> - the duration of the optimizations of
+ * child reference blocks completed during the window;</li>
+ * <li><b>{@link DurationMetric#LISTENER_DISPATCH_TIME listener dispatch latency}</b> - for each listener queue, the longest time
+ * that changes waited to be processed by the listener during the window;</li>
  * </ol>
  * This class provides a way to obtain the {@link History history} for a particular metric during a specified window, where the
  * window is comprised of the {@link Statistics statistics} (the average value, minimum value, maximum value, variance, standard
@@ -117,6 +151,16 @@ public class RepositoryStatistics implements RepositoryMonitor {
      */
     public static final int MAXIMUM_LONG_RUNNING_SESSION_COUNT = 15;
 
+    /**
+     * The maximum number of longest-running document optimization operations to retain.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_OPTIMIZATION_COUNT = 15;
+
+    /**
+     * The maximum number of longest listener dispatch latencies to retain.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_DISPATCH_COUNT = 15;
+
     /**
      * The frequency at which the metric values are rolled into statistics.
      */
@@ -141,6 +185,7 @@ public class RepositoryStatistics implements RepositoryMonitor {
 
     private final ConcurrentMap<DurationMetric, DurationHistory> durations = new ConcurrentHashMap<DurationMetric, DurationHistory>();
     private final ConcurrentMap<ValueMetric, ValueHistory> values = new ConcurrentHashMap<ValueMetric, ValueHistory>();
+    private final List<Sampler> samplers = new CopyOnWriteArrayList<Sampler>();
     private final AtomicReference<ScheduledFuture<?>> rollupFuture = new AtomicReference<ScheduledFuture<?>>();
     private final DateTimeFactory timeFactory;
 
@@ -172,6 +217,10 @@ public class RepositoryStatistics implements RepositoryMonitor {
                                                                                    MAXIMUM_LONG_RUNNING_SEQUENCING_COUNT));
         durations.put(DurationMetric.SESSION_LIFETIME, new DurationHistory(TimeUnit.MILLISECONDS,
                                                                            MAXIMUM_LONG_RUNNING_SESSION_COUNT));
+        durations.put(DurationMetric.DOCUMENT_OPTIMIZATION_TIME, new DurationHistory(TimeUnit.MILLISECONDS,
+                                                                                     MAXIMUM_LONG_RUNNING_OPTIMIZATION_COUNT));
+        durations.put(DurationMetric.LISTENER_DISPATCH_TIME, new DurationHistory(TimeUnit.MILLISECONDS,
+                                                                                 MAXIMUM_LONG_RUNNING_DISPATCH_COUNT));
 
         for (ValueMetric metric : EnumSet.allOf(ValueMetric.class)) {
             boolean resetUponRollup = !metric.isContinuous();
@@ -205,6 +254,14 @@ public class RepositoryStatistics implements RepositoryMonitor {
      */
     @SuppressWarnings( "fallthrough" )
     private void rollup() {
+        for (Sampler sampler : samplers) {
+            try {
+                sampler.sample(this);
+            } catch (RuntimeException e) {
+                // Don't let a failing sampler stop the rollup of all the other metrics ...
+                Logger.getLogger(getClass()).debug(e, "Error while sampling repository statistics");
+            }
+        }
         DateTime now = timeFactory.create();
         Window largest = null;
         for (DurationHistory history : durations.values()) {
@@ -334,7 +391,7 @@ public class RepositoryStatistics implements RepositoryMonitor {
               long value ) {
         assert metric != null;
         ValueHistory history = values.get(metric);
-        if (history != null) history.recordNewValue(1L);
+        if (history != null) history.recordNewValue(value);
     }
 
     /**
@@ -371,6 +428,29 @@ public class RepositoryStatistics implements RepositoryMonitor {
         if (history != null) history.recordDuration(duration, timeUnit, payload);
     }
 
+    /**
+     * Register a component that records the current values of metrics that are not tracked as they change, but are instead sampled
+     * from other components immediately before each rollup of the statistics.
+     * 
+     * @param sampler the sampler; may not be null
+     */
+    void addSampler( Sampler sampler ) {
+        assert sampler != null;
+        samplers.add(sampler);
+    }
+
+    /**
+     * A component that records the current values of one or more metrics, and that is called immediately before each rollup.
+     */
+    interface Sampler {
+        /**
+         * Record the current values of the metrics into the supplied statistics.
+         * 
+         * @param statistics the statistics; never null
+         */
+        void sample( RepositoryStatistics statistics );
+    }
+
     /**
      * Abstract base class for the {@link ValueHistory} and {@link DurationHistory} classes. This class tracks the statistics for
      * various periods of time, and to roll up the statistics. The design takes advantage of the fact that we know up front how
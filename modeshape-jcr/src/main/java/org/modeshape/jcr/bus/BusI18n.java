@@ -17,6 +17,10 @@ public final class BusI18n {
     public static I18n errorDeserializingChanges;
     public static I18n clusteringChannelIsRunningAndCannotBeChangedUnlessShutdown;
     public static I18n memberOfClusterIsSuspect;
+    public static I18n unableToSendBatchedChanges;
+    public static I18n errorSendingBatchedChanges;
+    public static I18n errorNotifyingListener;
+    public static I18n listenerQueueIsFull;
 
     static {
         try {
@@ -37,4 +37,11 @@ public interface ChangeBus extends ChangeSetListener, Observable {
     public void start();
     public void shutdown();
     public boolean hasObservers();
+
+    /**
+     * An optional interface for a {@link ChangeSetListener} that must be notified of each change set on the thread that publishes
+     * it, before the change set is queued for the other listeners. Such listeners must be fast and must never block.
+     */
+    public static interface InlineListener extends ChangeSetListener {
+    }
 }
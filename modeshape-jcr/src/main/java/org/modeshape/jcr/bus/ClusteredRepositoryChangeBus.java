@@ -24,6 +24,17 @@
 
 package org.modeshape.jcr.bus;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.jgroups.Address;
 import org.jgroups.Channel;
@@ -35,10 +46,13 @@ import org.jgroups.util.Util;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.util.CheckArg;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.jcr.RepositoryConfiguration;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangeSetSerializer;
+import org.modeshape.jcr.cache.change.RecordingChanges;
 import org.modeshape.jcr.clustering.ChannelProvider;
 
 /**
@@ -52,10 +66,25 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
 
     protected static final Logger LOGGER = Logger.getLogger(ClusteredRepositoryChangeBus.class);
 
+    /**
+     * The serializer used to write the changes sent to and read the changes received from the other members of the cluster.
+     */
+    protected static final ChangeSetSerializer SERIALIZER = new ChangeSetSerializer();
+
+    /**
+     * The bytes that start every message that contains a batch of serialized change sets.
+     */
+    protected static final byte[] BATCH_MAGIC = {(byte)'M', (byte)'B'};
+
+    /**
+     * The version of the format of the batch messages.
+     */
+    protected static final byte BATCH_VERSION = 1;
+
     /**
      * The wrapped standalone bus to which standard bus operations are delegated
      */
-    protected final ChangeBus delegate;
+    protected final RepositoryChangeBus delegate;
 
     /**
      * The listener for channel changes.
@@ -93,8 +122,13 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
      */
     private Channel channel;
 
+    /**
+     * The component that batches the outgoing changes, or null if each change set is sent in its own message.
+     */
+    private volatile Batcher batcher;
+
     public ClusteredRepositoryChangeBus( RepositoryConfiguration.Clustering clusteringConfiguration,
-                                         ChangeBus delegate ) {
+                                         RepositoryChangeBus delegate ) {
         CheckArg.isNotNull(clusteringConfiguration, "clusteringConfiguration");
         CheckArg.isNotNull(delegate, "delegate");
 
@@ -128,6 +162,11 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
 
             // start the delegate
             delegate.start();
+
+            if (clusteringConfiguration.isBatchingEnabled()) {
+                batcher = new Batcher(clusteringConfiguration.getBatchDelayInMillis(),
+                                      clusteringConfiguration.getBatchSizeInBytes());
+            }
         } catch (Exception e) {
             throw new IllegalStateException(
                                             BusI18n.errorWhileStartingJGroups.text(clusteringConfiguration.getChannelConfiguration()),
@@ -181,6 +220,11 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         if (channel != null) {
             // Mark this as not accepting any more ...
             isOpen.set(false);
+            if (batcher != null) {
+                // Send any changes that are waiting to be batched ...
+                batcher.shutdown();
+                batcher = null;
+            }
             try {
                 // Disconnect from the channel and close it ...
                 channel.removeChannelListener(listener);
@@ -206,6 +250,11 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         if (!multipleAddressesInCluster.get()) {
             // We are in clustered mode, but there is only one participant in the cluster (us).
             // So short-circuit the cluster and just notify the local observers ...
+            Batcher batcher = this.batcher;
+            if (batcher != null) {
+                // But first send any batched changes that were made while there were other members ...
+                batcher.flushQuietly();
+            }
             if (hasObservers()) {
                 delegate.notify(changeSet);
                 logReceivedOperation(changeSet);
@@ -219,8 +268,13 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         try {
             logSendOperation(changeSet);
             byte[] data = serialize(changeSet);
-            Message message = new Message(null, null, data);
-            channel.send(message);
+            Batcher batcher = this.batcher;
+            if (batcher != null) {
+                batcher.add(data);
+            } else {
+                Message message = new Message(null, null, data);
+                channel.send(message);
+            }
         } catch (IllegalStateException e) {
             LOGGER.warn(BusI18n.unableToNotifyChanges,
                         clusteringConfiguration.getClusterName(),
@@ -277,14 +331,161 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         return delegate.unregister(observer);
     }
 
-    protected static byte[] serialize( ChangeSet changes ) throws Exception {
+    protected byte[] serialize( ChangeSet changes ) throws Exception {
+        return serialize(changes, clusteringConfiguration.isCompactChangeSetFormatEnabled());
+    }
+
+    protected static byte[] serialize( ChangeSet changes,
+                                       boolean compact ) throws Exception {
+        if (compact && changes instanceof RecordingChanges) {
+            return SERIALIZER.serialize(changes);
+        }
+        // Other implementations can only be reconstructed with Java serialization ...
         return Util.objectToByteBuffer(changes);
     }
 
     protected static ChangeSet deserialize( byte[] data ) throws Exception {
+        if (ChangeSetSerializer.isSerializedChangeSet(data)) {
+            return SERIALIZER.deserialize(data);
+        }
+        // The changes were sent using Java serialization ...
         return (ChangeSet)Util.objectFromByteBuffer(data);
     }
 
+    /**
+     * Combine several serialized change sets into a single message.
+     * 
+     * @param serializedChanges the serialized change sets, in the order they are to be delivered; may not be null
+     * @return the message; never null
+     * @throws IOException if there is a problem writing the message
+     */
+    protected static byte[] toBatch( List<byte[]> serializedChanges ) throws IOException {
+        int size = BATCH_MAGIC.length + 5;
+        for (byte[] data : serializedChanges) {
+            size += data.length + 4;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.write(BATCH_MAGIC);
+        output.writeByte(BATCH_VERSION);
+        output.writeInt(serializedChanges.size());
+        for (byte[] data : serializedChanges) {
+            output.writeInt(data.length);
+            output.write(data);
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Determine whether the supplied message contains a batch of change sets.
+     * 
+     * @param data the message; may be null
+     * @return true if the message was created with {@link #toBatch(List)}, or false otherwise
+     */
+    protected static boolean isBatch( byte[] data ) {
+        if (data == null || data.length < BATCH_MAGIC.length + 5) return false;
+        for (int i = 0; i != BATCH_MAGIC.length; ++i) {
+            if (data[i] != BATCH_MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Split a message created with {@link #toBatch(List)} into its serialized change sets.
+     * 
+     * @param batch the message; may not be null
+     * @return the serialized change sets, in the order they are to be delivered; never null
+     * @throws IOException if the message is not a valid batch
+     */
+    protected static List<byte[]> fromBatch( byte[] batch ) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(batch, BATCH_MAGIC.length,
+                                                                             batch.length - BATCH_MAGIC.length));
+        byte version = input.readByte();
+        if (version != BATCH_VERSION) {
+            throw new IOException("Unsupported version of batched changes: " + version);
+        }
+        int count = input.readInt();
+        List<byte[]> results = new ArrayList<byte[]>(count);
+        for (int i = 0; i != count; ++i) {
+            byte[] data = new byte[input.readInt()];
+            input.readFully(data);
+            results.add(data);
+        }
+        return results;
+    }
+
+    /**
+     * The component that collects the serialized changes made in this process and sends them to the cluster in a single message,
+     * either when the oldest of them has waited for the maximum delay or when they reach the maximum size. The messages are
+     * sent while holding this object's lock, so they are sent in the same order that the changes were {@link #add(byte[])
+     * added}.
+     */
+    protected final class Batcher implements Runnable {
+        private final long delayInMillis;
+        private final int maxSizeInBytes;
+        private final ScheduledExecutorService timer;
+        private List<byte[]> pending = new ArrayList<byte[]>();
+        private int pendingSize;
+        private ScheduledFuture<?> scheduledFlush;
+
+        protected Batcher( long delayInMillis,
+                           int maxSizeInBytes ) {
+            this.delayInMillis = delayInMillis;
+            this.maxSizeInBytes = maxSizeInBytes;
+            this.timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("modeshape-cluster-batcher"));
+        }
+
+        protected synchronized void add( byte[] data ) throws Exception {
+            if (!pending.isEmpty() && pendingSize + data.length > maxSizeInBytes) {
+                // Adding these changes would make the batch too large ...
+                flush();
+            }
+            pending.add(data);
+            pendingSize += data.length;
+            if (pendingSize >= maxSizeInBytes) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this, delayInMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            flushQuietly();
+        }
+
+        protected synchronized void flushQuietly() {
+            int count = pending.size();
+            try {
+                flush();
+            } catch (IllegalStateException e) {
+                LOGGER.warn(BusI18n.unableToSendBatchedChanges, clusteringConfiguration.getClusterName(), count);
+            } catch (Exception e) {
+                LOGGER.error(e, BusI18n.errorSendingBatchedChanges, clusteringConfiguration.getClusterName(), count,
+                             e.getMessage());
+            }
+        }
+
+        protected synchronized void flush() throws Exception {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pending.isEmpty()) return;
+            List<byte[]> batch = pending;
+            pending = new ArrayList<byte[]>();
+            pendingSize = 0;
+            byte[] data = batch.size() == 1 ? batch.get(0) : toBatch(batch);
+            channel.send(new Message(null, null, data));
+        }
+
+        protected synchronized void shutdown() {
+            flushQuietly();
+            timer.shutdownNow();
+        }
+    }
+
     protected final class Receiver extends ReceiverAdapter {
 
         @Override
@@ -299,10 +500,20 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
             }
             // We have at least one observer ...
             try {
+                byte[] data = message.getBuffer();
+                if (isBatch(data)) {
+                    // Deserialize and broadcast each of the batched changes in the order they were made ...
+                    for (byte[] serializedChanges : fromBatch(data)) {
+                        ChangeSet changes = deserialize(serializedChanges);
+                        delegate.notifyWithoutBlocking(changes);
+                        logReceivedOperation(changes);
+                    }
+                    return;
+                }
                 // Deserialize the changes ...
-                ChangeSet changes = deserialize(message.getBuffer());
-                // and broadcast them
-                delegate.notify(changes);
+                ChangeSet changes = deserialize(data);
+                // and broadcast them, without ever blocking JGroups' thread on a slow listener ...
+                delegate.notifyWithoutBlocking(changes);
                 logReceivedOperation(changes);
             } catch (Exception e) {
                 // Something went wrong here (this should not happen) ...
@@ -0,0 +1,178 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.bus;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangedNodes;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+
+/**
+ * A {@link ChangedNodes} change set that summarizes several change sets from the same process and workspace, recording only the
+ * keys of the nodes that were changed. These are created by the {@link RepositoryChangeBus} for listeners that use the
+ * {@link OverflowPolicy#COALESCE} policy and that have fallen behind.
+ */
+@NotThreadSafe
+final class CoalescedChanges implements ChangedNodes {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String processKey;
+    private final String repositoryKey;
+    private final String workspaceName;
+    private final String userId;
+    private final Set<NodeKey> changedNodes = new LinkedHashSet<NodeKey>();
+    private DateTime timestamp;
+    private boolean mayHaveChangedPaths;
+    private int count;
+
+    CoalescedChanges( ChangeSet first ) {
+        this.processKey = first.getProcessKey();
+        this.repositoryKey = first.getRepositoryKey();
+        this.workspaceName = first.getWorkspaceName();
+        this.userId = first.getUserId();
+        merge(first);
+    }
+
+    /**
+     * Determine whether the supplied change set can be merged into this summary.
+     * 
+     * @param changeSet the change set; may not be null
+     * @return true if the change set came from the same process, repository and workspace, or false otherwise
+     */
+    boolean canMerge( ChangeSet changeSet ) {
+        return equal(processKey, changeSet.getProcessKey()) && equal(repositoryKey, changeSet.getRepositoryKey())
+               && equal(workspaceName, changeSet.getWorkspaceName());
+    }
+
+    /**
+     * Add the nodes changed in the supplied change set to this summary.
+     * 
+     * @param changeSet the change set; may not be null
+     */
+    void merge( ChangeSet changeSet ) {
+        if (changeSet instanceof ChangedNodes) {
+            if (((ChangedNodes)changeSet).mayHaveChangedPaths()) mayHaveChangedPaths = true;
+        } else if (!mayHaveChangedPaths) {
+            for (Change change : changeSet) {
+                if (change instanceof NodeMoved || change instanceof NodeRenamed || change instanceof NodeReordered
+                    || change instanceof NodeRemoved) {
+                    mayHaveChangedPaths = true;
+                    break;
+                }
+            }
+        }
+        Set<NodeKey> keys = changeSet.changedNodes();
+        if (keys != null) changedNodes.addAll(keys);
+        if (changeSet.getTimestamp() != null) timestamp = changeSet.getTimestamp();
+        ++count;
+    }
+
+    /**
+     * Get the number of change sets that were merged into this summary.
+     * 
+     * @return the number of change sets; always positive
+     */
+    int getCoalescedCount() {
+        return count;
+    }
+
+    @Override
+    public boolean mayHaveChangedPaths() {
+        return mayHaveChangedPaths;
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return changedNodes.isEmpty();
+    }
+
+    @Override
+    public String getUserId() {
+        return userId;
+    }
+
+    @Override
+    public Map<String, String> getUserData() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String getProcessKey() {
+        return processKey;
+    }
+
+    @Override
+    public String getRepositoryKey() {
+        return repositoryKey;
+    }
+
+    @Override
+    public String getWorkspaceName() {
+        return workspaceName;
+    }
+
+    @Override
+    public Set<NodeKey> changedNodes() {
+        return Collections.unmodifiableSet(changedNodes);
+    }
+
+    @Override
+    public Iterator<Change> iterator() {
+        // A summary has no events ...
+        return Collections.<Change>emptySet().iterator();
+    }
+
+    private static boolean equal( String value1,
+                                  String value2 ) {
+        return value1 == null ? value2 == null : value1.equals(value2);
+    }
+
+    @Override
+    public String toString() {
+        return "Summary of " + count + " change sets in workspace '" + workspaceName + "' changing " + changedNodes.size()
+               + " nodes";
+    }
+}
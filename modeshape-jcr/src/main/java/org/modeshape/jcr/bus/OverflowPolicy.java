@@ -0,0 +1,83 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.bus;
+
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangedNodes;
+
+/**
+ * The policies that determine what a {@link RepositoryChangeBus} does with a change set when the bounded queue of a listener is
+ * full because the listener is not keeping up with the changes. The policies are not used when the queues are unbounded.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Block the thread that is publishing the change set until there is room in the listener's queue. No changes are lost, but a
+     * slow listener will slow down the sessions that are saving changes. Threads that must never block, such as the dispatchers
+     * and the thread receiving changes from the cluster, instead add the change set to the queue beyond its capacity. This is
+     * the default.
+     */
+    BLOCK,
+
+    /**
+     * Merge the change set into a {@link ChangedNodes summary} of the keys of the nodes that were changed in the workspace, which
+     * is sent to the listener once it catches up. Only listeners that implement {@link ChangedNodes.Listener} can use this
+     * policy; the queues of all other listeners use {@link #BLOCK} instead. Change sets that are not for a workspace are never
+     * merged.
+     */
+    COALESCE,
+
+    /**
+     * Discard the change set and increment the listener's count of dropped change sets.
+     */
+    DROP;
+
+    /**
+     * Obtain the policy with the supplied name, ignoring case.
+     *
+     * @param name the name of the policy; may be null
+     * @param defaultPolicy the policy that is to be returned if the name is null or does not match a policy
+     * @return the policy; never null if the default policy is not null
+     */
+    public static OverflowPolicy parse( String name,
+                                        OverflowPolicy defaultPolicy ) {
+        if (name == null) return defaultPolicy;
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name.trim())) return policy;
+        }
+        return defaultPolicy;
+    }
+
+    /**
+     * An optional interface for a {@link ChangeSetListener} that wants a policy other than the bus' default policy.
+     */
+    public static interface Listener extends ChangeSetListener {
+        /**
+         * Get the policy that should be used when this listener's queue is full.
+         *
+         * @return the policy; may be null if the bus' default policy should be used
+         */
+        OverflowPolicy getOverflowPolicy();
+    }
+}
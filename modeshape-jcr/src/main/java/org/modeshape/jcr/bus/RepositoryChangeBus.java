@@ -24,54 +24,119 @@
 
 package org.modeshape.jcr.bus;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.collection.RingBuffer;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangedNodes;
 
 /**
  * A standard {@link ChangeBus} implementation.
+ * <p>
+ * Each listener has a separate queue of change sets for each workspace, and each queue is drained by a separate dispatcher. By
+ * default the queues are unbounded. When the queues are bounded and a listener does not keep up so that one of its queues fills
+ * up, the listener's {@link OverflowPolicy} determines whether the thread publishing the changes blocks, whether the changes are
+ * coalesced into a summary, or whether they are dropped. Listeners can specify their policy by implementing
+ * {@link OverflowPolicy.Listener}; all other listeners use the bus' default policy. Listeners that implement
+ * {@link ChangeBus.InlineListener} have no queue, and are instead notified on the thread that publishes the changes.
+ * </p>
+ * <p>
+ * {@link ChangedNodes} change sets have no events, and are sent only to the listeners that implement
+ * {@link ChangedNodes.Listener}.
+ * </p>
+ * <p>
+ * Threads that must never wait for a slow listener (such as the thread that receives changes from the other members of a
+ * cluster) publish changes with {@link #notifyWithoutBlocking(ChangeSet)}.
+ * </p>
  * 
  * @author Horia Chiorean
  */
 @ThreadSafe
 public final class RepositoryChangeBus implements ChangeBus {
 
+    /**
+     * The queue capacity that means the number of change sets queued for each listener in each workspace is not limited.
+     */
+    public static final int UNBOUNDED_QUEUE_CAPACITY = 0;
+
     private static final String NULL_WORKSPACE_NAME = "null_workspace_name";
 
+    private static final Logger LOGGER = Logger.getLogger(RepositoryChangeBus.class);
+
+    private static final int DEFAULT_POLL_TIMEOUT = 3;
+    private static final long BLOCKED_PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
     private final ExecutorService executor;
-    private final ConcurrentHashMap<String, ConcurrentHashMap<ChangeSetListener, BlockingQueue<ChangeSet>>> workspaceListenerQueues;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<ChangeSetListener, ListenerQueue>> workspaceListenerQueues;
     private final Set<Future<?>> workers;
 
     private final Set<ChangeSetListener> listeners;
     private final ReadWriteLock listenersLock = new ReentrantReadWriteLock(true);
 
+    /**
+     * The queue that is being dispatched by the current thread, used to prevent dispatcher threads from blocking on full queues.
+     */
+    private final ThreadLocal<ListenerQueue> dispatchingQueue = new ThreadLocal<ListenerQueue>();
+
     protected volatile boolean shutdown;
 
     private final String systemWorkspaceName;
+    private final int queueCapacity;
+    private final OverflowPolicy defaultPolicy;
 
     public RepositoryChangeBus( ExecutorService executor,
                                 String systemWorkspaceName,
                                 boolean separateThreadForSystemWorkspace ) {
+        this(executor, systemWorkspaceName, separateThreadForSystemWorkspace, UNBOUNDED_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Create a new change bus.
+     * 
+     * @param executor the executor used to run the dispatchers; may not be null
+     * @param systemWorkspaceName the name of the system workspace, whose changes are sent to the listeners inline; may be null
+     * @param separateThreadForSystemWorkspace currently unused
+     * @param queueCapacity the maximum number of change sets that can be queued for each listener in each workspace, or
+     *        {@link #UNBOUNDED_QUEUE_CAPACITY} if the number is not limited; may not be negative
+     * @param defaultPolicy the policy for the listeners that do not specify their own; may not be null
+     */
+    public RepositoryChangeBus( ExecutorService executor,
+                                String systemWorkspaceName,
+                                boolean separateThreadForSystemWorkspace,
+                                int queueCapacity,
+                                OverflowPolicy defaultPolicy ) {
+        CheckArg.isNonNegative(queueCapacity, "queueCapacity");
+        CheckArg.isNotNull(defaultPolicy, "defaultPolicy");
         this.systemWorkspaceName = systemWorkspaceName;
         this.workers = new HashSet<Future<?>>();
-        this.workspaceListenerQueues = new ConcurrentHashMap<String, ConcurrentHashMap<ChangeSetListener, BlockingQueue<ChangeSet>>>();
+        this.workspaceListenerQueues = new ConcurrentHashMap<String, ConcurrentHashMap<ChangeSetListener, ListenerQueue>>();
         this.executor = executor;
         this.listeners = Collections.synchronizedSet(new LinkedHashSet<ChangeSetListener>());
         this.shutdown = false;
+        this.queueCapacity = queueCapacity;
+        this.defaultPolicy = defaultPolicy;
     }
 
     RepositoryChangeBus( ExecutorService executor ) {
@@ -87,6 +152,12 @@ public final class RepositoryChangeBus implements ChangeBus {
         try {
             listenersLock.writeLock().lock();
             listeners.clear();
+            for (Map<ChangeSetListener, ListenerQueue> queues : workspaceListenerQueues.values()) {
+                for (ListenerQueue queue : queues.values()) {
+                    // Release any producers that are blocked waiting for room ...
+                    queue.close();
+                }
+            }
             workspaceListenerQueues.clear();
             stopWork();
         } finally {
@@ -132,6 +203,21 @@ public final class RepositoryChangeBus implements ChangeBus {
 
     @Override
     public void notify( ChangeSet changeSet ) {
+        publish(changeSet, false);
+    }
+
+    /**
+     * Publish the change set to the listeners without ever waiting for room in the queue of a listener that uses the
+     * {@link OverflowPolicy#BLOCK} policy. Such change sets are instead held in the listener's queue beyond its capacity.
+     * 
+     * @param changeSet the change set; may be null
+     */
+    public void notifyWithoutBlocking( ChangeSet changeSet ) {
+        publish(changeSet, true);
+    }
+
+    private void publish( ChangeSet changeSet,
+                          boolean mustNotBlock ) {
         if (changeSet == null || !hasObservers()) {
             return;
         }
@@ -146,44 +232,80 @@ public final class RepositoryChangeBus implements ChangeBus {
             return;
         }
 
-        ConcurrentHashMap<ChangeSetListener, BlockingQueue<ChangeSet>> listenersForWorkspace = workspaceListenerQueues.get(workspaceName);
+        ConcurrentHashMap<ChangeSetListener, ListenerQueue> listenersForWorkspace = workspaceListenerQueues.get(workspaceName);
         if (listenersForWorkspace == null) {
-            listenersForWorkspace = new ConcurrentHashMap<ChangeSetListener, BlockingQueue<ChangeSet>>();
-            ConcurrentHashMap<ChangeSetListener, BlockingQueue<ChangeSet>> existingMap = workspaceListenerQueues.putIfAbsent(workspaceName,
-                                                                                                                             listenersForWorkspace);
+            listenersForWorkspace = new ConcurrentHashMap<ChangeSetListener, ListenerQueue>();
+            ConcurrentHashMap<ChangeSetListener, ListenerQueue> existingMap = workspaceListenerQueues.putIfAbsent(workspaceName,
+                                                                                                                  listenersForWorkspace);
             if (existingMap != null) {
                 listenersForWorkspace = existingMap;
             }
         }
 
+        List<ListenerQueue> queues = new ArrayList<ListenerQueue>(listenersForWorkspace.size() + 1);
+        List<ChangeSetListener> inlineListeners = null;
+        boolean changedNodesOnly = changeSet instanceof ChangedNodes;
         try {
             listenersLock.readLock().lock();
             for (ChangeSetListener listener : listeners) {
-                BlockingQueue<ChangeSet> listenerQueue = listenersForWorkspace.get(listener);
+                if (changedNodesOnly && !(listener instanceof ChangedNodes.Listener)) continue;
+                if (listener instanceof InlineListener) {
+                    if (inlineListeners == null) inlineListeners = new ArrayList<ChangeSetListener>(1);
+                    inlineListeners.add(listener);
+                    continue;
+                }
+                ListenerQueue listenerQueue = listenersForWorkspace.get(listener);
                 if (listenerQueue == null) {
-                    listenerQueue = new LinkedBlockingQueue<ChangeSet>();
-                    listenerQueue.add(changeSet);
-                    BlockingQueue<ChangeSet> existingQueue = listenersForWorkspace.putIfAbsent(listener, listenerQueue);
+                    listenerQueue = new ListenerQueue(listener, workspaceName, policyFor(listener), queueCapacity);
+                    ListenerQueue existingQueue = listenersForWorkspace.putIfAbsent(listener, listenerQueue);
                     if (existingQueue != null) {
                         listenerQueue = existingQueue;
+                    } else {
+                        workers.add(executor.submit(new ChangeSetDispatcher(listenerQueue)));
                     }
-                    ChangeSetDispatcher dispatcher = new ChangeSetDispatcher(listener, listenerQueue);
-                    workers.add(executor.submit(dispatcher));
-                } else {
-                    listenerQueue.add(changeSet);
                 }
+                queues.add(listenerQueue);
             }
         } finally {
             listenersLock.readLock().unlock();
         }
+
+        // Notify the inline listeners before any of the queued listeners can see the changes ...
+        if (inlineListeners != null) {
+            for (ChangeSetListener listener : inlineListeners) {
+                listener.notify(changeSet);
+            }
+        }
+
+        // Add the changes to the queues only after releasing the lock, since this may block. Dispatchers must never block,
+        // since that could deadlock (e.g., a listener that saves changes while being notified) ...
+        long now = System.nanoTime();
+        boolean mayBlock = !mustNotBlock && dispatchingQueue.get() == null;
+        for (ListenerQueue listenerQueue : queues) {
+            listenerQueue.add(changeSet, now, mayBlock);
+        }
+    }
+
+    private OverflowPolicy policyFor( ChangeSetListener listener ) {
+        if (listener instanceof OverflowPolicy.Listener) {
+            OverflowPolicy policy = ((OverflowPolicy.Listener)listener).getOverflowPolicy();
+            if (policy == OverflowPolicy.COALESCE && !(listener instanceof ChangedNodes.Listener)) {
+                // Only the listeners that accept summaries can be sent them ...
+                return OverflowPolicy.BLOCK;
+            }
+            if (policy != null) return policy;
+        }
+        return defaultPolicy;
     }
 
     private boolean notifiedSystemWorkspaceListenersInline( ChangeSet changeSet,
                                                             String workspaceName ) {
         if (workspaceName.equalsIgnoreCase(systemWorkspaceName)) {
+            boolean changedNodesOnly = changeSet instanceof ChangedNodes;
             listenersLock.readLock().lock();
             try {
                 for (ChangeSetListener listener : listeners) {
+                    if (changedNodesOnly && !(listener instanceof ChangedNodes.Listener)) continue;
                     listener.notify(changeSet);
                 }
                 return true;
@@ -204,42 +326,432 @@ public final class RepositoryChangeBus implements ChangeBus {
         }
     }
 
-    private class ChangeSetDispatcher implements Callable<Void> {
+    /**
+     * Obtain the statistics for each of the listener queues. The queue sizes are the current values, while all of the other
+     * counts and latencies cover only the dispatching that has occurred since the previous call to this method.
+     * 
+     * @return the statistics for each listener queue; never null
+     */
+    public List<ListenerStatistics> sampleListenerStatistics() {
+        List<ListenerStatistics> result = new ArrayList<ListenerStatistics>();
+        for (Map<ChangeSetListener, ListenerQueue> queues : workspaceListenerQueues.values()) {
+            for (ListenerQueue queue : queues.values()) {
+                result.add(queue.sample());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A snapshot of the activity of the queue of change sets for one listener in one workspace.
+     */
+    @Immutable
+    public static final class ListenerStatistics {
+        private final String listener;
+        private final String workspaceName;
+        private final OverflowPolicy policy;
+        private final int queueSize;
+        private final int capacity;
+        private final long dispatchedCount;
+        private final long droppedCount;
+        private final long coalescedCount;
+        private final long totalLatencyNanos;
+        private final long maximumLatencyNanos;
 
-        private static final int DEFAULT_POLL_TIMEOUT = 3;
+        protected ListenerStatistics( String listener,
+                                      String workspaceName,
+                                      OverflowPolicy policy,
+                                      int queueSize,
+                                      int capacity,
+                                      long dispatchedCount,
+                                      long droppedCount,
+                                      long coalescedCount,
+                                      long totalLatencyNanos,
+                                      long maximumLatencyNanos ) {
+            this.listener = listener;
+            this.workspaceName = workspaceName;
+            this.policy = policy;
+            this.queueSize = queueSize;
+            this.capacity = capacity;
+            this.dispatchedCount = dispatchedCount;
+            this.droppedCount = droppedCount;
+            this.coalescedCount = coalescedCount;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maximumLatencyNanos = maximumLatencyNanos;
+        }
+
+        /**
+         * Get the string representation of the listener.
+         * 
+         * @return the listener's description; never null
+         */
+        public String getListener() {
+            return listener;
+        }
+
+        /**
+         * Get the name of the workspace whose changes are queued.
+         * 
+         * @return the workspace name; never null
+         */
+        public String getWorkspaceName() {
+            return workspaceName;
+        }
+
+        /**
+         * Get the policy that is used when the queue is full.
+         * 
+         * @return the overflow policy; never null
+         */
+        public OverflowPolicy getPolicy() {
+            return policy;
+        }
 
-        private ChangeSetListener listener;
-        private BlockingQueue<ChangeSet> changeSetQueue;
+        /**
+         * Get the number of change sets that are waiting to be sent to the listener.
+         * 
+         * @return the current queue size
+         */
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * Get the maximum number of change sets that can be queued before the {@link #getPolicy() policy} is used.
+         * 
+         * @return the capacity of the queue, or {@link RepositoryChangeBus#UNBOUNDED_QUEUE_CAPACITY} if the queue is unbounded
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * Get the number of change sets that were sent to the listener.
+         * 
+         * @return the number of dispatched change sets
+         */
+        public long getDispatchedCount() {
+            return dispatchedCount;
+        }
+
+        /**
+         * Get the number of change sets that were dropped because the queue was full.
+         * 
+         * @return the number of dropped change sets
+         */
+        public long getDroppedCount() {
+            return droppedCount;
+        }
+
+        /**
+         * Get the number of change sets that were merged into summaries because the queue was full.
+         * 
+         * @return the number of coalesced change sets
+         */
+        public long getCoalescedCount() {
+            return coalescedCount;
+        }
+
+        /**
+         * Get the average time between a change set being queued and the listener finishing with it.
+         * 
+         * @param unit the desired time unit; may not be null
+         * @return the average dispatch latency, or 0 if no change sets were dispatched
+         */
+        public long getAverageLatency( TimeUnit unit ) {
+            return dispatchedCount == 0L ? 0L : unit.convert(totalLatencyNanos / dispatchedCount, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Get the longest time between a change set being queued and the listener finishing with it.
+         * 
+         * @param unit the desired time unit; may not be null
+         * @return the maximum dispatch latency, or 0 if no change sets were dispatched
+         */
+        public long getMaximumLatency( TimeUnit unit ) {
+            return unit.convert(maximumLatencyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "Queue for " + listener + " in '" + workspaceName + "': " + queueSize + "/" + capacity + " queued, "
+                   + dispatchedCount + " dispatched, " + droppedCount + " dropped, " + coalescedCount + " coalesced, max latency "
+                   + getMaximumLatency(TimeUnit.MILLISECONDS) + "ms";
+        }
+    }
+
+    /**
+     * A change set, the order in which it was added to a queue, and the time at which it was queued.
+     */
+    @Immutable
+    private static final class QueuedChanges {
+        protected final ChangeSet changeSet;
+        protected final long sequence;
+        protected final long enqueuedNanos;
+
+        protected QueuedChanges( ChangeSet changeSet,
+                                 long sequence,
+                                 long enqueuedNanos ) {
+            this.changeSet = changeSet;
+            this.sequence = sequence;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
 
-        ChangeSetDispatcher( ChangeSetListener listener,
-                             BlockingQueue<ChangeSet> changeSetQueue ) {
+    /**
+     * The queue of change sets for one listener in one workspace. Any number of threads may add change sets, but only the
+     * listener's {@link ChangeSetDispatcher dispatcher} removes them.
+     * <p>
+     * When the queue is bounded, most change sets go into a lock-free {@link RingBuffer}. When that is full, the change sets that
+     * are coalesced (or that are added by a thread that must not block) are placed into an overflow list, and while the overflow
+     * list is not empty all new change sets are added to it. When the queue is unbounded, all change sets go into the overflow
+     * list. Each change set is numbered as it is added, and the dispatcher always removes whichever of the heads of the ring
+     * buffer and the overflow list was added first, so the changes are always delivered in the order that each thread added
+     * them.
+     * </p>
+     */
+    @ThreadSafe
+    private final class ListenerQueue {
+        private final ChangeSetListener listener;
+        private final String workspaceName;
+        private final OverflowPolicy policy;
+        private final RingBuffer<QueuedChanges> buffer;
+        @GuardedBy( "overflow" )
+        private final ArrayDeque<QueuedChanges> overflow = new ArrayDeque<QueuedChanges>();
+        private volatile boolean hasOverflow;
+        private volatile Thread waitingConsumer;
+        private volatile boolean closed;
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicBoolean full = new AtomicBoolean();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maximumLatency = new AtomicLong();
+
+        protected ListenerQueue( ChangeSetListener listener,
+                                 String workspaceName,
+                                 OverflowPolicy policy,
+                                 int capacity ) {
             this.listener = listener;
-            this.changeSetQueue = changeSetQueue;
+            this.workspaceName = workspaceName;
+            this.policy = policy;
+            this.buffer = capacity == UNBOUNDED_QUEUE_CAPACITY ? null : new RingBuffer<QueuedChanges>(capacity);
+        }
+
+        protected ChangeSetListener listener() {
+            return listener;
+        }
+
+        /**
+         * Add the change set to this queue, applying the overflow policy if the queue is full.
+         * 
+         * @param changeSet the change set; may not be null
+         * @param now the current time in nanoseconds
+         * @param mayBlock true if the calling thread may wait for room in the queue, or false if it must never block
+         */
+        protected void add( ChangeSet changeSet,
+                            long now,
+                            boolean mayBlock ) {
+            if (closed) return;
+            QueuedChanges queued = new QueuedChanges(changeSet, sequence.incrementAndGet(), now);
+            if (buffer == null) {
+                addToOverflow(queued);
+            } else if (!hasOverflow && buffer.offer(queued)) {
+                // Added to the ring buffer ...
+            } else if (policy == OverflowPolicy.DROP) {
+                warnIfNewlyFull();
+                dropped.incrementAndGet();
+                return;
+            } else if (policy == OverflowPolicy.COALESCE && changeSet.getWorkspaceName() != null) {
+                warnIfNewlyFull();
+                coalesce(queued);
+            } else if (mayBlock) {
+                waitUntilAdded(queued);
+            } else {
+                // Keep the whole change set in the overflow list ...
+                addToOverflow(queued);
+            }
+            wakeConsumer();
+        }
+
+        private void coalesce( QueuedChanges queued ) {
+            synchronized (overflow) {
+                QueuedChanges last = overflow.peekLast();
+                if (last != null && last.changeSet instanceof CoalescedChanges) {
+                    CoalescedChanges summary = (CoalescedChanges)last.changeSet;
+                    if (summary.canMerge(queued.changeSet)) {
+                        summary.merge(queued.changeSet);
+                        coalesced.incrementAndGet();
+                        return;
+                    }
+                }
+                // The summary takes the place (and the time) of the first of the merged change sets ...
+                CoalescedChanges summary = new CoalescedChanges(queued.changeSet);
+                overflow.addLast(new QueuedChanges(summary, queued.sequence, queued.enqueuedNanos));
+                hasOverflow = true;
+                coalesced.incrementAndGet();
+            }
+        }
+
+        private void addToOverflow( QueuedChanges queued ) {
+            synchronized (overflow) {
+                overflow.addLast(queued);
+                hasOverflow = true;
+            }
+        }
+
+        private void waitUntilAdded( QueuedChanges queued ) {
+            while (!closed) {
+                if (!hasOverflow && buffer.offer(queued)) return;
+                wakeConsumer();
+                LockSupport.parkNanos(this, BLOCKED_PRODUCER_PARK_NANOS);
+                if (Thread.currentThread().isInterrupted()) {
+                    // Don't lose the changes, but don't wait any longer either ...
+                    addToOverflow(queued);
+                    return;
+                }
+            }
+        }
+
+        private void warnIfNewlyFull() {
+            if (full.compareAndSet(false, true)) {
+                LOGGER.warn(BusI18n.listenerQueueIsFull, listener, workspaceName, policy);
+            }
+        }
+
+        private void wakeConsumer() {
+            Thread consumer = waitingConsumer;
+            if (consumer != null) LockSupport.unpark(consumer);
+        }
+
+        /**
+         * Remove the next change set, waiting up to the supplied time if there is none. This must only be called by the
+         * dispatcher.
+         * 
+         * @param timeoutNanos the maximum time to wait
+         * @return the next change set, or null if there were none within the timeout
+         */
+        protected QueuedChanges poll( long timeoutNanos ) {
+            QueuedChanges next = next();
+            if (next != null || timeoutNanos <= 0L) return next;
+            long deadline = System.nanoTime() + timeoutNanos;
+            waitingConsumer = Thread.currentThread();
+            try {
+                while (true) {
+                    // Check again only after advertising that we're waiting, so producers won't miss waking us ...
+                    next = next();
+                    if (next != null) return next;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L || Thread.currentThread().isInterrupted()) return null;
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+        }
+
+        private QueuedChanges next() {
+            // Look at the ring buffer before checking for overflow, so that we always see an overflowing change set that was
+            // added before the head of the ring buffer ...
+            QueuedChanges buffered = buffer != null ? buffer.peek() : null;
+            if (hasOverflow) {
+                synchronized (overflow) {
+                    QueuedChanges first = overflow.peekFirst();
+                    // Look again, since the ring buffer may since have been given change sets that were added before the
+                    // head of the list ...
+                    if (buffer != null) buffered = buffer.peek();
+                    if (first != null && (buffered == null || first.sequence < buffered.sequence)) {
+                        overflow.pollFirst();
+                        if (overflow.isEmpty()) hasOverflow = false;
+                        return first;
+                    }
+                }
+            }
+            if (buffered != null) return buffer.poll();
+            // The queue is empty, so the next time it fills up we should log again ...
+            full.set(false);
+            return null;
+        }
+
+        /**
+         * Send the change set to the listener and record the latency. This must only be called by the dispatcher.
+         * 
+         * @param queued the queued change set; may not be null
+         */
+        protected void dispatch( QueuedChanges queued ) {
+            try {
+                listener.notify(queued.changeSet);
+            } catch (RuntimeException e) {
+                LOGGER.error(e, BusI18n.errorNotifyingListener, listener, workspaceName, e.getMessage());
+            }
+            long latency = System.nanoTime() - queued.enqueuedNanos;
+            dispatched.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            long max = maximumLatency.get();
+            while (latency > max && !maximumLatency.compareAndSet(max, latency)) {
+                max = maximumLatency.get();
+            }
+        }
+
+        protected void close() {
+            closed = true;
+        }
+
+        protected int size() {
+            int size = buffer != null ? buffer.size() : 0;
+            if (hasOverflow) {
+                synchronized (overflow) {
+                    size += overflow.size();
+                }
+            }
+            return size;
+        }
+
+        protected ListenerStatistics sample() {
+            int capacity = buffer != null ? buffer.capacity() : UNBOUNDED_QUEUE_CAPACITY;
+            return new ListenerStatistics(listener.toString(), workspaceName, policy, size(), capacity, dispatched.getAndSet(0L),
+                                          dropped.getAndSet(0L), coalesced.getAndSet(0L), totalLatency.getAndSet(0L),
+                                          maximumLatency.getAndSet(0L));
+        }
+    }
+
+    private class ChangeSetDispatcher implements Callable<Void> {
+
+        private final long pollTimeoutNanos = TimeUnit.SECONDS.toNanos(DEFAULT_POLL_TIMEOUT);
+
+        private ListenerQueue queue;
+
+        ChangeSetDispatcher( ListenerQueue queue ) {
+            this.queue = queue;
         }
 
         @Override
         public Void call() {
-            while (!shutdown) {
-                try {
-                    ChangeSet changeSet = changeSetQueue.poll(DEFAULT_POLL_TIMEOUT, TimeUnit.SECONDS);
-                    if (changeSet != null) {
-                        listener.notify(changeSet);
+            dispatchingQueue.set(queue);
+            try {
+                while (!shutdown) {
+                    QueuedChanges queued = queue.poll(pollTimeoutNanos);
+                    if (queued != null) {
+                        queue.dispatch(queued);
+                    } else if (Thread.interrupted()) {
+                        break;
                     }
-                } catch (InterruptedException e) {
-                    Thread.interrupted();
-                    break;
                 }
+                shutdown();
+            } finally {
+                dispatchingQueue.remove();
             }
-            shutdown();
             return null;
         }
 
         private void shutdown() {
-            while (!changeSetQueue.isEmpty()) {
-                listener.notify(changeSetQueue.poll());
+            queue.close();
+            QueuedChanges queued = null;
+            while ((queued = queue.poll(0L)) != null) {
+                queue.dispatch(queued);
             }
-            this.listener = null;
-            this.changeSetQueue = null;
+            this.queue = null;
         }
     }
 }
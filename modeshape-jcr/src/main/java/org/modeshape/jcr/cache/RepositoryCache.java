@@ -44,9 +44,11 @@ import org.modeshape.jcr.ModeShapeLexicon;
 import org.modeshape.jcr.RepositoryConfiguration;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.bus.ChangeBus;
+import org.modeshape.jcr.bus.OverflowPolicy;
 import org.modeshape.jcr.cache.change.Change;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangedNodes;
 import org.modeshape.jcr.cache.change.Observable;
 import org.modeshape.jcr.cache.change.RecordingChanges;
 import org.modeshape.jcr.cache.change.WorkspaceAdded;
@@ -223,15 +225,24 @@ public class RepositoryCache implements Observable {
         }
     }
 
-    protected class LocalChangeListener implements ChangeSetListener {
+    protected class LocalChangeListener implements ChangedNodes.Listener, OverflowPolicy.Listener {
+        @Override
+        public OverflowPolicy getOverflowPolicy() {
+            // Purging the cached nodes only requires the keys, so a summary is enough when we fall behind ...
+            return OverflowPolicy.COALESCE;
+        }
+
         @Override
         public void notify( ChangeSet changeSet ) {
 
             if (changeSet == null || !getKey().equals(changeSet.getRepositoryKey())) return;
             String workspaceName = changeSet.getWorkspaceName();
             if (workspaceName != null) {
+                // Nodes invalidated in another process are not purged from this process' cache by anything else ...
+                boolean remoteInvalidation = changeSet instanceof ChangedNodes
+                                             && !context.getProcessId().equals(changeSet.getProcessKey());
                 for (WorkspaceCache cache : workspaces()) {
-                    if (!cache.getWorkspaceName().equalsIgnoreCase(workspaceName)) {
+                    if (remoteInvalidation || !cache.getWorkspaceName().equalsIgnoreCase(workspaceName)) {
                         // the workspace which triggered the event should've already processed the changeset, so we don't want to
                         // do it
                         cache.notify(changeSet);
@@ -321,7 +332,9 @@ public class RepositoryCache implements Observable {
             trans.setProperty(rootDoc, context.getPropertyFactory().create(JcrLexicon.UUID, rootKey.toString()), null);
 
             database.putIfAbsent(rootKey.toString(), rootDoc, null);
-            cache = new WorkspaceCache(context, getKey(), name, database, minimumBinarySizeInBytes.get(), rootKey, changeBus);
+            RepositoryConfiguration.NodeCaching caching = configuration.getNodeCaching(name);
+            cache = new WorkspaceCache(context, getKey(), name, database, minimumBinarySizeInBytes.get(), rootKey, changeBus,
+                                       caching.getMaxEntries(), caching.getMaxSizeInBytes());
             WorkspaceCache existing = workspaceCachesByName.putIfAbsent(name, cache);
             if (existing != null) {
                 // Some other thread snuck in and created the cache for this workspace, so use it instead ...
@@ -359,7 +372,12 @@ public class RepositoryCache implements Observable {
         this.workspaceCachesByName.remove(name);
     }
 
-    Iterable<WorkspaceCache> workspaces() {
+    /**
+     * Get the caches for the workspaces that have been loaded. This does not load any workspaces.
+     * 
+     * @return the workspace caches; never null
+     */
+    public Iterable<WorkspaceCache> workspaces() {
         return workspaceCachesByName.values();
     }
 
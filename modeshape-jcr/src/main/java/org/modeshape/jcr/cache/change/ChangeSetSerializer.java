@@ -0,0 +1,896 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.change;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Path.Segment;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.BasicEmptyProperty;
+import org.modeshape.jcr.value.basic.BasicMultiValueProperty;
+import org.modeshape.jcr.value.basic.BasicName;
+import org.modeshape.jcr.value.basic.BasicPath;
+import org.modeshape.jcr.value.basic.BasicPathSegment;
+import org.modeshape.jcr.value.basic.BasicSingleValueProperty;
+import org.modeshape.jcr.value.basic.ChildPath;
+import org.modeshape.jcr.value.basic.IdentifierPath;
+import org.modeshape.jcr.value.basic.IdentifierPathSegment;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.NodeKeyReference;
+import org.modeshape.jcr.value.basic.RootPath;
+import org.modeshape.jcr.value.basic.StringReference;
+
+/**
+ * A compact and versioned binary format for {@link ChangeSet} instances, used to send changes to the other processes in a
+ * cluster. Every {@link Change} type defined in this package has its own encoding, and each serialized change set has its own
+ * dictionaries of the {@link NodeKey node keys}, {@link Name names}, namespace URIs and {@link Path paths} that it contains, so
+ * that each of these is written only once per message. Paths are written as a reference to their parent path plus the last
+ * segment, so that the many paths that share the same ancestors take very little space.
+ * <p>
+ * The most common property value types are written directly, while any other values (e.g., binary values) and any unknown
+ * {@link Change} types are written using Java serialization. When the serialized changes are larger than the
+ * {@link #getCompressionThreshold() compression threshold}, they are compressed if doing so makes the message smaller.
+ * </p>
+ * <p>
+ * The changes are always deserialized as {@link RecordingChanges}, which requires that the change set have a
+ * {@link ChangeSet#getProcessKey() process key} and {@link ChangeSet#getRepositoryKey() repository key}. Each message starts
+ * with a {@link #MAGIC two-byte marker} and a {@link #VERSION version} byte, so that
+ * {@link #isSerializedChangeSet(byte[])} can distinguish this format from other formats.
+ * </p>
+ */
+@ThreadSafe
+public final class ChangeSetSerializer {
+
+    /**
+     * The bytes that start every serialized change set.
+     */
+    public static final byte[] MAGIC = {(byte)'M', (byte)'C'};
+
+    /**
+     * The version of the format written by this serializer.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * The default size in bytes above which the serialized changes are compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 4096;
+
+    private static final int HEADER_SIZE = MAGIC.length + 2;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    // The change types ...
+    private static final byte OTHER_CHANGE = 0;
+    private static final byte NODE_ADDED = 1;
+    private static final byte NODE_REMOVED = 2;
+    private static final byte NODE_CHANGED = 3;
+    private static final byte NODE_MOVED = 4;
+    private static final byte NODE_RENAMED = 5;
+    private static final byte NODE_REORDERED = 6;
+    private static final byte NODE_SEQUENCED = 7;
+    private static final byte NODE_SEQUENCING_FAILURE = 8;
+    private static final byte PROPERTY_ADDED = 9;
+    private static final byte PROPERTY_REMOVED = 10;
+    private static final byte PROPERTY_CHANGED = 11;
+    private static final byte BINARY_VALUE_USED = 12;
+    private static final byte BINARY_VALUE_UNUSED = 13;
+    private static final byte WORKSPACE_ADDED = 14;
+    private static final byte WORKSPACE_REMOVED = 15;
+
+    // The kinds of properties ...
+    private static final byte EMPTY_PROPERTY = 0;
+    private static final byte SINGLE_VALUE_PROPERTY = 1;
+    private static final byte MULTI_VALUE_PROPERTY = 2;
+
+    // The value types ...
+    private static final byte OTHER_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte LONG_VALUE = 2;
+    private static final byte DOUBLE_VALUE = 3;
+    private static final byte BOOLEAN_VALUE = 4;
+    private static final byte DECIMAL_VALUE = 5;
+    private static final byte DATE_VALUE = 6;
+    private static final byte NAME_VALUE = 7;
+    private static final byte PATH_VALUE = 8;
+    private static final byte NODE_KEY_REFERENCE_VALUE = 9;
+    private static final byte STRING_REFERENCE_VALUE = 10;
+    private static final byte URI_VALUE = 11;
+
+    // The kinds of paths ...
+    private static final byte ROOT_PATH = 0;
+    private static final byte CHILD_PATH = 1;
+    private static final byte IDENTIFIER_PATH = 2;
+    private static final byte RELATIVE_PATH = 3;
+
+    /**
+     * Determine whether the supplied bytes were written by a {@link ChangeSetSerializer}.
+     * 
+     * @param data the bytes; may be null
+     * @return true if the bytes start with the {@link #MAGIC marker} of this format, or false otherwise
+     */
+    public static boolean isSerializedChangeSet( byte[] data ) {
+        if (data == null || data.length < HEADER_SIZE) return false;
+        for (int i = 0; i != MAGIC.length; ++i) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    private final int compressionThreshold;
+
+    /**
+     * Create a serializer that uses the {@link #DEFAULT_COMPRESSION_THRESHOLD default compression threshold}.
+     */
+    public ChangeSetSerializer() {
+        this(DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Create a serializer that uses the supplied compression threshold.
+     * 
+     * @param compressionThreshold the size in bytes above which the serialized changes are compressed, or 0 if the changes should
+     *        never be compressed; may not be negative
+     */
+    public ChangeSetSerializer( int compressionThreshold ) {
+        CheckArg.isNonNegative(compressionThreshold, "compressionThreshold");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Get the size in bytes above which the serialized changes are compressed.
+     * 
+     * @return the threshold, or 0 if the changes are never compressed
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Serialize the supplied changes.
+     * 
+     * @param changes the changes; may not be null
+     * @return the serialized form of the changes; never null
+     * @throws IOException if there is a problem writing the changes
+     */
+    public byte[] serialize( ChangeSet changes ) throws IOException {
+        CheckArg.isNotNull(changes, "changes");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        new Writer(new DataOutputStream(bytes)).write(changes);
+        byte[] body = bytes.toByteArray();
+        byte flags = 0;
+        if (compressionThreshold > 0 && body.length > compressionThreshold) {
+            byte[] compressed = compress(body);
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+        byte[] result = new byte[HEADER_SIZE + body.length];
+        System.arraycopy(MAGIC, 0, result, 0, MAGIC.length);
+        result[MAGIC.length] = VERSION;
+        result[MAGIC.length + 1] = flags;
+        System.arraycopy(body, 0, result, HEADER_SIZE, body.length);
+        return result;
+    }
+
+    /**
+     * Deserialize the changes from the supplied bytes.
+     * 
+     * @param data the bytes that were produced by {@link #serialize(ChangeSet)}; may not be null
+     * @return the changes; never null
+     * @throws IOException if the bytes are not in the expected format or cannot be read
+     * @throws ClassNotFoundException if any of the Java-serialized values or changes cannot be loaded
+     */
+    public ChangeSet deserialize( byte[] data ) throws IOException, ClassNotFoundException {
+        CheckArg.isNotNull(data, "data");
+        if (!isSerializedChangeSet(data)) {
+            throw new IOException("The data is not a serialized change set");
+        }
+        byte version = data[MAGIC.length];
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of serialized change set: " + version);
+        }
+        byte flags = data[MAGIC.length + 1];
+        byte[] body = null;
+        int offset = HEADER_SIZE;
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            body = decompress(data, HEADER_SIZE);
+            offset = 0;
+        } else {
+            body = data;
+        }
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body, offset, body.length - offset));
+        return new Reader(input).read();
+    }
+
+    private static byte[] compress( byte[] data ) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress( byte[] data,
+                                      int offset ) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("The compressed change set is truncated");
+                }
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("The compressed change set is not valid", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The writer of a single change set. Each dictionary reference is written as a variable-length integer, where 0 denotes a null
+     * value, 1 denotes a new entry whose definition immediately follows, and any other value <code>n</code> refers to the
+     * previously-defined entry at index <code>n-2</code>.
+     */
+    protected static final class Writer {
+        private final DataOutputStream output;
+        private final Map<NodeKey, Integer> keys = new HashMap<NodeKey, Integer>();
+        private final Map<String, Integer> namespaces = new HashMap<String, Integer>();
+        private final Map<Name, Integer> names = new HashMap<Name, Integer>();
+        private final Map<Path, Integer> paths = new HashMap<Path, Integer>();
+
+        protected Writer( DataOutputStream output ) {
+            this.output = output;
+        }
+
+        protected void write( ChangeSet changes ) throws IOException {
+            writeString(changes.getProcessKey());
+            writeString(changes.getRepositoryKey());
+            writeString(changes.getWorkspaceName());
+            writeString(changes.getUserId());
+            DateTime timestamp = changes.getTimestamp();
+            if (timestamp != null) {
+                output.writeBoolean(true);
+                writeDate(timestamp);
+            } else {
+                output.writeBoolean(false);
+            }
+            Map<String, String> userData = changes.getUserData();
+            int userDataSize = userData != null ? userData.size() : 0;
+            writeVarInt(userDataSize);
+            if (userDataSize != 0) {
+                for (Map.Entry<String, String> entry : userData.entrySet()) {
+                    writeString(entry.getKey());
+                    writeString(entry.getValue());
+                }
+            }
+            Set<NodeKey> changedNodes = changes.changedNodes();
+            int changedNodesSize = changedNodes != null ? changedNodes.size() : 0;
+            writeVarInt(changedNodesSize);
+            if (changedNodesSize != 0) {
+                for (NodeKey key : changedNodes) {
+                    writeKey(key);
+                }
+            }
+            // The number of changes may change as we iterate, so write each change with a leading marker ...
+            for (Change change : changes) {
+                output.writeBoolean(true);
+                writeChange(change);
+            }
+            output.writeBoolean(false);
+            output.flush();
+        }
+
+        protected void writeChange( Change change ) throws IOException {
+            if (change instanceof NodeAdded) {
+                NodeAdded added = (NodeAdded)change;
+                output.writeByte(NODE_ADDED);
+                writeKey(added.getKey());
+                writeKey(added.getParentKey());
+                writePath(added.getPath());
+                Map<Name, Property> properties = added.getProperties();
+                writeVarInt(properties.size());
+                for (Property property : properties.values()) {
+                    writeProperty(property);
+                }
+            } else if (change instanceof NodeRemoved) {
+                NodeRemoved removed = (NodeRemoved)change;
+                output.writeByte(NODE_REMOVED);
+                writeKey(removed.getKey());
+                writeKey(removed.getParentKey());
+                writePath(removed.getPath());
+            } else if (change instanceof NodeChanged) {
+                NodeChanged changed = (NodeChanged)change;
+                output.writeByte(NODE_CHANGED);
+                writeKey(changed.getKey());
+                writePath(changed.getPath());
+            } else if (change instanceof NodeMoved) {
+                NodeMoved moved = (NodeMoved)change;
+                output.writeByte(NODE_MOVED);
+                writeKey(moved.getKey());
+                writeKey(moved.getOldParent());
+                writeKey(moved.getNewParent());
+                writePath(moved.getNewPath());
+                writePath(moved.getOldPath());
+            } else if (change instanceof NodeRenamed) {
+                NodeRenamed renamed = (NodeRenamed)change;
+                output.writeByte(NODE_RENAMED);
+                writeKey(renamed.getKey());
+                writePath(renamed.getPath());
+                writeSegment(renamed.getOldSegment());
+            } else if (change instanceof NodeReordered) {
+                NodeReordered reordered = (NodeReordered)change;
+                output.writeByte(NODE_REORDERED);
+                writeKey(reordered.getKey());
+                writeKey(reordered.getParent());
+                writePath(reordered.getPath());
+                writePath(reordered.getOldPath());
+                writePath(reordered.getReorderedBeforePath());
+            } else if (change instanceof NodeSequenced) {
+                NodeSequenced sequenced = (NodeSequenced)change;
+                output.writeByte(NODE_SEQUENCED);
+                writeKey(sequenced.getKey());
+                writePath(sequenced.getPath());
+                writeKey(sequenced.getOutputNodeKey());
+                writePath(sequenced.getOutputNodePath());
+                writeSequencingChange(sequenced);
+            } else if (change instanceof NodeSequencingFailure) {
+                NodeSequencingFailure failure = (NodeSequencingFailure)change;
+                output.writeByte(NODE_SEQUENCING_FAILURE);
+                writeKey(failure.getKey());
+                writePath(failure.getPath());
+                writeSequencingChange(failure);
+                writeObject(failure.getCause());
+            } else if (change instanceof PropertyAdded) {
+                PropertyAdded added = (PropertyAdded)change;
+                output.writeByte(PROPERTY_ADDED);
+                writeKey(added.getKey());
+                writePath(added.getPath());
+                writeProperty(added.getProperty());
+            } else if (change instanceof PropertyRemoved) {
+                PropertyRemoved removed = (PropertyRemoved)change;
+                output.writeByte(PROPERTY_REMOVED);
+                writeKey(removed.getKey());
+                writePath(removed.getPath());
+                writeProperty(removed.getProperty());
+            } else if (change instanceof PropertyChanged) {
+                PropertyChanged changed = (PropertyChanged)change;
+                output.writeByte(PROPERTY_CHANGED);
+                writeKey(changed.getKey());
+                writePath(changed.getPath());
+                writeProperty(changed.getNewProperty());
+                writeProperty(changed.getOldProperty());
+            } else if (change instanceof BinaryValueUsed) {
+                output.writeByte(BINARY_VALUE_USED);
+                writeString(((BinaryValueUsed)change).getKey().toString());
+            } else if (change instanceof BinaryValueUnused) {
+                output.writeByte(BINARY_VALUE_UNUSED);
+                writeString(((BinaryValueUnused)change).getKey().toString());
+            } else if (change instanceof WorkspaceAdded) {
+                output.writeByte(WORKSPACE_ADDED);
+                writeString(((WorkspaceAdded)change).getWorkspaceName());
+            } else if (change instanceof WorkspaceRemoved) {
+                output.writeByte(WORKSPACE_REMOVED);
+                writeString(((WorkspaceRemoved)change).getWorkspaceName());
+            } else {
+                output.writeByte(OTHER_CHANGE);
+                writeObject(change);
+            }
+        }
+
+        protected void writeSequencingChange( AbstractSequencingChange change ) throws IOException {
+            writeString(change.getOutputPath());
+            writeString(change.getUserId());
+            writeString(change.getSelectedPath());
+            writeString(change.getSequencerName());
+        }
+
+        protected void writeProperty( Property property ) throws IOException {
+            if (property == null) {
+                writeName(null);
+                return;
+            }
+            writeName(property.getName());
+            if (property.isEmpty()) {
+                output.writeByte(EMPTY_PROPERTY);
+            } else if (property.isSingle()) {
+                output.writeByte(SINGLE_VALUE_PROPERTY);
+                writeValue(property.getFirstValue());
+            } else {
+                output.writeByte(MULTI_VALUE_PROPERTY);
+                writeVarInt(property.size());
+                for (Iterator<?> iter = property.getValues(); iter.hasNext();) {
+                    writeValue(iter.next());
+                }
+            }
+        }
+
+        protected void writeValue( Object value ) throws IOException {
+            if (value instanceof String) {
+                output.writeByte(STRING_VALUE);
+                writeString((String)value);
+            } else if (value instanceof Long) {
+                output.writeByte(LONG_VALUE);
+                output.writeLong((Long)value);
+            } else if (value instanceof Double) {
+                output.writeByte(DOUBLE_VALUE);
+                output.writeDouble((Double)value);
+            } else if (value instanceof Boolean) {
+                output.writeByte(BOOLEAN_VALUE);
+                output.writeBoolean((Boolean)value);
+            } else if (value instanceof BigDecimal) {
+                output.writeByte(DECIMAL_VALUE);
+                writeString(value.toString());
+            } else if (value instanceof JodaDateTime) {
+                output.writeByte(DATE_VALUE);
+                writeDate((DateTime)value);
+            } else if (value instanceof Name) {
+                output.writeByte(NAME_VALUE);
+                writeName((Name)value);
+            } else if (value instanceof Path) {
+                output.writeByte(PATH_VALUE);
+                writePath((Path)value);
+            } else if (value instanceof NodeKeyReference) {
+                NodeKeyReference ref = (NodeKeyReference)value;
+                output.writeByte(NODE_KEY_REFERENCE_VALUE);
+                writeKey(ref.getNodeKey());
+                output.writeBoolean(ref.isWeak());
+                output.writeBoolean(ref.isForeign());
+            } else if (value instanceof StringReference) {
+                StringReference ref = (StringReference)value;
+                output.writeByte(STRING_REFERENCE_VALUE);
+                writeString(ref.getString());
+                output.writeBoolean(ref.isWeak());
+            } else if (value instanceof URI) {
+                output.writeByte(URI_VALUE);
+                writeString(value.toString());
+            } else {
+                output.writeByte(OTHER_VALUE);
+                writeObject(value);
+            }
+        }
+
+        protected void writeDate( DateTime dateTime ) throws IOException {
+            output.writeLong(dateTime.getMilliseconds());
+            writeString(dateTime.getTimeZoneId());
+        }
+
+        protected void writeKey( NodeKey key ) throws IOException {
+            if (writeReference(keys, key)) {
+                writeString(key.toString());
+                define(keys, key);
+            }
+        }
+
+        protected void writeName( Name name ) throws IOException {
+            if (writeReference(names, name)) {
+                if (writeReference(namespaces, name.getNamespaceUri())) {
+                    writeString(name.getNamespaceUri());
+                    define(namespaces, name.getNamespaceUri());
+                }
+                writeString(name.getLocalName());
+                define(names, name);
+            }
+        }
+
+        protected void writeSegment( Segment segment ) throws IOException {
+            writeName(segment.getName());
+            writeVarInt(segment.getIndex());
+        }
+
+        protected void writePath( Path path ) throws IOException {
+            if (!writeReference(paths, path)) return;
+            if (path.isRoot()) {
+                output.writeByte(ROOT_PATH);
+            } else if (path.isIdentifier()) {
+                output.writeByte(IDENTIFIER_PATH);
+                writeName(path.getLastSegment().getName());
+            } else if (path.isAbsolute()) {
+                // Write the parent (which likely is shared with other paths) and the last segment ...
+                output.writeByte(CHILD_PATH);
+                writePath(path.getParent());
+                writeSegment(path.getLastSegment());
+            } else {
+                output.writeByte(RELATIVE_PATH);
+                writeVarInt(path.size());
+                for (Segment segment : path) {
+                    writeSegment(segment);
+                }
+            }
+            define(paths, path);
+        }
+
+        /**
+         * Write the reference to the supplied value in the dictionary.
+         * 
+         * @param dictionary the dictionary
+         * @param value the value; may be null
+         * @return true if the value is new and its definition must be written next, or false otherwise
+         * @throws IOException if there is a problem writing
+         */
+        private <T> boolean writeReference( Map<T, Integer> dictionary,
+                                            T value ) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return false;
+            }
+            Integer index = dictionary.get(value);
+            if (index != null) {
+                writeVarInt(index.intValue() + 2);
+                return false;
+            }
+            // Write the marker for a new entry; the caller adds it to the dictionary only *after* its definition is written
+            // (since the definition itself may add other entries), which is the same order in which the reader adds them ...
+            writeVarInt(1);
+            return true;
+        }
+
+        private <T> void define( Map<T, Integer> dictionary,
+                                 T value ) {
+            dictionary.put(value, dictionary.size());
+        }
+
+        private void writeString( String value ) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarInt(bytes.length + 1);
+            output.write(bytes);
+        }
+
+        private void writeObject( Object value ) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(bytes);
+            try {
+                stream.writeObject(value);
+            } finally {
+                stream.close();
+            }
+            writeVarInt(bytes.size());
+            bytes.writeTo(output);
+        }
+
+        private void writeVarInt( int value ) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                output.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.writeByte(value);
+        }
+    }
+
+    /**
+     * The reader of a single change set, which is the counterpart of the {@link Writer}.
+     */
+    protected static final class Reader {
+        private final DataInputStream input;
+        private final List<NodeKey> keys = new ArrayList<NodeKey>();
+        private final List<String> namespaces = new ArrayList<String>();
+        private final List<Name> names = new ArrayList<Name>();
+        private final List<Path> paths = new ArrayList<Path>();
+
+        protected Reader( DataInputStream input ) {
+            this.input = input;
+        }
+
+        protected ChangeSet read() throws IOException, ClassNotFoundException {
+            String processKey = readString();
+            String repositoryKey = readString();
+            String workspaceName = readString();
+            String userId = readString();
+            DateTime timestamp = input.readBoolean() ? readDate() : null;
+            int userDataSize = readVarInt();
+            Map<String, String> userData = null;
+            if (userDataSize != 0) {
+                userData = new HashMap<String, String>();
+                for (int i = 0; i != userDataSize; ++i) {
+                    userData.put(readString(), readString());
+                }
+            }
+            int changedNodesSize = readVarInt();
+            Set<NodeKey> changedNodes = Collections.emptySet();
+            if (changedNodesSize != 0) {
+                changedNodes = new HashSet<NodeKey>();
+                for (int i = 0; i != changedNodesSize; ++i) {
+                    changedNodes.add(readKey());
+                }
+            }
+            RecordingChanges changes = new RecordingChanges(processKey, repositoryKey, workspaceName);
+            while (input.readBoolean()) {
+                changes.add(readChange());
+            }
+            changes.setChangedNodes(changedNodes);
+            changes.freeze(userId, userData, timestamp);
+            return changes;
+        }
+
+        protected Change readChange() throws IOException, ClassNotFoundException {
+            byte type = input.readByte();
+            switch (type) {
+                case NODE_ADDED: {
+                    NodeKey key = readKey();
+                    NodeKey parentKey = readKey();
+                    Path path = readPath();
+                    int count = readVarInt();
+                    Map<Name, Property> properties = null;
+                    if (count != 0) {
+                        properties = new HashMap<Name, Property>();
+                        for (int i = 0; i != count; ++i) {
+                            Property property = readProperty();
+                            properties.put(property.getName(), property);
+                        }
+                    }
+                    return new NodeAdded(key, parentKey, path, properties);
+                }
+                case NODE_REMOVED:
+                    return new NodeRemoved(readKey(), readKey(), readPath());
+                case NODE_CHANGED:
+                    return new NodeChanged(readKey(), readPath());
+                case NODE_MOVED: {
+                    NodeKey key = readKey();
+                    NodeKey oldParent = readKey();
+                    NodeKey newParent = readKey();
+                    Path newPath = readPath();
+                    Path oldPath = readPath();
+                    return new NodeMoved(key, oldParent, newParent, newPath, oldPath);
+                }
+                case NODE_RENAMED:
+                    return new NodeRenamed(readKey(), readPath(), readSegment());
+                case NODE_REORDERED:
+                    return new NodeReordered(readKey(), readKey(), readPath(), readPath(), readPath());
+                case NODE_SEQUENCED: {
+                    NodeKey key = readKey();
+                    Path path = readPath();
+                    NodeKey outputNodeKey = readKey();
+                    Path outputNodePath = readPath();
+                    return new NodeSequenced(key, path, outputNodeKey, outputNodePath, readString(), readString(), readString(),
+                                             readString());
+                }
+                case NODE_SEQUENCING_FAILURE: {
+                    NodeKey key = readKey();
+                    Path path = readPath();
+                    String outputPath = readString();
+                    String userId = readString();
+                    String selectedPath = readString();
+                    String sequencerName = readString();
+                    Throwable cause = (Throwable)readObject();
+                    return new NodeSequencingFailure(key, path, outputPath, userId, selectedPath, sequencerName, cause);
+                }
+                case PROPERTY_ADDED:
+                    return new PropertyAdded(readKey(), readPath(), readProperty());
+                case PROPERTY_REMOVED:
+                    return new PropertyRemoved(readKey(), readPath(), readProperty());
+                case PROPERTY_CHANGED:
+                    return new PropertyChanged(readKey(), readPath(), readProperty(), readProperty());
+                case BINARY_VALUE_USED:
+                    return new BinaryValueUsed(new BinaryKey(readString()));
+                case BINARY_VALUE_UNUSED:
+                    return new BinaryValueUnused(new BinaryKey(readString()));
+                case WORKSPACE_ADDED:
+                    return new WorkspaceAdded(readString());
+                case WORKSPACE_REMOVED:
+                    return new WorkspaceRemoved(readString());
+                case OTHER_CHANGE:
+                    return (Change)readObject();
+            }
+            throw new IOException("Unknown type of change in serialized change set: " + type);
+        }
+
+        protected Property readProperty() throws IOException, ClassNotFoundException {
+            Name name = readName();
+            if (name == null) return null;
+            byte kind = input.readByte();
+            switch (kind) {
+                case EMPTY_PROPERTY:
+                    return new BasicEmptyProperty(name);
+                case SINGLE_VALUE_PROPERTY:
+                    return new BasicSingleValueProperty(name, readValue());
+                case MULTI_VALUE_PROPERTY:
+                    int count = readVarInt();
+                    List<Object> values = new ArrayList<Object>(count);
+                    for (int i = 0; i != count; ++i) {
+                        values.add(readValue());
+                    }
+                    return new BasicMultiValueProperty(name, values);
+            }
+            throw new IOException("Unknown kind of property in serialized change set: " + kind);
+        }
+
+        protected Object readValue() throws IOException, ClassNotFoundException {
+            byte type = input.readByte();
+            switch (type) {
+                case STRING_VALUE:
+                    return readString();
+                case LONG_VALUE:
+                    return input.readLong();
+                case DOUBLE_VALUE:
+                    return input.readDouble();
+                case BOOLEAN_VALUE:
+                    return input.readBoolean();
+                case DECIMAL_VALUE:
+                    return new BigDecimal(readString());
+                case DATE_VALUE:
+                    return readDate();
+                case NAME_VALUE:
+                    return readName();
+                case PATH_VALUE:
+                    return readPath();
+                case NODE_KEY_REFERENCE_VALUE: {
+                    NodeKey key = readKey();
+                    boolean weak = input.readBoolean();
+                    boolean foreign = input.readBoolean();
+                    return new NodeKeyReference(key, weak, foreign);
+                }
+                case STRING_REFERENCE_VALUE: {
+                    String id = readString();
+                    return new StringReference(id, input.readBoolean());
+                }
+                case URI_VALUE:
+                    return URI.create(readString());
+                case OTHER_VALUE:
+                    return readObject();
+            }
+            throw new IOException("Unknown type of value in serialized change set: " + type);
+        }
+
+        protected DateTime readDate() throws IOException {
+            long millis = input.readLong();
+            return new JodaDateTime(millis, readString());
+        }
+
+        protected NodeKey readKey() throws IOException {
+            int ref = readVarInt();
+            if (ref == 0) return null;
+            if (ref > 1) return keys.get(ref - 2);
+            NodeKey key = new NodeKey(readString());
+            keys.add(key);
+            return key;
+        }
+
+        protected Name readName() throws IOException {
+            int ref = readVarInt();
+            if (ref == 0) return null;
+            if (ref > 1) return names.get(ref - 2);
+            String namespaceUri = null;
+            int nsRef = readVarInt();
+            if (nsRef == 1) {
+                namespaceUri = readString();
+                namespaces.add(namespaceUri);
+            } else if (nsRef > 1) {
+                namespaceUri = namespaces.get(nsRef - 2);
+            }
+            Name name = new BasicName(namespaceUri, readString());
+            names.add(name);
+            return name;
+        }
+
+        protected Segment readSegment() throws IOException {
+            Name name = readName();
+            return new BasicPathSegment(name, readVarInt());
+        }
+
+        protected Path readPath() throws IOException {
+            int ref = readVarInt();
+            if (ref == 0) return null;
+            if (ref > 1) return paths.get(ref - 2);
+            Path path = null;
+            byte kind = input.readByte();
+            switch (kind) {
+                case ROOT_PATH:
+                    path = RootPath.INSTANCE;
+                    break;
+                case IDENTIFIER_PATH:
+                    path = new IdentifierPath(new IdentifierPathSegment(readName()));
+                    break;
+                case CHILD_PATH:
+                    Path parent = readPath();
+                    path = new ChildPath(parent, readSegment());
+                    break;
+                case RELATIVE_PATH:
+                    int count = readVarInt();
+                    List<Segment> segments = new ArrayList<Segment>(count);
+                    for (int i = 0; i != count; ++i) {
+                        segments.add(readSegment());
+                    }
+                    path = new BasicPath(segments, false);
+                    break;
+                default:
+                    throw new IOException("Unknown kind of path in serialized change set: " + kind);
+            }
+            paths.add(path);
+            return path;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) return null;
+            byte[] bytes = new byte[length - 1];
+            input.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        private Object readObject() throws IOException, ClassNotFoundException {
+            byte[] bytes = new byte[readVarInt()];
+            input.readFully(bytes);
+            ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return stream.readObject();
+            } finally {
+                stream.close();
+            }
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = input.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed variable-length integer in serialized change set");
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.change;
+
+/**
+ * A {@link ChangeSet} that records only which nodes in a workspace changed, without any {@link Change events} describing how
+ * they changed. Such change sets are used to purge cached information about nodes whose persisted form changed without any
+ * change to their content, or to summarize many change sets for a listener that has fallen behind.
+ * <p>
+ * Since they have no events, these change sets are sent only to the listeners that implement {@link ChangedNodes.Listener}; all
+ * other listeners (including the JCR event listeners) never see them.
+ * </p>
+ */
+public interface ChangedNodes extends ChangeSet {
+
+    /**
+     * Determine whether the paths of any nodes in the workspace might have been changed by the changes that are summarized by
+     * this change set. Listeners that cache paths should discard them when this returns true.
+     * 
+     * @return true if any paths might have changed, or false if no paths changed
+     */
+    boolean mayHaveChangedPaths();
+
+    /**
+     * An optional interface for a {@link ChangeSetListener} that only needs to know which nodes changed (e.g., to purge its
+     * cached information about those nodes), and that therefore is also sent {@link ChangedNodes} change sets.
+     */
+    public static interface Listener extends ChangeSetListener {
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.change;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+
+/**
+ * A {@link ChangedNodes} change set that signals that the persisted documents of some nodes were rewritten without changing the
+ * content, paths or children of those nodes (e.g., when the blocks of child references of a node are re-balanced). Listeners that
+ * cache those nodes must purge them, but there is nothing to observe, index or journal.
+ */
+@Immutable
+public final class InvalidatedNodes implements ChangedNodes {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String processKey;
+    private final String repositoryKey;
+    private final String workspaceName;
+    private final String userId;
+    private final DateTime timestamp;
+    private final Set<NodeKey> nodeKeys;
+
+    /**
+     * Create a new change set.
+     * 
+     * @param processKey the key of the process in which the documents were rewritten; may not be null
+     * @param repositoryKey the key of the repository; may not be null
+     * @param workspaceName the name of the workspace containing the nodes; may not be null
+     * @param userId the name of the user that rewrote the documents; may be null
+     * @param timestamp the time at which the documents were rewritten; may be null
+     * @param nodeKeys the keys of the nodes whose documents were rewritten; may not be null
+     */
+    public InvalidatedNodes( String processKey,
+                             String repositoryKey,
+                             String workspaceName,
+                             String userId,
+                             DateTime timestamp,
+                             Set<NodeKey> nodeKeys ) {
+        assert processKey != null;
+        assert repositoryKey != null;
+        assert workspaceName != null;
+        assert nodeKeys != null;
+        this.processKey = processKey;
+        this.repositoryKey = repositoryKey;
+        this.workspaceName = workspaceName;
+        this.userId = userId;
+        this.timestamp = timestamp;
+        this.nodeKeys = Collections.unmodifiableSet(new LinkedHashSet<NodeKey>(nodeKeys));
+    }
+
+    @Override
+    public boolean mayHaveChangedPaths() {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nodeKeys.isEmpty();
+    }
+
+    @Override
+    public String getUserId() {
+        return userId;
+    }
+
+    @Override
+    public Map<String, String> getUserData() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String getProcessKey() {
+        return processKey;
+    }
+
+    @Override
+    public String getRepositoryKey() {
+        return repositoryKey;
+    }
+
+    @Override
+    public String getWorkspaceName() {
+        return workspaceName;
+    }
+
+    @Override
+    public Set<NodeKey> changedNodes() {
+        return nodeKeys;
+    }
+
+    @Override
+    public Iterator<Change> iterator() {
+        return Collections.<Change>emptySet().iterator();
+    }
+
+    @Override
+    public String toString() {
+        return "Invalidated " + nodeKeys.size() + " nodes in workspace '" + workspaceName + "': " + nodeKeys;
+    }
+}
@@ -185,6 +185,16 @@ public class RecordingChanges implements Changes, ChangeSet {
         events.add(new BinaryValueUsed(key));
     }
 
+    /**
+     * Add the supplied change. This is used when reconstructing the changes that were {@link ChangeSetSerializer serialized}.
+     * 
+     * @param change the change; may not be null
+     */
+    void add( Change change ) {
+        assert change != null;
+        events.add(change);
+    }
+
     @Override
     public int size() {
         return events.size();
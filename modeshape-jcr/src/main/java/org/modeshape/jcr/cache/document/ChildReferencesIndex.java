@@ -0,0 +1,418 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.infinispan.schematic.Schematic;
+import org.infinispan.schematic.document.Binary;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.EditableArray;
+import org.infinispan.schematic.document.EditableDocument;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.document.DocumentTranslator.ChildReferencesInfo;
+import org.modeshape.jcr.value.Name;
+
+/**
+ * An index over the blocks of child references of a node whose children are segmented into multiple blocks. For each block
+ * between the first document and the last block, the index records a pair of Bloom filters: one over the names of the children
+ * in the block, and one over the keys of those children. A lookup by name or by key can then skip all of the blocks that
+ * definitely do not contain the child, rather than loading and deserializing every block in turn.
+ * <p>
+ * The first document is never indexed (it is always loaded with the node), and neither is the last block, since that is where
+ * new children are appended. This means that appending children never has to update the index. Insertions and renames within
+ * the other blocks only {@link #update(EditableDocument, ChildReferencesInfo, Map) add} the new names and keys to the filters of
+ * the changed blocks, and removals are only counted as tombstones, since a filter that still matches a removed child merely
+ * causes an unnecessary read of the block. The index is rebuilt only when the blocks themselves are split or merged, or when
+ * the additions and tombstones make the filters of a block too inaccurate.
+ * </p>
+ * <p>
+ * The index is stored in a separate document whose key is recorded in the parent's {@link DocumentTranslator#CHILDREN_INFO
+ * children info}, and it also records the keys of the next and last blocks at the time it was built. An index whose recorded
+ * keys no longer match the parent's is ignored.
+ * </p>
+ */
+@Immutable
+final class ChildReferencesIndex {
+
+    public static final String BLOCKS = "blocks";
+    public static final String NAMES = "names";
+    public static final String KEYS = "keys";
+    public static final String ADDED = "added";
+    public static final String REMOVED = "removed";
+
+    /**
+     * The minimum number of indexed blocks (that is, not counting the first document and the last block) before an index is
+     * worth creating.
+     */
+    public static final int MINIMUM_INDEXED_BLOCKS = 2;
+
+    /**
+     * The number of bits in each filter per child reference. Together with {@link #HASH_COUNT}, this gives a false-positive rate
+     * of roughly 1%.
+     */
+    protected static final int BITS_PER_CHILD = 10;
+    protected static final int HASH_COUNT = 4;
+    protected static final int MINIMUM_FILTER_BITS = 64;
+
+    /**
+     * The estimated false-positive rate of a block's filters above which the index is rebuilt rather than updated.
+     */
+    protected static final double MAX_FALSE_POSITIVE_RATE = 0.05d;
+
+    /**
+     * Create the document for the index over the supplied blocks.
+     *
+     * @param nextBlock the key of the first block after the parent's document; may not be null
+     * @param lastBlock the key of the last block; may not be null
+     * @param blocks the documents for the blocks to be indexed, keyed by block key and in the order of the blocks; may not be null
+     * @param translator the translator used to read the child references; may not be null
+     * @return the index document; never null
+     */
+    static EditableDocument create( String nextBlock,
+                                    String lastBlock,
+                                    Map<String, ? extends Document> blocks,
+                                    DocumentTranslator translator ) {
+        EditableDocument index = Schematic.newDocument();
+        index.setString(DocumentTranslator.NEXT_BLOCK, nextBlock);
+        index.setString(DocumentTranslator.LAST_BLOCK, lastBlock);
+        EditableArray entries = index.setArray(BLOCKS);
+        for (Map.Entry<String, ? extends Document> entry : blocks.entrySet()) {
+            List<?> children = entry.getValue().getArray(DocumentTranslator.CHILDREN);
+            int count = children != null ? children.size() : 0;
+            BloomFilter names = new BloomFilter(count);
+            BloomFilter keys = new BloomFilter(count);
+            if (children != null) {
+                for (Object value : children) {
+                    ChildReference ref = translator.childReferenceFrom(value);
+                    if (ref == null) continue;
+                    names.add(hashableString(ref.getName()));
+                    keys.add(ref.getKey().toString());
+                }
+            }
+            EditableDocument block = Schematic.newDocument();
+            block.setString(DocumentTranslator.KEY, entry.getKey());
+            block.setNumber(DocumentTranslator.COUNT, count);
+            block.set(NAMES, new Binary(names.bytes()));
+            block.set(KEYS, new Binary(keys.bytes()));
+            entries.add(block);
+        }
+        return index;
+    }
+
+    /**
+     * Update the supplied index document in place with the changes made to the children in some of the indexed blocks. The names
+     * and keys of inserted or renamed children are added to the filters of their blocks, and removed children are recorded only
+     * as tombstones. Because the filters are only ever added to, the updated index remains correct for readers that still see
+     * the previous content of the blocks.
+     * <p>
+     * The index is not changed if it is not consistent with the parent's blocks or if any changed block would have filters whose
+     * estimated false-positive rate exceeds {@link #MAX_FALSE_POSITIVE_RATE}, or more tombstones than children. In these cases,
+     * the index should be rebuilt instead.
+     * </p>
+     *
+     * @param index the index document; may not be null
+     * @param info the information about the parent's blocks; may not be null
+     * @param changesByBlock the changes to the children, keyed by block key; may not be null
+     * @return true if the index was updated, or false if the index should instead be rebuilt
+     */
+    static boolean update( EditableDocument index,
+                           ChildReferencesInfo info,
+                           Map<String, BlockChanges> changesByBlock ) {
+        if (!info.nextKey.equals(index.getString(DocumentTranslator.NEXT_BLOCK))) return false;
+        if (info.lastKey == null || !info.lastKey.equals(index.getString(DocumentTranslator.LAST_BLOCK))) return false;
+        List<?> entries = index.getArray(BLOCKS);
+        if (entries == null) return false;
+
+        // Compute all of the changed entries before changing the index ...
+        EditableArray newEntries = Schematic.newArray(entries.size());
+        boolean changed = false;
+        for (Object value : entries) {
+            if (!(value instanceof Document)) return false;
+            Document entry = (Document)value;
+            String key = entry.getString(DocumentTranslator.KEY);
+            BlockChanges changes = key != null ? changesByBlock.get(key) : null;
+            if (changes == null || changes.isEmpty()) {
+                newEntries.add(entry);
+                continue;
+            }
+            Binary namesBinary = entry.getBinary(NAMES);
+            Binary keysBinary = entry.getBinary(KEYS);
+            if (namesBinary == null || keysBinary == null) return false;
+            long count = changes.count();
+            long added = entry.getLong(ADDED, entry.getLong(DocumentTranslator.COUNT, 0L)) + changes.addedChildren().size();
+            long removed = entry.getLong(REMOVED, 0L) + changes.removedCount();
+            BloomFilter names = new BloomFilter(namesBinary.getBytes().clone());
+            BloomFilter keys = new BloomFilter(keysBinary.getBytes().clone());
+            if (removed > count || names.falsePositiveRate(added) > MAX_FALSE_POSITIVE_RATE) return false;
+            for (ChildReference ref : changes.addedChildren()) {
+                names.add(hashableString(ref.getName()));
+                keys.add(ref.getKey().toString());
+            }
+            EditableDocument block = Schematic.newDocument();
+            block.setString(DocumentTranslator.KEY, key);
+            block.setNumber(DocumentTranslator.COUNT, count);
+            block.setNumber(ADDED, added);
+            block.setNumber(REMOVED, removed);
+            block.set(NAMES, new Binary(names.bytes()));
+            block.set(KEYS, new Binary(keys.bytes()));
+            newEntries.add(block);
+            changed = true;
+        }
+        if (changed) index.setArray(BLOCKS, newEntries);
+        return true;
+    }
+
+    /**
+     * Read the index from the supplied document, verifying that it is consistent with the supplied information about the parent's
+     * blocks.
+     *
+     * @param document the index document; may be null
+     * @param info the information about the parent's blocks; may not be null
+     * @return the index, or null if the document is null or is not consistent with the parent's blocks
+     */
+    static ChildReferencesIndex read( Document document,
+                                      ChildReferencesInfo info ) {
+        if (document == null) return null;
+        String nextBlock = document.getString(DocumentTranslator.NEXT_BLOCK);
+        String lastBlock = document.getString(DocumentTranslator.LAST_BLOCK);
+        if (nextBlock == null || !nextBlock.equals(info.nextKey)) return null;
+        if (lastBlock == null || !lastBlock.equals(info.lastKey)) return null;
+        List<?> entries = document.getArray(BLOCKS);
+        if (entries == null) return null;
+        List<Block> blocks = new ArrayList<Block>(entries.size());
+        for (Object value : entries) {
+            if (!(value instanceof Document)) return null;
+            Document entry = (Document)value;
+            String key = entry.getString(DocumentTranslator.KEY);
+            Binary names = entry.getBinary(NAMES);
+            Binary keys = entry.getBinary(KEYS);
+            if (key == null || names == null || keys == null) return null;
+            blocks.add(new Block(key, new BloomFilter(names.getBytes()), new BloomFilter(keys.getBytes())));
+        }
+        return new ChildReferencesIndex(lastBlock, blocks);
+    }
+
+    protected static String hashableString( Name name ) {
+        return name.getNamespaceUri() + '}' + name.getLocalName();
+    }
+
+    private final String lastBlock;
+    private final List<Block> blocks;
+
+    protected ChildReferencesIndex( String lastBlock,
+                                    List<Block> blocks ) {
+        this.lastBlock = lastBlock;
+        this.blocks = Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Get the key of the last block, which is never indexed and must always be searched.
+     *
+     * @return the key of the last block; never null
+     */
+    public String lastBlock() {
+        return lastBlock;
+    }
+
+    /**
+     * Get the number of indexed blocks.
+     *
+     * @return the number of blocks in this index
+     */
+    public int size() {
+        return blocks.size();
+    }
+
+    /**
+     * Get the keys of the indexed blocks that may contain children with the supplied name, in block order. The result never
+     * includes the first document or the last block.
+     *
+     * @param name the child name; may not be null
+     * @return the keys of the blocks that may contain a child with the name; never null
+     */
+    public List<String> blocksThatMayContain( Name name ) {
+        String value = hashableString(name);
+        List<String> result = new ArrayList<String>();
+        for (Block block : blocks) {
+            if (block.names.mightContain(value)) result.add(block.key);
+        }
+        return result;
+    }
+
+    /**
+     * Get the keys of the indexed blocks that may contain the child with the supplied key, in block order. The result never
+     * includes the first document or the last block.
+     *
+     * @param key the child key; may not be null
+     * @return the keys of the blocks that may contain the child; never null
+     */
+    public List<String> blocksThatMayContain( NodeKey key ) {
+        String value = key.toString();
+        List<String> result = new ArrayList<String>();
+        for (Block block : blocks) {
+            if (block.keys.mightContain(value)) result.add(block.key);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "index over " + blocks.size() + " blocks; lastBlock: " + lastBlock;
+    }
+
+    /**
+     * The changes made to the children in one block, which are used to {@link ChildReferencesIndex#update update} the index.
+     */
+    static final class BlockChanges {
+        private final List<ChildReference> added = new ArrayList<ChildReference>();
+        private int removed;
+        private long count;
+
+        /**
+         * Record that the supplied child was inserted into the block or renamed.
+         *
+         * @param ref the new reference to the child; may not be null
+         */
+        void childAdded( ChildReference ref ) {
+            added.add(ref);
+        }
+
+        /**
+         * Record that a child was removed from the block.
+         */
+        void childRemoved() {
+            ++removed;
+        }
+
+        /**
+         * Record the number of children in the block after the changes.
+         *
+         * @param count the number of children
+         */
+        void setCount( long count ) {
+            this.count = count;
+        }
+
+        List<ChildReference> addedChildren() {
+            return added;
+        }
+
+        int removedCount() {
+            return removed;
+        }
+
+        long count() {
+            return count;
+        }
+
+        boolean isEmpty() {
+            return added.isEmpty() && removed == 0;
+        }
+    }
+
+    @Immutable
+    protected static final class Block {
+        protected final String key;
+        protected final BloomFilter names;
+        protected final BloomFilter keys;
+
+        protected Block( String key,
+                         BloomFilter names,
+                         BloomFilter keys ) {
+            this.key = key;
+            this.names = names;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * A simple Bloom filter over strings, using double hashing of the FNV-1a and {@link String#hashCode()} hashes.
+     */
+    protected static final class BloomFilter {
+        private final byte[] bits;
+        private final int numBits;
+
+        protected BloomFilter( int expectedCount ) {
+            long numBits = Math.max((long)expectedCount * BITS_PER_CHILD, MINIMUM_FILTER_BITS);
+            numBits = Math.min(numBits, Integer.MAX_VALUE - 7);
+            this.bits = new byte[(int)((numBits + 7) / 8)];
+            this.numBits = this.bits.length * 8;
+        }
+
+        protected BloomFilter( byte[] bits ) {
+            this.bits = bits;
+            this.numBits = bits.length * 8;
+        }
+
+        protected void add( String value ) {
+            if (numBits == 0) return;
+            int hash1 = fnv(value);
+            int hash2 = value.hashCode() | 1;
+            for (int i = 0; i != HASH_COUNT; ++i) {
+                int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % numBits;
+                bits[bit >>> 3] |= (byte)(1 << (bit & 7));
+            }
+        }
+
+        protected boolean mightContain( String value ) {
+            if (numBits == 0) return true;
+            int hash1 = fnv(value);
+            int hash2 = value.hashCode() | 1;
+            for (int i = 0; i != HASH_COUNT; ++i) {
+                int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % numBits;
+                if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) return false;
+            }
+            return true;
+        }
+
+        protected byte[] bytes() {
+            return bits;
+        }
+
+        /**
+         * Estimate the false-positive rate of this filter after the supplied number of values have been added.
+         *
+         * @param count the number of values added to this filter
+         * @return the estimated false-positive rate, between 0 and 1
+         */
+        protected double falsePositiveRate( long count ) {
+            if (numBits == 0) return 1.0d;
+            return Math.pow(1.0d - Math.exp(-(double)HASH_COUNT * count / numBits), HASH_COUNT);
+        }
+
+        private static int fnv( String value ) {
+            int hash = 0x811c9dc5;
+            for (int i = 0; i != value.length(); ++i) {
+                hash ^= value.charAt(i);
+                hash *= 0x01000193;
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.util.Collections;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+import org.infinispan.schematic.SchematicEntry;
+import org.infinispan.schematic.document.Document;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.InvalidatedNodes;
+import org.modeshape.jcr.txn.Transactions;
+import org.modeshape.jcr.txn.Transactions.Transaction;
+
+/**
+ * A component that optimizes the storage of the nodes in a single workspace, by splitting the blocks of child references that
+ * are too large and merging those that are too small. Each optimization is done within its own transaction, and upon success
+ * the cached node is purged from the workspace cache (and from the caches in the other processes). Since the content of the node
+ * does not change, no events are generated.
+ */
+@ThreadSafe
+public class DocumentOptimizer {
+
+    private final WorkspaceCache workspaceCache;
+    private final Transactions transactions;
+
+    /**
+     * Create an optimizer for the supplied workspace.
+     *
+     * @param workspaceCache the cache for the workspace; may not be null
+     * @param transactions the transactions used to make the changes; may not be null
+     */
+    public DocumentOptimizer( WorkspaceCache workspaceCache,
+                              Transactions transactions ) {
+        CheckArg.isNotNull(workspaceCache, "workspaceCache");
+        CheckArg.isNotNull(transactions, "transactions");
+        this.workspaceCache = workspaceCache;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Get the cache for the workspace that this optimizer works on.
+     *
+     * @return the workspace cache; never null
+     */
+    public WorkspaceCache workspaceCache() {
+        return workspaceCache;
+    }
+
+    /**
+     * Optimize the blocks of child references of the node with the supplied key, so that each block contains roughly the target
+     * number of children. Nodes that have too few children to need more than one block are left unchanged.
+     *
+     * @param key the key of the node; may not be null
+     * @param targetCountPerBlock the goal for the number of children in each block; must be greater than 1
+     * @param tolerance a tolerance that when added to and subtraced from the <code>targetCountPerBlock</code> gives an acceptable
+     *        range for the number of children; must be positive but smaller than <code>targetCountPerBlock</code>
+     * @return true if the node's blocks were changed, or false if no changes were needed (or the node no longer exists)
+     * @throws SystemFailureException if there is a problem with the transaction
+     */
+    public boolean optimizeChildrenBlocks( NodeKey key,
+                                           int targetCountPerBlock,
+                                           int tolerance ) {
+        CheckArg.isNotNull(key, "key");
+        CheckArg.isPositive(tolerance, "tolerance");
+        CheckArg.isGreaterThan(targetCountPerBlock, tolerance, "targetCountPerBlock");
+
+        // Look at the persisted document before starting a transaction, since most nodes won't need to be changed ...
+        DocumentTranslator translator = workspaceCache.translator();
+        SchematicEntry entry = workspaceCache.database().get(key.toString());
+        if (entry == null) return false;
+        Document doc = entry.getContentAsDocument();
+        if (doc == null || !translator.mayNeedChildrenOptimization(doc, targetCountPerBlock, tolerance)) return false;
+
+        boolean changed = false;
+        try {
+            Transaction txn = transactions.begin();
+            try {
+                changed = translator.optimizeChildrenBlocks(key, null, targetCountPerBlock, tolerance);
+            } catch (RuntimeException e) {
+                txn.rollback();
+                throw e;
+            }
+            txn.commit();
+        } catch (NotSupportedException err) {
+            // No nested transactions are supported ...
+            return false;
+        } catch (RollbackException err) {
+            // Couldn't be committed, but the txn is already rolled back ...
+            return false;
+        } catch (HeuristicMixedException err) {
+            throw new SystemFailureException(err);
+        } catch (HeuristicRollbackException err) {
+            // Rollback has occurred ...
+            return false;
+        } catch (SystemException err) {
+            // System failed unexpectedly ...
+            throw new SystemFailureException(err);
+        }
+
+        if (changed) {
+            // Only the node's document changed, so purge the cached node here and in the other processes ...
+            workspaceCache.changed(invalidationFor(key));
+        }
+        return changed;
+    }
+
+    protected InvalidatedNodes invalidationFor( NodeKey key ) {
+        ExecutionContext context = workspaceCache.context();
+        return new InvalidatedNodes(workspaceCache.getProcessKey(), workspaceCache.getRepositoryKey(),
+                                    workspaceCache.getWorkspaceName(), context.getSecurityContext().getUserName(),
+                                    context.getValueFactories().getDateFactory().create(), Collections.singleton(key));
+    }
+}
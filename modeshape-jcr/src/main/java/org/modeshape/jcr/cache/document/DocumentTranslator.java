@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -97,6 +98,7 @@ public class DocumentTranslator {
     public static final String BLOCK_SIZE = "blockSize";
     public static final String NEXT_BLOCK = "nextBlock";
     public static final String LAST_BLOCK = "lastBlock";
+    public static final String BLOCK_INDEX = "blockIndex";
     public static final String NAME = "name";
     public static final String KEY = "key";
     public static final String REFERRERS = "referrers";
@@ -320,6 +322,64 @@ public class DocumentTranslator {
         return fieldValue == null ? null : propertyFor(propertyName, fieldValue);
     }
 
+    /**
+     * Get the primary type of the node represented by the supplied document. This reads the name directly from the document,
+     * without creating the {@link Property} object.
+     * 
+     * @param document the node document; may not be null
+     * @return the primary type name, or null if the node has no primary type
+     */
+    public Name getPrimaryType( Document document ) {
+        Object fieldValue = fieldValue(document, JcrLexicon.PRIMARY_TYPE);
+        if (fieldValue instanceof List<?>) {
+            List<?> values = (List<?>)fieldValue;
+            fieldValue = values.isEmpty() ? null : values.get(0);
+        }
+        return nameFromDocument(fieldValue);
+    }
+
+    /**
+     * Get the mixin types of the node represented by the supplied document. This reads the names directly from the document,
+     * without creating the {@link Property} object.
+     * 
+     * @param document the node document; may not be null
+     * @return the mixin type names; never null but possibly empty
+     */
+    public Set<Name> getMixinTypes( Document document ) {
+        Object fieldValue = fieldValue(document, JcrLexicon.MIXIN_TYPES);
+        if (Null.matches(fieldValue)) return Collections.emptySet();
+        if (fieldValue instanceof List<?>) {
+            List<?> values = (List<?>)fieldValue;
+            if (values.isEmpty()) return Collections.emptySet();
+            if (values.size() == 1) return Collections.singleton(nameFromDocument(values.get(0)));
+            Set<Name> names = new HashSet<Name>();
+            for (Object value : values) {
+                names.add(nameFromDocument(value));
+            }
+            return Collections.unmodifiableSet(names);
+        }
+        return Collections.singleton(nameFromDocument(fieldValue));
+    }
+
+    private Object fieldValue( Document document,
+                               Name propertyName ) {
+        Document properties = document.getDocument(PROPERTIES);
+        if (properties == null) return null;
+        Document urlProps = properties.getDocument(propertyName.getNamespaceUri());
+        if (urlProps == null) return null;
+        return urlProps.get(propertyName.getLocalName());
+    }
+
+    private Name nameFromDocument( Object value ) {
+        if (Null.matches(value)) return null;
+        if (value instanceof Document) {
+            String nameStr = ((Document)value).getString("$name");
+            if (nameStr != null) return names.create(nameStr, decoder);
+        }
+        // Otherwise it's stored as some other kind of value, so convert it ...
+        return names.create(valueFromDocument(value));
+    }
+
     protected Property propertyFor( Name propertyName,
                                     Object fieldValue ) {
         Object value = valueFromDocument(fieldValue);
@@ -369,6 +429,26 @@ public class DocumentTranslator {
         }
     }
 
+    /**
+     * Determine whether {@link #setProperty(EditableDocument, Property, Set) setting} the supplied property would also read or
+     * change other documents in the database. This is the case for large binary and string values, which are stored separately
+     * and whose usage is counted in separate documents.
+     * 
+     * @param property the property; may not be null
+     * @return true if some of the property's values are stored outside of the node document, or false if setting the property
+     *         changes only the node document
+     */
+    public boolean hasValuesStoredSeparately( Property property ) {
+        for (Object value : property) {
+            if (value instanceof String) {
+                if (((String)value).length() >= this.largeStringSize.get()) return true;
+            } else if (value instanceof org.modeshape.jcr.value.BinaryValue && !(value instanceof InMemoryBinaryValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Property removeProperty( EditableDocument document,
                                     Name propertyName,
                                     Set<BinaryKey> unusedBinaryKeys ) {
@@ -619,15 +699,20 @@ public class DocumentTranslator {
         EditableDocument doc = document;
         EditableDocument lastDoc = document;
         String lastDocKey = null;
+        Map<String, EditableDocument> blocks = null;
+        Map<String, ChildReferencesIndex.BlockChanges> changesByBlock = null;
         if (changedChildren != null && !changedChildren.isEmpty()) {
+            blocks = new LinkedHashMap<String, EditableDocument>();
+            changesByBlock = new HashMap<String, ChildReferencesIndex.BlockChanges>();
             Map<NodeKey, Insertions> insertionsByBeforeKey = changedChildren.getInsertionsByBeforeKey();
 
             // Handle removals and renames ...
             Set<NodeKey> removals = changedChildren.getRemovals();
             Map<NodeKey, Name> newNames = changedChildren.getNewNames();
+            ChildReferencesIndex.BlockChanges blockChanges = null;
             while (doc != null) {
                 // Change the existing children ...
-                long blockCount = insertChildren(doc, insertionsByBeforeKey, removals, newNames);
+                long blockCount = insertChildren(doc, insertionsByBeforeKey, removals, newNames, blockChanges);
                 newTotalSize += blockCount;
 
                 // Look at the 'childrenInfo' document for info about the next block of children ...
@@ -646,6 +731,9 @@ public class DocumentTranslator {
                     lastDoc = doc;
                     assert docInfo != null;
                     lastDocKey = docInfo.nextKey;
+                    blocks.put(lastDocKey, doc);
+                    blockChanges = new ChildReferencesIndex.BlockChanges();
+                    changesByBlock.put(lastDocKey, blockChanges);
                 } else {
                     if (doc == document) {
                         // This is still the first document, so there shouldn't be a block size ...
@@ -696,12 +784,113 @@ public class DocumentTranslator {
                 childInfo.setString(LAST_BLOCK, lastKey);
             }
         }
+
+        if (blocks != null && (!blocks.isEmpty() || (info != null && info.indexKey != null))) {
+            // We've changed the blocks of children (other than by just appending), so the index has to be updated ...
+            updateChildrenBlockIndex(key, document, blocks, changesByBlock);
+        }
+    }
+
+    /**
+     * Update the {@link ChildReferencesIndex index} over the blocks of children belonging to the supplied node document with the
+     * changes made to the children in those blocks. The existing index is changed in place when possible, and is otherwise
+     * {@link #indexChildrenBlocks(NodeKey, EditableDocument, Map) rebuilt}.
+     * 
+     * @param key the key for the node document; may not be null
+     * @param document the node document (i.e., the first block of children); may not be null
+     * @param blocks the documents for all of the other blocks of children, keyed by the block keys and in block order; may not be
+     *        null
+     * @param changesByBlock the changes made to the children in each of the other blocks, keyed by the block keys; may not be
+     *        null
+     */
+    protected void updateChildrenBlockIndex( NodeKey key,
+                                             EditableDocument document,
+                                             Map<String, ? extends Document> blocks,
+                                             Map<String, ChildReferencesIndex.BlockChanges> changesByBlock ) {
+        ChildReferencesInfo info = getChildReferencesInfo(document);
+        if (info != null && info.indexKey != null && info.nextKey != null) {
+            SchematicEntry indexEntry = database.get(info.indexKey);
+            if (indexEntry != null
+                && ChildReferencesIndex.update(indexEntry.editDocumentContent(), info, changesByBlock)) {
+                return;
+            }
+        }
+        // There is no usable index, or it has become too inaccurate ...
+        indexChildrenBlocks(key, document, blocks);
+    }
+
+    /**
+     * Rebuild the {@link ChildReferencesIndex index} over the blocks of children belonging to the supplied node document,
+     * replacing (and removing) any existing index. An index is only created when there are enough blocks between the node
+     * document and the last block; otherwise, any existing index is simply removed.
+     * <p>
+     * Note that this method changes the underlying db as well as the given document, so *it must* be called either from a
+     * transactional context or it must be followed by a session.save call.
+     * </p>
+     * 
+     * @param key the key for the node document; may not be null
+     * @param document the node document (i.e., the first block of children); may not be null
+     * @param blocks the documents for all of the other blocks of children, keyed by the block keys and in block order; may be
+     *        null if the blocks should be read from the database
+     */
+    protected void indexChildrenBlocks( NodeKey key,
+                                        EditableDocument document,
+                                        Map<String, ? extends Document> blocks ) {
+        EditableDocument info = document.getDocument(CHILDREN_INFO);
+        if (info == null) return;
+        String oldIndexKey = info.getString(BLOCK_INDEX);
+        String nextKey = info.getString(NEXT_BLOCK);
+        String lastKey = info.getString(LAST_BLOCK, nextKey);
+
+        Map<String, Document> indexed = new LinkedHashMap<String, Document>();
+        if (blocks != null) {
+            indexed.putAll(blocks);
+        } else {
+            String blockKey = nextKey;
+            while (blockKey != null) {
+                SchematicEntry entry = database.get(blockKey);
+                if (entry == null) break;
+                Document blockDoc = entry.getContentAsDocument();
+                indexed.put(blockKey, blockDoc);
+                Document blockInfo = blockDoc.getDocument(CHILDREN_INFO);
+                blockKey = blockInfo != null ? blockInfo.getString(NEXT_BLOCK) : null;
+            }
+        }
+        // The last block is never indexed, since that's where children are appended ...
+        if (lastKey != null) indexed.remove(lastKey);
+
+        if (nextKey != null && lastKey != null && indexed.size() >= ChildReferencesIndex.MINIMUM_INDEXED_BLOCKS) {
+            // Always use a new key, so that readers with an older node document never see an index for newer blocks ...
+            String indexKey = key.withRandomId().toString();
+            database.put(indexKey, ChildReferencesIndex.create(nextKey, lastKey, indexed, this), null);
+            info.setString(BLOCK_INDEX, indexKey);
+        } else {
+            info.remove(BLOCK_INDEX);
+        }
+        if (oldIndexKey != null) {
+            database.remove(oldIndexKey);
+        }
+    }
+
+    /**
+     * Remove the {@link ChildReferencesIndex index} over the blocks of children belonging to the supplied node document, if
+     * there is one. This should be called when the node is removed.
+     * 
+     * @param document the node document; may not be null
+     */
+    public void removeChildrenBlockIndex( Document document ) {
+        Document info = document.getDocument(CHILDREN_INFO);
+        String indexKey = info != null ? info.getString(BLOCK_INDEX) : null;
+        if (indexKey != null) {
+            database.remove(indexKey);
+        }
     }
 
     protected long insertChildren( EditableDocument document,
                                    Map<NodeKey, Insertions> insertionsByBeforeKey,
                                    Set<NodeKey> removals,
-                                   Map<NodeKey, Name> newNames ) {
+                                   Map<NodeKey, Name> newNames,
+                                   ChildReferencesIndex.BlockChanges changes ) {
         List<?> children = document.getArray(CHILDREN);
         assert children != null;
         EditableArray newChildren = Schematic.newArray(children.size());
@@ -714,10 +903,12 @@ public class DocumentTranslator {
             if (insertions != null) {
                 for (ChildReference inserted : insertions.inserted()) {
                     newChildren.add(fromChildReference(inserted));
+                    if (changes != null) changes.childAdded(inserted);
                 }
             }
             if (removals.remove(childKey)) {
                 // The node is removed ...
+                if (changes != null) changes.childRemoved();
             } else {
                 // The node remains ...
                 Name newName = newNames.get(childKey);
@@ -725,11 +916,13 @@ public class DocumentTranslator {
                     // But has been renamed ...
                     ChildReference newRef = ref.with(newName, 1);
                     value = fromChildReference(newRef);
+                    if (changes != null) changes.childAdded(newRef);
                 }
                 newChildren.add(value);
             }
         }
         document.set(CHILDREN, newChildren);
+        if (changes != null) changes.setCount(newChildren.size());
         return newChildren.size();
     }
 
@@ -737,14 +930,7 @@ public class DocumentTranslator {
                                                Document document ) {
         List<?> children = document.getArray(CHILDREN);
         if (children == null) return ImmutableChildReferences.EMPTY_CHILD_REFERENCES;
-
-        // Materialize the ChildReference objects in the 'children' document ...
-        List<ChildReference> refs = new ArrayList<ChildReference>(children.size());
-        for (Object value : children) {
-            ChildReference ref = childReferenceFrom(value);
-            if (ref != null) refs.add(ref);
-        }
-        ChildReferences result = ImmutableChildReferences.create(refs);
+        ChildReferences result = getChildReferencesInBlock(document);
 
         // Now look at the 'childrenInfo' document for info about the next block of children ...
         ChildReferencesInfo info = getChildReferencesInfo(document);
@@ -755,6 +941,26 @@ public class DocumentTranslator {
         return result;
     }
 
+    /**
+     * Get the child references that are stored in the supplied document, ignoring any other blocks of children that the document
+     * may reference.
+     * 
+     * @param document the node document or block document; may not be null
+     * @return the child references in the document; never null
+     */
+    public ChildReferences getChildReferencesInBlock( Document document ) {
+        List<?> children = document.getArray(CHILDREN);
+        if (children == null) return ImmutableChildReferences.EMPTY_CHILD_REFERENCES;
+
+        // Materialize the ChildReference objects in the 'children' document ...
+        List<ChildReference> refs = new ArrayList<ChildReference>(children.size());
+        for (Object value : children) {
+            ChildReference ref = childReferenceFrom(value);
+            if (ref != null) refs.add(ref);
+        }
+        return ImmutableChildReferences.create(refs);
+    }
+
     public ChildReferencesInfo getChildReferencesInfo( Document document ) {
         // Now look at the 'childrenInfo' document for info about the next block ...
         Document childrenInfo = document.getDocument(CHILDREN_INFO);
@@ -763,7 +969,8 @@ public class DocumentTranslator {
             long blockSize = childrenInfo.getLong(BLOCK_SIZE, 0L);
             String nextBlockKey = childrenInfo.getString(NEXT_BLOCK);
             String lastBlockKey = childrenInfo.getString(LAST_BLOCK, nextBlockKey);
-            return new ChildReferencesInfo(totalSize, blockSize, nextBlockKey, lastBlockKey);
+            String indexKey = childrenInfo.getString(BLOCK_INDEX);
+            return new ChildReferencesInfo(totalSize, blockSize, nextBlockKey, lastBlockKey, indexKey);
         }
         return null;
     }
@@ -774,15 +981,25 @@ public class DocumentTranslator {
         public final long blockSize;
         public final String nextKey;
         public final String lastKey;
+        public final String indexKey;
 
         public ChildReferencesInfo( long totalSize,
                                     long blockSize,
                                     String nextKey,
                                     String lastKey ) {
+            this(totalSize, blockSize, nextKey, lastKey, null);
+        }
+
+        public ChildReferencesInfo( long totalSize,
+                                    long blockSize,
+                                    String nextKey,
+                                    String lastKey,
+                                    String indexKey ) {
             this.totalSize = totalSize;
             this.blockSize = blockSize;
             this.nextKey = nextKey;
             this.lastKey = lastKey;
+            this.indexKey = indexKey;
         }
 
         /**
@@ -792,7 +1009,8 @@ public class DocumentTranslator {
          */
         @Override
         public String toString() {
-            return "totalSize: " + totalSize + "; blockSize: " + blockSize + "; nextKey: " + nextKey + "; lastKey: " + lastKey;
+            return "totalSize: " + totalSize + "; blockSize: " + blockSize + "; nextKey: " + nextKey + "; lastKey: " + lastKey
+                   + "; indexKey: " + indexKey;
         }
     }
 
@@ -1217,31 +1435,56 @@ public class DocumentTranslator {
     }
 
     /**
+     * Determine whether the blocks of children in the supplied node document may need to be
+     * {@link #optimizeChildrenBlocks(NodeKey, EditableDocument, int, int) optimized}. This is a quick check that looks only at the
+     * node document: a node whose children are all stored in the node document needs optimization only when there are too many
+     * children, whereas a node whose children are stored in multiple blocks always may.
+     * 
+     * @param document the node document; may not be null
+     * @param targetCountPerBlock the goal for the number of children in each block
+     * @param tolerance the tolerance for the number of children in each block
+     * @return true if the blocks may need to be optimized, or false if they definitely do not
+     */
+    public boolean mayNeedChildrenOptimization( Document document,
+                                                int targetCountPerBlock,
+                                                int tolerance ) {
+        List<?> children = document.getArray(CHILDREN);
+        if (children == null) return false;
+        Document info = document.getDocument(CHILDREN_INFO);
+        if (info != null && info.containsField(NEXT_BLOCK)) return true;
+        return children.size() >= targetCountPerBlock + tolerance;
+    }
+
+    /**
+     * Optimize the blocks of children of the node with the supplied key, splitting the blocks that are too large and merging the
+     * blocks that are too small.
      * <p>
      * Note that this method changes the underlying db as well as the given document, so *it must* be called either from a
      * transactional context or it must be followed by a session.save call, otherwise there might be inconsistencies between what
      * a session sees as "persisted" state and the reality.
      * </p>
      *
-     * @param key
-     * @param document
-     * @param targetCountPerBlock
-     * @param tolerance
+     * @param key the key for the node document; may not be null
+     * @param document the node document; may be null if the document should be read from the database
+     * @param targetCountPerBlock the goal for the number of children in each block; must be positive
+     * @param tolerance a tolerance that when added to and subtraced from the <code>targetCountPerBlock</code> gives an acceptable
+     *        range for the number of children; must be positive but smaller than <code>targetCountPerBlock</code>
+     * @return true if any blocks were split or merged, or false if no changes were made
      */
-    protected void optimizeChildrenBlocks( NodeKey key,
-                                        EditableDocument document,
-                                        int targetCountPerBlock,
-                                        int tolerance ) {
+    public boolean optimizeChildrenBlocks( NodeKey key,
+                                           EditableDocument document,
+                                           int targetCountPerBlock,
+                                           int tolerance ) {
         if (document == null) {
             SchematicEntry entry = database.get(key.toString());
-            if (entry == null) return;
+            if (entry == null) return false;
             document = entry.editDocumentContent();
-            if (document == null) return;
+            if (document == null) return false;
         }
         EditableArray children = document.getArray(CHILDREN);
         if (children == null) {
             // There are no children to optimize
-            return;
+            return false;
         }
 
         // Get the children info
@@ -1256,14 +1499,17 @@ public class DocumentTranslator {
             int total = children.size();
             if (total < targetCountPerBlock + tolerance) {
                 // The number of children is small enough ...
-                return;
+                return false;
             }
             // Otherwise, there are more children than our target + tolerance, so we need to split the children ...
-            splitChildren(key, document, children, targetCountPerBlock, tolerance, true, null);
+            if (!splitChildren(key, document, children, targetCountPerBlock, tolerance, true, null)) return false;
+            indexChildrenBlocks(key, document, null);
+            return true;
         } else {
             assert info != null;
             // This is not self-contained; there are already at least two blocks.
             // Go through each block, and either split it, merge it with the previous block, or leave it.
+            boolean changed = false;
             EditableDocument doc = document;
             NodeKey docKey = key;
             while (doc != null) {
@@ -1274,13 +1520,20 @@ public class DocumentTranslator {
                 boolean isFirst = doc == document;
                 if (count > (targetCountPerBlock + tolerance)) {
                     // This block is too big, so we should split it into multiple blocks...
-                    splitChildren(docKey, doc, children, targetCountPerBlock, tolerance, isFirst, nextKey);
+                    if (splitChildren(docKey, doc, children, targetCountPerBlock, tolerance, isFirst, nextKey)) {
+                        changed = true;
+                        if (nextKey == null && !isFirst) {
+                            // We split the last block, so we need to change the pointer in 'document' to the new last block ...
+                            info.setString(LAST_BLOCK, lastBlockAfter(doc));
+                        }
+                    }
                 } else if (count < (targetCountPerBlock - tolerance) && nextKey != null) {
                     // This block is too small, so always combine it with the next block, if there is one
                     // (even if that makes the next block too big, since it will be split in a later pass).
                     // Note that since we're only splitting if there is a next block, a last block that
                     // is too small will be left untouched. At this time, we think this is okay.
                     nextKey = mergeChildren(docKey, doc, children, isFirst, nextKey);
+                    changed = true;
 
                     if (nextKey == null) {
                         // We merged the last block into this document, so we need to change the pointer in 'document'
@@ -1299,6 +1552,29 @@ public class DocumentTranslator {
                     doc = null;
                 }
             }
+
+            if (changed) {
+                // The blocks were split or merged, so rebuild the index over the blocks ...
+                indexChildrenBlocks(key, document, null);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Find the key of the last block of children by following the block references starting at the supplied block.
+     * 
+     * @param block the document for a block that has a next block; may not be null
+     * @return the key of the last block; never null
+     */
+    private String lastBlockAfter( Document block ) {
+        String lastKey = block.getDocument(CHILDREN_INFO).getString(NEXT_BLOCK);
+        assert lastKey != null;
+        while (true) {
+            Document info = database.get(lastKey).getContentAsDocument().getDocument(CHILDREN_INFO);
+            String nextKey = info != null ? info.getString(NEXT_BLOCK) : null;
+            if (nextKey == null) return lastKey;
+            lastKey = nextKey;
         }
     }
 
@@ -29,6 +29,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.infinispan.schematic.document.Document;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.collection.EmptyIterator;
@@ -359,18 +361,29 @@ public class ImmutableChildReferences {
         }
     }
 
+    /**
+     * The child references for a node whose children are segmented into multiple blocks. The blocks are normally loaded lazily
+     * and in order, but when the node has a {@link ChildReferencesIndex index} over its blocks, the lookups of a single child (by
+     * name or by key) and the counts of children with a given name load only the first and last blocks plus those other blocks
+     * that may contain the child.
+     */
     @Immutable
     public static class Segmented extends AbstractChildReferences {
 
         protected final WorkspaceCache cache;
         protected final long totalSize;
+        private final ChildReferencesInfo info;
         private Segment firstSegment;
+        private volatile ChildReferencesIndex index;
+        private volatile boolean indexRead;
+        private final ConcurrentMap<String, Segment> segmentsByKey = new ConcurrentHashMap<String, Segment>();
 
         public Segmented( WorkspaceCache cache,
                           ChildReferences firstSegment,
                           ChildReferencesInfo info ) {
             this.cache = cache;
             this.totalSize = info.totalSize;
+            this.info = info;
             this.firstSegment = new Segment(firstSegment, info.nextKey);
         }
 
@@ -379,13 +392,91 @@ public class ImmutableChildReferences {
             return totalSize;
         }
 
+        /**
+         * Get the index over the blocks of children, reading it the first time it is needed.
+         * 
+         * @return the index, or null if there is no index or the index is not consistent with this node's blocks
+         */
+        protected ChildReferencesIndex index() {
+            if (!indexRead) {
+                if (info.indexKey != null) {
+                    index = ChildReferencesIndex.read(cache.documentFor(info.indexKey), info);
+                }
+                indexRead = true;
+            }
+            return index;
+        }
+
+        protected Segment segment( String blockKey ) {
+            Segment segment = segmentsByKey.get(blockKey);
+            if (segment == null) {
+                segment = Segment.load(cache, blockKey);
+                Segment existing = segmentsByKey.putIfAbsent(blockKey, segment);
+                if (existing != null) segment = existing;
+            }
+            return segment;
+        }
+
+        /**
+         * Get the segments that may contain children with the supplied name, in block order.
+         * 
+         * @param name the child name; may not be null
+         * @return the iterator over the segments; never null
+         */
+        protected Iterator<Segment> segmentsThatMayContain( Name name ) {
+            ChildReferencesIndex index = index();
+            if (index == null) return segments();
+            return new IndexedSegments(index.blocksThatMayContain(name), index.lastBlock());
+        }
+
+        /**
+         * Get the segments that may contain the child with the supplied key, in block order.
+         * 
+         * @param key the child key; may not be null
+         * @return the iterator over the segments; never null
+         */
+        protected Iterator<Segment> segmentsThatMayContain( NodeKey key ) {
+            ChildReferencesIndex index = index();
+            if (index == null) return segments();
+            return new IndexedSegments(index.blocksThatMayContain(key), index.lastBlock());
+        }
+
+        /**
+         * Get all of the segments, in block order.
+         * 
+         * @return the iterator over the segments; never null
+         */
+        protected Iterator<Segment> segments() {
+            final Segment firstSegment = this.firstSegment;
+            return new Iterator<Segment>() {
+                private Segment next = firstSegment;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Segment next() {
+                    if (next == null) throw new NoSuchElementException();
+                    Segment result = next;
+                    next = result.next(cache);
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
         @Override
         public int getChildCount( Name name ) {
             int result = 0;
-            Segment segment = this.firstSegment;
-            while (segment != null) {
-                result += segment.getReferences().getChildCount(name);
-                segment = segment.next(cache);
+            Iterator<Segment> segments = segmentsThatMayContain(name);
+            while (segments.hasNext()) {
+                result += segments.next().getReferences().getChildCount(name);
             }
             return result;
         }
@@ -394,22 +485,21 @@ public class ImmutableChildReferences {
         public ChildReference getChild( Name name,
                                         int snsIndex,
                                         Context context ) {
-            ChildReference result = null;
-            Segment segment = this.firstSegment;
-            while (segment != null) {
-                result = segment.getReferences().getChild(name, snsIndex, context);
-                if (result != null) break;
-                segment = segment.next(cache);
+            // Any changes (e.g., insertions and renames) may involve children in any block, so we have to look at all of them ...
+            boolean hasChanges = context != null && context.changes() != null;
+            Iterator<Segment> segments = hasChanges ? segments() : segmentsThatMayContain(name);
+            while (segments.hasNext()) {
+                ChildReference result = segments.next().getReferences().getChild(name, snsIndex, context);
+                if (result != null) return result;
             }
-            return result;
+            return null;
         }
 
         @Override
         public boolean hasChild( NodeKey key ) {
-            Segment segment = this.firstSegment;
-            while (segment != null) {
-                if (segment.getReferences().hasChild(key)) return true;
-                segment = segment.next(cache);
+            Iterator<Segment> segments = segmentsThatMayContain(key);
+            while (segments.hasNext()) {
+                if (segments.next().getReferences().hasChild(key)) return true;
             }
             return false;
         }
@@ -422,14 +512,13 @@ public class ImmutableChildReferences {
         @Override
         public ChildReference getChild( NodeKey key,
                                         Context context ) {
-            ChildReference result = null;
-            Segment segment = this.firstSegment;
-            while (segment != null) {
-                result = segment.getReferences().getChild(key, context);
-                if (result != null) break;
-                segment = segment.next(cache);
+            boolean hasChanges = context != null && context.changes() != null;
+            Iterator<Segment> segments = hasChanges ? segments() : segmentsThatMayContain(key);
+            while (segments.hasNext()) {
+                ChildReference result = segments.next().getReferences().getChild(key, context);
+                if (result != null) return result;
             }
-            return result;
+            return null;
         }
 
         @Override
@@ -598,6 +687,48 @@ public class ImmutableChildReferences {
             }
             return sb;
         }
+
+        /**
+         * An iterator over the first segment, the segments for the supplied blocks, and the segment for the last block.
+         */
+        protected final class IndexedSegments implements Iterator<Segment> {
+            private final Iterator<String> blockKeys;
+            private String lastBlockKey;
+            private Segment next;
+
+            protected IndexedSegments( List<String> blockKeys,
+                                       String lastBlockKey ) {
+                this.blockKeys = blockKeys.iterator();
+                this.lastBlockKey = lastBlockKey;
+                this.next = firstSegment;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null || blockKeys.hasNext() || lastBlockKey != null;
+            }
+
+            @Override
+            public Segment next() {
+                if (next != null) {
+                    Segment result = next;
+                    next = null;
+                    return result;
+                }
+                if (blockKeys.hasNext()) return segment(blockKeys.next());
+                if (lastBlockKey != null) {
+                    String key = lastBlockKey;
+                    lastBlockKey = null;
+                    return segment(key);
+                }
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
     }
 
     protected static class Segment {
@@ -622,17 +753,30 @@ public class ImmutableChildReferences {
 
         public Segment next( WorkspaceCache cache ) {
             if (next == null && nextKey != null) {
-                Document doc = cache.documentFor(nextKey);
-                if (doc == null) {
-                    throw new DocumentNotFoundException(nextKey);
-                }
-                ChildReferences refs = cache.translator().getChildReferences(cache, doc);
-                ChildReferencesInfo nextNextKey = cache.translator().getChildReferencesInfo(doc);
-                next = new Segment(refs, nextNextKey != null ? nextNextKey.nextKey : null);
+                next = load(cache, nextKey);
             }
             return next;
         }
 
+        /**
+         * Load the segment for the block with the supplied key. The resulting segment contains only the children in that block.
+         * 
+         * @param cache the workspace cache; may not be null
+         * @param blockKey the key of the block document; may not be null
+         * @return the segment; never null
+         * @throws DocumentNotFoundException if there is no such block
+         */
+        public static Segment load( WorkspaceCache cache,
+                                    String blockKey ) {
+            Document doc = cache.documentFor(blockKey);
+            if (doc == null) {
+                throw new DocumentNotFoundException(blockKey);
+            }
+            ChildReferences refs = cache.translator().getChildReferencesInBlock(doc);
+            ChildReferencesInfo nextNextKey = cache.translator().getChildReferencesInfo(doc);
+            return new Segment(refs, nextNextKey != null ? nextNextKey.nextKey : null);
+        }
+
         public Iterator<NodeKey> keys() {
             return references.getAllKeys();
         }
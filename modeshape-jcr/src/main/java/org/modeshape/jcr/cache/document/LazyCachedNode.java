@@ -25,14 +25,12 @@ package org.modeshape.jcr.cache.document;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import org.infinispan.schematic.document.Document;
 import org.modeshape.common.annotation.Immutable;
-import org.modeshape.jcr.JcrLexicon;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.ChildReference;
 import org.modeshape.jcr.cache.ChildReferences;
@@ -42,7 +40,6 @@ import org.modeshape.jcr.cache.NodeNotFoundException;
 import org.modeshape.jcr.cache.NodeNotFoundInParentException;
 import org.modeshape.jcr.cache.PathCache;
 import org.modeshape.jcr.value.Name;
-import org.modeshape.jcr.value.NameFactory;
 import org.modeshape.jcr.value.NamespaceRegistry;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.Path.Segment;
@@ -64,6 +61,8 @@ public class LazyCachedNode implements CachedNode {
     private ChildReference parentReferenceToSelf;
     private boolean propertiesFullyLoaded = false;
     private ChildReferences childReferences;
+    private Name primaryType;
+    private Set<Name> mixinTypes;
 
     public LazyCachedNode( NodeKey key ) {
         this.key = key;
@@ -97,6 +96,15 @@ public class LazyCachedNode implements CachedNode {
         return document;
     }
 
+    /**
+     * Get the {@link Document} that represents this node, but only if it has already been read.
+     * 
+     * @return the document, or null if the document has not yet been read
+     */
+    final Document documentIfLoaded() {
+        return document;
+    }
+
     @Override
     public NodeKey getParentKey( NodeCache cache ) {
         if (parent == null) {
@@ -184,7 +192,8 @@ public class LazyCachedNode implements CachedNode {
 
     protected Map<Name, Property> properties() {
         if (properties == null) {
-            properties = new ConcurrentHashMap<Name, Property>();
+            // Most nodes are read by few threads, so a single segment is sufficient and is much smaller ...
+            properties = new ConcurrentHashMap<Name, Property>(8, 0.75f, 1);
         }
         return properties;
     }
@@ -221,10 +230,16 @@ public class LazyCachedNode implements CachedNode {
     @Override
     public Path getPath( NodeCache cache ) {
         WorkspaceCache wsCache = workspaceCache(cache);
+        WorkspacePathCache paths = wsCache.pathCache();
+        Path path = paths.get(key);
+        if (path != null) return path;
+        long generation = paths.generation();
         CachedNode parent = parent(wsCache);
         if (parent != null) {
             Path parentPath = parent.getPath(wsCache);
-            return wsCache.pathFactory().create(parentPath, getSegment(wsCache));
+            path = wsCache.pathFactory().create(parentPath, getSegment(wsCache));
+            paths.put(key, path, generation);
+            return path;
         }
         // check that the node hasn't been removed in the meantime
         if (wsCache.getNode(key) == null) {
@@ -238,10 +253,16 @@ public class LazyCachedNode implements CachedNode {
     public Path getPath( PathCache pathCache ) throws NodeNotFoundException {
         NodeCache cache = pathCache.getCache();
         WorkspaceCache wsCache = workspaceCache(cache);
+        WorkspacePathCache paths = wsCache.pathCache();
+        Path path = paths.get(key);
+        if (path != null) return path;
+        long generation = paths.generation();
         CachedNode parent = parent(wsCache);
         if (parent != null) {
             Path parentPath = pathCache.getPath(parent);
-            return wsCache.pathFactory().create(parentPath, getSegment(wsCache));
+            path = wsCache.pathFactory().create(parentPath, getSegment(wsCache));
+            paths.put(key, path, generation);
+            return path;
         }
         // check that the node hasn't been removed in the meantime
         if (wsCache.getNode(key) == null) {
@@ -253,27 +274,20 @@ public class LazyCachedNode implements CachedNode {
 
     @Override
     public Name getPrimaryType( NodeCache cache ) {
-        Property prop = getProperty(JcrLexicon.PRIMARY_TYPE, cache);
-        WorkspaceCache wsCache = workspaceCache(cache);
-        return wsCache.nameFactory().create(prop.getFirstValue());
+        if (primaryType == null) {
+            WorkspaceCache wsCache = workspaceCache(cache);
+            primaryType = wsCache.translator().getPrimaryType(document(wsCache));
+        }
+        return primaryType;
     }
 
     @Override
     public Set<Name> getMixinTypes( NodeCache cache ) {
-        Property prop = getProperty(JcrLexicon.MIXIN_TYPES, cache);
-        if (prop == null || prop.size() == 0) return Collections.emptySet();
-
-        final NameFactory nameFactory = workspaceCache(cache).nameFactory();
-        if (prop.size() == 1) {
-            Name name = nameFactory.create(prop.getFirstValue());
-            return Collections.singleton(name);
-        }
-        Set<Name> names = new HashSet<Name>();
-        for (Object value : prop) {
-            Name name = nameFactory.create(value);
-            names.add(name);
+        if (mixinTypes == null) {
+            WorkspaceCache wsCache = workspaceCache(cache);
+            mixinTypes = wsCache.translator().getMixinTypes(document(wsCache));
         }
-        return names;
+        return mixinTypes;
     }
 
     @Override
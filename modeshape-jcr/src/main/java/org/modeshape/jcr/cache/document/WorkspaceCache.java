@@ -24,11 +24,13 @@
 package org.modeshape.jcr.cache.document;
 
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.List;
 import org.infinispan.schematic.SchematicDb;
 import org.infinispan.schematic.SchematicEntry;
+import org.infinispan.schematic.document.Binary;
 import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.Document.Field;
+import org.modeshape.common.collection.ConcurrentLruCache;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.cache.CachedNode;
@@ -38,6 +40,7 @@ import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.WorkspaceNotFoundException;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangedNodes;
 import org.modeshape.jcr.value.NameFactory;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.PathFactory;
@@ -45,13 +48,19 @@ import org.modeshape.jcr.value.PathFactory;
 /**
  * A {@link NodeCache} implementation that uses Infinispan's {@link SchematicDb} for storage, with each node represented as a
  * single {@link Document}. The nodes in this cache represent the actual, unmodified values.
+ * <p>
+ * The nodes that have been read are kept in memory in a {@link ConcurrentLruCache cache} that can be bounded by the number of
+ * nodes and/or by the estimated size of the nodes, so that the least-recently used nodes are evicted (and will be re-read from the
+ * database if needed again).
+ * </p>
  */
 public class WorkspaceCache implements DocumentCache, ChangeSetListener {
 
     private final DocumentTranslator translator;
     private final ExecutionContext context;
     private final SchematicDb database;
-    private final ConcurrentMap<NodeKey, CachedNode> nodesByKey = new ConcurrentHashMap<NodeKey, CachedNode>();
+    private final ConcurrentLruCache<NodeKey, CachedNode> nodesByKey;
+    private final WorkspacePathCache pathsByKey;
     private final NodeKey rootKey;
     private final ChildReference childReferenceForRoot;
     private final String repositoryKey;
@@ -70,6 +79,32 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
                            long largeValueSize,
                            NodeKey rootKey,
                            ChangeSetListener changeSetListener ) {
+        this(context, repositoryKey, workspaceName, database, largeValueSize, rootKey, changeSetListener, 0L, 0L);
+    }
+
+    /**
+     * Create a workspace cache that keeps a bounded number of nodes in memory.
+     * 
+     * @param context the execution context; may not be null
+     * @param repositoryKey the key of the repository; may not be null
+     * @param workspaceName the name of the workspace; may not be null
+     * @param database the database that contains the node documents; may not be null
+     * @param largeValueSize the size threshold for storing values in the binary store
+     * @param rootKey the key of the workspace's root node; may not be null
+     * @param changeSetListener the listener that should be notified of changes; may be null
+     * @param maxNodes the maximum number of nodes kept in memory, or zero or a negative value if not bounded
+     * @param maxSizeInBytes the maximum estimated size of the nodes kept in memory, or zero or a negative value if not bounded
+     */
+    public WorkspaceCache( ExecutionContext context,
+                           String repositoryKey,
+                           String workspaceName,
+                           SchematicDb database,
+                           long largeValueSize,
+                           NodeKey rootKey,
+                           ChangeSetListener changeSetListener,
+                           long maxNodes,
+                           long maxSizeInBytes ) {
+        this.nodesByKey = new ConcurrentLruCache<NodeKey, CachedNode>(maxNodes, maxSizeInBytes, new NodeWeigher());
         this.context = context;
         this.database = database;
         this.changeSetListener = changeSetListener;
@@ -82,6 +117,7 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
         this.sourceKey = rootKey.getSourceKey();
         this.pathFactory = context.getValueFactories().getPathFactory();
         this.nameFactory = context.getValueFactories().getNameFactory();
+        this.pathsByKey = new WorkspacePathCache(pathFactory, maxNodes > 0L ? maxNodes : WorkspacePathCache.DEFAULT_MAX_PATHS);
     }
 
     public void setMinimumBinarySizeInBytes( long largeValueSize ) {
@@ -185,6 +221,25 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
         return getNode(reference.getKey());
     }
 
+    /**
+     * Get the component that holds the nodes of this workspace that are kept in memory, which can be used to obtain the size
+     * and the hit, miss and eviction counts.
+     * 
+     * @return the node cache; never null
+     */
+    public final ConcurrentLruCache<NodeKey, CachedNode> nodeCache() {
+        return nodesByKey;
+    }
+
+    /**
+     * Get the cache of the persisted paths of the nodes in this workspace.
+     * 
+     * @return the path cache; never null
+     */
+    public final WorkspacePathCache pathCache() {
+        return pathsByKey;
+    }
+
     @Override
     public Iterator<NodeKey> getAllNodeKeys() {
         return getAllNodeKeysAtAndBelow(getRootKey());
@@ -198,15 +253,17 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
     @Override
     public void clear() {
         nodesByKey.clear();
+        pathsByKey.clear();
     }
 
     @Override
     public void notify( ChangeSet changeSet ) {
         if (!closed) {
-            // Clear this workspace's cached nodes (iteratively is okay since it's a ConcurrentMap) ...
+            // Clear this workspace's cached nodes (each removal locks only the segment holding that node) ...
             for (NodeKey key : changeSet.changedNodes()) {
                 nodesByKey.remove(key);
             }
+            invalidatePaths(changeSet);
         }
     }
 
@@ -218,15 +275,25 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
      */
     public void changed( ChangeSet changes ) {
         checkNotClosed();
-        // Clear this workspace's cached nodes (iteratively is okay since it's a ConcurrentMap) ...
+        // Clear this workspace's cached nodes (each removal locks only the segment holding that node) ...
         for (NodeKey key : changes.changedNodes()) {
             nodesByKey.remove(key);
         }
+        invalidatePaths(changes);
 
         // Notify the listener ...
         if (changeSetListener != null) changeSetListener.notify(changes);
     }
 
+    private void invalidatePaths( ChangeSet changes ) {
+        if (changes instanceof ChangedNodes) {
+            // There are no events describing how the paths changed ...
+            if (((ChangedNodes)changes).mayHaveChangedPaths()) pathsByKey.clear();
+        } else {
+            pathsByKey.invalidate(changes);
+        }
+    }
+
     protected final void checkNotClosed() {
         if (closed) {
             throw new WorkspaceNotFoundException(JcrI18n.workspaceHasBeenDeleted.text(getWorkspaceName()));
@@ -242,4 +309,49 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
     public String toString() {
         return workspaceName;
     }
+
+    /**
+     * Estimates the size of a cached node from the top-level fields of its document, using rough per-object overheads of the
+     * JVM. The estimate only needs to be proportional to the actual memory used, and is computed only when the cache is bounded by
+     * size. Because it is computed whenever a node is added to the cache, it never reads a document that has not already been
+     * loaded and does not walk nested documents; nested documents and list items (e.g., child references) are instead counted
+     * with a fixed estimate.
+     */
+    protected static final class NodeWeigher implements ConcurrentLruCache.Weigher<NodeKey, CachedNode> {
+        private static final long NODE_OVERHEAD = 256L;
+        private static final long FIELD_OVERHEAD = 48L;
+        private static final long VALUE_OVERHEAD = 16L;
+        private static final long NESTED_VALUE_ESTIMATE = 128L;
+
+        @Override
+        public long weigh( NodeKey key,
+                           CachedNode node ) {
+            long size = NODE_OVERHEAD + sizeOf(key.toString());
+            if (node instanceof LazyCachedNode) {
+                Document document = ((LazyCachedNode)node).documentIfLoaded();
+                if (document != null) size += sizeOf(document);
+            }
+            return size;
+        }
+
+        private long sizeOf( Document document ) {
+            long size = VALUE_OVERHEAD;
+            for (Field field : document.fields()) {
+                size += FIELD_OVERHEAD + sizeOf(field.getName()) + sizeOfValue(field.getValue());
+            }
+            return size;
+        }
+
+        private long sizeOfValue( Object value ) {
+            if (value instanceof Document) return VALUE_OVERHEAD + ((Document)value).size() * NESTED_VALUE_ESTIMATE;
+            if (value instanceof List) return VALUE_OVERHEAD + ((List<?>)value).size() * NESTED_VALUE_ESTIMATE;
+            if (value instanceof String) return sizeOf((String)value);
+            if (value instanceof Binary) return VALUE_OVERHEAD + ((Binary)value).length();
+            return VALUE_OVERHEAD;
+        }
+
+        private long sizeOf( String value ) {
+            return 40L + 2L * value.length();
+        }
+    }
 }
@@ -0,0 +1,303 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.collection.ConcurrentLruCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Path.Segment;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * A bounded cache of the persisted paths of the nodes in a single workspace, shared by all of the sessions and queries that use
+ * the workspace's {@link WorkspaceCache}.
+ * <p>
+ * The path of a node changes only when the node or one of its ancestors is moved, renamed or removed, or when the
+ * same-name-sibling index of the node or one of its ancestors changes because a sibling with the same name was removed, moved or
+ * reordered. Therefore, rather than clearing all paths upon every change, this cache {@link #invalidate(ChangeSet) removes} only
+ * those paths that might be affected by the {@link NodeMoved}, {@link NodeRenamed}, {@link NodeReordered} and
+ * {@link NodeRemoved} changes.
+ * </p>
+ * <p>
+ * Invalidating does not scan the cached paths. Instead, each invalidation is recorded with a new {@link #generation()
+ * generation}, and each cached path remembers the generation against which it was last checked. When a path is
+ * {@link #get(NodeKey) read}, it is checked only against the invalidations recorded since then, and is removed if any of them
+ * affect it. Only the most recent invalidations are kept, so a path that has not been read for a long time is simply discarded.
+ * </p>
+ * <p>
+ * Paths are computed outside of this cache, so a path computed from nodes that were read before a change might be added after
+ * that change has been processed. To prevent such stale paths from remaining in the cache, callers obtain the current
+ * {@link #generation() generation} before computing the path and supply it when {@link #put(NodeKey, Path, long) adding} the path;
+ * the path is not kept if any paths were invalidated in the meantime.
+ * </p>
+ */
+@ThreadSafe
+public class WorkspacePathCache {
+
+    /**
+     * The default maximum number of paths kept in the cache.
+     */
+    public static final long DEFAULT_MAX_PATHS = 10000L;
+
+    /**
+     * The maximum number of invalidations that are kept to check the cached paths against.
+     */
+    protected static final int MAX_INVALIDATIONS = 256;
+
+    private static final Invalidation[] NO_INVALIDATIONS = new Invalidation[0];
+
+    private final ConcurrentLruCache<NodeKey, CachedPath> paths;
+    private final PathFactory pathFactory;
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * The most recent invalidations, ordered by generation. The array is never modified; it is replaced when invalidations are
+     * added (while holding this cache's monitor).
+     */
+    private volatile Invalidation[] invalidations = NO_INVALIDATIONS;
+
+    /**
+     * Create a new cache.
+     *
+     * @param pathFactory the factory for paths; may not be null
+     * @param maxPaths the maximum number of paths, or zero or a negative value if the number of paths is not bounded
+     */
+    public WorkspacePathCache( PathFactory pathFactory,
+                               long maxPaths ) {
+        this.pathFactory = pathFactory;
+        this.paths = new ConcurrentLruCache<NodeKey, CachedPath>(maxPaths);
+    }
+
+    /**
+     * Get the cached path for the node with the supplied key.
+     *
+     * @param key the node key; may not be null
+     * @return the path, or null if the path is not cached
+     */
+    public Path get( NodeKey key ) {
+        CachedPath cached = paths.get(key);
+        if (cached == null) return null;
+        long checked = cached.checkedGeneration;
+        // Read the generation before the invalidations, since each invalidation is added before the generation changes ...
+        long current = generation.get();
+        if (checked == current) return cached.path;
+        Invalidation[] recent = this.invalidations;
+        int index = recent.length;
+        while (index > 0 && recent[index - 1].generation > checked) {
+            --index;
+        }
+        if (index == 0 && (recent.length == 0 || recent[0].generation != checked + 1)) {
+            // Some of the invalidations since the path was checked are no longer known ...
+            paths.remove(key);
+            return null;
+        }
+        for (int i = index; i != recent.length && recent[i].generation <= current; ++i) {
+            if (recent[i].affectedPaths.matches(key, cached.path)) {
+                paths.remove(key);
+                return null;
+            }
+        }
+        cached.checkedGeneration = current;
+        return cached.path;
+    }
+
+    /**
+     * Get the current generation of this cache, which must be obtained before computing a path that is to be
+     * {@link #put(NodeKey, Path, long) added} to this cache.
+     *
+     * @return the generation
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Add the path for the node with the supplied key, unless paths have been invalidated since the supplied generation.
+     *
+     * @param key the node key; may not be null
+     * @param path the path; may not be null
+     * @param generation the {@link #generation() generation} obtained before the path was computed
+     */
+    public void put( NodeKey key,
+                     Path path,
+                     long generation ) {
+        if (this.generation.get() != generation) return;
+        paths.put(key, new CachedPath(path, generation));
+        // An invalidation might have happened after the check but before the 'put' ...
+        if (this.generation.get() != generation) paths.remove(key);
+    }
+
+    /**
+     * Remove the paths that may have been changed by the supplied changes.
+     *
+     * @param changes the changes; may not be null
+     */
+    public void invalidate( ChangeSet changes ) {
+        // Collect for each parent the lowest same-name-sibling index of each name whose paths might have changed ...
+        Map<Path, Map<Name, Integer>> changedSegmentsByParent = null;
+        for (Change change : changes) {
+            Path oldPath = null;
+            Path otherPath = null;
+            if (change instanceof NodeRemoved) {
+                oldPath = ((NodeRemoved)change).getPath();
+            } else if (change instanceof NodeMoved) {
+                // The moved node may shift the same-name-sibling indexes at its new location ...
+                NodeMoved moved = (NodeMoved)change;
+                oldPath = moved.getOldPath();
+                otherPath = moved.getNewPath();
+            } else if (change instanceof NodeRenamed) {
+                // The new name may be shared with later siblings, whose indexes are then shifted ...
+                NodeRenamed renamed = (NodeRenamed)change;
+                oldPath = pathFactory.create(renamed.getPath().getParent(), renamed.getOldSegment());
+                otherPath = renamed.getPath();
+            } else if (change instanceof NodeReordered) {
+                NodeReordered reordered = (NodeReordered)change;
+                oldPath = reordered.getOldPath();
+                otherPath = reordered.getPath();
+            } else {
+                continue;
+            }
+            if (changedSegmentsByParent == null) changedSegmentsByParent = new HashMap<Path, Map<Name, Integer>>();
+            addChangedSegment(changedSegmentsByParent, oldPath);
+            addChangedSegment(changedSegmentsByParent, otherPath);
+        }
+        if (changedSegmentsByParent == null) return;
+        addInvalidation(new AffectedPaths(changedSegmentsByParent));
+    }
+
+    private synchronized void addInvalidation( AffectedPaths affectedPaths ) {
+        long next = generation.get() + 1L;
+        Invalidation[] recent = this.invalidations;
+        int keep = Math.min(recent.length, MAX_INVALIDATIONS - 1);
+        Invalidation[] updated = Arrays.copyOfRange(recent, recent.length - keep, recent.length + 1);
+        updated[keep] = new Invalidation(next, affectedPaths);
+        // Publish the invalidation before the new generation, so readers that see the generation also see the invalidation ...
+        this.invalidations = updated;
+        generation.set(next);
+    }
+
+    private static void addChangedSegment( Map<Path, Map<Name, Integer>> changedSegmentsByParent,
+                                           Path path ) {
+        if (path == null || path.isRoot()) return;
+        Path parent = path.getParent();
+        Segment segment = path.getLastSegment();
+        Map<Name, Integer> lowestIndexByName = changedSegmentsByParent.get(parent);
+        if (lowestIndexByName == null) {
+            lowestIndexByName = new HashMap<Name, Integer>();
+            changedSegmentsByParent.put(parent, lowestIndexByName);
+        }
+        Integer existing = lowestIndexByName.get(segment.getName());
+        if (existing == null || existing.intValue() > segment.getIndex()) {
+            lowestIndexByName.put(segment.getName(), segment.getIndex());
+        }
+    }
+
+    /**
+     * Remove all paths from this cache.
+     */
+    public synchronized void clear() {
+        // Forget the invalidations, so that any path added concurrently with an older generation is discarded when read ...
+        this.invalidations = NO_INVALIDATIONS;
+        generation.incrementAndGet();
+        paths.clear();
+    }
+
+    /**
+     * Get the number of paths in this cache, including those that have been invalidated but not yet read.
+     *
+     * @return the number of paths
+     */
+    public long size() {
+        return paths.size();
+    }
+
+    @Override
+    public String toString() {
+        return "WorkspacePathCache (size=" + paths.size() + ", maxPaths=" + paths.getMaximumEntries() + ")";
+    }
+
+    /**
+     * A cached path and the generation against which it was last checked.
+     */
+    protected static final class CachedPath {
+        protected final Path path;
+        protected volatile long checkedGeneration;
+
+        protected CachedPath( Path path,
+                              long checkedGeneration ) {
+            this.path = path;
+            this.checkedGeneration = checkedGeneration;
+        }
+    }
+
+    /**
+     * The paths affected by the changes that produced a generation.
+     */
+    protected static final class Invalidation {
+        protected final long generation;
+        protected final AffectedPaths affectedPaths;
+
+        protected Invalidation( long generation,
+                                AffectedPaths affectedPaths ) {
+            this.generation = generation;
+            this.affectedPaths = affectedPaths;
+        }
+    }
+
+    /**
+     * A filter that matches the paths that are at or below any node whose same-name-sibling index is at or above the lowest
+     * changed index for the node's name and parent.
+     */
+    protected static final class AffectedPaths {
+        private final Map<Path, Map<Name, Integer>> changedSegmentsByParent;
+
+        protected AffectedPaths( Map<Path, Map<Name, Integer>> changedSegmentsByParent ) {
+            this.changedSegmentsByParent = changedSegmentsByParent;
+        }
+
+        public boolean matches( NodeKey key,
+                                Path path ) {
+            for (Map.Entry<Path, Map<Name, Integer>> entry : changedSegmentsByParent.entrySet()) {
+                Path parent = entry.getKey();
+                if (path.size() <= parent.size()) continue;
+                if (!parent.isRoot() && !path.isDescendantOf(parent)) continue;
+                Segment segment = path.getSegment(parent.size());
+                Integer lowestIndex = entry.getValue().get(segment.getName());
+                if (lowestIndex != null && segment.getIndex() >= lowestIndex.intValue()) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -32,6 +32,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -47,6 +52,7 @@ import org.infinispan.schematic.document.Document;
 import org.infinispan.schematic.document.EditableDocument;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.i18n.I18n;
 import org.modeshape.common.logging.Logger;
@@ -98,6 +104,21 @@ public class WritableSessionCache extends AbstractSessionCache {
     private static final NodeKey REMOVED_KEY = new NodeKey("REMOVED_NODE_SHOULD_NEVER_BE_PERSISTED");
     private static final SessionNode REMOVED = new SessionNode(REMOVED_KEY, false);
 
+    /**
+     * The minimum number of new nodes in a save before the documents for the new nodes are translated concurrently.
+     */
+    protected static final int CONCURRENT_TRANSLATION_THRESHOLD = 1000;
+
+    /**
+     * The number of new nodes whose documents are translated by each concurrent task.
+     */
+    protected static final int CONCURRENT_TRANSLATION_BATCH_SIZE = 250;
+
+    /**
+     * The name of the thread pool used to concurrently translate the documents for new nodes.
+     */
+    protected static final String SAVE_THREAD_POOL = "modeshape-save";
+
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private Map<NodeKey, SessionNode> changedNodes;
     private Set<NodeKey> replacedNodes;
@@ -710,6 +731,9 @@ public class WritableSessionCache extends AbstractSessionCache {
         PathCache sessionPaths = new PathCache(this);
         PathCache workspacePaths = new PathCache(workspaceCache);
 
+        // Start translating the documents for the new nodes while we process the changes in order ...
+        NewDocuments newDocuments = translateNewNodes(changedNodesInOrder, translator);
+
         Set<NodeKey> removedNodes = null;
         Set<BinaryKey> unusedBinaryKeys = new HashSet<BinaryKey>();
         for (NodeKey key : changedNodesInOrder) {
@@ -744,11 +768,17 @@ public class WritableSessionCache extends AbstractSessionCache {
                 EditableDocument doc = null;
                 EditableDocument metadata = null;
                 ChangedAdditionalParents additionalParents = node.additionalParents();
+                // The properties and children of some new nodes have already been translated ...
+                boolean translated = false;
 
                 if (node.isNew()) {
-                    doc = Schematic.newDocument();
-                    translator.setKey(doc, key);
-                    translator.setParents(doc, newParent, null, additionalParents);
+                    doc = newDocuments.remove(key);
+                    translated = doc != null;
+                    if (!translated) {
+                        doc = Schematic.newDocument();
+                        translator.setKey(doc, key);
+                        translator.setParents(doc, newParent, null, additionalParents);
+                    }
                     // Create an event ...
                     changes.nodeCreated(key, newParent, newPath, node.changedProperties());
 
@@ -844,7 +874,7 @@ public class WritableSessionCache extends AbstractSessionCache {
                         Property prop = propEntry.getValue();
                         // Get the old property ...
                         Property oldProperty = persisted != null ? persisted.getProperty(name, workspaceCache) : null;
-                        translator.setProperty(doc, prop, unusedBinaryKeys);
+                        if (!translated) translator.setProperty(doc, prop, unusedBinaryKeys);
                         if (oldProperty == null) {
                             // the property was created ...
                             changes.propertyAdded(key, newPath, prop);
@@ -863,7 +893,7 @@ public class WritableSessionCache extends AbstractSessionCache {
                 MutableChildReferences appended = node.appended(false);
                 if ((changedChildren == null || changedChildren.isEmpty()) && (appended != null && !appended.isEmpty())) {
                     // Just appended children ...
-                    translator.changeChildren(key, doc, changedChildren, appended);
+                    if (!translated) translator.changeChildren(key, doc, changedChildren, appended);
                 } else if (changedChildren != null && !changedChildren.isEmpty()) {
                     if (!changedChildren.getRemovals().isEmpty()) {
                         // This node is not being removed (or added), but it has removals, and we have to calculate the paths
@@ -883,21 +913,31 @@ public class WritableSessionCache extends AbstractSessionCache {
                         }
                     }
 
-                    // Now change the children ...
-                    translator.changeChildren(key, doc, changedChildren, appended);
-
-                    // Generate events for renames, as this is only captured in the parent node ...
+                    // Likewise, find the old paths of the renamed nodes before changing the child references, since the
+                    // blocks of children that are changed are read again when computing paths ...
                     Map<NodeKey, Name> newNames = changedChildren.getNewNames();
+                    Map<NodeKey, Path> renamedFromPaths = null;
                     if (!newNames.isEmpty()) {
-                        for (Map.Entry<NodeKey, Name> renameEntry : newNames.entrySet()) {
-                            NodeKey renamedKey = renameEntry.getKey();
+                        renamedFromPaths = new HashMap<NodeKey, Path>();
+                        for (NodeKey renamedKey : newNames.keySet()) {
                             CachedNode oldRenamedNode = workspaceCache.getNode(renamedKey);
                             if (oldRenamedNode == null) {
                                 // The node was created in this session, so we can ignore this ...
                                 continue;
                             }
+                            renamedFromPaths.put(renamedKey, workspacePaths.getPath(oldRenamedNode));
+                        }
+                    }
+
+                    // Now change the children ...
+                    if (!translated) translator.changeChildren(key, doc, changedChildren, appended);
+
+                    // Generate events for renames, as this is only captured in the parent node ...
+                    if (renamedFromPaths != null) {
+                        for (Map.Entry<NodeKey, Path> renameEntry : renamedFromPaths.entrySet()) {
+                            NodeKey renamedKey = renameEntry.getKey();
                             CachedNode renamedNode = getNode(renamedKey);
-                            Path renamedFromPath = workspacePaths.getPath(oldRenamedNode);
+                            Path renamedFromPath = renameEntry.getValue();
                             Path renamedToPath = sessionPaths.getPath(renamedNode);
                             changes.nodeRenamed(renamedKey, renamedToPath, renamedFromPath.getLastSegment());
                         }
@@ -1029,7 +1069,13 @@ public class WritableSessionCache extends AbstractSessionCache {
             // Note 2: we do this last because the children are removed from their parent before the removal is handled above
             // (see Node 1), meaning getting the path and other information for removed nodes never would work properly.
             for (NodeKey removedKey : removedNodes) {
-                database.remove(removedKey.toString());
+                String removedKeyStr = removedKey.toString();
+                SchematicEntry removedEntry = database.get(removedKeyStr);
+                if (removedEntry != null) {
+                    // Remove any index over the blocks of children ...
+                    translator.removeChildrenBlockIndex(removedEntry.getContentAsDocument());
+                }
+                database.remove(removedKeyStr);
             }
 
             // And record the removals via the monitor ...
@@ -1048,6 +1094,121 @@ public class WritableSessionCache extends AbstractSessionCache {
         return changes;
     }
 
+    /**
+     * Start translating on other threads the documents for the new nodes in the supplied changes, as long as there are enough new
+     * nodes to make this worthwhile. Only the new nodes whose documents can be built without reading or changing other documents
+     * are translated concurrently, since the database can only be used by the thread that owns the transaction.
+     * 
+     * @param changedNodesInOrder the nodes that are to be persisted; may not be null
+     * @param translator the document translator; may not be null
+     * @return the documents being translated; never null
+     */
+    @GuardedBy( "lock" )
+    private NewDocuments translateNewNodes( Iterable<NodeKey> changedNodesInOrder,
+                                            final DocumentTranslator translator ) {
+        List<SessionNode> newNodes = new ArrayList<SessionNode>();
+        for (NodeKey key : changedNodesInOrder) {
+            SessionNode node = changedNodes.get(key);
+            if (node != null && node != REMOVED && canTranslateConcurrently(node, translator)) newNodes.add(node);
+        }
+        NewDocuments newDocuments = new NewDocuments();
+        if (newNodes.size() < CONCURRENT_TRANSLATION_THRESHOLD) return newDocuments;
+
+        ExecutorService executor = context().getThreadPool(SAVE_THREAD_POOL);
+        for (int start = 0; start < newNodes.size(); start += CONCURRENT_TRANSLATION_BATCH_SIZE) {
+            final List<SessionNode> batch = newNodes.subList(start,
+                                                             Math.min(start + CONCURRENT_TRANSLATION_BATCH_SIZE, newNodes.size()));
+            Future<Map<NodeKey, EditableDocument>> future = null;
+            try {
+                future = executor.submit(new Callable<Map<NodeKey, EditableDocument>>() {
+                    @Override
+                    public Map<NodeKey, EditableDocument> call() {
+                        Map<NodeKey, EditableDocument> docs = new HashMap<NodeKey, EditableDocument>();
+                        for (SessionNode node : batch) {
+                            docs.put(node.getKey(), translateNewNode(node, translator));
+                        }
+                        return docs;
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The pool is shutting down, so just translate the remaining nodes on this thread ...
+                break;
+            }
+            newDocuments.add(batch, future);
+        }
+        return newDocuments;
+    }
+
+    private boolean canTranslateConcurrently( SessionNode node,
+                                              DocumentTranslator translator ) {
+        if (!node.isNew() || node.getLockChange() != null) return false;
+        for (Property property : node.changedProperties().values()) {
+            if (translator.hasValuesStoredSeparately(property)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Build the document for a new node. This is equivalent to what {@link #persistChanges(Iterable, Monitor)} does for new nodes,
+     * but it must not use the database or the session (whose lock is held by the saving thread).
+     * 
+     * @param node the new node; may not be null
+     * @param translator the document translator; may not be null
+     * @return the document; never null
+     */
+    private static EditableDocument translateNewNode( SessionNode node,
+                                                      DocumentTranslator translator ) {
+        EditableDocument doc = Schematic.newDocument();
+        translator.setKey(doc, node.getKey());
+        translator.setParents(doc, node.newParent(), null, node.additionalParents());
+        for (Property property : node.changedProperties().values()) {
+            translator.setProperty(doc, property, null);
+        }
+        ChangedChildren changedChildren = node.changedChildren();
+        MutableChildReferences appended = node.appended(false);
+        if ((changedChildren != null && !changedChildren.isEmpty()) || (appended != null && !appended.isEmpty())) {
+            translator.changeChildren(node.getKey(), doc, changedChildren, appended);
+        }
+        return doc;
+    }
+
+    /**
+     * The documents for new nodes that are being translated concurrently, in batches.
+     */
+    @NotThreadSafe
+    private static final class NewDocuments {
+        private final Map<NodeKey, Future<Map<NodeKey, EditableDocument>>> batchesByKey = new HashMap<NodeKey, Future<Map<NodeKey, EditableDocument>>>();
+
+        protected void add( List<SessionNode> nodes,
+                            Future<Map<NodeKey, EditableDocument>> batch ) {
+            for (SessionNode node : nodes) {
+                batchesByKey.put(node.getKey(), batch);
+            }
+        }
+
+        /**
+         * Obtain the translated document for the new node with the supplied key, waiting if required for the batch containing the
+         * node to be completed.
+         * 
+         * @param key the node key
+         * @return the document, or null if the node was not translated concurrently (or could not be) and should be translated
+         *         by the caller
+         */
+        protected EditableDocument remove( NodeKey key ) {
+            Future<Map<NodeKey, EditableDocument>> batch = batchesByKey.remove(key);
+            if (batch == null) return null;
+            try {
+                return batch.get().remove(key);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                // The caller will translate the node again and report any problem ...
+                return null;
+            }
+        }
+    }
+
     protected SessionNode add( SessionNode newNode ) {
         assert newNode != REMOVED;
         Lock lock = this.lock.writeLock();
@@ -0,0 +1,313 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.NodeTypeSchemata;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+
+/**
+ * A front-end to {@link QueryIndexing} that collects all of the index work for one set of changes and applies it as a single
+ * unit, rather than sending each node to the indexes separately.
+ * <p>
+ * Each {@link Collector} records the nodes added, updated and removed by one save, keeping only the last state of each node, so
+ * that a node changed several times is indexed only once. When the collector is {@link Collector#apply() applied}, the work is
+ * added to an {@link IndexBatch}. Large amounts of work are divided among several threads, each of which creates the Lucene
+ * documents for its share of the nodes in its own batch; the calling thread is always one of those threads, and it blocks until
+ * all of the work has been applied, so the indexes reflect the changes when the save completes.
+ * </p>
+ */
+@ThreadSafe
+public class BatchingQueryIndexing {
+
+    /**
+     * The minimum number of nodes that each thread indexes, since smaller amounts of work are applied faster by a single thread.
+     */
+    protected static final int MIN_NODES_PER_THREAD = 100;
+
+    private final QueryIndexing indexes;
+    private final ExecutorService executor;
+    private final int threads;
+    private final Logger logger = Logger.getLogger(getClass());
+
+    /**
+     * Create a front-end for the supplied indexes.
+     * 
+     * @param indexes the indexes; may not be null
+     * @param executor the executor for the threads that help apply large amounts of work, or null if the work should be applied
+     *        only by the calling thread
+     * @param threads the maximum number of threads (including the calling thread) that apply the work for one collector
+     */
+    public BatchingQueryIndexing( QueryIndexing indexes,
+                                  ExecutorService executor,
+                                  int threads ) {
+        this.indexes = indexes;
+        this.executor = executor;
+        this.threads = executor != null ? Math.max(1, threads) : 1;
+    }
+
+    /**
+     * Create a new collector for the index work of one set of changes.
+     * 
+     * @param schemata the node type schemata that should be used to determine how the nodes are to be indexed; may not be null
+     * @return the new collector; never null
+     */
+    public Collector collect( NodeTypeSchemata schemata ) {
+        return new Collector(schemata);
+    }
+
+    protected void apply( List<Work> work ) {
+        int threads = Math.min(this.threads, work.size() / MIN_NODES_PER_THREAD);
+        if (threads <= 1) {
+            applyInBatch(work);
+            return;
+        }
+
+        // Divide the work among the threads, using this thread as one of them in case the executor is busy ...
+        int perThread = (work.size() + threads - 1) / threads;
+        final Queue<List<Work>> queue = new ConcurrentLinkedQueue<List<Work>>();
+        for (int i = 0; i < work.size(); i += perThread) {
+            queue.add(work.subList(i, Math.min(work.size(), i + perThread)));
+        }
+        final CountDownLatch latch = new CountDownLatch(queue.size());
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                List<Work> share;
+                while ((share = queue.poll()) != null) {
+                    try {
+                        applyInBatch(share);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }
+        };
+        for (int i = 1; i < threads; ++i) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down, so this thread will do the remaining work ...
+                break;
+            }
+        }
+        worker.run();
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void applyInBatch( List<Work> work ) {
+        try {
+            IndexBatch batch = indexes.createBatch();
+            for (Work item : work) {
+                item.apply(indexes, batch);
+            }
+            batch.apply();
+        } catch (RuntimeException e) {
+            // The changes have already been persisted, so just record the problem ...
+            logger.error(e, JcrI18n.errorUpdatingQueryIndexes, e.getMessage());
+        }
+    }
+
+    /**
+     * The index work for one set of changes. Only the last recorded state of each node is indexed.
+     */
+    @NotThreadSafe
+    public final class Collector {
+        private final NodeTypeSchemata schemata;
+        private final Map<NodeKey, Work> work = new LinkedHashMap<NodeKey, Work>();
+
+        protected Collector( NodeTypeSchemata schemata ) {
+            this.schemata = schemata;
+        }
+
+        /**
+         * Record that a new node should be added to the indexes.
+         * 
+         * @param workspace the workspace in which the node information should be available; may not be null
+         * @param key the unique key for the node; may not be null
+         * @param path the path of the node; may not be null
+         * @param primaryType the primary type of the node; may not be null
+         * @param mixinTypes the mixin types for the node; may not be null but may be empty
+         * @param properties the properties of the node; may not be null but may be empty
+         */
+        public void add( String workspace,
+                         NodeKey key,
+                         Path path,
+                         Name primaryType,
+                         Set<Name> mixinTypes,
+                         Collection<Property> properties ) {
+            // The collection may change after this call, so copy it ...
+            record(workspace, key, path, primaryType, mixinTypes, new ArrayList<Property>(properties), true);
+        }
+
+        /**
+         * Record that the indexes should reflect the new state of an existing node.
+         * 
+         * @param workspace the workspace in which the node information should be available; may not be null
+         * @param key the unique key for the node; may not be null
+         * @param path the path of the node; may not be null
+         * @param primaryType the primary type of the node; may not be null
+         * @param mixinTypes the mixin types for the node; may not be null but may be empty
+         * @param properties the properties of the node; may not be null but may be empty
+         */
+        public void update( String workspace,
+                            NodeKey key,
+                            Path path,
+                            Name primaryType,
+                            Set<Name> mixinTypes,
+                            Iterator<Property> properties ) {
+            List<Property> props = new ArrayList<Property>();
+            while (properties.hasNext()) {
+                props.add(properties.next());
+            }
+            record(workspace, key, path, primaryType, mixinTypes, props, false);
+        }
+
+        /**
+         * Record that the nodes with the supplied keys should be removed from the indexes.
+         * 
+         * @param workspace the workspace in which the nodes were removed; may not be null
+         * @param keys the keys for the nodes that are to be removed; may not be null
+         */
+        public void remove( String workspace,
+                            Iterable<NodeKey> keys ) {
+            for (NodeKey key : keys) {
+                // Supersede any prior work for the node ...
+                work.put(key, new Work(workspace, key, null, null, null, null, schemata, Work.Type.REMOVE));
+            }
+        }
+
+        /**
+         * Get the number of nodes for which index work has been recorded.
+         * 
+         * @return the number of nodes; never negative
+         */
+        public int size() {
+            return work.size();
+        }
+
+        /**
+         * Apply all of the recorded work to the indexes, and block until the work is complete. The collector is empty
+         * afterward.
+         */
+        public void apply() {
+            if (work.isEmpty()) return;
+            List<Work> work = new ArrayList<Work>(this.work.values());
+            this.work.clear();
+            BatchingQueryIndexing.this.apply(work);
+        }
+
+        private void record( String workspace,
+                             NodeKey key,
+                             Path path,
+                             Name primaryType,
+                             Set<Name> mixinTypes,
+                             List<Property> properties,
+                             boolean added ) {
+            Work existing = work.get(key);
+            Work.Type type = added ? Work.Type.ADD : Work.Type.UPDATE;
+            if (existing != null) {
+                // A node that was added in these changes was never indexed, but one that was removed might still be ...
+                type = existing.type == Work.Type.ADD ? Work.Type.ADD : Work.Type.UPDATE;
+            }
+            work.put(key, new Work(workspace, key, path, primaryType, mixinTypes, properties, schemata, type));
+        }
+    }
+
+    /**
+     * The last recorded index work for a single node.
+     */
+    protected static final class Work {
+        protected static enum Type {
+            ADD,
+            UPDATE,
+            REMOVE;
+        }
+
+        protected final String workspace;
+        protected final NodeKey key;
+        protected final Path path;
+        protected final Name primaryType;
+        protected final Set<Name> mixinTypes;
+        protected final List<Property> properties;
+        protected final NodeTypeSchemata schemata;
+        protected final Type type;
+
+        protected Work( String workspace,
+                        NodeKey key,
+                        Path path,
+                        Name primaryType,
+                        Set<Name> mixinTypes,
+                        List<Property> properties,
+                        NodeTypeSchemata schemata,
+                        Type type ) {
+            this.workspace = workspace;
+            this.key = key;
+            this.path = path;
+            this.primaryType = primaryType;
+            this.mixinTypes = mixinTypes;
+            this.properties = properties;
+            this.schemata = schemata;
+            this.type = type;
+        }
+
+        protected void apply( QueryIndexing indexes,
+                              IndexBatch batch ) {
+            switch (type) {
+                case ADD:
+                    indexes.addToIndex(workspace, key, path, primaryType, mixinTypes, properties, schemata, batch);
+                    break;
+                case UPDATE:
+                    indexes.updateIndex(workspace, key, path, primaryType, mixinTypes, properties.iterator(), schemata, batch);
+                    break;
+                case REMOVE:
+                    indexes.removeFromIndex(workspace, Collections.singleton(key), batch);
+                    break;
+            }
+        }
+    }
+}
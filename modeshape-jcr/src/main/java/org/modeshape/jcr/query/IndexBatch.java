@@ -0,0 +1,51 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query;
+
+import org.hibernate.search.backend.TransactionContext;
+import org.modeshape.common.annotation.NotThreadSafe;
+
+/**
+ * A {@link TransactionContext} that collects the index updates made with it, so that they can be {@link #apply() applied} to the
+ * indexes together rather than one at a time. A batch may be used by only one thread at a time, but different batches created by
+ * the same {@link QueryIndexing} can be used concurrently.
+ * 
+ * @see QueryIndexing#createBatch()
+ */
+@NotThreadSafe
+public interface IndexBatch extends TransactionContext {
+
+    /**
+     * Get the number of index updates that were made with this batch since it was last {@link #apply() applied}.
+     * 
+     * @return the number of pending updates; never negative
+     */
+    int size();
+
+    /**
+     * Apply to the indexes all of the updates that were made with this batch since it was last applied. The batch can continue to
+     * be used afterward.
+     */
+    void apply();
+}
@@ -26,7 +26,9 @@ package org.modeshape.jcr.query;
 import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
@@ -71,6 +73,8 @@ public class IndexRules {
         // Configure the properties that we'll treat as dates ...
         builder.dateField(JcrLexicon.CREATED, Field.Store.NO, Field.Index.NOT_ANALYZED, earliestChangeDate);
         builder.dateField(JcrLexicon.LAST_MODIFIED, Field.Store.NO, Field.Index.NOT_ANALYZED, earliestChangeDate);
+        // Every node has a primary type, so read it from the field cache rather than loading the nodes ...
+        builder.column(JcrLexicon.PRIMARY_TYPE);
         DEFAULT_RULES = builder.build();
     }
 
@@ -266,12 +270,21 @@ public class IndexRules {
 
     private final Map<Name, Rule> rulesByName;
     private final Rule defaultRule;
+    private final Set<Name> columnNames;
 
     protected IndexRules( Map<Name, Rule> rulesByName,
                           Rule defaultRule ) {
+        this(rulesByName, defaultRule, Collections.<Name>emptySet());
+    }
+
+    protected IndexRules( Map<Name, Rule> rulesByName,
+                          Rule defaultRule,
+                          Set<Name> columnNames ) {
         this.rulesByName = rulesByName;
         this.defaultRule = defaultRule != null ? defaultRule : SKIP;
+        this.columnNames = columnNames;
         assert this.defaultRule != null;
+        assert this.columnNames != null;
     }
 
     /**
@@ -285,13 +298,32 @@ public class IndexRules {
         return result != null ? result : this.defaultRule;
     }
 
+    /**
+     * Determine whether the values of the given property can be read from the per-document columns of the indexes rather than
+     * from the node, when the query results are formed. The values in these columns are kept by Lucene (in its field cache) for
+     * every document in each index segment, so these values are available without reading the stored fields of the documents or
+     * the properties of the nodes.
+     * <p>
+     * Only properties that have at most one value, and whose {@link #getRule(Name) rule} is of the {@link FieldType#STRING
+     * string}, {@link FieldType#LONG long}, {@link FieldType#INT integer}, {@link FieldType#DOUBLE double} or
+     * {@link FieldType#FLOAT float} type, should be defined as columns.
+     * </p>
+     * 
+     * @param name the property name; may not be null
+     * @return true if the property's values are read from columns, or false otherwise
+     * @see Builder#column(Name...)
+     */
+    public boolean isColumn( Name name ) {
+        return columnNames.contains(name);
+    }
+
     /**
      * Return a new builder that can be used to create {@link IndexRules} objects.
      * 
      * @return a builder; never null
      */
     public static Builder createBuilder() {
-        return new Builder(new HashMap<Name, Rule>(), null);
+        return new Builder(new HashMap<Name, Rule>(), null, new HashSet<Name>());
     }
 
     /**
@@ -303,7 +335,8 @@ public class IndexRules {
      */
     public static Builder createBuilder( IndexRules initialRules ) {
         CheckArg.isNotNull(initialRules, "initialRules");
-        return new Builder(new HashMap<Name, Rule>(initialRules.rulesByName), initialRules.defaultRule);
+        return new Builder(new HashMap<Name, Rule>(initialRules.rulesByName), initialRules.defaultRule,
+                           new HashSet<Name>(initialRules.columnNames));
     }
 
     /**
@@ -312,13 +345,17 @@ public class IndexRules {
     @NotThreadSafe
     public static class Builder {
         private final Map<Name, Rule> rulesByName;
+        private final Set<Name> columnNames;
         private Rule defaultRule;
 
         Builder( Map<Name, Rule> rulesByName,
-                 Rule defaultRule ) {
+                 Rule defaultRule,
+                 Set<Name> columnNames ) {
             assert rulesByName != null;
+            assert columnNames != null;
             this.rulesByName = rulesByName;
             this.defaultRule = defaultRule;
+            this.columnNames = columnNames;
         }
 
         /**
@@ -336,6 +373,24 @@ public class IndexRules {
             return this;
         }
 
+        /**
+         * Mark the properties with the supplied names to be read from the per-document columns of the indexes when forming the
+         * query results. Each of these properties should have at most one value and should be defined with a string, long,
+         * integer, double or float field.
+         * 
+         * @param names the names of the properties whose values are to be read from columns
+         * @return this builder for convenience and method chaining; never null
+         * @see IndexRules#isColumn(Name)
+         */
+        public Builder column( Name... names ) {
+            if (names != null) {
+                for (Name name : names) {
+                    columnNames.add(name);
+                }
+            }
+            return this;
+        }
+
         /**
          * Define a string-based field as the default.
          * 
@@ -761,7 +816,8 @@ public class IndexRules {
          * @return the immutable indexing rules.
          */
         public IndexRules build() {
-            return new IndexRules(Collections.unmodifiableMap(new HashMap<Name, Rule>(rulesByName)), defaultRule);
+            return new IndexRules(Collections.unmodifiableMap(new HashMap<Name, Rule>(rulesByName)), defaultRule,
+                                  Collections.unmodifiableSet(new HashSet<Name>(columnNames)));
         }
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query;
+
+/**
+ * Statistics about the content in the indexes that the query optimizer uses to estimate the number of tuples produced by the
+ * different parts of a query plan. All values are estimates: the statistics are usually collected periodically and do not reflect
+ * changes made since they were collected, and they may include nodes that have been removed but not yet purged from the indexes.
+ * Implementations must be thread-safe, since a single instance is shared by all queries that are planned at the same time.
+ */
+public interface IndexStatistics {
+
+    /**
+     * The value returned by methods when the statistic is not known.
+     */
+    static final long UNKNOWN = -1L;
+
+    /**
+     * Get the generation of these statistics. Statistics that are collected again keep the generation of the previous
+     * statistics unless the number of nodes has changed significantly, so that plans optimized with one set of statistics can
+     * be reused with newer statistics of the same generation.
+     * 
+     * @return the generation
+     */
+    long getGeneration();
+
+    /**
+     * Get the total number of nodes in all of the indexed workspaces.
+     * 
+     * @return the number of nodes; never negative
+     */
+    long getNodeCount();
+
+    /**
+     * Get the number of nodes that have the supplied value for the named property. Implementations track this only for a few
+     * properties with a small number of distinct values, such as the primary type and mixin types of each node.
+     * 
+     * @param propertyName the name of the property as used in the indexes; may not be null
+     * @param value the string form of the property value; may not be null
+     * @return the number of nodes, or {@link #UNKNOWN} if the number of nodes is not tracked for the property
+     */
+    long getValueCount( String propertyName,
+                        String value );
+
+    /**
+     * Get the number of distinct values of the named property.
+     * 
+     * @param propertyName the name of the property as used in the indexes; may not be null
+     * @return the number of distinct values, or {@link #UNKNOWN} if the number is not known
+     */
+    long getDistinctValueCount( String propertyName );
+
+    /**
+     * Get the number of nodes at the supplied depth, where the root node is at depth 0.
+     * 
+     * @param depth the depth
+     * @return the number of nodes at the depth; never negative
+     */
+    long getNodeCountAtDepth( int depth );
+
+    /**
+     * Get the largest depth at which there are nodes.
+     * 
+     * @return the maximum depth; never negative
+     */
+    int getMaximumDepth();
+}
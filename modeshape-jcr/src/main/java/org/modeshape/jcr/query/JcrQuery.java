@@ -37,6 +37,8 @@ import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.QueryResults.Location;
 import org.modeshape.jcr.query.model.BindVariableName;
 import org.modeshape.jcr.query.model.LiteralValue;
 import org.modeshape.jcr.query.model.QueryCommand;
@@ -102,9 +104,36 @@ public class JcrQuery extends JcrAbstractQuery {
      * 
      * @see javax.jcr.query.Query#execute()
      */
-    @SuppressWarnings( "deprecation" )
     @Override
     public QueryResult execute() throws RepositoryException {
+        return execute(hints, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.modeshape.jcr.api.query.Query#analyze()
+     */
+    @Override
+    public org.modeshape.jcr.api.query.QueryResult analyze() throws RepositoryException {
+        PlanHints profilingHints = hints != null ? hints.clone() : new PlanHints();
+        profilingHints.showPlan = true;
+        profilingHints.profile = true;
+        return execute(profilingHints, true);
+    }
+
+    /**
+     * Execute the query using the supplied hints.
+     * 
+     * @param hints the hints; may be null if there are no hints
+     * @param loadNodes true if the nodes for all of the result rows should be loaded (and the time spent loading them described
+     *        in the plan) before the results are returned, or false otherwise
+     * @return the results; never null
+     * @throws RepositoryException if there is a problem executing the query
+     */
+    @SuppressWarnings( "deprecation" )
+    protected JcrQueryResult execute( PlanHints hints,
+                                      boolean loadNodes ) throws RepositoryException {
         context.isLive();
         final long start = System.nanoTime();
         Schemata schemata = context.getSchemata();
@@ -116,13 +145,16 @@ public class JcrQuery extends JcrAbstractQuery {
             executable = newExecutable;
         }
         // otherwise, some other thread called execute, so we can use it and just wait for the results ...
-        final QueryResults result = executable.getResults(); // may be cancelled
+        QueryResults result = executable.getResults(); // may be cancelled
 
         // And reset the reference to null (if not already set to something else) ...
         executingQuery.compareAndSet(executable, null);
 
         checkForProblems(result.getProblems());
-        context.recordDuration(Math.abs(System.nanoTime() - start), TimeUnit.NANOSECONDS, statement, language);
+        if (loadNodes) result = loadNodes(result);
+        // Streamed results hold onto resources until all of the tuples are produced ...
+        if (!result.isClosed()) context.closeOnLogout(result);
+        context.recordDuration(Math.abs(System.nanoTime() - start), TimeUnit.NANOSECONDS, statement, language, result.getPlan());
         if (Query.XPATH.equals(language)) {
             return new XPathQueryResult(context, statement, result, schemata);
         } else if (Query.SQL.equals(language)) {
@@ -131,6 +163,34 @@ public class JcrQuery extends JcrAbstractQuery {
         return new JcrQueryResult(context, statement, result, schemata);
     }
 
+    /**
+     * Load the nodes for all of the rows in the supplied results, and return equivalent results whose plan also describes the
+     * number of nodes that were loaded and the time spent loading them.
+     * 
+     * @param results the results; may not be null
+     * @return the results with the updated plan; never null
+     * @throws RepositoryException if there is a problem loading the nodes
+     */
+    protected QueryResults loadNodes( QueryResults results ) throws RepositoryException {
+        long start = System.nanoTime();
+        Columns columns = results.getColumns();
+        long count = 0L;
+        for (Object[] tuple : results.getTuples()) {
+            for (String selectorName : columns.getSelectorNames()) {
+                Location location = (Location)tuple[columns.getLocationIndex(selectorName)];
+                if (location == null) continue; // the selector was not matched in an outer join
+                context.getNode(location);
+                ++count;
+            }
+        }
+        double millis = Math.abs(System.nanoTime() - start) / 1000000.0d;
+        StringBuilder plan = new StringBuilder();
+        if (results.getPlan() != null) plan.append(results.getPlan());
+        plan.append("Result nodes <loaded=").append(count).append(" time=").append(String.format("%.3f", millis)).append("ms>\n");
+        return new org.modeshape.jcr.query.process.QueryResults(columns, results.getStatistics(), results.getTuples(),
+                                                                results.getProblems(), plan.toString());
+    }
+
     @Override
     public boolean cancel() {
         CancellableQuery executing = executingQuery.get();
@@ -63,8 +63,25 @@ public interface JcrQueryContext {
 
     NodeIterator emptyNodeIterator();
 
+    /**
+     * Close the supplied results when the session is closed, if they still hold resources at that time.
+     * 
+     * @param results the query results whose tuples may not yet all have been produced; may not be null
+     */
+    void closeOnLogout( QueryResults results );
+
+    /**
+     * Record the time spent executing a query.
+     * 
+     * @param nanos the duration
+     * @param unit the time unit of the duration; may not be null
+     * @param query the query statement; may not be null
+     * @param language the query language; may not be null
+     * @param plan the description of the plan used to execute the query, or null if the plan is not available
+     */
     void recordDuration( long nanos,
                          TimeUnit unit,
                          String query,
-                         String language );
+                         String language,
+                         String plan );
 }
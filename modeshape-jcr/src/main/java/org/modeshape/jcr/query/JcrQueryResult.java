@@ -26,6 +26,7 @@ package org.modeshape.jcr.query;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -136,33 +137,23 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         if (getSelectorNames().length > 1) {
             throw new RepositoryException(JcrI18n.multipleSelectorsAppearInQueryUnableToCallMethod.text(queryStatement));
         }
-        // Find all of the nodes in the results. We have to do this pre-emptively, since this
-        // is the only method to throw RepositoryException ...
-        final int numRows = results.getRowCount();
-        if (numRows == 0) return context.emptyNodeIterator();
+        // The nodes are found only as the iterator is advanced ...
+        final Iterator<Object[]> tuples = results.getTupleIterator();
+        if (!tuples.hasNext()) return context.emptyNodeIterator();
 
-        final List<Node> nodes = new ArrayList<Node>(numRows);
         final String selectorName = results.getColumns().getSelectorNames().get(0);
         final int locationIndex = results.getColumns().getLocationIndex(selectorName);
-        for (Object[] tuple : results.getTuples()) {
-            Location location = (Location)tuple[locationIndex];
-            Node node = context.getNode(location);
-            if (node != null) {
-                nodes.add(node);
-            }
-        }
-        return new QueryResultNodeIterator(nodes);
+        return new QueryResultNodeIterator(context, tuples, locationIndex);
     }
 
     @Override
     public RowIterator getRows() /*throws RepositoryException*/{
         // We can actually delay the loading of the nodes until the rows are accessed ...
-        final int numRows = results.getRowCount();
-        final List<Object[]> tuples = results.getTuples();
+        final Iterator<Object[]> tuples = results.getTupleIterator();
         if (results.getColumns().getLocationCount() == 1) {
-            return new SingleSelectorQueryResultRowIterator(context, queryStatement, results, tuples.iterator(), numRows);
+            return new SingleSelectorQueryResultRowIterator(context, queryStatement, results, tuples);
         }
-        return new QueryResultRowIterator(context, queryStatement, results, tuples.iterator(), numRows);
+        return new QueryResultRowIterator(context, queryStatement, results, tuples);
     }
 
     /**
@@ -170,6 +161,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
      * 
      * @return the query plan, or null if the plan was not requested
      */
+    @Override
     public String getPlan() {
         return results.getPlan();
     }
@@ -186,20 +178,48 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
      */
     @NotThreadSafe
     protected static class QueryResultNodeIterator implements NodeIterator {
-        private final Iterator<? extends Node> nodes;
-        private final int size;
+        private final JcrQueryContext context;
+        private final Iterator<Object[]> tuples;
+        private final int locationIndex;
+        private final LinkedList<Node> nodes = new LinkedList<Node>();
         private long position = 0L;
 
-        protected QueryResultNodeIterator( List<? extends Node> nodes ) {
-            this.nodes = nodes.iterator();
-            this.size = nodes.size();
+        protected QueryResultNodeIterator( JcrQueryContext context,
+                                           Iterator<Object[]> tuples,
+                                           int locationIndex ) {
+            this.context = context;
+            this.tuples = tuples;
+            this.locationIndex = locationIndex;
+        }
+
+        /**
+         * Find the node for the next tuple whose node exists and is accessible in the session.
+         * 
+         * @return true if another node was found, or false if there are no more tuples
+         */
+        private boolean findNextNode() {
+            while (tuples.hasNext()) {
+                Location location = (Location)tuples.next()[locationIndex];
+                try {
+                    Node node = context.getNode(location);
+                    if (node != null) {
+                        nodes.add(node);
+                        return true;
+                    }
+                } catch (RepositoryException e) {
+                    // The node could not be found in this session, so skip it ...
+                }
+            }
+            return false;
         }
 
         @Override
         public Node nextNode() {
-            Node node = nodes.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
             ++position;
-            return node;
+            return nodes.removeFirst();
         }
 
         @Override
@@ -209,7 +229,11 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
 
         @Override
         public long getSize() {
-            return size;
+            // Only the nodes that can be found in the session are counted, so find all of the remaining nodes ...
+            while (findNextNode()) {
+                // Keep finding ...
+            }
+            return position + nodes.size();
         }
 
         @Override
@@ -220,7 +244,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
 
         @Override
         public boolean hasNext() {
-            return nodes.hasNext();
+            return !nodes.isEmpty() || findNextNode();
         }
 
         @Override
@@ -247,22 +271,22 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         protected final JcrQueryContext context;
         protected final Columns columns;
         protected final String query;
+        private final QueryResults results;
         private int[] locationIndexes;
         private long position = 0L;
-        private long numRows;
+        private long skippedRows = 0L;
         private Row nextRow;
 
         protected QueryResultRowIterator( JcrQueryContext context,
                                           String query,
                                           QueryResults results,
-                                          Iterator<Object[]> tuples,
-                                          long numRows ) {
+                                          Iterator<Object[]> tuples ) {
             this.tuples = tuples;
             this.query = query;
+            this.results = results;
             this.columns = results.getColumns();
             this.columnNames = this.columns.getColumnNames();
             this.context = context;
-            this.numRows = numRows;
             this.selectorNames = new HashSet<String>(columns.getSelectorNames());
             int i = 0;
             List<String> columnSelectorNames = columns.getSelectorNames();
@@ -297,7 +321,8 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
 
         @Override
         public long getSize() {
-            return numRows;
+            // This requires all of the tuples be produced ...
+            return results.getRowCount() - skippedRows;
         }
 
         @Override
@@ -323,7 +348,7 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
                 } catch (RepositoryException e) {
                     // The node could not be found in this session, so skip it ...
                 }
-                --numRows;
+                ++skippedRows;
             }
             return false;
         }
@@ -400,9 +425,8 @@ public class JcrQueryResult implements org.modeshape.jcr.api.query.QueryResult {
         protected SingleSelectorQueryResultRowIterator( JcrQueryContext context,
                                                         String query,
                                                         QueryResults results,
-                                                        Iterator<Object[]> tuples,
-                                                        long numRows ) {
-            super(context, query, results, tuples, numRows);
+                                                        Iterator<Object[]> tuples ) {
+            super(context, query, results, tuples);
             String selectorName = columns.getSelectorNames().get(0);
             locationIndex = columns.getLocationIndex(selectorName);
             scoreIndex = columns.getFullTextSearchScoreIndexFor(selectorName);
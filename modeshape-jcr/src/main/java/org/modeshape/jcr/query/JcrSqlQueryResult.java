@@ -75,8 +75,6 @@ public class JcrSqlQueryResult extends JcrQueryResult {
 
     @Override
     public RowIterator getRows() {
-        final int numRows = results.getRowCount();
-        final List<Object[]> tuples = results.getTuples();
-        return new SingleSelectorQueryResultRowIterator(context, queryStatement, results, tuples.iterator(), numRows);
+        return new SingleSelectorQueryResultRowIterator(context, queryStatement, results, results.getTupleIterator());
     }
 }
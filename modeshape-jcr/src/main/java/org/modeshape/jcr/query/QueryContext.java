@@ -60,6 +60,7 @@ public class QueryContext {
     private final Map<String, Object> variables;
     private final Set<String> workspaceNames;
     private final Map<String, NodeCache> overriddenNodeCachesByWorkspaceName;
+    private final IndexStatistics indexStatistics;
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
 
     /**
@@ -85,6 +86,36 @@ public class QueryContext {
                          PlanHints hints,
                          Problems problems,
                          Map<String, Object> variables ) {
+        this(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, hints, problems, variables,
+             null);
+    }
+
+    /**
+     * Create a new context for query execution.
+     * 
+     * @param context the context in which the query is being executed; may not be null
+     * @param repositoryCache the repository cache that should be used to load results; may be null if no results are to be loaded
+     * @param workspaceNames the name of each workspace to be queried, or an empty set if all the workspaces should be queried;
+     *        may not be null
+     * @param overriddenNodeCachesByWorkspaceName the NodeCache instances that should be used to load results, which will be used
+     *        instead of the RepositoryCache's NodeCache for a given workspace name; may be null or empty
+     * @param schemata the schemata
+     * @param hints the hints, or null if there are no hints
+     * @param problems the problems container, or null if a new problems container should be created
+     * @param variables the mapping of variables and values, or null if there are no such variables
+     * @param indexStatistics the statistics of the indexes that should be used to estimate the cost of query plans, or null if
+     *        there are no statistics
+     * @throws IllegalArgumentException if the context, workspace name, or schemata are null
+     */
+    public QueryContext( ExecutionContext context,
+                         RepositoryCache repositoryCache,
+                         Set<String> workspaceNames,
+                         Map<String, NodeCache> overriddenNodeCachesByWorkspaceName,
+                         Schemata schemata,
+                         PlanHints hints,
+                         Problems problems,
+                         Map<String, Object> variables,
+                         IndexStatistics indexStatistics ) {
         CheckArg.isNotNull(context, "context");
         CheckArg.isNotNull(workspaceNames, "workspaceNames");
         CheckArg.isNotNull(schemata, "schemata");
@@ -97,6 +128,7 @@ public class QueryContext {
         this.problems = problems != null ? problems : new SimpleProblems();
         this.variables = variables != null ? new HashMap<String, Object>(variables) : new HashMap<String, Object>();
         this.overriddenNodeCachesByWorkspaceName = overriddenNodeCachesByWorkspaceName != null ? overriddenNodeCachesByWorkspaceName : Collections.<String, NodeCache>emptyMap();
+        this.indexStatistics = indexStatistics;
         assert this.typeSystem != null;
         assert this.hints != null;
         assert this.schemata != null;
@@ -152,7 +184,7 @@ public class QueryContext {
      */
     protected QueryContext( QueryContext original ) {
         this(original.context, original.repositoryCache, original.workspaceNames, original.overriddenNodeCachesByWorkspaceName,
-             original.schemata, original.hints, original.problems, original.variables);
+             original.schemata, original.hints, original.problems, original.variables, original.indexStatistics);
     }
 
     /**
@@ -269,6 +301,15 @@ public class QueryContext {
         return variables;
     }
 
+    /**
+     * Get the statistics of the indexes that can be used to estimate the number of tuples produced by the parts of a query plan.
+     * 
+     * @return the statistics, or null if there are no statistics
+     */
+    public IndexStatistics getIndexStatistics() {
+        return indexStatistics;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -297,7 +338,7 @@ public class QueryContext {
     public QueryContext with( Schemata schemata ) {
         CheckArg.isNotNull(schemata, "schemata");
         return new QueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, hints,
-                                problems, variables);
+                                problems, variables, indexStatistics);
     }
 
     /**
@@ -310,7 +351,7 @@ public class QueryContext {
     public QueryContext with( PlanHints hints ) {
         CheckArg.isNotNull(hints, "hints");
         return new QueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, hints,
-                                problems, variables);
+                                problems, variables, indexStatistics);
     }
 
     /**
@@ -321,7 +362,7 @@ public class QueryContext {
      */
     public QueryContext with( Problems problems ) {
         return new QueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, hints,
-                                problems, variables);
+                                problems, variables, indexStatistics);
     }
 
     /**
@@ -332,7 +373,18 @@ public class QueryContext {
      */
     public QueryContext with( Map<String, Object> variables ) {
         return new QueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, hints,
-                                problems, variables);
+                                problems, variables, indexStatistics);
+    }
+
+    /**
+     * Obtain a copy of this context, except that the copy uses the supplied index statistics.
+     * 
+     * @param indexStatistics the statistics that should be used in the new context; may be null if there are no statistics
+     * @return the new context; never null
+     */
+    public QueryContext with( IndexStatistics indexStatistics ) {
+        return new QueryContext(context, repositoryCache, workspaceNames, overriddenNodeCachesByWorkspaceName, schemata, hints,
+                                problems, variables, indexStatistics);
     }
 
 }
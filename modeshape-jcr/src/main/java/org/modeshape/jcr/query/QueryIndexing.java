@@ -94,4 +94,12 @@ public interface QueryIndexing {
     void removeBinariesFromIndex( Iterable<String> sha1s,
                                   TransactionContext txnCtx );
 
+    /**
+     * Create a new batch that can be supplied as the transaction context of the other methods, so that the index updates are
+     * collected and then {@link IndexBatch#apply() applied} together.
+     * 
+     * @return the new batch; never null
+     */
+    IndexBatch createBatch();
+
 }
@@ -26,6 +26,7 @@ package org.modeshape.jcr.query;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
@@ -65,6 +66,15 @@ public interface QueryResults extends Serializable {
      */
     public List<Object[]> getTuples();
 
+    /**
+     * Get an iterator over the tuples that contain the results. Unlike {@link #getTuples()} and {@link #getRowCount()}, which
+     * require that all of the tuples be produced, the tuples of streamed results are produced only as the returned iterator is
+     * advanced. Each call returns a new iterator that starts with the first tuple.
+     * 
+     * @return the iterator over the tuples; never null but possibly empty
+     */
+    public Iterator<Object[]> getTupleIterator();
+
     /**
      * Get the number of rows in the results.
      * 
@@ -72,6 +82,20 @@ public interface QueryResults extends Serializable {
      */
     public int getRowCount();
 
+    /**
+     * Release any resources (e.g., index readers) that are still being used to produce the tuples. Tuples that were not yet
+     * produced will not be available once the results are closed. Calling this method on closed results has no effect.
+     */
+    public void close();
+
+    /**
+     * Determine whether these results have been {@link #close() closed} or all of their tuples have already been produced, in
+     * which case they no longer hold any resources.
+     * 
+     * @return true if the results no longer hold any resources, or false if more tuples may still be produced
+     */
+    public boolean isClosed();
+
     /**
      * Get a description of the query plan, if requested.
      * 
@@ -669,7 +693,9 @@ public interface QueryResults extends Serializable {
         }
     };
 
-    public static final class Location implements Comparable<Location> {
+    public static final class Location implements Comparable<Location>, Serializable {
+        private static final long serialVersionUID = 1L;
+
         static Comparator<Location> COMPARATOR = new Comparator<Location>() {
             @Override
             public int compare( Location o1,
@@ -91,9 +91,7 @@ public class XPathQueryResult extends JcrQueryResult {
 
     @Override
     public RowIterator getRows() {
-        final int numRows = results.getRowCount();
-        final List<Object[]> tuples = results.getTuples();
-        return new XPathQueryResultRowIterator(context, queryStatement, results, tuples.iterator(), numRows);
+        return new XPathQueryResultRowIterator(context, queryStatement, results, results.getTupleIterator());
     }
 
     protected static class XPathQueryResultRowIterator extends SingleSelectorQueryResultRowIterator {
@@ -101,9 +99,8 @@ public class XPathQueryResult extends JcrQueryResult {
         protected XPathQueryResultRowIterator( JcrQueryContext context,
                                                String query,
                                                QueryResults results,
-                                               Iterator<Object[]> tuples,
-                                               long numRows ) {
-            super(context, query, results, tuples, numRows);
+                                               Iterator<Object[]> tuples ) {
+            super(context, query, results, tuples);
         }
 
         @Override
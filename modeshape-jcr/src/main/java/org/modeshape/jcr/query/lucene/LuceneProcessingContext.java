@@ -24,8 +24,15 @@
 package org.modeshape.jcr.query.lucene;
 
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.lucene.index.IndexReader;
@@ -45,11 +52,22 @@ public class LuceneProcessingContext {
     private final Lock lock = new ReentrantLock();
     private final QueryContext queryContext;
     private final LuceneQueryFactory queryFactory;
+    private final ExecutorService searchExecutor;
+    private final List<Future<?>> searches = new LinkedList<Future<?>>();
+    private volatile boolean closing;
 
     protected LuceneProcessingContext( QueryContext queryContext,
                                        String repositoryName,
                                        SearchFactory searchFactory,
                                        LuceneSchema schema ) {
+        this(queryContext, repositoryName, searchFactory, schema, null);
+    }
+
+    protected LuceneProcessingContext( QueryContext queryContext,
+                                       String repositoryName,
+                                       SearchFactory searchFactory,
+                                       LuceneSchema schema,
+                                       ExecutorService searchExecutor ) {
         assert queryContext != null;
         assert searchFactory != null;
         assert repositoryName != null;
@@ -57,6 +75,7 @@ public class LuceneProcessingContext {
         this.searchFactory = searchFactory;
         this.repositoryName = repositoryName;
         this.queryFactory = schema.createLuceneQueryFactory(queryContext, searchFactory);
+        this.searchExecutor = searchExecutor;
     }
 
     /**
@@ -144,6 +163,45 @@ public class LuceneProcessingContext {
         return searcher;
     }
 
+    /**
+     * Determine whether the index segments can be searched concurrently with {@link #submitSearch(Callable)}.
+     * 
+     * @return true if searches can be submitted, or false if all searching must be done by the query thread
+     */
+    public boolean canSearchInParallel() {
+        return searchExecutor != null && !closing;
+    }
+
+    /**
+     * Submit the supplied search to be run on the search thread pool. Searches that are still pending or running when this
+     * context is {@link #close() closed} are cancelled or waited for, so that they never use a closed reader.
+     * 
+     * @param search the search; may not be null
+     * @return the future result of the search; never null
+     * @throws IllegalStateException if this context does not {@link #canSearchInParallel() support parallel searches}
+     */
+    public <T> Future<T> submitSearch( Callable<T> search ) {
+        if (searchExecutor == null) throw new IllegalStateException();
+        try {
+            lock.lock();
+            if (closing) throw new IllegalStateException();
+            Future<T> future = searchExecutor.submit(search);
+            searches.add(future);
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Determine whether this context is being closed, in which case any running searches should stop as soon as possible.
+     * 
+     * @return true if this context is being closed, or false otherwise
+     */
+    public boolean isClosing() {
+        return closing;
+    }
+
     /**
      * Close all of the readers and searchers that are associated with this processing context.
      */
@@ -152,6 +210,23 @@ public class LuceneProcessingContext {
         RuntimeException firstError = null;
         try {
             lock.lock();
+            closing = true;
+            // Stop the searches that were submitted but whose results were not all consumed (e.g., because of a limit) ...
+            for (Future<?> search : searches) {
+                // Don't interrupt, since that closes the channels of NIO-based directories ...
+                if (search.cancel(false)) continue;
+                try {
+                    search.get();
+                } catch (CancellationException e) {
+                    // ignore
+                } catch (ExecutionException e) {
+                    // already reported to the query thread or not needed
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            searches.clear();
             for (Map.Entry<String, IndexReader> entry : readerByIndexName.entrySet()) {
                 String indexName = entry.getKey();
                 IndexReader reader = entry.getValue();
@@ -25,17 +25,32 @@ package org.modeshape.jcr.query.lucene;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.InvalidQueryException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 import org.hibernate.search.SearchFactory;
 import org.hibernate.search.engine.spi.SearchFactoryImplementor;
@@ -49,19 +64,25 @@ import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryIndexing;
 import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.QueryResults.Statistics;
 import org.modeshape.jcr.query.lucene.basic.BasicLuceneSchema;
-import org.modeshape.jcr.query.lucene.basic.ExistsTupleCollector;
 import org.modeshape.jcr.query.model.Constraint;
 import org.modeshape.jcr.query.model.FullTextSearchScore;
+import org.modeshape.jcr.query.model.Limit;
 import org.modeshape.jcr.query.model.QueryCommand;
 import org.modeshape.jcr.query.optimize.Optimizer;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
 import org.modeshape.jcr.query.plan.Planner;
+import org.modeshape.jcr.query.plan.QueryPlanCache;
 import org.modeshape.jcr.query.process.AbstractAccessComponent;
+import org.modeshape.jcr.query.process.ComponentProfile;
+import org.modeshape.jcr.query.process.LimitComponent;
 import org.modeshape.jcr.query.process.ProcessingComponent;
 import org.modeshape.jcr.query.process.QueryEngine;
 import org.modeshape.jcr.query.process.QueryProcessor;
+import org.modeshape.jcr.query.process.QueryResultCache;
 import org.modeshape.jcr.query.process.SelectComponent;
 import org.modeshape.jcr.query.validate.Schemata;
 
@@ -74,6 +95,7 @@ public class LuceneQueryEngine extends QueryEngine {
 
     private final ExecutionContext repositoryContext;
     private final BasicLuceneSchema schema;
+    private final QueryResultCache resultCache;
 
     // private final String repositoryName;
 
@@ -93,11 +115,84 @@ public class LuceneQueryEngine extends QueryEngine {
                               SearchFactoryImplementor searchFactory,
                               Version version,
                               boolean enableFullTextSearch ) {
-        super(planner, optimizer, new LuceneQueryProcessor(repositoryName, searchFactory));
+        this(context, repositoryName, planner, optimizer, searchFactory, version, enableFullTextSearch, null);
+    }
+
+    /**
+     * @param context the execution context for the repository
+     * @param repositoryName the name of the repository
+     * @param planner the planner that should be used
+     * @param optimizer the optimizer that should be used
+     * @param searchFactory the search factory for accessing the indexes
+     * @param version the Lucene version used by the indexes
+     * @param enableFullTextSearch true if full-text searching is enabled, or false otherwise
+     * @param planCache the cache of optimized plans; may be null if plans should not be cached
+     */
+    public LuceneQueryEngine( ExecutionContext context,
+                              String repositoryName,
+                              Planner planner,
+                              Optimizer optimizer,
+                              SearchFactoryImplementor searchFactory,
+                              Version version,
+                              boolean enableFullTextSearch,
+                              QueryPlanCache planCache ) {
+        this(context, repositoryName, planner, optimizer, searchFactory, version, enableFullTextSearch, planCache, null);
+    }
+
+    /**
+     * @param context the execution context for the repository
+     * @param repositoryName the name of the repository
+     * @param planner the planner that should be used
+     * @param optimizer the optimizer that should be used
+     * @param searchFactory the search factory for accessing the indexes
+     * @param version the Lucene version used by the indexes
+     * @param enableFullTextSearch true if full-text searching is enabled, or false otherwise
+     * @param planCache the cache of optimized plans; may be null if plans should not be cached
+     * @param searchExecutor the executor used to search the segments of the indexes concurrently; may be null if each query
+     *        should search the segments one at a time on the query thread
+     */
+    public LuceneQueryEngine( ExecutionContext context,
+                              String repositoryName,
+                              Planner planner,
+                              Optimizer optimizer,
+                              SearchFactoryImplementor searchFactory,
+                              Version version,
+                              boolean enableFullTextSearch,
+                              QueryPlanCache planCache,
+                              ExecutorService searchExecutor ) {
+        this(context, repositoryName, planner, optimizer, searchFactory, version, enableFullTextSearch, planCache, searchExecutor,
+             null);
+    }
+
+    /**
+     * @param context the execution context for the repository
+     * @param repositoryName the name of the repository
+     * @param planner the planner that should be used
+     * @param optimizer the optimizer that should be used
+     * @param searchFactory the search factory for accessing the indexes
+     * @param version the Lucene version used by the indexes
+     * @param enableFullTextSearch true if full-text searching is enabled, or false otherwise
+     * @param planCache the cache of optimized plans; may be null if plans should not be cached
+     * @param searchExecutor the executor used to search the segments of the indexes concurrently; may be null if each query
+     *        should search the segments one at a time on the query thread
+     * @param resultCache the cache of query results; may be null if results should not be cached
+     */
+    public LuceneQueryEngine( ExecutionContext context,
+                              String repositoryName,
+                              Planner planner,
+                              Optimizer optimizer,
+                              SearchFactoryImplementor searchFactory,
+                              Version version,
+                              boolean enableFullTextSearch,
+                              QueryPlanCache planCache,
+                              ExecutorService searchExecutor,
+                              QueryResultCache resultCache ) {
+        super(planner, optimizer, new LuceneQueryProcessor(repositoryName, searchFactory, searchExecutor), planCache);
         this.repositoryContext = context;
         // this.repositoryName = repositoryName;
         this.schema = new BasicLuceneSchema(this.repositoryContext, searchFactory, version, enableFullTextSearch);
         ((LuceneQueryProcessor)this.processor).initialize(schema);
+        this.resultCache = resultCache;
     }
 
     public void shutdown() {
@@ -113,6 +208,22 @@ public class LuceneQueryEngine extends QueryEngine {
         return this.schema;
     }
 
+    @Override
+    protected QueryResults process( QueryContext context,
+                                    QueryCommand query,
+                                    Statistics statistics,
+                                    PlanNode optimizedPlan ) {
+        QueryResultCache.ResultKey resultKey = resultCache != null ? resultCache.keyFor(context, query) : null;
+        if (resultKey == null) return super.process(context, query, statistics, optimizedPlan);
+        QueryResults results = resultCache.getResults(resultKey, statistics);
+        if (results != null) return results;
+        // Record the generation before reading the indexes, so that results made stale by concurrent changes are not kept ...
+        long generation = resultCache.generation();
+        results = super.process(context, query, statistics, optimizedPlan);
+        resultCache.putResults(resultKey, generation, context, optimizedPlan, results);
+        return results;
+    }
+
     /**
      * Execute the supplied query against the named workspace, using the supplied hints, schemata and variables.
      * 
@@ -138,7 +249,8 @@ public class LuceneQueryEngine extends QueryEngine {
                                    PlanHints hints,
                                    Map<String, Object> variables ) throws InvalidQueryException {
         final QueryContext queryContext = new QueryContext(context, repositoryCache, workspaceNames,
-                                                           overriddenNodeCachesByWorkspaceName, schemata, hints, null, variables);
+                                                           overriddenNodeCachesByWorkspaceName, schemata, hints, null, variables,
+                                                           schema.getStatistics());
         return new CancellableQuery() {
             private final Lock lock = new ReentrantLock();
             private QueryResults results;
@@ -171,12 +283,20 @@ public class LuceneQueryEngine extends QueryEngine {
     protected static class LuceneQueryProcessor extends QueryProcessor<LuceneProcessingContext> {
         private final SearchFactory searchFactory;
         private final String repositoryName;
+        private final ExecutorService searchExecutor;
         private LuceneSchema schema;
 
         protected LuceneQueryProcessor( String repositoryName,
                                         SearchFactory searchFactory ) {
+            this(repositoryName, searchFactory, null);
+        }
+
+        protected LuceneQueryProcessor( String repositoryName,
+                                        SearchFactory searchFactory,
+                                        ExecutorService searchExecutor ) {
             this.searchFactory = searchFactory;
             this.repositoryName = repositoryName;
+            this.searchExecutor = searchExecutor;
         }
 
         protected void initialize( LuceneSchema schema ) {
@@ -191,7 +311,7 @@ public class LuceneQueryEngine extends QueryEngine {
 
         @Override
         protected LuceneProcessingContext createProcessingContext( QueryContext queryContext ) {
-            return new LuceneProcessingContext(queryContext, repositoryName, searchFactory, schema);
+            return new LuceneProcessingContext(queryContext, repositoryName, searchFactory, schema, searchExecutor);
         }
 
         @Override
@@ -260,6 +380,20 @@ public class LuceneQueryEngine extends QueryEngine {
          */
         @Override
         public List<Object[]> execute() {
+            return tuplesFrom(iterator());
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The documents matching the Lucene query are found only as the returned iterator is advanced, so that consumers that need
+         * only some of the tuples do not pay the cost of loading the nodes for all of the matching documents.
+         * </p>
+         * 
+         * @see #execute()
+         */
+        @Override
+        public Iterator<Object[]> iterator() {
             assert andedConstraints != null;
             assert limit != null;
 
@@ -269,7 +403,7 @@ public class LuceneQueryEngine extends QueryEngine {
             // Check whether the constraints were such that no results should be returned ...
             if (queries.matchesNone()) {
                 // There are no results ...
-                return Collections.emptyList();
+                return Collections.<Object[]>emptyList().iterator();
             }
 
             // Otherwise, there are queries that should be executed ...
@@ -280,104 +414,397 @@ public class LuceneQueryEngine extends QueryEngine {
             }
 
             // Get the results from Lucene ...
-            QueryContext queryContext = getContext();
-            List<Object[]> tuples = null;
+            final QueryContext queryContext = getContext();
             final Columns columns = getColumns();
-            if (pushDownQuery instanceof MatchNoneQuery) {
+            if (pushDownQuery instanceof MatchNoneQuery || queryContext.isCancelled()) {
                 // There are no results ...
-                tuples = Collections.emptyList();
-            } else {
-                try {
-                    // Execute the query against the content indexes ...
-                    String indexName = queries.getPushDownIndexName();
-                    IndexSearcher searcher = processingContext.getSearcher(indexName);
-                    Logger logger = Logger.getLogger(getClass());
-                    if (logger.isTraceEnabled()) {
-                        Set<String> workspaceNames = processingContext.getWorkspaceNames();
-                        String repoName = processingContext.getRepositoryName();
-                        logger.trace("query \"{0}\" workspace(s) in \"{1}\" repository: {2}",
-                                     repoName,
-                                     workspaceNames,
-                                     pushDownQuery);
-                    }
-                    TupleCollector collector = schema.createTupleCollector(queryContext, columns);
-                    if (getContext().getHints().isExistsQuery) {
-                        // We only are looking for the existance of a tuple, so we want to stop as soon as we find one.
-                        // So wrap the collector with an ExistsTupleCollector that will throw an exception as soon as one tuple
-                        // is found.
-                        collector = new ExistsTupleCollector(collector);
-                        try {
-                            searcher.search(pushDownQuery, collector);
-                        } catch (ExistsTupleCollector.CompletedException e) {
-                            // This only happens when the query has a row limit of 1, and we've found a tuple.
-                            // So we should eat this exception and just continue ...
-                        }
-                    } else {
-                        searcher.search(pushDownQuery, collector);
-                    }
-                    tuples = collector.getTuples();
-                } catch (QueryCancelledIOException e) {
-                    assert queryContext.isCancelled();
-                    return Collections.emptyList();
-                } catch (IOException e) {
-                    throw new LuceneException(e);
+                return Collections.<Object[]>emptyList().iterator();
+            }
+            // When only the first tuples in the sorted order are needed, have Lucene find the corresponding documents
+            // (if it can evaluate the orderings) so that only the nodes for those documents are loaded ...
+            final boolean topTuplesOnly = !orderings.isEmpty() && limit.hasRowLimited() && !queryContext.getHints().isExistsQuery;
+            final Sort luceneSort = topTuplesOnly ? schema.createSort(orderings) : null;
+            final Iterator<Object[]> tuples;
+            try {
+                // Prepare the query against the content indexes ...
+                String indexName = queries.getPushDownIndexName();
+                IndexSearcher searcher = processingContext.getSearcher(indexName);
+                Logger logger = Logger.getLogger(getClass());
+                if (logger.isTraceEnabled()) {
+                    Set<String> workspaceNames = processingContext.getWorkspaceNames();
+                    String repoName = processingContext.getRepositoryName();
+                    logger.trace("query \"{0}\" workspace(s) in \"{1}\" repository: {2}", repoName, workspaceNames, pushDownQuery);
                 }
+                if (luceneSort != null) {
+                    TupleCollector collector = createTupleCollector();
+                    tuples = search(searcher, pushDownQuery, luceneSort, maxSortedTuples(), collector);
+                } else if (processingContext.canSearchInParallel() && searcher.getSubReaders().length > 1
+                           && !queryContext.getHints().isExistsQuery) {
+                    tuples = searchInParallel(searcher, pushDownQuery);
+                } else {
+                    TupleCollector collector = createTupleCollector();
+                    tuples = search(searcher, pushDownQuery, collector);
+                }
+            } catch (IOException e) {
+                throw new LuceneException(e);
             }
 
-            if (!tuples.isEmpty() && !queryContext.isCancelled()) {
-                Constraint postProcessingConstraints = queries.getPostProcessingConstraints();
-                if (postProcessingConstraints != null) {
-                    // Create a delegate processing component that will return the tuples we've already found ...
-                    final List<Object[]> allTuples = tuples;
-                    ProcessingComponent tuplesProcessor = new ProcessingComponent(queryContext, columns) {
-                        @Override
-                        public List<Object[]> execute() {
-                            return allTuples;
-                        }
-                    };
-                    if (queryContext.isCancelled()) return Collections.emptyList();
+            // Create a delegate processing component that will return the tuples as they are found ...
+            ProcessingComponent result = new ProcessingComponent(queryContext, columns) {
+                @Override
+                public List<Object[]> execute() {
+                    return tuplesFrom(tuples);
+                }
 
-                    // Create a processing component that will apply these constraints to the tuples we already found ...
-                    SelectComponent selector = new SelectComponent(tuplesProcessor, postProcessingConstraints,
-                                                                   queryContext.getVariables());
-                    tuples = selector.execute();
+                @Override
+                public Iterator<Object[]> iterator() {
+                    return tuples;
                 }
+            };
+
+            Constraint postProcessingConstraints = queries.getPostProcessingConstraints();
+            if (postProcessingConstraints != null) {
+                // Create a processing component that will apply these constraints to the tuples as they are found ...
+                result = new SelectComponent(result, postProcessingConstraints, queryContext.getVariables());
+            }
 
+            if (queryContext.getHints().isExistsQuery) {
+                // We only are looking for the existance of a tuple, so we want to stop as soon as we find one ...
+                result = new LimitComponent(result, Limit.NONE.withRowLimit(1));
+            } else if (!limit.isUnlimited()) {
+                if (topTuplesOnly && luceneSort == null) {
+                    // Lucene could not sort the documents, so keep only the first tuples while they are found ...
+                    result = createSortComponent(result);
+                }
                 // Limit the tuples ...
-                if (!limit.isUnlimited()) {
-                    int firstIndex = limit.getOffset();
-                    int maxRows = Math.min(tuples.size(), limit.getRowLimit());
-                    if (firstIndex > 0) {
-                        // There is an offset and we're limiting the number of rows ...
-                        if (firstIndex > tuples.size()) {
-                            tuples.clear(); // not enough rows, so return no tuples
-                        } else {
-                            // Find the tuples for the range of rows we're interested in ...
-                            tuples = tuples.subList(firstIndex, maxRows);
+                result = new LimitComponent(result, limit);
+            }
+            return result.iterator();
+        }
+
+        /**
+         * Create a collector for the tuples of the documents matching the query. When the query is
+         * {@link PlanHints#profile profiled}, the collector records the documents it scans in the access node's
+         * {@link ComponentProfile profile}.
+         * 
+         * @return the new collector; never null
+         */
+        protected TupleCollector createTupleCollector() {
+            TupleCollector collector = schema.createTupleCollector(getContext(), getColumns());
+            collector.setProfile(accessNode.getProperty(Property.PROFILE, ComponentProfile.class));
+            return collector;
+        }
+
+        /**
+         * Get the number of tuples that are needed to satisfy the limit of this access query.
+         * 
+         * @return the number of tuples
+         */
+        protected int maxSortedTuples() {
+            long maxTuples = (long)limit.getRowLimit() + limit.getOffset();
+            return (int)Math.min(maxTuples, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Create an iterator over the tuples for the documents matching the supplied query, in the order defined by the supplied
+         * sort. Lucene finds only the top documents without loading any nodes, and each of these documents is passed to the
+         * supplied collector only as tuples are needed. If some of the top documents do not result in tuples that are used (e.g.,
+         * because of post-processing constraints), the query is executed again to find more documents.
+         * 
+         * @param searcher the searcher; may not be null
+         * @param query the Lucene query; may not be null
+         * @param sort the Lucene sort; may not be null
+         * @param numHits the number of top documents that are expected to be needed
+         * @param collector the collector that creates the tuples; may not be null
+         * @return the iterator over the tuples; never null
+         */
+        protected Iterator<Object[]> search( final IndexSearcher searcher,
+                                             final Query query,
+                                             final Sort sort,
+                                             final int numHits,
+                                             final TupleCollector collector ) {
+            final IndexReader[] readers = searcher.getSubReaders();
+            final int[] docStarts = new int[readers.length];
+            for (int i = 1; i < readers.length; ++i) {
+                docStarts[i] = docStarts[i - 1] + readers[i - 1].maxDoc();
+            }
+            final List<Object[]> collected = collector.getTuples();
+            final QueryContext queryContext = getContext();
+            final ScoreDocScorer scorer = new ScoreDocScorer();
+            return new TupleIterator() {
+                private ScoreDoc[] hits;
+                private int hitIndex;
+                private int searchedHits;
+                private int totalHits;
+
+                @Override
+                protected Object[] findNext() {
+                    try {
+                        // Not every top document results in a tuple, so keep going until one is collected ...
+                        while (collected.isEmpty()) {
+                            if (hits == null || hitIndex >= hits.length) {
+                                if (hits != null && searchedHits >= totalHits) return null;
+                                // Find the next top documents, skipping those that were already processed ...
+                                int n = Math.max(1, Math.min(numHits, searcher.maxDoc()));
+                                if (hits != null) n = (int)Math.min(2L * searchedHits, totalHits);
+                                TopFieldCollector topDocs = TopFieldCollector.create(sort, n, false, true, false, true);
+                                searcher.search(query, topDocs);
+                                TopDocs docs = topDocs.topDocs(searchedHits);
+                                hits = docs.scoreDocs;
+                                hitIndex = 0;
+                                totalHits = docs.totalHits;
+                                searchedHits = Math.min(n, totalHits);
+                                if (hits.length == 0) return null;
+                            }
+                            ScoreDoc hit = hits[hitIndex++];
+                            int readerIndex = ReaderUtil.subIndex(hit.doc, docStarts);
+                            collector.setNextReader(readers[readerIndex], docStarts[readerIndex]);
+                            scorer.setScoreDoc(hit);
+                            collector.setScorer(scorer);
+                            collector.collect(hit.doc - docStarts[readerIndex]);
+                        }
+                        return collected.remove(0);
+                    } catch (QueryCancelledIOException e) {
+                        assert queryContext.isCancelled();
+                        return null;
+                    } catch (IOException e) {
+                        throw new LuceneException(e);
+                    }
+                }
+            };
+        }
+
+        /**
+         * Create an iterator that scores the documents matching the supplied query (one index segment at a time) only as tuples
+         * are needed, passing each matching document to the supplied collector to create the tuple.
+         * 
+         * @param searcher the searcher; may not be null
+         * @param query the Lucene query; may not be null
+         * @param collector the collector that creates the tuples; may not be null
+         * @return the iterator over the tuples; never null
+         * @throws IOException if there is a problem preparing the query
+         */
+        protected Iterator<Object[]> search( IndexSearcher searcher,
+                                             Query query,
+                                             final TupleCollector collector ) throws IOException {
+            final Weight weight = searcher.createNormalizedWeight(query);
+            final IndexReader[] readers = searcher.getSubReaders();
+            final List<Object[]> collected = collector.getTuples();
+            final QueryContext queryContext = getContext();
+            return new TupleIterator() {
+                private int readerIndex = -1;
+                private int docBase = 0;
+                private Scorer scorer;
+
+                @Override
+                protected Object[] findNext() {
+                    try {
+                        // Not every matching document results in a tuple, so keep going until one is collected ...
+                        while (collected.isEmpty()) {
+                            if (scorer == null) {
+                                // Move to the next segment ...
+                                if (readerIndex >= 0) docBase += readers[readerIndex].maxDoc();
+                                if (++readerIndex >= readers.length) return null;
+                                collector.setNextReader(readers[readerIndex], docBase);
+                                scorer = weight.scorer(readers[readerIndex], true, false);
+                                if (scorer == null) continue; // no matching documents in this segment
+                                collector.setScorer(scorer);
+                            }
+                            int doc = scorer.nextDoc();
+                            if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                                scorer = null;
+                            } else {
+                                collector.collect(doc);
+                            }
                         }
-                    } else {
-                        // We're limiting the number of rows but there is no offset ...
-                        tuples = tuples.subList(0, maxRows);
+                        return collected.remove(0);
+                    } catch (QueryCancelledIOException e) {
+                        assert queryContext.isCancelled();
+                        return null;
+                    } catch (IOException e) {
+                        throw new LuceneException(e);
                     }
                 }
+            };
+        }
+
+        /**
+         * Create an iterator over the tuples for the documents matching the supplied query, where the index segments are searched
+         * concurrently on the processing context's search thread pool. Each segment is searched by a {@link SegmentSearch} with
+         * its own collector, and the tuples are returned in the same order as {@link #search(IndexSearcher, Query, TupleCollector)}
+         * would return them. To bound the work that is wasted when not all tuples are consumed, only
+         * {@link #MAX_SEGMENTS_SEARCHED_AHEAD} segments are searched ahead of the segment whose tuples are being returned.
+         * 
+         * @param searcher the searcher; may not be null
+         * @param query the Lucene query; may not be null
+         * @return the iterator over the tuples; never null
+         * @throws IOException if there is a problem preparing the query
+         */
+        protected Iterator<Object[]> searchInParallel( IndexSearcher searcher,
+                                                       Query query ) throws IOException {
+            final Weight weight = searcher.createNormalizedWeight(query);
+            final IndexReader[] readers = searcher.getSubReaders();
+            final QueryContext queryContext = getContext();
+            return new TupleIterator() {
+                private final LinkedList<Future<List<Object[]>>> searches = new LinkedList<Future<List<Object[]>>>();
+                private int readerIndex = 0;
+                private int docBase = 0;
+                private Iterator<Object[]> segmentTuples;
+
+                @Override
+                protected Object[] findNext() {
+                    try {
+                        while (segmentTuples == null || !segmentTuples.hasNext()) {
+                            // Keep searching the next segments ahead of the consumer ...
+                            while (readerIndex < readers.length && searches.size() < MAX_SEGMENTS_SEARCHED_AHEAD) {
+                                TupleCollector collector = createTupleCollector();
+                                IndexReader reader = readers[readerIndex++];
+                                searches.add(processingContext.submitSearch(new SegmentSearch(processingContext, weight, reader,
+                                                                                              docBase, collector)));
+                                docBase += reader.maxDoc();
+                            }
+                            if (searches.isEmpty()) return null;
+                            segmentTuples = searches.removeFirst().get().iterator();
+                        }
+                        return segmentTuples.next();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new LuceneException(e);
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof QueryCancelledIOException) {
+                            assert queryContext.isCancelled();
+                            return null;
+                        }
+                        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                        throw new LuceneException(cause);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * The number of index segments that are searched concurrently (or queued to be searched) ahead of the segment whose tuples
+     * are being consumed, when {@link LuceneProcessingContext#canSearchInParallel() parallel searching} is enabled.
+     */
+    protected static final int MAX_SEGMENTS_SEARCHED_AHEAD = 8;
+
+    /**
+     * A search of a single index segment that collects the tuples for all of the matching documents in the segment. Each search
+     * uses its own collector, since collectors are not thread-safe. The search stops by throwing a
+     * {@link QueryCancelledIOException} when the query is cancelled (which the collector checks) or when the processing context
+     * is closed before all of the tuples were consumed.
+     */
+    protected static final class SegmentSearch implements Callable<List<Object[]>> {
+        private final LuceneProcessingContext processingContext;
+        private final Weight weight;
+        private final IndexReader reader;
+        private final int docBase;
+        private final TupleCollector collector;
+
+        protected SegmentSearch( LuceneProcessingContext processingContext,
+                                 Weight weight,
+                                 IndexReader reader,
+                                 int docBase,
+                                 TupleCollector collector ) {
+            this.processingContext = processingContext;
+            this.weight = weight;
+            this.reader = reader;
+            this.docBase = docBase;
+            this.collector = collector;
+        }
+
+        @Override
+        public List<Object[]> call() throws IOException {
+            if (processingContext.isClosing() || processingContext.getQueryContext().isCancelled()) {
+                throw new QueryCancelledIOException();
+            }
+            collector.setNextReader(reader, docBase);
+            Scorer scorer = weight.scorer(reader, true, false);
+            if (scorer != null) {
+                collector.setScorer(scorer);
+                int doc = scorer.nextDoc();
+                while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                    if (processingContext.isClosing()) throw new QueryCancelledIOException();
+                    collector.collect(doc);
+                    doc = scorer.nextDoc();
+                }
             }
+            return collector.getTuples();
+        }
+    }
+
+    /**
+     * A {@link Scorer} that supplies to a {@link TupleCollector} the score of a document that was already found.
+     */
+    protected static final class ScoreDocScorer extends Scorer {
+        private ScoreDoc scoreDoc;
+
+        protected ScoreDocScorer() {
+            super((Weight)null);
+        }
+
+        protected void setScoreDoc( ScoreDoc scoreDoc ) {
+            this.scoreDoc = scoreDoc;
+        }
+
+        @Override
+        public float score() {
+            return scoreDoc.score;
+        }
+
+        @Override
+        public int docID() {
+            return scoreDoc.doc;
+        }
 
-            return tuples;
+        @Override
+        public int nextDoc() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int advance( int target ) {
+            throw new UnsupportedOperationException();
         }
     }
 
     public static abstract class TupleCollector extends Collector {
 
         /**
-         * Get the tuples.
+         * Get the tuples that have been collected so far. The returned list is modified as more documents are collected, and
+         * callers may remove the tuples they have consumed from the front of the list.
          * 
          * @return the tuples; never null
          */
         public abstract List<Object[]> getTuples();
 
+        private ComponentProfile profile;
+
+        /**
+         * Set the profile in which the scanned documents are to be recorded.
+         * 
+         * @param profile the profile, or null if the documents are not to be recorded
+         */
+        public void setProfile( ComponentProfile profile ) {
+            this.profile = profile;
+        }
+
         @Override
         public final void collect( int doc ) throws IOException {
-            doCollect(doc);
+            if (profile == null) {
+                doCollect(doc);
+                return;
+            }
+            List<Object[]> tuples = getTuples();
+            int numTuples = tuples.size();
+            long start = System.nanoTime();
+            try {
+                doCollect(doc);
+            } finally {
+                profile.recordDocument(tuples.size() > numTuples, Math.abs(System.nanoTime() - start));
+            }
         }
 
         public abstract float doCollect( int doc ) throws IOException;
@@ -24,12 +24,15 @@
 package org.modeshape.jcr.query.lucene;
 
 import java.util.List;
+import org.apache.lucene.search.Sort;
 import org.hibernate.search.SearchFactory;
+import org.modeshape.jcr.query.IndexStatistics;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryIndexing;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.lucene.LuceneQueryEngine.TupleCollector;
 import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.Ordering;
 import org.modeshape.jcr.query.model.SelectorName;
 
 /**
@@ -54,7 +57,23 @@ public interface LuceneSchema extends QueryIndexing {
     public TupleCollector createTupleCollector( QueryContext queryContext,
                                                 Columns columns );
 
+    /**
+     * Create a Lucene {@link Sort} that orders the documents in the same way that the supplied orderings order the tuples, so
+     * that the first documents can be found without loading the nodes for all of the documents that match a query.
+     * 
+     * @param orderings the orderings of the access query; never null
+     * @return the sort, or null if the orderings cannot be evaluated by Lucene
+     */
+    public Sort createSort( List<Ordering> orderings );
+
     public LuceneQueryFactory createLuceneQueryFactory( QueryContext context,
                                                         SearchFactory searchFactory );
 
+    /**
+     * Get the statistics of the indexes that the optimizer can use to estimate the cost of a query plan.
+     * 
+     * @return the statistics, or null if no statistics are available
+     */
+    public IndexStatistics getStatistics();
+
 }
@@ -31,8 +31,18 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.util.Version;
 import org.hibernate.search.SearchFactory;
 import org.hibernate.search.backend.TransactionContext;
@@ -40,14 +50,18 @@ import org.hibernate.search.backend.spi.Work;
 import org.hibernate.search.backend.spi.WorkType;
 import org.hibernate.search.backend.spi.Worker;
 import org.hibernate.search.engine.spi.SearchFactoryImplementor;
+import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.JcrLexicon;
 import org.modeshape.jcr.NodeTypeSchemata;
 import org.modeshape.jcr.api.query.qom.Operator;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.query.IndexBatch;
 import org.modeshape.jcr.query.IndexRules;
+import org.modeshape.jcr.query.IndexStatistics;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.lucene.FieldUtil;
@@ -61,7 +75,12 @@ import org.modeshape.jcr.query.lucene.basic.NodeInfoIndex.FieldName;
 import org.modeshape.jcr.query.model.Comparison;
 import org.modeshape.jcr.query.model.Constraint;
 import org.modeshape.jcr.query.model.DynamicOperand;
+import org.modeshape.jcr.query.model.FullTextSearchScore;
 import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.NodeDepth;
+import org.modeshape.jcr.query.model.NodeLocalName;
+import org.modeshape.jcr.query.model.Order;
+import org.modeshape.jcr.query.model.Ordering;
 import org.modeshape.jcr.query.model.PropertyValue;
 import org.modeshape.jcr.query.model.SelectorName;
 import org.modeshape.jcr.query.model.SetCriteria;
@@ -80,6 +99,16 @@ import org.modeshape.jcr.value.binary.BinaryStoreException;
  */
 public class BasicLuceneSchema implements LuceneSchema {
 
+    /**
+     * The age after which the {@link #getStatistics() statistics} are collected again.
+     */
+    public static final long STATISTICS_MAX_AGE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The name of the thread pool used to collect the {@link #getStatistics() statistics} again once they are too old.
+     */
+    public static final String STATISTICS_THREAD_POOL = "modeshape-index-statistics";
+
     private final SearchFactoryImplementor searchFactory;
     private final Version version;
     private final NamespaceRegistry namespaces;
@@ -88,6 +117,14 @@ public class BasicLuceneSchema implements LuceneSchema {
     private final BinaryStore binaryStore;
     private final ValueFactory<String> stringFactory;
     private final boolean enableFullTextSearch;
+    private final AtomicReference<NodeInfoIndexStatistics> statistics = new AtomicReference<NodeInfoIndexStatistics>();
+    private final AtomicBoolean collectingStatistics = new AtomicBoolean(false);
+    /**
+     * Hibernate Search keeps the pending work of each transaction in a map that is not thread-safe, so this lock guards all uses
+     * of that map: the registration of the work of every transactional {@link TransactionContext}, and the completion of every
+     * transaction (including each application of a {@link Batch batch}), which removes the transaction's work from the map.
+     */
+    private final Lock batchLock = new ReentrantLock();
 
     /**
      * @param context the execution context for the repository
@@ -122,6 +159,55 @@ public class BasicLuceneSchema implements LuceneSchema {
         return new BasicLuceneQueryFactory(context, searchFactory, version);
     }
 
+    @Override
+    public IndexStatistics getStatistics() {
+        NodeInfoIndexStatistics current = statistics.get();
+        if (current != null && !current.isOlderThan(STATISTICS_MAX_AGE_IN_MILLIS)) return current;
+        // Only one thread collects the statistics; the others continue to use the existing statistics (if there are any) ...
+        if (!collectingStatistics.compareAndSet(false, true)) return current;
+        if (current == null) {
+            // There are no statistics yet, so collect them on this thread ...
+            try {
+                return collectStatistics();
+            } finally {
+                collectingStatistics.set(false);
+            }
+        }
+        // Otherwise, continue using the existing statistics while newer ones are collected in the background ...
+        try {
+            context.getCachedTreadPool(STATISTICS_THREAD_POOL).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        collectStatistics();
+                    } finally {
+                        collectingStatistics.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The repository is shutting down ...
+            collectingStatistics.set(false);
+        }
+        return current;
+    }
+
+    /**
+     * Collect the statistics of the index and make them the current statistics.
+     * 
+     * @return the current statistics; may be null if there are none and they could not be collected
+     */
+    protected NodeInfoIndexStatistics collectStatistics() {
+        List<String> trackedPropertyNames = new ArrayList<String>(2);
+        trackedPropertyNames.add(stringFrom(JcrLexicon.PRIMARY_TYPE));
+        trackedPropertyNames.add(stringFrom(JcrLexicon.MIXIN_TYPES));
+        NodeInfoIndexStatistics previous = statistics.get();
+        NodeInfoIndexStatistics collected = NodeInfoIndexStatistics.collect(searchFactory, trackedPropertyNames, previous);
+        if (collected == null) return previous;
+        statistics.set(collected);
+        return collected;
+    }
+
     protected final String stringFrom( Path path ) {
         if (path.isRoot()) return "/";
         StringBuilder sb = new StringBuilder();
@@ -388,7 +474,7 @@ public class BasicLuceneSchema implements LuceneSchema {
         NodeInfo nodeInfo = nodeInfo(id, workspace, path, primaryType, mixinTypes, properties.iterator(), schemata);
         logger.trace("index for \"{0}\" workspace: ADD    {1} ", workspace, nodeInfo);
         Work<NodeInfo> work = new Work<NodeInfo>(nodeInfo, id, WorkType.ADD);
-        searchFactory.getWorker().performWork(work, txnCtx);
+        performWork(work, txnCtx);
     }
 
     @Override
@@ -404,7 +490,7 @@ public class BasicLuceneSchema implements LuceneSchema {
         NodeInfo nodeInfo = nodeInfo(id, workspace, path, primaryType, mixinTypes, properties, schemata);
         logger.trace("index for \"{0}\" workspace: UPDATE {1} ", workspace, nodeInfo);
         Work<NodeInfo> work = new Work<NodeInfo>(nodeInfo, id, WorkType.UPDATE);
-        searchFactory.getWorker().performWork(work, txnCtx);
+        performWork(work, txnCtx);
     }
 
     @Override
@@ -415,14 +501,13 @@ public class BasicLuceneSchema implements LuceneSchema {
         // the indexes when the item is not removed from the database, while "DELETE" removes the item from the database
         // and from the indexes. But with how we're using Hibernate Search, there isn't much of a difference.
         // So use "PURGE" since it is semantically closer to what we want to do.
-        Worker worker = searchFactory.getWorker();
         for (NodeKey key : keys) {
             String id = key.toString();
 
             // Remove the node info ...
             Work<NodeInfo> work = new Work<NodeInfo>(NodeInfo.class, id, WorkType.PURGE);
             logger.trace("index for \"{0}\" workspace: REMOVE {1} ", workspace, id);
-            worker.performWork(work, txnCtx);
+            performWork(work, txnCtx);
         }
     }
 
@@ -432,7 +517,7 @@ public class BasicLuceneSchema implements LuceneSchema {
         // Remove all the node infos ...
         Work<Object> work = new Work<Object>(Object.class, (Serializable)null, WorkType.PURGE_ALL);
         logger.trace("index for \"{0}\" workspace: REMOVEALL", workspace);
-        searchFactory.getWorker().performWork(work, txnCtx);
+        performWork(work, txnCtx);
     }
 
     @Override
@@ -447,6 +532,128 @@ public class BasicLuceneSchema implements LuceneSchema {
         // Do nothing here, since this schema does not index binary information separately...
     }
 
+    @Override
+    public IndexBatch createBatch() {
+        return new Batch();
+    }
+
+    protected void performWork( Work<?> work,
+                                TransactionContext txnCtx ) {
+        Worker worker = searchFactory.getWorker();
+        if (txnCtx.isTransactionInProgress()) {
+            // The worker registers the work in its map of transactions ...
+            TransactionContext context = txnCtx instanceof Batch ? txnCtx : new LockingTransactionContext(txnCtx);
+            batchLock.lock();
+            try {
+                worker.performWork(work, context);
+            } finally {
+                batchLock.unlock();
+            }
+            if (txnCtx instanceof Batch) ((Batch)txnCtx).size++;
+        } else {
+            worker.performWork(work, txnCtx);
+        }
+    }
+
+    /**
+     * A batch that uses the same mechanism as a JTA transaction: Hibernate Search registers with the batch a
+     * {@link Synchronization} that holds the batch's pending work. Applying the batch completes that synchronization just as a
+     * committed transaction would: the Lucene documents are created before completion, and are then applied to the indexes when
+     * the synchronization is completed, which also removes it from the worker's map. The batch's later work is registered with a
+     * new synchronization. Only the registration and the completion use the worker's shared state, which is guarded by the
+     * {@link BasicLuceneSchema#batchLock lock}, so different batches create their documents concurrently.
+     */
+    @NotThreadSafe
+    protected final class Batch implements IndexBatch {
+        private Synchronization synchronization;
+        protected int size;
+
+        @Override
+        public boolean isTransactionInProgress() {
+            return true;
+        }
+
+        @Override
+        public Object getTransactionIdentifier() {
+            return this;
+        }
+
+        @Override
+        public void registerSynchronization( Synchronization synchronization ) {
+            this.synchronization = synchronization;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void apply() {
+            Synchronization synchronization = this.synchronization;
+            int size = this.size;
+            this.size = 0;
+            if (synchronization == null || size == 0) return;
+            this.synchronization = null;
+            int status = Status.STATUS_ROLLEDBACK;
+            try {
+                // Create the Lucene documents ...
+                synchronization.beforeCompletion();
+                status = Status.STATUS_COMMITTED;
+            } finally {
+                // Apply the documents to the indexes (or discard them) and remove the synchronization from the worker's map ...
+                batchLock.lock();
+                try {
+                    synchronization.afterCompletion(status);
+                } finally {
+                    batchLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link TransactionContext} that completes the synchronizations registered by Hibernate Search while holding the
+     * {@link BasicLuceneSchema#batchLock lock}, since the completion removes the synchronization from the worker's map.
+     */
+    protected final class LockingTransactionContext implements TransactionContext {
+        private final TransactionContext delegate;
+
+        protected LockingTransactionContext( TransactionContext delegate ) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isTransactionInProgress() {
+            return delegate.isTransactionInProgress();
+        }
+
+        @Override
+        public Object getTransactionIdentifier() {
+            return delegate.getTransactionIdentifier();
+        }
+
+        @Override
+        public void registerSynchronization( final Synchronization synchronization ) {
+            delegate.registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                    synchronization.beforeCompletion();
+                }
+
+                @Override
+                public void afterCompletion( int status ) {
+                    batchLock.lock();
+                    try {
+                        synchronization.afterCompletion(status);
+                    } finally {
+                        batchLock.unlock();
+                    }
+                }
+            });
+        }
+    }
+
     @Override
     public LuceneQuery createQuery( SelectorName selectorName,
                                     List<Constraint> andedConstraints,
@@ -505,6 +712,44 @@ public class BasicLuceneSchema implements LuceneSchema {
     @Override
     public TupleCollector createTupleCollector( QueryContext queryContext,
                                                 Columns columns ) {
-        return new BasicTupleCollector(queryContext, columns);
+        // The index rules define which property values can be read from the field cache. Session-specific schemata
+        // don't expose the rules, in which case the collector reads all values from the nodes ...
+        IndexRules rules = null;
+        if (queryContext.getSchemata() instanceof NodeTypeSchemata) {
+            rules = ((NodeTypeSchemata)queryContext.getSchemata()).getIndexRules();
+        }
+        return new BasicTupleCollector(queryContext, columns, rules, context);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only orderings by the full-text search score, the depth of the node, or the local name of the node are evaluated by Lucene,
+     * since these are the only orderings for which the indexed values are ordered exactly as the tuple values are compared. The
+     * orderings of an access query always apply to the access query's single selector.
+     * </p>
+     * 
+     * @see org.modeshape.jcr.query.lucene.LuceneSchema#createSort(java.util.List)
+     */
+    @Override
+    public Sort createSort( List<Ordering> orderings ) {
+        if (orderings.isEmpty()) return null;
+        SortField[] fields = new SortField[orderings.size()];
+        int i = 0;
+        for (Ordering ordering : orderings) {
+            DynamicOperand operand = ordering.getOperand();
+            boolean descending = ordering.order() == Order.DESCENDING;
+            if (operand instanceof FullTextSearchScore) {
+                // Lucene orders by descending score unless the sort field is reversed ...
+                fields[i++] = new SortField(null, SortField.SCORE, !descending);
+            } else if (operand instanceof NodeDepth) {
+                fields[i++] = new SortField(FieldName.DEPTH, SortField.INT, descending);
+            } else if (operand instanceof NodeLocalName) {
+                fields[i++] = new SortField(FieldName.LOCAL_NAME, SortField.STRING, descending);
+            } else {
+                return null;
+            }
+        }
+        return new Sort(fields);
     }
 }
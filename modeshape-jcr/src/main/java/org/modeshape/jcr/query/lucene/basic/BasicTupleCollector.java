@@ -25,17 +25,18 @@ package org.modeshape.jcr.query.lucene.basic;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.document.FieldSelector;
-import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.Bits;
 import org.infinispan.schematic.document.NotThreadSafe;
+import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.api.JcrConstants;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.NodeCache;
@@ -45,15 +46,19 @@ import org.modeshape.jcr.cache.PathCache;
 import org.modeshape.jcr.cache.RepositoryPathCache;
 import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.cache.document.WorkspaceCache;
+import org.modeshape.jcr.cache.document.WorkspacePathCache;
+import org.modeshape.jcr.query.IndexRules;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.QueryResults.Location;
 import org.modeshape.jcr.query.lucene.LuceneQueryEngine.TupleCollector;
 import org.modeshape.jcr.query.lucene.QueryCancelledIOException;
+import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.NameFactory;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.ValueFormatException;
 
 /**
  * The {@link BasicLuceneSchema} does not store any fields in the indexes, with the exception of the document identifier in which
@@ -61,10 +66,24 @@ import org.modeshape.jcr.value.Property;
  * for each tuple, this collector looks up the {@link CachedNode} for each tuple using the {@link QueryContext}'s
  * {@link QueryContext#getRepositoryCache() RepositoryCache} and then finds the property value for each required column.
  * <p>
+ * The name of the workspace is read for each document from Lucene's field cache, which for this (single-valued and not analyzed)
+ * field keeps only an ordinal per document plus the few distinct workspace names. The key of the node is unique to each document,
+ * so it is instead read from the stored fields of only those documents that are collected.
+ * </p>
+ * <p>
+ * The values of the properties that the {@link IndexRules index rules} {@link IndexRules#isColumn(Name) define as columns} are
+ * also read from the field cache rather than from the node. Only these properties are read from the field cache. Every tuple's
+ * {@link Location} requires the path of the node, and the pseudo-columns (the path, name, local name and depth of the node) are
+ * computed from that path. So when all of the other columns are read from the field cache and the workspace cache already knows
+ * the persisted path of the node, the node is not loaded at all. Otherwise the node is loaded, which also excludes documents for
+ * nodes that no longer exist. Either way, the session checks whether the node is accessible when it loads the node of each row.
+ * </p>
+ * <p>
  * In all cases, only the persisted workspace content appears in the indexes, so every Lucene {@link Query} only operates against
  * this persisted content. However, the query results might reflect either only the persisted workspace content or the session's
  * view of the content (which includes both its transient state as well as the persisted workspace content), depending upon
- * whether the QueryContext's NodeCache is actually a {@link WorkspaceCache} or a {@link SessionCache}.
+ * whether the QueryContext's NodeCache is actually a {@link WorkspaceCache} or a {@link SessionCache}. Therefore, the values are
+ * never read from the field cache when the session has transient changes.
  * </p>
  * <p>
  * This class's constructor prepares the information that's ncessary to access the tuple values as fast as possible.
@@ -73,29 +92,53 @@ import org.modeshape.jcr.value.Property;
 @NotThreadSafe
 public class BasicTupleCollector extends TupleCollector {
 
+    private static final FieldSelector ID_SELECTOR = new MapFieldSelector(NodeInfoIndex.FieldName.ID);
+
     private final QueryContext queryContext;
     private final Columns columns;
     private final LinkedList<Object[]> tuples = new LinkedList<Object[]>();
     private final RepositoryPathCache repositoryPathCache;
     private final Name[] columnNames;
     private final int numValues;
-    private final FieldSelector fieldSelector;
     private final int locationIndex;
     private final PseudoColumnAssignment[] assignments;
+    private final ColumnReader[] columnReaders;
+    private final boolean allValuesInColumns;
     private Scorer scorer;
     private IndexReader currentReader;
+    private StringIndex workspaces;
     private String lastWorkspaceName;
     private NodeCache lastWorkspaceCache;
     private PathCache lastWorkspacePathCache;
+    private boolean lastWorkspaceUsesColumns;
+    private WorkspacePathCache lastWorkspacePersistedPaths;
 
     public BasicTupleCollector( QueryContext queryContext,
                                 Columns columns ) {
+        this(queryContext, columns, null, null);
+    }
+
+    /**
+     * Create a collector that reads the values of the columns defined by the index rules from the field cache.
+     * 
+     * @param queryContext the context of the query; may not be null
+     * @param columns the columns of the tuples; may not be null
+     * @param indexRules the rules that define which properties are {@link IndexRules#isColumn(Name) columns}, or null if all
+     *        values are to be read from the nodes
+     * @param indexContext the context that was used to create the names in the indexes; may be null only if the
+     *        <code>indexRules</code> is null
+     */
+    public BasicTupleCollector( QueryContext queryContext,
+                                Columns columns,
+                                IndexRules indexRules,
+                                ExecutionContext indexContext ) {
         this.queryContext = queryContext;
         this.repositoryPathCache = new RepositoryPathCache();
         this.columns = columns;
         this.numValues = this.columns.getTupleSize();
         assert this.numValues >= 0;
         assert this.columns.getSelectorNames().size() == 1;
+        assert indexRules == null || indexContext != null;
         final String selectorName = this.columns.getSelectorNames().get(0);
         this.locationIndex = this.columns.getLocationIndex(selectorName);
 
@@ -108,6 +151,8 @@ public class BasicTupleCollector extends TupleCollector {
 
         // Get the names of the properties for each of the tuple fields ...
         this.columnNames = new Name[this.numValues];
+        ColumnReader[] columnReaders = new ColumnReader[this.numValues];
+        boolean useColumns = false;
         List<String> columnNames = this.columns.getColumnNames();
         NameFactory nameFactory = queryContext.getExecutionContext().getValueFactories().getNameFactory();
         for (String columnName : columnNames) {
@@ -122,29 +167,62 @@ public class BasicTupleCollector extends TupleCollector {
             } else if (JcrConstants.MODE_LOCAL_NAME.equals(propertyName)) {
                 assignments.add(new LocalNameColumnAssignment(index));
             } else if (JcrConstants.MODE_DEPTH.equals(propertyName)) {
-                assignments.add(new LocalNameColumnAssignment(index));
+                assignments.add(new NodeDepthColumnAssignment(index));
             } else {
                 Name propName = nameFactory.create(propertyName);
                 this.columnNames[index] = propName;
+                if (indexRules != null && indexRules.isColumn(propName)) {
+                    String type = this.columns.getColumnTypes().get(index);
+                    columnReaders[index] = columnReaderFor(propName, type, indexRules, indexContext);
+                    if (columnReaders[index] != null) useColumns = true;
+                }
             }
         }
 
         // Create the array of assignments ...
         this.assignments = assignments.toArray(new PseudoColumnAssignment[assignments.size()]);
 
-        // Create a FieldSelector that instructs Lucene to load only the ID field ...
-        final Set<String> loadedFieldNames = new HashSet<String>();
-        loadedFieldNames.add(NodeInfoIndex.FieldName.ID);
-        loadedFieldNames.add(NodeInfoIndex.FieldName.WORKSPACE);
-        this.fieldSelector = new FieldSelector() {
-            private static final long serialVersionUID = 1L;
-
-            @Override
-            public FieldSelectorResult accept( String fieldName ) {
-                // We only want to load the ID field; all other fields we want to get from the actual node ...
-                return loadedFieldNames.contains(fieldName) ? FieldSelectorResult.LOAD : FieldSelectorResult.NO_LOAD;
-            }
-        };
+        // Use the column readers only if there are any ...
+        this.columnReaders = useColumns ? columnReaders : null;
+
+        // Determine whether every value other than the pseudo-columns can be read from the field cache ...
+        boolean allValuesInColumns = true;
+        for (int i = 0; i != this.numValues && allValuesInColumns; ++i) {
+            if (this.columnNames[i] != null && columnReaders[i] == null) allValuesInColumns = false;
+        }
+        this.allValuesInColumns = allValuesInColumns;
+    }
+
+    /**
+     * Create the reader for the values of the supplied property, which is {@link IndexRules#isColumn(Name) defined as a column}.
+     * 
+     * @param propertyName the name of the property; may not be null
+     * @param type the name of the column's type, to which the values are converted; may not be null
+     * @param indexRules the index rules; may not be null
+     * @param indexContext the context that was used to create the names in the indexes; may not be null
+     * @return the column reader, or null if the values of the property cannot be read from the field cache
+     */
+    protected ColumnReader columnReaderFor( Name propertyName,
+                                            String type,
+                                            IndexRules indexRules,
+                                            ExecutionContext indexContext ) {
+        IndexRules.Rule rule = indexRules.getRule(propertyName);
+        if (rule.isSkipped()) return null; // the property is not in the indexes at all
+        String fieldName = propertyName.getString(indexContext.getNamespaceRegistry());
+        // The names in the indexes use the repository's namespace prefixes ...
+        TypeFactory<?> typeFactory = indexContext.getValueFactories().getTypeSystem().getTypeFactory(type);
+        switch (rule.getType()) {
+            case STRING:
+                return new StringColumnReader(fieldName, typeFactory);
+            case LONG:
+            case INT:
+                return new LongColumnReader(fieldName, typeFactory);
+            case DOUBLE:
+            case FLOAT:
+                return new DoubleColumnReader(fieldName, typeFactory);
+            default:
+                return null;
+        }
     }
 
     @Override
@@ -154,8 +232,15 @@ public class BasicTupleCollector extends TupleCollector {
 
     @Override
     public void setNextReader( IndexReader reader,
-                               int docBase ) {
+                               int docBase ) throws IOException {
+        if (reader == this.currentReader) return;
         this.currentReader = reader;
+        this.workspaces = FieldCache.DEFAULT.getStringIndex(reader, NodeInfoIndex.FieldName.WORKSPACE);
+        if (columnReaders != null) {
+            for (ColumnReader columnReader : columnReaders) {
+                if (columnReader != null) columnReader.setNextReader(reader);
+            }
+        }
     }
 
     @Override
@@ -166,11 +251,9 @@ public class BasicTupleCollector extends TupleCollector {
     @Override
     public float doCollect( int doc ) throws IOException {
         // int docId = doc + docOffset;
-        Object[] tuple = new Object[numValues];
-        Document document = currentReader.document(doc, fieldSelector);
         // Read the id ...
-        String id = document.get(NodeInfoIndex.FieldName.ID);
-        String workspace = document.get(NodeInfoIndex.FieldName.WORKSPACE);
+        String id = currentReader.document(doc, ID_SELECTOR).get(NodeInfoIndex.FieldName.ID);
+        String workspace = workspaces.lookup[workspaces.order[doc]];
         float score = scorer.score();
 
         if (queryContext.isCancelled()) throw new QueryCancelledIOException();
@@ -181,11 +264,36 @@ public class BasicTupleCollector extends TupleCollector {
             lastWorkspaceName = workspace;
             lastWorkspaceCache = queryContext.getNodeCache(workspace);
             lastWorkspacePathCache = repositoryPathCache.getPathCache(workspace, lastWorkspaceCache);
+            // The values in the indexes do not reflect any transient changes ...
+            boolean transientChanges = lastWorkspaceCache instanceof SessionCache
+                                       && ((SessionCache)lastWorkspaceCache).hasChanges();
+            lastWorkspaceUsesColumns = columnReaders != null && !transientChanges;
+            lastWorkspacePersistedPaths = null;
+            if (allValuesInColumns && !transientChanges) {
+                // Without transient changes, the persisted paths are the paths seen by the session ...
+                NodeCache persisted = lastWorkspaceCache;
+                if (persisted instanceof SessionCache) persisted = ((SessionCache)persisted).getWorkspace();
+                if (persisted instanceof WorkspaceCache) lastWorkspacePersistedPaths = ((WorkspaceCache)persisted).pathCache();
+            }
         }
+
+        if (lastWorkspacePersistedPaths != null) {
+            // All of the values are in the field cache, so the node is needed only if its path is not already known ...
+            Path path = lastWorkspacePersistedPaths.get(key);
+            if (path != null) {
+                Object[] tuple = tupleFromColumns(doc, key, path, score);
+                if (tuple != null) {
+                    tuples.add(tuple);
+                    return score;
+                }
+            }
+        }
+
         CachedNode node = lastWorkspaceCache.getNode(key);
 
         // Every tuple has the location ...
         if (node != null) {
+            Object[] tuple = new Object[numValues];
             try {
                 Path path = lastWorkspacePathCache.getPath(node);
                 Location location = new Location(path, key);
@@ -198,6 +306,14 @@ public class BasicTupleCollector extends TupleCollector {
                         // This value in the tuple is a pseudo-column, which we'll set later ...
                         continue;
                     }
+                    if (lastWorkspaceUsesColumns && columnReaders[i] != null) {
+                        // Read the value from the field cache ...
+                        Object value = columnReaders[i].getValue(doc);
+                        if (value != ColumnReader.NOT_IN_COLUMN) {
+                            tuple[i] = value;
+                            continue;
+                        }
+                    }
                     // Find the node's named property for this tuple column ...
                     Property property = node.getProperty(propName, lastWorkspaceCache);
                     if (property == null) continue;
@@ -224,6 +340,33 @@ public class BasicTupleCollector extends TupleCollector {
         return 0.0f;
     }
 
+    /**
+     * Create the tuple for the supplied document using only the values in the field cache.
+     * 
+     * @param doc the document number within the current index segment
+     * @param key the key of the node; may not be null
+     * @param path the path of the node; may not be null
+     * @param score the score of the document
+     * @return the tuple, or null if at least one of the values must be read from the node
+     */
+    private Object[] tupleFromColumns( int doc,
+                                       NodeKey key,
+                                       Path path,
+                                       float score ) {
+        Object[] tuple = new Object[numValues];
+        tuple[locationIndex] = new Location(path, key);
+        for (int i = 0; i != numValues; ++i) {
+            if (columnNames[i] == null) continue; // a pseudo-column
+            Object value = columnReaders[i].getValue(doc);
+            if (value == ColumnReader.NOT_IN_COLUMN) return null;
+            tuple[i] = value;
+        }
+        for (PseudoColumnAssignment assignment : assignments) {
+            assignment.setValue(tuple, path, score);
+        }
+        return tuple;
+    }
+
     @Override
     public List<Object[]> getTuples() {
         return tuples;
@@ -308,4 +451,115 @@ public class BasicTupleCollector extends TupleCollector {
             return new Integer(path.size());
         }
     }
+
+    /**
+     * A reader of the values of one property from the field cache of the current index segment.
+     */
+    protected static abstract class ColumnReader {
+        /**
+         * The value returned by {@link #getValue(int)} when the value must instead be read from the node.
+         */
+        protected static final Object NOT_IN_COLUMN = new Object();
+
+        protected final String fieldName;
+        private final TypeFactory<?> typeFactory;
+
+        protected ColumnReader( String fieldName,
+                                TypeFactory<?> typeFactory ) {
+            this.fieldName = fieldName;
+            this.typeFactory = typeFactory;
+        }
+
+        /**
+         * Convert the value read from the field cache into the same kind of value that the node would have.
+         * 
+         * @param value the value read from the field cache; may not be null
+         * @return the converted value, or {@link #NOT_IN_COLUMN} if the value cannot be converted
+         */
+        protected Object convert( Object value ) {
+            try {
+                return typeFactory.create(value);
+            } catch (ValueFormatException e) {
+                return NOT_IN_COLUMN;
+            }
+        }
+
+        /**
+         * Read the values for the documents in the supplied index segment.
+         * 
+         * @param reader the reader for the index segment; may not be null
+         * @throws IOException if there is a problem reading the values
+         */
+        public abstract void setNextReader( IndexReader reader ) throws IOException;
+
+        /**
+         * Get the value for the supplied document.
+         * 
+         * @param doc the document number within the current index segment
+         * @return the value, null if the document has no value, or {@link #NOT_IN_COLUMN} if the value must be read from the node
+         */
+        public abstract Object getValue( int doc );
+    }
+
+    protected static final class StringColumnReader extends ColumnReader {
+        private String[] values;
+
+        protected StringColumnReader( String fieldName,
+                                      TypeFactory<?> typeFactory ) {
+            super(fieldName, typeFactory);
+        }
+
+        @Override
+        public void setNextReader( IndexReader reader ) throws IOException {
+            values = FieldCache.DEFAULT.getStrings(reader, fieldName);
+        }
+
+        @Override
+        public Object getValue( int doc ) {
+            String value = values[doc];
+            return value != null ? convert(value) : null;
+        }
+    }
+
+    protected static final class LongColumnReader extends ColumnReader {
+        private long[] values;
+        private Bits docsWithValues;
+
+        protected LongColumnReader( String fieldName,
+                                    TypeFactory<?> typeFactory ) {
+            super(fieldName, typeFactory);
+        }
+
+        @Override
+        public void setNextReader( IndexReader reader ) throws IOException {
+            values = FieldCache.DEFAULT.getLongs(reader, fieldName, FieldCache.NUMERIC_UTILS_LONG_PARSER, true);
+            docsWithValues = FieldCache.DEFAULT.getDocsWithField(reader, fieldName);
+        }
+
+        @Override
+        public Object getValue( int doc ) {
+            return docsWithValues.get(doc) ? convert(Long.valueOf(values[doc])) : null;
+        }
+    }
+
+    protected static final class DoubleColumnReader extends ColumnReader {
+        private double[] values;
+        private Bits docsWithValues;
+
+        protected DoubleColumnReader( String fieldName,
+                                      TypeFactory<?> typeFactory ) {
+            super(fieldName, typeFactory);
+        }
+
+        @Override
+        public void setNextReader( IndexReader reader ) throws IOException {
+            values = FieldCache.DEFAULT.getDoubles(reader, fieldName, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER, true);
+            docsWithValues = FieldCache.DEFAULT.getDocsWithField(reader, fieldName);
+        }
+
+        @Override
+        public Object getValue( int doc ) {
+            return docsWithValues.get(doc) ? convert(Double.valueOf(values[doc])) : null;
+        }
+    }
 }
@@ -0,0 +1,309 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.lucene.basic;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.NumericUtils;
+import org.hibernate.search.SearchFactory;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.query.IndexStatistics;
+
+/**
+ * A snapshot of the {@link IndexStatistics statistics} of the {@link NodeInfoIndex node information index}. The number of nodes,
+ * the number of nodes with each of the values of a few {@link #collect(SearchFactory, Iterable, NodeInfoIndexStatistics) tracked properties} (such as the
+ * primary type and mixin types), and the number of nodes at each depth are all computed from the index's terms when the snapshot
+ * is created. The number of distinct values of other properties is computed from the terms of the property's field the first
+ * time it is requested, and is then remembered for the lifetime of the snapshot.
+ * <p>
+ * A snapshot keeps the {@link #getGeneration() generation} of the previous snapshot unless the number of nodes, or the number of
+ * nodes with any of the values of the tracked properties, has changed by more than a {@link #SIGNIFICANT_CHANGE_FACTOR factor}.
+ * </p>
+ * <p>
+ * Numeric values are indexed as several terms with different precisions, so only the full-precision terms of a numeric field are
+ * counted as distinct values. A field is considered numeric if its first term is a full-precision numeric term.
+ * </p>
+ */
+@ThreadSafe
+public class NodeInfoIndexStatistics implements IndexStatistics {
+
+    /**
+     * The maximum number of terms that are read when counting the distinct values of a single property. Properties with more
+     * distinct values are reported as having this number of distinct values.
+     */
+    protected static final int MAX_TERMS_SCANNED = 100000;
+
+    /**
+     * The factor by which a count must grow or shrink before the statistics are given a new generation.
+     */
+    protected static final long SIGNIFICANT_CHANGE_FACTOR = 2L;
+
+    private static final Logger LOGGER = Logger.getLogger(NodeInfoIndexStatistics.class);
+
+    /**
+     * Collect the statistics of the node information index.
+     * 
+     * @param searchFactory the search factory for accessing the index; may not be null
+     * @param trackedPropertyNames the names of the properties for which the number of nodes with each value is to be tracked;
+     *        may not be null
+     * @param previous the previously collected statistics; may be null if there are none
+     * @return the statistics, or null if they could not be read from the index
+     */
+    public static NodeInfoIndexStatistics collect( SearchFactory searchFactory,
+                                                   Iterable<String> trackedPropertyNames,
+                                                   NodeInfoIndexStatistics previous ) {
+        IndexReader reader = null;
+        try {
+            reader = searchFactory.getIndexReaderAccessor().open(NodeInfoIndex.INDEX_NAME);
+            Map<String, Map<String, Long>> valueCounts = new HashMap<String, Map<String, Long>>();
+            for (String propertyName : trackedPropertyNames) {
+                valueCounts.put(propertyName, valueCountsFor(reader, propertyName));
+            }
+            long nodeCount = reader.numDocs();
+            long generation = 0L;
+            if (previous != null) {
+                generation = previous.generation;
+                if (previous.differsSignificantlyFrom(nodeCount, valueCounts)) ++generation;
+            }
+            return new NodeInfoIndexStatistics(searchFactory, generation, nodeCount, valueCounts, depthCountsFor(reader));
+        } catch (IOException e) {
+            LOGGER.debug(e, "Unable to read the statistics of the '{0}' index", NodeInfoIndex.INDEX_NAME);
+        } catch (RuntimeException e) {
+            LOGGER.debug(e, "Unable to read the statistics of the '{0}' index", NodeInfoIndex.INDEX_NAME);
+        } finally {
+            if (reader != null) searchFactory.getIndexReaderAccessor().close(reader);
+        }
+        return null;
+    }
+
+    private final SearchFactory searchFactory;
+    private final long generation;
+    private final long nodeCount;
+    private final Map<String, Map<String, Long>> valueCounts;
+    private final long[] nodeCountsByDepth;
+    private final ConcurrentMap<String, Long> distinctValueCounts = new ConcurrentHashMap<String, Long>();
+    private final long created = System.currentTimeMillis();
+
+    protected NodeInfoIndexStatistics( SearchFactory searchFactory,
+                                       long generation,
+                                       long nodeCount,
+                                       Map<String, Map<String, Long>> valueCounts,
+                                       long[] nodeCountsByDepth ) {
+        this.searchFactory = searchFactory;
+        this.generation = generation;
+        this.nodeCount = nodeCount;
+        this.valueCounts = valueCounts;
+        this.nodeCountsByDepth = nodeCountsByDepth;
+    }
+
+    /**
+     * Determine whether these statistics were collected more than the supplied number of milliseconds ago.
+     * 
+     * @param maxAgeInMillis the maximum age in milliseconds
+     * @return true if these statistics are older than the supplied age, or false otherwise
+     */
+    public boolean isOlderThan( long maxAgeInMillis ) {
+        return System.currentTimeMillis() - created > maxAgeInMillis;
+    }
+
+    /**
+     * Determine whether the supplied counts differ significantly from those in these statistics.
+     * 
+     * @param nodeCount the new number of nodes
+     * @param valueCounts the new number of nodes with each value of the tracked properties; may not be null
+     * @return true if any of the counts grew or shrank by more than the {@link #SIGNIFICANT_CHANGE_FACTOR}, or false otherwise
+     */
+    protected boolean differsSignificantlyFrom( long nodeCount,
+                                                Map<String, Map<String, Long>> valueCounts ) {
+        if (isSignificantChange(this.nodeCount, nodeCount)) return true;
+        if (!this.valueCounts.keySet().equals(valueCounts.keySet())) return true;
+        for (Map.Entry<String, Map<String, Long>> entry : valueCounts.entrySet()) {
+            Map<String, Long> oldCounts = this.valueCounts.get(entry.getKey());
+            Map<String, Long> newCounts = entry.getValue();
+            for (Map.Entry<String, Long> count : newCounts.entrySet()) {
+                Long oldCount = oldCounts.get(count.getKey());
+                if (isSignificantChange(oldCount != null ? oldCount.longValue() : 0L, count.getValue())) return true;
+            }
+            for (Map.Entry<String, Long> oldCount : oldCounts.entrySet()) {
+                if (!newCounts.containsKey(oldCount.getKey()) && isSignificantChange(oldCount.getValue(), 0L)) return true;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean isSignificantChange( long oldCount,
+                                                  long newCount ) {
+        // Add one to each count, so that small changes from zero (e.g., 0 to 1) are not significant ...
+        long smaller = Math.min(oldCount, newCount) + 1L;
+        long larger = Math.max(oldCount, newCount) + 1L;
+        return larger > smaller * SIGNIFICANT_CHANGE_FACTOR;
+    }
+
+    @Override
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public long getValueCount( String propertyName,
+                               String value ) {
+        Map<String, Long> counts = valueCounts.get(propertyName);
+        if (counts == null) return UNKNOWN;
+        Long count = counts.get(value);
+        return count != null ? count.longValue() : 0L;
+    }
+
+    @Override
+    public long getDistinctValueCount( String propertyName ) {
+        Map<String, Long> counts = valueCounts.get(propertyName);
+        if (counts != null) return counts.size();
+        Long count = distinctValueCounts.get(propertyName);
+        if (count == null) {
+            count = UNKNOWN;
+            IndexReader reader = null;
+            try {
+                reader = searchFactory.getIndexReaderAccessor().open(NodeInfoIndex.INDEX_NAME);
+                count = distinctValueCountFor(reader, propertyName);
+            } catch (IOException e) {
+                LOGGER.debug(e, "Unable to count the values of the '{0}' field in the '{1}' index", propertyName,
+                             NodeInfoIndex.INDEX_NAME);
+            } catch (RuntimeException e) {
+                LOGGER.debug(e, "Unable to count the values of the '{0}' field in the '{1}' index", propertyName,
+                             NodeInfoIndex.INDEX_NAME);
+            } finally {
+                if (reader != null) searchFactory.getIndexReaderAccessor().close(reader);
+            }
+            distinctValueCounts.putIfAbsent(propertyName, count);
+        }
+        return count.longValue();
+    }
+
+    @Override
+    public long getNodeCountAtDepth( int depth ) {
+        if (depth < 0 || depth >= nodeCountsByDepth.length) return 0L;
+        return nodeCountsByDepth[depth];
+    }
+
+    @Override
+    public int getMaximumDepth() {
+        return Math.max(nodeCountsByDepth.length - 1, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Index statistics (generation=" + generation + ", nodes=" + nodeCount + ", maxDepth=" + getMaximumDepth() + ", tracked properties="
+               + valueCounts.keySet() + ")";
+    }
+
+    protected static Map<String, Long> valueCountsFor( IndexReader reader,
+                                                       String fieldName ) throws IOException {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        TermEnum terms = reader.terms(new Term(fieldName, ""));
+        try {
+            do {
+                Term term = terms.term();
+                if (term == null || !fieldName.equals(term.field())) break;
+                counts.put(term.text(), Long.valueOf(terms.docFreq()));
+            } while (terms.next() && counts.size() < MAX_TERMS_SCANNED);
+        } finally {
+            terms.close();
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    protected static long[] depthCountsFor( IndexReader reader ) throws IOException {
+        long[] counts = new long[0];
+        // Depths are indexed as numeric fields, so read only the full-precision terms ...
+        TermEnum terms = reader.terms(new Term(NodeInfoIndex.FieldName.DEPTH, String.valueOf(NumericUtils.SHIFT_START_INT)));
+        try {
+            do {
+                Term term = terms.term();
+                if (term == null || !NodeInfoIndex.FieldName.DEPTH.equals(term.field())) break;
+                String text = term.text();
+                if (text.length() == 0 || text.charAt(0) != NumericUtils.SHIFT_START_INT) break;
+                int depth = NumericUtils.prefixCodedToInt(text);
+                if (depth < 0) continue;
+                if (depth >= counts.length) {
+                    long[] larger = new long[depth + 1];
+                    System.arraycopy(counts, 0, larger, 0, counts.length);
+                    counts = larger;
+                }
+                counts[depth] += terms.docFreq();
+            } while (terms.next());
+        } finally {
+            terms.close();
+        }
+        return counts;
+    }
+
+    protected static long distinctValueCountFor( IndexReader reader,
+                                                 String fieldName ) throws IOException {
+        long count = 0L;
+        char numericPrefix = 0;
+        TermEnum terms = reader.terms(new Term(fieldName, ""));
+        try {
+            do {
+                Term term = terms.term();
+                if (term == null || !fieldName.equals(term.field())) break;
+                String text = term.text();
+                if (count == 0L && isFullPrecisionNumericTerm(text)) {
+                    // The terms of numeric fields are sorted so that the full-precision terms are first ...
+                    numericPrefix = text.charAt(0);
+                }
+                if (numericPrefix != 0 && (text.length() == 0 || text.charAt(0) != numericPrefix)) break;
+                ++count;
+            } while (terms.next() && count < MAX_TERMS_SCANNED);
+        } finally {
+            terms.close();
+        }
+        return count;
+    }
+
+    protected static boolean isFullPrecisionNumericTerm( String text ) {
+        if (text.length() == 0) return false;
+        char first = text.charAt(0);
+        int expectedLength = 0;
+        if (first == NumericUtils.SHIFT_START_LONG) expectedLength = NumericUtils.BUF_SIZE_LONG;
+        else if (first == NumericUtils.SHIFT_START_INT) expectedLength = NumericUtils.BUF_SIZE_INT;
+        if (text.length() != expectedLength) return false;
+        for (int i = 1; i != text.length(); ++i) {
+            // Numeric terms use 7 bits per character ...
+            if (text.charAt(i) > 0x7f) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.api.query.qom.Operator;
+import org.modeshape.jcr.query.IndexStatistics;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.And;
+import org.modeshape.jcr.query.model.Between;
+import org.modeshape.jcr.query.model.ChildNode;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNode;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.DynamicOperand;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.FullTextSearch;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.NodeDepth;
+import org.modeshape.jcr.query.model.Not;
+import org.modeshape.jcr.query.model.Or;
+import org.modeshape.jcr.query.model.PropertyValue;
+import org.modeshape.jcr.query.model.SameNode;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.model.SetCriteria;
+import org.modeshape.jcr.query.model.StaticOperand;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.value.ValueFormatException;
+
+/**
+ * A component that uses the {@link IndexStatistics index statistics} to estimate the number of tuples produced by the ACCESS and
+ * JOIN nodes of a query plan.
+ * <p>
+ * The number of tuples produced by an ACCESS node is the total number of nodes multiplied by the selectivity of each of the
+ * criteria in the SELECT nodes below it. Comparisons of the primary type and mixin types (which are how the criteria of the node
+ * type views are expressed) use the number of nodes with each type, equality comparisons of other properties use the number of
+ * distinct values of the property, and path and depth criteria use the number of nodes at each depth. All other criteria use
+ * fixed selectivities.
+ * </p>
+ * <p>
+ * The number of tuples produced by a JOIN node is the product of the number of tuples on each side, multiplied by the probability
+ * that a pair of tuples satisfies the join condition.
+ * </p>
+ */
+@Immutable
+public class CardinalityEstimator {
+
+    /** The selectivity of an equality comparison when the number of distinct values is not known. */
+    protected static final double EQUALITY_SELECTIVITY = 0.1d;
+    /** The selectivity of a range comparison. */
+    protected static final double RANGE_SELECTIVITY = 1.0d / 3.0d;
+    /** The selectivity of a BETWEEN criteria. */
+    protected static final double BETWEEN_SELECTIVITY = 0.25d;
+    /** The selectivity of a LIKE comparison. */
+    protected static final double LIKE_SELECTIVITY = 0.25d;
+    /** The selectivity of a full-text search criteria. */
+    protected static final double FULL_TEXT_SELECTIVITY = 0.1d;
+    /** The selectivity of all other criteria. */
+    protected static final double DEFAULT_SELECTIVITY = 0.5d;
+
+    private final QueryContext context;
+    private final IndexStatistics statistics;
+    private final double nodeCount;
+
+    /**
+     * Create an estimator that uses the statistics in the supplied context.
+     * 
+     * @param context the query context; may not be null
+     * @param statistics the index statistics; may not be null
+     */
+    public CardinalityEstimator( QueryContext context,
+                                 IndexStatistics statistics ) {
+        this.context = context;
+        this.statistics = statistics;
+        this.nodeCount = Math.max(statistics.getNodeCount(), 1L);
+    }
+
+    /**
+     * Estimate the number of tuples produced by the supplied ACCESS or JOIN node. The estimate of a node is computed only once and
+     * recorded in the node's {@link Property#ESTIMATED_CARDINALITY} property.
+     * 
+     * @param node the ACCESS or JOIN node; may not be null
+     * @return the estimated number of tuples, or {@link IndexStatistics#UNKNOWN} if the number of tuples cannot be estimated
+     */
+    public long estimate( PlanNode node ) {
+        Long existing = node.getProperty(Property.ESTIMATED_CARDINALITY, Long.class);
+        if (existing != null) return existing.longValue();
+        long estimate = IndexStatistics.UNKNOWN;
+        if (node.is(Type.ACCESS)) {
+            estimate = estimateAccess(node);
+        } else if (node.is(Type.JOIN) && node.getChildCount() == 2) {
+            long left = estimate(node.getFirstChild());
+            long right = estimate(node.getLastChild());
+            if (left != IndexStatistics.UNKNOWN && right != IndexStatistics.UNKNOWN) {
+                JoinType joinType = node.getProperty(Property.JOIN_TYPE, JoinType.class);
+                JoinCondition condition = node.getProperty(Property.JOIN_CONDITION, JoinCondition.class);
+                estimate = estimateJoin(joinType, condition, left, right);
+            }
+        }
+        if (estimate != IndexStatistics.UNKNOWN) node.setProperty(Property.ESTIMATED_CARDINALITY, estimate);
+        return estimate;
+    }
+
+    /**
+     * Estimate the number of tuples produced by a join of the supplied type and condition.
+     * 
+     * @param joinType the type of join; may be null if the join is an inner join
+     * @param condition the join condition; may be null if every pair of tuples satisfies the join
+     * @param left the number of tuples on the left side of the join
+     * @param right the number of tuples on the right side of the join
+     * @return the estimated number of tuples; never negative
+     */
+    public long estimateJoin( JoinType joinType,
+                              JoinCondition condition,
+                              long left,
+                              long right ) {
+        double product = (double)left * (double)right;
+        double matching = product;
+        if (joinType != JoinType.CROSS) {
+            if (condition instanceof EquiJoinCondition) {
+                EquiJoinCondition equi = (EquiJoinCondition)condition;
+                long distinct1 = statistics.getDistinctValueCount(equi.getProperty1Name());
+                long distinct2 = statistics.getDistinctValueCount(equi.getProperty2Name());
+                long distinct = Math.max(distinct1, distinct2);
+                if (distinct > 0L) {
+                    matching = product / distinct;
+                } else {
+                    matching = Math.max(left, right);
+                }
+            } else if (condition instanceof SameNodeJoinCondition || condition instanceof ChildNodeJoinCondition) {
+                // Each node is the same node as (or the child of) exactly one node ...
+                matching = product / nodeCount;
+            } else if (condition instanceof DescendantNodeJoinCondition) {
+                // Each node is the descendant of as many nodes as its depth ...
+                matching = product * averageDepth() / nodeCount;
+            }
+        }
+        if (joinType == JoinType.LEFT_OUTER) matching = Math.max(matching, left);
+        else if (joinType == JoinType.RIGHT_OUTER) matching = Math.max(matching, right);
+        else if (joinType == JoinType.FULL_OUTER) matching = Math.max(matching, (double)left + (double)right);
+        return toCount(matching);
+    }
+
+    protected long estimateAccess( PlanNode access ) {
+        if (access.hasProperty(Property.ACCESS_NO_RESULTS)) return 0L;
+        double estimate = nodeCount;
+        // The nodes below an ACCESS node form a single chain ...
+        for (PlanNode node = access.getFirstChild(); node != null; node = node.getFirstChild()) {
+            if (node.getChildCount() > 1) return IndexStatistics.UNKNOWN;
+            switch (node.getType()) {
+                case PROJECT:
+                case SORT:
+                case SOURCE:
+                    break;
+                case SELECT:
+                    estimate *= selectivityOf(node.getProperty(Property.SELECT_CRITERIA, Constraint.class));
+                    break;
+                case LIMIT:
+                    Integer limit = node.getProperty(Property.LIMIT_COUNT, Integer.class);
+                    if (limit != null) estimate = Math.min(estimate, limit.doubleValue());
+                    break;
+                default:
+                    // Some other kind of node that we don't know how to estimate ...
+                    return IndexStatistics.UNKNOWN;
+            }
+        }
+        return toCount(estimate);
+    }
+
+    protected double selectivityOf( Constraint constraint ) {
+        if (constraint instanceof And) {
+            And and = (And)constraint;
+            return selectivityOf(and.left()) * selectivityOf(and.right());
+        }
+        if (constraint instanceof Or) {
+            Or or = (Or)constraint;
+            double left = selectivityOf(or.left());
+            double right = selectivityOf(or.right());
+            return left + right - left * right;
+        }
+        if (constraint instanceof Not) {
+            return 1.0d - selectivityOf(((Not)constraint).getConstraint());
+        }
+        if (constraint instanceof Comparison) {
+            Comparison comparison = (Comparison)constraint;
+            return selectivityOf(comparison.getOperand1(), comparison.operator(), comparison.getOperand2());
+        }
+        if (constraint instanceof SetCriteria) {
+            SetCriteria criteria = (SetCriteria)constraint;
+            double selectivity = 0.0d;
+            for (StaticOperand value : criteria.rightOperands()) {
+                selectivity += selectivityOf(criteria.leftOperand(), Operator.EQUAL_TO, value);
+            }
+            return Math.min(selectivity, 1.0d);
+        }
+        if (constraint instanceof Between) {
+            return BETWEEN_SELECTIVITY;
+        }
+        if (constraint instanceof FullTextSearch) {
+            return FULL_TEXT_SELECTIVITY;
+        }
+        if (constraint instanceof SameNode) {
+            return 1.0d / nodeCount;
+        }
+        if (constraint instanceof ChildNode) {
+            // The average number of children of the nodes at the parent's depth ...
+            int depth = depthOf(((ChildNode)constraint).getParentPath());
+            if (depth < 0) return EQUALITY_SELECTIVITY;
+            return ratio(statistics.getNodeCountAtDepth(depth + 1), statistics.getNodeCountAtDepth(depth)) / nodeCount;
+        }
+        if (constraint instanceof DescendantNode) {
+            // The average number of descendants of the nodes at the ancestor's depth ...
+            int depth = depthOf(((DescendantNode)constraint).getAncestorPath());
+            if (depth < 0) return DEFAULT_SELECTIVITY;
+            long descendants = 0L;
+            for (int i = depth + 1; i <= statistics.getMaximumDepth(); ++i) {
+                descendants += statistics.getNodeCountAtDepth(i);
+            }
+            return ratio(descendants, statistics.getNodeCountAtDepth(depth)) / nodeCount;
+        }
+        return DEFAULT_SELECTIVITY;
+    }
+
+    protected double selectivityOf( DynamicOperand operand,
+                                    Operator operator,
+                                    StaticOperand value ) {
+        switch (operator) {
+            case EQUAL_TO:
+                return equalitySelectivityOf(operand, value);
+            case NOT_EQUAL_TO:
+                return 1.0d - equalitySelectivityOf(operand, value);
+            case LIKE:
+                return LIKE_SELECTIVITY;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQUAL_TO:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQUAL_TO:
+                if (operand instanceof NodeDepth && value instanceof Literal) {
+                    Object depth = ((Literal)value).value();
+                    if (depth instanceof Number) return depthSelectivityOf(operator, ((Number)depth).intValue());
+                }
+                return RANGE_SELECTIVITY;
+        }
+        return DEFAULT_SELECTIVITY;
+    }
+
+    protected double equalitySelectivityOf( DynamicOperand operand,
+                                            StaticOperand value ) {
+        if (operand instanceof PropertyValue) {
+            String propertyName = ((PropertyValue)operand).getPropertyName();
+            if (value instanceof Literal) {
+                Object literal = ((Literal)value).value();
+                if (literal != null) {
+                    long count = statistics.getValueCount(propertyName, context.getTypeSystem().asString(literal));
+                    if (count != IndexStatistics.UNKNOWN) return Math.min(count / nodeCount, 1.0d);
+                }
+            }
+            long distinct = statistics.getDistinctValueCount(propertyName);
+            if (distinct > 0L) return 1.0d / distinct;
+            return EQUALITY_SELECTIVITY;
+        }
+        if (operand instanceof NodeDepth && value instanceof Literal) {
+            Object depth = ((Literal)value).value();
+            if (depth instanceof Number) return statistics.getNodeCountAtDepth(((Number)depth).intValue()) / nodeCount;
+        }
+        return EQUALITY_SELECTIVITY;
+    }
+
+    protected double depthSelectivityOf( Operator operator,
+                                         int depth ) {
+        long count = 0L;
+        for (int i = 0; i <= statistics.getMaximumDepth(); ++i) {
+            boolean matches = false;
+            switch (operator) {
+                case LESS_THAN:
+                    matches = i < depth;
+                    break;
+                case LESS_THAN_OR_EQUAL_TO:
+                    matches = i <= depth;
+                    break;
+                case GREATER_THAN:
+                    matches = i > depth;
+                    break;
+                case GREATER_THAN_OR_EQUAL_TO:
+                    matches = i >= depth;
+                    break;
+                default:
+                    break;
+            }
+            if (matches) count += statistics.getNodeCountAtDepth(i);
+        }
+        return Math.min(count / nodeCount, 1.0d);
+    }
+
+    protected double averageDepth() {
+        double total = 0.0d;
+        long count = 0L;
+        for (int i = 0; i <= statistics.getMaximumDepth(); ++i) {
+            long atDepth = statistics.getNodeCountAtDepth(i);
+            total += (double)i * atDepth;
+            count += atDepth;
+        }
+        return count > 0L ? total / count : 1.0d;
+    }
+
+    protected int depthOf( String path ) {
+        try {
+            return context.getExecutionContext().getValueFactories().getPathFactory().create(path).size();
+        } catch (ValueFormatException e) {
+            return -1;
+        }
+    }
+
+    private static double ratio( long numerator,
+                                 long denominator ) {
+        return denominator > 0L ? (double)numerator / denominator : numerator;
+    }
+
+    private static long toCount( double estimate ) {
+        if (estimate <= 0.0d) return 0L;
+        if (estimate >= Long.MAX_VALUE) return Long.MAX_VALUE;
+        return (long)Math.ceil(estimate);
+    }
+}
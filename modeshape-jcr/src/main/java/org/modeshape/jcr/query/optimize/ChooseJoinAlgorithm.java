@@ -33,6 +33,7 @@ import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
 import org.modeshape.jcr.query.model.DynamicOperand;
 import org.modeshape.jcr.query.model.EquiJoinCondition;
 import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
 import org.modeshape.jcr.query.model.Order;
 import org.modeshape.jcr.query.model.Ordering;
 import org.modeshape.jcr.query.model.PropertyValue;
@@ -42,15 +43,16 @@ import org.modeshape.jcr.query.plan.JoinAlgorithm;
 import org.modeshape.jcr.query.plan.PlanNode;
 import org.modeshape.jcr.query.plan.PlanNode.Property;
 import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.process.HashJoinComponent;
 
 /**
  * An {@link OptimizerRule optimizer rule} that choose the appropriate join algorithm and sets up any prerequisites, based upon
  * the {@link JoinCondition}.
  * <p>
- * There are two static instances that can be used (or the equivalent can be instantiated or subclassed using the constructor):
- * one that only uses {@link JoinAlgorithm#NESTED_LOOP nested-loop}, and another that will attempt to use
- * {@link JoinAlgorithm#MERGE merge} where possible. Both instances ignore any existing {@link Property#JOIN_ALGORITHM} property
- * value set on the JOIN node.
+ * There are three static instances that can be used (or the equivalent can be instantiated or subclassed using the
+ * constructor): one that only uses {@link JoinAlgorithm#NESTED_LOOP nested-loop}, another that will attempt to use
+ * {@link JoinAlgorithm#MERGE merge} where possible, and a third that will use {@link JoinAlgorithm#HASH hash} where possible. All
+ * instances ignore any existing {@link Property#JOIN_ALGORITHM} property value set on the JOIN node.
  * </p>
  * <p>
  * For example, the {@link #USE_ONLY_NESTED_JOIN_ALGORITHM} instance will convert this simple tree:
@@ -106,17 +108,43 @@ import org.modeshape.jcr.query.plan.PlanNode.Type;
  * </li>
  * </ol>
  * </p>
+ * <p>
+ * The {@link #USE_HASH_JOIN_ALGORITHM} instance will use the {@link JoinAlgorithm#HASH} algorithm for all
+ * {@link JoinType#INNER inner}, {@link JoinType#LEFT_OUTER left outer} and {@link JoinType#RIGHT_OUTER right outer} joins that
+ * have an {@link EquiJoinCondition}, {@link SameNodeJoinCondition} or {@link ChildNodeJoinCondition} (as determined by
+ * {@link HashJoinComponent#supports(JoinCondition, JoinType)}), and the {@link JoinAlgorithm#NESTED_LOOP} algorithm for all
+ * other joins. The hash join does not require its inputs to be sorted, so
+ * the structure of the plan is not changed. The choice of which side of the join is placed into the hash table is made when the
+ * join is processed and the actual sizes of the inputs are known. However, when the {@link ReorderJoins} rule has
+ * {@link Property#ESTIMATED_CARDINALITY estimated} that both sides of the join produce so few tuples that a nested-loop join
+ * requires at most {@link #MAX_NESTED_LOOP_COMPARISONS} comparisons, the nested-loop algorithm is used instead since it avoids
+ * building the hash table.
+ * </p>
  */
 @Immutable
 public class ChooseJoinAlgorithm implements OptimizerRule {
 
     public static final ChooseJoinAlgorithm USE_ONLY_NESTED_JOIN_ALGORITHM = new ChooseJoinAlgorithm(true);
     public static final ChooseJoinAlgorithm USE_BEST_JOIN_ALGORITHM = new ChooseJoinAlgorithm(false);
+    public static final ChooseJoinAlgorithm USE_HASH_JOIN_ALGORITHM = new ChooseJoinAlgorithm(false, true);
+
+    /**
+     * The maximum estimated number of comparisons for which the {@link #USE_HASH_JOIN_ALGORITHM} instance uses the
+     * {@link JoinAlgorithm#NESTED_LOOP nested-loop} algorithm rather than the {@link JoinAlgorithm#HASH hash} algorithm.
+     */
+    public static final long MAX_NESTED_LOOP_COMPARISONS = 100L;
 
     private final boolean useOnlyNested;
+    private final boolean useHash;
 
     protected ChooseJoinAlgorithm( boolean useOnlyNested ) {
+        this(useOnlyNested, false);
+    }
+
+    protected ChooseJoinAlgorithm( boolean useOnlyNested,
+                                   boolean useHash ) {
         this.useOnlyNested = useOnlyNested;
+        this.useHash = useHash;
     }
 
     @Override
@@ -130,6 +158,13 @@ public class ChooseJoinAlgorithm implements OptimizerRule {
                 joinNode.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
                 break;
             }
+            if (useHash) {
+                JoinType joinType = joinNode.getProperty(Property.JOIN_TYPE, JoinType.class);
+                boolean useHashJoin = HashJoinComponent.supports(condition, joinType) && !hasFewEstimatedComparisons(joinNode);
+                JoinAlgorithm algorithm = useHashJoin ? JoinAlgorithm.HASH : JoinAlgorithm.NESTED_LOOP;
+                joinNode.setProperty(Property.JOIN_ALGORITHM, algorithm);
+                continue;
+            }
 
             if (condition instanceof DescendantNodeJoinCondition) {
                 // It has to be a nest-loop join ...
@@ -169,6 +204,20 @@ public class ChooseJoinAlgorithm implements OptimizerRule {
         return plan;
     }
 
+    /**
+     * Determine whether the sides of the supplied JOIN node are {@link Property#ESTIMATED_CARDINALITY estimated} to produce so few
+     * tuples that a nested-loop join requires at most {@link #MAX_NESTED_LOOP_COMPARISONS} comparisons.
+     * 
+     * @param joinNode the JOIN node; may not be null
+     * @return true if both sides have estimates and the join requires few comparisons, or false otherwise
+     */
+    protected boolean hasFewEstimatedComparisons( PlanNode joinNode ) {
+        Long left = joinNode.getFirstChild().getProperty(Property.ESTIMATED_CARDINALITY, Long.class);
+        Long right = joinNode.getLastChild().getProperty(Property.ESTIMATED_CARDINALITY, Long.class);
+        if (left == null || right == null) return false;
+        return (double)left.longValue() * right.longValue() <= MAX_NESTED_LOOP_COMPARISONS;
+    }
+
     protected void createOrderBysForJoinCondition( JoinCondition condition,
                                                    Set<SelectorName> leftSelectors,
                                                    List<Object> leftSortBy,
@@ -0,0 +1,116 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.LinkedList;
+import java.util.List;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.Ordering;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.plan.PlanUtil;
+
+/**
+ * An {@link OptimizerRule optimizer rule} that copies a {@link Type#SORT SORT} node and the {@link Type#LIMIT LIMIT} node above
+ * it into the {@link Type#ACCESS ACCESS} node below the SORT, so that the access query only needs to return the first tuples in
+ * sorted order. The original SORT and LIMIT nodes are left in place, so the access query may return more tuples or tuples in a
+ * different order without changing the results of the query.
+ * <p>
+ * For example, this rule will convert this plan:
+ * 
+ * <pre>
+ *        LIMIT (count=10, offset=20)
+ *          |
+ *        SORT
+ *          |
+ *       ACCESS
+ *          |
+ *       PROJECT
+ *          |
+ *         ...
+ * </pre>
+ * 
+ * into this:
+ * 
+ * <pre>
+ *        LIMIT (count=10, offset=20)
+ *          |
+ *        SORT
+ *          |
+ *       ACCESS
+ *          |
+ *        LIMIT (count=30)
+ *          |
+ *        SORT
+ *          |
+ *       PROJECT
+ *          |
+ *         ...
+ * </pre>
+ * 
+ * The rule does nothing if there are any nodes other than PROJECT nodes between the SORT and ACCESS nodes, since nodes like
+ * {@link Type#DUP_REMOVE DUP_REMOVE} or {@link Type#JOIN JOIN} change the number of tuples.
+ * </p>
+ */
+@Immutable
+public class CopyLimitedSortIntoAccess implements OptimizerRule {
+
+    public static final CopyLimitedSortIntoAccess INSTANCE = new CopyLimitedSortIntoAccess();
+
+    @Override
+    public PlanNode execute( QueryContext context,
+                             PlanNode plan,
+                             LinkedList<OptimizerRule> ruleStack ) {
+        for (PlanNode sort : plan.findAllAtOrBelow(Type.SORT)) {
+            int maxTuples = PlanUtil.maxSortedTuples(sort);
+            if (maxTuples == Integer.MAX_VALUE) continue;
+            List<Object> orderBys = sort.getPropertyAsList(Property.SORT_ORDER_BY, Object.class);
+            if (orderBys == null || orderBys.isEmpty() || !(orderBys.get(0) instanceof Ordering)) continue;
+
+            // Find the ACCESS node below the SORT ...
+            PlanNode access = sort.getFirstChild();
+            while (access != null && access.getType() == Type.PROJECT && access.getChildCount() == 1) {
+                access = access.getFirstChild();
+            }
+            if (access == null || access.getType() != Type.ACCESS) continue;
+            if (access.getChildCount() != 1 || access.getFirstChild().isOneOf(Type.LIMIT, Type.SORT)) continue;
+
+            // Copy the SORT and LIMIT into the ACCESS node ...
+            PlanNode accessSort = new PlanNode(Type.SORT, sort.getSelectors());
+            accessSort.setProperty(Property.SORT_ORDER_BY, orderBys);
+            access.getFirstChild().insertAsParent(accessSort);
+            PlanNode accessLimit = new PlanNode(Type.LIMIT, accessSort.getSelectors());
+            accessLimit.setProperty(Property.LIMIT_COUNT, maxTuples);
+            accessSort.insertAsParent(accessLimit);
+        }
+        return plan;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
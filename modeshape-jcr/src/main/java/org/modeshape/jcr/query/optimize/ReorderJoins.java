@@ -0,0 +1,266 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.query.IndexStatistics;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+
+/**
+ * An {@link OptimizerRule optimizer rule} that uses the {@link IndexStatistics index statistics} to
+ * {@link CardinalityEstimator estimate} the number of tuples produced by each ACCESS and JOIN node, and that reorders the inner
+ * joins so that the joins producing the fewest tuples are performed first. The estimates are recorded in the
+ * {@link Property#ESTIMATED_CARDINALITY} property of each ACCESS and JOIN node, where they can be used by later rules and are
+ * shown in the plan. This rule does nothing if the {@link QueryContext#getIndexStatistics() query context} has no statistics.
+ * <p>
+ * Consecutive {@link JoinType#INNER inner} JOIN nodes form a tree of joins whose inputs may be joined in any order, as long as
+ * each join condition is applied to the first JOIN node that has both of the selectors used in the condition. For example, the
+ * following structure (where A, B, C and D are the inputs, such as ACCESS nodes):
+ * 
+ * <pre>
+ *              ...
+ *               |
+ *             JOIN
+ *            /     \
+ *          JOIN     D
+ *         /    \
+ *       JOIN    C
+ *      /    \
+ *     A      B
+ * </pre>
+ * 
+ * might be transformed into the following structure if C is estimated to produce the fewest tuples and C joined with A is
+ * estimated to produce fewer tuples than C joined with B or D:
+ * 
+ * <pre>
+ *              ...
+ *               |
+ *             JOIN
+ *            /     \
+ *          JOIN     ...
+ *         /    \
+ *       JOIN    A
+ *      /    \
+ *     C     ...
+ * </pre>
+ * 
+ * Starting with the input that produces the fewest tuples, the inputs are added one at a time, each time choosing from the inputs
+ * that are connected by a join condition to the inputs already joined the one that produces the fewest tuples. Inner joins are
+ * only reordered when there are at least three inputs, when the join conditions connect all of the inputs, and when none of the
+ * JOIN nodes have any additional criteria.
+ * </p>
+ */
+@Immutable
+public class ReorderJoins implements OptimizerRule {
+
+    public static final ReorderJoins INSTANCE = new ReorderJoins();
+
+    @Override
+    public PlanNode execute( QueryContext context,
+                             PlanNode plan,
+                             LinkedList<OptimizerRule> ruleStack ) {
+        IndexStatistics statistics = context.getIndexStatistics();
+        if (statistics == null || statistics.getNodeCount() == 0L) return plan;
+        CardinalityEstimator estimator = new CardinalityEstimator(context, statistics);
+        for (PlanNode access : plan.findAllAtOrBelow(Type.ACCESS)) {
+            estimator.estimate(access);
+        }
+        plan = reorder(plan, estimator);
+        for (PlanNode join : plan.findAllAtOrBelow(Type.JOIN)) {
+            estimator.estimate(join);
+        }
+        return plan;
+    }
+
+    /**
+     * Reorder the inner joins at or below the supplied node.
+     * 
+     * @param node the node; may not be null
+     * @param estimator the estimator; may not be null
+     * @return the node that replaces the supplied node, or the supplied node if it was not replaced
+     */
+    protected PlanNode reorder( PlanNode node,
+                                CardinalityEstimator estimator ) {
+        if (!isReorderable(node)) {
+            for (PlanNode child : new ArrayList<PlanNode>(node.getChildren())) {
+                reorder(child, estimator);
+            }
+            return node;
+        }
+
+        // Find the inputs and conditions of this tree of inner joins, and reorder any joins within each input ...
+        List<PlanNode> inputs = new ArrayList<PlanNode>();
+        List<JoinCondition> conditions = new ArrayList<JoinCondition>();
+        collect(node, inputs, conditions);
+        for (PlanNode input : inputs) {
+            reorder(input, estimator);
+        }
+        int inputCount = inputs.size();
+        if (inputCount < 3) return node;
+
+        // Determine the inputs connected by each condition ...
+        int[][] connected = new int[conditions.size()][];
+        for (int i = 0; i != conditions.size(); ++i) {
+            SelectorName[] selectors = selectorsIn(conditions.get(i));
+            if (selectors == null) return node;
+            int first = indexOfInputWith(selectors[0], inputs);
+            int second = indexOfInputWith(selectors[1], inputs);
+            if (first < 0 || second < 0 || first == second) return node;
+            connected[i] = new int[] {first, second};
+        }
+        long[] estimates = new long[inputCount];
+        for (int i = 0; i != inputCount; ++i) {
+            estimates[i] = estimator.estimate(inputs.get(i));
+            if (estimates[i] == IndexStatistics.UNKNOWN) return node;
+        }
+
+        // Choose the order, starting with the input that produces the fewest tuples ...
+        int[] inputOrder = new int[inputCount];
+        int[] conditionOrder = new int[inputCount];
+        long[] joinEstimates = new long[inputCount];
+        boolean[] joined = new boolean[inputCount];
+        boolean[] applied = new boolean[conditions.size()];
+        int start = 0;
+        for (int i = 1; i != inputCount; ++i) {
+            if (estimates[i] < estimates[start]) start = i;
+        }
+        inputOrder[0] = start;
+        joined[start] = true;
+        long current = estimates[start];
+        for (int step = 1; step != inputCount; ++step) {
+            int bestCondition = -1;
+            int bestInput = -1;
+            long bestEstimate = 0L;
+            for (int i = 0; i != conditions.size(); ++i) {
+                if (applied[i]) continue;
+                int[] inputsOfCondition = connected[i];
+                int other = -1;
+                if (joined[inputsOfCondition[0]] && !joined[inputsOfCondition[1]]) other = inputsOfCondition[1];
+                else if (joined[inputsOfCondition[1]] && !joined[inputsOfCondition[0]]) other = inputsOfCondition[0];
+                if (other < 0) continue;
+                long estimate = estimator.estimateJoin(JoinType.INNER, conditions.get(i), current, estimates[other]);
+                if (bestCondition < 0 || estimate < bestEstimate) {
+                    bestCondition = i;
+                    bestInput = other;
+                    bestEstimate = estimate;
+                }
+            }
+            // There are one fewer conditions than inputs, so all inputs are connected only if every condition can be used ...
+            if (bestCondition < 0) return node;
+            applied[bestCondition] = true;
+            joined[bestInput] = true;
+            inputOrder[step] = bestInput;
+            conditionOrder[step] = bestCondition;
+            joinEstimates[step] = bestEstimate;
+            current = bestEstimate;
+        }
+
+        // Build the new tree of joins ...
+        PlanNode parent = node.getParent();
+        for (PlanNode input : inputs) {
+            input.removeFromParent();
+        }
+        PlanNode result = inputs.get(inputOrder[0]);
+        for (int step = 1; step != inputCount; ++step) {
+            PlanNode input = inputs.get(inputOrder[step]);
+            PlanNode join = new PlanNode(Type.JOIN);
+            join.addSelectors(result.getSelectors());
+            join.addSelectors(input.getSelectors());
+            join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+            join.setProperty(Property.JOIN_CONDITION, conditions.get(conditionOrder[step]));
+            join.setProperty(Property.ESTIMATED_CARDINALITY, joinEstimates[step]);
+            join.addLastChild(result);
+            join.addLastChild(input);
+            result = join;
+        }
+        if (parent != null) parent.replaceChild(node, result);
+        return result;
+    }
+
+    protected boolean isReorderable( PlanNode node ) {
+        if (node.isNot(Type.JOIN) || node.getChildCount() != 2) return false;
+        if (node.getProperty(Property.JOIN_TYPE, JoinType.class) != JoinType.INNER) return false;
+        if (node.getProperty(Property.JOIN_CONDITION, JoinCondition.class) == null) return false;
+        if (node.hasProperty(Property.IS_DEPENDENT)) return false;
+        List<Constraint> constraints = node.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
+        return constraints == null || constraints.isEmpty();
+    }
+
+    protected void collect( PlanNode join,
+                            List<PlanNode> inputs,
+                            List<JoinCondition> conditions ) {
+        conditions.add(join.getProperty(Property.JOIN_CONDITION, JoinCondition.class));
+        for (PlanNode child : join) {
+            if (isReorderable(child)) collect(child, inputs, conditions);
+            else inputs.add(child);
+        }
+    }
+
+    protected SelectorName[] selectorsIn( JoinCondition condition ) {
+        if (condition instanceof EquiJoinCondition) {
+            EquiJoinCondition equi = (EquiJoinCondition)condition;
+            return new SelectorName[] {equi.selector1Name(), equi.selector2Name()};
+        }
+        if (condition instanceof SameNodeJoinCondition) {
+            SameNodeJoinCondition sameNode = (SameNodeJoinCondition)condition;
+            return new SelectorName[] {sameNode.selector1Name(), sameNode.selector2Name()};
+        }
+        if (condition instanceof ChildNodeJoinCondition) {
+            ChildNodeJoinCondition childNode = (ChildNodeJoinCondition)condition;
+            return new SelectorName[] {childNode.parentSelectorName(), childNode.childSelectorName()};
+        }
+        if (condition instanceof DescendantNodeJoinCondition) {
+            DescendantNodeJoinCondition descendantNode = (DescendantNodeJoinCondition)condition;
+            return new SelectorName[] {descendantNode.ancestorSelectorName(), descendantNode.descendantSelectorName()};
+        }
+        return null;
+    }
+
+    private static int indexOfInputWith( SelectorName selector,
+                                         List<PlanNode> inputs ) {
+        for (int i = 0; i != inputs.size(); ++i) {
+            if (inputs.get(i).getSelectors().contains(selector)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
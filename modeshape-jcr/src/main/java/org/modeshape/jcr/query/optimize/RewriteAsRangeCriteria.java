@@ -333,6 +333,8 @@ public class RewriteAsRangeCriteria implements OptimizerRule {
             return literal.value();
         }
         BindVariableName variable = (BindVariableName)operand;
+        // The resulting plan is only valid for this value ...
+        context.getHints().dependsOnVariableValues = true;
         return context.getVariables().get(variable.getBindVariableName());
     }
 }
@@ -72,9 +72,16 @@ public class RuleBasedOptimizer implements Optimizer {
         ruleStack.addFirst(RewriteAsRangeCriteria.INSTANCE);
         if (hints.hasJoin) {
             ruleStack.addFirst(AddJoinConditionColumnsToSources.INSTANCE);
-            ruleStack.addFirst(ChooseJoinAlgorithm.USE_ONLY_NESTED_JOIN_ALGORITHM);
+            ruleStack.addFirst(ChooseJoinAlgorithm.USE_HASH_JOIN_ALGORITHM);
+        }
+        // Always run, since this also records the estimated cardinality of each access node ...
+        ruleStack.addFirst(ReorderJoins.INSTANCE);
+        if (hints.hasJoin) {
             ruleStack.addFirst(RewriteIdentityJoins.INSTANCE);
         }
+        if (hints.hasSort && hints.hasLimit) {
+            ruleStack.addFirst(CopyLimitedSortIntoAccess.INSTANCE);
+        }
         ruleStack.addFirst(AddOrderingColumnsToSources.INSTANCE);
         ruleStack.addFirst(PushProjects.INSTANCE);
         ruleStack.addFirst(PushSelectCriteria.INSTANCE);
@@ -73,6 +73,12 @@ public final class PlanHints implements Serializable, Cloneable {
     /** Flag indicates whether the query plan should be included in the {@link QueryResults} */
     public boolean showPlan = false;
 
+    /**
+     * Flag indicates whether the number of tuples produced by and the time spent in each step of the query execution should be
+     * recorded and included in the {@link #showPlan plan}.
+     */
+    public boolean profile = false;
+
     /** Flag indicates whether to check during validation for the existance of columns used in column selectors and criteria. */
     public boolean validateColumnExistance = true;
 
@@ -91,6 +97,12 @@ public final class PlanHints implements Serializable, Cloneable {
      */
     public boolean qualifyExpandedColumnNames = false;
 
+    /**
+     * Flag indicates that the plan was optimized using the values of one or more bind variables, and so may not be reused when
+     * the query is executed with other values.
+     */
+    public boolean dependsOnVariableValues = false;
+
     public PlanHints() {
     }
 
@@ -103,14 +115,17 @@ public final class PlanHints implements Serializable, Cloneable {
         sb.append(", hasSort=").append(hasSort);
         sb.append(", hasSetQuery=").append(hasSetQuery);
         sb.append(", hasLimit=").append(hasLimit);
+        sb.append(", isExistsQuery=").append(isExistsQuery);
         sb.append(", hasOptionalJoin=").append(hasOptionalJoin);
         sb.append(", hasFullTextSearch=").append(hasFullTextSearch);
         sb.append(", hasSubqueries=").append(hasSubqueries);
         sb.append(", showPlan=").append(showPlan);
+        sb.append(", profile=").append(profile);
         sb.append(", validateColumnExistance=").append(validateColumnExistance);
         sb.append(", includeSystemContent=").append(includeSystemContent);
         sb.append(", useSessionContent=").append(useSessionContent);
         sb.append(", qualifyExpandedColumnNames=").append(qualifyExpandedColumnNames);
+        sb.append(", dependsOnVariableValues=").append(dependsOnVariableValues);
         sb.append('}');
         return sb.toString();
     }
@@ -118,19 +133,32 @@ public final class PlanHints implements Serializable, Cloneable {
     @Override
     public PlanHints clone() {
         PlanHints clone = new PlanHints();
-        clone.hasCriteria = this.hasCriteria;
-        clone.hasView = this.hasView;
-        clone.hasJoin = this.hasJoin;
-        clone.hasSort = this.hasSort;
-        clone.hasSetQuery = this.hasSetQuery;
-        clone.hasLimit = this.hasLimit;
-        clone.hasOptionalJoin = this.hasOptionalJoin;
-        clone.hasFullTextSearch = this.hasFullTextSearch;
-        clone.showPlan = this.showPlan;
-        clone.validateColumnExistance = this.validateColumnExistance;
-        clone.includeSystemContent = this.includeSystemContent;
-        clone.useSessionContent = this.useSessionContent;
-        clone.qualifyExpandedColumnNames = this.qualifyExpandedColumnNames;
+        clone.copyFrom(this);
         return clone;
     }
+
+    /**
+     * Set all of the flags in this object to the values in the supplied hints.
+     * 
+     * @param other the hints whose values are to be copied; may not be null
+     */
+    public void copyFrom( PlanHints other ) {
+        this.hasCriteria = other.hasCriteria;
+        this.hasView = other.hasView;
+        this.hasJoin = other.hasJoin;
+        this.hasSort = other.hasSort;
+        this.hasSetQuery = other.hasSetQuery;
+        this.hasLimit = other.hasLimit;
+        this.isExistsQuery = other.isExistsQuery;
+        this.hasOptionalJoin = other.hasOptionalJoin;
+        this.hasFullTextSearch = other.hasFullTextSearch;
+        this.hasSubqueries = other.hasSubqueries;
+        this.showPlan = other.showPlan;
+        this.profile = other.profile;
+        this.validateColumnExistance = other.validateColumnExistance;
+        this.includeSystemContent = other.includeSystemContent;
+        this.useSessionContent = other.useSessionContent;
+        this.qualifyExpandedColumnNames = other.qualifyExpandedColumnNames;
+        this.dependsOnVariableValues = other.dependsOnVariableValues;
+    }
 }
@@ -201,6 +201,18 @@ public final class PlanNode implements Iterable<PlanNode>, Readable, Cloneable,
          */
         ACCESS_NO_RESULTS,
 
+        /**
+         * For ACCESS and JOIN nodes, the number of tuples that the node is estimated to produce, computed from the
+         * {@link org.modeshape.jcr.query.IndexStatistics index statistics}. Value is a {@link Long} object.
+         */
+        ESTIMATED_CARDINALITY,
+
+        /**
+         * For all nodes in a plan that is executed with the {@link PlanHints#profile profile} hint, the statistics recorded while
+         * executing the node. Value is a {@link org.modeshape.jcr.query.process.ComponentProfile} object.
+         */
+        PROFILE,
+
         /** For dependenty queries, defines the variable where the results will be placed. */
         VARIABLE_NAME
     }
@@ -1418,6 +1418,26 @@ public class PlanUtil {
         return node;
     }
 
+    /**
+     * Determine the number of tuples that the supplied {@link Type#SORT SORT} node must produce, given the {@link Type#LIMIT
+     * LIMIT} node (if there is one) directly above it. Only the first tuples are needed when there is such a LIMIT, since all
+     * other tuples will be discarded after they are sorted.
+     * 
+     * @param sortNode the SORT node; may not be null
+     * @return the sum of the row limit and offset of the LIMIT node, or {@link Integer#MAX_VALUE} if all of the sorted tuples
+     *         are needed
+     */
+    public static int maxSortedTuples( PlanNode sortNode ) {
+        assert sortNode.getType() == Type.SORT;
+        PlanNode parent = sortNode.getParent();
+        if (parent == null || parent.getType() != Type.LIMIT) return Integer.MAX_VALUE;
+        Integer rowLimit = parent.getProperty(Property.LIMIT_COUNT, Integer.class);
+        if (rowLimit == null) return Integer.MAX_VALUE;
+        Integer offset = parent.getProperty(Property.LIMIT_OFFSET, Integer.class);
+        long max = rowLimit.longValue() + (offset != null ? offset.longValue() : 0L);
+        return (int)Math.min(max, Integer.MAX_VALUE);
+    }
+
     protected static class AbsentColumn extends ImmutableColumn {
         protected AbsentColumn( String name,
                                 String type ) {
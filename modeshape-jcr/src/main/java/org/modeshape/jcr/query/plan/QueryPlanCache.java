@@ -0,0 +1,313 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.plan;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.collection.ConcurrentLruCache;
+import org.modeshape.jcr.query.IndexStatistics;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.validate.Schemata;
+
+/**
+ * A bounded cache of parsed queries and of optimized query plans, shared by all of the sessions that query a repository.
+ * <p>
+ * Parsed queries are keyed by the query language and expression. Optimized plans are keyed by the {@link QueryCommand query},
+ * the hints supplied by the caller, the names and types of the bind variables, and the {@link Schemata} instance used to plan
+ * the query. A new schemata instance is created whenever the node types or namespaces change, so plans created with an older
+ * schemata are never reused; the cache should nevertheless be {@link #clear() cleared} when that happens to release the stale
+ * plans. Likewise, plans are keyed by the {@link IndexStatistics#getGeneration() generation} of the index statistics used to
+ * estimate their cost, so each query is optimized again once the statistics show that the content has changed significantly.
+ * Statistics that are merely newer have the same generation, so they do not prevent plans from being reused.
+ * </p>
+ * <p>
+ * Plans are only cached when planning and optimizing produced no problems and the plan does not
+ * {@link PlanHints#dependsOnVariableValues depend on the values} of the bind variables. Each caller receives its own copy of a
+ * cached plan.
+ * </p>
+ */
+@ThreadSafe
+public class QueryPlanCache {
+
+    /**
+     * The default maximum number of parsed queries and of optimized plans kept in the cache.
+     */
+    public static final long DEFAULT_MAX_PLANS = 1000L;
+
+    /**
+     * The statistics generation used in the keys of plans that were optimized without any index statistics.
+     */
+    protected static final long NO_STATISTICS = -1L;
+
+    private final ConcurrentLruCache<QueryKey, QueryCommand> queries;
+    private final ConcurrentLruCache<PlanKey, CachedPlan> plans;
+
+    /**
+     * Create a new cache.
+     * 
+     * @param maxPlans the maximum number of parsed queries and of optimized plans, or zero or a negative value if the cache is not
+     *        bounded
+     */
+    public QueryPlanCache( long maxPlans ) {
+        this.queries = new ConcurrentLruCache<QueryKey, QueryCommand>(maxPlans);
+        this.plans = new ConcurrentLruCache<PlanKey, CachedPlan>(maxPlans);
+    }
+
+    /**
+     * Get the previously parsed query for the supplied expression.
+     * 
+     * @param language the query language; may not be null
+     * @param expression the query expression; may not be null
+     * @return the parsed query, or null if the expression has not been cached
+     */
+    public QueryCommand getQuery( String language,
+                                  String expression ) {
+        return queries.get(new QueryKey(language, expression));
+    }
+
+    /**
+     * Record the parsed query for the supplied expression.
+     * 
+     * @param language the query language; may not be null
+     * @param expression the query expression; may not be null
+     * @param query the parsed query; may not be null
+     */
+    public void putQuery( String language,
+                          String expression,
+                          QueryCommand query ) {
+        queries.put(new QueryKey(language, expression), query);
+    }
+
+    /**
+     * Create the key for the plan of the supplied query. This must be called before the query is planned, since planning changes
+     * the hints and variables of the context.
+     * 
+     * @param context the context in which the query is to be planned; may not be null
+     * @param query the query; may not be null
+     * @return the key, or null if the plan should not be cached because the context already has problems
+     */
+    public PlanKey keyFor( QueryContext context,
+                           QueryCommand query ) {
+        if (context.getProblems().hasProblems()) return null;
+        Map<String, String> variableTypes = new TreeMap<String, String>();
+        for (Map.Entry<String, Object> entry : context.getVariables().entrySet()) {
+            Object value = entry.getValue();
+            variableTypes.put(entry.getKey(), value != null ? value.getClass().getName() : null);
+        }
+        IndexStatistics statistics = context.getIndexStatistics();
+        long statisticsGeneration = statistics != null ? statistics.getGeneration() : NO_STATISTICS;
+        return new PlanKey(query, context.getHints().toString(), variableTypes, context.getSchemata(), statisticsGeneration);
+    }
+
+    /**
+     * Get a copy of the optimized plan that was cached with the supplied key. If there is such a plan, the hints of the supplied
+     * context are updated to those produced when the plan was created, and the variables added during planning are added to the
+     * context's variables.
+     * 
+     * @param key the key obtained from {@link #keyFor(QueryContext, QueryCommand)}; may not be null
+     * @param context the context in which the query is being planned; may not be null
+     * @return the copy of the optimized plan, or null if there is no such plan in the cache
+     */
+    public PlanNode getPlan( PlanKey key,
+                             QueryContext context ) {
+        CachedPlan cached = plans.get(key);
+        if (cached == null) return null;
+        context.getHints().copyFrom(cached.hints);
+        for (String variableName : cached.addedVariableNames) {
+            if (!context.getVariables().containsKey(variableName)) context.getVariables().put(variableName, null);
+        }
+        return cached.plan.clone();
+    }
+
+    /**
+     * Record the optimized plan for the supplied key, unless the plan may not be reused.
+     * 
+     * @param key the key obtained from {@link #keyFor(QueryContext, QueryCommand)}; may not be null
+     * @param context the context in which the query was planned and optimized; may not be null
+     * @param variableNames the names of the context's variables before the query was planned; may not be null
+     * @param optimizedPlan the optimized plan; may not be null
+     * @return true if the plan was cached, or false otherwise
+     */
+    public boolean putPlan( PlanKey key,
+                            QueryContext context,
+                            Set<String> variableNames,
+                            PlanNode optimizedPlan ) {
+        PlanHints hints = context.getHints();
+        if (hints.dependsOnVariableValues || context.getProblems().hasProblems()) return false;
+        Set<String> addedVariableNames = new HashSet<String>(context.getVariables().keySet());
+        addedVariableNames.removeAll(variableNames);
+        plans.put(key, new CachedPlan(optimizedPlan.clone(), hints.clone(), addedVariableNames));
+        return true;
+    }
+
+    /**
+     * Remove all parsed queries and optimized plans from this cache.
+     */
+    public void clear() {
+        queries.clear();
+        plans.clear();
+    }
+
+    /**
+     * Get the number of optimized plans in this cache.
+     * 
+     * @return the number of plans
+     */
+    public long size() {
+        return plans.size();
+    }
+
+    /**
+     * Get the number of times an optimized plan was found in this cache.
+     * 
+     * @return the cumulative number of hits
+     */
+    public long getHitCount() {
+        return plans.getHitCount();
+    }
+
+    /**
+     * Get the number of times an optimized plan was not found in this cache.
+     * 
+     * @return the cumulative number of misses
+     */
+    public long getMissCount() {
+        return plans.getMissCount();
+    }
+
+    /**
+     * Get the number of optimized plans that were evicted from this cache to keep it within its limit.
+     * 
+     * @return the cumulative number of evictions
+     */
+    public long getEvictionCount() {
+        return plans.getEvictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlanCache (plans=" + plans.size() + ", queries=" + queries.size() + ", maxPlans=" + plans.getMaximumEntries()
+               + ", hits=" + plans.getHitCount() + ", misses=" + plans.getMissCount() + ")";
+    }
+
+    @Immutable
+    protected static final class QueryKey {
+        private final String language;
+        private final String expression;
+
+        protected QueryKey( String language,
+                            String expression ) {
+            this.language = language;
+            this.expression = expression;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * language.hashCode() + expression.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof QueryKey) {
+                QueryKey that = (QueryKey)obj;
+                return this.language.equals(that.language) && this.expression.equals(that.expression);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The key of an optimized plan. The schemata is compared by identity, since each change to the node types or namespaces
+     * results in a new schemata. The index statistics are represented only by their generation, since new statistics are
+     * collected periodically.
+     */
+    @Immutable
+    public static final class PlanKey {
+        private final QueryCommand query;
+        private final String hints;
+        private final Map<String, String> variableTypes;
+        private final Schemata schemata;
+        private final long statisticsGeneration;
+        private final int hc;
+
+        protected PlanKey( QueryCommand query,
+                           String hints,
+                           Map<String, String> variableTypes,
+                           Schemata schemata,
+                           long statisticsGeneration ) {
+            this.query = query;
+            this.hints = hints;
+            this.variableTypes = variableTypes;
+            this.schemata = schemata;
+            this.statisticsGeneration = statisticsGeneration;
+            this.hc = 31 * (31 * (31 * query.hashCode() + hints.hashCode()) + variableTypes.hashCode())
+                      + System.identityHashCode(schemata);
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof PlanKey) {
+                PlanKey that = (PlanKey)obj;
+                return this.hc == that.hc && this.schemata == that.schemata
+                       && this.statisticsGeneration == that.statisticsGeneration
+                       && this.hints.equals(that.hints)
+                       && this.variableTypes.equals(that.variableTypes) && this.query.equals(that.query);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return query + " " + hints + " " + variableTypes;
+        }
+    }
+
+    @Immutable
+    protected static final class CachedPlan {
+        protected final PlanNode plan;
+        protected final PlanHints hints;
+        protected final Set<String> addedVariableNames;
+
+        protected CachedPlan( PlanNode plan,
+                              PlanHints hints,
+                              Set<String> addedVariableNames ) {
+            this.plan = plan;
+            this.hints = hints;
+            this.addedVariableNames = Collections.unmodifiableSet(addedVariableNames);
+        }
+    }
+}
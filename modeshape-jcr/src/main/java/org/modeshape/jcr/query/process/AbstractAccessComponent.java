@@ -25,13 +25,16 @@ package org.modeshape.jcr.query.process;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.QueryResults.Location;
 import org.modeshape.jcr.query.model.Column;
 import org.modeshape.jcr.query.model.Constraint;
 import org.modeshape.jcr.query.model.Limit;
+import org.modeshape.jcr.query.model.Ordering;
 import org.modeshape.jcr.query.model.SelectorName;
 import org.modeshape.jcr.query.plan.PlanNode;
 import org.modeshape.jcr.query.plan.PlanNode.Property;
@@ -49,6 +52,7 @@ public abstract class AbstractAccessComponent extends ProcessingComponent {
     protected final List<Column> projectedColumns;
     protected final List<Constraint> andedConstraints;
     protected final Limit limit;
+    protected final List<Ordering> orderings;
 
     protected AbstractAccessComponent( QueryContext context,
                                        Columns columns,
@@ -112,6 +116,36 @@ public abstract class AbstractAccessComponent extends ProcessingComponent {
         }
         this.limit = limit;
         assert this.limit != null;
+
+        // Find the orderings, which are used only when only the first tuples (as defined by the limit) are needed ...
+        List<Ordering> orderings = null;
+        PlanNode sortNode = accessNode.findAtOrBelow(Type.SORT);
+        if (sortNode != null) {
+            for (Object orderBy : sortNode.getPropertyAsList(Property.SORT_ORDER_BY, Object.class)) {
+                if (!(orderBy instanceof Ordering)) continue;
+                if (orderings == null) orderings = new ArrayList<Ordering>();
+                orderings.add((Ordering)orderBy);
+            }
+        }
+        this.orderings = orderings != null ? orderings : Collections.<Ordering>emptyList();
+    }
+
+    /**
+     * Create a component that sorts the supplied tuples by the {@link #orderings} of this access query, returning only as many
+     * tuples as are needed by the {@link #limit}.
+     * 
+     * @param delegate the component that returns the unsorted tuples; may not be null
+     * @return the sorting component; never null
+     */
+    protected SortValuesComponent createSortComponent( ProcessingComponent delegate ) {
+        Map<SelectorName, SelectorName> sourceNamesByAlias = new HashMap<SelectorName, SelectorName>();
+        for (PlanNode source : accessNode.findAllAtOrBelow(Type.SOURCE)) {
+            SelectorName name = source.getProperty(Property.SOURCE_NAME, SelectorName.class);
+            SelectorName alias = source.getProperty(Property.SOURCE_ALIAS, SelectorName.class);
+            if (alias != null) sourceNamesByAlias.put(alias, name);
+        }
+        long maxTuples = limit.isUnlimited() ? Integer.MAX_VALUE : (long)limit.getRowLimit() + limit.getOffset();
+        return new SortValuesComponent(delegate, orderings, sourceNamesByAlias, (int)Math.min(maxTuples, Integer.MAX_VALUE));
     }
 
 }
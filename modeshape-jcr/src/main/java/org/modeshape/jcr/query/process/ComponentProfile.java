@@ -0,0 +1,153 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+
+/**
+ * The statistics recorded while executing the {@link ProcessingComponent component} for a single {@link PlanNode plan node}
+ * when a query is executed with the {@link PlanHints#profile profile} hint. The profile is stored in the plan node's
+ * {@link PlanNode.Property#PROFILE PROFILE} property, so that it is included in the description of the plan.
+ * <p>
+ * The time recorded for a component includes the time spent in the components below it. Components that access the indexes
+ * also record the number of index documents that were scanned, the number of those documents that resulted in tuples, and the
+ * time spent loading the values for those tuples. Documents may be scanned concurrently when index segments are searched in
+ * parallel, so all statistics are updated atomically.
+ * </p>
+ */
+@ThreadSafe
+public final class ComponentProfile {
+
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong documentsScanned = new AtomicLong();
+    private final AtomicLong documentsMatched = new AtomicLong();
+    private final AtomicLong documentNanos = new AtomicLong();
+
+    /**
+     * Record that the component produced a tuple.
+     */
+    public void recordRow() {
+        rows.incrementAndGet();
+    }
+
+    /**
+     * Record that the component produced the supplied number of tuples.
+     * 
+     * @param count the number of tuples
+     */
+    public void recordRows( long count ) {
+        rows.addAndGet(count);
+    }
+
+    /**
+     * Record time spent executing the component.
+     * 
+     * @param nanos the duration in nanoseconds
+     */
+    public void recordTime( long nanos ) {
+        this.nanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record that an index document was scanned.
+     * 
+     * @param matched true if the document resulted in a tuple, or false otherwise
+     * @param nanos the time in nanoseconds spent loading the tuple for the document
+     */
+    public void recordDocument( boolean matched,
+                                long nanos ) {
+        documentsScanned.incrementAndGet();
+        if (matched) documentsMatched.incrementAndGet();
+        documentNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Get the number of tuples produced by the component.
+     * 
+     * @return the number of tuples
+     */
+    public long getRowCount() {
+        return rows.get();
+    }
+
+    /**
+     * Get the time spent executing the component, including the time spent in the components below it.
+     * 
+     * @param unit the desired time unit; may not be null
+     * @return the time
+     */
+    public long getTime( TimeUnit unit ) {
+        return unit.convert(nanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the number of index documents scanned by the component.
+     * 
+     * @return the number of documents
+     */
+    public long getDocumentsScanned() {
+        return documentsScanned.get();
+    }
+
+    /**
+     * Get the number of scanned index documents that resulted in tuples.
+     * 
+     * @return the number of documents
+     */
+    public long getDocumentsMatched() {
+        return documentsMatched.get();
+    }
+
+    /**
+     * Get the time spent loading the tuples for the scanned index documents.
+     * 
+     * @param unit the desired time unit; may not be null
+     * @return the time
+     */
+    public long getDocumentLoadTime( TimeUnit unit ) {
+        return unit.convert(documentNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("rows=").append(getRowCount());
+        sb.append(" time=").append(millis(nanos.get())).append("ms");
+        if (documentsScanned.get() != 0L) {
+            sb.append(" docsScanned=").append(getDocumentsScanned());
+            sb.append(" docsMatched=").append(getDocumentsMatched());
+            sb.append(" docLoadTime=").append(millis(documentNanos.get())).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private static String millis( long nanos ) {
+        return String.format("%.3f", nanos / 1000000.0d);
+    }
+}
@@ -71,6 +71,16 @@ public class DependentQueryComponent extends ProcessingComponent {
         return right;
     }
 
+    @Override
+    public void close() {
+        try {
+            left.close();
+            right.close();
+        } finally {
+            super.close();
+        }
+    }
+
     /**
      * Get the columns definition for the results from the left, independent query that is processed first.
      * 
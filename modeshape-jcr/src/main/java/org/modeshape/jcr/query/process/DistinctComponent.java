@@ -23,57 +23,108 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import org.modeshape.jcr.query.QueryResults.Location;
 
 /**
  * A {@link ProcessingComponent} implementation that removes duplicates. The results from the delegate component do not need to be
  * sorted; in fact, if the delegate component is a {@link SortValuesComponent}, then use {@link DistinctOfSortedComponent} instead
  * of this class.
+ * <p>
+ * The locations of the tuples that have been returned are kept in memory, so that tuples are returned in the order they are found.
+ * But once more than a maximum number of locations are held, the remaining tuples are instead sorted by their locations (using an
+ * {@link ExternalSorter}, which writes sorted runs of tuples to temporary files) and the adjacent duplicates are skipped.
+ * </p>
  */
 public class DistinctComponent extends DelegatingComponent {
 
+    private final int maxTuplesInMemory;
+    private final ExternalSorter sorter;
+
     public DistinctComponent( ProcessingComponent delegate ) {
+        this(delegate, ExternalSorter.DEFAULT_MAX_TUPLES_IN_MEMORY);
+    }
+
+    /**
+     * Create a component that removes duplicates while holding no more than the supplied number of locations in memory.
+     * 
+     * @param delegate the delegate component; may not be null
+     * @param maxTuplesInMemory the maximum number of locations (or tuples) held in memory; must be positive
+     */
+    public DistinctComponent( ProcessingComponent delegate,
+                              int maxTuplesInMemory ) {
         super(delegate);
+        this.maxTuplesInMemory = maxTuplesInMemory;
+        this.sorter = new ExternalSorter(createSortComparator(getContext(), getColumns()), maxTuplesInMemory);
     }
 
     @Override
     public List<Object[]> execute() {
-        List<Object[]> tuples = delegate().execute();
-        if (tuples.size() > 1) {
-            // Go through this list and remove any tuples that appear more than once ...
-            Iterator<Object[]> iter = tuples.iterator();
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        final Iterator<Object[]> tuples = delegate().iterator();
+        final int locationCount = getColumns().getLocationCount();
+        final int firstLocationIndex = getColumns().getColumnCount();
+        final Comparator<Object[]> locationComparator = sorter.getComparator();
+        return new TupleIterator() {
+            private final Set<Object> found = new HashSet<Object>();
+            private Iterator<Object[]> sorted;
+            private Object[] previous;
 
-            int locationCount = getColumns().getLocationCount();
-            int firstLocationIndex = getColumns().getColumnCount();
-            if (locationCount == 1) {
-                // We can determine duplicates faster/cheaper using a single Set<Location> ...
-                Set<Location> found = new HashSet<Location>();
-                while (iter.hasNext()) {
-                    Location location = (Location)iter.next()[firstLocationIndex];
-                    if (!found.add(location)) {
-                        // Was already found, so remove this tuple from the results ...
-                        iter.remove();
+            @Override
+            protected Object[] findNext() {
+                while (sorted == null && tuples.hasNext()) {
+                    if (found.size() >= maxTuplesInMemory) {
+                        // There are too many locations to keep in memory, so sort the remaining tuples ...
+                        sorted = sorter.sort(new TupleIterator() {
+                            @Override
+                            protected Object[] findNext() {
+                                while (tuples.hasNext()) {
+                                    Object[] tuple = tuples.next();
+                                    if (!found.contains(keyFor(tuple))) return tuple;
+                                }
+                                return null;
+                            }
+                        });
+                        break;
                     }
+                    Object[] tuple = tuples.next();
+                    // Skip the tuple if it was already found ...
+                    if (found.add(keyFor(tuple))) return tuple;
                 }
-            } else {
-                assert locationCount > 1;
-                // Duplicate tuples are removed using a Set<Location[]> ...
-                Set<Location[]> found = new HashSet<Location[]>();
-                while (iter.hasNext()) {
-                    Object[] tuple = iter.next();
-                    Location[] locations = new Location[locationCount];
-                    System.arraycopy(tuple, firstLocationIndex, locations, 0, locationCount);
-                    if (!found.add(locations)) {
-                        // Was already found, so remove this tuple from the results ...
-                        iter.remove();
+                if (sorted == null) return null;
+                while (sorted.hasNext()) {
+                    Object[] tuple = sorted.next();
+                    // Skip the tuple if it is the same as the previous one ...
+                    if (previous == null || locationComparator.compare(previous, tuple) != 0) {
+                        previous = tuple;
+                        return tuple;
                     }
                 }
+                return null;
             }
+
+            private Object keyFor( Object[] tuple ) {
+                // We can determine duplicates faster/cheaper using a single Location ...
+                if (locationCount == 1) return tuple[firstLocationIndex];
+                return Arrays.asList(Arrays.copyOfRange(tuple, firstLocationIndex, firstLocationIndex + locationCount));
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        try {
+            sorter.close();
+        } finally {
+            super.close();
         }
-        return tuples;
     }
 }
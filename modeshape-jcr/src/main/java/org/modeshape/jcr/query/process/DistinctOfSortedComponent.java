@@ -43,17 +43,27 @@ public class DistinctOfSortedComponent extends DelegatingComponent {
 
     @Override
     public List<Object[]> execute() {
-        List<Object[]> tuples = delegate().execute();
-        Iterator<Object[]> iter = tuples.iterator();
-        Object[] previous = null;
-        while (iter.hasNext()) {
-            Object[] current = iter.next();
-            if (previous != null && this.comparator.compare(previous, current) == 0) {
-                iter.remove();
-            } else {
-                previous = current;
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        final Iterator<Object[]> tuples = delegate().iterator();
+        return new TupleIterator() {
+            private Object[] previous = null;
+
+            @Override
+            protected Object[] findNext() {
+                while (tuples.hasNext()) {
+                    Object[] current = tuples.next();
+                    // Skip the tuple if it is the same as the previous one ...
+                    if (previous == null || comparator.compare(previous, current) != 0) {
+                        previous = current;
+                        return current;
+                    }
+                }
+                return null;
             }
-        }
-        return tuples;
+        };
     }
 }
@@ -26,7 +26,6 @@ package org.modeshape.jcr.query.process;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
@@ -47,77 +46,44 @@ public class ExceptComponent extends SetOperationComponent {
     }
 
     @Override
-    public List<Object[]> execute() {
-        Iterator<ProcessingComponent> sources = sources().iterator();
-        if (!sources.hasNext()) return emptyTuples();
-
-        // Execute all of the source components (so we can sort the results from the smallest to the largest) ...
-        // TODO: Parallelize this ???
-        List<List<Object[]>> allTuples = new LinkedList<List<Object[]>>();
-        while (sources.hasNext()) {
-            List<Object[]> tuples = sources.next().execute();
-            if (tuples == null) continue;
-            if (tuples.isEmpty()) return emptyTuples();
-            allTuples.add(tuples);
+    public Iterator<Object[]> iterator() {
+        List<Iterator<Object[]>> sortedTuples = sortedSourceTuples();
+        if (sortedTuples.isEmpty()) return Collections.<Object[]>emptyList().iterator();
+        // Remove the tuples of each subsequent source from the first, finding the tuples only as they are needed ...
+        Iterator<Object[]> tuples = sortedTuples.get(0);
+        for (Iterator<Object[]> next : sortedTuples.subList(1, sortedTuples.size())) {
+            tuples = except(tuples, next);
         }
-        if (allTuples.isEmpty()) return emptyTuples();
-        if (allTuples.size() == 1) return allTuples.get(0); // just one source
-        // Sort the tuples by size, starting with the smallest ...
-        Collections.sort(allTuples, new Comparator<List<Object[]>>() {
-            @Override
-            public int compare( List<Object[]> tuples1,
-                                List<Object[]> tuples2 ) {
-                return tuples1.size() - tuples2.size();
-            }
-        });
+        // Remove duplicates if requested to ...
+        return removeDuplicatesIfRequested(tuples);
+    }
 
-        // Do the sources 2 at a time ...
-        Iterator<List<Object[]>> iter = allTuples.iterator();
-        List<Object[]> tuples = iter.next(); // already sorted ...
-        assert iter.hasNext();
-        // Process the next source with the previous ...
-        while (iter.hasNext()) {
-            List<Object[]> next = iter.next(); // already sorted ...
-            // Walk through the first and second results ...
-            Iterator<Object[]> tupleIter = tuples.iterator();
-            Iterator<Object[]> nextIter = next.iterator();
-            // There is at least one tuple in each ...
-            Object[] tuple1 = tupleIter.next();
-            Object[] tuple2 = nextIter.next();
-            while (true) {
-                int comparison = comparator.compare(tuple1, tuple2);
-                if (comparison == 0) {
-                    // Both match, so remove the tuple from 'tuples' and go on ...
-                    tupleIter.remove();
+    /**
+     * Create an iterator over the tuples in the first sorted iterator that have no matching tuple in the second sorted iterator.
+     * 
+     * @param first the first sorted tuples; may not be null
+     * @param second the second sorted tuples; may not be null
+     * @return the iterator over the tuples that are only in the first; never null
+     */
+    protected Iterator<Object[]> except( final Iterator<Object[]> first,
+                                         final Iterator<Object[]> second ) {
+        return new TupleIterator() {
+            private Object[] tuple2 = second.hasNext() ? second.next() : null;
 
-                    if (!tupleIter.hasNext()) {
-                        // This was the last one
-                        break;
-                    }
-                    tuple1 = tupleIter.next();
-                } else if (comparison < 0) {
-                    // No match, so leave tuple1 in 'tuples'
-
-                    // tuple1 is less than tuple2, so advance tupleIter ...
-                    if (!tupleIter.hasNext()) {
-                        // The intersection results ('tuples') has no more tuples, so go to the next source ...
-                        break;
-                    }
-                    tuple1 = tupleIter.next();
-                } else {
-                    assert comparison > 0;
-                    // tuple1 is greater than tuple2, so advance nextIter ...
-                    if (!nextIter.hasNext()) {
-                        // The next source has no more tuples, so leave all remaining tuples, and go to the next source ...
-                        break;
+            @Override
+            protected Object[] findNext() {
+                while (first.hasNext()) {
+                    Object[] tuple1 = first.next();
+                    // Advance the second until its tuple is not less than tuple1 ...
+                    int comparison = -1;
+                    while (tuple2 != null && (comparison = comparator.compare(tuple1, tuple2)) > 0) {
+                        tuple2 = second.hasNext() ? second.next() : null;
                     }
-                    tuple2 = nextIter.next();
+                    // Skip tuple1 if it matches tuple2 ...
+                    if (tuple2 == null || comparison != 0) return tuple1;
                 }
+                return null;
             }
-        }
-        // Remove duplicates if requested to ...
-        removeDuplicatesIfRequested(tuples);
-        // Return all of the common tuples that were in all sources ...
-        return tuples;
+        };
     }
 }
@@ -0,0 +1,295 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.query.process.ProcessingComponent.TupleIterator;
+
+/**
+ * A utility that sorts tuples while holding no more than a {@link #getMaxTuplesInMemory() maximum number of tuples} in memory.
+ * When there are more tuples than that, the tuples are sorted in runs that are each written to a temporary file, and the sorted
+ * runs are then merged only as the sorted tuples are needed. Like {@link Collections#sort(List, Comparator)}, the sort is stable.
+ * <p>
+ * The temporary file for each run is deleted as soon as all of its tuples have been read, and any remaining files are deleted
+ * when this sorter is {@link #close() closed}.
+ * </p>
+ */
+@NotThreadSafe
+public class ExternalSorter {
+
+    /**
+     * The default maximum number of tuples that are held in memory before sorted runs are written to temporary files.
+     */
+    public static final int DEFAULT_MAX_TUPLES_IN_MEMORY = 100000;
+
+    /**
+     * The maximum number of runs that are merged at once. When there are more runs than this, groups of runs are first merged
+     * into larger runs.
+     */
+    protected static final int MAX_MERGE_WIDTH = 64;
+
+    private final Comparator<Object[]> comparator;
+    private final int maxTuplesInMemory;
+    private final List<Run> runs = new LinkedList<Run>();
+
+    /**
+     * Create a sorter.
+     * 
+     * @param comparator the comparator that defines the order of the tuples; may not be null
+     * @param maxTuplesInMemory the maximum number of tuples held in memory; must be positive
+     */
+    public ExternalSorter( Comparator<Object[]> comparator,
+                           int maxTuplesInMemory ) {
+        assert comparator != null;
+        assert maxTuplesInMemory > 0;
+        this.comparator = comparator;
+        this.maxTuplesInMemory = maxTuplesInMemory;
+    }
+
+    /**
+     * Get the comparator that defines the order of the tuples.
+     * 
+     * @return the comparator; never null
+     */
+    public Comparator<Object[]> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Get the maximum number of tuples that are held in memory.
+     * 
+     * @return the maximum number of tuples; always positive
+     */
+    public int getMaxTuplesInMemory() {
+        return maxTuplesInMemory;
+    }
+
+    /**
+     * Sort the supplied tuples.
+     * 
+     * @param tuples the tuples to be sorted; may not be null
+     * @return the iterator over the sorted tuples; never null
+     */
+    public Iterator<Object[]> sort( Iterator<Object[]> tuples ) {
+        List<Object[]> buffer = new ArrayList<Object[]>();
+        List<Run> sortedRuns = new ArrayList<Run>();
+        while (tuples.hasNext()) {
+            buffer.add(tuples.next());
+            if (buffer.size() >= maxTuplesInMemory && tuples.hasNext()) {
+                Collections.sort(buffer, comparator);
+                sortedRuns.add(write(buffer.iterator()));
+                buffer.clear();
+            }
+        }
+        Collections.sort(buffer, comparator);
+        if (sortedRuns.isEmpty()) return buffer.iterator();
+
+        // Reduce the number of runs until they can all be merged at once ...
+        while (sortedRuns.size() + 1 > MAX_MERGE_WIDTH) {
+            List<Run> group = sortedRuns.subList(0, MAX_MERGE_WIDTH);
+            List<Iterator<Object[]>> groupTuples = new ArrayList<Iterator<Object[]>>(group.size());
+            for (Run run : group) {
+                groupTuples.add(run.read());
+            }
+            Run merged = write(merge(groupTuples, comparator));
+            group.clear();
+            // The merged run has the earliest tuples, so it must remain first to keep the sort stable ...
+            sortedRuns.add(0, merged);
+        }
+
+        // Merge the runs (which contain the earlier tuples) and the tuples still in memory ...
+        List<Iterator<Object[]>> sortedTuples = new ArrayList<Iterator<Object[]>>(sortedRuns.size() + 1);
+        for (Run run : sortedRuns) {
+            sortedTuples.add(run.read());
+        }
+        sortedTuples.add(buffer.iterator());
+        return merge(sortedTuples, comparator);
+    }
+
+    /**
+     * Delete all of the temporary files that have not yet been deleted.
+     */
+    public void close() {
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    protected Run write( Iterator<Object[]> tuples ) {
+        Run run = new Run();
+        runs.add(run);
+        run.write(tuples);
+        return run;
+    }
+
+    /**
+     * Create an iterator that merges the supplied iterators, which must each return tuples that are already sorted by the
+     * supplied comparator. Tuples that compare equally are returned in the order of the iterators from which they come.
+     * 
+     * @param sortedTuples the iterators over the sorted tuples; may not be null
+     * @param comparator the comparator that defines the order of the tuples; may not be null
+     * @return the iterator over all of the sorted tuples; never null
+     */
+    public static Iterator<Object[]> merge( List<Iterator<Object[]>> sortedTuples,
+                                            final Comparator<Object[]> comparator ) {
+        if (sortedTuples.size() == 1) return sortedTuples.get(0);
+        final PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(sortedTuples.size() + 1, new Comparator<Cursor>() {
+            @Override
+            public int compare( Cursor cursor1,
+                                Cursor cursor2 ) {
+                int diff = comparator.compare(cursor1.current, cursor2.current);
+                if (diff != 0) return diff;
+                return cursor1.index - cursor2.index;
+            }
+        });
+        int index = 0;
+        for (Iterator<Object[]> tuples : sortedTuples) {
+            Cursor cursor = new Cursor(tuples, index++);
+            if (cursor.advance()) cursors.add(cursor);
+        }
+        return new TupleIterator() {
+            @Override
+            protected Object[] findNext() {
+                Cursor cursor = cursors.poll();
+                if (cursor == null) return null;
+                Object[] tuple = cursor.current;
+                if (cursor.advance()) cursors.add(cursor);
+                return tuple;
+            }
+        };
+    }
+
+    /**
+     * The position within one of the sorted iterators being {@link ExternalSorter#merge(List, Comparator) merged}.
+     */
+    protected static final class Cursor {
+        private final Iterator<Object[]> tuples;
+        protected final int index;
+        protected Object[] current;
+
+        protected Cursor( Iterator<Object[]> tuples,
+                          int index ) {
+            this.tuples = tuples;
+            this.index = index;
+        }
+
+        protected boolean advance() {
+            current = tuples.hasNext() ? tuples.next() : null;
+            return current != null;
+        }
+    }
+
+    /**
+     * A sorted run of tuples that is stored in a temporary file.
+     */
+    protected static final class Run {
+        private File file;
+        private ObjectInputStream input;
+        private int count;
+
+        protected void write( Iterator<Object[]> tuples ) {
+            try {
+                file = File.createTempFile("modeshape-sort-", ".tmp");
+                ObjectOutputStream stream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                try {
+                    while (tuples.hasNext()) {
+                        stream.writeObject(tuples.next());
+                        // Don't let the stream hold onto the tuples that were written ...
+                        stream.reset();
+                        ++count;
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                delete();
+                throw new SystemFailureException(e);
+            }
+        }
+
+        /**
+         * Read the tuples in this run, deleting the file once all of the tuples have been read.
+         * 
+         * @return the iterator over the tuples; never null
+         */
+        protected Iterator<Object[]> read() {
+            try {
+                input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new SystemFailureException(e);
+            }
+            return new TupleIterator() {
+                private int remaining = count;
+
+                @Override
+                protected Object[] findNext() {
+                    if (remaining == 0) {
+                        delete();
+                        return null;
+                    }
+                    --remaining;
+                    try {
+                        return (Object[])input.readObject();
+                    } catch (IOException e) {
+                        throw new SystemFailureException(e);
+                    } catch (ClassNotFoundException e) {
+                        throw new SystemFailureException(e);
+                    }
+                }
+            };
+        }
+
+        protected void delete() {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // ignore, since the file is being deleted anyway ...
+                }
+                input = null;
+            }
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,636 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Location;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * A {@link JoinComponent} that uses a hash table to join the tuples on the two sides of an {@link EquiJoinCondition equi-join},
+ * {@link SameNodeJoinCondition same-node join} or {@link ChildNodeJoinCondition child-node join}. All of the tuples on one side
+ * (the "build" side) are placed into a hash table keyed by the value used in the join condition, and then the tuples on the
+ * other side (the "probe" side) are streamed and joined with the matching tuples in the hash table. The join therefore reads each
+ * input only once, rather than reading the whole of one input for each tuple of the other as {@link NestedLoopJoinComponent} does.
+ * <p>
+ * For {@link JoinType#INNER inner joins}, the smaller of the two inputs is used as the build side; since the number of tuples is
+ * not known until the inputs are read, both inputs are read in step until one of them is exhausted. For
+ * {@link JoinType#LEFT_OUTER left outer} and {@link JoinType#RIGHT_OUTER right outer} joins, the side whose tuples are all to be
+ * included in the results is always used as the probe side.
+ * </p>
+ * <p>
+ * When the build side contains more than the {@link #getMaxBuildTuples() maximum number of tuples} that are to be held in memory,
+ * this component switches to a "grace hash join": the tuples on both sides are written into {@link #PARTITION_COUNT partitions}
+ * in temporary files based upon the hash of their join value, and each pair of partitions is then joined separately. Only the
+ * tuples in a single build-side partition are held in memory at any one time.
+ * </p>
+ * <p>
+ * This component only supports {@link JoinType#INNER inner}, {@link JoinType#LEFT_OUTER left outer} and
+ * {@link JoinType#RIGHT_OUTER right outer} joins; see {@link #supports(JoinCondition, JoinType)}.
+ * </p>
+ */
+public class HashJoinComponent extends JoinComponent {
+
+    /**
+     * The default maximum number of tuples on the build side that will be held in memory before the tuples are partitioned into
+     * temporary files.
+     */
+    public static final int DEFAULT_MAX_BUILD_TUPLES = 100000;
+
+    /**
+     * The number of partitions used when the tuples are written to temporary files.
+     */
+    protected static final int PARTITION_COUNT = 64;
+
+    /**
+     * Determine whether a hash join can be used for a join with the supplied condition and type.
+     * 
+     * @param condition the join condition; may not be null
+     * @param joinType the join type; may not be null
+     * @return true if this component supports the join, or false otherwise
+     */
+    public static boolean supports( JoinCondition condition,
+                                    JoinType joinType ) {
+        if (!(condition instanceof EquiJoinCondition) && !(condition instanceof SameNodeJoinCondition)
+            && !(condition instanceof ChildNodeJoinCondition)) {
+            return false;
+        }
+        return joinType == JoinType.INNER || joinType == JoinType.LEFT_OUTER || joinType == JoinType.RIGHT_OUTER;
+    }
+
+    private final int maxBuildTuples;
+    private final List<Partitions> partitions = new LinkedList<Partitions>();
+
+    public HashJoinComponent( QueryContext context,
+                              ProcessingComponent left,
+                              ProcessingComponent right,
+                              JoinCondition condition,
+                              JoinType joinType ) {
+        this(context, left, right, condition, joinType, DEFAULT_MAX_BUILD_TUPLES);
+    }
+
+    public HashJoinComponent( QueryContext context,
+                              ProcessingComponent left,
+                              ProcessingComponent right,
+                              JoinCondition condition,
+                              JoinType joinType,
+                              int maxBuildTuples ) {
+        super(context, left, right, condition, joinType);
+        assert supports(condition, joinType);
+        assert maxBuildTuples > 0;
+        this.maxBuildTuples = maxBuildTuples;
+    }
+
+    /**
+     * Get the maximum number of tuples on the build side that will be held in memory.
+     * 
+     * @return the maximum number of tuples; always positive
+     */
+    public int getMaxBuildTuples() {
+        return maxBuildTuples;
+    }
+
+    @Override
+    public List<Object[]> execute() {
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        Side leftSide = new Side(left(), true);
+        Side rightSide = new Side(right(), false);
+        Iterator<Object[]> leftTuples = left().iterator();
+        Iterator<Object[]> rightTuples = right().iterator();
+        List<Object[]> leftBuffer = new ArrayList<Object[]>();
+        List<Object[]> rightBuffer = new ArrayList<Object[]>();
+
+        // Determine which side to build on ...
+        boolean buildOnLeft;
+        boolean outer = false;
+        switch (getJoinType()) {
+            case LEFT_OUTER:
+                buildOnLeft = false;
+                outer = true;
+                break;
+            case RIGHT_OUTER:
+                buildOnLeft = true;
+                outer = true;
+                break;
+            default:
+                // Read both sides in step until one of them is exhausted or has more tuples than we're to hold in memory ...
+                while (leftTuples.hasNext() && rightTuples.hasNext() && leftBuffer.size() <= maxBuildTuples) {
+                    leftBuffer.add(leftTuples.next());
+                    rightBuffer.add(rightTuples.next());
+                }
+                buildOnLeft = !leftTuples.hasNext();
+                break;
+        }
+        Side build = buildOnLeft ? leftSide : rightSide;
+        Side probe = buildOnLeft ? rightSide : leftSide;
+        Iterator<Object[]> buildTuples = buildOnLeft ? leftTuples : rightTuples;
+        Iterator<Object[]> probeTuples = buildOnLeft ? rightTuples : leftTuples;
+        List<Object[]> buildBuffer = buildOnLeft ? leftBuffer : rightBuffer;
+        List<Object[]> probeBuffer = buildOnLeft ? rightBuffer : leftBuffer;
+
+        // Read the build side until it is exhausted or has more tuples than we're to hold in memory ...
+        while (buildTuples.hasNext() && buildBuffer.size() <= maxBuildTuples) {
+            buildBuffer.add(buildTuples.next());
+        }
+        if (!buildTuples.hasNext()) {
+            // The whole build side fits in memory ...
+            Map<Object, List<Object[]>> table = build.hash(buildBuffer.iterator());
+            return new ProbingIterator(build, table, probe, new BufferedIterator(probeBuffer, probeTuples), outer);
+        }
+
+        // Otherwise, partition both sides into temporary files and join each pair of partitions ...
+        Partitions buildPartitions = newPartitions();
+        Partitions probePartitions = newPartitions();
+        buildPartitions.addAll(build, new BufferedIterator(buildBuffer, buildTuples), false);
+        buildBuffer.clear();
+        probePartitions.addAll(probe, new BufferedIterator(probeBuffer, probeTuples), outer);
+        probeBuffer.clear();
+        return new PartitionedIterator(build, buildPartitions, probe, probePartitions, outer);
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (Partitions partitions : this.partitions) {
+                partitions.delete();
+            }
+            this.partitions.clear();
+        } finally {
+            super.close();
+        }
+    }
+
+    protected Partitions newPartitions() {
+        Partitions result = new Partitions(PARTITION_COUNT);
+        partitions.add(result);
+        return result;
+    }
+
+    /**
+     * Compute the partition for the supplied hash key.
+     * 
+     * @param key the hash key; may be null
+     * @return the partition number
+     */
+    protected static int partitionFor( Object key ) {
+        if (key == null) return 0;
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % PARTITION_COUNT;
+    }
+
+    /**
+     * One side of the join, which knows how to obtain the join value and the hash key for the tuples on that side.
+     */
+    protected final class Side {
+        protected final boolean isLeft;
+        private final ValueSelector selector;
+        private final HashKey hashKey;
+
+        protected Side( ProcessingComponent source,
+                        boolean isLeft ) {
+            this.isLeft = isLeft;
+            this.selector = valueSelectorFor(source, getJoinCondition());
+            this.hashKey = hashKeyFor(source, getJoinCondition());
+        }
+
+        /**
+         * Get the value used in the join condition.
+         * 
+         * @param tuple the tuple; never null
+         * @return the value; may be null
+         */
+        protected Object valueOf( Object[] tuple ) {
+            return selector.evaluate(tuple);
+        }
+
+        /**
+         * Get the hash key for the value used in the join condition. Two values can be joined only if their keys are equal.
+         * 
+         * @param value the non-null value
+         * @return the key, or null if the value cannot be joined with any value on the other side
+         */
+        protected Object keyOf( Object value ) {
+            return hashKey.keyOf(value);
+        }
+
+        /**
+         * Place all of the supplied tuples into a hash table, skipping those tuples that cannot be joined.
+         * 
+         * @param tuples the tuples; never null
+         * @return the hash table keyed by the hash key; never null
+         */
+        protected Map<Object, List<Object[]>> hash( Iterator<Object[]> tuples ) {
+            Map<Object, List<Object[]>> table = new HashMap<Object, List<Object[]>>();
+            while (tuples.hasNext()) {
+                Object[] tuple = tuples.next();
+                Object value = valueOf(tuple);
+                if (value == null) continue;
+                Object key = keyOf(value);
+                if (key == null) continue;
+                List<Object[]> matches = table.get(key);
+                if (matches == null) {
+                    // Most keys have a single tuple ...
+                    matches = new ArrayList<Object[]>(1);
+                    table.put(key, matches);
+                }
+                matches.add(tuple);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Obtain from a join value the key used to find the matching values on the other side of the join.
+     */
+    protected static interface HashKey {
+        /**
+         * Get the hash key.
+         * 
+         * @param value the non-null value used in the join condition
+         * @return the key, or null if the value cannot be joined
+         */
+        Object keyOf( Object value );
+    }
+
+    /**
+     * Create a {@link HashKey} for the values selected from the supplied source, such that the keys of values that satisfy the
+     * join condition are always {@link Object#equals(Object) equal}.
+     * 
+     * @param source the source component; may not be null
+     * @param condition the join condition; may not be null
+     * @return the hash key function; never null
+     */
+    protected static HashKey hashKeyFor( ProcessingComponent source,
+                                         JoinCondition condition ) {
+        if (condition instanceof EquiJoinCondition) {
+            return new HashKey() {
+                @Override
+                public Object keyOf( Object value ) {
+                    return value;
+                }
+            };
+        }
+        if (condition instanceof SameNodeJoinCondition) {
+            SameNodeJoinCondition joinCondition = (SameNodeJoinCondition)condition;
+            if (!source.getColumns().hasSelector(joinCondition.selector1Name().name())) {
+                // This is the side to which the relative path (if there is one) is applied ...
+                final PathFactory pathFactory = source.getContext().getExecutionContext().getValueFactories().getPathFactory();
+                final Path relPath = pathFactory.create(joinCondition.getSelector2Path());
+                if (relPath != null && !relPath.isAbsolute()
+                    && !(relPath.size() == 1 && relPath.getLastSegment().isSelfReference())) {
+                    return new HashKey() {
+                        @Override
+                        public Object keyOf( Object value ) {
+                            Path path = ((Location)value).getPath();
+                            return path != null ? pathFactory.create(path, relPath) : null;
+                        }
+                    };
+                }
+            }
+            return new HashKey() {
+                @Override
+                public Object keyOf( Object value ) {
+                    return ((Location)value).getPath();
+                }
+            };
+        }
+        if (condition instanceof ChildNodeJoinCondition) {
+            ChildNodeJoinCondition joinCondition = (ChildNodeJoinCondition)condition;
+            if (source.getColumns().hasSelector(joinCondition.childSelectorName().name())) {
+                // The children are matched by the path of their parent ...
+                return new HashKey() {
+                    @Override
+                    public Object keyOf( Object value ) {
+                        Path path = ((Location)value).getPath();
+                        return path != null && !path.isRoot() ? path.getParent() : null;
+                    }
+                };
+            }
+            return new HashKey() {
+                @Override
+                public Object keyOf( Object value ) {
+                    return ((Location)value).getPath();
+                }
+            };
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * An iterator that streams the tuples on the probe side and joins each with the matching tuples in the hash table built from
+     * the build side.
+     */
+    protected final class ProbingIterator extends TupleIterator {
+        private final Side build;
+        private final Map<Object, List<Object[]>> table;
+        private final Side probe;
+        private final Iterator<Object[]> probeTuples;
+        private final boolean outer;
+        private final Joinable joinable = joinableFor(left(), right(), getJoinCondition());
+        private final TupleMerger merger = createMerger(getColumns(), left().getColumns(), right().getColumns());
+        private Object[] probeTuple;
+        private Object probeValue;
+        private List<Object[]> matches = Collections.emptyList();
+        private int matchIndex;
+        private boolean matched = true;
+
+        protected ProbingIterator( Side build,
+                                   Map<Object, List<Object[]>> table,
+                                   Side probe,
+                                   Iterator<Object[]> probeTuples,
+                                   boolean outer ) {
+            this.build = build;
+            this.table = table;
+            this.probe = probe;
+            this.probeTuples = probeTuples;
+            this.outer = outer;
+        }
+
+        @Override
+        protected Object[] findNext() {
+            while (true) {
+                while (matchIndex < matches.size()) {
+                    Object[] buildTuple = matches.get(matchIndex++);
+                    Object buildValue = build.valueOf(buildTuple);
+                    if (build.isLeft) {
+                        if (joinable.evaluate(buildValue, probeValue)) {
+                            matched = true;
+                            return merger.merge(buildTuple, probeTuple);
+                        }
+                    } else if (joinable.evaluate(probeValue, buildValue)) {
+                        matched = true;
+                        return merger.merge(probeTuple, buildTuple);
+                    }
+                }
+                if (!matched) {
+                    // We still need to include the probe tuple (but only once) ...
+                    matched = true;
+                    return probe.isLeft ? merger.merge(probeTuple, null) : merger.merge(null, probeTuple);
+                }
+                // Find the next probe tuple that has a value (tuples with null values are never joined) ...
+                if (!probeTuples.hasNext()) return null;
+                probeTuple = probeTuples.next();
+                probeValue = probe.valueOf(probeTuple);
+                if (probeValue == null) continue;
+                Object key = probe.keyOf(probeValue);
+                List<Object[]> matches = key != null ? table.get(key) : null;
+                this.matches = matches != null ? matches : Collections.<Object[]>emptyList();
+                this.matchIndex = 0;
+                this.matched = !outer;
+            }
+        }
+    }
+
+    /**
+     * An iterator that joins each pair of build and probe partitions in turn.
+     */
+    protected final class PartitionedIterator extends TupleIterator {
+        private final Side build;
+        private final Partitions buildPartitions;
+        private final Side probe;
+        private final Partitions probePartitions;
+        private final boolean outer;
+        private Iterator<Object[]> current;
+        private int partition = -1;
+
+        protected PartitionedIterator( Side build,
+                                       Partitions buildPartitions,
+                                       Side probe,
+                                       Partitions probePartitions,
+                                       boolean outer ) {
+            this.build = build;
+            this.buildPartitions = buildPartitions;
+            this.probe = probe;
+            this.probePartitions = probePartitions;
+            this.outer = outer;
+        }
+
+        @Override
+        protected Object[] findNext() {
+            while (current == null || !current.hasNext()) {
+                if (partition >= 0) {
+                    // Done with the previous partition ...
+                    buildPartitions.delete(partition);
+                    probePartitions.delete(partition);
+                }
+                if (++partition == PARTITION_COUNT) {
+                    partitions.remove(buildPartitions);
+                    partitions.remove(probePartitions);
+                    return null;
+                }
+                if (probePartitions.isEmpty(partition)) continue;
+                if (buildPartitions.isEmpty(partition) && !outer) continue;
+                Map<Object, List<Object[]>> table = build.hash(buildPartitions.read(partition));
+                current = new ProbingIterator(build, table, probe, probePartitions.read(partition), outer);
+            }
+            return current.next();
+        }
+    }
+
+    /**
+     * A set of partitions of tuples, each of which is stored in a separate temporary file.
+     */
+    protected static final class Partitions {
+        private final File[] files;
+        private final ObjectOutputStream[] streams;
+        private final ObjectInputStream[] inputs;
+        private final int[] counts;
+
+        protected Partitions( int count ) {
+            this.files = new File[count];
+            this.streams = new ObjectOutputStream[count];
+            this.inputs = new ObjectInputStream[count];
+            this.counts = new int[count];
+        }
+
+        /**
+         * Write all of the supplied tuples into the partitions given by their hash keys, and then close the files.
+         * 
+         * @param side the side of the join that the tuples are from; may not be null
+         * @param tuples the tuples; may not be null
+         * @param includeUnmatchable true if the tuples whose join value is not null but that can never be joined should be kept
+         */
+        protected void addAll( Side side,
+                               Iterator<Object[]> tuples,
+                               boolean includeUnmatchable ) {
+            try {
+                try {
+                    while (tuples.hasNext()) {
+                        Object[] tuple = tuples.next();
+                        Object value = side.valueOf(tuple);
+                        if (value == null) continue;
+                        Object key = side.keyOf(value);
+                        if (key == null && !includeUnmatchable) continue;
+                        write(partitionFor(key), tuple);
+                    }
+                } finally {
+                    for (int i = 0; i != streams.length; ++i) {
+                        if (streams[i] != null) {
+                            streams[i].close();
+                            streams[i] = null;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new SystemFailureException(e);
+            }
+        }
+
+        private void write( int partition,
+                            Object[] tuple ) throws IOException {
+            ObjectOutputStream stream = streams[partition];
+            if (stream == null) {
+                files[partition] = File.createTempFile("modeshape-hash-join-", ".tmp");
+                stream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(files[partition])));
+                streams[partition] = stream;
+            }
+            stream.writeObject(tuple);
+            // Don't let the stream hold onto the tuples that were written ...
+            stream.reset();
+            ++counts[partition];
+        }
+
+        protected boolean isEmpty( int partition ) {
+            return counts[partition] == 0;
+        }
+
+        /**
+         * Read the tuples in the supplied partition.
+         * 
+         * @param partition the partition number
+         * @return the iterator over the tuples; never null
+         */
+        protected Iterator<Object[]> read( final int partition ) {
+            if (counts[partition] == 0) return Collections.<Object[]>emptyList().iterator();
+            try {
+                final ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(files[partition])));
+                inputs[partition] = stream;
+                return new TupleIterator() {
+                    private int remaining = counts[partition];
+
+                    @Override
+                    protected Object[] findNext() {
+                        try {
+                            if (remaining == 0) {
+                                stream.close();
+                                return null;
+                            }
+                            --remaining;
+                            return (Object[])stream.readObject();
+                        } catch (IOException e) {
+                            throw new SystemFailureException(e);
+                        } catch (ClassNotFoundException e) {
+                            throw new SystemFailureException(e);
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                throw new SystemFailureException(e);
+            }
+        }
+
+        protected void delete( int partition ) {
+            close(inputs[partition]);
+            inputs[partition] = null;
+            if (files[partition] != null) {
+                files[partition].delete();
+                files[partition] = null;
+            }
+        }
+
+        protected void delete() {
+            for (int i = 0; i != files.length; ++i) {
+                close(streams[i]);
+                streams[i] = null;
+                delete(i);
+            }
+        }
+
+        private static void close( Closeable stream ) {
+            if (stream == null) return;
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignore, since the file is being deleted anyway ...
+            }
+        }
+    }
+
+    /**
+     * An iterator over the tuples that were already read into a buffer followed by the remaining tuples.
+     */
+    protected static final class BufferedIterator implements Iterator<Object[]> {
+        private final Iterator<Object[]> buffered;
+        private final Iterator<Object[]> remaining;
+
+        protected BufferedIterator( List<Object[]> buffered,
+                                    Iterator<Object[]> remaining ) {
+            this.buffered = buffered.iterator();
+            this.remaining = remaining;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return buffered.hasNext() || remaining.hasNext();
+        }
+
+        @Override
+        public Object[] next() {
+            return buffered.hasNext() ? buffered.next() : remaining.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -26,7 +26,6 @@ package org.modeshape.jcr.query.process;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
@@ -47,81 +46,53 @@ public class IntersectComponent extends SetOperationComponent {
     }
 
     @Override
-    public List<Object[]> execute() {
-        Iterator<ProcessingComponent> sources = sources().iterator();
-        if (!sources.hasNext()) return emptyTuples();
-
-        // Execute all of the source components (so we can sort the results from the smallest to the largest) ...
-        // TODO: Parallelize this ???
-        List<List<Object[]>> allTuples = new LinkedList<List<Object[]>>();
-        while (sources.hasNext()) {
-            List<Object[]> tuples = sources.next().execute();
-            if (tuples == null) continue;
-            if (tuples.isEmpty()) return emptyTuples();
-            allTuples.add(tuples);
+    public Iterator<Object[]> iterator() {
+        List<Iterator<Object[]>> sortedTuples = sortedSourceTuples();
+        if (sortedTuples.isEmpty()) return Collections.<Object[]>emptyList().iterator();
+        // Intersect the sources 2 at a time, finding the tuples only as they are needed ...
+        Iterator<Object[]> tuples = sortedTuples.get(0);
+        for (Iterator<Object[]> next : sortedTuples.subList(1, sortedTuples.size())) {
+            tuples = intersect(tuples, next);
         }
-        if (allTuples.isEmpty()) return emptyTuples();
-        if (allTuples.size() == 1) return allTuples.get(0); // just one source
-        // Sort the tuples by size, starting with the smallest ...
-        Collections.sort(allTuples, new Comparator<List<Object[]>>() {
-            @Override
-            public int compare( List<Object[]> tuples1,
-                                List<Object[]> tuples2 ) {
-                return tuples1.size() - tuples2.size();
-            }
-        });
+        // Remove duplicates if requested to ...
+        return removeDuplicatesIfRequested(tuples);
+    }
 
-        // Do the sources 2 at a time ...
-        Iterator<List<Object[]>> iter = allTuples.iterator();
-        List<Object[]> tuples = iter.next(); // already sorted ...
-        assert iter.hasNext();
-        // Process the next source with the previous ...
-        while (iter.hasNext()) {
-            List<Object[]> next = iter.next(); // already sorted ...
-            // Walk through the first and second results ...
-            Iterator<Object[]> tupleIter = tuples.iterator();
-            Iterator<Object[]> nextIter = next.iterator();
-            // There is at least one tuple in each ...
-            Object[] tuple1 = tupleIter.next();
-            Object[] tuple2 = nextIter.next();
-            while (true) {
-                int comparison = comparator.compare(tuple1, tuple2);
-                if (comparison == 0) {
-                    if (!tupleIter.hasNext() || !nextIter.hasNext()) {
-                        break;
+    /**
+     * Create an iterator over the tuples in the first sorted iterator that have a matching tuple in the second sorted iterator.
+     * Each tuple in the second iterator matches at most one tuple in the first.
+     * 
+     * @param first the first sorted tuples; may not be null
+     * @param second the second sorted tuples; may not be null
+     * @return the iterator over the common tuples; never null
+     */
+    protected Iterator<Object[]> intersect( final Iterator<Object[]> first,
+                                            final Iterator<Object[]> second ) {
+        return new TupleIterator() {
+            private Object[] tuple1 = first.hasNext() ? first.next() : null;
+            private Object[] tuple2 = second.hasNext() ? second.next() : null;
+
+            @Override
+            protected Object[] findNext() {
+                while (tuple1 != null && tuple2 != null) {
+                    int comparison = comparator.compare(tuple1, tuple2);
+                    if (comparison == 0) {
+                        // Both match, so return the tuple and advance to next comparison ...
+                        Object[] result = tuple1;
+                        tuple1 = first.hasNext() ? first.next() : null;
+                        tuple2 = second.hasNext() ? second.next() : null;
+                        return result;
                     }
-                    // Both match, so leave the tuple in 'tuples' and advance to next comparison ...
-                    tuple1 = tupleIter.next();
-                    tuple2 = nextIter.next();
-                } else {
-                    // No match, so remove tuple1 from 'tuples'
-                    tupleIter.remove();
                     if (comparison < 0) {
-                        // tuple1 is less than tuple2, so advance tupleIter ...
-                        if (!tupleIter.hasNext()) {
-                            // The intersection results ('tuples') has no more tuples, so go to the next source ...
-                            break;
-                        }
-                        tuple1 = tupleIter.next();
+                        // tuple1 is less than tuple2, so advance the first ...
+                        tuple1 = first.hasNext() ? first.next() : null;
                     } else {
-                        // tuple1 is greater than tuple2, so advance nextIter ...
-                        if (!nextIter.hasNext()) {
-                            // The next source has no more tuples, so remove all remaining tuples ...
-                            while (tupleIter.hasNext()) {
-                                tupleIter.next();
-                                tupleIter.remove();
-                            }
-                            // then go to the next source ...
-                            break;
-                        }
-                        tuple2 = nextIter.next();
+                        // tuple1 is greater than tuple2, so advance the second ...
+                        tuple2 = second.hasNext() ? second.next() : null;
                     }
                 }
+                return null;
             }
-        }
-        // Remove duplicates if requested to ...
-        removeDuplicatesIfRequested(tuples);
-        // Return all of the common tuples that were in all sources ...
-        return tuples;
+        };
     }
 }
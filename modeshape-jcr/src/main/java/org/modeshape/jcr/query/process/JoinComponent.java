@@ -104,6 +104,16 @@ public abstract class JoinComponent extends ProcessingComponent {
         return right;
     }
 
+    @Override
+    public void close() {
+        try {
+            left.close();
+            right.close();
+        } finally {
+            super.close();
+        }
+    }
+
     /**
      * Get the columns definition for the results from the left side of the join.
      * 
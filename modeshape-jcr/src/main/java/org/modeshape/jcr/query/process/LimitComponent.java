@@ -23,6 +23,8 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import org.modeshape.jcr.query.model.Limit;
 
@@ -44,27 +46,32 @@ public class LimitComponent extends DelegatingComponent {
         if (limit.getRowLimit() == 0) {
             return emptyTuples();
         }
-        List<Object[]> tuples = delegate().execute();
-        if (limit.isOffset()) {
-            if (limit.getOffset() >= tuples.size()) {
-                // There aren't enough results, so return an empty list ...
-                return emptyTuples();
-            }
-            if (limit.hasRowLimited()) {
-                // Both an offset AND a row limit (which may be more than the number of rows available)...
-                int toIndex = Math.min(tuples.size(), Math.max(0, limit.getOffset() + limit.getRowLimit()));
-                tuples = tuples.subList(limit.getOffset(), toIndex);
-            } else {
-                // An offset, but no row limit ...
-                tuples = tuples.subList(limit.getOffset(), tuples.size());
-            }
-        } else {
-            // No offset, but perhaps there's a row limit ...
-            if (limit.hasRowLimited()) {
-                int toIndex = Math.min(limit.getRowLimit(), tuples.size());
-                tuples = tuples.subList(0, toIndex);
-            }
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        if (limit.getRowLimit() == 0) {
+            return Collections.<Object[]>emptyList().iterator();
         }
-        return tuples;
+        final Iterator<Object[]> tuples = delegate().iterator();
+        return new TupleIterator() {
+            private int skipped = 0;
+            private int returned = 0;
+
+            @Override
+            protected Object[] findNext() {
+                // Skip the tuples before the offset ...
+                while (skipped < limit.getOffset() && tuples.hasNext()) {
+                    tuples.next();
+                    ++skipped;
+                }
+                // Stop pulling tuples from the delegate once the row limit has been reached ...
+                if (limit.hasRowLimited() && returned >= limit.getRowLimit()) return null;
+                if (!tuples.hasNext()) return null;
+                ++returned;
+                return tuples.next();
+            }
+        };
     }
 }
@@ -25,7 +25,9 @@ package org.modeshape.jcr.query.process;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.collection.Problems;
 import org.modeshape.jcr.query.QueryContext;
@@ -101,6 +103,20 @@ public abstract class ProcessingComponent {
      */
     public abstract List<Object[]> execute();
 
+    /**
+     * Obtain an iterator over the tuples that result from this stage of processing. Unlike {@link #execute()}, components that
+     * are able to process one tuple at a time pull the tuples from their delegates only as the returned iterator is advanced, so
+     * a consumer that stops early (e.g., a {@link LimitComponent}) avoids the cost of producing the remaining tuples.
+     * <p>
+     * By default, this method simply {@link #execute() executes} this component and iterates over the resulting list.
+     * </p>
+     * 
+     * @return the iterator over the tuples, where each tuple corresonds to the {@link #getColumns() columns}; never null
+     */
+    public Iterator<Object[]> iterator() {
+        return execute().iterator();
+    }
+
     /**
      * Close these results, allowing any resources to be released.
      */
@@ -116,6 +132,58 @@ public abstract class ProcessingComponent {
         return new ArrayList<Object[]>(0);
     }
 
+    /**
+     * Utility method to create a new tuples list that contains all of the tuples from the supplied iterator.
+     * 
+     * @param tuples the iterator over the tuples; may not be null
+     * @return the tuples list; never null
+     */
+    protected static List<Object[]> tuplesFrom( Iterator<Object[]> tuples ) {
+        List<Object[]> result = new ArrayList<Object[]>();
+        while (tuples.hasNext()) {
+            result.add(tuples.next());
+        }
+        return result;
+    }
+
+    /**
+     * A base class for the read-only iterators that are returned from {@link ProcessingComponent#iterator()}, and which find each
+     * tuple only when it is needed.
+     */
+    protected static abstract class TupleIterator implements Iterator<Object[]> {
+        private Object[] next;
+        private boolean done;
+
+        /**
+         * Find the next tuple.
+         * 
+         * @return the next tuple, or null if there are no more tuples
+         */
+        protected abstract Object[] findNext();
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = findNext();
+                if (next == null) done = true;
+            }
+            return next != null;
+        }
+
+        @Override
+        public Object[] next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Object[] result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * Interface for evaluating a {@link DynamicOperand} to return the resulting value.
      */
@@ -524,7 +592,7 @@ public abstract class ProcessingComponent {
             public int compare( Object[] tuple1,
                                 Object[] tuple2 ) {
                 int result = 0;
-                for (int locationIndex = firstLocationIndex; locationIndex != numLocations; ++locationIndex) {
+                for (int locationIndex = firstLocationIndex; locationIndex != firstLocationIndex + numLocations; ++locationIndex) {
                     Location value1 = (Location)tuple1[locationIndex];
                     Location value2 = (Location)tuple2[locationIndex];
                     result = typeComparator.compare(value1, value2);
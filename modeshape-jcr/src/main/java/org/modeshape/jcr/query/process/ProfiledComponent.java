@@ -0,0 +1,91 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.util.Iterator;
+import java.util.List;
+import org.modeshape.common.annotation.NotThreadSafe;
+
+/**
+ * A {@link ProcessingComponent} that records in a {@link ComponentProfile} the number of tuples produced by and the time spent in
+ * another component, which is used for every component when a query is executed with the
+ * {@link org.modeshape.jcr.query.plan.PlanHints#profile profile} hint.
+ */
+@NotThreadSafe
+public class ProfiledComponent extends DelegatingComponent {
+
+    private final ComponentProfile profile;
+
+    public ProfiledComponent( ProcessingComponent delegate,
+                              ComponentProfile profile ) {
+        super(delegate);
+        this.profile = profile;
+    }
+
+    /**
+     * Get the profile in which the statistics are recorded.
+     * 
+     * @return the profile; never null
+     */
+    public ComponentProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public List<Object[]> execute() {
+        long start = System.nanoTime();
+        List<Object[]> tuples = null;
+        try {
+            tuples = delegate().execute();
+            return tuples;
+        } finally {
+            profile.recordTime(Math.abs(System.nanoTime() - start));
+            if (tuples != null) profile.recordRows(tuples.size());
+        }
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        long start = System.nanoTime();
+        final Iterator<Object[]> tuples;
+        try {
+            tuples = delegate().iterator();
+        } finally {
+            profile.recordTime(Math.abs(System.nanoTime() - start));
+        }
+        return new TupleIterator() {
+            @Override
+            protected Object[] findNext() {
+                long start = System.nanoTime();
+                try {
+                    if (!tuples.hasNext()) return null;
+                    profile.recordRow();
+                    return tuples.next();
+                } finally {
+                    profile.recordTime(Math.abs(System.nanoTime() - start));
+                }
+            }
+        };
+    }
+}
@@ -23,7 +23,9 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.util.CheckArg;
@@ -46,6 +48,7 @@ import org.modeshape.jcr.query.plan.PlanNode.Property;
 import org.modeshape.jcr.query.plan.PlanNode.Traversal;
 import org.modeshape.jcr.query.plan.PlanNode.Type;
 import org.modeshape.jcr.query.plan.Planner;
+import org.modeshape.jcr.query.plan.QueryPlanCache;
 import org.modeshape.jcr.query.validate.Schemata;
 
 /**
@@ -57,6 +60,7 @@ public class QueryEngine {
     protected final Planner planner;
     protected final Optimizer optimizer;
     protected final Processor processor;
+    protected final QueryPlanCache planCache;
 
     /**
      * Create a new query engine given the {@link Planner planner}, {@link Optimizer optimizer}, {@link Processor processor}, and
@@ -72,10 +76,30 @@ public class QueryEngine {
     public QueryEngine( Planner planner,
                         Optimizer optimizer,
                         Processor processor ) {
+        this(planner, optimizer, processor, null);
+    }
+
+    /**
+     * Create a new query engine given the {@link Planner planner}, {@link Optimizer optimizer}, {@link Processor processor}, and
+     * the cache of optimized plans.
+     * 
+     * @param planner the planner that should be used to generate canonical query plans for the queries; may be null if the
+     *        {@link CanonicalPlanner} should be used
+     * @param optimizer the optimizer that should be used to optimize the canonical query plan; may be null if the
+     *        {@link RuleBasedOptimizer} should be used
+     * @param processor the processor implementation that should be used to process the planned query and return the results
+     * @param planCache the cache in which optimized plans are kept and reused; may be null if plans should not be cached
+     * @throws IllegalArgumentException if the processor reference is null
+     */
+    public QueryEngine( Planner planner,
+                        Optimizer optimizer,
+                        Processor processor,
+                        QueryPlanCache planCache ) {
         CheckArg.isNotNull(processor, "processor");
         this.planner = planner != null ? planner : new CanonicalPlanner();
         this.optimizer = optimizer != null ? optimizer : new RuleBasedOptimizer();
         this.processor = processor;
+        this.planCache = planCache;
     }
 
     private void checkCancelled( QueryContext context ) throws QueryCancelledException {
@@ -111,20 +135,31 @@ public class QueryEngine {
             }
         });
 
-        // Create the canonical plan ...
+        // Reuse the optimized plan for an equivalent query, or create the canonical plan ...
         long start = System.nanoTime();
-        PlanNode plan = planner.createPlan(context, query);
+        QueryPlanCache.PlanKey planKey = planCache != null ? planCache.keyFor(context, query) : null;
+        PlanNode cachedPlan = planKey != null ? planCache.getPlan(planKey, context) : null;
+        Set<String> variableNames = null;
+        PlanNode plan = cachedPlan;
+        if (plan == null) {
+            if (planKey != null) variableNames = new HashSet<String>(context.getVariables().keySet());
+            plan = planner.createPlan(context, query);
+        }
         long duration = Math.abs(System.nanoTime() - start);
         Statistics stats = new Statistics(duration);
 
         checkCancelled(context);
         QueryResultColumns resultColumns = QueryResultColumns.empty();
         if (!context.getProblems().hasErrors()) {
-            // Optimize the plan ...
-            start = System.nanoTime();
-            PlanNode optimizedPlan = optimizer.optimize(context, plan);
-            duration = Math.abs(System.nanoTime() - start);
-            stats = stats.withOptimizationTime(duration);
+            PlanNode optimizedPlan = cachedPlan;
+            if (optimizedPlan == null) {
+                // Optimize the plan ...
+                start = System.nanoTime();
+                optimizedPlan = optimizer.optimize(context, plan);
+                duration = Math.abs(System.nanoTime() - start);
+                stats = stats.withOptimizationTime(duration);
+                if (planKey != null) planCache.putPlan(planKey, context, variableNames, optimizedPlan);
+            }
 
             // Find the query result columns ...
             start = System.nanoTime();
@@ -137,7 +172,7 @@ public class QueryEngine {
                 // Execute the plan ...
                 try {
                     start = System.nanoTime();
-                    return processor.execute(context, query, stats, optimizedPlan);
+                    return process(context, query, stats, optimizedPlan);
                 } finally {
                     duration = Math.abs(System.nanoTime() - start);
                     stats = stats.withExecutionTime(duration);
@@ -151,6 +186,22 @@ public class QueryEngine {
         return new org.modeshape.jcr.query.process.QueryResults(resultColumns, stats, context.getProblems());
     }
 
+    /**
+     * Process the optimized plan of the supplied query.
+     * 
+     * @param context the context in which the query should be executed; may not be null
+     * @param query the query that is to be executed; may not be null
+     * @param statistics the statistics for planning and optimizing the query; may not be null
+     * @param optimizedPlan the optimized plan of the query; may not be null
+     * @return the query results; never null
+     */
+    protected QueryResults process( QueryContext context,
+                                    QueryCommand query,
+                                    Statistics statistics,
+                                    PlanNode optimizedPlan ) {
+        return processor.execute(context, query, statistics, optimizedPlan);
+    }
+
     protected QueryResultColumns determineQueryResultColumns( PlanNode optimizedPlan,
                                                               PlanHints hints ) {
         // Look for which columns to include in the results; this will be defined by the highest PROJECT node ...
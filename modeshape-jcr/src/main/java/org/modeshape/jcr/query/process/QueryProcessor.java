@@ -26,6 +26,7 @@ package org.modeshape.jcr.query.process;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +50,7 @@ import org.modeshape.jcr.query.plan.JoinAlgorithm;
 import org.modeshape.jcr.query.plan.PlanNode;
 import org.modeshape.jcr.query.plan.PlanNode.Property;
 import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.plan.PlanUtil;
 
 /**
  * An abstract {@link Processor} implementation that builds a tree of {@link ProcessingComponent} objects to perform the different
@@ -68,6 +70,7 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
         long nanos = System.nanoTime();
         Columns columns = null;
         List<Object[]> tuples = null;
+        org.modeshape.jcr.query.process.QueryResults.TupleSource source = null;
         try {
             // Find the topmost PROJECT node and build the Columns ...
             PlanNode project = plan.findAtOrBelow(Type.PROJECT);
@@ -91,24 +94,37 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
                 nanos = nanos2;
 
                 if (component != null) {
-                    // Now execute the component ...
                     columns = component.getColumns();
-                    tuples = component.execute();
+                    if (context.getHints().profile || context.getHints().showPlan) {
+                        // The profile and plan describe the complete execution, so execute the component now ...
+                        try {
+                            tuples = component.execute();
+                        } finally {
+                            // Release any resources (e.g., temporary files) used by the components ...
+                            component.close();
+                        }
+                    } else {
+                        // Otherwise the tuples are pulled from the component only as the results are iterated ...
+                        source = new ComponentTupleSource(component, processingContext);
+                    }
                 } else {
                     // There must have been an error or was cancelled ...
                     assert context.getProblems().hasErrors() || context.isCancelled();
                     tuples = Collections.emptyList();
                 }
             } finally {
-                // Always close the processing context !!!
-                closeProcessingContext(processingContext);
+                // Always close the processing context, unless the source now owns it !!!
+                if (source == null) closeProcessingContext(processingContext);
             }
 
         } finally {
             statistics = statistics.withExecutionTime(Math.abs(System.nanoTime() - nanos));
         }
-        assert tuples != null;
         final String planDesc = context.getHints().showPlan ? plan.getString() : null;
+        if (source != null) {
+            return new org.modeshape.jcr.query.process.QueryResults(columns, statistics, source, context.getProblems(), planDesc);
+        }
+        assert tuples != null;
         return new org.modeshape.jcr.query.process.QueryResults(columns, statistics, tuples, context.getProblems(), planDesc);
     }
 
@@ -176,6 +192,12 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
                                                    PlanNode node,
                                                    Columns columns,
                                                    ProcessingContextType processingContext ) {
+        ComponentProfile profile = null;
+        if (context.getHints().profile) {
+            // Record the statistics for this node in the plan, where the components can also find it ...
+            profile = new ComponentProfile();
+            node.setProperty(Property.PROFILE, profile);
+        }
         ProcessingComponent component = null;
         switch (node.getType()) {
             case ACCESS:
@@ -237,6 +259,9 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
                     case NESTED_LOOP:
                         component = new NestedLoopJoinComponent(context, left, right, joinCondition, joinType);
                         break;
+                    case HASH:
+                        component = new HashJoinComponent(context, left, right, joinCondition, joinType);
+                        break;
                 }
                 // For each Constraint object applied to the JOIN, simply create a SelectComponent on top ...
                 List<Constraint> constraints = node.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
@@ -342,8 +367,9 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
                             SelectorName alias = source.getProperty(Property.SOURCE_ALIAS, SelectorName.class);
                             if (alias != null) sourceNamesByAlias.put(alias, name);
                         }
-                        // Now create the sorting component ...
-                        component = new SortValuesComponent(sortDelegate, orderings, sourceNamesByAlias);
+                        // Now create the sorting component, which needs to return only the tuples required by any LIMIT ...
+                        int maxTuples = PlanUtil.maxSortedTuples(node);
+                        component = new SortValuesComponent(sortDelegate, orderings, sourceNamesByAlias, maxTuples);
                     } else {
                         // Order by the location(s) because it's before a merge-join ...
                         component = new SortLocationsComponent(sortDelegate);
@@ -373,6 +399,7 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
                 throw new UnsupportedOperationException();
         }
         assert component != null;
+        if (profile != null) component = new ProfiledComponent(component, profile);
         return component;
     }
 
@@ -388,4 +415,51 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
         assert columnTypes.size() == columns.size();
         return new QueryResultColumns(columns, columnTypes, projectedColumns.hasFullTextSearchScores());
     }
+
+    /**
+     * The source of the tuples for streamed results, which pulls the tuples from the top-level {@link ProcessingComponent} and
+     * which closes that component and the processing context once the results no longer need them.
+     */
+    protected final class ComponentTupleSource implements org.modeshape.jcr.query.process.QueryResults.TupleSource {
+        private final ProcessingComponent component;
+        private final ProcessingContextType processingContext;
+        private final Iterator<Object[]> tuples;
+
+        protected ComponentTupleSource( ProcessingComponent component,
+                                        ProcessingContextType processingContext ) {
+            this.component = component;
+            this.processingContext = processingContext;
+            try {
+                this.tuples = component.iterator();
+            } catch (RuntimeException e) {
+                component.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return tuples.hasNext();
+        }
+
+        @Override
+        public Object[] next() {
+            return tuples.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            try {
+                // Release any resources (e.g., temporary files) used by the components ...
+                component.close();
+            } finally {
+                closeProcessingContext(processingContext);
+            }
+        }
+    }
 }
@@ -0,0 +1,720 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.collection.ConcurrentLruCache;
+import org.modeshape.jcr.JcrLexicon;
+import org.modeshape.jcr.api.query.qom.Operator;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.SessionCache;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.NodeChanged;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+import org.modeshape.jcr.cache.change.PropertyAdded;
+import org.modeshape.jcr.cache.change.PropertyChanged;
+import org.modeshape.jcr.cache.change.PropertyRemoved;
+import org.modeshape.jcr.cache.change.WorkspaceAdded;
+import org.modeshape.jcr.cache.change.WorkspaceRemoved;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.QueryResults.Location;
+import org.modeshape.jcr.query.QueryResults.Statistics;
+import org.modeshape.jcr.query.model.Column;
+import org.modeshape.jcr.query.model.Comparison;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DynamicOperand;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.FullTextSearch;
+import org.modeshape.jcr.query.model.FullTextSearchScore;
+import org.modeshape.jcr.query.model.Literal;
+import org.modeshape.jcr.query.model.Or;
+import org.modeshape.jcr.query.model.PropertyExistence;
+import org.modeshape.jcr.query.model.PropertyValue;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.ReferenceValue;
+import org.modeshape.jcr.query.model.SetCriteria;
+import org.modeshape.jcr.query.model.StaticOperand;
+import org.modeshape.jcr.query.model.Visitable;
+import org.modeshape.jcr.query.model.Visitors;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.NameFactory;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.ValueFormatException;
+
+/**
+ * A bounded cache of the results of queries, shared by all of the sessions that query a repository.
+ * <p>
+ * Results are keyed by the {@link QueryCommand query}, the hints produced while planning it, the values of the bind variables,
+ * the names of the queried workspaces, and the {@link Schemata} instance used to plan the query; together these determine the
+ * optimized plan. Only results that reflect the persisted content are cached, so queries against sessions with transient changes
+ * are never cached. The rows are kept as they were produced (the locations and column values, but never the nodes), and the cache
+ * is bounded by the number of results and by their estimated size in bytes.
+ * </p>
+ * <p>
+ * Each cached result records what in the content it depends upon: the properties used anywhere in the optimized plan, and the
+ * primary types and mixins to which the plan's selectors are restricted. Each {@link #invalidate(ChangeSet) change set} then
+ * removes only the results that it may affect:
+ * <ul>
+ * <li>nodes that are removed, moved, renamed or reordered change the paths of other nodes, so they affect all results for the
+ * workspace;</li>
+ * <li>new nodes affect only the results of selectors that are not restricted to particular types, or that are restricted to the
+ * primary type or one of the mixins of the new node; and</li>
+ * <li>added, changed and removed properties of existing nodes affect only the results that use those properties (or that use
+ * full-text search).</li>
+ * </ul>
+ * Queries are executed concurrently with invalidations, so callers obtain the current {@link #generation() generation} before
+ * executing a query and supply it when {@link #putResults(ResultKey, long, QueryContext, PlanNode, QueryResults) adding} the
+ * results; the results are not kept if any results were invalidated in the meantime. Since change sets are processed after the
+ * indexes are updated, this cache should only be used when the content is indexed synchronously.
+ * </p>
+ */
+@ThreadSafe
+public class QueryResultCache {
+
+    /**
+     * The default maximum number of results kept in the cache.
+     */
+    public static final long DEFAULT_MAX_RESULTS = 1000L;
+
+    private final ConcurrentLruCache<ResultKey, CachedResults> results;
+    private final String systemWorkspaceName;
+    private final long maxResultSizeInBytes;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Create a new cache.
+     * 
+     * @param systemWorkspaceName the name of the system workspace, whose content appears in all workspaces; may not be null
+     * @param maxResults the maximum number of results, or zero or a negative value if the number of results is not bounded
+     * @param maxSizeInBytes the maximum estimated size of all results, or zero or a negative value if the size is not bounded
+     */
+    public QueryResultCache( String systemWorkspaceName,
+                             long maxResults,
+                             long maxSizeInBytes ) {
+        this.systemWorkspaceName = systemWorkspaceName;
+        this.results = new ConcurrentLruCache<ResultKey, CachedResults>(maxResults, maxSizeInBytes, new ResultsWeigher());
+        // A single result should never evict most of the other results ...
+        this.maxResultSizeInBytes = maxSizeInBytes > 0L ? maxSizeInBytes / ConcurrentLruCache.DEFAULT_CONCURRENCY_LEVEL : 0L;
+    }
+
+    /**
+     * Create the key for the results of the supplied query. This must be called after the query has been planned and optimized,
+     * since the key includes the hints and variables produced by planning.
+     * 
+     * @param context the context in which the query is being executed; may not be null
+     * @param query the query; may not be null
+     * @return the key, or null if the results should not be cached because the context has problems, because the query is being
+     *         profiled, or because the results may reflect transient changes
+     */
+    public ResultKey keyFor( QueryContext context,
+                             QueryCommand query ) {
+        if (context.getProblems().hasProblems() || context.getHints().profile) return null;
+        for (String workspaceName : context.getWorkspaceNames()) {
+            NodeCache cache = context.getNodeCache(workspaceName);
+            if (cache instanceof SessionCache && ((SessionCache)cache).hasChanges()) return null;
+        }
+        return new ResultKey(query, context.getHints().toString(), new HashMap<String, Object>(context.getVariables()),
+                             new HashSet<String>(context.getWorkspaceNames()), context.getSchemata());
+    }
+
+    /**
+     * Get the current generation of this cache, which must be obtained before executing a query whose results are to be
+     * {@link #putResults(ResultKey, long, QueryContext, PlanNode, QueryResults) added} to this cache.
+     * 
+     * @return the generation
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Get the results that were cached with the supplied key.
+     * 
+     * @param key the key obtained from {@link #keyFor(QueryContext, QueryCommand)}; may not be null
+     * @param statistics the statistics for planning and finding the cached results; may not be null
+     * @return the results, or null if there are no such results in the cache
+     */
+    public QueryResults getResults( ResultKey key,
+                                    Statistics statistics ) {
+        CachedResults cached = results.get(key);
+        if (cached == null) return null;
+        return new QueryResults(cached.columns, statistics, cached.tuples, null, cached.plan);
+    }
+
+    /**
+     * Record the results for the supplied key, unless they may not be reused or results were invalidated since the supplied
+     * generation.
+     * 
+     * @param key the key obtained from {@link #keyFor(QueryContext, QueryCommand)}; may not be null
+     * @param generation the {@link #generation() generation} obtained before the query was executed
+     * @param context the context in which the query was executed; may not be null
+     * @param optimizedPlan the optimized plan of the query; may not be null
+     * @param queryResults the results of the query; may not be null
+     * @return true if the results were cached, or false otherwise
+     */
+    public boolean putResults( ResultKey key,
+                               long generation,
+                               QueryContext context,
+                               PlanNode optimizedPlan,
+                               org.modeshape.jcr.query.QueryResults queryResults ) {
+        if (context.isCancelled() || context.getProblems().hasProblems() || queryResults.getProblems().hasProblems()) return false;
+        List<Object[]> tuples = queryResults.getTuples();
+        long sizeInBytes = estimateSize(tuples);
+        if (maxResultSizeInBytes > 0L && sizeInBytes > maxResultSizeInBytes) return false;
+        Dependencies dependencies = Dependencies.of(optimizedPlan, context);
+        CachedResults cached = new CachedResults(queryResults.getColumns(), Collections.unmodifiableList(tuples),
+                                                 queryResults.getPlan(), dependencies, sizeInBytes);
+        if (this.generation.get() != generation) return false;
+        results.put(key, cached);
+        // An invalidation might have happened after the check but before the 'put' ...
+        if (this.generation.get() != generation) results.remove(key);
+        return true;
+    }
+
+    /**
+     * Remove the results that may have been changed by the supplied changes.
+     * 
+     * @param changes the changes; may not be null
+     */
+    public void invalidate( ChangeSet changes ) {
+        String workspaceName = changes.getWorkspaceName();
+        if (workspaceName == null) {
+            // Changes to the set of workspaces are not associated with a workspace ...
+            for (Change change : changes) {
+                if (change instanceof WorkspaceAdded || change instanceof WorkspaceRemoved) {
+                    clear();
+                    return;
+                }
+            }
+            return;
+        }
+        ChangeSummary summary = ChangeSummary.of(changes);
+        if (summary == null) return;
+        generation.incrementAndGet();
+        // The system content is projected into every workspace ...
+        String affectedWorkspaceName = systemWorkspaceName.equals(workspaceName) ? null : workspaceName;
+        invalidations.addAndGet(results.removeAll(new AffectedResults(affectedWorkspaceName, summary)));
+    }
+
+    /**
+     * Remove all results from this cache.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        invalidations.addAndGet(results.size());
+        results.clear();
+    }
+
+    /**
+     * Get the number of results in this cache.
+     * 
+     * @return the number of results
+     */
+    public long size() {
+        return results.size();
+    }
+
+    /**
+     * Get the estimated size of the results in this cache.
+     * 
+     * @return the size in bytes
+     */
+    public long sizeInBytes() {
+        return results.weight();
+    }
+
+    /**
+     * Get the number of times results were found in this cache.
+     * 
+     * @return the cumulative number of hits
+     */
+    public long getHitCount() {
+        return results.getHitCount();
+    }
+
+    /**
+     * Get the number of times results were not found in this cache.
+     * 
+     * @return the cumulative number of misses
+     */
+    public long getMissCount() {
+        return results.getMissCount();
+    }
+
+    /**
+     * Get the number of results that were removed from this cache because of changes in the content.
+     * 
+     * @return the cumulative number of invalidated results
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * Get the number of results that were evicted from this cache to keep it within its limits.
+     * 
+     * @return the cumulative number of evictions
+     */
+    public long getEvictionCount() {
+        return results.getEvictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResultCache (results=" + results.size() + ", sizeInBytes=" + results.weight() + ", maxResults="
+               + results.getMaximumEntries() + ", maxSizeInBytes=" + results.getMaximumWeight() + ", hits="
+               + results.getHitCount() + ", misses=" + results.getMissCount() + ", invalidations=" + invalidations.get() + ")";
+    }
+
+    /**
+     * Estimate the size in bytes of the supplied tuples.
+     * 
+     * @param tuples the tuples; may not be null
+     * @return the estimated size
+     */
+    protected static long estimateSize( List<Object[]> tuples ) {
+        long size = 64L;
+        for (Object[] tuple : tuples) {
+            size += estimateSizeOf(tuple);
+        }
+        return size;
+    }
+
+    private static long estimateSizeOf( Object value ) {
+        if (value == null) return 8L;
+        if (value instanceof Object[]) {
+            Object[] values = (Object[])value;
+            long size = 16L + 8L * values.length;
+            for (Object element : values) {
+                size += estimateSizeOf(element);
+            }
+            return size;
+        }
+        if (value instanceof String) return 40L + 2L * ((String)value).length();
+        if (value instanceof Location) return 32L + estimateSizeOf(((Location)value).getPath());
+        if (value instanceof Path) return 32L + 48L * ((Path)value).size();
+        return 32L;
+    }
+
+    /**
+     * The key of cached results. The schemata is compared by identity, since each change to the node types or namespaces results
+     * in a new schemata.
+     */
+    @Immutable
+    public static final class ResultKey {
+        private final QueryCommand query;
+        private final String hints;
+        private final Map<String, Object> variables;
+        private final Set<String> workspaceNames;
+        private final Schemata schemata;
+        private final int hc;
+
+        protected ResultKey( QueryCommand query,
+                             String hints,
+                             Map<String, Object> variables,
+                             Set<String> workspaceNames,
+                             Schemata schemata ) {
+            this.query = query;
+            this.hints = hints;
+            this.variables = variables;
+            this.workspaceNames = workspaceNames;
+            this.schemata = schemata;
+            this.hc = 31 * (31 * (31 * query.hashCode() + hints.hashCode()) + variables.hashCode()) + workspaceNames.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof ResultKey) {
+                ResultKey that = (ResultKey)obj;
+                return this.hc == that.hc && this.schemata == that.schemata && this.hints.equals(that.hints)
+                       && this.workspaceNames.equals(that.workspaceNames) && this.variables.equals(that.variables)
+                       && this.query.equals(that.query);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return query + " " + hints + " " + variables + " " + workspaceNames;
+        }
+    }
+
+    @Immutable
+    protected static final class CachedResults {
+        protected final Columns columns;
+        protected final List<Object[]> tuples;
+        protected final String plan;
+        protected final Dependencies dependencies;
+        protected final long sizeInBytes;
+
+        protected CachedResults( Columns columns,
+                                 List<Object[]> tuples,
+                                 String plan,
+                                 Dependencies dependencies,
+                                 long sizeInBytes ) {
+            this.columns = columns;
+            this.tuples = tuples;
+            this.plan = plan;
+            this.dependencies = dependencies;
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+
+    protected static final class ResultsWeigher implements ConcurrentLruCache.Weigher<ResultKey, CachedResults> {
+        @Override
+        public long weigh( ResultKey key,
+                           CachedResults value ) {
+            return value.sizeInBytes;
+        }
+    }
+
+    /**
+     * The parts of the content upon which cached results depend.
+     */
+    @Immutable
+    protected static final class Dependencies {
+        /**
+         * Determine the dependencies of the supplied optimized plan.
+         * 
+         * @param plan the optimized plan; may not be null
+         * @param context the context in which the plan was created; may not be null
+         * @return the dependencies; never null
+         */
+        protected static Dependencies of( PlanNode plan,
+                                          QueryContext context ) {
+            DependencyCollector collector = new DependencyCollector(context.getExecutionContext().getValueFactories()
+                                                                           .getNameFactory());
+            collector.collect(plan);
+            return new Dependencies(context.getWorkspaceNames(), collector);
+        }
+
+        protected final Set<String> workspaceNames;
+        protected final Set<Name> propertyNames;
+        protected final Set<Name> typeNames;
+        protected final boolean anyProperty;
+        protected final boolean anyType;
+
+        protected Dependencies( Set<String> workspaceNames,
+                                DependencyCollector collector ) {
+            this.workspaceNames = Collections.unmodifiableSet(new HashSet<String>(workspaceNames));
+            this.propertyNames = Collections.unmodifiableSet(collector.propertyNames);
+            this.typeNames = Collections.unmodifiableSet(collector.typeNames);
+            this.anyProperty = collector.anyProperty;
+            this.anyType = collector.anyType;
+        }
+
+        protected boolean dependsOnWorkspace( String workspaceName ) {
+            return workspaceNames.isEmpty() || workspaceNames.contains(workspaceName);
+        }
+
+        protected boolean dependsOnAnyProperty( Set<Name> names ) {
+            if (names.isEmpty()) return false;
+            if (anyProperty) return true;
+            for (Name name : names) {
+                if (propertyNames.contains(name)) return true;
+            }
+            return false;
+        }
+
+        protected boolean dependsOnAnyNewNode( ChangeSummary changes ) {
+            if (changes.newNodeTypeNames.isEmpty() && !changes.newNodesOfUnknownType) return false;
+            if (anyType || changes.newNodesOfUnknownType) return true;
+            for (Name name : changes.newNodeTypeNames) {
+                if (typeNames.contains(name)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Collects the properties used in an optimized plan, and the types to which each of the plan's access queries is restricted.
+     */
+    protected static final class DependencyCollector extends Visitors.AbstractVisitor {
+        private final NameFactory names;
+        protected final Set<Name> propertyNames = new HashSet<Name>();
+        protected final Set<Name> typeNames = new HashSet<Name>();
+        protected boolean anyProperty;
+        protected boolean anyType;
+
+        protected DependencyCollector( NameFactory names ) {
+            this.names = names;
+        }
+
+        protected void collect( PlanNode node ) {
+            if (node.getType() == Type.ACCESS && !collectTypes(node)) anyType = true;
+            List<Column> columns = node.getPropertyAsList(Property.PROJECT_COLUMNS, Column.class);
+            if (columns != null) {
+                for (Column column : columns) {
+                    addProperty(column.getPropertyName());
+                }
+            }
+            visit(node, Property.SELECT_CRITERIA);
+            visit(node, Property.JOIN_CONDITION);
+            visitAll(node, Property.JOIN_CONSTRAINTS);
+            visitAll(node, Property.SORT_ORDER_BY);
+            for (PlanNode child : node.getChildren()) {
+                collect(child);
+            }
+        }
+
+        private void visit( PlanNode node,
+                            Property property ) {
+            Object value = node.getProperty(property);
+            if (value instanceof Visitable) Visitors.visitAll((Visitable)value, this);
+        }
+
+        private void visitAll( PlanNode node,
+                               Property property ) {
+            List<Object> values = node.getPropertyAsList(property, Object.class);
+            if (values == null) return;
+            for (Object value : values) {
+                if (value instanceof Visitable) Visitors.visitAll((Visitable)value, this);
+            }
+        }
+
+        /**
+         * Find the criteria below the supplied access node that restrict the node types, and record those types.
+         * 
+         * @param access the access node; may not be null
+         * @return true if the access node is restricted to particular types, or false otherwise
+         */
+        private boolean collectTypes( PlanNode access ) {
+            boolean restricted = false;
+            for (PlanNode select : access.findAllAtOrBelow(Type.SELECT)) {
+                Set<Name> types = new HashSet<Name>();
+                if (collectTypes(select.getProperty(Property.SELECT_CRITERIA, Constraint.class), types)) {
+                    typeNames.addAll(types);
+                    restricted = true;
+                }
+            }
+            return restricted;
+        }
+
+        private boolean collectTypes( Constraint constraint,
+                                      Set<Name> types ) {
+            if (constraint instanceof Or) {
+                Or or = (Or)constraint;
+                return collectTypes(or.left(), types) && collectTypes(or.right(), types);
+            }
+            if (constraint instanceof Comparison) {
+                Comparison comparison = (Comparison)constraint;
+                if (comparison.operator() != Operator.EQUAL_TO) return false;
+                return isTypeProperty(comparison.getOperand1()) && addTypes(Collections.singleton(comparison.getOperand2()), types);
+            }
+            if (constraint instanceof SetCriteria) {
+                SetCriteria criteria = (SetCriteria)constraint;
+                return isTypeProperty(criteria.leftOperand()) && addTypes(criteria.rightOperands(), types);
+            }
+            return false;
+        }
+
+        private boolean isTypeProperty( DynamicOperand operand ) {
+            if (!(operand instanceof PropertyValue)) return false;
+            Name name = nameFrom(((PropertyValue)operand).getPropertyName());
+            return JcrLexicon.PRIMARY_TYPE.equals(name) || JcrLexicon.MIXIN_TYPES.equals(name);
+        }
+
+        private boolean addTypes( Collection<? extends StaticOperand> operands,
+                                  Set<Name> types ) {
+            for (StaticOperand operand : operands) {
+                if (!(operand instanceof Literal)) return false;
+                Name name = nameFrom(((Literal)operand).value());
+                if (name == null) return false;
+                types.add(name);
+            }
+            return true;
+        }
+
+        private Name nameFrom( Object value ) {
+            if (value == null) return null;
+            try {
+                return names.create(value);
+            } catch (ValueFormatException e) {
+                return null;
+            }
+        }
+
+        private void addProperty( String propertyName ) {
+            Name name = nameFrom(propertyName);
+            if (name == null) {
+                // Be conservative ...
+                anyProperty = true;
+            } else {
+                propertyNames.add(name);
+            }
+        }
+
+        @Override
+        public void visit( PropertyValue obj ) {
+            addProperty(obj.getPropertyName());
+        }
+
+        @Override
+        public void visit( PropertyExistence obj ) {
+            addProperty(obj.getPropertyName());
+        }
+
+        @Override
+        public void visit( ReferenceValue obj ) {
+            if (obj.getPropertyName() == null) anyProperty = true;
+            else addProperty(obj.getPropertyName());
+        }
+
+        @Override
+        public void visit( FullTextSearch obj ) {
+            if (obj.getPropertyName() == null) anyProperty = true;
+            else addProperty(obj.getPropertyName());
+        }
+
+        @Override
+        public void visit( FullTextSearchScore obj ) {
+            anyProperty = true;
+        }
+
+        @Override
+        public void visit( EquiJoinCondition obj ) {
+            addProperty(obj.getProperty1Name());
+            addProperty(obj.getProperty2Name());
+        }
+    }
+
+    /**
+     * A summary of the parts of the content that were changed by a change set.
+     */
+    protected static final class ChangeSummary {
+        /**
+         * Summarize the supplied changes.
+         * 
+         * @param changes the changes; may not be null
+         * @return the summary, or null if the changes do not affect the results of any query
+         */
+        protected static ChangeSummary of( ChangeSet changes ) {
+            ChangeSummary summary = new ChangeSummary();
+            // The properties of new nodes are also recorded as added properties, but those are covered by the node's types ...
+            Set<NodeKey> newNodeKeys = new HashSet<NodeKey>();
+            for (Change change : changes) {
+                if (change instanceof NodeAdded) {
+                    NodeAdded added = (NodeAdded)change;
+                    newNodeKeys.add(added.getKey());
+                    summary.addNewNode(added.getProperties());
+                } else if (change instanceof NodeRemoved || change instanceof NodeMoved || change instanceof NodeRenamed
+                           || change instanceof NodeReordered || change instanceof NodeChanged) {
+                    summary.structureChanged = true;
+                }
+            }
+            for (Change change : changes) {
+                if (change instanceof PropertyAdded) {
+                    PropertyAdded added = (PropertyAdded)change;
+                    if (!newNodeKeys.contains(added.getKey())) summary.changedPropertyNames.add(added.getProperty().getName());
+                } else if (change instanceof PropertyChanged) {
+                    summary.changedPropertyNames.add(((PropertyChanged)change).getNewProperty().getName());
+                } else if (change instanceof PropertyRemoved) {
+                    summary.changedPropertyNames.add(((PropertyRemoved)change).getProperty().getName());
+                }
+            }
+            return summary.isEmpty() ? null : summary;
+        }
+
+        protected boolean structureChanged;
+        protected boolean newNodesOfUnknownType;
+        protected final Set<Name> newNodeTypeNames = new HashSet<Name>();
+        protected final Set<Name> changedPropertyNames = new HashSet<Name>();
+
+        private void addNewNode( Map<Name, org.modeshape.jcr.value.Property> properties ) {
+            org.modeshape.jcr.value.Property primaryType = properties.get(JcrLexicon.PRIMARY_TYPE);
+            if (primaryType == null || !addTypeNames(primaryType)) {
+                newNodesOfUnknownType = true;
+                return;
+            }
+            org.modeshape.jcr.value.Property mixinTypes = properties.get(JcrLexicon.MIXIN_TYPES);
+            if (mixinTypes != null && !addTypeNames(mixinTypes)) newNodesOfUnknownType = true;
+        }
+
+        private boolean addTypeNames( org.modeshape.jcr.value.Property property ) {
+            for (Object value : property) {
+                if (!(value instanceof Name)) return false;
+                newNodeTypeNames.add((Name)value);
+            }
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return !structureChanged && !newNodesOfUnknownType && newNodeTypeNames.isEmpty() && changedPropertyNames.isEmpty();
+        }
+    }
+
+    /**
+     * A filter that matches the cached results that may be affected by the changes in a workspace.
+     */
+    protected static final class AffectedResults implements ConcurrentLruCache.EntryFilter<ResultKey, CachedResults> {
+        private final String workspaceName;
+        private final ChangeSummary changes;
+
+        /**
+         * @param workspaceName the name of the changed workspace, or null if the changes affect all workspaces
+         * @param changes the summary of the changes; may not be null
+         */
+        protected AffectedResults( String workspaceName,
+                                   ChangeSummary changes ) {
+            this.workspaceName = workspaceName;
+            this.changes = changes;
+        }
+
+        @Override
+        public boolean matches( ResultKey key,
+                                CachedResults value ) {
+            Dependencies dependencies = value.dependencies;
+            if (workspaceName != null && !dependencies.dependsOnWorkspace(workspaceName)) return false;
+            if (changes.structureChanged) return true;
+            return dependencies.dependsOnAnyNewNode(changes) || dependencies.dependsOnAnyProperty(changes.changedPropertyNames);
+        }
+    }
+}
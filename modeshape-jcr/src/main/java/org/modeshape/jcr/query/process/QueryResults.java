@@ -23,10 +23,14 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import org.modeshape.common.annotation.Immutable;
+import java.util.NoSuchElementException;
+import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.collection.ImmutableProblems;
 import org.modeshape.common.collection.Problems;
 import org.modeshape.common.collection.SimpleProblems;
@@ -37,9 +41,10 @@ import org.modeshape.jcr.query.model.TypeSystem;
 import org.modeshape.jcr.query.model.TypeSystem.TypeFactory;
 
 /**
- * The resulting output of a query.
+ * The resulting output of a query. The tuples are either supplied up front, or are pulled from a {@link TupleSource} only as they
+ * are needed; the tuples that have been pulled are kept so that the results can be iterated any number of times.
  */
-@Immutable
+@ThreadSafe
 public class QueryResults implements org.modeshape.jcr.query.QueryResults {
     private static final Problems NO_PROBLEMS = new ImmutableProblems(new SimpleProblems());
 
@@ -48,6 +53,7 @@ public class QueryResults implements org.modeshape.jcr.query.QueryResults {
     private final Problems problems;
     private final Columns columns;
     private final List<Object[]> tuples;
+    private transient TupleSource source;
     private final int[] tupleIndexesForColumns;
     private final Statistics statistics;
     private final String plan;
@@ -66,11 +72,41 @@ public class QueryResults implements org.modeshape.jcr.query.QueryResults {
                          List<Object[]> tuples,
                          Problems problems,
                          String plan ) {
+        this(columns, statistics, tuples, null, problems, plan);
+    }
+
+    /**
+     * Create a results object for the supplied context, command, and result columns and with tuples that are pulled from the
+     * supplied source only as they are needed. The source is closed once it has no more tuples or these results are
+     * {@link #close() closed}.
+     * 
+     * @param columns the definition of the query result columns
+     * @param statistics the statistics for this query; may not be null
+     * @param source the source of the tuples; may not be null
+     * @param problems the problems; may be null if there are no problems
+     * @param plan the text representation of the query plan, if the hints asked for it
+     */
+    public QueryResults( Columns columns,
+                         Statistics statistics,
+                         TupleSource source,
+                         Problems problems,
+                         String plan ) {
+        this(columns, statistics, new ArrayList<Object[]>(), source, problems, plan);
+        assert source != null;
+    }
+
+    private QueryResults( Columns columns,
+                          Statistics statistics,
+                          List<Object[]> tuples,
+                          TupleSource source,
+                          Problems problems,
+                          String plan ) {
         assert columns != null;
         assert statistics != null;
         this.problems = problems != null ? problems : NO_PROBLEMS;
         this.columns = columns;
         this.tuples = tuples;
+        this.source = source;
         this.statistics = statistics;
         this.plan = plan;
         // Precompute the indexes for each tuple, given the desired columns ...
@@ -136,17 +172,67 @@ public class QueryResults implements org.modeshape.jcr.query.QueryResults {
 
     @Override
     public Cursor getCursor() {
-        return new TupleCursor(columns, tuples.iterator());
+        return new TupleCursor(columns, getTupleIterator());
     }
 
     @Override
-    public List<Object[]> getTuples() {
+    public synchronized List<Object[]> getTuples() {
+        while (pullTuple()) {
+            // Produce all of the remaining tuples ...
+        }
         return tuples;
     }
 
+    @Override
+    public Iterator<Object[]> getTupleIterator() {
+        return new BufferedTupleIterator();
+    }
+
     @Override
     public int getRowCount() {
-        return tuples.size();
+        return getTuples().size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (source != null) {
+            try {
+                source.close();
+            } finally {
+                source = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return source == null;
+    }
+
+    /**
+     * Pull the next tuple from the source (if there is one) and add it to the tuples, closing the source when it has no more
+     * tuples or it fails.
+     * 
+     * @return true if a tuple was added, or false if there are no more tuples
+     */
+    private synchronized boolean pullTuple() {
+        if (source == null) return false;
+        boolean pulled = false;
+        try {
+            if (source.hasNext()) {
+                tuples.add(source.next());
+                pulled = true;
+            }
+        } finally {
+            if (!pulled) close();
+        }
+        return pulled;
+    }
+
+    private synchronized void writeObject( ObjectOutputStream out ) throws IOException {
+        // The source is not serialized, so produce all of the tuples first ...
+        getTuples();
+        out.defaultWriteObject();
     }
 
     @Override
@@ -308,7 +394,7 @@ public class QueryResults implements org.modeshape.jcr.query.QueryResults {
         int rowNumber = 1;
         int tupleLength = columns.getTupleSize();
         // Should they all be printed ?
-        if (maxRowsToPrint > tuples.size()) {
+        if (maxRowsToPrint > getRowCount()) {
             // Print all tuples ...
             for (Object[] tuple : getTuples()) {
                 printTuple(typeSystem, sb, columnWidths, rowNumber, tupleLength, tuple);
@@ -356,6 +442,44 @@ public class QueryResults implements org.modeshape.jcr.query.QueryResults {
         if (includeLineFeed) sb.append('\n');
     }
 
+    /**
+     * A source of tuples that may hold resources (e.g., index readers) until it is closed.
+     */
+    public static interface TupleSource extends Iterator<Object[]> {
+        /**
+         * Release the resources used to produce the tuples. This is called once the source has no more tuples, or when the
+         * results are closed before all of the tuples were produced.
+         */
+        void close();
+    }
+
+    /**
+     * An iterator over the tuples that were already pulled from the source, and which pulls more from the source as needed.
+     */
+    protected final class BufferedTupleIterator implements Iterator<Object[]> {
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            synchronized (QueryResults.this) {
+                return index < tuples.size() || pullTuple();
+            }
+        }
+
+        @Override
+        public Object[] next() {
+            synchronized (QueryResults.this) {
+                if (!hasNext()) throw new NoSuchElementException();
+                return tuples.get(index++);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * An interface used to walk through the results.
      */
@@ -91,17 +91,23 @@ public class SelectComponent extends DelegatingComponent {
 
     @Override
     public List<Object[]> execute() {
-        List<Object[]> tuples = delegate().execute();
-        if (!tuples.isEmpty()) {
-            // Iterate through the tuples, removing any that do not satisfy the constraint ...
-            Iterator<Object[]> iter = tuples.iterator();
-            while (iter.hasNext()) {
-                if (!checker.satisfiesConstraints(iter.next())) {
-                    iter.remove();
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        final Iterator<Object[]> tuples = delegate().iterator();
+        return new TupleIterator() {
+            @Override
+            protected Object[] findNext() {
+                // Skip the tuples that do not satisfy the constraint ...
+                while (tuples.hasNext()) {
+                    Object[] tuple = tuples.next();
+                    if (checker.satisfiesConstraints(tuple)) return tuple;
                 }
+                return null;
             }
-        }
-        return tuples;
+        };
     }
 
     /**
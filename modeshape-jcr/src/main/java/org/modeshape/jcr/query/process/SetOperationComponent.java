@@ -23,6 +23,7 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -82,18 +83,59 @@ public abstract class SetOperationComponent extends ProcessingComponent {
         return wrapped;
     }
 
-    protected void removeDuplicatesIfRequested( List<Object[]> tuples ) {
-        if (removeDuplicatesComparator != null) {
-            Iterator<Object[]> iter = tuples.iterator();
-            Object[] previous = null;
-            while (iter.hasNext()) {
-                Object[] current = iter.next();
-                if (previous != null && removeDuplicatesComparator.compare(previous, current) == 0) {
-                    iter.remove();
-                } else {
-                    previous = current;
+    /**
+     * Get the iterators over the sources' tuples, each of which is sorted by location.
+     * 
+     * @return the iterators; never null
+     */
+    protected List<Iterator<Object[]>> sortedSourceTuples() {
+        List<Iterator<Object[]>> tuples = new ArrayList<Iterator<Object[]>>();
+        for (ProcessingComponent source : sources) {
+            tuples.add(source.iterator());
+        }
+        return tuples;
+    }
+
+    /**
+     * Remove the duplicates from the supplied sorted tuples if this component is to remove duplicates. Duplicates are found only
+     * as the returned iterator is advanced.
+     * 
+     * @param tuples the sorted tuples; may not be null
+     * @return the iterator over the tuples without duplicates; never null
+     */
+    protected Iterator<Object[]> removeDuplicatesIfRequested( final Iterator<Object[]> tuples ) {
+        if (removeDuplicatesComparator == null) return tuples;
+        return new TupleIterator() {
+            private Object[] previous = null;
+
+            @Override
+            protected Object[] findNext() {
+                while (tuples.hasNext()) {
+                    Object[] current = tuples.next();
+                    // Skip the tuple if it is the same as the previous one ...
+                    if (previous == null || removeDuplicatesComparator.compare(previous, current) != 0) {
+                        previous = current;
+                        return current;
+                    }
                 }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public List<Object[]> execute() {
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (ProcessingComponent source : sources) {
+                source.close();
             }
+        } finally {
+            super.close();
         }
     }
 }
@@ -23,34 +23,50 @@
  */
 package org.modeshape.jcr.query.process;
 
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 /**
+ * A {@link ProcessingComponent} that sorts the tuples by their locations, using an {@link ExternalSorter} so that no more than a
+ * maximum number of tuples are held in memory.
  */
 public class SortLocationsComponent extends DelegatingComponent {
 
-    private Comparator<Object[]> sortingComparator;
+    private final ExternalSorter sorter;
 
     public SortLocationsComponent( ProcessingComponent delegate ) {
+        this(delegate, ExternalSorter.DEFAULT_MAX_TUPLES_IN_MEMORY);
+    }
+
+    public SortLocationsComponent( ProcessingComponent delegate,
+                                   int maxTuplesInMemory ) {
         super(delegate);
-        this.sortingComparator = createSortComparator(delegate.getContext(), delegate.getColumns());
+        this.sorter = new ExternalSorter(createSortComparator(delegate.getContext(), delegate.getColumns()), maxTuplesInMemory);
     }
 
     public SortLocationsComponent( ProcessingComponent delegate,
                                    Comparator<Object[]> sortingComparator ) {
         super(delegate);
-        this.sortingComparator = sortingComparator;
+        this.sorter = new ExternalSorter(sortingComparator, ExternalSorter.DEFAULT_MAX_TUPLES_IN_MEMORY);
     }
 
     @Override
     public List<Object[]> execute() {
-        List<Object[]> tuples = delegate().execute();
-        if (tuples.size() > 1) {
-            // Sort the tuples ...
-            Collections.sort(tuples, sortingComparator);
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        return sorter.sort(delegate().iterator());
+    }
+
+    @Override
+    public void close() {
+        try {
+            sorter.close();
+        } finally {
+            super.close();
         }
-        return tuples;
     }
 }
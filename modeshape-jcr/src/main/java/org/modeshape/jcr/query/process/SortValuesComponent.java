@@ -24,10 +24,13 @@
 package org.modeshape.jcr.query.process;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.model.Order;
@@ -39,18 +42,66 @@ import org.modeshape.jcr.query.plan.PlanNode.Type;
 import org.modeshape.jcr.query.validate.Schemata;
 
 /**
- * A {@link ProcessingComponent} implementation that performs a {@link Type#PROJECT PROJECT} operation to reduce the columns that
- * appear in the results.
+ * A {@link ProcessingComponent} implementation that performs a {@link Type#SORT SORT} operation to order the tuples by the values
+ * of one or more {@link Ordering orderings}.
+ * <p>
+ * When only the first tuples are needed (e.g., the SORT is below a {@link Type#LIMIT LIMIT}), this component can be given the
+ * maximum number of tuples to return. Rather than sorting all of the tuples, it then keeps only the best tuples seen so far in a
+ * bounded heap, which requires O(n log k) time and O(k) memory for <i>n</i> tuples and a maximum of <i>k</i> tuples.
+ * </p>
+ * <p>
+ * Otherwise, the tuples are sorted with an {@link ExternalSorter}, so that no more than a maximum number of tuples are held in
+ * memory by this component; larger numbers of tuples are sorted in runs that are written to temporary files and then merged as
+ * the tuples are {@link #iterator() needed}.
+ * </p>
  */
 public class SortValuesComponent extends DelegatingComponent {
 
     private final Comparator<Object[]> sortingComparator;
+    private final int maxTuples;
+    private final ExternalSorter sorter;
 
     public SortValuesComponent( ProcessingComponent delegate,
                                 List<Ordering> orderings,
                                 Map<SelectorName, SelectorName> sourceNamesByAlias ) {
+        this(delegate, orderings, sourceNamesByAlias, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a sorting component that returns only the first tuples.
+     * 
+     * @param delegate the delegate component; may not be null
+     * @param orderings the orderings; may not be null
+     * @param sourceNamesByAlias the source names keyed by their alias; may be null
+     * @param maxTuples the maximum number of tuples to return, or {@link Integer#MAX_VALUE} if all tuples are to be returned
+     */
+    public SortValuesComponent( ProcessingComponent delegate,
+                                List<Ordering> orderings,
+                                Map<SelectorName, SelectorName> sourceNamesByAlias,
+                                int maxTuples ) {
+        this(delegate, orderings, sourceNamesByAlias, maxTuples, ExternalSorter.DEFAULT_MAX_TUPLES_IN_MEMORY);
+    }
+
+    /**
+     * Create a sorting component that returns only the first tuples, and that holds no more than the supplied number of tuples in
+     * memory while sorting all of the tuples.
+     * 
+     * @param delegate the delegate component; may not be null
+     * @param orderings the orderings; may not be null
+     * @param sourceNamesByAlias the source names keyed by their alias; may be null
+     * @param maxTuples the maximum number of tuples to return, or {@link Integer#MAX_VALUE} if all tuples are to be returned
+     * @param maxTuplesInMemory the maximum number of tuples held in memory when all tuples are to be sorted; must be positive
+     */
+    public SortValuesComponent( ProcessingComponent delegate,
+                                List<Ordering> orderings,
+                                Map<SelectorName, SelectorName> sourceNamesByAlias,
+                                int maxTuples,
+                                int maxTuplesInMemory ) {
         super(delegate);
+        assert maxTuples >= 0;
         this.sortingComparator = createSortComparator(delegate.getContext(), delegate.getColumns(), orderings, sourceNamesByAlias);
+        this.maxTuples = maxTuples;
+        this.sorter = sortingComparator != null ? new ExternalSorter(sortingComparator, maxTuplesInMemory) : null;
     }
 
     /**
@@ -60,14 +111,108 @@ public class SortValuesComponent extends DelegatingComponent {
         return sortingComparator;
     }
 
+    /**
+     * Get the maximum number of tuples returned by this component.
+     * 
+     * @return the maximum number of tuples, or {@link Integer#MAX_VALUE} if all tuples are returned
+     */
+    public int getMaxTuples() {
+        return maxTuples;
+    }
+
     @Override
     public List<Object[]> execute() {
-        List<Object[]> tuples = delegate().execute();
-        if (tuples.size() > 1 && sortingComparator != null) {
-            // Sort the tuples ...
-            Collections.sort(tuples, sortingComparator);
+        if (maxTuples != Integer.MAX_VALUE) {
+            return sortedTopTuples(delegate().iterator());
+        }
+        if (sorter == null) return delegate().execute();
+        return tuplesFrom(iterator());
+    }
+
+    @Override
+    public Iterator<Object[]> iterator() {
+        if (maxTuples != Integer.MAX_VALUE) {
+            return sortedTopTuples(delegate().iterator()).iterator();
+        }
+        if (sorter == null) return delegate().iterator();
+        return sorter.sort(delegate().iterator());
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (sorter != null) sorter.close();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Find the first {@link #getMaxTuples() maxTuples} tuples in sorted order, without ever holding more than that number of
+     * tuples. As with {@link Collections#sort(List, Comparator)}, tuples that compare equally remain in the order they were
+     * supplied.
+     * 
+     * @param tuples the tuples to be sorted; may not be null
+     * @return the sorted tuples; never null
+     */
+    protected List<Object[]> sortedTopTuples( Iterator<Object[]> tuples ) {
+        if (maxTuples == 0) return emptyTuples();
+        if (sortingComparator == null) {
+            // There is no order, so the first tuples will do ...
+            List<Object[]> results = new ArrayList<Object[]>();
+            while (results.size() < maxTuples && tuples.hasNext()) {
+                results.add(tuples.next());
+            }
+            return results;
+        }
+        // Keep the best tuples in a heap whose head is the worst of them ...
+        final Comparator<Object[]> comparator = sortingComparator;
+        Comparator<RankedTuple> worstFirst = new Comparator<RankedTuple>() {
+            @Override
+            public int compare( RankedTuple tuple1,
+                                RankedTuple tuple2 ) {
+                return tuple2.compareTo(tuple1, comparator);
+            }
+        };
+        PriorityQueue<RankedTuple> heap = new PriorityQueue<RankedTuple>(Math.min(maxTuples, 1024) + 1, worstFirst);
+        long rank = 0L;
+        while (tuples.hasNext()) {
+            RankedTuple tuple = new RankedTuple(tuples.next(), rank++);
+            if (heap.size() < maxTuples) {
+                heap.add(tuple);
+            } else if (tuple.compareTo(heap.peek(), comparator) < 0) {
+                // This tuple is better than the worst one we have ...
+                heap.poll();
+                heap.add(tuple);
+            }
+        }
+        // Remove the tuples from worst to best ...
+        Object[][] results = new Object[heap.size()][];
+        for (int i = results.length - 1; i >= 0; --i) {
+            results[i] = heap.poll().tuple;
+        }
+        return new ArrayList<Object[]>(Arrays.asList(results));
+    }
+
+    /**
+     * A tuple and the position at which it was found, which is used to keep equal tuples in their original order.
+     */
+    protected static final class RankedTuple {
+        protected final Object[] tuple;
+        private final long rank;
+
+        protected RankedTuple( Object[] tuple,
+                               long rank ) {
+            this.tuple = tuple;
+            this.rank = rank;
+        }
+
+        protected int compareTo( RankedTuple that,
+                                 Comparator<Object[]> comparator ) {
+            int diff = comparator.compare(this.tuple, that.tuple);
+            if (diff != 0) return diff;
+            return this.rank < that.rank ? -1 : (this.rank == that.rank ? 0 : 1);
         }
-        return tuples;
     }
 
     protected Comparator<Object[]> createSortComparator( QueryContext context,
@@ -23,9 +23,8 @@
  */
 package org.modeshape.jcr.query.process;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
+import java.util.Iterator;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
 
@@ -42,16 +41,25 @@ public class UnionComponent extends SetOperationComponent {
     }
 
     @Override
-    public List<Object[]> execute() {
-        List<Object[]> tuples = new ArrayList<Object[]>();
-        for (ProcessingComponent source : sources()) {
-            List<Object[]> results = source.execute();
-            tuples.addAll(results);
-        }
+    public Iterator<Object[]> iterator() {
         if (removeDuplicatesComparator != null) {
-            Collections.sort(tuples, this.removeDuplicatesComparator);
-            removeDuplicatesIfRequested(tuples);
+            // Each source is sorted, so merge them and skip the duplicates ...
+            return removeDuplicatesIfRequested(ExternalSorter.merge(sortedSourceTuples(), removeDuplicatesComparator));
         }
-        return tuples;
+
+        // Otherwise, return the tuples from each source in turn ...
+        final Iterator<ProcessingComponent> sources = sources().iterator();
+        return new TupleIterator() {
+            private Iterator<Object[]> tuples = Collections.<Object[]>emptyList().iterator();
+
+            @Override
+            protected Object[] findNext() {
+                while (!tuples.hasNext()) {
+                    if (!sources.hasNext()) return null;
+                    tuples = sources.next().iterator();
+                }
+                return tuples.next();
+            }
+        };
     }
 }
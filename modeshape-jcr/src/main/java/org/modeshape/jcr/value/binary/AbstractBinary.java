@@ -25,6 +25,7 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import javax.jcr.RepositoryException;
@@ -102,6 +103,11 @@ public abstract class AbstractBinary implements BinaryValue {
         }
     }
 
+    @Override
+    public long transferTo( WritableByteChannel target ) throws IOException, RepositoryException {
+        return AbstractBinaryStore.transfer(getStream(), target, AbstractBinaryStore.bestBufferSize(getSize()));
+    }
+
     @Override
     public BinaryKey getKey() {
         return key;
@@ -24,6 +24,9 @@
 package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -36,6 +39,7 @@ import org.modeshape.jcr.TextExtractors;
 import org.modeshape.jcr.api.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.mimetype.ExtensionBasedMimeTypeDetector;
 import org.modeshape.jcr.text.TextExtractorContext;
+import org.modeshape.jcr.value.BinaryKey;
 import org.modeshape.jcr.value.BinaryValue;
 
 /**
@@ -65,6 +69,37 @@ public abstract class AbstractBinaryStore implements BinaryStore {
         return LARGE_BUFFER_SIZE;
     }
 
+    /**
+     * Write all of the content of the supplied stream to the channel. The stream is closed when this method completes, but the
+     * channel is not.
+     * 
+     * @param stream the stream with the content; may not be null
+     * @param target the channel to which the content is written; may not be null
+     * @param bufferSize the size of the buffer used to copy the content; must be positive
+     * @return the number of bytes written to the channel
+     * @throws IOException if there is a problem reading from the stream or writing to the channel
+     */
+    public static long transfer( InputStream stream,
+                                 WritableByteChannel target,
+                                 int bufferSize ) throws IOException {
+        long count = 0L;
+        try {
+            byte[] bytes = new byte[bufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int read = 0;
+            while ((read = stream.read(bytes)) != -1) {
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                count += read;
+            }
+        } finally {
+            stream.close();
+        }
+        return count;
+    }
+
     protected Logger logger = Logger.getLogger(getClass());
 
     private final AtomicLong minBinarySizeInBytes = new AtomicLong(DEFAULT_MINIMUM_BINARY_SIZE_IN_BYTES);
@@ -93,6 +128,16 @@ public abstract class AbstractBinaryStore implements BinaryStore {
         this.detector = mimeTypeDetector != null ? mimeTypeDetector : ExtensionBasedMimeTypeDetector.INSTANCE;
     }
 
+    @Override
+    public long transferTo( BinaryKey key,
+                            WritableByteChannel target ) throws BinaryStoreException {
+        try {
+            return transfer(getInputStream(key), target, MEDIUM_BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
     @Override
     public final String getText( BinaryValue binary ) throws BinaryStoreException {
         if (!extractors.extractionEnabled()) {
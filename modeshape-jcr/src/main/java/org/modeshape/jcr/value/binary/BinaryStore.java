@@ -25,6 +25,7 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.TimeUnit;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.ThreadSafe;
@@ -94,6 +95,19 @@ public interface BinaryStore {
      */
     InputStream getInputStream( BinaryKey key ) throws BinaryStoreException;
 
+    /**
+     * Write the binary content with the supplied key to the given channel. Stores that keep their content in files can transfer
+     * the content directly from the file to the channel, which avoids copying the content through intermediate buffers when the
+     * target is a file or socket channel.
+     * 
+     * @param key the key to the binary content; never null
+     * @param target the channel to which the content should be written; may not be null and is not closed by this method
+     * @return the number of bytes written to the channel
+     * @throws BinaryStoreException if there is a problem reading the content from the store or writing it to the channel
+     */
+    long transferTo( BinaryKey key,
+                     WritableByteChannel target ) throws BinaryStoreException;
+
     /**
      * Mark the supplied binary keys as unused, but key them in quarantine until needed again (at which point they're removed from
      * quarantine) or until {@link #removeValuesUnusedLongerThan(long, TimeUnit)} is called. This method ignores any keys for
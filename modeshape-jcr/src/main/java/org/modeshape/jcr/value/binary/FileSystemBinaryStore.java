@@ -23,16 +23,16 @@
  */
 package org.modeshape.jcr.value.binary;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Set;
@@ -196,24 +196,17 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
             // The move/rename didn't work, so we have to copy from the original ...
 
             // Create the new file and obtain an exclusive lock on it ...
-            final int bufferSize = AbstractBinaryStore.bestBufferSize(original.length());
             fileLock = FileLocks.get().writeLock(destination);
             try {
-                // Create a buffered output stream to the destination file ...
-                // (Note that the Channels.newOutputStream does not create a buffered stream)
+                // Transfer the content directly between the channels, letting the OS avoid copying into user space ...
                 FileChannel destinationChannel = fileLock.lockedFileChannel();
-                OutputStream output = Channels.newOutputStream(destinationChannel);
-                output = new BufferedOutputStream(output, bufferSize);
-
-                // Create an input stream to the original file ...
-                // (Note that the Channels.newInputStream does not create a buffered stream)
                 RandomAccessFile originalRaf = new RandomAccessFile(original, "r");
-                FileChannel originalChannel = originalRaf.getChannel();
-                InputStream input = Channels.newInputStream(originalChannel);
-                input = new BufferedInputStream(input, bufferSize);
-
-                // Copy the content ...
-                IoUtil.write(input, output, bufferSize);
+                try {
+                    destinationChannel.position(0L);
+                    IoUtil.transfer(originalRaf.getChannel(), 0L, destinationChannel);
+                } finally {
+                    originalRaf.close();
+                }
             } finally {
                 try {
                     fileLock.unlock();
@@ -246,6 +239,82 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
 
     @Override
     public InputStream getInputStream( BinaryKey key ) throws BinaryStoreException {
+        File persistedFile = findPersistedFile(key);
+
+        // We now know that the file (which does exist) is not being written by this process, but another
+        // process might be actively writing to it. So use an InputStream that lazily obtains a shared lock
+        // when the stream is used, and always releases the lock (even in the case of exceptions).
+        return new SharedLockingInputStream(key, persistedFile, locks);
+    }
+
+    /**
+     * Open a read-only {@link FileChannel} to the file containing the binary content with the supplied key. The channel can be
+     * used to {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel) transfer} the content directly to
+     * another channel or to {@link FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long) map} the content into
+     * memory. Because the content of a stored file never changes, the locks for the file are held only while the channel is
+     * being opened.
+     * 
+     * @param key the key to the binary content; never null
+     * @return the open channel, which the caller is responsible for closing; never null
+     * @throws BinaryStoreException if there is no content with the supplied key or if the file cannot be opened
+     */
+    public FileChannel getFileChannel( BinaryKey key ) throws BinaryStoreException {
+        File persistedFile = findPersistedFile(key);
+        try {
+            // Wait until any write of the file (by this or another process) is done ...
+            Lock processLock = locks.readLock(key.toString());
+            try {
+                WrappedLock fileLock = FileLocks.get().readLock(persistedFile);
+                try {
+                    return new FileInputStream(persistedFile).getChannel();
+                } finally {
+                    fileLock.unlock();
+                }
+            } finally {
+                processLock.unlock();
+            }
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
+    /**
+     * Map the binary content with the supplied key into memory as a read-only buffer. The mapping remains valid until the buffer
+     * is garbage collected, so this is best suited to content that is read repeatedly or randomly.
+     * 
+     * @param key the key to the binary content; never null
+     * @return the read-only buffer with the content; never null
+     * @throws BinaryStoreException if there is no content with the supplied key or if the file cannot be mapped
+     */
+    public MappedByteBuffer getMappedContent( BinaryKey key ) throws BinaryStoreException {
+        FileChannel channel = getFileChannel(key);
+        try {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
+    @Override
+    public long transferTo( BinaryKey key,
+                            WritableByteChannel target ) throws BinaryStoreException {
+        FileChannel channel = getFileChannel(key);
+        try {
+            try {
+                return IoUtil.transfer(channel, 0L, target);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+    }
+
+    private File findPersistedFile( BinaryKey key ) throws BinaryStoreException {
         // Now that we know the SHA-1, find the File object that corresponds to the existing persisted file ...
         File persistedFile = findFile(directory, key, false);
         if (!persistedFile.exists() || !persistedFile.canRead()) {
@@ -260,11 +329,7 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
             // Clean up any empty directories in the trash ...
             pruneEmptyDirectories(trash, trashedFile);
         }
-
-        // We now know that the file (which does exist) is not being written by this process, but another
-        // process might be actively writing to it. So use an InputStream that lazily obtains a shared lock
-        // when the stream is used, and always releases the lock (even in the case of exceptions).
-        return new SharedLockingInputStream(key, persistedFile, locks);
+        return persistedFile;
     }
 
     @SuppressWarnings( "unused" )
@@ -26,6 +26,8 @@ package org.modeshape.jcr.value.binary;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.util.CheckArg;
@@ -75,6 +77,15 @@ public class InMemoryBinaryValue extends AbstractBinary {
         return new ByteArrayInputStream(this.bytes);
     }
 
+    @Override
+    public long transferTo( WritableByteChannel target ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(this.bytes);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return bytes.length;
+    }
+
     @Override
     public String getMimeType() throws IOException, RepositoryException {
         if (mimeType == null) {
@@ -25,6 +25,7 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.jcr.value.BinaryValue;
@@ -63,6 +64,12 @@ public class StoredBinaryValue extends AbstractBinary {
         return store.getInputStream(getKey());
     }
 
+    @Override
+    public long transferTo( WritableByteChannel target ) throws BinaryStoreException {
+        // Delegate to the store, which may be able to transfer directly from its files ...
+        return store.transferTo(getKey(), target);
+    }
+
     @Override
     public String getMimeType() throws IOException, RepositoryException {
         if (mimeType == null) {
@@ -0,0 +1,213 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+
+public class ChangeJournalTest {
+
+    private ExecutionContext context;
+    private File directory;
+    private ChangeJournal journal;
+
+    @Before
+    public void beforeEach() {
+        context = new ExecutionContext();
+        directory = new File("target/changeJournal");
+        FileUtil.delete(directory);
+    }
+
+    @After
+    public void afterEach() {
+        try {
+            if (journal != null) journal.shutdown();
+        } finally {
+            FileUtil.delete(directory);
+        }
+    }
+
+    @Test
+    public void shouldReadAppendedChangesInOrder() throws Exception {
+        journal = startJournal(1024 * 1024, 0L, 0L);
+        for (int i = 0; i != 10; ++i) {
+            journal.append(changes(i, 1000L + i));
+        }
+        assertThat(userIds(journal.read(Long.MIN_VALUE)), is(userIds(0, 10)));
+        assertThat(journal.getSegmentCount(), is(1));
+    }
+
+    @Test
+    public void shouldSeeChangesAppendedAfterReachingTheEnd() throws Exception {
+        journal = startJournal(1024 * 1024, 0L, 0L);
+        journal.append(changes(0, 1000L));
+        ChangeJournal.Reader reader = journal.read(Long.MIN_VALUE);
+        assertThat(reader.next().getUserId(), is("user0"));
+        assertThat(reader.hasNext(), is(false));
+        journal.append(changes(1, 1001L));
+        assertThat(reader.hasNext(), is(true));
+        assertThat(reader.next().getUserId(), is("user1"));
+        reader.close();
+    }
+
+    @Test
+    public void shouldRollSegmentsAndReadAcrossThem() throws Exception {
+        journal = startJournal(512, 0L, 0L);
+        for (int i = 0; i != 50; ++i) {
+            journal.append(changes(i, 1000L + i));
+        }
+        assertThat(journal.getSegmentCount() > 5, is(true));
+        assertThat(userIds(journal.read(Long.MIN_VALUE)), is(userIds(0, 50)));
+    }
+
+    @Test
+    public void shouldSkipToTimeUsingIndex() throws Exception {
+        journal = startJournal(2048, 0L, 0L, 128);
+        for (int i = 0; i != 100; ++i) {
+            journal.append(changes(i, 1000L + i * 10));
+        }
+        assertThat(userIds(journal.read(1375L)), is(userIds(38, 100)));
+        assertThat(userIds(journal.read(1380L)), is(userIds(38, 100)));
+        assertThat(userIds(journal.read(5000L)).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldNeverDecreaseJournalTimes() throws Exception {
+        journal = startJournal(1024 * 1024, 0L, 0L);
+        journal.append(changes(0, 2000L));
+        journal.append(changes(1, 1000L));
+        ChangeJournal.Reader reader = journal.read(1500L);
+        assertThat(reader.next().getUserId(), is("user0"));
+        assertThat(reader.next().getUserId(), is("user1"));
+        assertThat(reader.currentTime(), is(2000L));
+    }
+
+    @Test
+    public void shouldRemoveOldestSegmentsWhenTooLarge() throws Exception {
+        journal = startJournal(512, 2048L, 0L);
+        for (int i = 0; i != 100; ++i) {
+            journal.append(changes(i, 1000L + i));
+        }
+        assertThat(journal.getSizeInBytes() <= 2048L + 512L, is(true));
+        List<String> userIds = userIds(journal.read(Long.MIN_VALUE));
+        assertThat(userIds.get(userIds.size() - 1), is("user99"));
+        assertThat(userIds.contains("user0"), is(false));
+    }
+
+    @Test
+    public void shouldRemoveSegmentsWithOnlyExpiredChanges() throws Exception {
+        journal = startJournal(512, 0L, 1000L);
+        for (int i = 0; i != 20; ++i) {
+            journal.append(changes(i, 1000L + i));
+        }
+        journal.append(changes(20, 5000L));
+        journal.append(changes(21, 6000L));
+        List<String> userIds = userIds(journal.read(Long.MIN_VALUE));
+        assertThat(userIds.contains("user0"), is(false));
+        assertThat(userIds.subList(userIds.size() - 2, userIds.size()), is(userIds(20, 22)));
+    }
+
+    @Test
+    public void shouldRecoverExistingSegmentsAndTruncateIncompleteRecord() throws Exception {
+        journal = startJournal(1024 * 1024, 0L, 0L);
+        for (int i = 0; i != 5; ++i) {
+            journal.append(changes(i, 1000L + i));
+        }
+        journal.shutdown();
+
+        // Simulate a crash in the middle of writing a record ...
+        File segment = null;
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(ChangeJournal.SEGMENT_EXTENSION)) segment = file;
+        }
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        journal = startJournal(1024 * 1024, 0L, 0L);
+        journal.append(changes(5, 1005L));
+        assertThat(userIds(journal.read(Long.MIN_VALUE)), is(Arrays.asList("user0", "user1", "user2", "user3", "user5")));
+        assertThat(userIds(journal.read(1004L)), is(Arrays.asList("user5")));
+    }
+
+    protected ChangeJournal startJournal( long segmentSize,
+                                          long maxSize,
+                                          long maxAge ) throws Exception {
+        return startJournal(segmentSize, maxSize, maxAge, ChangeJournal.DEFAULT_INDEX_INTERVAL_IN_BYTES);
+    }
+
+    protected ChangeJournal startJournal( long segmentSize,
+                                          long maxSize,
+                                          long maxAge,
+                                          long indexInterval ) throws Exception {
+        ChangeJournal journal = new ChangeJournal(directory, segmentSize, maxSize, maxAge, indexInterval);
+        journal.start();
+        return journal;
+    }
+
+    protected ChangeSet changes( int i,
+                                 long time ) {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "workspace");
+        changes.nodeChanged(new NodeKey("source1works1-node" + i), context.getValueFactories().getPathFactory()
+                                                                          .create("/a/b/node" + i));
+        changes.freeze("user" + i, null, context.getValueFactories().getDateFactory().create(time));
+        return changes;
+    }
+
+    protected List<String> userIds( ChangeJournal.Reader reader ) {
+        List<String> userIds = new ArrayList<String>();
+        try {
+            while (reader.hasNext()) {
+                userIds.add(reader.next().getUserId());
+            }
+        } finally {
+            reader.close();
+        }
+        return userIds;
+    }
+
+    protected List<String> userIds( int from,
+                                    int to ) {
+        List<String> userIds = new ArrayList<String>();
+        for (int i = from; i != to; ++i) {
+            userIds.add("user" + i);
+        }
+        return userIds;
+    }
+}
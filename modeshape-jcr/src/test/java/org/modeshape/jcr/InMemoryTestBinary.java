@@ -27,6 +27,8 @@ package org.modeshape.jcr;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.NoSuchAlgorithmException;
 import org.modeshape.common.util.IoUtil;
 import org.modeshape.common.util.SecureHash;
@@ -103,6 +105,15 @@ public final class InMemoryTestBinary implements Binary {
         }
     }
 
+    @Override
+    public long transferTo( WritableByteChannel target ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return bytes.length;
+    }
+
     @Override
     public long getSize() {
         return bytes.length;
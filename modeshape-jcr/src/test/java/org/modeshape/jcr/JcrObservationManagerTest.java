@@ -26,12 +26,14 @@ package org.modeshape.jcr;
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
 import javax.jcr.Property;
+import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 import javax.jcr.Workspace;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventJournal;
 import javax.jcr.observation.EventListener;
 import javax.jcr.observation.ObservationManager;
 import javax.jcr.version.Version;
@@ -68,10 +70,13 @@ import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.modeshape.common.FixFor;
+import org.modeshape.common.util.FileUtil;
 import org.modeshape.jcr.JcrObservationManager.JcrEventBundle;
 import org.modeshape.jcr.RepositoryConfiguration.FieldName;
 import org.modeshape.jcr.api.value.DateTime;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -278,6 +283,58 @@ public final class JcrObservationManagerTest extends SingleUseAbstractTest {
         this.session.save();
     }
 
+    @Test
+    public void shouldNotProvideEventJournalWhenJournalingIsNotEnabled() throws Exception {
+        assertThat(getObservationManager().getEventJournal(), is(nullValue()));
+        assertThat(repository.getDescriptorValue(Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED).getBoolean(), is(false));
+    }
+
+    @Test
+    public void shouldReadEventsFromEventJournalWhenJournalingIsEnabled() throws Exception {
+        File journalDir = new File("target/observationJournal");
+        FileUtil.delete(journalDir);
+        try {
+            EditableDocument config = (EditableDocument)createRepositoryConfiguration();
+            config.getOrCreateDocument(FieldName.JOURNALING).set(FieldName.JOURNAL_LOCATION, journalDir.getPath());
+            startRepositoryWithConfiguration(config);
+            session = login(WORKSPACE);
+            assertThat(repository.getDescriptorValue(Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED).getBoolean(), is(true));
+
+            session.getRootNode().addNode("journaled1", UNSTRUCTURED);
+            save();
+            Thread.sleep(10L);
+            long beforeSecond = System.currentTimeMillis();
+            Thread.sleep(10L);
+            session.getRootNode().addNode("journaled2", UNSTRUCTURED);
+            save();
+
+            // The journal records the changes asynchronously ...
+            List<String> addedPaths = new ArrayList<String>();
+            for (int i = 0; i != 100 && !addedPaths.contains("/journaled2"); ++i) {
+                Thread.sleep(50L);
+                addedPaths = addedNodePaths(getObservationManager().getEventJournal());
+            }
+            assertTrue(addedPaths.contains("/journaled1"));
+            assertTrue(addedPaths.contains("/journaled2"));
+
+            EventJournal journal = getObservationManager().getEventJournal(Event.NODE_ADDED, "/", true, null, null);
+            journal.skipTo(beforeSecond);
+            assertThat(addedNodePaths(journal), is(Arrays.asList("/journaled2")));
+        } finally {
+            stopRepository();
+            FileUtil.delete(journalDir);
+        }
+    }
+
+    private List<String> addedNodePaths( EventJournal journal ) throws RepositoryException {
+        List<String> paths = new ArrayList<String>();
+        while (journal.hasNext()) {
+            Event event = journal.nextEvent();
+            if (event.getType() == Event.NODE_ADDED) paths.add(event.getPath());
+        }
+        return paths;
+    }
+
     @Test
     public void shouldNotReceiveEventIfUuidDoesNotMatch() throws Exception {
         // setup
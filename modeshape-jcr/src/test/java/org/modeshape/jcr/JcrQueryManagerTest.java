@@ -77,6 +77,7 @@ import org.modeshape.jcr.api.query.qom.Limit;
 import org.modeshape.jcr.api.query.qom.QueryObjectModelFactory;
 import org.modeshape.jcr.api.query.qom.SelectQuery;
 import org.modeshape.jcr.query.JcrQueryResult;
+import org.modeshape.jcr.query.plan.QueryPlanCache;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.Path.Segment;
 
@@ -667,6 +668,142 @@ public class JcrQueryManagerTest extends MultiUseAbstractTest {
         assertRow(result, 10).has("car:model", "DB9").and("car:msrp", "$171,600").and("car:mpgCity", 12);
     }
 
+    @Test
+    public void shouldBeAbleToCreateAndExecuteJcrSql2QueryToFindFirstCarNodesOrderedByLocalName() throws RepositoryException {
+        String sql = "SELECT * FROM [car:Car] ORDER BY LOCALNAME() DESC";
+        List<String> allPaths = pathsOfResults(sql);
+        assertThat(allPaths.size(), is(13));
+        assertThat(pathsOfResults(sql + " LIMIT 4"), is(allPaths.subList(0, 4)));
+        assertThat(pathsOfResults(sql + " LIMIT 4 OFFSET 3"), is(allPaths.subList(3, 7)));
+    }
+
+    @Test
+    public void shouldBeAbleToCreateAndExecuteJcrSql2QueryToFindFirstCarNodesOrderedByMsrp() throws RepositoryException {
+        String sql = "SELECT * FROM [car:Car] WHERE [car:year] < 2012 ORDER BY [car:msrp] DESC, [car:model]";
+        List<String> allPaths = pathsOfResults(sql);
+        assertThat(allPaths.size() > 5, is(true));
+        assertThat(pathsOfResults(sql + " LIMIT 3"), is(allPaths.subList(0, 3)));
+        assertThat(pathsOfResults(sql + " LIMIT 2 OFFSET 3"), is(allPaths.subList(3, 5)));
+    }
+
+    protected List<String> pathsOfResults( String sql ) throws RepositoryException {
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        List<String> paths = new ArrayList<String>();
+        RowIterator rows = query.execute().getRows();
+        while (rows.hasNext()) {
+            paths.add(rows.nextRow().getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void shouldReuseCachedPlanForQueryExecutedWithOtherVariableValues() throws Exception {
+        QueryPlanCache planCache = repository.runningState().queryManager().planCache();
+        String sql = "SELECT [car:model] FROM [car:Car] WHERE [car:maker] = $maker ORDER BY [car:model]";
+        assertThat(pathsOfCarsMadeBy(sql, "Toyota").size(), is(3));
+        long hits = planCache.getHitCount();
+        assertThat(pathsOfCarsMadeBy(sql, "Nissan").size(), is(1));
+        assertThat(planCache.getHitCount(), is(hits + 1));
+        assertThat(pathsOfCarsMadeBy(sql, "Toyota").size(), is(3));
+        assertThat(planCache.getHitCount(), is(hits + 2));
+
+        // Changing the node types should invalidate the cached plans ...
+        assertThat(planCache.size() > 0L, is(true));
+        registerNodeTypes(session, "cnd/notionalTypes.cnd");
+        assertThat(planCache.size(), is(0L));
+        assertThat(pathsOfCarsMadeBy(sql, "Toyota").size(), is(3));
+    }
+
+    protected List<String> pathsOfCarsMadeBy( String sql,
+                                              String maker ) throws RepositoryException {
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        query.bindValue("maker", session.getValueFactory().createValue(maker));
+        List<String> paths = new ArrayList<String>();
+        RowIterator rows = query.execute().getRows();
+        while (rows.hasNext()) {
+            paths.add(rows.nextRow().getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void shouldReturnSameColumnValuesFromIndexColumnsAsFromNodes() throws RepositoryException {
+        String sql = "SELECT [jcr:primaryType], [car:maker], [jcr:path], [jcr:name], [mode:localName], [mode:depth] "
+                     + "FROM [car:Car] ORDER BY [jcr:path]";
+        // Without transient changes, the primary types are read from the index columns ...
+        List<List<String>> fromColumns = rowValues(sql);
+        assertThat(fromColumns.size(), is(13));
+        for (List<String> row : fromColumns) {
+            assertThat(row.get(0), is("car:Car"));
+        }
+
+        // With transient changes, all values are read from the nodes ...
+        session.getRootNode().addNode("transientNode", "nt:unstructured");
+        try {
+            assertThat(session.hasPendingChanges(), is(true));
+            List<List<String>> fromNodes = rowValues(sql);
+            assertThat(fromNodes, is(fromColumns));
+        } finally {
+            session.refresh(false);
+        }
+    }
+
+    @Test
+    public void shouldReturnSameValuesWhenAllColumnsAreIndexColumnsAndPathsAreKnown() throws RepositoryException {
+        String sql = "SELECT [jcr:primaryType], [jcr:path], [jcr:name], [mode:depth] FROM [car:Car] ORDER BY [jcr:path]";
+        // The first query loads the nodes (and their paths), so the second needs only the index columns and known paths ...
+        List<List<String>> first = rowValues(sql);
+        assertThat(first.size(), is(13));
+        List<List<String>> second = rowValues(sql);
+        assertThat(second, is(first));
+
+        // With transient changes, all values are read from the nodes ...
+        session.getRootNode().addNode("transientNode", "nt:unstructured");
+        try {
+            assertThat(rowValues(sql), is(first));
+        } finally {
+            session.refresh(false);
+        }
+    }
+
+    @Test
+    public void shouldNotReturnRemovedNodesWhenAllColumnsAreIndexColumns() throws RepositoryException {
+        String sql = "SELECT [jcr:primaryType], [jcr:path] FROM [nt:unstructured] WHERE NAME() = 'removedIndexedNode'";
+        Node node = session.getRootNode().addNode("removedIndexedNode", "nt:unstructured");
+        session.save();
+        try {
+            assertThat(rowValues(sql).size(), is(1));
+            assertThat(rowValues(sql).size(), is(1));
+        } finally {
+            node.remove();
+            session.save();
+        }
+        assertThat(rowValues(sql).size(), is(0));
+    }
+
+    protected List<List<String>> rowValues( String sql ) throws RepositoryException {
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        QueryResult result = query.execute();
+        String[] columnNames = result.getColumnNames();
+        List<List<String>> rows = new ArrayList<List<String>>();
+        RowIterator iter = result.getRows();
+        while (iter.hasNext()) {
+            Row row = iter.nextRow();
+            List<String> values = new ArrayList<String>();
+            for (String columnName : columnNames) {
+                Value value = row.getValue(columnName);
+                values.add(value != null ? value.getString() : null);
+            }
+            // The pseudo-columns must match the node ...
+            Node node = row.getNode();
+            assertThat(row.getValue("jcr:path").getString(), is(node.getPath()));
+            assertThat(row.getValue("jcr:name").getString(), is(node.getName()));
+            assertThat(row.getValue("mode:depth").getLong(), is((long)node.getDepth()));
+            rows.add(values);
+        }
+        return rows;
+    }
+
     @FixFor( "MODE-1234" )
     @Test
     public void shouldAllowEqualityCriteriaOnPropertyDefinedWithBooleanPropertyDefinition() throws RepositoryException {
@@ -797,6 +934,42 @@ public class JcrQueryManagerTest extends MultiUseAbstractTest {
         assertRow(result).has("car:model", "Prius").and("car.car:msrp", "$21,500").and("car.car:year", 2008);
     }
 
+    @Test
+    public void shouldIncludeEstimatesInPlanOfJcrSql2QueryWithThreeWayJoin() throws RepositoryException {
+        String sql = "SELECT car.[car:maker], car.[car:model] FROM [nt:unstructured] AS cars "
+                     + "JOIN [nt:unstructured] AS category ON ISCHILDNODE(category,cars) "
+                     + "JOIN [car:Car] AS car ON ISCHILDNODE(car,category) "
+                     + "WHERE NAME(cars) = 'Cars' AND NAME(category) = 'Hybrid'";
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        QueryResult result = query.execute();
+        assertResults(query, result, 3L);
+        assertRow(result).has("car:model", "Altima");
+        assertRow(result).has("car:model", "Highlander");
+        assertRow(result).has("car:model", "Prius");
+        String plan = ((JcrQueryResult)result).getPlan();
+        assertThat(plan, plan.contains("ESTIMATED_CARDINALITY="), is(true));
+    }
+
+    @Test
+    public void shouldIncludeExecutionStatisticsInPlanOfAnalyzedJcrSql2QueryWithThreeWayJoin() throws RepositoryException {
+        String sql = "SELECT car.[car:maker], car.[car:model] FROM [nt:unstructured] AS cars "
+                     + "JOIN [nt:unstructured] AS category ON ISCHILDNODE(category,cars) "
+                     + "JOIN [car:Car] AS car ON ISCHILDNODE(car,category) "
+                     + "WHERE NAME(cars) = 'Cars' AND NAME(category) = 'Hybrid'";
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        org.modeshape.jcr.api.query.QueryResult result = ((org.modeshape.jcr.api.query.Query)query).analyze();
+        assertResults(query, result, 3L);
+        assertRow(result).has("car:model", "Altima");
+        String plan = result.getPlan();
+        assertThat(plan, plan.contains("PROFILE=rows=3 time="), is(true));
+        assertThat(plan, plan.contains("docsScanned="), is(true));
+        assertThat(plan, plan.contains("Result nodes <loaded=3 "), is(true));
+
+        // Executing the query normally should not record any statistics ...
+        plan = ((JcrQueryResult)query.execute()).getPlan();
+        assertThat(plan, plan.contains("PROFILE="), is(false));
+    }
+
     @Test
     public void shouldBeAbleToCreateAndExecuteJcrSql2QueryToFindAllUnstructuredNodes() throws RepositoryException {
         Query query = session.getWorkspace().getQueryManager().createQuery("SELECT * FROM [nt:unstructured]", Query.JCR_SQL2);
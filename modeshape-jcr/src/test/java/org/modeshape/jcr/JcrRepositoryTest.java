@@ -30,8 +30,10 @@ import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,12 +44,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.jcr.NamespaceException;
 import javax.jcr.NoSuchWorkspaceException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.Repository;
 import javax.jcr.Session;
 import javax.jcr.ValueFormatException;
 import javax.jcr.nodetype.ConstraintViolationException;
 import javax.jcr.observation.Event;
 import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
 import javax.transaction.TransactionManager;
 import org.junit.After;
@@ -61,6 +65,9 @@ import org.modeshape.jcr.RepositoryStatistics.Statistics;
 import org.modeshape.jcr.api.monitor.DurationMetric;
 import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.monitor.Window;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.query.IndexBatch;
+import org.modeshape.jcr.query.process.QueryResultCache;
 
 public class JcrRepositoryTest extends AbstractTransactionalTest {
 
@@ -563,6 +570,42 @@ public class JcrRepositoryTest extends AbstractTransactionalTest {
         assertThat(future.get(), is(true)); // get() blocks until done
     }
 
+    @Test
+    public void shouldReindexPartitionsOfWorkspaceConcurrently() throws Exception {
+        session = createSession();
+        Node parent = session.getRootNode().addNode("parent");
+        List<NodeKey> keys = new ArrayList<NodeKey>();
+        for (int i = 0; i != 50; ++i) {
+            Node child = parent.addNode("child" + i);
+            keys.add(((AbstractJcrNode)child).key());
+            for (int j = 0; j != 5; ++j) {
+                keys.add(((AbstractJcrNode)child.addNode("grandchild" + j)).key());
+            }
+        }
+        session.save();
+
+        // Remove the nodes from the indexes, applying the same batch twice ...
+        RepositoryQueryManager queryManager = repository.runningState().queryManager();
+        IndexBatch batch = queryManager.getIndexes().createBatch();
+        String workspaceName = session.getWorkspace().getName();
+        queryManager.getIndexes().removeFromIndex(workspaceName, keys.subList(0, 120), batch);
+        assertThat(batch.size(), is(120));
+        batch.apply();
+        assertThat(batch.size(), is(0));
+        String sql = "SELECT * FROM [nt:unstructured] WHERE ISDESCENDANTNODE('/parent')";
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        assertThat(query.execute().getNodes().getSize(), is(180L));
+        queryManager.getIndexes().removeFromIndex(workspaceName, keys.subList(120, keys.size()), batch);
+        batch.apply();
+        assertThat(query.execute().getNodes().getSize(), is(0L));
+
+        long reindexedNodeCount = queryManager.reindexedNodeCount();
+        session.getWorkspace().reindex("/parent");
+        assertThat(query.execute().getNodes().getSize(), is(300L));
+        assertThat(queryManager.reindexedNodeCount() - reindexedNodeCount, is(301L));
+        assertThat(queryManager.reindexingTimeRemaining(), is(0L));
+    }
+
     @FixFor( "MODE-1498" )
     @Test
     public void shouldWorkWithUserDefinedTransactions() throws Exception {
@@ -854,6 +897,93 @@ public class JcrRepositoryTest extends AbstractTransactionalTest {
         }
     }
 
+    @Test
+    public void shouldSearchIndexSegmentsInParallelWhenEnabled() throws Exception {
+        RepositoryConfiguration config = null;
+        config = RepositoryConfiguration.read("{ \"name\" : \"repoName\", "
+                                              + "\"query\" : { \"parallelSearch\" : { \"enabled\" : true } } }");
+        config = new RepositoryConfiguration(config.getDocument(), "repoName", environment);
+        repository = new JcrRepository(config);
+        repository.start();
+
+        // Each save is indexed separately, resulting in multiple index segments ...
+        session = createSession();
+        Node parent = session.getRootNode().addNode("parent");
+        session.save();
+        for (int i = 0; i != 20; ++i) {
+            parent.addNode("child" + i).setProperty("index", i);
+            session.save();
+        }
+
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        String sql = "SELECT [index] FROM [nt:unstructured] WHERE ISCHILDNODE('/parent')";
+        QueryResult result = queryManager.createQuery(sql, Query.JCR_SQL2).execute();
+        Set<String> names = new HashSet<String>();
+        for (NodeIterator iter = result.getNodes(); iter.hasNext();) {
+            names.add(iter.nextNode().getName());
+        }
+        assertThat(names.size(), is(20));
+        for (int i = 0; i != 20; ++i) {
+            assertThat(names.contains("child" + i), is(true));
+        }
+
+        // Queries that don't consume all of the tuples should also work ...
+        Query query = queryManager.createQuery(sql, Query.JCR_SQL2);
+        query.setLimit(3);
+        assertThat(query.execute().getNodes().getSize(), is(3L));
+        sql = "SELECT [index] FROM [nt:unstructured] WHERE ISCHILDNODE('/parent') AND [index] >= 15";
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(5L));
+    }
+
+    @Test
+    public void shouldReuseCachedQueryResultsUntilChangesAffectThem() throws Exception {
+        RepositoryConfiguration config = null;
+        config = RepositoryConfiguration.read("{ \"name\" : \"repoName\", "
+                                              + "\"query\" : { \"resultCache\" : { \"enabled\" : true } } }");
+        config = new RepositoryConfiguration(config.getDocument(), "repoName", environment);
+        repository = new JcrRepository(config);
+        repository.start();
+
+        session = createSession();
+        Node parent = session.getRootNode().addNode("parent");
+        parent.addNode("child1").setProperty("color", "red");
+        parent.addNode("child2").setProperty("color", "blue");
+        session.getRootNode().addNode("folder", "nt:folder");
+        session.save();
+
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        String sql = "SELECT * FROM [nt:unstructured] WHERE [color] = 'red'";
+        String folderSql = "SELECT * FROM [nt:folder]";
+        QueryResultCache resultCache = repository.queryManager().resultCache();
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(1L));
+        assertThat(queryManager.createQuery(folderSql, Query.JCR_SQL2).execute().getNodes().getSize(), is(1L));
+        assertThat(resultCache.size(), is(2L));
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(1L));
+        assertThat(resultCache.getHitCount(), is(1L));
+
+        // Changing a property used by the first query should invalidate only its results ...
+        session.getNode("/parent/child2").setProperty("color", "red");
+        session.save();
+        assertThat(resultCache.size(), is(1L));
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(2L));
+
+        // New unstructured nodes should not affect the results of queries of folders ...
+        parent.addNode("child3").setProperty("color", "red");
+        session.save();
+        assertThat(queryManager.createQuery(folderSql, Query.JCR_SQL2).execute().getNodes().getSize(), is(1L));
+        assertThat(resultCache.getHitCount(), is(2L));
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(3L));
+
+        // Results that reflect transient changes should never be cached ...
+        session.getNode("/parent/child3").remove();
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(2L));
+        assertThat(resultCache.getHitCount(), is(2L));
+        session.save();
+        assertThat(queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes().getSize(), is(2L));
+        assertThat(resultCache.getHitCount(), is(2L));
+        assertThat(resultCache.getInvalidationCount() > 0L, is(true));
+    }
+
     protected void nodeExists( Session session,
                                String parentPath,
                                String childName,
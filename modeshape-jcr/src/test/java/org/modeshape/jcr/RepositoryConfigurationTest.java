@@ -35,9 +35,17 @@ import org.junit.Before;
 import org.junit.Test;
 import org.modeshape.common.collection.Problems;
 import org.modeshape.jcr.RepositoryConfiguration.AnonymousSecurity;
+import org.modeshape.jcr.RepositoryConfiguration.Backup;
+import org.modeshape.jcr.RepositoryConfiguration.DocumentOptimization;
+import org.modeshape.jcr.RepositoryConfiguration.EventBus;
 import org.modeshape.jcr.RepositoryConfiguration.JaasSecurity;
+import org.modeshape.jcr.RepositoryConfiguration.Journaling;
+import org.modeshape.jcr.RepositoryConfiguration.NodeCaching;
+import org.modeshape.jcr.RepositoryConfiguration.QuerySystem;
 import org.modeshape.jcr.RepositoryConfiguration.Security;
 import org.modeshape.jcr.RepositoryConfiguration.TransactionMode;
+import org.modeshape.jcr.bus.OverflowPolicy;
+import org.modeshape.jcr.bus.RepositoryChangeBus;
 
 public class RepositoryConfigurationTest {
     private boolean print = false;
@@ -129,6 +137,145 @@ public class RepositoryConfigurationTest {
         assertValid("config/thorough-repo-config.json");
     }
 
+    @Test
+    public void shouldUseDefaultNodeCacheLimitsWhenNotConfigured() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        NodeCaching caching = config.getNodeCaching("default");
+        assertThat(caching.getMaxEntries(), is(RepositoryConfiguration.Default.NODE_CACHE_MAX_ENTRIES));
+        assertThat(caching.getMaxSizeInBytes(), is(RepositoryConfiguration.Default.NODE_CACHE_MAX_SIZE_IN_BYTES));
+    }
+
+    @Test
+    public void shouldOverrideNodeCacheLimitsForSpecificWorkspace() {
+        RepositoryConfiguration config = assertValid("config/thorough-repo-config.json");
+        NodeCaching caching = config.getNodeCaching("default");
+        assertThat(caching.getMaxEntries(), is(20000L));
+        assertThat(caching.getMaxSizeInBytes(), is(0L));
+        caching = config.getNodeCaching("otherWorkspace");
+        assertThat(caching.getMaxEntries(), is(5000L));
+        assertThat(caching.getMaxSizeInBytes(), is(10485760L));
+    }
+
+    @Test
+    public void shouldNotEnableDocumentOptimizationByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        DocumentOptimization optimization = config.getDocumentOptimization();
+        assertThat(optimization.isEnabled(), is(false));
+        assertThat(optimization.getThreadPoolName(), is(RepositoryConfiguration.Default.OPTIMIZATION_POOL));
+    }
+
+    @Test
+    public void shouldEnableDocumentOptimizationWithChildCountTarget() {
+        RepositoryConfiguration config = assertValid("config/thorough-repo-config.json");
+        DocumentOptimization optimization = config.getDocumentOptimization();
+        assertThat(optimization.isEnabled(), is(true));
+        assertThat(optimization.getChildCountTarget(), is(500));
+        assertThat(optimization.getChildCountTolerance(), is(100));
+
+        // The tolerance defaults to a percentage of the target ...
+        config = assertValid("{ 'name' : 'nm', 'documentOptimization' : { 'childCountTarget' : 200 } }");
+        assertThat(config.getDocumentOptimization().getChildCountTolerance(), is(20));
+    }
+
+    @Test
+    public void shouldUseUnboundedEventBusQueuesByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        EventBus eventBus = config.getEventBus();
+        assertThat(eventBus.getQueueSize(), is(RepositoryChangeBus.UNBOUNDED_QUEUE_CAPACITY));
+        assertThat(eventBus.getObservationOverflowPolicy(), is(OverflowPolicy.BLOCK));
+    }
+
+    @Test
+    public void shouldReadEventBusQueueSizeAndObservationOverflowPolicy() {
+        RepositoryConfiguration config = assertValid("config/thorough-repo-config.json");
+        EventBus eventBus = config.getEventBus();
+        assertThat(eventBus.getQueueSize(), is(256));
+        assertThat(eventBus.getObservationOverflowPolicy(), is(OverflowPolicy.DROP));
+
+        config = assertValid("{ 'name' : 'nm', 'eventBus' : { 'observationOverflowPolicy' : 'block' } }");
+        assertThat(config.getEventBus().getObservationOverflowPolicy(), is(OverflowPolicy.BLOCK));
+    }
+
+    @Test
+    public void shouldNotSearchIndexSegmentsInParallelByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        QuerySystem query = config.getQuery();
+        assertThat(query.parallelSearchEnabled(), is(false));
+        assertThat(query.getParallelSearchThreadPoolName(), is(RepositoryConfiguration.Default.PARALLEL_SEARCH_POOL));
+    }
+
+    @Test
+    public void shouldReadParallelSearchOptions() {
+        RepositoryConfiguration config = assertValid("{ 'name' : 'nm', 'query' : { 'parallelSearch' : { 'enabled' : true, "
+                                                     + "'threadPool' : 'search' } } }");
+        QuerySystem query = config.getQuery();
+        assertThat(query.parallelSearchEnabled(), is(true));
+        assertThat(query.getParallelSearchThreadPoolName(), is("search"));
+    }
+
+    @Test
+    public void shouldNotCacheQueryResultsByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        QuerySystem query = config.getQuery();
+        assertThat(query.resultCacheEnabled(), is(false));
+        assertThat(query.getResultCacheMaxEntries(), is(RepositoryConfiguration.Default.RESULT_CACHE_MAX_ENTRIES));
+        assertThat(query.getResultCacheMaxSizeInBytes(), is(RepositoryConfiguration.Default.RESULT_CACHE_MAX_SIZE_IN_BYTES));
+    }
+
+    @Test
+    public void shouldReadQueryResultCacheOptions() {
+        RepositoryConfiguration config = assertValid("{ 'name' : 'nm', 'query' : { 'resultCache' : { 'enabled' : true, "
+                                                     + "'maxEntries' : 50, 'maxSizeInBytes' : 1048576 } } }");
+        QuerySystem query = config.getQuery();
+        assertThat(query.resultCacheEnabled(), is(true));
+        assertThat(query.getResultCacheMaxEntries(), is(50L));
+        assertThat(query.getResultCacheMaxSizeInBytes(), is(1048576L));
+    }
+
+    @Test
+    public void shouldUseConcurrentBackupStreamsByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        Backup backup = config.getBackup();
+        assertThat(backup.getDocumentStreams(), is(RepositoryConfiguration.Default.BACKUP_DOCUMENT_STREAMS));
+        assertThat(backup.getBinaryThreads(), is(RepositoryConfiguration.Default.BACKUP_BINARY_THREADS));
+        assertThat(backup.getRestoreBatchSize(), is(RepositoryConfiguration.Default.BACKUP_RESTORE_BATCH_SIZE));
+        assertThat(backup.getThreadPoolName(), is(RepositoryConfiguration.Default.BACKUP_POOL));
+    }
+
+    @Test
+    public void shouldReadBackupOptions() {
+        RepositoryConfiguration config = assertValid("{ 'name' : 'nm', 'backup' : { 'documentStreams' : 8, 'binaryThreads' : 2, "
+                                                     + "'restoreBatchSize' : 100, 'threadPool' : 'backups' } }");
+        Backup backup = config.getBackup();
+        assertThat(backup.getDocumentStreams(), is(8));
+        assertThat(backup.getBinaryThreads(), is(2));
+        assertThat(backup.getRestoreBatchSize(), is(100));
+        assertThat(backup.getThreadPoolName(), is("backups"));
+    }
+
+    @Test
+    public void shouldNotEnableJournalingByDefault() {
+        RepositoryConfiguration config = new RepositoryConfiguration("repoName");
+        Journaling journaling = config.getJournaling();
+        assertThat(journaling.isEnabled(), is(false));
+        assertThat(journaling.getMaxAgeInSeconds(), is(RepositoryConfiguration.Default.JOURNAL_MAX_AGE_IN_SECONDS));
+        assertThat(journaling.getMaxSizeInBytes(), is(RepositoryConfiguration.Default.JOURNAL_MAX_SIZE_IN_BYTES));
+        assertThat(journaling.getSegmentSizeInBytes(), is(RepositoryConfiguration.Default.JOURNAL_SEGMENT_SIZE_IN_BYTES));
+    }
+
+    @Test
+    public void shouldReadJournalingOptions() {
+        RepositoryConfiguration config = assertValid("{ 'name' : 'nm', 'journaling' : { 'location' : 'target/journal', "
+                                                     + "'maxAgeInSeconds' : 3600, 'maxSizeInBytes' : 0, "
+                                                     + "'segmentSizeInBytes' : 1048576 } }");
+        Journaling journaling = config.getJournaling();
+        assertThat(journaling.isEnabled(), is(true));
+        assertThat(journaling.getLocation(), is("target/journal"));
+        assertThat(journaling.getMaxAgeInSeconds(), is(3600L));
+        assertThat(journaling.getMaxSizeInBytes(), is(0L));
+        assertThat(journaling.getSegmentSizeInBytes(), is(1048576L));
+    }
+
     @Test
     public void shouldSuccessfullyValidateThoroughRepositoryConfigurationWithDescriptions() {
         assertValid("config/thorough-with-desc-repo-config.json");
@@ -246,9 +393,18 @@ public class RepositoryConfigurationTest {
         assertEquals(RepositoryConfiguration.Default.CLUSTER_NAME, clusteringConfiguration.getClusterName());
         assertEquals(RepositoryConfiguration.Default.CHANNEL_PROVIDER, clusteringConfiguration.getChannelProviderClassName());
         assertNull(clusteringConfiguration.getChannelConfiguration());
+        assertThat(clusteringConfiguration.isCompactChangeSetFormatEnabled(), is(false));
         assertNotNull(clusteringConfiguration.getDocument());
     }
 
+    @Test
+    public void shouldAllowCompactChangeSetFormatToBeEnabled() throws Exception {
+        RepositoryConfiguration config = RepositoryConfiguration.read("{ \"name\" : \"sample\", "
+                                                                      + "\"clustering\" : { \"compactChangeSets\" : true } }");
+        assertValid(config);
+        assertThat(config.getClustering().isCompactChangeSetFormatEnabled(), is(true));
+    }
+
     @Test
     public void shouldAllowClusteringToBeConfigured() throws Exception {
         String clusterName = "testCluster";
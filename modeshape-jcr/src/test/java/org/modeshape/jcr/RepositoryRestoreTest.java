@@ -25,10 +25,14 @@ package org.modeshape.jcr;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import javax.jcr.Binary;
 import javax.jcr.ImportUUIDBehavior;
 import javax.jcr.NoSuchWorkspaceException;
 import javax.jcr.Node;
@@ -37,8 +41,10 @@ import javax.jcr.Session;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.modeshape.common.collection.SimpleProblems;
 import org.modeshape.common.statistic.Stopwatch;
 import org.modeshape.common.util.FileUtil;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.jcr.api.Problems;
 
 /**
@@ -102,6 +108,160 @@ public class RepositoryRestoreTest extends SingleUseAbstractTest {
         }
     }
 
+    @Test
+    public void shouldRestoreIncrementalBackupAndTheBackupsItIsBasedUpon() throws Exception {
+        Node content = session().getRootNode().addNode("content");
+        content.addNode("kept").setProperty("value", "original");
+        content.addNode("changed").setProperty("value", "original");
+        content.addNode("removed").setProperty("value", "original");
+        session().save();
+        File fullBackup = new File(backupDirectory, "full");
+        assertNoProblems(session().getWorkspace().getRepositoryManager().backupRepository(fullBackup));
+
+        content.getNode("changed").setProperty("value", "modified");
+        content.getNode("removed").remove();
+        session().save();
+        File firstIncrement = new File(backupDirectory, "increment1");
+        assertNoProblems(session().getWorkspace().getRepositoryManager().backupRepository(firstIncrement, fullBackup));
+
+        content.addNode("added").setProperty("value", "original");
+        session().save();
+        File secondIncrement = new File(backupDirectory, "increment2");
+        assertNoProblems(session().getWorkspace().getRepositoryManager().backupRepository(secondIncrement, firstIncrement));
+
+        // The increments should contain only the changed documents ...
+        assertThat(documentCount(secondIncrement) < documentCount(fullBackup), is(true));
+
+        // Change the content again, and then restore the repository from the last increment ...
+        content.getNode("kept").remove();
+        session().save();
+        Problems restoreProblems = session().getWorkspace().getRepositoryManager().restoreRepository(secondIncrement);
+        assertNoProblems(restoreProblems);
+
+        Session newSession = repository().login();
+        try {
+            Node restored = newSession.getNode("/content");
+            assertThat(restored.getNode("kept").getProperty("value").getString(), is("original"));
+            assertThat(restored.getNode("changed").getProperty("value").getString(), is("modified"));
+            assertThat(restored.getNode("added").getProperty("value").getString(), is("original"));
+            assertThat(restored.hasNode("removed"), is(false));
+        } finally {
+            newSession.logout();
+        }
+    }
+
+    @Test
+    public void shouldRestoreIncrementalBackupAfterMovingItTogetherWithTheBackupsItIsBasedUpon() throws Exception {
+        Node content = session().getRootNode().addNode("content");
+        content.addNode("kept").setProperty("value", "original");
+        content.addNode("changed").setProperty("value", "original");
+        session().save();
+        File originalArea = new File(backupDirectory, "original");
+        File fullBackup = new File(originalArea, "full");
+        assertNoProblems(session().getWorkspace().getRepositoryManager().backupRepository(fullBackup));
+
+        content.getNode("changed").setProperty("value", "modified");
+        session().save();
+        File increment = new File(originalArea, "increment");
+        assertNoProblems(session().getWorkspace().getRepositoryManager().backupRepository(increment, fullBackup));
+
+        // Move the backups, so that the absolute path of the full backup no longer exists ...
+        File movedArea = new File(backupDirectory, "moved");
+        assertThat(originalArea.renameTo(movedArea), is(true));
+        assertThat(fullBackup.exists(), is(false));
+
+        content.remove();
+        session().save();
+        assertNoProblems(session().getWorkspace().getRepositoryManager().restoreRepository(new File(movedArea, "increment")));
+
+        Session newSession = repository().login();
+        try {
+            Node restored = newSession.getNode("/content");
+            assertThat(restored.getNode("kept").getProperty("value").getString(), is("original"));
+            assertThat(restored.getNode("changed").getProperty("value").getString(), is("modified"));
+        } finally {
+            newSession.logout();
+        }
+    }
+
+    @Test
+    public void shouldBackupAndRestoreUsingConcurrentDocumentStreamsAndBinaryCopies() throws Exception {
+        Node content = session().getRootNode().addNode("content");
+        for (int i = 0; i != 200; ++i) {
+            content.addNode("node" + i).setProperty("value", "value" + i);
+        }
+        for (int i = 0; i != 10; ++i) {
+            Binary binary = session().getValueFactory().createBinary(new ByteArrayInputStream(binaryContent(i)));
+            content.addNode("binary" + i).setProperty("data", binary);
+        }
+        session().save();
+        assertNoProblems(session().getWorkspace().getRepositoryManager().backupRepository(backupDirectory));
+
+        // The documents should be spread over several streams ...
+        int streams = RepositoryConfiguration.Default.BACKUP_DOCUMENT_STREAMS;
+        int total = 0;
+        for (int i = 0; i != streams; ++i) {
+            int count = documentCount(backupDirectory, BackupService.streamFilenamePrefix(BackupService.DOCUMENTS_FILENAME_PREFIX, i));
+            assertThat(count > 0, is(true));
+            total += count;
+        }
+        assertThat(total > 200, is(true));
+
+        content.remove();
+        session().save();
+        assertNoProblems(session().getWorkspace().getRepositoryManager().restoreRepository(backupDirectory));
+
+        Session newSession = repository().login();
+        try {
+            Node restored = newSession.getNode("/content");
+            for (int i = 0; i != 200; ++i) {
+                assertThat(restored.getNode("node" + i).getProperty("value").getString(), is("value" + i));
+            }
+            for (int i = 0; i != 10; ++i) {
+                InputStream stream = restored.getNode("binary" + i).getProperty("data").getBinary().getStream();
+                assertThat(IoUtil.readBytes(stream), is(binaryContent(i)));
+            }
+        } finally {
+            newSession.logout();
+        }
+    }
+
+    protected byte[] binaryContent( int i ) {
+        // Large enough to be kept in the binary store ...
+        byte[] content = new byte[10000];
+        Arrays.fill(content, (byte)i);
+        return content;
+    }
+
+    @Test
+    public void shouldNotBackupIncrementallyWithoutPreviousBackup() throws Exception {
+        Problems problems = session().getWorkspace().getRepositoryManager().backupRepository(new File(backupDirectory, "increment"),
+                                                                                           new File(backupDirectory, "missing"));
+        assertThat(problems.hasProblems(), is(true));
+    }
+
+    protected int documentCount( File backup ) {
+        int count = 0;
+        for (int i = 0; i != RepositoryConfiguration.Default.BACKUP_DOCUMENT_STREAMS; ++i) {
+            count += documentCount(backup, BackupService.streamFilenamePrefix(BackupService.DOCUMENTS_FILENAME_PREFIX, i));
+        }
+        return count;
+    }
+
+    protected int documentCount( File backup,
+                                 String filenamePrefix ) {
+        int count = 0;
+        BackupDocumentReader reader = new BackupDocumentReader(backup, filenamePrefix, new SimpleProblems());
+        try {
+            while (reader.read() != null) {
+                ++count;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
     protected void assertNoProblems( Problems problems ) {
         if (problems.hasProblems()) {
             System.out.println(problems);
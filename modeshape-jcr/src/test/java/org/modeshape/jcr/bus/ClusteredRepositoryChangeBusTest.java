@@ -33,10 +33,20 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import org.modeshape.jcr.ClusteringHelper;
 import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangeSetSerializer;
+import org.modeshape.jcr.cache.change.RecordingChanges;
 import org.modeshape.jcr.clustering.DefaultChannelProvider;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit test for {@link ClusteredRepositoryChangeBus}
@@ -335,6 +345,109 @@ public class ClusteredRepositoryChangeBusTest extends RepositoryChangeBusTest {
         assertThat(listener1.getObservedChangeSet().get(0), is(changeSet));
     }
 
+    @Test
+    public void shouldSendRecordingChangesThroughRealJGroupsClusterUsingCompactFormat() throws Exception {
+        RepositoryConfiguration.Clustering compact = createClusteringConfiguration(CLUSTER_NAME);
+        when(compact.isCompactChangeSetFormatEnabled()).thenReturn(true);
+        ClusteredRepositoryChangeBus bus1 = startNewBusWith(compact);
+        ClusteredRepositoryChangeBus bus2 = startNewBus(CLUSTER_NAME);
+        final List<ChangeSet> received = new CopyOnWriteArrayList<ChangeSet>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        bus2.register(new ChangeSetListener() {
+            @Override
+            public void notify( ChangeSet changeSet ) {
+                received.add(changeSet);
+                latch.countDown();
+            }
+        });
+
+        NodeKey key = new NodeKey("source1works1-childA");
+        RecordingChanges changes = new RecordingChanges("process", "repo", "ws1");
+        changes.nodeChanged(key, RootPath.INSTANCE);
+        changes.setChangedNodes(Collections.singleton(key));
+        changes.freeze("jsmith", null, new JodaDateTime(System.currentTimeMillis()));
+        bus1.notify(changes);
+
+        latch.await(2, TimeUnit.SECONDS);
+        assertThat(received.size(), is(1));
+        ChangeSet result = received.get(0);
+        assertThat(result.getWorkspaceName(), is("ws1"));
+        assertThat(result.getProcessKey(), is("process"));
+        assertThat(result.changedNodes(), is(changes.changedNodes()));
+        assertThat(result.toString(), is(changes.toString()));
+    }
+
+    @Test
+    public void shouldUseJavaSerializationUnlessCompactFormatIsEnabled() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "ws1");
+        changes.nodeChanged(new NodeKey("source1works1-childA"), RootPath.INSTANCE);
+        changes.freeze("jsmith", null, new JodaDateTime(System.currentTimeMillis()));
+
+        byte[] legacy = ClusteredRepositoryChangeBus.serialize(changes, false);
+        assertThat(ChangeSetSerializer.isSerializedChangeSet(legacy), is(false));
+        assertThat(ClusteredRepositoryChangeBus.deserialize(legacy).toString(), is(changes.toString()));
+
+        byte[] compact = ClusteredRepositoryChangeBus.serialize(changes, true);
+        assertThat(ChangeSetSerializer.isSerializedChangeSet(compact), is(true));
+        assertThat(ClusteredRepositoryChangeBus.deserialize(compact).toString(), is(changes.toString()));
+    }
+
+    @Test
+    public void shouldSendBatchedChangesThroughRealJGroupsClusterInOrder() throws Exception {
+        RepositoryConfiguration.Clustering batching = createClusteringConfiguration(CLUSTER_NAME);
+        when(batching.isBatchingEnabled()).thenReturn(true);
+        when(batching.getBatchDelayInMillis()).thenReturn(50L);
+        when(batching.getBatchSizeInBytes()).thenReturn(64 * 1024);
+        ClusteredRepositoryChangeBus bus1 = startNewBusWith(batching);
+        ClusteredRepositoryChangeBus bus2 = startNewBus(CLUSTER_NAME);
+        final List<ChangeSet> received = new CopyOnWriteArrayList<ChangeSet>();
+        final CountDownLatch latch = new CountDownLatch(20);
+        bus2.register(new ChangeSetListener() {
+            @Override
+            public void notify( ChangeSet changeSet ) {
+                received.add(changeSet);
+                latch.countDown();
+            }
+        });
+
+        for (int i = 0; i != 20; ++i) {
+            RecordingChanges changes = new RecordingChanges("process", "repo", "ws1");
+            changes.nodeChanged(new NodeKey("source1works1-child" + i), RootPath.INSTANCE);
+            changes.freeze("user" + i, null, new JodaDateTime(System.currentTimeMillis()));
+            bus1.notify(changes);
+        }
+
+        latch.await(2, TimeUnit.SECONDS);
+        assertThat(received.size(), is(20));
+        for (int i = 0; i != 20; ++i) {
+            assertThat(received.get(i).getUserId(), is("user" + i));
+        }
+    }
+
+    @Test
+    public void shouldSplitBatchIntoSerializedChangeSets() throws Exception {
+        List<byte[]> serialized = new ArrayList<byte[]>();
+        serialized.add(new byte[] {1, 2, 3});
+        serialized.add(new byte[0]);
+        serialized.add(new byte[] {4});
+        byte[] batch = ClusteredRepositoryChangeBus.toBatch(serialized);
+        assertThat(ClusteredRepositoryChangeBus.isBatch(batch), is(true));
+        assertThat(ClusteredRepositoryChangeBus.isBatch(new byte[] {1, 2, 3}), is(false));
+        List<byte[]> result = ClusteredRepositoryChangeBus.fromBatch(batch);
+        assertThat(result.size(), is(3));
+        for (int i = 0; i != 3; ++i) {
+            assertThat(result.get(i), is(serialized.get(i)));
+        }
+    }
+
+    private ClusteredRepositoryChangeBus startNewBusWith( RepositoryConfiguration.Clustering clusteringConfiguration ) {
+        ClusteredRepositoryChangeBus bus = new ClusteredRepositoryChangeBus(clusteringConfiguration,
+                                                                            super.createRepositoryChangeBus());
+        bus.start();
+        buses.add(bus);
+        return bus;
+    }
+
     private ClusteredRepositoryChangeBus startNewBus( String name) {
         ClusteredRepositoryChangeBus bus = new ClusteredRepositoryChangeBus(createClusteringConfiguration(name), super.createRepositoryChangeBus());
         bus.start();
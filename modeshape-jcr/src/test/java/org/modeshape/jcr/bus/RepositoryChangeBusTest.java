@@ -24,15 +24,20 @@
 
 package org.modeshape.jcr.bus;
 
+import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -44,7 +49,11 @@ import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.change.Change;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.ChangedNodes;
+import org.modeshape.jcr.cache.change.InvalidatedNodes;
+import org.modeshape.jcr.cache.change.RecordingChanges;
 import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
 
 /**
  * Unit test for {@link RepositoryChangeBus}
@@ -179,10 +188,267 @@ public class RepositoryChangeBusTest {
         assertChangesDispatched(listener);
     }
 
+    @Test
+    public void shouldDropChangesWhenListenerQueueIsFull() throws Exception {
+        RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false, 2, OverflowPolicy.BLOCK);
+        try {
+            GatedListener listener = new GatedListener(OverflowPolicy.DROP);
+            bus.register(listener);
+            bus.notify(recordingChanges(0));
+            listener.awaitFirstNotification();
+            // The dispatcher is now blocked in the listener, so fill the queue and then overflow it ...
+            for (int i = 1; i != 5; ++i) {
+                bus.notify(recordingChanges(i));
+            }
+            List<RepositoryChangeBus.ListenerStatistics> stats = bus.sampleListenerStatistics();
+            assertThat(stats.size(), is(1));
+            assertThat(stats.get(0).getQueueSize(), is(2));
+            assertThat(stats.get(0).getDroppedCount(), is(2L));
+            assertThat(stats.get(0).getPolicy(), is(OverflowPolicy.DROP));
+
+            listener.release();
+            listener.awaitReceived(3);
+            assertThat(listener.userIds(), is(Arrays.asList("user0", "user1", "user2")));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldCoalesceChangesForListenersThatAcceptSummaries() throws Exception {
+        RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false, 2, OverflowPolicy.BLOCK);
+        try {
+            GatedListener listener = new GatedSummaryListener(OverflowPolicy.COALESCE);
+            bus.register(listener);
+            bus.notify(recordingChanges(0));
+            listener.awaitFirstNotification();
+            for (int i = 1; i != 6; ++i) {
+                bus.notify(recordingChanges(i));
+            }
+            RepositoryChangeBus.ListenerStatistics stats = bus.sampleListenerStatistics().get(0);
+            assertThat(stats.getPolicy(), is(OverflowPolicy.COALESCE));
+            assertThat(stats.getCoalescedCount(), is(3L));
+            assertThat(stats.getQueueSize(), is(3));
+
+            listener.release();
+            listener.awaitReceived(4);
+            assertThat(listener.userIds().subList(0, 3), is(Arrays.asList("user0", "user1", "user2")));
+            ChangeSet summary = listener.received.get(3);
+            assertThat(summary instanceof CoalescedChanges, is(true));
+            assertThat(summary.changedNodes(), is((Set<NodeKey>)new HashSet<NodeKey>(Arrays.asList(nodeKey(3), nodeKey(4),
+                                                                                                       nodeKey(5)))));
+            assertThat(summary.getWorkspaceName(), is(WORKSPACE1));
+            assertThat(summary.size(), is(0));
+            assertThat(summary.iterator().hasNext(), is(false));
+            assertThat(((ChangedNodes)summary).mayHaveChangedPaths(), is(false));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldBlockRatherThanCoalesceForListenersThatDoNotAcceptSummaries() throws Exception {
+        RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false, 2, OverflowPolicy.BLOCK);
+        try {
+            GatedListener listener = new GatedListener(OverflowPolicy.COALESCE);
+            bus.register(listener);
+            bus.notify(recordingChanges(0));
+            listener.awaitFirstNotification();
+            for (int i = 1; i != 5; ++i) {
+                bus.notifyWithoutBlocking(recordingChanges(i));
+            }
+            RepositoryChangeBus.ListenerStatistics stats = bus.sampleListenerStatistics().get(0);
+            assertThat(stats.getPolicy(), is(OverflowPolicy.BLOCK));
+            assertThat(stats.getCoalescedCount(), is(0L));
+
+            listener.release();
+            listener.awaitReceived(5);
+            assertThat(listener.userIds(), is(Arrays.asList("user0", "user1", "user2", "user3", "user4")));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRecordWhetherCoalescedChangesMayHaveChangedPaths() {
+        CoalescedChanges summary = new CoalescedChanges(recordingChanges(0));
+        assertThat(summary.mayHaveChangedPaths(), is(false));
+        RecordingChanges removal = new RecordingChanges("process", "repo", WORKSPACE1);
+        removal.nodeRemoved(nodeKey(1), nodeKey(0), RootPath.INSTANCE);
+        removal.setChangedNodes(Collections.singleton(nodeKey(1)));
+        removal.freeze("user1", null, new JodaDateTime(System.currentTimeMillis()));
+        assertThat(summary.canMerge(removal), is(true));
+        summary.merge(removal);
+        assertThat(summary.mayHaveChangedPaths(), is(true));
+        assertThat(summary.getCoalescedCount(), is(2));
+        assertThat(summary.changedNodes().size(), is(2));
+    }
+
+    @Test
+    public void shouldQueueAllChangesByDefault() throws Exception {
+        RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false);
+        try {
+            GatedListener listener = new GatedListener(OverflowPolicy.DROP);
+            bus.register(listener);
+            bus.notify(recordingChanges(0));
+            listener.awaitFirstNotification();
+            for (int i = 1; i != 2000; ++i) {
+                bus.notify(recordingChanges(i));
+            }
+            RepositoryChangeBus.ListenerStatistics stats = bus.sampleListenerStatistics().get(0);
+            assertThat(stats.getCapacity(), is(RepositoryChangeBus.UNBOUNDED_QUEUE_CAPACITY));
+            assertThat(stats.getQueueSize(), is(1999));
+            assertThat(stats.getDroppedCount(), is(0L));
+
+            listener.release();
+            listener.awaitReceived(2000);
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i != 2000; ++i) {
+                expected.add("user" + i);
+            }
+            assertThat(listener.userIds(), is(expected));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldNotBlockWhenNotifiedWithoutBlockingAndKeepChangesInOrder() throws Exception {
+        final RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false, 2,
+                                                                OverflowPolicy.BLOCK);
+        try {
+            GatedListener listener = new GatedListener(null);
+            bus.register(listener);
+            bus.notify(recordingChanges(0));
+            listener.awaitFirstNotification();
+            Thread receiver = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i != 6; ++i) {
+                        bus.notifyWithoutBlocking(recordingChanges(i));
+                    }
+                }
+            };
+            receiver.start();
+            receiver.join(5000);
+            assertThat(receiver.isAlive(), is(false));
+            assertThat(bus.sampleListenerStatistics().get(0).getQueueSize(), is(5));
+
+            listener.release();
+            // Wait until the listener is no longer behind, and then the new changes must go after the others ...
+            listener.awaitReceived(6);
+            bus.notify(recordingChanges(6));
+            listener.awaitReceived(7);
+            assertThat(listener.userIds(), is(Arrays.asList("user0", "user1", "user2", "user3", "user4", "user5", "user6")));
+            assertThat(bus.sampleListenerStatistics().get(0).getDroppedCount(), is(0L));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldBlockPublisherWhenListenerQueueIsFull() throws Exception {
+        final RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false, 2,
+                                                                OverflowPolicy.BLOCK);
+        try {
+            GatedListener listener = new GatedListener(null);
+            bus.register(listener);
+            bus.notify(recordingChanges(0));
+            listener.awaitFirstNotification();
+            Thread publisher = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i != 5; ++i) {
+                        bus.notify(recordingChanges(i));
+                    }
+                }
+            };
+            publisher.start();
+            publisher.join(200);
+            assertThat(publisher.isAlive(), is(true));
+
+            listener.release();
+            publisher.join(5000);
+            assertThat(publisher.isAlive(), is(false));
+            listener.awaitReceived(5);
+            assertThat(listener.userIds(), is(Arrays.asList("user0", "user1", "user2", "user3", "user4")));
+            assertThat(bus.sampleListenerStatistics().get(0).getDroppedCount(), is(0L));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldNotifyInlineListenersOnPublishingThread() throws Exception {
+        RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false);
+        try {
+            final List<Thread> threads = new ArrayList<Thread>();
+            bus.register(new ChangeBus.InlineListener() {
+                @Override
+                public void notify( ChangeSet changeSet ) {
+                    threads.add(Thread.currentThread());
+                }
+            });
+            bus.notify(recordingChanges(0));
+            bus.notify(new TestChangeSet(null));
+            assertThat(threads, is(Arrays.asList(Thread.currentThread(), Thread.currentThread())));
+            assertThat(bus.sampleListenerStatistics().isEmpty(), is(true));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldSendChangedNodesOnlyToListenersThatOptIn() throws Exception {
+        RepositoryChangeBus bus = new RepositoryChangeBus(Executors.newCachedThreadPool(), null, false);
+        try {
+            final List<ChangeSet> observed = new CopyOnWriteArrayList<ChangeSet>();
+            final List<ChangeSet> invalidated = new CopyOnWriteArrayList<ChangeSet>();
+            bus.register(new ChangeSetListener() {
+                @Override
+                public void notify( ChangeSet changeSet ) {
+                    observed.add(changeSet);
+                }
+            });
+            bus.register(new ChangedNodes.Listener() {
+                @Override
+                public void notify( ChangeSet changeSet ) {
+                    invalidated.add(changeSet);
+                }
+            });
+            ChangeSet invalidation = new InvalidatedNodes("process", "repo", WORKSPACE1, "user", null,
+                                                          Collections.singleton(nodeKey(1)));
+            bus.notify(invalidation);
+            bus.notify(recordingChanges(2));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((invalidated.size() < 2 || observed.isEmpty()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(invalidated.size(), is(2));
+            assertThat(invalidated.get(0), is(invalidation));
+            assertThat(observed.size(), is(1));
+            assertThat(observed.get(0).getUserId(), is("user2"));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
     protected ChangeBus getChangeBus() {
         return changeBus;
     }
 
+    protected static NodeKey nodeKey( int i ) {
+        return new NodeKey("source1works1-node" + i);
+    }
+
+    protected static RecordingChanges recordingChanges( int i ) {
+        RecordingChanges changes = new RecordingChanges("process", "repo", WORKSPACE1);
+        changes.nodeChanged(nodeKey(i), RootPath.INSTANCE);
+        changes.setChangedNodes(Collections.singleton(nodeKey(i)));
+        changes.freeze("user" + i, null, new JodaDateTime(System.currentTimeMillis()));
+        return changes;
+    }
+
     private void assertChangesDispatched( TestListener listener ) throws InterruptedException {
         listener.await();
 
@@ -286,6 +552,70 @@ public class RepositoryChangeBusTest {
         }
     }
 
+    /**
+     * A listener that blocks while processing the first change set until it is released.
+     */
+    protected static class GatedListener implements OverflowPolicy.Listener {
+        private final OverflowPolicy policy;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        protected final List<ChangeSet> received = new CopyOnWriteArrayList<ChangeSet>();
+
+        protected GatedListener( OverflowPolicy policy ) {
+            this.policy = policy;
+        }
+
+        @Override
+        public OverflowPolicy getOverflowPolicy() {
+            return policy;
+        }
+
+        @Override
+        public void notify( ChangeSet changeSet ) {
+            entered.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.interrupted();
+            }
+            received.add(changeSet);
+        }
+
+        protected void awaitFirstNotification() throws InterruptedException {
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+        }
+
+        protected void release() {
+            gate.countDown();
+        }
+
+        protected void awaitReceived( int count ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            assertThat(received.size(), is(count));
+        }
+
+        protected List<String> userIds() {
+            List<String> result = new ArrayList<String>();
+            for (ChangeSet changeSet : received) {
+                result.add(changeSet.getUserId());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A {@link GatedListener} that accepts {@link ChangedNodes} summaries.
+     */
+    protected static class GatedSummaryListener extends GatedListener implements ChangedNodes.Listener {
+        protected GatedSummaryListener( OverflowPolicy policy ) {
+            super(policy);
+        }
+    }
+
     protected static class TestListener implements ChangeSetListener {
         private final List<TestChangeSet> receivedChangeSet;
         private CountDownLatch latch;
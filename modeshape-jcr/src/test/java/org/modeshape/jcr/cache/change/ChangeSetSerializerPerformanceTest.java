@@ -0,0 +1,153 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.change;
+
+import static org.junit.Assert.assertTrue;
+import org.jgroups.util.Util;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.NameFactory;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+import org.modeshape.jcr.value.PropertyFactory;
+
+/**
+ * Compares the speed and the size of the {@link ChangeSetSerializer compact format} with the Java serialization that was
+ * previously used to send changes to the other members of a cluster. Set {@link #print} to true to see the results.
+ */
+public class ChangeSetSerializerPerformanceTest {
+
+    private boolean print = false;
+    private ExecutionContext context;
+    private ChangeSet small;
+    private ChangeSet large;
+
+    @Before
+    public void beforeEach() {
+        context = new ExecutionContext();
+        small = createChanges(10);
+        large = createChanges(1000);
+    }
+
+    @Test
+    public void shouldSerializeSmallChangeSet() throws Exception {
+        testSerializing("small change set", small, 1000);
+    }
+
+    @Test
+    public void shouldSerializeLargeChangeSet() throws Exception {
+        testSerializing("large change set", large, 20);
+    }
+
+    protected ChangeSet createChanges( int numberOfNodes ) {
+        NameFactory names = context.getValueFactories().getNameFactory();
+        PathFactory paths = context.getValueFactories().getPathFactory();
+        PropertyFactory properties = context.getPropertyFactory();
+        NodeKey parentKey = new NodeKey("source1works1-parent");
+        Path parentPath = paths.create("/content/documents/folder");
+        Name primaryType = names.create("jcr:primaryType");
+        Name title = names.create("mode:title");
+        Name size = names.create("mode:size");
+        RecordingChanges changes = new RecordingChanges("process", "repository", "default");
+        for (int i = 0; i != numberOfNodes; ++i) {
+            NodeKey key = parentKey.withId("child" + i);
+            Path path = paths.create(parentPath, names.create("mode:document" + i));
+            changes.nodeCreated(key, parentKey, path, null);
+            changes.propertyAdded(key, path, properties.create(primaryType, names.create("nt:unstructured")));
+            changes.propertyAdded(key, path, properties.create(title, "The title of document " + i));
+            changes.propertyAdded(key, path, properties.create(size, (long)i * 1024));
+        }
+        changes.freeze("jsmith", null, context.getValueFactories().getDateFactory().create());
+        return changes;
+    }
+
+    protected void testSerializing( String message,
+                                    final ChangeSet changes,
+                                    int loops ) throws Exception {
+        final ChangeSetSerializer serializer = new ChangeSetSerializer();
+        final byte[] compact = serializer.serialize(changes);
+        final byte[] java = Util.objectToByteBuffer(changes);
+        assertTrue(compact.length < java.length);
+
+        long javaWrite = runTest(loops, new Operation() {
+            @Override
+            public void run() throws Exception {
+                Util.objectToByteBuffer(changes);
+            }
+        });
+        long compactWrite = runTest(loops, new Operation() {
+            @Override
+            public void run() throws Exception {
+                serializer.serialize(changes);
+            }
+        });
+        long javaRead = runTest(loops, new Operation() {
+            @Override
+            public void run() throws Exception {
+                Util.objectFromByteBuffer(java);
+            }
+        });
+        long compactRead = runTest(loops, new Operation() {
+            @Override
+            public void run() throws Exception {
+                serializer.deserialize(compact);
+            }
+        });
+        if (print) {
+            System.out.println(message + " with " + changes.size() + " changes");
+            System.out.println("  Java serialization:   " + java.length + " bytes; write " + javaWrite + " nanos; read "
+                               + javaRead + " nanos");
+            System.out.println("  Compact serialization: " + compact.length + " bytes; write " + compactWrite + " nanos; read "
+                               + compactRead + " nanos");
+        }
+    }
+
+    /**
+     * Run the operation several times to warm up, and then the supplied number of times.
+     * 
+     * @param loops the number of times the operation is to be measured
+     * @param operation the operation
+     * @return the average time of the operation in nanoseconds
+     * @throws Exception if the operation fails
+     */
+    private static long runTest( int loops,
+                                 Operation operation ) throws Exception {
+        assert loops > 0;
+        for (int i = 0; i != 3; ++i) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i != loops; ++i) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / loops;
+    }
+
+    protected static interface Operation {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.change;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.NodeKeyReference;
+
+public class ChangeSetSerializerTest {
+
+    private ExecutionContext context;
+    private ChangeSetSerializer serializer;
+    private NodeKey parentKey;
+
+    @Before
+    public void beforeEach() {
+        context = new ExecutionContext();
+        serializer = new ChangeSetSerializer();
+        parentKey = new NodeKey("source1works1-parent");
+    }
+
+    @Test
+    public void shouldRoundTripEmptyChangeSet() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo");
+        changes.freeze("jsmith", null, context.getValueFactories().getDateFactory().create());
+        ChangeSet result = roundTrip(changes);
+        assertThat(result.getProcessKey(), is("process"));
+        assertThat(result.getRepositoryKey(), is("repo"));
+        assertThat(result.getWorkspaceName(), is(nullValue()));
+        assertThat(result.getUserId(), is("jsmith"));
+        assertThat(result.getTimestamp(), is(changes.getTimestamp()));
+        assertThat(result.getUserData().isEmpty(), is(true));
+        assertThat(result.size(), is(0));
+        assertThat(result.changedNodes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRoundTripAllTypesOfChanges() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "workspace");
+        NodeKey key = parentKey.withId("child");
+        NodeKey otherKey = parentKey.withId("other");
+        Map<Name, Property> properties = new HashMap<Name, Property>();
+        properties.put(name("p1"), property("p1", "value"));
+        properties.put(name("p2"), property("p2", 3L, 4L));
+        properties.put(name("p3"), context.getPropertyFactory().create(name("p3")));
+        changes.nodeCreated(key, parentKey, path("/a/b/child"), properties);
+        changes.nodeRemoved(otherKey, parentKey, path("/a/b/other"));
+        changes.nodeChanged(key, path("/a/b/child"));
+        changes.nodeMoved(key, otherKey, parentKey, path("/a/b/other/child"), path("/a/b/child"));
+        changes.nodeRenamed(key, path("/a/b/other/child2"), path("/a/b/other/child[2]").getLastSegment());
+        changes.nodeReordered(key, otherKey, path("/a/b/other/child2"), path("/a/b/other/child2[2]"), null);
+        changes.nodeSequenced(key, path("/a/b/child"), otherKey, path("/a/output"), "/a/output", "jsmith", "/a/b", "seq");
+        changes.nodeSequencingFailure(key, path("/a/b/child"), "/a/output", "jsmith", "/a/b", "seq",
+                                      new IllegalStateException("failed"));
+        changes.propertyAdded(key, path("/a/b/child"), property("p4", 1.5d, true, new BigDecimal("1.25")));
+        changes.propertyRemoved(key, path("/a/b/child"), property("p4", name("x")));
+        changes.propertyChanged(key, path("/a/b/child"), property("p5", path("/x/y"), path("../z")),
+                                property("p5", new NodeKeyReference(otherKey, true, false)));
+        changes.binaryValueNowUsed(new BinaryKey("abcdef"));
+        changes.binaryValueNoLongerUsed(new BinaryKey("012345"));
+        changes.workspaceAdded("ws2");
+        changes.workspaceRemoved("ws3");
+        Set<NodeKey> changedNodes = new HashSet<NodeKey>();
+        changedNodes.add(key);
+        changedNodes.add(otherKey);
+        changes.setChangedNodes(changedNodes);
+        changes.freeze("jsmith", Collections.singletonMap("note", "hello"), context.getValueFactories()
+                                                                                   .getDateFactory()
+                                                                                   .create());
+
+        ChangeSet result = roundTrip(changes);
+        assertThat(result.getWorkspaceName(), is("workspace"));
+        assertThat(result.getUserData(), is(changes.getUserData()));
+        assertThat(result.changedNodes(), is(changedNodes));
+        assertThat(result.size(), is(changes.size()));
+
+        Iterator<Change> expected = changes.iterator();
+        Iterator<Change> actual = result.iterator();
+        while (expected.hasNext()) {
+            assertSame(expected.next(), actual.next());
+        }
+    }
+
+    @Test
+    public void shouldCompressLargeChangeSets() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "workspace");
+        for (int i = 0; i != 1000; ++i) {
+            NodeKey key = parentKey.withId("child" + i);
+            changes.propertyAdded(key, path("/a/b/child" + i), property("p1", "The quick brown fox jumped over the moon"));
+        }
+        changes.freeze("jsmith", null, context.getValueFactories().getDateFactory().create());
+        byte[] uncompressed = new ChangeSetSerializer(0).serialize(changes);
+        byte[] compressed = serializer.serialize(changes);
+        assertTrue(compressed.length < uncompressed.length);
+        assertThat(roundTrip(changes).toString(), is(changes.toString()));
+    }
+
+    @Test
+    public void shouldBeSmallerThanJavaSerialization() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "workspace");
+        for (int i = 0; i != 100; ++i) {
+            NodeKey key = parentKey.withId("child" + i);
+            changes.nodeCreated(key, parentKey, path("/a/b/child" + i), null);
+            changes.propertyAdded(key, path("/a/b/child" + i), property("p1", (long)i));
+        }
+        changes.freeze("jsmith", null, context.getValueFactories().getDateFactory().create());
+        byte[] compact = new ChangeSetSerializer(0).serialize(changes);
+        byte[] java = org.jgroups.util.Util.objectToByteBuffer(changes);
+        assertTrue(compact.length * 4 < java.length);
+    }
+
+    @Test
+    public void shouldRecognizeSerializedChangeSets() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "workspace");
+        changes.freeze("jsmith", null, context.getValueFactories().getDateFactory().create());
+        assertThat(ChangeSetSerializer.isSerializedChangeSet(serializer.serialize(changes)), is(true));
+        assertThat(ChangeSetSerializer.isSerializedChangeSet(org.jgroups.util.Util.objectToByteBuffer(changes)), is(false));
+        assertThat(ChangeSetSerializer.isSerializedChangeSet(null), is(false));
+    }
+
+    @Test( expected = IOException.class )
+    public void shouldNotDeserializeUnsupportedVersion() throws Exception {
+        RecordingChanges changes = new RecordingChanges("process", "repo", "workspace");
+        changes.freeze("jsmith", null, context.getValueFactories().getDateFactory().create());
+        byte[] data = serializer.serialize(changes);
+        data[ChangeSetSerializer.MAGIC.length] = ChangeSetSerializer.VERSION + 1;
+        serializer.deserialize(data);
+    }
+
+    protected ChangeSet roundTrip( ChangeSet changes ) throws Exception {
+        return serializer.deserialize(serializer.serialize(changes));
+    }
+
+    protected void assertSame( Change expected,
+                               Change actual ) {
+        assertThat(actual.getClass().equals(expected.getClass()), is(true));
+        if (!(expected instanceof NodeReordered)) {
+            // All other changes include all of their information in their string form ...
+            assertThat(actual.toString(), is(expected.toString()));
+        }
+        if (expected instanceof AbstractNodeChange) {
+            AbstractNodeChange expectedChange = (AbstractNodeChange)expected;
+            AbstractNodeChange actualChange = (AbstractNodeChange)actual;
+            assertThat(actualChange.getKey(), is(expectedChange.getKey()));
+            assertThat(actualChange.getPath(), is(expectedChange.getPath()));
+        }
+        if (expected instanceof NodeAdded) {
+            assertThat(((NodeAdded)actual).getParentKey(), is(((NodeAdded)expected).getParentKey()));
+            assertThat(((NodeAdded)actual).getProperties(), is(((NodeAdded)expected).getProperties()));
+        } else if (expected instanceof NodeMoved) {
+            assertThat(((NodeMoved)actual).getOldParent(), is(((NodeMoved)expected).getOldParent()));
+            assertThat(((NodeMoved)actual).getNewParent(), is(((NodeMoved)expected).getNewParent()));
+            assertThat(((NodeMoved)actual).getOldPath(), is(((NodeMoved)expected).getOldPath()));
+        } else if (expected instanceof NodeReordered) {
+            assertThat(((NodeReordered)actual).getParent(), is(((NodeReordered)expected).getParent()));
+            assertThat(((NodeReordered)actual).getOldPath(), is(((NodeReordered)expected).getOldPath()));
+            assertThat(((NodeReordered)actual).getReorderedBeforePath(),
+                       is(((NodeReordered)expected).getReorderedBeforePath()));
+        } else if (expected instanceof NodeSequencingFailure) {
+            assertThat(((NodeSequencingFailure)actual).getCause().getMessage(),
+                       is(((NodeSequencingFailure)expected).getCause().getMessage()));
+        } else if (expected instanceof PropertyAdded) {
+            assertThat(((PropertyAdded)actual).getProperty(), is(((PropertyAdded)expected).getProperty()));
+        } else if (expected instanceof PropertyRemoved) {
+            assertThat(((PropertyRemoved)actual).getProperty(), is(((PropertyRemoved)expected).getProperty()));
+        } else if (expected instanceof PropertyChanged) {
+            assertThat(((PropertyChanged)actual).getNewProperty(), is(((PropertyChanged)expected).getNewProperty()));
+            assertThat(((PropertyChanged)actual).getOldProperty(), is(((PropertyChanged)expected).getOldProperty()));
+        } else if (expected instanceof BinaryValueUsageChange) {
+            assertThat(actual, is(expected));
+        }
+    }
+
+    protected Name name( String name ) {
+        return context.getValueFactories().getNameFactory().create(name);
+    }
+
+    protected Path path( String path ) {
+        return context.getValueFactories().getPathFactory().create(path);
+    }
+
+    protected Property property( String name,
+                                 Object... values ) {
+        return context.getPropertyFactory().create(name(name), values);
+    }
+}
@@ -29,6 +29,7 @@ package org.modeshape.jcr.cache.change;
 public class PrintingChangeSetListener implements ChangeSetListener {
 
     public boolean print = false;
+    public volatile ChangeSet lastChangeSet;
 
     /**
      * {@inheritDoc}
@@ -37,6 +38,7 @@ public class PrintingChangeSetListener implements ChangeSetListener {
      */
     @Override
     public void notify( ChangeSet changeSet ) {
+        lastChangeSet = changeSet;
         if (print) System.out.println(changeSet);
     }
 
@@ -0,0 +1,125 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.Collections;
+import org.infinispan.schematic.document.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.MutableCachedNode;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.SessionCache;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.InvalidatedNodes;
+
+public class DocumentOptimizerTest extends AbstractSessionCacheTest {
+
+    private DocumentOptimizer optimizer;
+
+    @Override
+    protected SessionCache createSessionCache( ExecutionContext context,
+                                               WorkspaceCache cache ) {
+        return new WritableSessionCache(context, workspaceCache, createSessionContext());
+    }
+
+    @Override
+    @Before
+    public void beforeEach() {
+        super.beforeEach();
+        optimizer = new DocumentOptimizer(workspaceCache, createSessionContext().getTransactions());
+    }
+
+    @Test
+    public void shouldSplitLargeBlocksOfChildReferencesUntilEachIsWithinTolerance() {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        NodeKey key = nodeB.getKey();
+        for (int i = 0; i != 40; ++i) {
+            nodeB.createChild(session(), key.withId("child" + i), name("newChild" + i), property("p1a", 344));
+        }
+        session1.save();
+
+        // Each call makes one pass, so repeat until nothing more is changed ...
+        int passes = 0;
+        while (optimizer.optimizeChildrenBlocks(key, 5, 2)) {
+            ++passes;
+            assertTrue(passes < 10);
+        }
+        assertTrue(passes > 0);
+
+        // Re-balancing changes no content, so the listeners should only be told to purge the cached node ...
+        ChangeSet changes = listener.lastChangeSet;
+        assertThat(changes instanceof InvalidatedNodes, is(true));
+        assertThat(changes.size(), is(0));
+        assertThat(changes.changedNodes(), is(Collections.singleton(key)));
+
+        // Every block should now be within the tolerance of the target ...
+        Document doc = document(key);
+        int blocks = 0;
+        int total = 0;
+        while (doc != null) {
+            int count = doc.getArray(DocumentTranslator.CHILDREN).size();
+            assertTrue(count >= 3 && count <= 7);
+            total += count;
+            ++blocks;
+            String nextBlock = doc.getDocument(DocumentTranslator.CHILDREN_INFO).getString(DocumentTranslator.NEXT_BLOCK);
+            doc = nextBlock != null ? workspaceCache.database().get(nextBlock).getContentAsDocument() : null;
+        }
+        assertThat(total, is(42));
+        assertTrue(blocks > 5);
+
+        // The workspace cache should no longer have the old node ...
+        CachedNode node = workspaceCache.getNode(key);
+        assertThat(node.getChildReferences(workspaceCache).size(), is(42L));
+        for (int i = 0; i != 40; ++i) {
+            assertThat(node.getChildReferences(workspaceCache).hasChild(key.withId("child" + i)), is(true));
+        }
+    }
+
+    @Test
+    public void shouldNotChangeNodeWithFewChildren() {
+        NodeKey key = check(session1).node("/childA").getKey();
+        assertThat(optimizer.optimizeChildrenBlocks(key, 5, 2), is(false));
+    }
+
+    @Test
+    public void shouldNotChangeNonExistantNode() {
+        NodeKey key = check(session1).node("/childB").getKey().withId("nonExistant");
+        assertThat(optimizer.optimizeChildrenBlocks(key, 5, 2), is(false));
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRequireTargetLargerThanTolerance() {
+        NodeKey key = check(session1).node("/childB").getKey();
+        optimizer.optimizeChildrenBlocks(key, 2, 2);
+    }
+
+    protected Document document( NodeKey key ) {
+        return workspaceCache.database().get(key.toString()).getContentAsDocument();
+    }
+}
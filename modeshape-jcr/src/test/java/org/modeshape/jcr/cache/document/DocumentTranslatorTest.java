@@ -27,18 +27,27 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import org.infinispan.schematic.SchematicEntry;
 import org.infinispan.schematic.document.Document;
 import org.infinispan.schematic.document.EditableArray;
 import org.infinispan.schematic.document.EditableDocument;
 import org.junit.Test;
 import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.JcrLexicon;
+import org.modeshape.jcr.JcrMixLexicon;
+import org.modeshape.jcr.JcrNtLexicon;
+import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.ChildReferences;
 import org.modeshape.jcr.cache.MutableCachedNode;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.SessionCache;
+import org.modeshape.jcr.cache.document.DocumentTranslator.ChildReferencesInfo;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.Path.Segment;
 
@@ -163,11 +172,183 @@ public class DocumentTranslatorTest extends AbstractSessionCacheTest {
         print(document(key), true);
     }
 
+    @Test
+    public void shouldIndexChildReferenceBlocksAndUseIndexForLookups() throws Exception {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        NodeKey key = nodeB.getKey();
+        for (int i = 0; i != 30; ++i) {
+            NodeKey newKey = key.withId("child" + i);
+            nodeB.createChild(session(), newKey, name("newChild" + (i % 10)), property("p1a", 344));
+        }
+        session1.save();
+
+        // Split into many blocks, which should create the index ...
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will merge into a single block ...
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will split into blocks ...
+        Document doc = document(key);
+        Document info = doc.getDocument(DocumentTranslator.CHILDREN_INFO);
+        String indexKey = info.getString(DocumentTranslator.BLOCK_INDEX);
+        assertThat(indexKey != null, is(true));
+        assertThat(workspaceCache.database().get(indexKey) != null, is(true));
+
+        ImmutableChildReferences.Segmented refs = (ImmutableChildReferences.Segmented)workspaceCache.translator()
+                                                                                                   .getChildReferences(workspaceCache,
+                                                                                                                       doc);
+        assertThat(refs.index() != null, is(true));
+        assertThat(refs.index().size() > 0, is(true));
+        for (int i = 0; i != 30; ++i) {
+            NodeKey childKey = key.withId("child" + i);
+            assertThat(refs.hasChild(childKey), is(true));
+            assertThat(refs.getChild(childKey).getKey(), is(childKey));
+        }
+        assertThat(refs.hasChild(key.withId("nonExistant")), is(false));
+        assertThat(refs.getChild(key.withId("nonExistant")) == null, is(true));
+        for (int i = 0; i != 10; ++i) {
+            assertThat(refs.getChildCount(name("newChild" + i)), is(3));
+            assertThat(refs.getChild(name("newChild" + i)) != null, is(true));
+        }
+        assertThat(refs.getChildCount(name("nonExistant")), is(0));
+        assertThat(refs.getChild(name("nonExistant")) == null, is(true));
+
+        // Iterating over all of the blocks should see each child once ...
+        int count = 0;
+        Iterator<ChildReference> iter = refs.iterator();
+        while (iter.hasNext()) {
+            iter.next();
+            ++count;
+        }
+        assertThat(count, is(32));
+        assertThat(refs.size(), is(32L));
+        assertThat(refs.getChildCount(name("childC")) + refs.getChildCount(name("childD")), is(2));
+
+        // Removing a child should update the existing index in place ...
+        nodeB = check(session1).mutableNode("/childB");
+        nodeB.removeChild(session1, key.withId("child12"));
+        session1.destroy(key.withId("child12"));
+        session1.save();
+        doc = document(key);
+        String newIndexKey = doc.getDocument(DocumentTranslator.CHILDREN_INFO).getString(DocumentTranslator.BLOCK_INDEX);
+        assertThat(newIndexKey, is(indexKey));
+        refs = (ImmutableChildReferences.Segmented)workspaceCache.translator().getChildReferences(workspaceCache, doc);
+        assertThat(refs.index() != null, is(true));
+        assertThat(refs.hasChild(key.withId("child12")), is(false));
+        assertThat(refs.hasChild(key.withId("child13")), is(true));
+        assertThat(refs.getChildCount(name("newChild2")), is(2));
+    }
+
+    @Test
+    public void shouldAddRenamedChildrenToChildReferenceBlockIndex() throws Exception {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        NodeKey key = nodeB.getKey();
+        for (int i = 0; i != 30; ++i) {
+            nodeB.createChild(session(), key.withId("child" + i), name("newChild" + (i % 10)), property("p1a", 344));
+        }
+        session1.save();
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will merge into a single block ...
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will split into blocks ...
+        String indexKey = workspaceCache.translator().getChildReferencesInfo(document(key)).indexKey;
+        assertThat(indexKey != null, is(true));
+
+        // Rename a child in one of the middle blocks ...
+        nodeB = check(session1).mutableNode("/childB");
+        nodeB.renameChild(session1, key.withId("child12"), name("renamedChild"));
+        session1.save();
+
+        Document doc = document(key);
+        assertThat(workspaceCache.translator().getChildReferencesInfo(doc).indexKey, is(indexKey));
+        ImmutableChildReferences.Segmented refs = (ImmutableChildReferences.Segmented)workspaceCache.translator()
+                                                                                                   .getChildReferences(workspaceCache,
+                                                                                                                       doc);
+        assertThat(refs.index() != null, is(true));
+        assertThat(refs.getChildCount(name("renamedChild")), is(1));
+        assertThat(refs.getChild(name("renamedChild")).getKey(), is(key.withId("child12")));
+        assertThat(refs.getChildCount(name("newChild2")), is(2));
+    }
+
+    @Test
+    public void shouldRebuildChildReferenceBlockIndexWhenTombstonesOutnumberChildren() throws Exception {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        NodeKey key = nodeB.getKey();
+        for (int i = 0; i != 30; ++i) {
+            nodeB.createChild(session(), key.withId("child" + i), name("newChild" + (i % 10)), property("p1a", 344));
+        }
+        session1.save();
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will merge into a single block ...
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will split into blocks ...
+        String indexKey = workspaceCache.translator().getChildReferencesInfo(document(key)).indexKey;
+        assertThat(indexKey != null, is(true));
+
+        // Remove most of the children, one save at a time ...
+        for (int i = 0; i != 28; ++i) {
+            nodeB = check(session1).mutableNode("/childB");
+            nodeB.removeChild(session1, key.withId("child" + i));
+            session1.destroy(key.withId("child" + i));
+            session1.save();
+        }
+        Document doc = document(key);
+        String newIndexKey = workspaceCache.translator().getChildReferencesInfo(doc).indexKey;
+        assertThat(indexKey.equals(newIndexKey), is(false));
+        assertThat(workspaceCache.database().get(indexKey) == null, is(true));
+        ChildReferences refs = workspaceCache.translator().getChildReferences(workspaceCache, doc);
+        assertThat(refs.hasChild(key.withId("child28")), is(true));
+        assertThat(refs.hasChild(key.withId("child3")), is(false));
+    }
+
+    @Test
+    public void shouldIgnoreChildReferenceBlockIndexThatIsNotConsistentWithBlocks() throws Exception {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        NodeKey key = nodeB.getKey();
+        for (int i = 0; i != 30; ++i) {
+            nodeB.createChild(session(), key.withId("child" + i), name("newChild"), property("p1a", 344));
+        }
+        session1.save();
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will merge into a single block ...
+        workspaceCache.translator().optimizeChildrenBlocks(key, null, 5, 2); // will split into blocks ...
+
+        Document doc = document(key);
+        ChildReferencesInfo info = workspaceCache.translator().getChildReferencesInfo(doc);
+        ChildReferencesInfo stale = new ChildReferencesInfo(info.totalSize, info.blockSize, info.nextKey, "otherBlock",
+                                                            info.indexKey);
+        assertThat(ChildReferencesIndex.read(workspaceCache.documentFor(info.indexKey), info) != null, is(true));
+        assertThat(ChildReferencesIndex.read(workspaceCache.documentFor(info.indexKey), stale) == null, is(true));
+    }
+
     protected Document document( NodeKey key ) {
         SchematicEntry entry = workspaceCache.database().get(key.toString());
         return entry.getContentAsDocument();
     }
 
+    @Test
+    public void shouldReadPrimaryTypeAndMixinTypesDirectlyFromDocument() throws Exception {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        NodeKey key1 = session1.createNodeKey();
+        NodeKey key2 = session1.createNodeKey();
+        NodeKey key3 = session1.createNodeKey();
+        nodeB.createChild(session(), key1, name("noMixins"), property(JcrLexicon.PRIMARY_TYPE, JcrNtLexicon.UNSTRUCTURED));
+        nodeB.createChild(session(), key2, name("oneMixin"), property(JcrLexicon.PRIMARY_TYPE, JcrNtLexicon.UNSTRUCTURED),
+                          property(JcrLexicon.MIXIN_TYPES, JcrMixLexicon.REFERENCEABLE));
+        nodeB.createChild(session(), key3, name("twoMixins"), property(JcrLexicon.PRIMARY_TYPE, JcrNtLexicon.FOLDER),
+                          property(JcrLexicon.MIXIN_TYPES, JcrMixLexicon.REFERENCEABLE, JcrMixLexicon.LOCKABLE));
+        session1.save();
+
+        DocumentTranslator translator = workspaceCache.translator();
+        Document doc1 = workspaceCache.database().get(key1.toString()).getContentAsDocument();
+        Document doc2 = workspaceCache.database().get(key2.toString()).getContentAsDocument();
+        Document doc3 = workspaceCache.database().get(key3.toString()).getContentAsDocument();
+        assertThat(translator.getPrimaryType(doc1), is(JcrNtLexicon.UNSTRUCTURED));
+        assertThat(translator.getMixinTypes(doc1).isEmpty(), is(true));
+        assertThat(translator.getPrimaryType(doc2), is(JcrNtLexicon.UNSTRUCTURED));
+        assertThat(translator.getMixinTypes(doc2), is(Collections.singleton(JcrMixLexicon.REFERENCEABLE)));
+        assertThat(translator.getPrimaryType(doc3), is(JcrNtLexicon.FOLDER));
+        assertThat(translator.getMixinTypes(doc3),
+                   is((Set<Name>)new HashSet<Name>(Arrays.asList(JcrMixLexicon.REFERENCEABLE, JcrMixLexicon.LOCKABLE))));
+
+        // The cached nodes should see the same values ...
+        CachedNode node3 = workspaceCache.getNode(key3);
+        assertThat(node3.getPrimaryType(workspaceCache), is(JcrNtLexicon.FOLDER));
+        assertThat(node3.getMixinTypes(workspaceCache), is(translator.getMixinTypes(doc3)));
+    }
+
     protected void assertChildren( Document doc,
                                    Segment... children ) {
         List<?> childReferences = doc.getArray(DocumentTranslator.CHILDREN);
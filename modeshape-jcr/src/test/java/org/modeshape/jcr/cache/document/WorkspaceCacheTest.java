@@ -23,7 +23,12 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import org.infinispan.schematic.document.Document;
+import org.junit.Test;
 import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
 
 public class WorkspaceCacheTest extends AbstractNodeCacheTest {
 
@@ -34,4 +39,23 @@ public class WorkspaceCacheTest extends AbstractNodeCacheTest {
         return workspaceCache;
     }
 
+    @Test
+    public void shouldWeighNodeWithoutLoadingItsDocument() {
+        WorkspaceCache.NodeWeigher weigher = new WorkspaceCache.NodeWeigher();
+        NodeKey key = new NodeKey("source1works1-childA");
+        LazyCachedNode node = new LazyCachedNode(key);
+        long weight = weigher.weigh(key, node);
+        assertThat(weight > 0L, is(true));
+        assertThat(node.documentIfLoaded() == null, is(true));
+    }
+
+    @Test
+    public void shouldWeighLoadedDocumentByItsTopLevelFields() {
+        WorkspaceCache.NodeWeigher weigher = new WorkspaceCache.NodeWeigher();
+        NodeKey key = new NodeKey("source1works1-childA");
+        Document document = database().get(ROOT_KEY_WS1.toString()).getContentAsDocument();
+        long emptyWeight = weigher.weigh(key, new LazyCachedNode(key));
+        assertThat(weigher.weigh(key, new LazyCachedNode(key, document)) > emptyWeight, is(true));
+    }
+
 }
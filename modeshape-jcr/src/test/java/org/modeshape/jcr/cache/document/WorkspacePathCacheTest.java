@@ -0,0 +1,174 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+public class WorkspacePathCacheTest {
+
+    private PathFactory pathFactory;
+    private WorkspacePathCache cache;
+    private RecordingChanges changes;
+
+    @Before
+    public void beforeEach() {
+        pathFactory = new ExecutionContext().getValueFactories().getPathFactory();
+        cache = new WorkspacePathCache(pathFactory, 100L);
+        changes = new RecordingChanges("process", "repo", "workspace");
+        for (String path : new String[] {"/a", "/a/b", "/a/b/c", "/a/x", "/a/x[2]", "/a/x[2]/y", "/a/x[3]", "/a/z", "/d"}) {
+            cache.put(key(path), path(path), cache.generation());
+        }
+    }
+
+    @Test
+    public void shouldNotKeepPathComputedBeforeInvalidation() {
+        long generation = cache.generation();
+        changes.nodeRemoved(key("/d"), key("/"), path("/d"));
+        cache.invalidate(changes);
+        cache.put(key("/e"), path("/e"), generation);
+        assertThat(cache.get(key("/e")), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotInvalidatePathsForChangesThatDoNotAffectPaths() {
+        changes.nodeChanged(key("/a/b"), path("/a/b"));
+        changes.nodeCreated(key("/a/b/new"), key("/a/b"), path("/a/b/new"), null);
+        long generation = cache.generation();
+        cache.invalidate(changes);
+        assertThat(cache.generation(), is(generation));
+        assertThat(cache.size(), is(9L));
+    }
+
+    @Test
+    public void shouldInvalidateRemovedNodeAndDescendants() {
+        changes.nodeRemoved(key("/a/b"), key("/a"), path("/a/b"));
+        cache.invalidate(changes);
+        assertRemoved("/a/b", "/a/b/c");
+        assertKept("/a", "/a/x", "/a/x[2]", "/a/x[2]/y", "/a/x[3]", "/a/z", "/d");
+    }
+
+    @Test
+    public void shouldInvalidateLaterSameNameSiblingsOfRemovedNode() {
+        changes.nodeRemoved(key("/a/x[2]"), key("/a"), path("/a/x[2]"));
+        cache.invalidate(changes);
+        assertRemoved("/a/x[2]", "/a/x[2]/y", "/a/x[3]");
+        assertKept("/a", "/a/b", "/a/b/c", "/a/x", "/a/z", "/d");
+    }
+
+    @Test
+    public void shouldInvalidateMovedNodeUsingOldPath() {
+        changes.nodeMoved(key("/a/b"), key("/d"), key("/a"), path("/d/b"), path("/a/b"));
+        cache.invalidate(changes);
+        assertRemoved("/a/b", "/a/b/c");
+        assertKept("/a", "/a/x", "/a/x[2]", "/a/z", "/d");
+    }
+
+    @Test
+    public void shouldInvalidateRenamedNodeUsingOldSegment() {
+        changes.nodeRenamed(key("/a/x"), path("/a/w"), path("/a/x").getLastSegment());
+        cache.invalidate(changes);
+        assertRemoved("/a/x", "/a/x[2]", "/a/x[2]/y", "/a/x[3]");
+        assertKept("/a", "/a/b", "/a/z", "/d");
+    }
+
+    @Test
+    public void shouldInvalidateSameNameSiblingsAfterNewNameOfRenamedNode() {
+        // Renaming 'b' to 'x' makes it 'x[1]' and shifts the indexes of the existing 'x' siblings ...
+        changes.nodeRenamed(key("/a/b"), path("/a/x"), path("/a/b").getLastSegment());
+        cache.invalidate(changes);
+        assertRemoved("/a/b", "/a/b/c", "/a/x", "/a/x[2]", "/a/x[2]/y", "/a/x[3]");
+        assertKept("/a", "/a/z", "/d");
+    }
+
+    @Test
+    public void shouldInvalidateSameNameSiblingsAfterNewPathOfMovedNode() {
+        changes.nodeMoved(key("/d"), key("/a"), key("/"), path("/a/x[2]"), path("/d"));
+        cache.invalidate(changes);
+        assertRemoved("/d", "/a/x[2]", "/a/x[2]/y", "/a/x[3]");
+        assertKept("/a", "/a/b", "/a/b/c", "/a/x", "/a/z");
+    }
+
+    @Test
+    public void shouldInvalidateSameNameSiblingsBetweenOldAndNewPositionsOfReorderedNode() {
+        changes.nodeReordered(key("/a/x[3]"), key("/a"), path("/a/x[2]"), path("/a/x[3]"), path("/a/x[2]"));
+        cache.invalidate(changes);
+        assertRemoved("/a/x[2]", "/a/x[2]/y", "/a/x[3]");
+        assertKept("/a", "/a/b", "/a/x", "/a/z", "/d");
+    }
+
+    @Test
+    public void shouldRemoveInvalidatedPathsOnlyWhenTheyAreRead() {
+        changes.nodeRemoved(key("/a/b"), key("/a"), path("/a/b"));
+        cache.invalidate(changes);
+        assertThat(cache.size(), is(9L));
+        assertRemoved("/a/b");
+        assertThat(cache.size(), is(8L));
+    }
+
+    @Test
+    public void shouldDiscardPathsNotCheckedSinceTheOldestKnownInvalidation() {
+        for (int i = 0; i != WorkspacePathCache.MAX_INVALIDATIONS; ++i) {
+            RecordingChanges removal = new RecordingChanges("process", "repo", "workspace");
+            removal.nodeRemoved(key("/q" + i), key("/"), path("/q" + i));
+            cache.invalidate(removal);
+            // Keep checking one of the paths ...
+            assertKept("/a");
+        }
+        RecordingChanges removal = new RecordingChanges("process", "repo", "workspace");
+        removal.nodeRemoved(key("/q"), key("/"), path("/q"));
+        cache.invalidate(removal);
+        assertKept("/a");
+        assertRemoved("/d");
+    }
+
+    protected void assertRemoved( String... paths ) {
+        for (String path : paths) {
+            assertThat(cache.get(key(path)), is(nullValue()));
+        }
+    }
+
+    protected void assertKept( String... paths ) {
+        for (String path : paths) {
+            assertThat(cache.get(key(path)), is(notNullValue()));
+        }
+    }
+
+    protected Path path( String path ) {
+        return pathFactory.create(path);
+    }
+
+    protected NodeKey key( String path ) {
+        return new NodeKey("source1works1-" + path.replace('/', '_').replace('[', '_').replace(']', '_'));
+    }
+}
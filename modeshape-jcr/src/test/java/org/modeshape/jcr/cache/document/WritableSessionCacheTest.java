@@ -26,8 +26,10 @@ package org.modeshape.jcr.cache.document;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -37,6 +39,8 @@ import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.MutableCachedNode;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.SessionCache;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.NodeAdded;
 
 /**
  * Tests that operate against a {@link WritableSessionCache}. Each test method starts with a clean slate of content, which is
@@ -157,6 +161,39 @@ public class WritableSessionCacheTest extends AbstractSessionCacheTest {
         print("Time (getchild#10): " + total.getTotalDuration());
     }
 
+    @Test
+    public void shouldSaveManyNewNodesWithEventsInTheOrderTheNodesWereCreated() {
+        MutableCachedNode nodeB = check(session1).mutableNode("/childB");
+        List<NodeKey> newKeys = new ArrayList<NodeKey>();
+        int count = WritableSessionCache.CONCURRENT_TRANSLATION_THRESHOLD + 500;
+        for (int i = 0; i != count; ++i) {
+            NodeKey newKey = session1.createNodeKey();
+            MutableCachedNode child = nodeB.createChild(session(), newKey, name("child" + i), property("p1", "value" + i));
+            if (i % 100 == 0) {
+                // Give some of the new nodes their own new children ...
+                child.createChild(session(), session1.createNodeKey(), name("grandchild"), property("p2", (long)i));
+            }
+            newKeys.add(newKey);
+        }
+        session1.save();
+
+        // The events for the new nodes should be in the same order as the nodes were created ...
+        List<NodeKey> addedKeys = new ArrayList<NodeKey>();
+        for (Change change : listener.lastChangeSet) {
+            if (change instanceof NodeAdded && ((NodeAdded)change).getParentKey().equals(nodeB.getKey())) {
+                addedKeys.add(((NodeAdded)change).getKey());
+            }
+        }
+        assertThat(addedKeys, is(newKeys));
+
+        // And another session should see all of the content ...
+        for (int i = 0; i < count; i += 7) {
+            check(session2).property("/childB/child" + i, property("p1", "value" + i));
+        }
+        check(session2).property("/childB/child1000/grandchild", property("p2", 1000L));
+        assertThat(session2.getNode(nodeB.getKey()).getChildReferences(session2).size(), is(count + 2L));
+    }
+
     @Test
     public void shouldAllowSessionToCreateChildrenWithSameNameWithMultipleSaves() {
         // Make sure the property does not exist ...
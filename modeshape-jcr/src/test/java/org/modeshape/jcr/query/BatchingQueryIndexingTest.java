@@ -0,0 +1,241 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.transaction.Synchronization;
+import org.hibernate.search.backend.TransactionContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.NodeTypeSchemata;
+import org.modeshape.jcr.api.Binary;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+
+public class BatchingQueryIndexingTest {
+
+    private ExecutionContext context;
+    private RecordingIndexing indexes;
+    private ExecutorService executor;
+    private BatchingQueryIndexing batching;
+    private Name primaryType;
+    private Set<Name> mixinTypes;
+
+    @Before
+    public void beforeEach() {
+        context = new ExecutionContext();
+        indexes = new RecordingIndexing();
+        executor = Executors.newFixedThreadPool(3);
+        batching = new BatchingQueryIndexing(indexes, executor, 4);
+        primaryType = context.getValueFactories().getNameFactory().create("nt:unstructured");
+        mixinTypes = Collections.emptySet();
+    }
+
+    @After
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldApplyAllWorkOfCollectorInOneBatch() {
+        BatchingQueryIndexing.Collector collector = batching.collect(null);
+        collector.add("ws", key(1), path("/a"), primaryType, mixinTypes, properties("p", "1"));
+        collector.update("ws", key(2), path("/b"), primaryType, mixinTypes, properties("p", "2").iterator());
+        collector.remove("ws", Arrays.asList(key(3), key(4)));
+        assertThat(indexes.work.isEmpty(), is(true));
+        collector.apply();
+        assertThat(indexes.work, is(Arrays.asList("ADD 1 [1]", "UPDATE 2 [2]", "REMOVE 3", "REMOVE 4")));
+        assertThat(indexes.batches.get(), is(1));
+        assertThat(indexes.appliedBatches.get(), is(1));
+        assertThat(collector.size(), is(0));
+    }
+
+    @Test
+    public void shouldIndexOnlyTheLastStateOfEachNode() {
+        BatchingQueryIndexing.Collector collector = batching.collect(null);
+        collector.add("ws", key(1), path("/a"), primaryType, mixinTypes, properties("p", "1"));
+        collector.update("ws", key(1), path("/a"), primaryType, mixinTypes, properties("p", "2").iterator());
+        collector.update("ws", key(2), path("/b"), primaryType, mixinTypes, properties("p", "3").iterator());
+        collector.remove("ws", Arrays.asList(key(2)));
+        collector.remove("ws", Arrays.asList(key(3)));
+        collector.update("ws", key(3), path("/c"), primaryType, mixinTypes, properties("p", "4").iterator());
+        assertThat(collector.size(), is(3));
+        collector.apply();
+        assertThat(indexes.work, is(Arrays.asList("ADD 1 [2]", "REMOVE 2", "UPDATE 3 [4]")));
+    }
+
+    @Test
+    public void shouldCopyPropertiesWhenRecorded() {
+        BatchingQueryIndexing.Collector collector = batching.collect(null);
+        List<Property> properties = properties("p", "1");
+        collector.add("ws", key(1), path("/a"), primaryType, mixinTypes, properties);
+        properties.clear();
+        collector.apply();
+        assertThat(indexes.work, is(Arrays.asList("ADD 1 [1]")));
+    }
+
+    @Test
+    public void shouldDivideLargeAmountsOfWorkAmongThreads() {
+        BatchingQueryIndexing.Collector collector = batching.collect(null);
+        for (int i = 0; i != 1000; ++i) {
+            collector.update("ws", key(i), path("/n" + i), primaryType, mixinTypes, properties("p", "" + i).iterator());
+        }
+        collector.apply();
+        assertThat(indexes.work.size(), is(1000));
+        assertThat(new HashSet<String>(indexes.work).size(), is(1000));
+        assertThat(indexes.batches.get(), is(4));
+        assertThat(indexes.appliedBatches.get(), is(4));
+    }
+
+    protected NodeKey key( int i ) {
+        return new NodeKey("source1works1-" + i);
+    }
+
+    protected Path path( String path ) {
+        return context.getValueFactories().getPathFactory().create(path);
+    }
+
+    protected List<Property> properties( String name,
+                                         String value ) {
+        List<Property> properties = new ArrayList<Property>();
+        properties.add(context.getPropertyFactory().create(context.getValueFactories().getNameFactory().create(name), value));
+        return properties;
+    }
+
+    protected static class RecordingIndexing implements QueryIndexing {
+        protected final List<String> work = Collections.synchronizedList(new ArrayList<String>());
+        protected final AtomicInteger batches = new AtomicInteger();
+        protected final AtomicInteger appliedBatches = new AtomicInteger();
+
+        @Override
+        public void addToIndex( String workspace,
+                                NodeKey key,
+                                Path path,
+                                Name primaryType,
+                                Set<Name> mixinTypes,
+                                Collection<Property> properties,
+                                NodeTypeSchemata schemata,
+                                TransactionContext txnCtx ) {
+            work.add("ADD " + id(key) + " " + values(properties.iterator()));
+        }
+
+        @Override
+        public void updateIndex( String workspace,
+                                 NodeKey key,
+                                 Path path,
+                                 Name primaryType,
+                                 Set<Name> mixinTypes,
+                                 Iterator<Property> properties,
+                                 NodeTypeSchemata schemata,
+                                 TransactionContext txnCtx ) {
+            work.add("UPDATE " + id(key) + " " + values(properties));
+        }
+
+        @Override
+        public void removeFromIndex( String workspace,
+                                     Iterable<NodeKey> keys,
+                                     TransactionContext txnCtx ) {
+            for (NodeKey key : keys) {
+                work.add("REMOVE " + id(key));
+            }
+        }
+
+        @Override
+        public void removeAllFromIndex( String workspace,
+                                        TransactionContext txnCtx ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addBinaryToIndex( Binary binary,
+                                      TransactionContext txnCtx ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeBinariesFromIndex( Iterable<String> sha1s,
+                                             TransactionContext txnCtx ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IndexBatch createBatch() {
+            batches.incrementAndGet();
+            return new IndexBatch() {
+                @Override
+                public boolean isTransactionInProgress() {
+                    return true;
+                }
+
+                @Override
+                public Object getTransactionIdentifier() {
+                    return this;
+                }
+
+                @Override
+                public void registerSynchronization( Synchronization synchronization ) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int size() {
+                    return 0;
+                }
+
+                @Override
+                public void apply() {
+                    appliedBatches.incrementAndGet();
+                }
+            };
+        }
+
+        private String id( NodeKey key ) {
+            return key.getIdentifier();
+        }
+
+        private String values( Iterator<Property> properties ) {
+            List<Object> values = new ArrayList<Object>();
+            while (properties.hasNext()) {
+                values.add(properties.next().getFirstValue());
+            }
+            return values.toString();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.lucene.basic;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class NodeInfoIndexStatisticsTest {
+
+    @Test
+    public void shouldConsiderOnlyLargeRelativeChangesToBeSignificant() {
+        assertThat(NodeInfoIndexStatistics.isSignificantChange(1000L, 1900L), is(false));
+        assertThat(NodeInfoIndexStatistics.isSignificantChange(1000L, 2100L), is(true));
+        assertThat(NodeInfoIndexStatistics.isSignificantChange(1000L, 400L), is(true));
+        assertThat(NodeInfoIndexStatistics.isSignificantChange(0L, 1L), is(false));
+        assertThat(NodeInfoIndexStatistics.isSignificantChange(0L, 5L), is(true));
+    }
+
+    @Test
+    public void shouldDifferSignificantlyWhenCountOfTrackedValueChangesSignificantly() {
+        NodeInfoIndexStatistics stats = new NodeInfoIndexStatistics(null, 3L, 1000L, valueCounts(500L, 10L), new long[] {1L});
+        assertThat(stats.getGeneration(), is(3L));
+        assertThat(stats.differsSignificantlyFrom(1100L, valueCounts(520L, 12L)), is(false));
+        assertThat(stats.differsSignificantlyFrom(3000L, valueCounts(500L, 10L)), is(true));
+        assertThat(stats.differsSignificantlyFrom(1000L, valueCounts(500L, 200L)), is(true));
+        Map<String, Map<String, Long>> withoutType = valueCounts(500L, 10L);
+        withoutType.get("jcr:primaryType").remove("nt:folder");
+        assertThat(stats.differsSignificantlyFrom(1000L, withoutType), is(true));
+    }
+
+    protected Map<String, Map<String, Long>> valueCounts( long unstructured,
+                                                          long folders ) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        counts.put("nt:unstructured", unstructured);
+        counts.put("nt:folder", folders);
+        Map<String, Map<String, Long>> valueCounts = new HashMap<String, Map<String, Long>>();
+        valueCounts.put("jcr:primaryType", counts);
+        return valueCounts;
+    }
+}
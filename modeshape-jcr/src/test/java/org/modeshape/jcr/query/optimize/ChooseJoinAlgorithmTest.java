@@ -52,6 +52,7 @@ public class ChooseJoinAlgorithmTest extends AbstractQueryTest {
 
     private ChooseJoinAlgorithm bestRule;
     private ChooseJoinAlgorithm nestedRule;
+    private ChooseJoinAlgorithm hashRule;
     private QueryContext context;
 
     @Before
@@ -60,6 +61,7 @@ public class ChooseJoinAlgorithmTest extends AbstractQueryTest {
                                    mock(Schemata.class));
         bestRule = ChooseJoinAlgorithm.USE_BEST_JOIN_ALGORITHM;
         nestedRule = ChooseJoinAlgorithm.USE_ONLY_NESTED_JOIN_ALGORITHM;
+        hashRule = ChooseJoinAlgorithm.USE_HASH_JOIN_ALGORITHM;
     }
 
     /**
@@ -157,4 +159,56 @@ public class ChooseJoinAlgorithmTest extends AbstractQueryTest {
 
         assertChildren(join, leftDup, rightDup);
     }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToHashIfConditionIsNotDescendantNode() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Parent"), selector("Child"));
+        PlanNode parentSource = new PlanNode(Type.SOURCE, join, selector("Parent"));
+        PlanNode childSource = new PlanNode(Type.SOURCE, join, selector("Child"));
+        // Set the join type and condition ...
+        JoinCondition joinCondition = new ChildNodeJoinCondition(selector("Parent"), selector("Child"));
+        join.setProperty(Property.JOIN_CONDITION, joinCondition);
+        join.setProperty(Property.JOIN_TYPE, JoinType.LEFT_OUTER);
+
+        // Execute the rule ...
+        PlanNode result = hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(join)));
+        assertThat(join.getProperty(Property.JOIN_TYPE, JoinType.class), is(JoinType.LEFT_OUTER));
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+        assertThat(join.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(sameInstance(joinCondition)));
+        assertChildren(join, parentSource, childSource);
+    }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToNestedLoopIfConditionIsDescendantNodeOrJoinIsFullOuter() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Ancestor"), selector("Descendant"));
+        new PlanNode(Type.SOURCE, join, selector("Ancestor"));
+        new PlanNode(Type.SOURCE, join, selector("Descendant"));
+        join.setProperty(Property.JOIN_CONDITION, new DescendantNodeJoinCondition(selector("Ancestor"), selector("Descendant")));
+        join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+
+        join.setProperty(Property.JOIN_CONDITION, new ChildNodeJoinCondition(selector("Ancestor"), selector("Descendant")));
+        join.setProperty(Property.JOIN_TYPE, JoinType.FULL_OUTER);
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+    }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToNestedLoopIfBothSidesAreEstimatedToProduceFewTuples() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Parent"), selector("Child"));
+        PlanNode parentSource = new PlanNode(Type.ACCESS, join, selector("Parent"));
+        PlanNode childSource = new PlanNode(Type.ACCESS, join, selector("Child"));
+        join.setProperty(Property.JOIN_CONDITION, new ChildNodeJoinCondition(selector("Parent"), selector("Child")));
+        join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+        parentSource.setProperty(Property.ESTIMATED_CARDINALITY, 2L);
+        childSource.setProperty(Property.ESTIMATED_CARDINALITY, 10L);
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+
+        childSource.setProperty(Property.ESTIMATED_CARDINALITY, 1000L);
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.AbstractQueryTest;
+import org.modeshape.jcr.query.IndexStatistics;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.parse.BasicSqlQueryParser;
+import org.modeshape.jcr.query.plan.CanonicalPlanner;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.ImmutableSchemata;
+
+public class ReorderJoinsTest extends AbstractQueryTest {
+
+    private static final String THREE_WAY_JOIN = "SELECT t1.c11, t2.c22, t3.c32 FROM t1 JOIN t2 ON t1.c11 = t2.c21 "
+                                                 + "JOIN t3 ON t2.c22 = t3.c31 WHERE t3.c32 = 'rare'";
+
+    private QueryContext context;
+    private Map<String, Long> valueCounts;
+
+    @Before
+    public void beforeEach() {
+        ExecutionContext executionContext = new ExecutionContext();
+        ImmutableSchemata.Builder builder = ImmutableSchemata.createBuilder(executionContext);
+        builder.addTable("t1", "c11", "c12");
+        builder.addTable("t2", "c21", "c22");
+        builder.addTable("t3", "c31", "c32");
+        context = new QueryContext(executionContext, mock(RepositoryCache.class), Collections.singleton("workspace"),
+                                   builder.build());
+        valueCounts = new HashMap<String, Long>();
+        valueCounts.put("c32=rare", 2L);
+    }
+
+    @Test
+    public void shouldNotEstimateOrReorderJoinsWithoutStatistics() {
+        PlanNode plan = optimize(context, THREE_WAY_JOIN);
+        for (PlanNode node : plan.findAllAtOrBelow(Type.ACCESS, Type.JOIN)) {
+            assertThat(node.getProperty(Property.ESTIMATED_CARDINALITY), is(nullValue()));
+        }
+        PlanNode topJoin = plan.findAtOrBelow(Type.JOIN);
+        assertThat(topJoin.getLastChild().getSelectors(), is(Collections.singleton(selector("t3"))));
+    }
+
+    @Test
+    public void shouldJoinInputsThatProduceFewestTuplesFirst() {
+        PlanNode plan = optimize(context.with(statistics(1000L)), THREE_WAY_JOIN);
+
+        // The most selective input (t3) is joined first with the only input it is connected to (t2) ...
+        PlanNode topJoin = plan.findAtOrBelow(Type.JOIN);
+        assertThat(topJoin.getChildCount(), is(2));
+        PlanNode bottomJoin = topJoin.getFirstChild();
+        assertThat(bottomJoin.getType(), is(Type.JOIN));
+        assertThat(bottomJoin.getFirstChild().getSelectors(), is(Collections.singleton(selector("t3"))));
+        assertThat(bottomJoin.getLastChild().getSelectors(), is(Collections.singleton(selector("t2"))));
+        assertThat(bottomJoin.getProperty(Property.JOIN_CONDITION),
+                   is((Object)new EquiJoinCondition(selector("t2"), "c22", selector("t3"), "c31")));
+        assertThat(topJoin.getLastChild().getSelectors(), is(Collections.singleton(selector("t1"))));
+        assertThat(topJoin.getProperty(Property.JOIN_CONDITION),
+                   is((Object)new EquiJoinCondition(selector("t1"), "c11", selector("t2"), "c21")));
+
+        // Every ACCESS and JOIN node has an estimate ...
+        assertThat(bottomJoin.getFirstChild().getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(2L));
+        assertThat(bottomJoin.getLastChild().getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(1000L));
+        assertThat(topJoin.getLastChild().getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(1000L));
+        assertThat(bottomJoin.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(20L));
+        assertThat(topJoin.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(200L));
+        assertThat(plan.getString().contains("ESTIMATED_CARDINALITY=200"), is(true));
+    }
+
+    @Test
+    public void shouldNotReorderJoinsWhenInputsAreNotConnectedByJoinConditions() {
+        PlanNode plan = optimize(context.with(statistics(1000L)),
+                                 "SELECT t1.c11 FROM t1 JOIN t2 ON t1.c11 = t2.c21 JOIN t3 ON t1.c12 = t2.c22 WHERE t3.c32 = 'rare'");
+        PlanNode topJoin = plan.findAtOrBelow(Type.JOIN);
+        assertThat(topJoin.getLastChild().getSelectors(), is(Collections.singleton(selector("t3"))));
+        assertThat(topJoin.getLastChild().getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(2L));
+    }
+
+    protected PlanNode optimize( QueryContext context,
+                                 String sql ) {
+        QueryCommand query = new BasicSqlQueryParser().parseQuery(sql, context.getTypeSystem());
+        PlanNode plan = new CanonicalPlanner().createPlan(context, query);
+        PlanNode optimized = new RuleBasedOptimizer().optimize(context, plan);
+        assertThat(context.getProblems().toString(), context.getProblems().hasErrors(), is(false));
+        return optimized;
+    }
+
+    protected IndexStatistics statistics( final long nodeCount ) {
+        return new IndexStatistics() {
+            @Override
+            public long getGeneration() {
+                return 0L;
+            }
+
+            @Override
+            public long getNodeCount() {
+                return nodeCount;
+            }
+
+            @SuppressWarnings( "synthetic-access" )
+            @Override
+            public long getValueCount( String propertyName,
+                                       String value ) {
+                Long count = valueCounts.get(propertyName + "=" + value);
+                return count != null ? count.longValue() : UNKNOWN;
+            }
+
+            @Override
+            public long getDistinctValueCount( String propertyName ) {
+                return 100L;
+            }
+
+            @Override
+            public long getNodeCountAtDepth( int depth ) {
+                return depth == 0 ? 1L : 0L;
+            }
+
+            @Override
+            public int getMaximumDepth() {
+                return 0;
+            }
+        };
+    }
+}
@@ -425,7 +425,7 @@ public class RuleBasedOptimizerTest extends AbstractQueryTest {
         PlanNode project = new PlanNode(Type.PROJECT, selector("t2"), selector("t1"));
         project.setProperty(Property.PROJECT_COLUMNS, columns(column("t1", "c11"), column("t1", "c12"), column("t2", "c23")));
         PlanNode join = new PlanNode(Type.JOIN, project, selector("t2"), selector("t1"));
-        join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+        join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.HASH);
         join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
         join.setProperty(Property.JOIN_CONDITION, new EquiJoinCondition(selector("t1"), "c11", selector("t2"), "c21"));
 
@@ -587,7 +587,7 @@ public class RuleBasedOptimizerTest extends AbstractQueryTest {
                                     column("type2", "a3", "c"),
                                     column("type2", "a4", "d")));
         PlanNode join = new PlanNode(Type.JOIN, project, selector("type1"), selector("type2"));
-        join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+        join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.HASH);
         join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
         join.setProperty(Property.JOIN_CONDITION, new EquiJoinCondition(selector("type1"), "a2", selector("type2"), "a3"));
 
@@ -937,6 +937,31 @@ public class RuleBasedOptimizerTest extends AbstractQueryTest {
         assertPlanMatches(sort);
     }
 
+    @Test
+    public void shouldOptimizePlanForQueryWithOrderByAndLimitClausesByCopyingSortAndLimitIntoAccess() {
+        node = optimize("SELECT t1.c11 FROM t1 ORDER BY t1.c11 LIMIT 2 OFFSET 1");
+
+        // Create the expected plan ...
+        PlanNode limit = new PlanNode(Type.LIMIT);
+        limit.setProperty(Property.LIMIT_COUNT, 2);
+        limit.setProperty(Property.LIMIT_OFFSET, 1);
+        PlanNode sort = new PlanNode(Type.SORT, limit, selector("t1"));
+        sort.setProperty(Property.SORT_ORDER_BY, orderings(ascending("t1", "c11")));
+        PlanNode access = new PlanNode(Type.ACCESS, sort, selector("t1"));
+        PlanNode accessLimit = new PlanNode(Type.LIMIT, access, selector("t1"));
+        accessLimit.setProperty(Property.LIMIT_COUNT, 3);
+        PlanNode accessSort = new PlanNode(Type.SORT, accessLimit, selector("t1"));
+        accessSort.setProperty(Property.SORT_ORDER_BY, orderings(ascending("t1", "c11")));
+        PlanNode project = new PlanNode(Type.PROJECT, accessSort, selector("t1"));
+        project.setProperty(Property.PROJECT_COLUMNS, columns(column("t1", "c11")));
+        PlanNode source = new PlanNode(Type.SOURCE, project, selector("t1"));
+        source.setProperty(Property.SOURCE_NAME, selector("t1"));
+        source.setProperty(Property.SOURCE_COLUMNS, context.getSchemata().getTable(selector("t1")).getColumns());
+
+        // Compare the expected and actual plan ...
+        assertPlanMatches(limit);
+    }
+
     // ----------------------------------------------------------------------------------------------------------------
     // Utility methods ...
     // ----------------------------------------------------------------------------------------------------------------
@@ -0,0 +1,202 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.plan;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.collection.SimpleProblems;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.GraphI18n;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.IndexStatistics;
+import org.modeshape.jcr.query.QueryBuilder;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.Subquery;
+import org.modeshape.jcr.query.model.TypeSystem;
+import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
+import org.modeshape.jcr.query.validate.ImmutableSchemata;
+import org.modeshape.jcr.query.validate.Schemata;
+
+public class QueryPlanCacheTest {
+
+    private ExecutionContext executionContext;
+    private TypeSystem typeSystem;
+    private RepositoryCache repoCache;
+    private Schemata schemata;
+    private QueryPlanCache cache;
+
+    @Before
+    public void beforeEach() {
+        executionContext = new ExecutionContext();
+        typeSystem = executionContext.getValueFactories().getTypeSystem();
+        repoCache = mock(RepositoryCache.class);
+        schemata = schemata();
+        cache = new QueryPlanCache(10L);
+    }
+
+    @Test
+    public void shouldReuseCopyOfPlanForEquivalentQuery() {
+        QueryContext context = context(schemata, null);
+        PlanNode plan = planAndCache(context, queryWithSubquery());
+        assertThat(cache.size(), is(1L));
+
+        QueryContext other = context(schemata, null);
+        PlanNode cached = cache.getPlan(cache.keyFor(other, queryWithSubquery()), other);
+        assertThat(cached, is(notNullValue()));
+        assertThat(cached, is(not(sameInstance(plan))));
+        assertThat(cached.isSameAs(plan), is(true));
+        assertThat(cache.getHitCount(), is(1L));
+        // The hints and variables produced by planning should be restored ...
+        assertThat(other.getHints().toString(), is(context.getHints().toString()));
+        assertThat(other.getHints().hasSubqueries, is(true));
+        assertThat(other.getVariables().containsKey(Subquery.VARIABLE_PREFIX + "1"), is(true));
+    }
+
+    @Test
+    public void shouldNotReusePlanForDifferentVariableTypes() {
+        planAndCache(context(schemata, variables("value", "a string")), query());
+        QueryContext other = context(schemata, variables("value", 3L));
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(nullValue()));
+        other = context(schemata, variables("value", "another string"));
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldNotReusePlanForDifferentSchemata() {
+        planAndCache(context(schemata, null), query());
+        QueryContext other = context(schemata(), null);
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReusePlanWithNewerStatisticsOfSameGeneration() {
+        planAndCache(context(schemata, null).with(statistics(3L)), query());
+        QueryContext other = context(schemata, null).with(statistics(3L));
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldNotReusePlanWithStatisticsOfDifferentGeneration() {
+        planAndCache(context(schemata, null).with(statistics(3L)), query());
+        QueryContext other = context(schemata, null).with(statistics(4L));
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(nullValue()));
+        other = context(schemata, null);
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCachePlanThatDependsOnVariableValues() {
+        QueryContext context = context(schemata, null);
+        QueryPlanCache.PlanKey key = cache.keyFor(context, query());
+        PlanNode plan = new RuleBasedOptimizer().optimize(context, new CanonicalPlanner().createPlan(context, query()));
+        context.getHints().dependsOnVariableValues = true;
+        assertThat(cache.putPlan(key, context, Collections.<String>emptySet(), plan), is(false));
+        assertThat(cache.size(), is(0L));
+    }
+
+    @Test
+    public void shouldNotCreateKeyWhenContextHasProblems() {
+        QueryContext context = context(schemata, null);
+        context.getProblems().addError(GraphI18n.errorReadingPropertyValueBytes);
+        assertThat(cache.keyFor(context, query()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRemovePlansAndQueriesWhenCleared() {
+        planAndCache(context(schemata, null), query());
+        cache.putQuery("JCR-SQL2", "SELECT * FROM [someTable]", query());
+        cache.clear();
+        assertThat(cache.size(), is(0L));
+        assertThat(cache.getQuery("JCR-SQL2", "SELECT * FROM [someTable]"), is(nullValue()));
+        QueryContext other = context(schemata, null);
+        assertThat(cache.getPlan(cache.keyFor(other, query()), other), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReuseParsedQueryOnlyForSameLanguageAndExpression() {
+        QueryCommand query = query();
+        cache.putQuery("JCR-SQL2", "SELECT * FROM [someTable]", query);
+        assertThat(cache.getQuery("JCR-SQL2", "SELECT * FROM [someTable]"), is(sameInstance(query)));
+        assertThat(cache.getQuery("sql", "SELECT * FROM [someTable]"), is(nullValue()));
+        assertThat(cache.getQuery("JCR-SQL2", "SELECT * FROM [otherTable]"), is(nullValue()));
+    }
+
+    protected PlanNode planAndCache( QueryContext context,
+                                     QueryCommand query ) {
+        QueryPlanCache.PlanKey key = cache.keyFor(context, query);
+        Set<String> variableNames = new HashSet<String>(context.getVariables().keySet());
+        PlanNode plan = new RuleBasedOptimizer().optimize(context, new CanonicalPlanner().createPlan(context, query));
+        assertThat(context.getProblems().hasProblems(), is(false));
+        assertThat(cache.putPlan(key, context, variableNames, plan), is(true));
+        return plan;
+    }
+
+    protected QueryCommand query() {
+        return new QueryBuilder(typeSystem).selectStar().from("someTable").query();
+    }
+
+    protected QueryCommand queryWithSubquery() {
+        QueryCommand subquery = new QueryBuilder(typeSystem).select("columnA").from("otherTable").query();
+        return new QueryBuilder(typeSystem).selectStar().from("someTable").where().path("someTable").isLike(subquery).end()
+                                           .query();
+    }
+
+    protected Schemata schemata() {
+        return ImmutableSchemata.createBuilder(executionContext).addTable("someTable", "column1", "column2", "column3")
+                                .addTable("otherTable", "columnA", "columnB").build();
+    }
+
+    protected QueryContext context( Schemata schemata,
+                                    Map<String, Object> variables ) {
+        return new QueryContext(executionContext, repoCache, Collections.singleton("workspace"), null, schemata,
+                                new PlanHints(), new SimpleProblems(), variables);
+    }
+
+    protected IndexStatistics statistics( long generation ) {
+        IndexStatistics statistics = mock(IndexStatistics.class);
+        when(statistics.getGeneration()).thenReturn(generation);
+        return statistics;
+    }
+
+    protected Map<String, Object> variables( String name,
+                                             Object value ) {
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put(name, value);
+        return variables;
+    }
+}
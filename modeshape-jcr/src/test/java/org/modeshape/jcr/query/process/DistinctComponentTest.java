@@ -34,7 +34,9 @@ import org.junit.Test;
 import org.modeshape.jcr.cache.RepositoryCache;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.QueryResults.Location;
 import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.PropertyType;
 
 /**
@@ -46,6 +48,7 @@ public class DistinctComponentTest extends AbstractQueryResultsTest {
     private QueryContext context;
     private Columns columns;
     private List<Object[]> inputTuples;
+    private ProcessingComponent delegate;
 
     @Before
     public void beforeEach() {
@@ -59,7 +62,7 @@ public class DistinctComponentTest extends AbstractQueryResultsTest {
                                 PropertyType.STRING,
                                 PropertyType.STRING);
         // And define the delegating component ...
-        ProcessingComponent delegate = new ProcessingComponent(context, columns) {
+        delegate = new ProcessingComponent(context, columns) {
             @SuppressWarnings( "synthetic-access" )
             @Override
             public List<Object[]> execute() {
@@ -94,6 +97,34 @@ public class DistinctComponentTest extends AbstractQueryResultsTest {
         assertThat(component.execute(), is(expected));
     }
 
+    @Test
+    public void shouldReturnNoDuplicatesWhenThereAreMoreLocationsThanAreHeldInMemory() {
+        component = new DistinctComponent(delegate, 2);
+        inputTuples.add(tuple(columns, "/a/b/c1", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c4", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c2", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c3", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c4", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c3", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c0", "v1", "v2", "v3"));
+        inputTuples.add(tuple(columns, "/a/b/c1", "v1", "v2", "v3"));
+        // The first locations are returned as found, and the rest are sorted ...
+        List<Path> expected = new ArrayList<Path>();
+        for (String path : new String[] {"/a/b/c1", "/a/b/c4", "/a/b/c0", "/a/b/c2", "/a/b/c3"}) {
+            expected.add(path(path));
+        }
+        assertThat(pathsOf(component.execute()), is(expected));
+        component.close();
+    }
+
+    protected List<Path> pathsOf( List<Object[]> tuples ) {
+        List<Path> paths = new ArrayList<Path>();
+        for (Object[] tuple : tuples) {
+            paths.add(((Location)tuple[columns.getColumnCount()]).getPath());
+        }
+        return paths;
+    }
+
     @Test
     public void shouldReturnEmptyResultsWhenDelegateReturnsEmptyResults() {
         assertThat(component.execute().isEmpty(), is(true));
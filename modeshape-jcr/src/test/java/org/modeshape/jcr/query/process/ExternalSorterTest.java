@@ -0,0 +1,119 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+public class ExternalSorterTest {
+
+    private static final Comparator<Object[]> BY_KEY = new Comparator<Object[]>() {
+        @Override
+        public int compare( Object[] tuple1,
+                            Object[] tuple2 ) {
+            return ((Integer)tuple1[0]).compareTo((Integer)tuple2[0]);
+        }
+    };
+
+    private ExternalSorter sorter;
+
+    @After
+    public void afterEach() {
+        if (sorter != null) sorter.close();
+    }
+
+    @Test
+    public void shouldSortTuplesThatFitInMemory() {
+        sorter = new ExternalSorter(BY_KEY, 1000);
+        List<Object[]> tuples = tuples(500, 50);
+        assertSorted(tuples, sorter.sort(tuples.iterator()));
+    }
+
+    @Test
+    public void shouldSortTuplesInRunsWrittenToTemporaryFiles() {
+        sorter = new ExternalSorter(BY_KEY, 100);
+        List<Object[]> tuples = tuples(1050, 70);
+        assertSorted(tuples, sorter.sort(tuples.iterator()));
+    }
+
+    @Test
+    public void shouldSortTuplesWhenThereAreMoreRunsThanCanBeMergedAtOnce() {
+        sorter = new ExternalSorter(BY_KEY, 3);
+        List<Object[]> tuples = tuples(ExternalSorter.MAX_MERGE_WIDTH * 3 * 3 + 2, 100);
+        assertSorted(tuples, sorter.sort(tuples.iterator()));
+    }
+
+    @Test
+    public void shouldSortNoTuples() {
+        sorter = new ExternalSorter(BY_KEY, 3);
+        assertThat(sorter.sort(Collections.<Object[]>emptyList().iterator()).hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldMergeSortedTuplesInOrderOfIteratorsWhenTuplesAreEqual() {
+        List<Object[]> first = Arrays.asList(new Object[] {1, 0}, new Object[] {3, 1});
+        List<Object[]> second = Arrays.asList(new Object[] {1, 2}, new Object[] {2, 3}, new Object[] {3, 4});
+        List<Iterator<Object[]>> sorted = new ArrayList<Iterator<Object[]>>();
+        sorted.add(first.iterator());
+        sorted.add(second.iterator());
+        assertThat(indexesOf(ExternalSorter.merge(sorted, BY_KEY)), is(Arrays.asList(0, 2, 3, 1, 4)));
+    }
+
+    /**
+     * Create tuples with random keys, each of which also contains its position so that the stability of the sort can be checked.
+     */
+    protected List<Object[]> tuples( int count,
+                                     int maxKey ) {
+        Random random = new Random(count);
+        List<Object[]> tuples = new ArrayList<Object[]>(count);
+        for (int i = 0; i != count; ++i) {
+            tuples.add(new Object[] {random.nextInt(maxKey), i});
+        }
+        return tuples;
+    }
+
+    protected void assertSorted( List<Object[]> tuples,
+                                 Iterator<Object[]> sorted ) {
+        List<Object[]> expected = new ArrayList<Object[]>(tuples);
+        Collections.sort(expected, BY_KEY);
+        assertThat(indexesOf(sorted), is(indexesOf(expected.iterator())));
+    }
+
+    protected List<Integer> indexesOf( Iterator<Object[]> tuples ) {
+        List<Integer> indexes = new ArrayList<Integer>();
+        while (tuples.hasNext()) {
+            indexes.add((Integer)tuples.next()[1]);
+        }
+        return indexes;
+    }
+}
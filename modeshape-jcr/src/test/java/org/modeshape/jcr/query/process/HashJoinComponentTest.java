@@ -0,0 +1,177 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.PropertyType;
+
+public class HashJoinComponentTest extends AbstractQueryResultsTest {
+
+    private QueryContext context;
+    private Columns parentColumns;
+    private Columns childColumns;
+    private List<Object[]> parents;
+    private List<Object[]> children;
+
+    @Before
+    public void beforeEach() {
+        context = new QueryContext(executionContext, mock(RepositoryCache.class), Collections.singleton("workspace"),
+                                   mock(Schemata.class));
+        parentColumns = resultColumns("parent", new String[] {"id"}, PropertyType.STRING);
+        childColumns = resultColumns("child", new String[] {"parentId"}, PropertyType.STRING);
+        parents = new ArrayList<Object[]>();
+        parents.add(tuple(parentColumns, "/a", "1"));
+        parents.add(tuple(parentColumns, "/a/b", "2"));
+        parents.add(tuple(parentColumns, "/c", new Object[] {null}));
+        parents.add(tuple(parentColumns, "/d", "3"));
+        parents.add(tuple(parentColumns, "/", "4"));
+        children = new ArrayList<Object[]>();
+        children.add(tuple(childColumns, "/a/x", "1"));
+        children.add(tuple(childColumns, "/a/y", "1"));
+        children.add(tuple(childColumns, "/a/b/z", "2"));
+        children.add(tuple(childColumns, "/c/w", new Object[] {null}));
+        children.add(tuple(childColumns, "/e/v", "5"));
+        children.add(tuple(childColumns, "/", "4"));
+        for (int i = 0; i != 20; ++i) {
+            children.add(tuple(childColumns, "/d/n" + i, "3"));
+        }
+    }
+
+    @Test
+    public void shouldSupportOnlyInnerAndLeftAndRightOuterJoinsWithEquiSameNodeAndChildNodeConditions() {
+        assertThat(HashJoinComponent.supports(equiJoin(), JoinType.INNER), is(true));
+        assertThat(HashJoinComponent.supports(childNodeJoin(), JoinType.LEFT_OUTER), is(true));
+        assertThat(HashJoinComponent.supports(sameNodeJoin(null), JoinType.RIGHT_OUTER), is(true));
+        assertThat(HashJoinComponent.supports(equiJoin(), JoinType.FULL_OUTER), is(false));
+        assertThat(HashJoinComponent.supports(equiJoin(), JoinType.CROSS), is(false));
+    }
+
+    @Test
+    public void shouldProduceSameResultsAsNestedLoopJoinForEquiJoins() {
+        assertSameResultsAsNestedLoopJoin(equiJoin());
+    }
+
+    @Test
+    public void shouldProduceSameResultsAsNestedLoopJoinForChildNodeJoins() {
+        assertSameResultsAsNestedLoopJoin(childNodeJoin());
+    }
+
+    @Test
+    public void shouldProduceSameResultsAsNestedLoopJoinForSameNodeJoins() {
+        assertSameResultsAsNestedLoopJoin(sameNodeJoin(null));
+    }
+
+    @Test
+    public void shouldProduceSameResultsAsNestedLoopJoinForSameNodeJoinsWithRelativePath() {
+        assertSameResultsAsNestedLoopJoin(sameNodeJoin("a"));
+    }
+
+    @Test
+    public void shouldProduceTheLeftTuplesInOrderForLeftOuterJoins() {
+        HashJoinComponent join = new HashJoinComponent(context, source(children), source(parents), childNodeJoin(),
+                                                       JoinType.LEFT_OUTER);
+        List<Object[]> results = join.execute();
+        assertThat(results.size(), is(children.size()));
+        for (int i = 0; i != results.size(); ++i) {
+            assertThat(results.get(i)[0], is(children.get(i)[0]));
+        }
+    }
+
+    protected void assertSameResultsAsNestedLoopJoin( JoinCondition condition ) {
+        for (JoinType joinType : new JoinType[] {JoinType.INNER, JoinType.LEFT_OUTER, JoinType.RIGHT_OUTER}) {
+            for (int maxBuildTuples : new int[] {HashJoinComponent.DEFAULT_MAX_BUILD_TUPLES, 2}) {
+                // Put the parents on the left, and then on the right ...
+                assertSameResults(condition, joinType, parents, children, maxBuildTuples);
+                assertSameResults(condition, joinType, children, parents, maxBuildTuples);
+            }
+        }
+    }
+
+    protected void assertSameResults( JoinCondition condition,
+                                      JoinType joinType,
+                                      List<Object[]> leftTuples,
+                                      List<Object[]> rightTuples,
+                                      int maxBuildTuples ) {
+        ProcessingComponent nested = new NestedLoopJoinComponent(context, source(leftTuples), source(rightTuples), condition,
+                                                                 joinType);
+        HashJoinComponent hash = new HashJoinComponent(context, source(leftTuples), source(rightTuples), condition, joinType,
+                                                       maxBuildTuples);
+        try {
+            List<String> expected = sorted(nested.execute());
+            assertThat(expected.isEmpty(), is(false));
+            assertThat(sorted(hash.execute()), is(expected));
+        } finally {
+            hash.close();
+        }
+    }
+
+    protected ProcessingComponent source( final List<Object[]> tuples ) {
+        Columns columns = tuples == parents ? parentColumns : childColumns;
+        return new ProcessingComponent(context, columns) {
+            @Override
+            public List<Object[]> execute() {
+                return new ArrayList<Object[]>(tuples);
+            }
+        };
+    }
+
+    protected List<String> sorted( List<Object[]> tuples ) {
+        List<String> results = new ArrayList<String>();
+        for (Object[] tuple : tuples) {
+            results.add(Arrays.asList(tuple).toString());
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    protected JoinCondition equiJoin() {
+        return new EquiJoinCondition(selector("parent"), "id", selector("child"), "parentId");
+    }
+
+    protected JoinCondition childNodeJoin() {
+        return new ChildNodeJoinCondition(selector("parent"), selector("child"));
+    }
+
+    protected JoinCondition sameNodeJoin( String selector2Path ) {
+        if (selector2Path == null) return new SameNodeJoinCondition(selector("parent"), selector("child"));
+        return new SameNodeJoinCondition(selector("parent"), selector("child"), selector2Path);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.model.Column;
+import org.modeshape.jcr.query.model.Limit;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.PropertyType;
+
+public class LimitComponentTest extends AbstractQueryResultsTest {
+
+    private QueryContext context;
+    private Columns columns;
+    private List<Object[]> inputTuples;
+    private ProcessingComponent delegate;
+    private int pulled;
+
+    @Before
+    public void beforeEach() {
+        Schemata schemata = mock(Schemata.class);
+        context = new QueryContext(executionContext, mock(RepositoryCache.class), Collections.singleton("workspace"), schemata);
+        inputTuples = new ArrayList<Object[]>();
+        // Define the columns for the results ...
+        columns = resultColumns("Selector1", new String[] {"ColA"}, PropertyType.STRING);
+        for (int i = 0; i != 100; ++i) {
+            inputTuples.add(tuple(columns, "/a/b/c" + i, "v" + i));
+        }
+        // And define the delegating component that records how many tuples are pulled ...
+        delegate = new ProcessingComponent(context, columns) {
+            @SuppressWarnings( "synthetic-access" )
+            @Override
+            public List<Object[]> execute() {
+                return tuplesFrom(iterator());
+            }
+
+            @SuppressWarnings( "synthetic-access" )
+            @Override
+            public Iterator<Object[]> iterator() {
+                final Iterator<Object[]> tuples = inputTuples.iterator();
+                return new TupleIterator() {
+                    @Override
+                    protected Object[] findNext() {
+                        if (!tuples.hasNext()) return null;
+                        ++pulled;
+                        return tuples.next();
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void shouldReturnOnlyTheRowsWithinTheLimit() {
+        LimitComponent component = new LimitComponent(delegate, Limit.NONE.withRowLimit(10).withOffset(5));
+        assertThat(component.execute(), is(inputTuples.subList(5, 15)));
+    }
+
+    @Test
+    public void shouldReturnNoRowsWhenOffsetIsBeyondTheResults() {
+        LimitComponent component = new LimitComponent(delegate, Limit.NONE.withRowLimit(10).withOffset(500));
+        assertThat(component.execute().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldReturnRemainingRowsWhenThereIsOnlyAnOffset() {
+        LimitComponent component = new LimitComponent(delegate, Limit.NONE.withOffset(95));
+        assertThat(component.execute(), is(inputTuples.subList(95, 100)));
+    }
+
+    @Test
+    public void shouldPullOnlyTheTuplesThatAreNeededToSatisfyTheLimit() {
+        LimitComponent component = new LimitComponent(new ProjectComponent(delegate, new ArrayList<Column>(columns.getColumns())),
+                                                      Limit.NONE.withRowLimit(3).withOffset(2));
+        assertThat(component.execute().size(), is(3));
+        assertThat(pulled, is(5));
+    }
+
+    @Test
+    public void shouldPullTuplesFromTheDelegateOnlyAsTheyAreConsumed() {
+        LimitComponent component = new LimitComponent(delegate, Limit.NONE.withRowLimit(50));
+        Iterator<Object[]> iter = component.iterator();
+        assertThat(pulled, is(0));
+        assertThat(iter.next(), is(inputTuples.get(0)));
+        assertThat(iter.next(), is(inputTuples.get(1)));
+        assertThat(pulled, is(2));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.collection.SimpleProblems;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.JcrLexicon;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.query.QueryBuilder;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Statistics;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.model.TypeSystem;
+import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
+import org.modeshape.jcr.query.plan.CanonicalPlanner;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.validate.ImmutableSchemata;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+
+public class QueryResultCacheTest {
+
+    private ExecutionContext executionContext;
+    private TypeSystem typeSystem;
+    private RepositoryCache repoCache;
+    private Schemata schemata;
+    private QueryResultCache cache;
+
+    @Before
+    public void beforeEach() {
+        executionContext = new ExecutionContext();
+        typeSystem = executionContext.getValueFactories().getTypeSystem();
+        repoCache = mock(RepositoryCache.class);
+        schemata = ImmutableSchemata.createBuilder(executionContext)
+                                    .addTable("someTable", "jcr:primaryType", "column1", "column2")
+                                    .addTable("otherTable", "columnA", "columnB").build();
+        cache = new QueryResultCache("system", 10L, 0L);
+    }
+
+    @Test
+    public void shouldReturnCachedResultsForEquivalentQuery() {
+        executeAndCache("workspace", null, query());
+        QueryResults results = cachedResults("workspace", null, query());
+        assertThat(results, is(notNullValue()));
+        assertThat(results.getRowCount(), is(2));
+        assertThat(cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotReturnResultsForDifferentVariableValuesOrWorkspaces() {
+        executeAndCache("workspace", variables("value", "a"), queryWithVariable());
+        assertThat(cachedResults("workspace", variables("value", "b"), queryWithVariable()), is(nullValue()));
+        assertThat(cachedResults("other", variables("value", "a"), queryWithVariable()), is(nullValue()));
+        assertThat(cachedResults("workspace", variables("value", "a"), queryWithVariable()), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldNotKeepResultsComputedBeforeInvalidation() {
+        QueryContext context = context("workspace", null);
+        PlanNode plan = plan(context, query());
+        QueryResultCache.ResultKey key = cache.keyFor(context, query());
+        long generation = cache.generation();
+        RecordingChanges changes = changes("workspace");
+        changes.nodeRemoved(key("node"), key("parent"), path("/parent/node"));
+        cache.invalidate(changes);
+        assertThat(cache.putResults(key, generation, context, plan, results(2)), is(false));
+        assertThat(cache.size(), is(0L));
+    }
+
+    @Test
+    public void shouldNotCacheResultsLargerThanShareOfMaximumSize() {
+        cache = new QueryResultCache("system", 10L, 16 * 1024L);
+        QueryContext context = context("workspace", null);
+        PlanNode plan = plan(context, query());
+        assertThat(cache.putResults(cache.keyFor(context, query()), cache.generation(), context, plan, results(100)), is(false));
+        assertThat(cache.putResults(cache.keyFor(context, query()), cache.generation(), context, plan, results(1)), is(true));
+    }
+
+    @Test
+    public void shouldInvalidateOnlyResultsUsingChangedProperties() {
+        executeAndCache("workspace", null, query());
+        executeAndCache("workspace", null, otherQuery());
+        RecordingChanges changes = changes("workspace");
+        changes.propertyChanged(key("node"), path("/parent/node"), property("columnB", "x"), property("columnB", "y"));
+        cache.invalidate(changes);
+        assertThat(cachedResults("workspace", null, query()), is(notNullValue()));
+        assertThat(cachedResults("workspace", null, otherQuery()), is(nullValue()));
+        assertThat(cache.getInvalidationCount(), is(1L));
+    }
+
+    @Test
+    public void shouldInvalidateOnlyResultsThatMayIncludeNewNodes() {
+        executeAndCache("workspace", null, query());
+        executeAndCache("workspace", null, otherQuery());
+        RecordingChanges changes = changes("workspace");
+        changes.nodeCreated(key("file"), key("parent"), path("/parent/file"), properties("nt:file"));
+        changes.propertyAdded(key("file"), path("/parent/file"), property("column1", "x"));
+        cache.invalidate(changes);
+        assertThat(cachedResults("workspace", null, query()), is(notNullValue()));
+        assertThat(cachedResults("workspace", null, otherQuery()), is(nullValue()));
+
+        changes = changes("workspace");
+        changes.nodeCreated(key("folder"), key("parent"), path("/parent/folder"), properties("nt:folder"));
+        cache.invalidate(changes);
+        assertThat(cachedResults("workspace", null, query()), is(nullValue()));
+    }
+
+    @Test
+    public void shouldInvalidateAllResultsForWorkspaceWhenNodesAreRemoved() {
+        executeAndCache("workspace", null, query());
+        executeAndCache("workspace", null, otherQuery());
+        executeAndCache("other", null, query());
+        RecordingChanges changes = changes("workspace");
+        changes.nodeRemoved(key("node"), key("parent"), path("/parent/node"));
+        cache.invalidate(changes);
+        assertThat(cachedResults("workspace", null, query()), is(nullValue()));
+        assertThat(cachedResults("workspace", null, otherQuery()), is(nullValue()));
+        assertThat(cachedResults("other", null, query()), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldInvalidateResultsInAllWorkspacesForChangesToSystemContent() {
+        executeAndCache("workspace", null, query());
+        executeAndCache("other", null, query());
+        RecordingChanges changes = changes("system");
+        changes.nodeRemoved(key("node"), key("parent"), path("/parent/node"));
+        cache.invalidate(changes);
+        assertThat(cache.size(), is(0L));
+    }
+
+    protected void executeAndCache( String workspaceName,
+                                    Map<String, Object> variables,
+                                    QueryCommand query ) {
+        QueryContext context = context(workspaceName, variables);
+        PlanNode plan = plan(context, query);
+        QueryResultCache.ResultKey key = cache.keyFor(context, query);
+        assertThat(cache.putResults(key, cache.generation(), context, plan, results(2)), is(true));
+    }
+
+    protected QueryResults cachedResults( String workspaceName,
+                                          Map<String, Object> variables,
+                                          QueryCommand query ) {
+        QueryContext context = context(workspaceName, variables);
+        plan(context, query);
+        return cache.getResults(cache.keyFor(context, query), new Statistics());
+    }
+
+    protected PlanNode plan( QueryContext context,
+                             QueryCommand query ) {
+        PlanNode plan = new RuleBasedOptimizer().optimize(context, new CanonicalPlanner().createPlan(context, query));
+        assertThat(context.getProblems().hasProblems(), is(false));
+        return plan;
+    }
+
+    protected QueryResults results( int count ) {
+        List<Object[]> tuples = new ArrayList<Object[]>();
+        for (int i = 0; i != count; ++i) {
+            tuples.add(new Object[] {"value" + i});
+        }
+        return new QueryResults(QueryResultColumns.empty(), new Statistics(), tuples);
+    }
+
+    /**
+     * @return a query restricted to 'nt:folder' nodes that uses 'column1'
+     */
+    protected QueryCommand query() {
+        return new QueryBuilder(typeSystem).select("column1").from("someTable").where().propertyValue("someTable",
+                                                                                                       "jcr:primaryType")
+                                           .isEqualTo("nt:folder").end().query();
+    }
+
+    protected QueryCommand queryWithVariable() {
+        return new QueryBuilder(typeSystem).select("column1").from("someTable").where().propertyValue("someTable", "column2")
+                                           .isEqualToVariable("value").end().query();
+    }
+
+    /**
+     * @return a query that is not restricted by type and that uses 'columnB'
+     */
+    protected QueryCommand otherQuery() {
+        return new QueryBuilder(typeSystem).select("columnA").from("otherTable").where().propertyValue("otherTable", "columnB")
+                                           .isEqualTo("b").end().query();
+    }
+
+    protected QueryContext context( String workspaceName,
+                                    Map<String, Object> variables ) {
+        return new QueryContext(executionContext, repoCache, Collections.singleton(workspaceName), null, schemata,
+                                new PlanHints(), new SimpleProblems(), variables);
+    }
+
+    protected RecordingChanges changes( String workspaceName ) {
+        return new RecordingChanges("process", "repo", workspaceName);
+    }
+
+    protected Map<String, Object> variables( String name,
+                                             Object value ) {
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put(name, value);
+        return variables;
+    }
+
+    protected Map<Name, Property> properties( String primaryType ) {
+        Map<Name, Property> properties = new HashMap<Name, Property>();
+        Name typeName = executionContext.getValueFactories().getNameFactory().create(primaryType);
+        properties.put(JcrLexicon.PRIMARY_TYPE, executionContext.getPropertyFactory().create(JcrLexicon.PRIMARY_TYPE, typeName));
+        return properties;
+    }
+
+    protected Property property( String name,
+                                 Object value ) {
+        return executionContext.getPropertyFactory().create(executionContext.getValueFactories().getNameFactory().create(name),
+                                                            value);
+    }
+
+    protected Path path( String path ) {
+        return executionContext.getValueFactories().getPathFactory().create(path);
+    }
+
+    protected NodeKey key( String id ) {
+        return new NodeKey("source1works1-" + id);
+    }
+}
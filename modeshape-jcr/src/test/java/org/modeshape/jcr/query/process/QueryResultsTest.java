@@ -24,13 +24,16 @@
 package org.modeshape.jcr.query.process;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
 import static org.junit.Assert.assertThat;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import org.junit.Before;
 import org.junit.Test;
 import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.QueryResults.Statistics;
 import org.modeshape.jcr.query.model.Column;
 import org.modeshape.jcr.value.PropertyType;
 
@@ -387,4 +390,76 @@ public class QueryResultsTest extends AbstractQueryResultsTest {
         columnsWithScores.toString();
         columnsWithoutScores.toString();
     }
+
+    @Test
+    public void shouldPullStreamedTuplesOnlyAsTheyAreIterated() {
+        CountingSource source = new CountingSource(3);
+        QueryResults results = new QueryResults(columnsWithoutScores, new Statistics(), source, null, null);
+        assertThat(source.produced, is(0));
+        Iterator<Object[]> first = results.getTupleIterator();
+        assertThat(first.hasNext(), is(true));
+        assertThat(first.next(), sameInstance(source.tuples.get(0)));
+        assertThat(source.produced, is(1));
+        assertThat(results.isClosed(), is(false));
+        // A second iterator sees the tuples already produced, and then pulls the rest ...
+        Iterator<Object[]> second = results.getTupleIterator();
+        assertThat(second.next(), sameInstance(source.tuples.get(0)));
+        assertThat(second.next(), sameInstance(source.tuples.get(1)));
+        assertThat(source.produced, is(2));
+        assertThat(first.next(), sameInstance(source.tuples.get(1)));
+        assertThat(source.produced, is(2));
+        assertThat(results.getRowCount(), is(3));
+        assertThat(results.isClosed(), is(true));
+        assertThat(source.closed, is(1));
+        assertThat(first.next(), sameInstance(source.tuples.get(2)));
+        assertThat(first.hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldCloseStreamedTuplesSourceWhenResultsAreClosed() {
+        CountingSource source = new CountingSource(3);
+        QueryResults results = new QueryResults(columnsWithoutScores, new Statistics(), source, null, null);
+        Iterator<Object[]> iter = results.getTupleIterator();
+        assertThat(iter.hasNext(), is(true));
+        iter.next();
+        results.close();
+        assertThat(results.isClosed(), is(true));
+        assertThat(source.closed, is(1));
+        assertThat(iter.hasNext(), is(false));
+        assertThat(results.getRowCount(), is(1));
+        results.close();
+        assertThat(source.closed, is(1));
+    }
+
+    protected class CountingSource implements QueryResults.TupleSource {
+        protected final List<Object[]> tuples = new ArrayList<Object[]>();
+        protected int produced;
+        protected int closed;
+
+        protected CountingSource( int count ) {
+            for (int i = 0; i != count; ++i) {
+                tuples.add(new Object[columnsWithoutScores.getTupleSize()]);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return produced < tuples.size();
+        }
+
+        @Override
+        public Object[] next() {
+            return tuples.get(produced++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            ++closed;
+        }
+    }
 }
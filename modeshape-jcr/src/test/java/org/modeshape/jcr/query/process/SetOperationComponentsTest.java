@@ -188,4 +188,31 @@ public class SetOperationComponentsTest extends AbstractQueryResultsTest {
         assertThat(results.size(), is(2));
     }
 
+    @Test
+    public void shouldReturnAllLeftResultsWhenOtherSetIsEmpty() {
+        tuplesA.add(tuple(columns, "/a/b/c1", "v1", "v2", "v3"));
+        tuplesA.add(tuple(columns, "/a/b/c2", "v1", "v2", "v3"));
+
+        component = new ExceptComponent(context, columns, selects, false, false);
+
+        final List<Object[]> results = component.execute();
+
+        // Should get both rows from tuplesA
+        assertThat(results.size(), is(2));
+    }
+
+    @Test
+    public void shouldExceptResultsOfLaterSetsFromFirstSet() {
+        tuplesA.add(tuple(columns, "/a/b/c1", "v1", "v2", "v3"));
+        tuplesB.add(tuple(columns, "/a/b/c1", "v1", "v2", "v3"));
+        tuplesB.add(tuple(columns, "/a/b/c2", "v1", "v2", "v3"));
+        tuplesB.add(tuple(columns, "/a/b/c3", "v4", "v5", "v6"));
+
+        component = new ExceptComponent(context, columns, selects, false, false);
+
+        final List<Object[]> results = component.execute();
+
+        // Should get no rows, since the only row in tuplesA is also in tuplesB
+        assertThat(results.size(), is(0));
+    }
 }
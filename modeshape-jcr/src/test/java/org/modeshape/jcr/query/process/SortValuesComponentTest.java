@@ -130,6 +130,58 @@ public class SortValuesComponentTest extends AbstractQueryResultsTest {
         assertThat(component.execute(), is(expected));
     }
 
+    @Test
+    public void shouldReturnOnlyFirstResultsOrderedByNodeDepthWhenMaximumNumberOfTuplesIsSpecified() {
+        orderings.add(orderByNodeDepth("Selector1"));
+        component = new SortValuesComponent(delegate, orderings, null, 3);
+        inputTuples.add(tuple(columns, "/a/b1", "v1", 100, "v4"));
+        inputTuples.add(tuple(columns, "/a/b2/c4", "v4", 100, "v3"));
+        inputTuples.add(tuple(columns, "/a", 100, 100, "v2"));
+        inputTuples.add(tuple(columns, "/a/b4/c3", "v3", 100, "v1"));
+        inputTuples.add(tuple(columns, "/a/b5", "v5", 100, "v5"));
+        inputTuples.add(tuple(columns, "/a/b6", "v6", 100, "v6"));
+        List<Object[]> expected = new ArrayList<Object[]>();
+        expected.add(inputTuples.get(2));
+        expected.add(inputTuples.get(0));
+        expected.add(inputTuples.get(4));
+        assertThat(component.execute(), is(expected));
+    }
+
+    @Test
+    public void shouldReturnAllResultsOrderedByNodeDepthWhenMaximumNumberOfTuplesExceedsNumberOfTuples() {
+        orderings.add(orderByNodeDepth("Selector1"));
+        component = new SortValuesComponent(delegate, orderings, null, 10);
+        inputTuples.add(tuple(columns, "/a/b1", "v1", 100, "v4"));
+        inputTuples.add(tuple(columns, "/a/b2/c4", "v4", 100, "v3"));
+        inputTuples.add(tuple(columns, "/a", 100, 100, "v2"));
+        inputTuples.add(tuple(columns, "/a/b4/c3", "v3", 100, "v1"));
+        List<Object[]> expected = new ArrayList<Object[]>();
+        expected.add(inputTuples.get(2));
+        expected.add(inputTuples.get(0));
+        expected.add(inputTuples.get(1));
+        expected.add(inputTuples.get(3));
+        assertThat(component.execute(), is(expected));
+    }
+
+    @Test
+    public void shouldReturnAllResultsOrderedByNodeDepthWhenThereAreMoreTuplesThanAreHeldInMemory() {
+        orderings.add(orderByNodeDepth("Selector1"));
+        component = new SortValuesComponent(delegate, orderings, null, Integer.MAX_VALUE, 2);
+        inputTuples.add(tuple(columns, "/a/b1", "v1", 100, "v4"));
+        inputTuples.add(tuple(columns, "/a/b2/c4", "v4", 100, "v3"));
+        inputTuples.add(tuple(columns, "/a", "v2", 100, "v2"));
+        inputTuples.add(tuple(columns, "/a/b4/c3", "v3", 100, "v1"));
+        inputTuples.add(tuple(columns, "/a/b5", "v5", 100, "v5"));
+        List<Object[]> results = component.execute();
+        component.close();
+        // The tuples written to temporary files are copies, so compare the values ...
+        String[] expectedValues = {"v2", "v1", "v5", "v4", "v3"};
+        assertThat(results.size(), is(expectedValues.length));
+        for (int i = 0; i != expectedValues.length; ++i) {
+            assertThat(results.get(i)[0], is((Object)expectedValues[i]));
+        }
+    }
+
     @Test
     public void shouldReturnAllResultsOrderedByNodePath() {
         orderings.add(orderByNodePath("Selector1"));
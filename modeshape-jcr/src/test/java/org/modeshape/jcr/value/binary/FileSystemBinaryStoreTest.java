@@ -31,6 +31,7 @@ import static org.junit.Assert.assertThat;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -38,6 +39,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
@@ -307,6 +309,76 @@ public class FileSystemBinaryStoreTest {
 
     }
 
+    @Test
+    public void shouldTransferStoredContentToFileChannel() throws Exception {
+        Binary binary = storeAndCheck(2, StoredBinaryValue.class);
+        File tempFile = File.createTempFile("transfertest", "txt");
+        try {
+            RandomAccessFile destinationRaf = new RandomAccessFile(tempFile, "rw");
+            try {
+                long transferred = store.transferTo(((StoredBinaryValue)binary).getKey(), destinationRaf.getChannel());
+                assertThat(transferred, is(binary.getSize()));
+            } finally {
+                destinationRaf.close();
+            }
+            assertThat(IoUtil.read(tempFile), is(CONTENT[2]));
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    @Test
+    public void shouldTransferBinaryContentToChannel() throws Exception {
+        for (int i = 0; i != CONTENT.length; ++i) {
+            Binary binary = storeAndCheck(i);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertThat(binary.transferTo(Channels.newChannel(output)), is(binary.getSize()));
+            assertThat(new String(output.toByteArray()), is(CONTENT[i]));
+        }
+    }
+
+    @Test
+    public void shouldOpenFileChannelToStoredContent() throws Exception {
+        Binary binary = storeAndCheck(3, StoredBinaryValue.class);
+        FileChannel channel = store.getFileChannel(((StoredBinaryValue)binary).getKey());
+        try {
+            assertThat(channel.size(), is(binary.getSize()));
+            assertThat(IoUtil.read(Channels.newInputStream(channel)), is(CONTENT[3]));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void shouldMapStoredContentIntoMemory() throws Exception {
+        Binary binary = storeAndCheck(4, StoredBinaryValue.class);
+        MappedByteBuffer buffer = store.getMappedContent(((StoredBinaryValue)binary).getKey());
+        assertThat(buffer.isReadOnly(), is(true));
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertThat(new String(bytes), is(CONTENT[4]));
+    }
+
+    @Test
+    public void shouldOpenFileChannelToContentInTrash() throws Exception {
+        Binary binary = storeAndCheck(5, StoredBinaryValue.class);
+        BinaryKey key = ((StoredBinaryValue)binary).getKey();
+        store.markAsUnused(Collections.singleton(key));
+        assertThat(countTrashFiles(), is(1));
+        FileChannel channel = store.getFileChannel(key);
+        try {
+            assertThat(channel.size(), is(binary.getSize()));
+        } finally {
+            channel.close();
+        }
+        assertThat(countTrashFiles(), is(0));
+    }
+
+    @Test( expected = BinaryStoreException.class )
+    public void shouldFailToOpenFileChannelToMissingContent() throws Exception {
+        store.getFileChannel(new BinaryKey(CONTENT_HASHES[1]));
+    }
+
     @Test
     public void multipleThreadsShouldReadTheSameFile() throws Exception {
         final String textBase = "The quick brown fox jumps over the lazy dog";
@@ -226,6 +226,11 @@ public class TestUtil {
             public String[] getSelectorNames() {
                 return null;
             }
+
+            @Override
+            public String getPlan() {
+                return null;
+            }
         };
         return qr;
     }
@@ -94,6 +94,11 @@ public final class HttpQueryResult implements QueryResult {
         return columns.values().toArray(new String[columns.size()]);
     }
 
+    @Override
+    public String getPlan() {
+        return null;
+    }
+
     private class HttpRowIterator implements RowIterator {
 
         private static final int EMPTY_CURSOR = -1;
@@ -205,11 +205,8 @@ public final class ModeShapeRestService {
         if (StringUtil.isBlank(contentDisposition)) {
             contentDisposition = binaryHandler.getDefaultContentDisposition(binaryProperty);
         }
-        /**
-         * TODO author=Horia Chiorean date=8/15/12 description=There is nasty RestEASY bug: https://issues.jboss.org/browse/RESTEASY-741
-         * so we need to be aware that with the current version the stream won't be closed.
-         */
-        Response.ResponseBuilder responseBuilder = Response.ok(binary.getStream(), mimeType);
+        // Stream the content directly to the response, which also avoids leaving the stream open (see RESTEASY-741) ...
+        Response.ResponseBuilder responseBuilder = Response.ok(binaryHandler.getBinaryContent(binary), mimeType);
         responseBuilder.header("Content-Disposition", contentDisposition);
         return responseBuilder.build();
     }
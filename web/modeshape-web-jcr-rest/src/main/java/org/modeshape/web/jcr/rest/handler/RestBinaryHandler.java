@@ -31,13 +31,17 @@ import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.web.jcr.rest.model.RestProperty;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 
 /**
  * Class which handles incoming requests related to {@link Binary binary values}
@@ -51,6 +55,7 @@ public final class RestBinaryHandler extends AbstractHandler {
      */
     public static final String DEFAULT_CONTENT_DISPOSITION_PREFIX = "attachment;filename=";
     private static final String DEFAULT_MIME_TYPE = MediaType.APPLICATION_OCTET_STREAM;
+    private static final int BINARY_BUFFER_SIZE = 1 << 16; // 64K
 
     /**
      * Returns a binary {@link Property} for the given repository, workspace and path.
@@ -105,6 +110,43 @@ public final class RestBinaryHandler extends AbstractHandler {
         }
     }
 
+    /**
+     * Returns the content of a binary value as a {@link StreamingOutput}, which writes the content directly to the response. When
+     * the value is a ModeShape {@link org.modeshape.jcr.api.Binary}, the content is transferred by the repository (e.g., from the
+     * file in which it is stored) rather than being copied through an intermediate stream, and in all cases the content is
+     * released once it has been written.
+     *
+     * @param binary a non-null {@link Binary}
+     * @return a non-null {@link StreamingOutput} which writes the content of the binary to the response.
+     */
+    public StreamingOutput getBinaryContent( final Binary binary ) {
+        return new StreamingOutput() {
+            @Override
+            public void write( OutputStream output ) throws IOException, WebApplicationException {
+                try {
+                    if (binary instanceof org.modeshape.jcr.api.Binary) {
+                        ((org.modeshape.jcr.api.Binary)binary).transferTo(Channels.newChannel(output));
+                        return;
+                    }
+                    InputStream stream = binary.getStream();
+                    try {
+                        byte[] buffer = new byte[BINARY_BUFFER_SIZE];
+                        int read = 0;
+                        while ((read = stream.read(buffer)) != -1) {
+                            output.write(buffer, 0, read);
+                        }
+                    } finally {
+                        stream.close();
+                    }
+                } catch (RepositoryException e) {
+                    throw new WebApplicationException(e);
+                } finally {
+                    binary.dispose();
+                }
+            }
+        };
+    }
+
     /**
      * Updates the {@link Property property} at the given path with the content from the given {@link InputStream}.
      *
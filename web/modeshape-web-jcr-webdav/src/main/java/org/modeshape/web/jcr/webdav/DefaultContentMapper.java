@@ -1,17 +1,22 @@
 package org.modeshape.web.jcr.webdav;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.servlet.ServletContext;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.webdav.ITransferableContent;
 
 /**
  * Implementation of the {@link ContentMapper} interface that maps webdav requests to JCR operations.
@@ -36,6 +41,8 @@ public class DefaultContentMapper implements ContentMapper {
     private static final String DEFAULT_NEW_RESOURCE_PRIMARY_TYPE = "nt:file";
     private static final String DEFAULT_NEW_CONTENT_PRIMARY_TYPE = "nt:resource";
 
+    private static final int BUFFER_SIZE = 1 << 16; // 64K
+
     private Collection<String> contentPrimaryTypes;
     private Collection<String> filePrimaryTypes;
     private String newFolderPrimaryType;
@@ -98,7 +105,11 @@ public class DefaultContentMapper implements ContentMapper {
     @Override
     public InputStream getResourceContent( Node node ) throws RepositoryException {
         if (!node.hasNode(CONTENT_NODE_NAME)) return null;
-        return node.getProperty(CONTENT_NODE_NAME + "/" + DATA_PROP_NAME).getBinary().getStream();
+        Binary binary = node.getProperty(CONTENT_NODE_NAME + "/" + DATA_PROP_NAME).getBinary();
+        if (binary instanceof org.modeshape.jcr.api.Binary) {
+            return new TransferableBinaryStream((org.modeshape.jcr.api.Binary)binary);
+        }
+        return binary.getStream();
     }
 
     @Override
@@ -199,4 +210,62 @@ public class DefaultContentMapper implements ContentMapper {
 
     }
 
+    /**
+     * A stream over the content of a ModeShape {@link org.modeshape.jcr.api.Binary}, which can also
+     * {@link #transferTo(WritableByteChannel) transfer} all of the content directly to a channel when none of the content has yet
+     * been read through the stream.
+     */
+    protected static class TransferableBinaryStream extends FilterInputStream implements ITransferableContent {
+        private final org.modeshape.jcr.api.Binary binary;
+        private boolean read = false;
+
+        protected TransferableBinaryStream( org.modeshape.jcr.api.Binary binary ) throws RepositoryException {
+            super(binary.getStream());
+            this.binary = binary;
+        }
+
+        @Override
+        public int read() throws IOException {
+            read = true;
+            return super.read();
+        }
+
+        @Override
+        public int read( byte[] b,
+                         int off,
+                         int len ) throws IOException {
+            read = true;
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip( long n ) throws IOException {
+            read = true;
+            return super.skip(n);
+        }
+
+        @Override
+        public long transferTo( WritableByteChannel target ) throws IOException {
+            if (read) {
+                // Some of the content has already been consumed, so just copy the rest ...
+                long count = 0L;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int numRead = 0;
+                while ((numRead = super.read(buffer, 0, buffer.length)) != -1) {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, numRead);
+                    while (bytes.hasRemaining()) {
+                        target.write(bytes);
+                    }
+                    count += numRead;
+                }
+                return count;
+            }
+            read = true;
+            try {
+                return binary.transferTo(target);
+            } catch (RepositoryException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
 }
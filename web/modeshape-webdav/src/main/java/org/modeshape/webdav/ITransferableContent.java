@@ -0,0 +1,21 @@
+package org.modeshape.webdav;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An optional interface for the content streams returned by {@link IWebdavStore#getResourceContent(ITransaction, String)}, which
+ * allows the store to write the content directly to a channel (e.g., from a file channel) rather than having the content read
+ * through the stream.
+ */
+public interface ITransferableContent {
+
+    /**
+     * Write all of the remaining content to the supplied channel.
+     * 
+     * @param target the channel to which the content is written; never null and not to be closed by this method
+     * @return the number of bytes written to the channel
+     * @throws IOException if there is a problem reading the content or writing to the channel
+     */
+    long transferTo( WritableByteChannel target ) throws IOException;
+}
@@ -18,7 +18,6 @@ package org.modeshape.webdav;
 import org.modeshape.common.i18n.TextI18n;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.webdav.exceptions.WebdavException;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -190,7 +189,8 @@ public class LocalFileSystemStore implements IWebdavStore {
 
         InputStream in;
         try {
-            in = new BufferedInputStream(new FileInputStream(file));
+            // Not buffered, so that the file's channel can be used to transfer the content ...
+            in = new FileInputStream(file);
         } catch (IOException e) {
             LOG.error(new TextI18n("LocalFileSystemStore.getResourceContent(" + uri + ") failed"));
             throw new WebdavException(e);
@@ -15,9 +15,12 @@
  */
 package org.modeshape.webdav.methods;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -26,8 +29,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.modeshape.common.i18n.TextI18n;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.webdav.IMimeTyper;
 import org.modeshape.webdav.ITransaction;
+import org.modeshape.webdav.ITransferableContent;
 import org.modeshape.webdav.IWebdavStore;
 import org.modeshape.webdav.StoredObject;
 import org.modeshape.webdav.WebdavStatus;
@@ -63,11 +68,20 @@ public class DoGet extends DoHead {
             OutputStream out = resp.getOutputStream();
             InputStream in = store.getResourceContent(transaction, path);
             try {
-                int read = -1;
-                byte[] copyBuffer = new byte[BUF_SIZE];
+                if (in instanceof ITransferableContent) {
+                    // The store can write the content directly ...
+                    ((ITransferableContent)in).transferTo(Channels.newChannel(out));
+                } else if (in instanceof FileInputStream) {
+                    // Let the file channel transfer the content, without reading it into our own buffer ...
+                    FileChannel channel = ((FileInputStream)in).getChannel();
+                    IoUtil.transfer(channel, channel.position(), Channels.newChannel(out));
+                } else {
+                    int read = -1;
+                    byte[] copyBuffer = new byte[BUF_SIZE];
 
-                while ((read = in.read(copyBuffer, 0, copyBuffer.length)) != -1) {
-                    out.write(copyBuffer, 0, read);
+                    while ((read = in.read(copyBuffer, 0, copyBuffer.length)) != -1) {
+                        out.write(copyBuffer, 0, read);
+                    }
                 }
             } finally {
                 // flushing causes a IOE if a file is opened on the webserver